@@ -28,21 +28,22 @@
 package fr.ign.cogit.geoxygene.appli.gl;
 
 import java.awt.Color;
-import java.awt.Point;
 import java.awt.geom.AffineTransform;
 import java.awt.geom.Point2D;
 import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
+import java.util.function.IntConsumer;
 
 import javax.vecmath.Point2d;
 import javax.vecmath.Vector2d;
@@ -55,57 +56,165 @@ import fr.ign.cogit.geoxygene.api.spatial.coordgeom.IPolygon;
 import fr.ign.cogit.geoxygene.api.spatial.geomprim.IRing;
 import fr.ign.cogit.geoxygene.style.texture.BinaryGradientImageDescriptor;
 import fr.ign.cogit.geoxygene.style.texture.TileDistributionTexture;
+import fr.ign.cogit.geoxygene.util.ParallelChunks;
 import fr.ign.cogit.geoxygene.util.gl.Sample;
 
 /**
  * @author JeT a texture image is used to project a polygon onto with distance
  *         and linear parameterization informations. each pixel contains texture
- *         coordinates and some temporary information
+ *         coordinates and some temporary information. Pixel values are stored
+ *         in parallel arrays indexed by x + y * width
  */
 public class BinaryGradientImage{
 
+    /**
+     * view on one pixel of a BinaryGradientImage. It only holds the pixel
+     * index, values are read and written in the image arrays
+     */
     public static class GradientPixel {
-        public double uTexture = 0;
-        public double vTexture = 0;
-        public double uTextureWeightSum = 0;
-        public double vTextureWeightSum = 0;
-        public double distance = -1.;
-        public double linearParameter = 0;
-        public int closestFrontier = 0; // 0: not defined -1: outer frontier -n:
-                                        // nth inner frontier
-        public Point2d closestPoint = null;
-        public boolean in = false; // pixel inside the polygon (frontier
-                                   // excluded)
-        public int frontier = 0; // pixel on the polygon boundary (border count)
-        public double weightSum = 0; // some elements are computed as a weighted
-                                     // average
-        public Point2d vGradient = null; // gradient component of v Value
-        public double mainDirection; //
-        public Sample sample = null; // associated sample (or null)
+        private final BinaryGradientImage image;
+        private final int index;
+
+        /**
+         * constructor
+         * 
+         * @param image
+         *            image containing the pixel
+         * @param index
+         *            pixel index (x + y * width)
+         */
+        public GradientPixel(final BinaryGradientImage image, final int index) {
+            this.image = image;
+            this.index = index;
+        }
+
+        /**
+         * @return the pixel index (x + y * width)
+         */
+        public int getIndex() {
+            return this.index;
+        }
+
+        public double getUTexture() {
+            return this.image.uTexture[this.index];
+        }
+
+        public void setUTexture(double uTexture) {
+            this.image.uTexture[this.index] = uTexture;
+        }
+
+        public double getVTexture() {
+            return this.image.vTexture[this.index];
+        }
+
+        public void setVTexture(double vTexture) {
+            this.image.vTexture[this.index] = vTexture;
+        }
+
+        public double getDistance() {
+            return this.image.distance[this.index];
+        }
+
+        public void setDistance(double distance) {
+            this.image.distance[this.index] = distance;
+        }
+
+        /**
+         * @return 0: not defined -1: outer frontier -n: nth inner frontier
+         */
+        public int getClosestFrontier() {
+            return this.image.closestFrontier[this.index];
+        }
+
+        public void setClosestFrontier(int closestFrontier) {
+            this.image.closestFrontier[this.index] = closestFrontier;
+        }
+
+        /**
+         * @return true if the pixel is inside the polygon (frontier excluded)
+         */
+        public boolean isIn() {
+            return this.image.in[this.index];
+        }
+
+        public void setIn(boolean in) {
+            this.image.in[this.index] = in;
+        }
+
+        /**
+         * @return pixel on the polygon boundary (border count)
+         */
+        public int getFrontier() {
+            return this.image.frontier[this.index];
+        }
+
+        public void setFrontier(int frontier) {
+            this.image.frontier[this.index] = frontier;
+        }
+
+        /**
+         * @return weight sum, some elements are computed as a weighted average
+         */
+        public double getWeightSum() {
+            return this.image.weightSum[this.index];
+        }
+
+        public void setWeightSum(double weightSum) {
+            this.image.weightSum[this.index] = weightSum;
+        }
 
         /**
-         * default constructor
+         * @return gradient component of v Value or null if not computed
          */
-        public GradientPixel() {
-        }
-
-        public GradientPixel(final GradientPixel src) {
-            this.uTexture = src.uTexture;
-            this.vTexture = src.vTexture;
-            this.uTextureWeightSum = src.uTextureWeightSum;
-            this.vTextureWeightSum = src.vTextureWeightSum;
-            this.distance = src.distance;
-            this.linearParameter = src.linearParameter;
-            this.closestFrontier = src.closestFrontier;
-            this.closestPoint = src.closestPoint == null ? null : new Point2d(
-                    src.closestPoint);
-            this.in = src.in;
-            this.frontier = src.frontier;
-            this.weightSum = src.weightSum;
-            this.vGradient = src.vGradient == null ? null : new Point2d(
-                    src.vGradient);
-            this.mainDirection = src.mainDirection;
-            this.sample = src.sample;
+        public Point2d getVGradient() {
+            double x = this.image.vGradientX[this.index];
+            if (Double.isNaN(x)) {
+                return null;
+            }
+            return new Point2d(x, this.image.vGradientY[this.index]);
+        }
+
+        /**
+         * @param vGradient
+         *            gradient component of v Value (null to unset it)
+         */
+        public void setVGradient(Point2d vGradient) {
+            if (vGradient == null) {
+                this.setVGradient(Double.NaN, Double.NaN);
+            } else {
+                this.setVGradient(vGradient.x, vGradient.y);
+            }
+        }
+
+        public void setVGradient(double x, double y) {
+            this.image.vGradientX[this.index] = x;
+            this.image.vGradientY[this.index] = y;
+        }
+
+        public double getMainDirection() {
+            return this.image.mainDirection[this.index];
+        }
+
+        public void setMainDirection(double mainDirection) {
+            this.image.mainDirection[this.index] = mainDirection;
+        }
+
+        /**
+         * @return associated sample (or null)
+         */
+        public Sample getSample() {
+            return this.image.samples == null ? null
+                    : this.image.samples[this.index];
+        }
+
+        public void setSample(Sample sample) {
+            if (this.image.samples == null) {
+                if (sample == null) {
+                    return;
+                }
+                this.image.samples = new Sample[this.image.size];
+            }
+            this.image.samples[this.index] = sample;
         }
 
         /*
@@ -115,21 +224,35 @@ public class BinaryGradientImage{
          */
         @Override
         public String toString() {
-            return "TexturePixel [uTexture=" + this.uTexture + ", vTexture="
-                    + this.vTexture + ", distance=" + this.distance
-                    + ", linearParameter=" + this.linearParameter
-                    + ", closestFrontier=" + this.closestFrontier + ", in="
-                    + this.in + ", frontier=" + this.frontier + ", v-gradient="
-                    + this.vGradient + ", sample=" + this.sample + "]";
+            return "TexturePixel [uTexture=" + this.getUTexture()
+                    + ", vTexture=" + this.getVTexture() + ", distance="
+                    + this.getDistance() + ", closestFrontier="
+                    + this.getClosestFrontier() + ", in=" + this.isIn()
+                    + ", frontier=" + this.getFrontier() + ", v-gradient="
+                    + this.getVGradient() + ", sample=" + this.getSample()
+                    + "]";
         }
     }
 
     private int width = 0;
     private int height = 0;
     private int size = 0; // width * height
-    private GradientPixel[] pixels = null;
+    // pixel values, null if the image has less than 2 pixels
+    double[] uTexture = null;
+    double[] vTexture = null;
+    double[] distance = null;
+    int[] closestFrontier = null;
+    boolean[] in = null;
+    int[] frontier = null;
+    double[] weightSum = null;
+    double[] vGradientX = null; // NaN when the gradient is not defined
+    double[] vGradientY = null;
+    double[] mainDirection = null;
+    Sample[] samples = null; // allocated with the first sample
     private static final Logger logger = Logger
             .getLogger(BinaryGradientImage.class.getName()); // logger
+    // threads used by the image computations (current thread if 1)
+    private static int nbThreads = ParallelChunks.getDefaultThreads();
     public Double uMin = null;
     public Double uMax = null;
     public Double vMin = null;
@@ -138,6 +261,34 @@ public class BinaryGradientImage{
     public Double dMax = null;
 
 
+    /**
+     * @return number of threads used by the gradient image computations
+     */
+    public static int getNbThreads() {
+        return nbThreads;
+    }
+
+    /**
+     * @param nbThreads
+     *            number of threads used by the gradient image computations
+     *            (current thread if 1)
+     */
+    public static void setNbThreads(int nbThreads) {
+        BinaryGradientImage.nbThreads = nbThreads;
+    }
+
+    /**
+     * Runs body for each index of [start, end[ on the configured threads
+     */
+    static void parallelFor(final int start, final int end,
+            final IntConsumer body) {
+        ParallelChunks.forEach(end - start, nbThreads, (s, e) -> {
+            for (int k = start + s; k < start + e; k++) {
+                body.accept(k);
+            }
+        });
+    }
+
     /**
      * constructor
      * 
@@ -171,11 +322,12 @@ public class BinaryGradientImage{
         }
         // that's not really a good idea to set the gradient here. But sometimes
         // (one pixel width lines) gradient cannot be computed...
-        if (pixel.vGradient == null) {
-            pixel.vGradient = new Point2d(0, 0);
+        Point2d vGradient = pixel.getVGradient();
+        if (vGradient == null) {
+            vGradient = new Point2d(0, 0);
+            pixel.setVGradient(vGradient);
         }
-        Point2D rotation = new Point2D.Double(pixel.vGradient.x,
-                pixel.vGradient.y);
+        Point2D rotation = new Point2D.Double(vGradient.x, vGradient.y);
         AffineTransform transform = new AffineTransform(); // from tile to image
                                                            // pixel coordinates
         transform.translate(x - width / 2., y - height / 2.);
@@ -196,13 +348,26 @@ public class BinaryGradientImage{
         this.width = width;
         this.height = height;
         this.size = width * height;
+        this.samples = null;
         if (this.size <= 1) {
-            this.pixels = null;
+            this.uTexture = this.vTexture = this.distance = this.weightSum = null;
+            this.vGradientX = this.vGradientY = this.mainDirection = null;
+            this.closestFrontier = this.frontier = null;
+            this.in = null;
         } else {
-            this.pixels = new GradientPixel[this.size];
-            for (int l = 0; l < this.size; l++) {
-                this.pixels[l] = new GradientPixel();
-            }
+            this.uTexture = new double[this.size];
+            this.vTexture = new double[this.size];
+            this.distance = new double[this.size];
+            Arrays.fill(this.distance, -1.);
+            this.closestFrontier = new int[this.size];
+            this.in = new boolean[this.size];
+            this.frontier = new int[this.size];
+            this.weightSum = new double[this.size];
+            this.vGradientX = new double[this.size];
+            Arrays.fill(this.vGradientX, Double.NaN);
+            this.vGradientY = new double[this.size];
+            Arrays.fill(this.vGradientY, Double.NaN);
+            this.mainDirection = new double[this.size];
         }
 
     }
@@ -277,35 +442,30 @@ public class BinaryGradientImage{
         double vMax = -Double.MAX_VALUE;
         double dMin = Double.MAX_VALUE;
         double dMax = -Double.MAX_VALUE;
-        for (int y = 0; y < this.getHeight(); y++) {
-            for (int x = 0; x < this.getWidth(); x++) {
-                GradientPixel pixel = this.getPixel(x, y);
-                // System.err.println("calcul distance d = " + pixel.distance +
-                // " min = " + dMin + " max = " + dMax);
-                if (pixel.uTexture < uMin) {
-                    uMin = pixel.uTexture;
-                }
-                if (pixel.uTexture > uMax
-                        && pixel.uTexture != Double.POSITIVE_INFINITY
-                        && pixel.uTexture != Double.MAX_VALUE) {
-                    uMax = pixel.uTexture;
-                }
-                if (pixel.vTexture < vMin) {
-                    vMin = pixel.vTexture;
-                }
-                if (pixel.vTexture > vMax
-                        && pixel.vTexture != Double.POSITIVE_INFINITY
-                        && pixel.vTexture != Double.MAX_VALUE) {
-                    vMax = pixel.vTexture;
-                }
-                if (pixel.distance < dMin) {
-                    dMin = pixel.distance;
-                }
-                if (pixel.distance > dMax
-                        && pixel.distance != Double.POSITIVE_INFINITY
-                        && pixel.distance != Double.MAX_VALUE) {
-                    dMax = pixel.distance;
-                }
+        for (int i = 0; i < this.size && this.uTexture != null; i++) {
+            double u = this.uTexture[i];
+            double v = this.vTexture[i];
+            double d = this.distance[i];
+            if (u < uMin) {
+                uMin = u;
+            }
+            if (u > uMax && u != Double.POSITIVE_INFINITY
+                    && u != Double.MAX_VALUE) {
+                uMax = u;
+            }
+            if (v < vMin) {
+                vMin = v;
+            }
+            if (v > vMax && v != Double.POSITIVE_INFINITY
+                    && v != Double.MAX_VALUE) {
+                vMax = v;
+            }
+            if (d < dMin) {
+                dMin = d;
+            }
+            if (d > dMax && d != Double.POSITIVE_INFINITY
+                    && d != Double.MAX_VALUE) {
+                dMax = d;
             }
         }
         this.uMin = new Double(uMin);
@@ -344,19 +504,10 @@ public class BinaryGradientImage{
         if (x < 0 || x >= this.getWidth() || y < 0 || y >= this.getHeight()) {
             return null;
         }
-        if (this.pixels == null) {
-            return null;
-        }
-        try {
-            return this.pixels[x + y * this.getWidth()];
-        } catch (ArrayIndexOutOfBoundsException e) {
-            logger.error("try to get pixel " + x + "x" + y + " = "
-                    + (x + y * this.getHeight()) + " <? " + this.pixels.length
-                    + " / " + this.pixels.length + " = "
-                    + ((x + y * this.getHeight()) < this.size) + " "
-                    + this.getWidth() + "x" + this.getHeight());
+        if (this.uTexture == null) {
             return null;
         }
+        return new GradientPixel(this, x + y * this.getWidth());
     }
 
     // /**
@@ -376,13 +527,6 @@ public class BinaryGradientImage{
     // return this.polygon;
     // }
 
-    /**
-     * get all pixels
-     */
-    public GradientPixel[] getPixels() {
-        return this.pixels;
-    }
-
     /**
      * Draw a line using bresenham algorithm in image
      * 
@@ -516,42 +660,37 @@ public class BinaryGradientImage{
         //   - compute the distance field from the region boundary,
         //   - compute a directional gradient 
         if (params.maxCoastlineLength != -1){
-          Set<Point> modifiedPixels = new HashSet<Point>();
+          // FIXME: HACK: frontier pixels with an infinite distance are not
+          // seeds (for the sea outside borders not to be considered as sea
+          // edges)
+          clearInfiniteDistanceFrontiers(gradientImage);
 
-          // FIXME: HACK: remove long edges (for the sea outside borders not to be
-          // considered as sea edges)
-          modifiedPixels = getModifiedPixelsButInfiniteDistancePixels(
-                  gradientImage, pixelRenderer.getModifiedPixels());
-
-          while (!modifiedPixels.isEmpty()) {
-            modifiedPixels = fillTextureCoordinates4(gradientImage,
-                modifiedPixels, params.getImageToPolygonFactorX(),
-                params.getImageToPolygonFactorY());
-          }
+          fillDistanceField(gradientImage, params.getImageToPolygonFactorX(),
+              params.getImageToPolygonFactorY());
           
           fillVWithDistance(gradientImage);
           // vGradient is used to align the textures along the coast line directions
           computeGradient(gradientImage);
 
         } else {
-          int w = params.getWidth();
-          int h = params.getHeight();
+          final int w = params.getWidth();
+          final BinaryGradientImage image = gradientImage;
 
           // normalized propagation direction
-          Vector2d direction = new Vector2d(
+          final Vector2d direction = new Vector2d(
               Math.cos(params.orientationInRadians), 
               Math.sin(params.orientationInRadians));
 
-          for (int y = 0; y < h; y++) {
-            for (int x = 0; x < w; x++) {
-              GradientPixel pixel = gradientImage.getPixel(x, y);
-              if (pixel.in) {
+          parallelFor(0, params.getHeight(), y -> {
+            for (int x = 0, i = y * w; x < w; x++, i++) {
+              if (image.in[i]) {
                 // compute the orthogonal distance between pixelPos and the line orthogonal to direction and passing by (0,0)
-                pixel.distance  = Math.abs(new Vector2d(x, y).dot(direction));
-                pixel.vGradient = new Point2d(direction.x, direction.y);
+                image.distance[i] = Math.abs(x * direction.x + y * direction.y);
+                image.vGradientX[i] = direction.x;
+                image.vGradientY[i] = direction.y;
               }
             }
-          }
+          });
           fillVWithDistance(gradientImage);          
         }
 
@@ -566,45 +705,46 @@ public class BinaryGradientImage{
         return gradientImage;
     }
 
-    private static void computeGradient(BinaryGradientImage texImage) {
-        for (int y = 0; y < texImage.getHeight(); y++) {
-            for (int x = 0; x < texImage.getWidth(); x++) {
-                GradientPixel pixel = texImage.getPixel(x, y);
-                if (pixel.in) {
+    private static void computeGradient(final BinaryGradientImage texImage) {
+        final int w = texImage.getWidth();
+        parallelFor(0, texImage.getHeight(), y -> {
+            for (int x = 0; x < w; x++) {
+                int i = x + y * w;
+                if (texImage.in[i]) {
                     // pixel.vGradient = new
                     // Point2d(Math.cos(pixel.mainDirection),
                     // Math.sin(pixel.mainDirection));
-                    pixel.vGradient = computeGradient(texImage, x, y);
+                    computeGradient(texImage, x, y);
                 } else {
-                    pixel.vGradient = null;
+                    texImage.vGradientX[i] = Double.NaN;
+                    texImage.vGradientY[i] = Double.NaN;
                 }
             }
-        }
+        });
     }
 
-    private static Point2d computeGradient(BinaryGradientImage image, int x,
+    private static void computeGradient(BinaryGradientImage image, int x,
             int y) {
-        GradientPixel p = image.getPixel(x, y);
-        GradientPixel pxp1 = image.getPixel(x + 1, y);
-        GradientPixel pxm1 = image.getPixel(x - 1, y);
-        GradientPixel pyp1 = image.getPixel(x, y + 1);
-        GradientPixel pym1 = image.getPixel(x, y - 1);
+        int w = image.getWidth();
+        int i = x + y * w;
+        double[] v = image.vTexture;
         double dx = 0, dy = 0;
-        if (pxp1 != null && pxm1 != null) {
-            dx = pxp1.vTexture - pxm1.vTexture;
-        } else if (pxp1 == null && pxm1 != null) {
-            dx = p.vTexture - pxm1.vTexture;
-        } else if (pxm1 == null && pxp1 != null) {
-            dx = pxp1.vTexture - p.vTexture;
-        }
-        if (pyp1 != null && pym1 != null) {
-            dy = pyp1.vTexture - pym1.vTexture;
-        } else if (pyp1 == null && pym1 != null) {
-            dy = p.vTexture - pym1.vTexture;
-        } else if (pym1 == null && pyp1 != null) {
-            dy = pyp1.vTexture - p.vTexture;
-        }
-        return new Point2d(-dy, dx);
+        if (x + 1 < w && x > 0) {
+            dx = v[i + 1] - v[i - 1];
+        } else if (x > 0) {
+            dx = v[i] - v[i - 1];
+        } else if (x + 1 < w) {
+            dx = v[i + 1] - v[i];
+        }
+        if (y + 1 < image.getHeight() && y > 0) {
+            dy = v[i + w] - v[i - w];
+        } else if (y > 0) {
+            dy = v[i] - v[i - w];
+        } else if (y + 1 < image.getHeight()) {
+            dy = v[i + w] - v[i];
+        }
+        image.vGradientX[i] = -dy;
+        image.vGradientY[i] = dx;
     }
 
     /**
@@ -613,11 +753,8 @@ public class BinaryGradientImage{
      */
     private static void scaleV(BinaryGradientImage image, double maxDistance) {
         // fill yTexture coordinates as distance / maxDistance for any pixel
-        for (int y = 0; y < image.getHeight(); y++) {
-            for (int x = 0; x < image.getWidth(); x++) {
-                GradientPixel pixel = image.getPixel(x, y);
-                pixel.vTexture = pixel.distance / maxDistance;
-            }
+        for (int i = 0; i < image.size; i++) {
+            image.vTexture[i] = image.distance[i] / maxDistance;
         }
     }
 
@@ -627,97 +764,122 @@ public class BinaryGradientImage{
      */
     private static void fillVWithDistance(BinaryGradientImage image) {
         // fill yTexture coordinates as distance / maxDistance for any pixel
-        for (int y = 0; y < image.getHeight(); y++) {
-            for (int x = 0; x < image.getWidth(); x++) {
-                GradientPixel pixel = image.getPixel(x, y);
-                pixel.vTexture = pixel.distance;
-            }
-        }
+        System.arraycopy(image.distance, 0, image.vTexture, 0, image.size);
     }
 
     /**
-     * Modify the neighbors pixel distance according to the current pixel
-     * distance
+     * Exact euclidean distance transform (Felzenszwalb & Huttenlocher, 2012).
+     * Seeds are the frontier pixels with a null distance. Each inner pixel
+     * receives the distance to its closest seed and the uTexture value of this
+     * seed. Rows then columns are processed in parallel, the cost is linear
+     * in the number of pixels.
      * 
-     * @param set
+     * @param pixelWidth
+     *            distance between two horizontal neighbors
+     * @param pixelHeight
+     *            distance between two vertical neighbors
      */
-    private static Set<Point> fillTextureCoordinates4(
-            BinaryGradientImage image, Set<Point> set, final double pixelWidth,
-            final double pixelHeight) {
-        // System.err.println(modifiedPixels.size() + " modified pixels");
-        HashSet<Point> newlyModifiedPixels = new HashSet<Point>();
-        for (Point p : set) {
-            GradientPixel pixel = image.getPixel(p.x, p.y);
-            if (pixel == null) {
-                throw new IllegalStateException(
-                        "modified pixels cannot be outside image ... " + p.x
-                                + "x" + p.y);
+    static void fillDistanceField(final BinaryGradientImage image,
+            final double pixelWidth, final double pixelHeight) {
+        final int w = image.getWidth();
+        final int h = image.getHeight();
+        // squared distance to the closest seed of the same row and x of this
+        // seed (-1 if the row has no seed)
+        final double[] rowDistance = new double[image.size];
+        final int[] rowSeed = new int[image.size];
+        parallelFor(0, h, y -> {
+            int offset = y * w;
+            int last = -1;
+            for (int x = 0; x < w; x++) {
+                if (isSeed(image, offset + x)) {
+                    last = x;
+                }
+                rowSeed[offset + x] = last;
+            }
+            last = -1;
+            for (int x = w - 1; x >= 0; x--) {
+                int i = offset + x;
+                if (rowSeed[i] == x) {
+                    last = x;
+                } else if (last != -1
+                        && (rowSeed[i] == -1 || last - x < x - rowSeed[i])) {
+                    rowSeed[i] = last;
+                }
+                double d = (x - rowSeed[i]) * pixelWidth;
+                rowDistance[i] = rowSeed[i] == -1 ? Double.POSITIVE_INFINITY
+                        : d * d;
+            }
+        });
+        // lower envelope of the parabolas centered on each row of a column
+        parallelFor(0, w, x -> {
+            int[] v = new int[h];
+            double[] z = new double[h + 1];
+            int k = -1;
+            for (int q = 0; q < h; q++) {
+                double fq = rowDistance[x + q * w];
+                if (fq == Double.POSITIVE_INFINITY) {
+                    continue;
+                }
+                double pq = q * pixelHeight;
+                double s = Double.NEGATIVE_INFINITY;
+                while (k >= 0) {
+                    double pv = v[k] * pixelHeight;
+                    s = (fq + pq * pq - rowDistance[x + v[k] * w] - pv * pv)
+                            / (2 * (pq - pv));
+                    if (s > z[k]) {
+                        break;
+                    }
+                    k--;
+                }
+                k++;
+                v[k] = q;
+                z[k] = k == 0 ? Double.NEGATIVE_INFINITY : s;
+                z[k + 1] = Double.POSITIVE_INFINITY;
+            }
+            if (k < 0) {
+                // no seed at all in the image
+                return;
+            }
+            k = 0;
+            for (int q = 0; q < h; q++) {
+                double pq = q * pixelHeight;
+                while (z[k + 1] < pq) {
+                    k++;
+                }
+                int i = x + q * w;
+                if (!image.in[i] || rowSeed[i] == x) {
+                    continue;
+                }
+                int closest = x + v[k] * w;
+                double dy = pq - v[k] * pixelHeight;
+                image.distance[i] = Math.sqrt(dy * dy + rowDistance[closest]);
+                image.uTexture[i] = image.uTexture[rowSeed[closest] + v[k] * w];
             }
-            double distance = pixel.distance;
-            fillTextureCoordinates(image, distance + pixelWidth,
-                    pixel.uTexture, new Point(p.x - 1, p.y),
-                    newlyModifiedPixels);
-            fillTextureCoordinates(image, distance + pixelWidth,
-                    pixel.uTexture, new Point(p.x + 1, p.y),
-                    newlyModifiedPixels);
-            fillTextureCoordinates(image, distance + pixelHeight,
-                    pixel.uTexture, new Point(p.x, p.y - 1),
-                    newlyModifiedPixels);
-            fillTextureCoordinates(image, distance + pixelHeight,
-                    pixel.uTexture, new Point(p.x, p.y + 1),
-                    newlyModifiedPixels);
-        }
-        return newlyModifiedPixels;
+        });
     }
 
     /**
-     * Modify the specified pixel with the given distance if it is smaller than
-     * the current stored
-     * 
-     * @param d
-     *            distance to try to set to current pixel
-     * @param point
-     *            current point to try to set distance
-     * @param newlyModifiedPixels
-     *            pixel position is added to this list if this pixel distance
-     *            value has been modified
+     * a seed of the distance field is a frontier pixel with a finite distance
      */
-    private static boolean fillTextureCoordinates(BinaryGradientImage texImage,
-            double d, double uTexture, Point p, Set<Point> newlyModifiedPixels) {
-        GradientPixel pixel = texImage.getPixel(p.x, p.y);
-        if (pixel == null) {
-            return false;
-        }
-        if (pixel.in && pixel.distance > d) {
-            pixel.distance = d;
-            pixel.uTexture = uTexture;
-            newlyModifiedPixels.add(p);
-            return true;
-        }
-        return false;
+    private static boolean isSeed(BinaryGradientImage image, int i) {
+        return image.frontier[i] != 0
+                && image.distance[i] != Double.POSITIVE_INFINITY;
     }
 
     /**
-     * Remove all pixels which have an infinite distance from the modified
-     * pixels.
-     * 
-     * @param modifiedPixels
-     * @return
+     * Reset texture coordinates of frontier pixels which have an infinite
+     * distance.
      */
-    private static Set<Point> getModifiedPixelsButInfiniteDistancePixels(
-            BinaryGradientImage texImage, Set<Point> modifiedPixels) {
-        Set<Point> nonInfiniteModifiedPixels = new HashSet<Point>();
-        for (Point p : modifiedPixels) {
-            GradientPixel pixel = texImage.getPixel(p.x, p.y);
-            if (pixel.distance != Double.POSITIVE_INFINITY) {
-                nonInfiniteModifiedPixels.add(p);
-            } else {
-                pixel.uTexture = 0;
-                pixel.vTexture = 0;
+    private static void clearInfiniteDistanceFrontiers(
+            BinaryGradientImage texImage) {
+        for (int i = 0; i < texImage.size; i++) {
+            if (texImage.frontier[i] != 0
+                    && texImage.distance[i] == Double.POSITIVE_INFINITY) {
+                texImage.uTexture[i] = 0;
+                texImage.vTexture[i] = 0;
             }
         }
         texImage.invalidateUVBounds();
-        return nonInfiniteModifiedPixels;
     }
 
     /**
@@ -744,9 +906,9 @@ public class BinaryGradientImage{
                 for (int x = x1; x <= x2; x++) {
                     GradientPixel pixel = texImage.getPixel(x, y);
                     if (pixel != null) {
-                        pixel.in = true;
-                        if (pixel.frontier == 0) {
-                            pixel.distance = Double.MAX_VALUE;
+                        pixel.setIn(true);
+                        if (pixel.getFrontier() == 0) {
+                            pixel.setDistance(Double.MAX_VALUE);
                         }
                     } else {
                         logger.warn("forget unknown pixel " + x + "x" + y
@@ -1019,17 +1181,17 @@ public class BinaryGradientImage{
         for (int y = 0; y < image.getHeight(); y++) {
             for (int x = 0; x < image.getWidth(); x++) {
                 GradientPixel pixel = image.getPixel(x, y);
-                if (pixel.closestFrontier != 0) {
+                if (pixel.getClosestFrontier() != 0) {
                     bi.setRGB(x, y, cborder.getRGB());
-                } else if (pixel.distance == Double.POSITIVE_INFINITY
-                        || pixel.distance == Double.MAX_VALUE) {
+                } else if (pixel.getDistance() == Double.POSITIVE_INFINITY
+                        || pixel.getDistance() == Double.MAX_VALUE) {
                     bi.setRGB(x, y, Color.red.getRGB());
-                } else if (!pixel.in) {
+                } else if (!pixel.isIn()) {
                     bi.setRGB(x, y, Color.black.getRGB());
                 } else {
                     float v = (float) Math.max(0,
-                            Math.min(1, pixel.distance / image.getdMax()));
-                    // System.err.println("v = " + v + " d = " + pixel.distance
+                            Math.min(1, pixel.getDistance() / image.getdMax()));
+                    // System.err.println("v = " + v + " d = " + pixel.getDistance()
                     // + " dMax = " + image.getdMax());
                     Color c = new Color(c1.getRed() / 255f * (1 - v) + v
                             * c2.getRed() / 255f, c1.getGreen() / 255f
@@ -1050,16 +1212,16 @@ public class BinaryGradientImage{
         for (int y = 0; y < image.getHeight(); y++) {
             for (int x = 0; x < image.getWidth(); x++) {
                 GradientPixel pixel = image.getPixel(x, y);
-                if (pixel.closestFrontier != 0) {
+                if (pixel.getClosestFrontier() != 0) {
                     bi.setRGB(x, y, Color.yellow.getRGB());
-                } else if (pixel.distance == Double.POSITIVE_INFINITY
-                        || pixel.distance == Double.MAX_VALUE) {
+                } else if (pixel.getDistance() == Double.POSITIVE_INFINITY
+                        || pixel.getDistance() == Double.MAX_VALUE) {
                     bi.setRGB(x, y, Color.red.getRGB());
-                } else if (!pixel.in) {
+                } else if (!pixel.isIn()) {
                     bi.setRGB(x, y, Color.black.getRGB());
                 } else {
                     float v = (float) Math.max(0,
-                            Math.min(1, pixel.distance / image.getdMax()));
+                            Math.min(1, pixel.getDistance() / image.getdMax()));
                     Color c = Color.getHSBColor(v, 1f, 1f);
                     bi.setRGB(x, y, c.getRGB());
                 }
@@ -1076,16 +1238,16 @@ public class BinaryGradientImage{
         for (int y = 0; y < image.getHeight(); y++) {
             for (int x = 0; x < image.getWidth(); x++) {
                 GradientPixel pixel = image.getPixel(x, y);
-                if (pixel.closestFrontier != 0) {
+                if (pixel.getClosestFrontier() != 0) {
                     bi.setRGB(x, y, Color.yellow.getRGB());
-                } else if (pixel.distance == Double.POSITIVE_INFINITY
-                        || pixel.distance == Double.MAX_VALUE) {
+                } else if (pixel.getDistance() == Double.POSITIVE_INFINITY
+                        || pixel.getDistance() == Double.MAX_VALUE) {
                     bi.setRGB(x, y, Color.red.getRGB());
-                } else if (!pixel.in) {
+                } else if (!pixel.isIn()) {
                     bi.setRGB(x, y, Color.black.getRGB());
                 } else {
 
-                    float v = ((int) (pixel.distance / image.getdMax() * nbStrips)) % 2;
+                    float v = ((int) (pixel.getDistance() / image.getdMax() * nbStrips)) % 2;
                     bi.setRGB(x, y, new Color(v, v, v).getRGB());
                 }
             }
@@ -1100,10 +1262,10 @@ public class BinaryGradientImage{
         for (int y = 0; y < image.getHeight(); y++) {
             for (int x = 0; x < image.getWidth(); x++) {
                 GradientPixel pixel = image.getPixel(x, y);
-                if (!pixel.in) {
+                if (!pixel.isIn()) {
                     bi.setRGB(x, y, Color.black.getRGB());
                 } else {
-                    double u = (pixel.uTexture - image.getuMin())
+                    double u = (pixel.getUTexture() - image.getuMin())
                             / (image.getuMax() - image.getuMin());
                     Color c = Color.getHSBColor((float) u, 1f, 1f);
                     bi.setRGB(x, y, c.getRGB());
@@ -1129,12 +1291,12 @@ public class BinaryGradientImage{
         for (int y = 0; y < image.getHeight(); y++) {
             for (int x = 0; x < image.getWidth(); x++) {
                 GradientPixel pixel = image.getPixel(x, y);
-                if (!pixel.in) {
+                if (!pixel.isIn()) {
                     bi.setRGB(x, y, Color.black.getRGB());
                 } else {
-                    double u = (pixel.uTexture - image.getuMin())
+                    double u = (pixel.getUTexture() - image.getuMin())
                             / (image.getuMax() - image.getuMin());
-                    double v = (pixel.vTexture - image.getvMin())
+                    double v = (pixel.getVTexture() - image.getvMin())
                             / (image.getvMax() - image.getvMin());
                     Color c = Color.getHSBColor((float) u, 1f, (float) v);
                     bi.setRGB(x, y, c.getRGB());
@@ -1159,12 +1321,13 @@ public class BinaryGradientImage{
       for (int y = 0; y < image.getHeight(); y++) {
           for (int x = 0; x < image.getWidth(); x++) {
               GradientPixel pixel = image.getPixel(x, y);
-              if (!pixel.in) {
+              if (!pixel.isIn()) {
                   bi.setRGB(x, y, Color.black.getRGB());
               } else {
-                double norm = pixel.vGradient.distance(new Point2d(0,0));
-                double u    = (pixel.vGradient.x / norm) * 0.5 + 0.5;
-                double v    = (pixel.vGradient.y / norm) * 0.5 + 0.5;
+                Point2d vGradient = pixel.getVGradient();
+                double norm = vGradient.distance(new Point2d(0,0));
+                double u    = (vGradient.x / norm) * 0.5 + 0.5;
+                double v    = (vGradient.y / norm) * 0.5 + 0.5;
                 bi.setRGB(x, y, new Color((float)u,(float)v,0.f).getRGB());
               }
           }
@@ -1179,7 +1342,7 @@ public class BinaryGradientImage{
         DataInputStream dis = null;
         try {
             is = new FileInputStream(gradientFile);
-            dis = new DataInputStream(is);
+            dis = new DataInputStream(new BufferedInputStream(is));
 
             int width = dis.readInt();
             int height = dis.readInt();
@@ -1190,11 +1353,8 @@ public class BinaryGradientImage{
                 logger.error("An error occurred allocating " + width + "x"
                         + height + " Gradient image from " + gradientFile);
             }
-            for (int y = 0; y < height; y++) {
-                for (int x = 0; x < width; x++) {
-                    GradientPixel pixel = img.getPixel(x, y);
-                    readTexturePixel(pixel, dis);
-                }
+            for (int i = 0; i < width * height; i++) {
+                readTexturePixel(img, i, dis);
             }
 
         } finally {
@@ -1216,17 +1376,13 @@ public class BinaryGradientImage{
         DataOutputStream dos = null;
         try {
             fos = new FileOutputStream(gradientFile);
-            dos = new DataOutputStream(fos);
+            dos = new DataOutputStream(new BufferedOutputStream(fos));
 
             dos.writeInt(img.getWidth());
             dos.writeInt(img.getHeight());
 
-            for (int y = 0; y < img.getHeight(); y++) {
-                for (int x = 0; x < img.getWidth(); x++) {
-                    GradientPixel pixel = img.getPixel(x, y);
-                    writeTexturePixel(pixel, dos);
-
-                }
+            for (int i = 0; i < img.getWidth() * img.getHeight(); i++) {
+                writeTexturePixel(img, i, dos);
             }
 
             dos.flush();
@@ -1241,57 +1397,57 @@ public class BinaryGradientImage{
         }
     }
 
-    private static void writeTexturePixel(GradientPixel pixel,
+    /**
+     * The file format is unchanged since the pixels were stored as objects:
+     * the weight sums, the linear parameter and the closest point are no
+     * longer computed and are written as 0 / infinity
+     */
+    private static void writeTexturePixel(BinaryGradientImage img, int i,
             DataOutputStream dis) throws IOException {
-        dis.writeDouble(pixel.uTexture);
-        dis.writeDouble(pixel.vTexture);
-        dis.writeDouble(pixel.uTextureWeightSum);
-        dis.writeDouble(pixel.vTextureWeightSum);
-        dis.writeDouble(pixel.distance);
-        dis.writeDouble(pixel.linearParameter);
-        dis.writeInt(pixel.closestFrontier);
-        if (pixel.closestPoint != null) {
-            dis.writeDouble(pixel.closestPoint.x);
-            dis.writeDouble(pixel.closestPoint.y);
+        dis.writeDouble(img.uTexture[i]);
+        dis.writeDouble(img.vTexture[i]);
+        dis.writeDouble(0); // uTextureWeightSum
+        dis.writeDouble(0); // vTextureWeightSum
+        dis.writeDouble(img.distance[i]);
+        dis.writeDouble(0); // linearParameter
+        dis.writeInt(img.closestFrontier[i]);
+        dis.writeDouble(Double.POSITIVE_INFINITY); // closestPoint
+        dis.writeDouble(Double.POSITIVE_INFINITY);
+        dis.writeBoolean(img.in[i]);
+        dis.writeInt(img.frontier[i]);
+        dis.writeDouble(img.weightSum[i]);
+        if (!Double.isNaN(img.vGradientX[i])) {
+            dis.writeDouble(img.vGradientX[i]);
+            dis.writeDouble(img.vGradientY[i]);
         } else {
             dis.writeDouble(Double.POSITIVE_INFINITY);
             dis.writeDouble(Double.POSITIVE_INFINITY);
         }
-        dis.writeBoolean(pixel.in);
-        dis.writeInt(pixel.frontier);
-        dis.writeDouble(pixel.weightSum);
-        if (pixel.vGradient != null) {
-            dis.writeDouble(pixel.vGradient.x);
-            dis.writeDouble(pixel.vGradient.y);
-        } else {
-            dis.writeDouble(Double.POSITIVE_INFINITY);
-            dis.writeDouble(Double.POSITIVE_INFINITY);
-        }
-        dis.writeDouble(pixel.mainDirection);
-        pixel.sample = null;
+        dis.writeDouble(img.mainDirection[i]);
     }
 
-    private static void readTexturePixel(GradientPixel pixel,
+    private static void readTexturePixel(BinaryGradientImage img, int i,
             DataInputStream dis) throws IOException {
-        pixel.uTexture = dis.readDouble();
-        pixel.vTexture = dis.readDouble();
-        pixel.uTextureWeightSum = dis.readDouble();
-        pixel.vTextureWeightSum = dis.readDouble();
-        pixel.distance = dis.readDouble();
-        pixel.linearParameter = dis.readDouble();
-        pixel.closestFrontier = dis.readInt();
-        double x, y;
-        x = dis.readDouble();
-        y = dis.readDouble();
-        pixel.closestPoint = new Point2d(x, y);
-        pixel.in = dis.readBoolean();
-        pixel.frontier = dis.readInt();
-        pixel.weightSum = dis.readDouble();
-        x = dis.readDouble();
-        y = dis.readDouble();
-        pixel.vGradient = new Point2d(x, y);
-        pixel.mainDirection = dis.readDouble();
-        pixel.sample = null;
+        img.uTexture[i] = dis.readDouble();
+        img.vTexture[i] = dis.readDouble();
+        dis.readDouble(); // uTextureWeightSum
+        dis.readDouble(); // vTextureWeightSum
+        img.distance[i] = dis.readDouble();
+        dis.readDouble(); // linearParameter
+        img.closestFrontier[i] = dis.readInt();
+        dis.readDouble(); // closestPoint
+        dis.readDouble();
+        img.in[i] = dis.readBoolean();
+        img.frontier[i] = dis.readInt();
+        img.weightSum[i] = dis.readDouble();
+        double x = dis.readDouble();
+        double y = dis.readDouble();
+        if (x == Double.POSITIVE_INFINITY && y == Double.POSITIVE_INFINITY) {
+            x = y = Double.NaN; // gradient not defined
+        }
+        img.vGradientX[i] = x;
+        img.vGradientY[i] = y;
+        img.mainDirection[i] = dis.readDouble();
 
     }
 
@@ -61,47 +61,76 @@ public class BinaryGradientImageUtil {
      */
     public static void blurDistance(BinaryGradientImage image,
             int blurWindowHalfSize) {
-        for (int y = 0; y < image.getHeight(); y++) {
-            for (int x = 0; x < image.getWidth(); x++) {
-                GradientPixel pixel = image.getPixel(x, y);
-                pixel.distance = blurDistanceNeighborhood(image, x, y,
-                        blurWindowHalfSize);
+        final int w = image.getWidth();
+        final int h = image.getHeight();
+        final int size = w * h;
+        double[] weights = new double[size];
+        double[] distances = new double[size];
+        for (int i = 0; i < size; i++) {
+            if (image.in[i]) {
+                weights[i] = 1.;
+                distances[i] = image.distance[i];
             }
         }
+        final double[] weightTable = summedAreaTable(weights, w, h);
+        final double[] distanceTable = summedAreaTable(distances, w, h);
+        final int b = blurWindowHalfSize;
+        BinaryGradientImage.parallelFor(0, h, y -> {
+            for (int x = 0; x < w; x++) {
+                double neighborsWeightSum = boxSum(weightTable, w, h, x - b,
+                        y - b, x + b, y + b);
+                double blurredDistance = boxSum(distanceTable, w, h, x - b,
+                        y - b, x + b, y + b);
+                image.distance[x + y * w] = neighborsWeightSum > 1E-6 ? blurredDistance
+                        / neighborsWeightSum
+                        : blurredDistance;
+            }
+        });
     }
 
     /**
-     * Compute the blurred value of a given window centered at (x,y)
+     * Summed area table of the given values: the sum of values[0..x]x[0..y] is
+     * stored at index (x + 1) + (y + 1) * (width + 1). Rows are accumulated in
+     * parallel, then columns.
      * 
-     * @param image
-     *            pixel content
-     * @param x
-     *            blur window center
-     * @param y
-     *            blur window center
-     * @param blurWindowHalfSize
-     *            half size of the blur window
-     * @return
+     * @param values
+     *            pixel values indexed by x + y * width
      */
-    private static double blurDistanceNeighborhood(BinaryGradientImage image,
-            int x, int y, int blurWindowHalfSize) {
-        double neighborsWeightSum = 0.;
-        double blurredDistance = 0;
-        for (int dy = -blurWindowHalfSize; dy <= blurWindowHalfSize; dy++) {
-
-            for (int dx = -blurWindowHalfSize; dx <= blurWindowHalfSize; dx++) {
-                double neighborWeight = 1.;
-                GradientPixel neighbor = image.getPixel(x + dx, y + dy);
-                if (neighbor != null && neighbor.in) {
-                    blurredDistance += neighbor.distance;
-                    neighborsWeightSum += neighborWeight;
-                }
+    private static double[] summedAreaTable(final double[] values,
+            final int width, final int height) {
+        final int w1 = width + 1;
+        final double[] table = new double[w1 * (height + 1)];
+        BinaryGradientImage.parallelFor(0, height, y -> {
+            double sum = 0;
+            for (int x = 0; x < width; x++) {
+                sum += values[x + y * width];
+                table[x + 1 + (y + 1) * w1] = sum;
             }
+        });
+        BinaryGradientImage.parallelFor(1, w1, x -> {
+            for (int y = 1; y <= height; y++) {
+                table[x + y * w1] += table[x + (y - 1) * w1];
+            }
+        });
+        return table;
+    }
+
+    /**
+     * sum of the values in the window [x1..x2]x[y1..y2] clipped by the image
+     * bounds
+     */
+    private static double boxSum(double[] table, int width, int height,
+            int x1, int y1, int x2, int y2) {
+        x1 = Math.max(0, x1);
+        y1 = Math.max(0, y1);
+        x2 = Math.min(width - 1, x2) + 1;
+        y2 = Math.min(height - 1, y2) + 1;
+        if (x1 >= x2 || y1 >= y2) {
+            return 0;
         }
-        if (neighborsWeightSum > 1E-6) {
-            return blurredDistance / neighborsWeightSum;
-        }
-        return blurredDistance;
+        int w1 = width + 1;
+        return table[x2 + y2 * w1] - table[x1 + y2 * w1]
+                - table[x2 + y1 * w1] + table[x1 + y1 * w1];
     }
 
     /**
@@ -112,47 +141,178 @@ public class BinaryGradientImageUtil {
      */
     public static void rescaleTextureCoordinates(BinaryGradientImage image,
             double uScaleFactor, double vScaleFactor) {
-        for (int y = 0; y < image.getHeight(); y++) {
-            for (int x = 0; x < image.getWidth(); x++) {
-                GradientPixel pixel = image.getPixel(x, y);
-                if (pixel.in) {
-                    pixel.uTexture *= uScaleFactor;
-                    pixel.vTexture *= vScaleFactor;
-                }
+        for (int i = 0; i < image.getWidth() * image.getHeight(); i++) {
+            if (image.in[i]) {
+                image.uTexture[i] *= uScaleFactor;
+                image.vTexture[i] *= vScaleFactor;
             }
         }
 
     }
 
-    public static void blurTextureCoordinates(BinaryGradientImage image,
+    /**
+     * Blur texture coordinates with a square window reduced around each pixel
+     * so that no outer pixel lies on its row or column (the reduced half size
+     * is the smallest min(|dx|,|dy|) of the outer pixels of the full window).
+     * Windows are summed with summed area tables of the values computed before
+     * blurring, the cost does not depend on the window size. As when the
+     * values were summed one by one, a window with one Double.MAX_VALUE
+     * (unreached) v value gets (Double.MAX_VALUE + sum) / weight and a window
+     * with several ones gets an infinite v value.
+     * 
+     * @param image
+     *            image to blur
+     * @param blurWindowHalfSize
+     *            maximum half size of the blur square
+     */
+    public static void blurTextureCoordinates(final BinaryGradientImage image,
             int blurWindowHalfSize) {
         image.invalidateUVBounds();
-        for (int y = 0; y < image.getHeight(); y++) {
-            for (int x = 0; x < image.getWidth(); x++) {
-                GradientPixel pixel = image.getPixel(x, y);
-                // find the largest Half Window Size fully in gradient image
-                // polygon
-                int halfSize = blurWindowHalfSize;
-                for (int y2 = y - blurWindowHalfSize; y2 <= y
-                        + blurWindowHalfSize; y2++) {
-                    for (int x2 = x - blurWindowHalfSize; x2 <= x
-                            + blurWindowHalfSize; x2++) {
-                        GradientPixel neighbor = image.getPixel(x2, y2);
-                        if (neighbor == null || !neighbor.in) {
-                            halfSize = Math.min(halfSize, Math.min(
-                                    Math.abs(x2 - x), Math.abs(y2 - y)));
-                        }
-                    }
+        final int w = image.getWidth();
+        final int h = image.getHeight();
+        final int size = w * h;
+        if (image.in == null) {
+            return;
+        }
+        final int[] halfSizes = blurHalfSizes(image, blurWindowHalfSize);
+
+        final double uMin = image.getuMin();
+        final double uMax = image.getuMax();
+        double[] weights = new double[size];
+        double[] vs = new double[size];
+        double[] cosU = new double[size];
+        double[] sinU = new double[size];
+        // pixels which have not been reached by the distance field, counted
+        // apart so that they do not hide the other values of the sums
+        double[] unbounded = new double[size];
+        for (int i = 0; i < size; i++) {
+            if ((image.in[i] || image.frontier[i] != 0)
+                    && image.vTexture[i] != Double.POSITIVE_INFINITY) {
+                weights[i] = 1.;
+                if (image.vTexture[i] == Double.MAX_VALUE) {
+                    unbounded[i] = 1.;
+                } else {
+                    vs[i] = image.vTexture[i];
                 }
-
-                // blur using computed half size
-                Point2d textureCoordinates = blurTextureCoordinatesNeighborhood(
-                        image, x, y, halfSize);
-                pixel.uTexture = textureCoordinates.x;
-                pixel.vTexture = textureCoordinates.y;
+                double uNormalized = (image.uTexture[i] - uMin)
+                        / (uMax - uMin);
+                cosU[i] = Math.cos(PI2 * uNormalized);
+                sinU[i] = Math.sin(PI2 * uNormalized);
             }
         }
+        final double[] weightTable = summedAreaTable(weights, w, h);
+        final double[] vTable = summedAreaTable(vs, w, h);
+        final double[] cosTable = summedAreaTable(cosU, w, h);
+        final double[] sinTable = summedAreaTable(sinU, w, h);
+        final double[] unboundedTable = summedAreaTable(unbounded, w, h);
+        weights = vs = cosU = sinU = unbounded = null;
+
+        BinaryGradientImage.parallelFor(0, h, y -> {
+            for (int x = 0; x < w; x++) {
+                int i = x + y * w;
+                int b = halfSizes[i];
+                double blurredUcos = boxSum(cosTable, w, h, x - b, y - b, x
+                        + b, y + b);
+                double blurredUsin = boxSum(sinTable, w, h, x - b, y - b, x
+                        + b, y + b);
+                double neighborsWeightSum = boxSum(weightTable, w, h, x - b,
+                        y - b, x + b, y + b);
+                double blurredV = boxSum(vTable, w, h, x - b, y - b, x + b, y
+                        + b);
+                double blurredU = 0;
+                if (Math.abs(blurredUcos) > 1E-6) {
+                    blurredU = Math.atan2(blurredUsin, blurredUcos) / PI2;
+                }
+                image.uTexture[i] = blurredU * (uMax - uMin) + uMax;
+                double nbUnbounded = boxSum(unboundedTable, w, h, x - b, y
+                        - b, x + b, y + b);
+                if (nbUnbounded > 1.5) {
+                    // Double.MAX_VALUE + Double.MAX_VALUE overflows
+                    image.vTexture[i] = Double.POSITIVE_INFINITY;
+                } else if (nbUnbounded > 0.5) {
+                    image.vTexture[i] = (Double.MAX_VALUE + blurredV)
+                            / neighborsWeightSum;
+                } else if (neighborsWeightSum > 1E-6) {
+                    image.vTexture[i] = blurredV / neighborsWeightSum;
+                } else {
+                    image.vTexture[i] = blurredV;
+                }
+            }
+        });
+
+    }
 
+    /**
+     * For each pixel, the largest half size h <= blurWindowHalfSize such that
+     * every outer pixel (out of the polygon or of the image) at (dx,dy) in the
+     * full window verifies min(|dx|,|dy|) >= h.
+     */
+    static int[] blurHalfSizes(final BinaryGradientImage image,
+            final int blurWindowHalfSize) {
+        final int w = image.getWidth();
+        final int h = image.getHeight();
+        final int b = blurWindowHalfSize;
+        // rowOut: an outer pixel lies on the row in [x-b..x+b]
+        // columnOut: an outer pixel lies on the column in [y-b..y+b]
+        final boolean[] rowOut = new boolean[w * h];
+        final boolean[] columnOut = new boolean[w * h];
+        BinaryGradientImage.parallelFor(0, h, y -> {
+            int[] outCount = new int[w + 1];
+            for (int x = 0; x < w; x++) {
+                outCount[x + 1] = outCount[x] + (image.in[x + y * w] ? 0 : 1);
+            }
+            for (int x = 0; x < w; x++) {
+                rowOut[x + y * w] = x - b < 0 || x + b >= w
+                        || outCount[x + b + 1] - outCount[x - b] > 0;
+            }
+        });
+        BinaryGradientImage.parallelFor(0, w, x -> {
+            int[] outCount = new int[h + 1];
+            for (int y = 0; y < h; y++) {
+                outCount[y + 1] = outCount[y] + (image.in[x + y * w] ? 0 : 1);
+            }
+            for (int y = 0; y < h; y++) {
+                columnOut[x + y * w] = y - b < 0 || y + b >= h
+                        || outCount[y + b + 1] - outCount[y - b] > 0;
+            }
+        });
+        // distance to the closest flagged row (resp. column), the rows and
+        // columns out of the image being flagged
+        final int[] halfSizes = new int[w * h];
+        BinaryGradientImage.parallelFor(0, w, x -> {
+            int previous = -1;
+            for (int y = 0; y < h; y++) {
+                if (rowOut[x + y * w]) {
+                    previous = y;
+                }
+                halfSizes[x + y * w] = Math.min(b, y - previous);
+            }
+            int next = h;
+            for (int y = h - 1; y >= 0; y--) {
+                if (rowOut[x + y * w]) {
+                    next = y;
+                }
+                halfSizes[x + y * w] = Math.min(halfSizes[x + y * w], next - y);
+            }
+        });
+        BinaryGradientImage.parallelFor(0, h, y -> {
+            int previous = -1;
+            for (int x = 0; x < w; x++) {
+                if (columnOut[x + y * w]) {
+                    previous = x;
+                }
+                halfSizes[x + y * w] = Math.min(halfSizes[x + y * w], x
+                        - previous);
+            }
+            int next = w;
+            for (int x = w - 1; x >= 0; x--) {
+                if (columnOut[x + y * w]) {
+                    next = x;
+                }
+                halfSizes[x + y * w] = Math.min(halfSizes[x + y * w], next - x);
+            }
+        });
+        return halfSizes;
     }
 
     public static Point2d blurTextureCoordinatesNeighborhood(
@@ -166,11 +326,12 @@ public class BinaryGradientImageUtil {
             for (int dx = -blurWindowHalfSize; dx <= blurWindowHalfSize; dx++) {
                 double neighborWeight = 1.;
                 GradientPixel neighbor = image.getPixel(x + dx, y + dy);
-                if (neighbor != null && (neighbor.in || neighbor.frontier != 0)
-                        && neighbor.vTexture != Double.POSITIVE_INFINITY) {
-                    blurredV += neighbor.vTexture * neighborWeight;
-                    double uNormalized = (neighbor.uTexture - image.getuMin())
-                            / (image.getuMax() - image.getuMin());
+                if (neighbor != null
+                        && (neighbor.isIn() || neighbor.getFrontier() != 0)
+                        && neighbor.getVTexture() != Double.POSITIVE_INFINITY) {
+                    blurredV += neighbor.getVTexture() * neighborWeight;
+                    double uNormalized = (neighbor.getUTexture() - image
+                            .getuMin()) / (image.getuMax() - image.getuMin());
                     blurredUcos += Math.cos(PI2 * uNormalized);
                     blurredUsin += Math.sin(PI2 * uNormalized);
                     neighborsWeightSum += neighborWeight;
@@ -227,7 +388,7 @@ public class BinaryGradientImageUtil {
         for (int y = 0; y < image.getHeight(); y++) {
             for (int x = 0; x < image.getWidth(); x++) {
                 GradientPixel pixel = image.getPixel(x, y);
-                double d = pixel.distance;
+                double d = pixel.getDistance();
                 if (d > maxD) {
                     maxD = d;
                 }
@@ -240,20 +401,20 @@ public class BinaryGradientImageUtil {
         for (int y = 0; y < image.getHeight(); y++) {
             for (int x = 0; x < image.getWidth(); x++) {
                 GradientPixel pixel = image.getPixel(x, y);
-                int rValue = (int) (255. * (pixel.distance - minD) / (maxD - minD));
+                int rValue = (int) (255. * (pixel.getDistance() - minD) / (maxD - minD));
                 rValue = Math.max(0, Math.min(255, rValue));
 
                 Color rgb = new Color(30, 30, 60);
-                if (pixel.in) {
+                if (pixel.isIn()) {
                     rgb = new Color(rValue, rValue, rValue);
                 }
-                if (pixel.frontier > 0) {
+                if (pixel.getFrontier() > 0) {
                     rgb = Color.yellow;
                 }
-                if (pixel.frontier < 0) {
+                if (pixel.getFrontier() < 0) {
                     rgb = Color.red;
                 }
-                // int rgb = pixel.frontier ? Color.black.getRGB() :
+                // int rgb = pixel.getFrontier() ? Color.black.getRGB() :
                 // Color.white.getRGB();
                 rgbImage.setRGB(x, y, rgb.getRGB());
             }
@@ -278,9 +439,9 @@ public class BinaryGradientImageUtil {
             for (int x = 0; x < image.getWidth(); x++) {
                 GradientPixel pixel = image.getPixel(x, y);
                 int rgb = 0;
-                if (pixel.in || pixel.frontier != 0) {
-                    double u = pixel.uTexture;
-                    double v = pixel.vTexture;
+                if (pixel.isIn() || pixel.getFrontier() != 0) {
+                    double u = pixel.getUTexture();
+                    double v = pixel.getVTexture();
                     rgb = Color.HSBtoRGB((float) u, (float) (1. - v), 1.f);
                 }
 
@@ -311,11 +472,11 @@ public class BinaryGradientImageUtil {
             for (int x = 0; x < image.getWidth(); x++) {
                 GradientPixel pixel = image.getPixel(x, y);
                 int rgb = 0;
-                if (pixel.in || pixel.frontier != 0) {
-                    int xTexture = (int) Math.abs(pixel.uTexture
+                if (pixel.isIn() || pixel.getFrontier() != 0) {
+                    int xTexture = (int) Math.abs(pixel.getUTexture()
                             * texture.getWidth())
                             % texture.getWidth();
-                    int yTexture = (int) Math.abs((1 - pixel.vTexture)
+                    int yTexture = (int) Math.abs((1 - pixel.getVTexture())
                             * texture.getHeight())
                             % texture.getHeight();
                     // System.err.println("pixel = " + pixel + " => " + xTexture
@@ -345,9 +506,9 @@ public class BinaryGradientImageUtil {
             for (int x = 0; x < image.getWidth(); x++) {
                 GradientPixel pixel = image.getPixel(x, y);
                 int rgb = 0;
-                if (pixel.in || pixel.frontier != 0) {
-                    double u = pixel.uTexture;
-                    double v = pixel.vTexture;
+                if (pixel.isIn() || pixel.getFrontier() != 0) {
+                    double u = pixel.getUTexture();
+                    double v = pixel.getVTexture();
                     rgb = Color.HSBtoRGB((float) u, (float) (1. - v), 1.f);
                     bufferedImage.setRGB(x, y, rgb);
                 }
@@ -368,9 +529,9 @@ public class BinaryGradientImageUtil {
             for (int x = 0; x < image.getWidth(); x++) {
                 GradientPixel pixel = image.getPixel(x, y);
                 int rgb = 0;
-                if (pixel.in || pixel.frontier != 0) {
-                    double u = pixel.uTexture;
-                    double v = pixel.vTexture;
+                if (pixel.isIn() || pixel.getFrontier() != 0) {
+                    double u = pixel.getUTexture();
+                    double v = pixel.getVTexture();
                     uMin = Math.min(uMin, u);
                     uMax = Math.max(uMax, u);
                     vMin = Math.min(vMin, v);
@@ -390,9 +551,9 @@ public class BinaryGradientImageUtil {
             for (int x = 0; x < image.getWidth(); x++) {
                 GradientPixel pixel = image.getPixel(x, y);
                 int rgb = 0;
-                if (pixel.in || pixel.frontier != 0) {
-                    double u = pixel.uTexture;
-                    double v = pixel.vTexture;
+                if (pixel.isIn() || pixel.getFrontier() != 0) {
+                    double u = pixel.getUTexture();
+                    double v = pixel.getVTexture();
                     float uf = (float) ((u - uMin) / (uMax - uMin));
                     Color uColor = new Color(
                             (int) (uMaxColor.getRed() * uf + uMinColor.getRed()
@@ -423,8 +584,8 @@ public class BinaryGradientImageUtil {
         for (int y = 0; y < image.getHeight(); y++) {
             for (int x = 0; x < image.getWidth(); x++) {
                 GradientPixel pixel = image.getPixel(x, y);
-                if (pixel.in || pixel.frontier != 0) {
-                    double v = pixel.vTexture;
+                if (pixel.isIn() || pixel.getFrontier() != 0) {
+                    double v = pixel.getVTexture();
                     vMin = Math.min(vMin, v);
                     vMax = Math.max(vMax, v);
                 }
@@ -442,8 +603,8 @@ public class BinaryGradientImageUtil {
             for (int x = 0; x < image.getWidth(); x++) {
                 GradientPixel pixel = image.getPixel(x, y);
                 int rgb = 0;
-                if (pixel.in || pixel.frontier != 0) {
-                    double v = pixel.vTexture;
+                if (pixel.isIn() || pixel.getFrontier() != 0) {
+                    double v = pixel.getVTexture();
                     float vf = (float) ((v - vMin) / (vMax - vMin));
                     rgb = new Color(
                             (int) (vMaxColor.getRed() * vf + vMinColor.getRed()
@@ -468,13 +629,13 @@ public class BinaryGradientImageUtil {
         for (int y = 0; y < image.getHeight(); y++) {
             for (int x = 0; x < image.getWidth(); x++) {
                 GradientPixel pixel = image.getPixel(x, y);
-                if (pixel.in || pixel.frontier != 0) {
-                    if (pixel.uTexture > 1. && pixel.uTexture < 0.
-                            || pixel.vTexture > 1. && pixel.vTexture < 0.) {
+                if (pixel.isIn() || pixel.getFrontier() != 0) {
+                    if (pixel.getUTexture() > 1. && pixel.getUTexture() < 0.
+                            || pixel.getVTexture() > 1. && pixel.getVTexture() < 0.) {
                         logger.warn("invalid texture coordinate for pixel " + x
                                 + "x" + y + " "
-                                + (pixel.in ? "in" : "frontier") + " => u="
-                                + pixel.uTexture + " v=" + pixel.vTexture);
+                                + (pixel.isIn() ? "in" : "frontier") + " => u="
+                                + pixel.getUTexture() + " v=" + pixel.getVTexture());
                     }
                 }
             }
@@ -503,12 +664,12 @@ public class BinaryGradientImageUtil {
                 // byteBuffer.putFloat((float) x / (float) image.getWidth());
                 // byteBuffer.putFloat((float) y / (float) image.getHeight());
                 GradientPixel pixel = image.getPixel(x, y);
-                if (pixel.in) {
+                if (pixel.isIn()) {
                     // System.err.println("uv texture (" + x + "," + y + ") = "
-                    // + pixel.uTexture + "x" + pixel.vTexture);
-                    byteBuffer.putFloat((float) Math.abs(pixel.uTexture)); // U
+                    // + pixel.getUTexture() + "x" + pixel.getVTexture());
+                    byteBuffer.putFloat((float) Math.abs(pixel.getUTexture())); // U
                                                                            // component
-                    byteBuffer.putFloat((float) Math.abs(pixel.vTexture)); // V
+                    byteBuffer.putFloat((float) Math.abs(pixel.getVTexture())); // V
                                                                            // component
                 } else {
                     byteBuffer.putFloat(-1f); // U component
@@ -531,10 +692,10 @@ public class BinaryGradientImageUtil {
 
     public static void displayPixel(BinaryGradientImage texImage, int i, int j) {
         GradientPixel pixel = texImage.getPixel(i, j);
-        System.err.println("pixel(" + i + "," + j + ") = " + pixel.uTexture
-                + "x" + pixel.vTexture + " "
-                + (pixel.in ? "inside" : "outside") + " frontier = "
-                + (pixel.frontier));
+        System.err.println("pixel(" + i + "," + j + ") = " + pixel.getUTexture()
+                + "x" + pixel.getVTexture() + " "
+                + (pixel.isIn() ? "inside" : "outside") + " frontier = "
+                + (pixel.getFrontier()));
     }
 
 }
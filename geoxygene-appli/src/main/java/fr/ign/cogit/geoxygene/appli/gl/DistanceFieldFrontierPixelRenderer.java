@@ -167,18 +167,17 @@ public class DistanceFieldFrontierPixelRenderer implements TexturePixelRenderer
             }
         }
 
-        pixel.closestFrontier = this.getCurrentFrontier();
-        pixel.distance = this.distanceToZero ? 0 : Double.POSITIVE_INFINITY;
-        pixel.closestPoint = null;
-        pixel.frontier = this.getCurrentFrontier();
-        pixel.mainDirection = Math.atan2(this.y2 - this.y1, this.x2 - this.x1);
+        pixel.setClosestFrontier(this.getCurrentFrontier());
+        pixel.setDistance(this.distanceToZero ? 0 : Double.POSITIVE_INFINITY);
+        pixel.setFrontier(this.getCurrentFrontier());
+        pixel.setMainDirection(Math.atan2(this.y2 - this.y1, this.x2 - this.x1));
         double alpha = Math.sqrt((x - this.x1) * (x - this.x1) + (y - this.y1) * (y - this.y1)) / this.lineLength;
-        pixel.uTexture = this.u1 + (this.u2 - this.u1) * alpha;
-        if (pixel.uTexture > this.uMax) {
-            this.uMax = pixel.uTexture;
+        pixel.setUTexture(this.u1 + (this.u2 - this.u1) * alpha);
+        if (pixel.getUTexture() > this.uMax) {
+            this.uMax = pixel.getUTexture();
         }
-        if (pixel.uTexture < this.uMin) {
-            this.uMin = pixel.uTexture;
+        if (pixel.getUTexture() < this.uMin) {
+            this.uMin = pixel.getUTexture();
         }
         // fills the list of modified pixels
         this.modifiedPixels.add(new Point(x, y));
@@ -0,0 +1,479 @@
+/**
+ * 
+ * This software is released under the licence CeCILL
+ * 
+ * see Licence_CeCILL-C_fr.html see Licence_CeCILL-C_en.html
+ * 
+ * see <a href="http://www.cecill.info/">http://www.cecill.info/a>
+ * 
+ * 
+ * @copyright IGN
+ * 
+ */
+package fr.ign.cogit.geoxygene.appli.plugin.density.tools;
+
+import java.awt.Transparency;
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.WritableRaster;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+
+import fr.ign.cogit.geoxygene.api.feature.IFeature;
+import fr.ign.cogit.geoxygene.api.feature.IFeatureCollection;
+import fr.ign.cogit.geoxygene.api.spatial.coordgeom.IDirectPosition;
+import fr.ign.cogit.geoxygene.api.spatial.coordgeom.IEnvelope;
+import fr.ign.cogit.geoxygene.api.spatial.geomroot.IGeometry;
+import fr.ign.cogit.geoxygene.util.ParallelChunks;
+import fr.ign.cogit.geoxygene.util.conversion.GeoTiffWriter;
+
+/**
+ * Grille a pas fixe dont les valeurs des mailles sont stockees dans un tableau.
+ * La maille [row, col] est a l'indice row * numCols + col, la ligne 0 etant
+ * au sud et la colonne 0 a l'ouest. Contrairement a {@link Grid}, toutes les
+ * mailles existent et la maille d'un point est obtenue directement.
+ * 
+ * @see Grid
+ */
+public class DenseGrid {
+
+  private double xMin;
+  private double yMin;
+
+  private int numRows;
+  private int numCols;
+
+  private double stepX;
+  private double stepY;
+
+  private double[] values;
+
+  /** nombre de threads des calculs sur la grille (thread courant si 1) */
+  private int nbThreads = ParallelChunks.getDefaultThreads();
+
+  /**
+   * Crée la grille en specifiant le nombre de ligne et de colonne.
+   * @param upperCorner - le coin superieur droit
+   * @param lowerCorner - le coin inferieur gauche
+   * @param numRows - le nombre de ligne
+   * @param numCols - le nombre de colonne
+   */
+  public DenseGrid(IDirectPosition upperCorner, IDirectPosition lowerCorner,
+      int numRows, int numCols) {
+    this(lowerCorner.getX(), lowerCorner.getY(),
+        (upperCorner.getX() - lowerCorner.getX()) / numCols,
+        (upperCorner.getY() - lowerCorner.getY()) / numRows, numRows, numCols);
+  }
+
+  /**
+   * Crée la grille a partir de son coin inferieur gauche et du pas des mailles.
+   * @param xMin - easting du coin inferieur gauche
+   * @param yMin - northing du coin inferieur gauche
+   * @param stepX - emprise en easting de la maille
+   * @param stepY - emprise en northing de la maille
+   * @param numRows - le nombre de ligne
+   * @param numCols - le nombre de colonne
+   */
+  public DenseGrid(double xMin, double yMin, double stepX, double stepY,
+      int numRows, int numCols) {
+    if (numRows <= 0 || numCols <= 0 || !(stepX > 0) || !(stepY > 0)) {
+      throw new IllegalArgumentException("Invalid grid " + numRows + "x"
+          + numCols + " step " + stepX + "x" + stepY);
+    }
+    this.xMin = xMin;
+    this.yMin = yMin;
+    this.stepX = stepX;
+    this.stepY = stepY;
+    this.numRows = numRows;
+    this.numCols = numCols;
+    this.values = new double[numRows * numCols];
+  }
+
+  /**
+   * Crée la grille couvrant l'emprise de la collection et y compte les
+   * centroides des objets.
+   * @param features - les objets a compter
+   * @param numRows - le nombre de ligne
+   * @param numCols - le nombre de colonne
+   * @return la grille des effectifs
+   */
+  public static DenseGrid count(IFeatureCollection<? extends IFeature> features,
+      int numRows, int numCols) {
+    IEnvelope env = features.getEnvelope();
+    DenseGrid grid = new DenseGrid(env.getUpperCorner(), env.getLowerCorner(),
+        numRows, numCols);
+    grid.accumulate(features);
+    return grid;
+  }
+
+  /**
+   * Retourne la colonne contenant l'easting x, ou -1 si x est hors de la
+   * grille. Le bord est de la grille appartient a la derniere colonne.
+   * @param x - l'easting
+   * @return la colonne
+   */
+  public int getCol(double x) {
+    return cell(x - this.xMin, this.stepX, this.numCols);
+  }
+
+  /**
+   * Retourne la ligne contenant le northing y, ou -1 si y est hors de la
+   * grille. Le bord nord de la grille appartient a la derniere ligne.
+   * @param y - le northing
+   * @return la ligne
+   */
+  public int getRow(double y) {
+    return cell(y - this.yMin, this.stepY, this.numRows);
+  }
+
+  private static int cell(double d, double step, int n) {
+    if (!(d >= 0)) {
+      return -1;
+    }
+    int i = (int) (d / step);
+    if (i < n) {
+      return i;
+    }
+    // tolerance d'arrondi sur le bord superieur
+    return d <= n * step * (1 + 1E-12) ? n - 1 : -1;
+  }
+
+  /**
+   * Retourne l'indice de la maille contenant le point, ou -1 s'il est hors de
+   * la grille.
+   * @param x - l'easting
+   * @param y - le northing
+   * @return row * numCols + col
+   */
+  public int getIndex(double x, double y) {
+    int row = this.getRow(y);
+    int col = this.getCol(x);
+    if (row < 0 || col < 0) {
+      return -1;
+    }
+    return row * this.numCols + col;
+  }
+
+  /**
+   * Ajoute un poids a la maille contenant le point.
+   * @param x - l'easting
+   * @param y - le northing
+   * @param weight - le poids a ajouter
+   * @return false si le point est hors de la grille
+   */
+  public boolean add(double x, double y, double weight) {
+    int index = this.getIndex(x, y);
+    if (index < 0) {
+      return false;
+    }
+    this.values[index] += weight;
+    return true;
+  }
+
+  /**
+   * Ajoute le point a la maille qui le contient.
+   * @param p - le point à ajouter
+   * @return false si le point est hors de la grille
+   */
+  public boolean addPoint(IDirectPosition p) {
+    return this.add(p.getX(), p.getY(), 1);
+  }
+
+  /**
+   * Compte les centroides des objets de la collection. Les objets sont
+   * decoupes en une tranche par thread, chaque thread comptant sa tranche
+   * dans son propre tableau ; les tableaux sont sommes a la fin.
+   * @param features - les objets a compter
+   * @return le nombre d'objets hors de la grille ou sans geometrie
+   */
+  public int accumulate(IFeatureCollection<? extends IFeature> features) {
+    final List<? extends IFeature> elements = features.getElements();
+    final int size = this.values.length;
+    final int nbThreads = this.nbThreads;
+    // la derniere case de chaque tableau compte les objets rejetes
+    List<double[]> counts = ParallelChunks.map(elements.size(), nbThreads,
+        nbThreads, (start, end) -> {
+          double[] acc = new double[size + 1];
+          for (int k = start; k < end; k++) {
+            IGeometry geom = elements.get(k).getGeom();
+            int index = -1;
+            if (geom != null && !geom.isEmpty()) {
+              IDirectPosition c = geom.centroid();
+              index = this.getIndex(c.getX(), c.getY());
+            }
+            acc[index < 0 ? size : index]++;
+          }
+          return acc;
+        });
+    int rejected = 0;
+    for (double[] acc : counts) {
+      for (int i = 0; i < size; i++) {
+        this.values[i] += acc[i];
+      }
+      rejected += (int) acc[size];
+    }
+    return rejected;
+  }
+
+  /**
+   * Estimation de la densite par noyau gaussien. Les effectifs sont convolues
+   * par le noyau (tronque a 3 ecarts-types, de somme egale a 1) ligne par
+   * ligne puis colonne par colonne, les lignes et les colonnes etant traitees
+   * en parallele. Le resultat est exprime en nombre de points par unite de
+   * surface. Il n'y a pas de correction de bord : la part du noyau qui sort de
+   * la grille est perdue, et la somme des densites fois l'aire d'une maille
+   * n'est egale au nombre de points que pour les points a plus de 3
+   * ecarts-types des bords.
+   * @param bandwidth - l'ecart-type du noyau, dans l'unite des coordonnees
+   * @return une nouvelle grille contenant la densite
+   */
+  public DenseGrid kde(double bandwidth) {
+    final double[] kx = gaussianKernel(bandwidth / this.stepX);
+    final double[] ky = gaussianKernel(bandwidth / this.stepY);
+    final int rx = kx.length / 2;
+    final int ry = ky.length / 2;
+    final int nR = this.numRows;
+    final int nC = this.numCols;
+    final double[] src = this.values;
+    final double[] tmp = new double[src.length];
+    ParallelChunks.forEach(nR, this.nbThreads, (start, end) -> {
+      for (int row = start; row < end; row++) {
+        int offset = row * nC;
+        for (int col = 0; col < nC; col++) {
+          double v = src[offset + col];
+          if (v == 0) {
+            continue;
+          }
+          int c1 = Math.max(0, col - rx);
+          int c2 = Math.min(nC - 1, col + rx);
+          for (int c = c1; c <= c2; c++) {
+            tmp[offset + c] += v * kx[c - col + rx];
+          }
+        }
+      }
+    });
+    DenseGrid density = new DenseGrid(this.xMin, this.yMin, this.stepX,
+        this.stepY, nR, nC);
+    density.setNbThreads(this.nbThreads);
+    final double[] dst = density.values;
+    final double area = this.stepX * this.stepY;
+    ParallelChunks.forEach(nC, this.nbThreads, (start, end) -> {
+      for (int col = start; col < end; col++) {
+        for (int row = 0; row < nR; row++) {
+          int r1 = Math.max(0, row - ry);
+          int r2 = Math.min(nR - 1, row + ry);
+          double sum = 0;
+          for (int r = r1; r <= r2; r++) {
+            sum += tmp[r * nC + col] * ky[r - row + ry];
+          }
+          dst[row * nC + col] = sum / area;
+        }
+      }
+    });
+    return density;
+  }
+
+  /**
+   * Noyau gaussien discret normalise (somme egale a 1).
+   * @param sigma - l'ecart-type en nombre de mailles
+   */
+  private static double[] gaussianKernel(double sigma) {
+    int radius = (int) Math.ceil(3 * sigma);
+    double[] kernel = new double[2 * radius + 1];
+    if (radius == 0) {
+      kernel[0] = 1;
+      return kernel;
+    }
+    double sum = 0;
+    for (int i = -radius; i <= radius; i++) {
+      kernel[i + radius] = Math.exp(-i * i / (2 * sigma * sigma));
+      sum += kernel[i + radius];
+    }
+    for (int i = 0; i < kernel.length; i++) {
+      kernel[i] /= sum;
+    }
+    return kernel;
+  }
+
+  /**
+   * Ecrit la grille au format ASCII grid (ESRI). Si les mailles ne sont pas
+   * carrees, les pas sont ecrits avec les mots cles dx et dy.
+   * @param file - le fichier a ecrire
+   * @throws IOException
+   */
+  public void writeASC(File file) throws IOException {
+    BufferedWriter w = new BufferedWriter(new FileWriter(file));
+    try {
+      w.write("ncols " + this.numCols + "\n");
+      w.write("nrows " + this.numRows + "\n");
+      w.write("xllcorner " + this.xMin + "\n");
+      w.write("yllcorner " + this.yMin + "\n");
+      if (this.stepX == this.stepY) {
+        w.write("cellsize " + this.stepX + "\n");
+      } else {
+        w.write("dx " + this.stepX + "\n");
+        w.write("dy " + this.stepY + "\n");
+      }
+      w.write("NODATA_value -9999\n");
+      // les lignes sont ecrites du nord au sud
+      for (int row = this.numRows - 1; row >= 0; row--) {
+        StringBuilder line = new StringBuilder();
+        for (int col = 0; col < this.numCols; col++) {
+          if (col > 0) {
+            line.append(' ');
+          }
+          line.append(this.values[row * this.numCols + col]);
+        }
+        w.write(line.append('\n').toString());
+      }
+    } finally {
+      w.close();
+    }
+  }
+
+  /**
+   * Ecrit la grille dans un GeoTIFF d'une bande en flottants.
+   * @param file - le chemin du fichier a ecrire
+   * @param crs - le systeme de reference (peut etre null)
+   */
+  public void writeGeoTiff(String file, CoordinateReferenceSystem crs) {
+    ComponentColorModel cm = new ComponentColorModel(
+        ColorSpace.getInstance(ColorSpace.CS_GRAY), false, false,
+        Transparency.OPAQUE, DataBuffer.TYPE_FLOAT);
+    WritableRaster raster = cm.createCompatibleWritableRaster(this.numCols,
+        this.numRows);
+    float[] line = new float[this.numCols];
+    for (int row = 0; row < this.numRows; row++) {
+      for (int col = 0; col < this.numCols; col++) {
+        line[col] = (float) this.values[row * this.numCols + col];
+      }
+      // la premiere ligne de l'image est au nord
+      raster.setPixels(0, this.numRows - 1 - row, this.numCols, 1, line);
+    }
+    BufferedImage image = new BufferedImage(cm, raster, false, null);
+    double[][] range = {
+        { this.xMin, this.xMin + this.numCols * this.stepX },
+        { this.yMin, this.yMin + this.numRows * this.stepY } };
+    GeoTiffWriter.writeGeoTiffImage(image, range, crs, file);
+  }
+
+  /**
+   * Retourne la valeur de la maille[row, col].
+   * @param row - le numero de la ligne
+   * @param col - le numero de la colonne
+   * @return la valeur
+   */
+  public double getValue(int row, int col) {
+    return this.values[row * this.numCols + col];
+  }
+
+  /**
+   * Modifie la valeur de la maille[row, col].
+   * @param row - le numero de la ligne
+   * @param col - le numero de la colonne
+   * @param value - la nouvelle valeur
+   */
+  public void setValue(int row, int col, double value) {
+    this.values[row * this.numCols + col] = value;
+  }
+
+  /**
+   * Retourne le tableau des valeurs, indexe par row * numCols + col.
+   * @return les valeurs des mailles
+   */
+  public double[] getValues() {
+    return this.values;
+  }
+
+  /**
+   * Remet toutes les mailles a 0.
+   */
+  public void clear() {
+    Arrays.fill(this.values, 0);
+  }
+
+  /**
+   * Retourne la plus grande valeur des mailles.
+   * @return le maximum
+   */
+  public double getMax() {
+    final double[] v = this.values;
+    double max = Double.NEGATIVE_INFINITY;
+    for (double m : ParallelChunks.map(v.length, this.nbThreads,
+        this.nbThreads, (start, end) -> {
+          double acc = Double.NEGATIVE_INFINITY;
+          for (int i = start; i < end; i++) {
+            acc = Math.max(acc, v[i]);
+          }
+          return acc;
+        })) {
+      max = Math.max(max, m);
+    }
+    return max;
+  }
+
+  /**
+   * Retourne la somme des valeurs des mailles.
+   * @return la somme
+   */
+  public double getSum() {
+    final double[] v = this.values;
+    double sum = 0;
+    for (double s : ParallelChunks.map(v.length, this.nbThreads,
+        this.nbThreads, (start, end) -> {
+          double acc = 0;
+          for (int i = start; i < end; i++) {
+            acc += v[i];
+          }
+          return acc;
+        })) {
+      sum += s;
+    }
+    return sum;
+  }
+
+  public double getXMin() {
+    return this.xMin;
+  }
+
+  public double getYMin() {
+    return this.yMin;
+  }
+
+  public double getStepX() {
+    return this.stepX;
+  }
+
+  public double getStepY() {
+    return this.stepY;
+  }
+
+  public int getNumRows() {
+    return this.numRows;
+  }
+
+  public int getNumCols() {
+    return this.numCols;
+  }
+
+  public int getNbThreads() {
+    return this.nbThreads;
+  }
+
+  /**
+   * @param nbThreads - le nombre de threads des calculs sur la grille
+   *          (thread courant si 1)
+   */
+  public void setNbThreads(int nbThreads) {
+    this.nbThreads = nbThreads;
+  }
+
+}
@@ -20,7 +20,8 @@ import fr.ign.cogit.geoxygene.api.spatial.coordgeom.IDirectPosition;
  * La classe Grid represente une grille a pas fixe et qui permet de determiner combien de points appartiennent a chaques mailles.
  * L'emprise est definie par le coin superieur droit et le coin inferieur gauche (upperCorner et lowerCorner).
  * La taille des mailles peut être definie en la specifiant directement (stepX, stepY) ou en specifiant un nombre de lignes et de colonnes.
- * Les mailles ne sont crées que si elles contiennent au moins un point.
+ * Les mailles ne sont crées que si elles contiennent au moins un point, elles sont indexées par ligne et colonne.
+ * Pour compter de grandes populations ou estimer une densité, voir {@link DenseGrid}.
  * 
  * @author Simon
  *
@@ -38,6 +39,9 @@ public class Grid extends Vector<Maille> {
   private double stepX;
   private double stepY;
   
+  /** Mailles indexées par row * (numCols + 1) + col */
+  private Maille[] index;
+  
   public static int nValid = 0;
   public static int nError = 0;
   
@@ -57,6 +61,7 @@ public class Grid extends Vector<Maille> {
     this.numCols = numCols;
     this.stepX = (upperCorner.getX()-lowerCorner.getX())/numCols;
     this.stepY = (upperCorner.getY()-lowerCorner.getY())/numRows;
+    this.index = new Maille[(numRows+1)*(numCols+1)];
   }
 
   /**
@@ -75,8 +80,9 @@ public class Grid extends Vector<Maille> {
     this.stepY = stepY;
     double eX = this.upperCorner.getX()-this.lowerCorner.getX();
     double eY = this.upperCorner.getY()-this.lowerCorner.getY();
-    this.numRows = (int)eX/(int)stepX +1;
-    this.numCols = (int)eY/(int)stepY +1;
+    this.numCols = (int)(eX/stepX) +1;
+    this.numRows = (int)(eY/stepY) +1;
+    this.index = new Maille[(numRows+1)*(numCols+1)];
   }
   
   /**
@@ -107,12 +113,13 @@ public class Grid extends Vector<Maille> {
   public Maille getMaille(int row, int col){
     if(row>numRows || col>numCols || row<0 || col<0)
       return null;
-    for (Maille m : this) {
-      if(m.getCol()==col && m.getRow()==row)
-        return m;
+    int i = row*(numCols+1)+col;
+    Maille m = index[i];
+    if(m==null){
+      m = new Maille(row, col);
+      index[i] = m;
+      add(m);
     }
-    Maille m = new Maille(row, col);
-    add(m);
     return m;
   }
   
@@ -183,7 +190,7 @@ public class Grid extends Vector<Maille> {
     if(stepX>0){
       this.stepX = stepX;
       double eX = this.upperCorner.getX()-this.lowerCorner.getX();
-      this.numCols = (int)eX/(int)stepX +1;
+      this.numCols = (int)(eX/stepX) +1;
       calcGrid();
     }
   }
@@ -197,7 +204,7 @@ public class Grid extends Vector<Maille> {
     if(stepY>0){
       this.stepY = stepY;
       double eY = this.upperCorner.getY()-this.lowerCorner.getY();
-      this.numRows = (int)eY/(int)stepY +1;
+      this.numRows = (int)(eY/stepY) +1;
       calcGrid();
     }
   }
@@ -229,11 +236,26 @@ public class Grid extends Vector<Maille> {
       }
     }
     this.removeAllElements();
+    this.index = new Maille[(numRows+1)*(numCols+1)];
     for (IDirectPosition p : v) {
       this.addPoint(p);
     }
   }
   
+  /**
+   * Retourne une grille dense de mêmes emprise et pas contenant l'effectif de chaque maille.
+   * @return la grille des effectifs
+   */
+  public DenseGrid toDenseGrid(){
+    DenseGrid dense = new DenseGrid(lowerCorner.getX(), lowerCorner.getY(), stepX, stepY, numRows, numCols);
+    for (Maille m : this) {
+      int row = Math.min(m.getRow(), numRows-1);
+      int col = Math.min(m.getCol(), numCols-1);
+      dense.setValue(row, col, dense.getValue(row, col)+m.size());
+    }
+    return dense;
+  }
+  
   /**
    * Retourne le nombre maximum de points contenu dans une maille
    * @return le nombre maximum de points contenu dans une maille
@@ -66,6 +66,7 @@ public class CriterePanel extends JPanel implements ActionListener {
 
   private JTextField distanceSelectionField = null;
   private double distanceSelection;
+  private JTextField toponymDistanceField = null;
 
   private ButtonGroup groupDecoupage;
   private JRadioButton radioCredibility;
@@ -176,6 +177,11 @@ public class CriterePanel extends JPanel implements ActionListener {
     pStock.setBackground(Color.WHITE);
     pStock.add(distanceSelectionField);
     pStock.add(new JLabel(" m"));
+    // Filtre optionnel sur le toponyme (vide : pas de filtre)
+    toponymDistanceField = new JTextField(2);
+    pStock.add(new JLabel(", toponyme à "));
+    pStock.add(toponymDistanceField);
+    pStock.add(new JLabel(" lettre(s) près"));
 
     add(pStock, cc.xy(4, 8));
 
@@ -513,6 +519,19 @@ public class CriterePanel extends JPanel implements ActionListener {
     return Double.parseDouble(distanceSelectionField.getText());
   }
 
+  /**
+   * @return la distance de Levenshtein maximale entre les toponymes des
+   *         candidats et celui de l'objet de référence, -1 si les candidats ne
+   *         sont pas filtrés par leur toponyme
+   */
+  public int getToponymDistanceSelection() {
+    String text = toponymDistanceField.getText().trim();
+    if (text.isEmpty()) {
+      return -1;
+    }
+    return Integer.parseInt(text);
+  }
+
   public String getLayerNameDataset1() {
     return this.comboListeJeu1.getSelectedItem().toString();
   }
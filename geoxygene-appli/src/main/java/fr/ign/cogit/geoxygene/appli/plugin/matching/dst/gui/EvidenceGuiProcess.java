@@ -35,6 +35,7 @@ import fr.ign.cogit.geoxygene.matching.dst.sources.Source;
 import fr.ign.cogit.geoxygene.matching.dst.sources.punctual.EuclidianDist;
 import fr.ign.cogit.geoxygene.matching.dst.sources.semantic.WuPalmerDistance;
 import fr.ign.cogit.geoxygene.matching.dst.sources.text.LevenshteinDist;
+import fr.ign.cogit.geoxygene.matching.dst.util.ToponymCandidates;
 import fr.ign.cogit.geoxygene.schema.schemaConceptuelISOJeu.AttributeType;
 import fr.ign.cogit.geoxygene.schema.schemaConceptuelISOJeu.FeatureType;
 import fr.ign.cogit.geoxygene.spatial.coordgeom.GM_LineString;
@@ -375,6 +376,15 @@ public class EvidenceGuiProcess {
     this.distanceSelection = criterePanel.getDistanceSelection();
     DST_LOGGER.info("Distance sélection candidat =  " + distanceSelection);
 
+    // Filtre des candidats par toponyme : les candidats sont indexés une fois
+    // pour toutes
+    int toponymDistance = criterePanel.getToponymDistanceSelection();
+    ToponymCandidates toponymCandidates = null;
+    if (toponymDistance >= 0) {
+      DST_LOGGER.info("Distance d'édition sélection candidat =  " + toponymDistance);
+      toponymCandidates = new ToponymCandidates(oronymePop, "NOM", "toponyme");
+    }
+
     // Set LIEN
   
     boolean closed = false;
@@ -389,12 +399,17 @@ public class EvidenceGuiProcess {
       for (IFeature point : pointReliefPop) {
 
         // On cherche les candidats
-        IPopulation<IFeature> popRef = new Population<IFeature>("Ref");
-        popRef.setFeatureType(point.getFeatureType());
-        popRef.add(point);
-  
-        IPopulation<IFeature> candidat = oronymePop
-            .selectionElementsProchesGenerale(popRef, distanceSelection);
+        List<IFeature> candidat;
+        if (toponymCandidates != null) {
+          candidat = toponymCandidates.select(point, toponymDistance,
+              distanceSelection);
+        } else {
+          IPopulation<IFeature> popRef = new Population<IFeature>("Ref");
+          popRef.setFeatureType(point.getFeatureType());
+          popRef.add(point);
+          candidat = oronymePop.selectionElementsProchesGenerale(popRef,
+              distanceSelection).getElements();
+        }
         int nbCandidat = candidat.size();
         // DST_LOGGER.info("   " + candidat.getElements().size() +
         // " candidat(s)");
@@ -418,7 +433,7 @@ public class EvidenceGuiProcess {
         // On lance l'appariement
         if (nbCandidat > 0) {
           EvidenceResult<GeomHypothesis> result = matching.runAppriou(criteria,
-              point, candidat.getElements(), ChoiceType.PIGNISTIC, closed);
+              point, candidat, ChoiceType.PIGNISTIC, closed);
   
           if (result != null && result.getHypothesis().size() > 0) {
   
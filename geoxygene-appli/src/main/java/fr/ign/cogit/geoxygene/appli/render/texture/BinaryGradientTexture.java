@@ -43,6 +43,8 @@ import static org.lwjgl.opengl.GL11.glTexParameteri;
 import java.net.URL;
 import java.nio.ByteBuffer;
 
+import javax.vecmath.Point2d;
+
 import org.apache.log4j.Logger;
 import org.lwjgl.BufferUtils;
 import org.lwjgl.opengl.GL11;
@@ -140,14 +142,15 @@ public class BinaryGradientTexture extends BasicTexture {
             for (int y = 0; y < height; y++) {
                 for (int x = 0; x < width; x++) {
                     GradientPixel pixel = gradientImage.getPixel(x, y);
-                    buffer.putFloat((float) ((pixel.uTexture - uMin) / uRange));
-                    buffer.putFloat((float) ((pixel.vTexture - vMin) / vRange));
+                    buffer.putFloat((float) ((pixel.getUTexture() - uMin) / uRange));
+                    buffer.putFloat((float) ((pixel.getVTexture() - vMin) / vRange));
                     // System.err.println("uvTexture = "
-                    // + (float) ((pixel.uTexture - uMin) / uRange) + "x"
-                    // + (float) ((pixel.vTexture - vMin) / vRange));
-                    if (pixel.vGradient != null) {
-                        buffer.putFloat((float) pixel.vGradient.x);
-                        buffer.putFloat((float) pixel.vGradient.y);
+                    // + (float) ((pixel.getUTexture() - uMin) / uRange) + "x"
+                    // + (float) ((pixel.getVTexture() - vMin) / vRange));
+                    Point2d vGradient = pixel.getVGradient();
+                    if (vGradient != null) {
+                        buffer.putFloat((float) vGradient.x);
+                        buffer.putFloat((float) vGradient.y);
                     } else {
                         // TODO: !! compute gradient !!
                         buffer.putFloat(0f);
@@ -71,11 +71,11 @@ public class DistanceTileProbability implements TileProbability {
      */
     public double getWeight(double x, double y) {
         GradientPixel pixel = this.image.getPixel((int) x, (int) y);
-        //        System.err.println("DistanceTileProbability pixel = " + pixel + " distance = " + pixel.distance);
-        if (pixel == null || pixel.distance == Double.NaN) {
+        //        System.err.println("DistanceTileProbability pixel = " + pixel + " distance = " + pixel.getDistance());
+        if (pixel == null || pixel.getDistance() == Double.NaN) {
             return this.outRangeProbability;
         }
-        if (pixel.distance >= this.distanceMin && pixel.distance <= this.distanceMax) {
+        if (pixel.getDistance() >= this.distanceMin && pixel.getDistance() <= this.distanceMax) {
             return this.inRangeProbability;
         }
         return this.outRangeProbability;
@@ -124,9 +124,9 @@ public class TextureImageSamplerMipMap implements SamplingAlgorithm {
                 }
                 Sample sample = new Sample(x, y, null);
                 Tile tile = this.tileChooser.getTile(sample);
-                if ((pixel.in || pixel.frontier != 0) && tile != null) {
+                if ((pixel.isIn() || pixel.getFrontier() != 0) && tile != null) {
                     this.imageMask.addWhitePixel(x, y);
-                    pixel.sample = sample;
+                    pixel.setSample(sample);
                     sample.setTile(tile);
                 }
             }
@@ -173,7 +173,7 @@ public class TextureImageSamplerMipMap implements SamplingAlgorithm {
             // this.imageMask.getNbWhite() + " white pixels");
             GradientPixel pixel = this.image.getPixel(p.x, p.y);
             // System.err.println("pixel = " + pixel);
-            Sample sample = pixel.sample;
+            Sample sample = pixel.getSample();
             if (sample == null) {
                 this.imageMask.removeWhitePixel(p.x, p.y);
                 continue;
@@ -251,7 +251,7 @@ public class TextureImageSamplerMipMap implements SamplingAlgorithm {
                 }
                 // count pixels that are inside "geometry"
                 GradientPixel pixel = this.image.getPixel(xImage, yImage);
-                if (pixel != null && (pixel.in)) {
+                if (pixel != null && (pixel.isIn())) {
                     inCount++;
                 } else {
                     outCount++;
@@ -133,7 +133,7 @@ public class TextureImageSamplerRegularGrid implements SamplingAlgorithm {
         for (double y = 0; y < this.image.getHeight(); y += ySampleRate) {
             for (double x = 0; x < this.image.getWidth(); x += xSampleRate) {
                 GradientPixel pixel = this.image.getPixel((int) x, (int) y);
-                if (pixel.in) {
+                if (pixel.isIn()) {
                     double jitterX = 0.;
                     double jitterY = 0.;
                     if (this.getJitteringFactor() > 0.01) {
@@ -141,7 +141,8 @@ public class TextureImageSamplerRegularGrid implements SamplingAlgorithm {
                         jitterY = (rand.nextDouble() * 2 - 1) * ySampleRate * this.getJitteringFactor();
                     }
                     Point2D location = new Point2D.Double(x + jitterX, y + jitterY);
-                    Point2D rotation = new Point2D.Double(pixel.vGradient.x, pixel.vGradient.y);
+                    Point2d vGradient = pixel.getVGradient();
+                    Point2D rotation = new Point2D.Double(vGradient.x, vGradient.y);
                     Sample sample = new Sample(location, rotation, unitScaleFactor, null);
                     if (this.tileChooser != null) {
                         Tile tile = this.tileChooser.getTile(sample);
@@ -134,8 +134,8 @@ public class TextureImageSamplerUVSampler implements SamplingAlgorithm {
         for (int y = 0; y < this.image.getHeight(); y++) {
             for (int x = 0; x < this.image.getWidth(); x++) {
                 GradientPixel pixel = this.image.getPixel(x, y);
-                pixel.weightSum = 1; // weightSum is used to mark pixels as treated when = 0 (Ugly)
-                if (pixel.in && pixel.frontier != 0 && pixel.distance < 0.0001) {
+                pixel.setWeightSum(1); // weightSum is used to mark pixels as treated when = 0 (Ugly)
+                if (pixel.isIn() && pixel.getFrontier() != 0 && pixel.getDistance() < 0.0001) {
                     pixelsToTreat.add(new Point(x, y));
                 }
             }
@@ -145,9 +145,10 @@ public class TextureImageSamplerUVSampler implements SamplingAlgorithm {
 
             for (Point p : pixelsToTreat) {
                 GradientPixel pixel = this.image.getPixel(p.x, p.y);
-                pixel.weightSum = 0;
+                pixel.setWeightSum(0);
                 //                this.tryToAddSample(p.x, p.y, pixel.vGradient.x, pixel.vGradient.y);
-                this.tryToAddSampleMinimizeCoverage(p.x, p.y, pixel.vGradient.x, pixel.vGradient.y);
+                Point2d vGradient = pixel.getVGradient();
+                this.tryToAddSampleMinimizeCoverage(p.x, p.y, vGradient.x, vGradient.y);
                 this.tryToAddNeighbor(p.x + 1, p.y, neighborhood);
                 this.tryToAddNeighbor(p.x - 1, p.y, neighborhood);
                 this.tryToAddNeighbor(p.x, p.y + 1, neighborhood);
@@ -171,9 +172,9 @@ public class TextureImageSamplerUVSampler implements SamplingAlgorithm {
 
     private void tryToAddNeighbor(int x, int y, Set<Point> neighborhood) {
         GradientPixel pixel = this.image.getPixel(x, y);
-        if (pixel != null && pixel.in && pixel.weightSum > 0.5) {
+        if (pixel != null && pixel.isIn() && pixel.getWeightSum() > 0.5) {
             neighborhood.add(new Point(x, y));
-            pixel.weightSum = 0;
+            pixel.setWeightSum(0);
 
         }
 
@@ -188,7 +189,7 @@ public class TextureImageSamplerUVSampler implements SamplingAlgorithm {
      */
     private boolean tryToAddSample(int x, int y, double xGradient, double yGradient) {
         GradientPixel pixel = this.image.getPixel(x, y);
-        if (pixel != null && pixel.in) {
+        if (pixel != null && pixel.isIn()) {
             if (this.isDistanceStep(pixel, x + 1, y) || this.isDistanceStep(pixel, x - 1, y) || this.isDistanceStep(pixel, x, y + 1)
                     || this.isDistanceStep(pixel, x, y - 1)) {
                 if (this.minDistanceToSamples(x, y) > this.minDistanceInPixels) {
@@ -210,7 +211,7 @@ public class TextureImageSamplerUVSampler implements SamplingAlgorithm {
      */
     private boolean tryToAddSampleMinimizeCoverage(int x, int y, double xGradient, double yGradient) {
         GradientPixel pixel = this.image.getPixel(x, y);
-        if (pixel != null && pixel.in) {
+        if (pixel != null && pixel.isIn()) {
             if (this.isDistanceStep(pixel, x + 1, y) || this.isDistanceStep(pixel, x - 1, y) || this.isDistanceStep(pixel, x, y + 1)
                     || this.isDistanceStep(pixel, x, y - 1)) {
                 if (this.minDistanceToSamples(x, y) > this.minDistanceInPixels) {
@@ -224,11 +225,11 @@ public class TextureImageSamplerUVSampler implements SamplingAlgorithm {
 
     private boolean isDistanceStep(GradientPixel pixel, int x, int y) {
         GradientPixel neighbor = this.image.getPixel(x, y);
-        if (neighbor == null || !neighbor.in || neighbor.distance == Double.POSITIVE_INFINITY || neighbor.distance == Double.NaN) {
+        if (neighbor == null || !neighbor.isIn() || neighbor.getDistance() == Double.POSITIVE_INFINITY || neighbor.getDistance() == Double.NaN) {
             return false;
         }
-        double nNeighbor = (int) Math.max(0, neighbor.distance / this.vDistanceInPixels + 0.5);
-        double nPixel = (int) Math.max(0, pixel.distance / this.vDistanceInPixels + 0.5);
+        double nNeighbor = (int) Math.max(0, neighbor.getDistance() / this.vDistanceInPixels + 0.5);
+        double nPixel = (int) Math.max(0, pixel.getDistance() / this.vDistanceInPixels + 0.5);
         return nNeighbor != nPixel;
     }
 
@@ -498,7 +498,7 @@ public class TileDistributionTextureTask extends AbstractTextureTask<BasicTextur
                 throw new IllegalStateException("sample " + sample.getLocation() + " has an associated tile with no image");
             }
             GradientPixel pixel = image.getPixel((int) xTexture, (int) yTexture);
-            if (pixel == null || !(pixel.in || pixel.frontier != 0) || pixel.vGradient == null) {
+            if (pixel == null || !(pixel.isIn() || pixel.getFrontier() != 0) || pixel.getVGradient() == null) {
                 logger.warn("invalid pixel = " + pixel);
                 continue;
             } else {
@@ -0,0 +1,176 @@
+package fr.ign.cogit.geoxygene.appli.gl;
+
+import java.util.Random;
+
+import javax.vecmath.Point2d;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import fr.ign.cogit.geoxygene.appli.gl.BinaryGradientImage.GradientPixel;
+
+/**
+ * Compares the distance field and the blur of {@link BinaryGradientImage} to
+ * brute force computations on small random images.
+ */
+public class BinaryGradientImageTest {
+
+    private static final int W = 23;
+    private static final int H = 17;
+
+    private static BinaryGradientImage randomImage(long seed) {
+        Random random = new Random(seed);
+        BinaryGradientImage image = new BinaryGradientImage(W, H);
+        for (int i = 0; i < W * H; i++) {
+            image.in[i] = random.nextDouble() < 0.8;
+            image.distance[i] = Double.MAX_VALUE;
+            image.uTexture[i] = random.nextDouble();
+            image.vTexture[i] = 10 * random.nextDouble();
+            if (random.nextDouble() < 0.05) {
+                image.frontier[i] = 1;
+                // frontiers with an infinite distance are not seeds
+                image.distance[i] = random.nextDouble() < 0.2 ? Double.POSITIVE_INFINITY
+                        : 0;
+            }
+        }
+        return image;
+    }
+
+    private static BinaryGradientImage copy(BinaryGradientImage image) {
+        BinaryGradientImage copy = new BinaryGradientImage(W, H);
+        System.arraycopy(image.in, 0, copy.in, 0, W * H);
+        System.arraycopy(image.frontier, 0, copy.frontier, 0, W * H);
+        System.arraycopy(image.distance, 0, copy.distance, 0, W * H);
+        System.arraycopy(image.uTexture, 0, copy.uTexture, 0, W * H);
+        System.arraycopy(image.vTexture, 0, copy.vTexture, 0, W * H);
+        return copy;
+    }
+
+    @Test
+    public void testDistanceField() {
+        for (long seed = 0; seed < 20; seed++) {
+            BinaryGradientImage image = randomImage(seed);
+            BinaryGradientImage initial = copy(image);
+            double pixelWidth = 1.5, pixelHeight = 0.75;
+            BinaryGradientImage.fillDistanceField(image, pixelWidth,
+                    pixelHeight);
+            for (int y = 0; y < H; y++) {
+                for (int x = 0; x < W; x++) {
+                    int i = x + y * W;
+                    boolean seedPixel = initial.frontier[i] != 0
+                            && initial.distance[i] == 0;
+                    if (!initial.in[i] || seedPixel) {
+                        Assert.assertEquals(initial.distance[i],
+                                image.distance[i], 0);
+                        Assert.assertEquals(initial.uTexture[i],
+                                image.uTexture[i], 0);
+                        continue;
+                    }
+                    // nearest seed by brute force
+                    double min = Double.POSITIVE_INFINITY;
+                    for (int j = 0; j < W * H; j++) {
+                        if (initial.frontier[j] != 0
+                                && initial.distance[j] == 0) {
+                            double dx = (j % W - x) * pixelWidth;
+                            double dy = (j / W - y) * pixelHeight;
+                            min = Math.min(min, Math.sqrt(dx * dx + dy * dy));
+                        }
+                    }
+                    if (min == Double.POSITIVE_INFINITY) {
+                        Assert.assertEquals(Double.MAX_VALUE,
+                                image.distance[i], 0);
+                        continue;
+                    }
+                    Assert.assertEquals(min, image.distance[i], 1E-9);
+                    // uTexture comes from one of the nearest seeds
+                    boolean found = false;
+                    for (int j = 0; j < W * H && !found; j++) {
+                        double dx = (j % W - x) * pixelWidth;
+                        double dy = (j / W - y) * pixelHeight;
+                        found = initial.frontier[j] != 0
+                                && initial.distance[j] == 0
+                                && Math.abs(Math.sqrt(dx * dx + dy * dy) - min) < 1E-9
+                                && initial.uTexture[j] == image.uTexture[i];
+                    }
+                    Assert.assertTrue(found);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testBlurHalfSizes() {
+        for (long seed = 0; seed < 20; seed++) {
+            BinaryGradientImage image = randomImage(seed);
+            for (int b = 0; b <= 4; b++) {
+                int[] halfSizes = BinaryGradientImageUtil.blurHalfSizes(image,
+                        b);
+                for (int y = 0; y < H; y++) {
+                    for (int x = 0; x < W; x++) {
+                        Assert.assertEquals(halfSize(image, x, y, b),
+                                halfSizes[x + y * W]);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * the largest half window size of the blur, computed on the whole window
+     */
+    private static int halfSize(BinaryGradientImage image, int x, int y,
+            int blurWindowHalfSize) {
+        int halfSize = blurWindowHalfSize;
+        for (int y2 = y - blurWindowHalfSize; y2 <= y + blurWindowHalfSize; y2++) {
+            for (int x2 = x - blurWindowHalfSize; x2 <= x + blurWindowHalfSize; x2++) {
+                GradientPixel neighbor = image.getPixel(x2, y2);
+                if (neighbor == null || !neighbor.isIn()) {
+                    halfSize = Math.min(halfSize,
+                            Math.min(Math.abs(x2 - x), Math.abs(y2 - y)));
+                }
+            }
+        }
+        return halfSize;
+    }
+
+    @Test
+    public void testBlurTextureCoordinates() {
+        for (long seed = 0; seed < 20; seed++) {
+            BinaryGradientImage image = randomImage(seed);
+            Random random = new Random(seed);
+            for (int i = 0; i < W * H; i++) {
+                double r = random.nextDouble();
+                if (r < 0.05) {
+                    image.vTexture[i] = Double.POSITIVE_INFINITY;
+                } else if (r < 0.08) {
+                    // not reached by the distance field
+                    image.vTexture[i] = Double.MAX_VALUE;
+                }
+            }
+            BinaryGradientImage initial = copy(image);
+            int b = 3;
+            int[] halfSizes = BinaryGradientImageUtil.blurHalfSizes(image, b);
+            BinaryGradientImageUtil.blurTextureCoordinates(image, b);
+            double period = initial.getuMax() - initial.getuMin();
+            for (int y = 0; y < H; y++) {
+                for (int x = 0; x < W; x++) {
+                    int i = x + y * W;
+                    Point2d expected = BinaryGradientImageUtil
+                            .blurTextureCoordinatesNeighborhood(initial, x, y,
+                                    halfSizes[i]);
+                    // u is an angle
+                    double du = Math.abs(expected.x - image.uTexture[i])
+                            % period;
+                    Assert.assertEquals(0, Math.min(du, period - du), 1E-9);
+                    if (Double.isInfinite(expected.y)) {
+                        Assert.assertEquals(expected.y, image.vTexture[i], 0);
+                    } else {
+                        Assert.assertEquals(expected.y, image.vTexture[i],
+                                1E-9 * Math.max(1, Math.abs(expected.y)));
+                    }
+                }
+            }
+        }
+    }
+
+}
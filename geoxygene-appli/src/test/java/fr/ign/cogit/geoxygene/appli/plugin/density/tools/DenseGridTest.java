@@ -0,0 +1,203 @@
+/**
+ * 
+ * This software is released under the licence CeCILL
+ * 
+ * see Licence_CeCILL-C_fr.html see Licence_CeCILL-C_en.html
+ * 
+ * see <a href="http://www.cecill.info/">http://www.cecill.info/a>
+ * 
+ * 
+ * @copyright IGN
+ * 
+ */
+package fr.ign.cogit.geoxygene.appli.plugin.density.tools;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import fr.ign.cogit.geoxygene.api.feature.IFeature;
+import fr.ign.cogit.geoxygene.feature.DefaultFeature;
+import fr.ign.cogit.geoxygene.feature.FT_FeatureCollection;
+import fr.ign.cogit.geoxygene.spatial.coordgeom.DirectPosition;
+import fr.ign.cogit.geoxygene.spatial.geomprim.GM_Point;
+
+public class DenseGridTest {
+
+  private static final double EPSILON = 1E-9;
+
+  @Test
+  public void testIndex() {
+    DenseGrid grid = new DenseGrid(new DirectPosition(100, 50),
+        new DirectPosition(0, 0), 5, 10);
+    Assert.assertEquals(10, grid.getStepX(), EPSILON);
+    Assert.assertEquals(10, grid.getStepY(), EPSILON);
+    Assert.assertEquals(0, grid.getIndex(0, 0));
+    Assert.assertEquals(2 * 10 + 3, grid.getIndex(35, 25));
+    // les bords nord et est appartiennent aux dernieres mailles
+    Assert.assertEquals(49, grid.getIndex(100, 50));
+    Assert.assertEquals(-1, grid.getIndex(100.1, 10));
+    Assert.assertEquals(-1, grid.getIndex(10, -0.1));
+    Assert.assertFalse(grid.add(-1, 10, 1));
+    Assert.assertTrue(grid.addPoint(new DirectPosition(35, 25)));
+    Assert.assertEquals(1, grid.getValue(2, 3), EPSILON);
+  }
+
+  @Test
+  public void testAccumulate() {
+    FT_FeatureCollection<IFeature> features = new FT_FeatureCollection<IFeature>();
+    for (int i = 0; i < 1000; i++) {
+      features.add(new DefaultFeature(new GM_Point(new DirectPosition(
+          (i * 37) % 100, (i * 11) % 50))));
+    }
+    features.add(new DefaultFeature(new GM_Point(new DirectPosition(100, 50))));
+
+    DenseGrid grid = DenseGrid.count(features, 5, 10);
+    Assert.assertEquals(1001, grid.getSum(), EPSILON);
+    DenseGrid expected = new DenseGrid(0, 0, 10, 10, 5, 10);
+    for (IFeature f : features) {
+      expected.addPoint(f.getGeom().coord().get(0));
+    }
+    Assert.assertArrayEquals(expected.getValues(), grid.getValues(), EPSILON);
+
+    features.add(new DefaultFeature(new GM_Point(new DirectPosition(200, 0))));
+    features.add(new DefaultFeature(null));
+    Assert.assertEquals(2, grid.accumulate(features));
+    Assert.assertEquals(2002, grid.getSum(), EPSILON);
+
+    Assert.assertEquals(0, grid.accumulate(new FT_FeatureCollection<IFeature>()));
+    Assert.assertEquals(2002, grid.getSum(), EPSILON);
+  }
+
+  @Test
+  public void testGridSteps() {
+    // emprise de 100 x 50, pas non entiers
+    Grid grid = new Grid(new DirectPosition(100, 50), new DirectPosition(0, 0),
+        2.5, 12.5);
+    Assert.assertEquals(41, grid.getNumCols());
+    Assert.assertEquals(5, grid.getNumRows());
+    Assert.assertEquals(2.5, grid.getStepX(), EPSILON);
+    Assert.assertEquals(12.5, grid.getStepY(), EPSILON);
+    grid.addPoint(new DirectPosition(99, 49));
+    grid.addPoint(new DirectPosition(1, 26));
+    Assert.assertEquals(1, grid.getMaille(3, 39).size());
+    Assert.assertEquals(1, grid.getMaille(2, 0).size());
+
+    // les points sont reaffectes aux nouvelles mailles
+    grid.setStepX(7.5);
+    Assert.assertEquals(14, grid.getNumCols());
+    Assert.assertEquals(5, grid.getNumRows());
+    grid.setStepY(20);
+    Assert.assertEquals(14, grid.getNumCols());
+    Assert.assertEquals(3, grid.getNumRows());
+    Assert.assertEquals(2, grid.size());
+    Assert.assertEquals(1, grid.getMaille(2, 13).size());
+    Assert.assertEquals(1, grid.getMaille(1, 0).size());
+  }
+
+  @Test
+  public void testToDenseGrid() {
+    Grid grid = new Grid(new DirectPosition(100, 50), new DirectPosition(0, 0),
+        5, 10);
+    DenseGrid expected = new DenseGrid(0, 0, 10, 10, 5, 10);
+    for (int i = 0; i < 1000; i++) {
+      DirectPosition p = new DirectPosition((i * 37) % 100, (i * 11) % 50);
+      grid.addPoint(p);
+      expected.addPoint(p);
+    }
+    // le coin nord-est est compte dans la derniere maille
+    grid.addPoint(new DirectPosition(100, 50));
+    expected.addPoint(new DirectPosition(100, 50));
+
+    DenseGrid dense = grid.toDenseGrid();
+    Assert.assertEquals(5, dense.getNumRows());
+    Assert.assertEquals(10, dense.getNumCols());
+    Assert.assertEquals(10, dense.getStepX(), EPSILON);
+    Assert.assertEquals(10, dense.getStepY(), EPSILON);
+    Assert.assertArrayEquals(expected.getValues(), dense.getValues(), EPSILON);
+
+    // grille definie par ses pas : elle deborde de l'emprise
+    grid = new Grid(new DirectPosition(100, 50), new DirectPosition(0, 0),
+        30.0, 20.0);
+    grid.addPoint(new DirectPosition(95, 45));
+    dense = grid.toDenseGrid();
+    Assert.assertEquals(3, dense.getNumRows());
+    Assert.assertEquals(4, dense.getNumCols());
+    Assert.assertEquals(1, dense.getValue(2, 3), EPSILON);
+    Assert.assertEquals(1, dense.getSum(), EPSILON);
+  }
+
+  @Test
+  public void testKDE() {
+    DenseGrid grid = new DenseGrid(0, 0, 2, 1, 40, 30);
+    grid.add(31, 20.5, 1);
+    grid.add(11, 10.5, 2);
+    double bandwidth = 3;
+    DenseGrid density = grid.kde(bandwidth);
+
+    // la masse est conservee loin des bords
+    Assert.assertEquals(3, density.getSum() * 2 * 1, 1E-6);
+    // pas de correction de bord : la masse qui sort de la grille est perdue
+    DenseGrid corner = new DenseGrid(0, 0, 2, 1, 40, 30);
+    corner.add(1, 0.5, 1);
+    double mass = corner.kde(bandwidth).getSum() * 2 * 1;
+    Assert.assertTrue(mass < 0.5);
+    Assert.assertTrue(mass > 0.25);
+    // noyau separable : produit des noyaux en x et en y
+    double[] wx = new double[30];
+    double[] wy = new double[40];
+    double sx = 0, sy = 0;
+    // ecarts-types de 1.5 mailles en x (rayon 5) et 3 mailles en y (rayon 9)
+    for (int c = -5; c <= 5; c++) {
+      sx += Math.exp(-c * c / (2 * 1.5 * 1.5));
+    }
+    for (int r = -9; r <= 9; r++) {
+      sy += Math.exp(-r * r / (2 * bandwidth * bandwidth));
+    }
+    for (int c = 0; c < 30; c++) {
+      int dc = c - 15;
+      wx[c] = Math.abs(dc) <= 5 ? Math.exp(-dc * dc / (2 * 1.5 * 1.5)) / sx : 0;
+    }
+    for (int r = 0; r < 40; r++) {
+      int dr = r - 20;
+      wy[r] = Math.abs(dr) <= 9 ? Math.exp(-dr * dr / (2 * bandwidth * bandwidth)) / sy : 0;
+    }
+    for (int r = 0; r < 40; r++) {
+      for (int c = 0; c < 30; c++) {
+        double expected = wy[r] * wx[c] / 2;
+        if (Math.abs(r - 10) <= 9 && Math.abs(c - 5) <= 5) {
+          expected += 2 * wy[r - 10 + 20] * wx[c - 5 + 15] / 2;
+        }
+        Assert.assertEquals(expected, density.getValue(r, c), EPSILON);
+      }
+    }
+  }
+
+  @Test
+  public void testWriteASC() throws IOException {
+    DenseGrid grid = new DenseGrid(10, 20, 5, 5, 2, 3);
+    grid.setValue(0, 0, 1);
+    grid.setValue(1, 2, 4);
+    File f = File.createTempFile("grid", ".asc");
+    f.deleteOnExit();
+    grid.writeASC(f);
+
+    BufferedReader reader = new BufferedReader(new FileReader(f));
+    Assert.assertEquals("ncols 3", reader.readLine());
+    Assert.assertEquals("nrows 2", reader.readLine());
+    Assert.assertEquals("xllcorner 10.0", reader.readLine());
+    Assert.assertEquals("yllcorner 20.0", reader.readLine());
+    Assert.assertEquals("cellsize 5.0", reader.readLine());
+    Assert.assertEquals("NODATA_value -9999", reader.readLine());
+    // la premiere ligne ecrite est au nord
+    Assert.assertEquals("0.0 0.0 4.0", reader.readLine());
+    Assert.assertEquals("1.0 0.0 0.0", reader.readLine());
+    Assert.assertNull(reader.readLine());
+    reader.close();
+  }
+
+}
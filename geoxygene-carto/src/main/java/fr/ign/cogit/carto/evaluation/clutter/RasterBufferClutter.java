@@ -0,0 +1,516 @@
+/*******************************************************************************
+ * This software is released under the licence CeCILL
+ *
+ * see Licence_CeCILL-C_fr.html see Licence_CeCILL-C_en.html
+ *
+ * see <a href="http://www.cecill.info/">http://www.cecill.info/a>
+ *
+ * @copyright IGN
+ ******************************************************************************/
+package fr.ign.cogit.carto.evaluation.clutter;
+
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorConvertOp;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.imageio.ImageIO;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Clutter evaluation on raw raster buffers. The measures are the ones of
+ * {@link fr.ign.cogit.carto.evaluation.clutter.subbandentropy.SubbandClutter}
+ * and {@link fr.ign.cogit.carto.evaluation.clutter.quadtree.QuadtreeClutterMethod}
+ * but the pixels are read once into <code>int[]</code>/<code>float[]</code>
+ * arrays, and the work is split across a fork/join pool: bands of rows for
+ * the wavelet subbands and their entropy histograms, quadrants for the
+ * quadtree, and tiles for the batch evaluation of a directory.
+ *
+ */
+public class RasterBufferClutter {
+
+  private static final Logger logger = Logger
+      .getLogger(RasterBufferClutter.class.getName());
+
+  /** number of rows processed sequentially by a subband task */
+  private static final int ROWS_PER_TASK = 64;
+  /** quadtree leaves smaller than this area are split sequentially */
+  private static final int SEQUENTIAL_AREA = 128 * 128;
+  /** number of subbands of the two-level decomposition */
+  private static final int NB_SUBBANDS = 6;
+
+  private final ForkJoinPool pool;
+
+  /**
+   * Evaluator using the common fork/join pool.
+   */
+  public RasterBufferClutter() {
+    this(ForkJoinPool.commonPool());
+  }
+
+  /**
+   * @param parallelism number of worker threads
+   */
+  public RasterBufferClutter(int parallelism) {
+    this(new ForkJoinPool(parallelism));
+  }
+
+  public RasterBufferClutter(ForkJoinPool pool) {
+    this.pool = pool;
+  }
+
+  /**
+   * First band of an image (red, or gray level), as read by
+   * {@link fr.ign.cogit.carto.evaluation.clutter.subbandentropy.ImageBis}.
+   * @param image
+   * @return the samples of the first band, row by row
+   */
+  public static float[] firstBand(BufferedImage image) {
+    return image.getRaster().getSamples(0, 0, image.getWidth(),
+        image.getHeight(), 0, (float[]) null);
+  }
+
+  /**
+   * Gray levels of an image, converted as in
+   * {@link fr.ign.cogit.carto.evaluation.clutter.quadtree.QuadtreeClutterMethod#toGray()}.
+   * @param image
+   * @return the gray levels (0-255), row by row
+   */
+  public static int[] grayLevels(BufferedImage image) {
+    BufferedImage gray = image;
+    if (image.getType() != BufferedImage.TYPE_BYTE_GRAY) {
+      ColorConvertOp op = new ColorConvertOp(ColorSpace
+          .getInstance(ColorSpace.CS_GRAY), null);
+      gray = op.filter(image, null);
+    }
+    int[] values = gray.getRGB(0, 0, gray.getWidth(), gray.getHeight(), null,
+        0, gray.getWidth());
+    for (int i = 0; i < values.length; i++) {
+      values[i] = values[i] & 0xFF;
+    }
+    return values;
+  }
+
+  /**
+   * Subband entropy clutter of an image.
+   * @see #subbandEntropy(float[], int, int)
+   */
+  public double subbandEntropy(BufferedImage image) {
+    return this.subbandEntropy(firstBand(image), image.getWidth(), image
+        .getHeight());
+  }
+
+  /**
+   * Subband entropy clutter: sum of the Shannon entropies of the six subbands
+   * of a two-level Haar decomposition (horizontal mean, vertical detail, and
+   * their vertical mean and detail) of the first band, as computed by
+   * {@link fr.ign.cogit.carto.evaluation.clutter.subbandentropy.SubbandClutter#appelParCanal(BufferedImage)}
+   * (without writing the intermediate images).
+   * @param band samples of the band, row by row
+   * @param width image width
+   * @param height image height
+   * @return the clutter value
+   */
+  public double subbandEntropy(float[] band, int width, int height) {
+    int[][] histograms = this.invoke(new SubbandTask(band, width, height, 0,
+        height));
+    double sum = 0;
+    int nbPixels = width * height;
+    for (int k = 0; k < NB_SUBBANDS; k++) {
+      sum += entropy(histograms[k], nbPixels);
+    }
+    logger.debug("subband entropy clutter : " + sum);
+    return sum;
+  }
+
+  /**
+   * Shannon entropy (log10) of an histogram, over the bins 0 to 254 like
+   * {@link fr.ign.cogit.carto.evaluation.clutter.subbandentropy.BinWavelet#shanonEntro}.
+   */
+  private static double entropy(int[] histogram, int nbPixels) {
+    if (nbPixels == 0) {
+      return 0;
+    }
+    double shanon = 0;
+    for (int i = 0; i < 255; i++) {
+      double p = histogram[i] / (double) nbPixels;
+      if (p > 0.000000001) {
+        shanon -= p * Math.log10(p);
+      }
+    }
+    return Math.abs(shanon);
+  }
+
+  /**
+   * Histograms of the six subbands over a band of rows, split in halves
+   * until the band is small enough.
+   */
+  private static class SubbandTask extends RecursiveTask<int[][]> {
+    private static final long serialVersionUID = 1L;
+    private final float[] a;
+    private final int w, h, from, to;
+
+    SubbandTask(float[] a, int w, int h, int from, int to) {
+      this.a = a;
+      this.w = w;
+      this.h = h;
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    protected int[][] compute() {
+      if (this.to - this.from <= ROWS_PER_TASK) {
+        return this.histograms();
+      }
+      int middle = (this.from + this.to) >>> 1;
+      SubbandTask first = new SubbandTask(this.a, this.w, this.h, this.from,
+          middle);
+      first.fork();
+      int[][] result = new SubbandTask(this.a, this.w, this.h, middle, this.to)
+          .compute();
+      int[][] other = first.join();
+      for (int k = 0; k < NB_SUBBANDS; k++) {
+        for (int b = 0; b < 256; b++) {
+          result[k][b] += other[k][b];
+        }
+      }
+      return result;
+    }
+
+    private int[][] histograms() {
+      int[][] histo = new int[NB_SUBBANDS][256];
+      float[] a = this.a;
+      int w = this.w;
+      for (int i = this.from; i < this.to; i++) {
+        int row = i * w;
+        int next = row + w;
+        for (int j = 0; j < w; j++) {
+          // the last column and the last row of each subband stay at 0
+          float f1 = 0, fh = 0, f11 = 0, f1h = 0, fh1 = 0, fhh = 0;
+          if (j < w - 1) {
+            f1 = (a[row + j] + a[row + j + 1]) / 2;
+            if (i < this.h - 1) {
+              fh = Math.abs(a[row + j] - a[next + j]) / 2;
+              float f1n = (a[next + j] + a[next + j + 1]) / 2;
+              float fhn = (i + 1 < this.h - 1) ? Math.abs(a[next + j]
+                  - a[next + w + j]) / 2 : 0;
+              f11 = (f1 + f1n) / 2;
+              f1h = Math.abs(f1 - f1n) / 2;
+              fh1 = (fh + fhn) / 2;
+              fhh = Math.abs(fh - fhn) / 2;
+            }
+          }
+          histo[0][bin(f1)]++;
+          histo[1][bin(fh)]++;
+          histo[2][bin(f1h)]++;
+          histo[3][bin(fh1)]++;
+          histo[4][bin(f11)]++;
+          histo[5][bin(fhh)]++;
+        }
+      }
+      return histo;
+    }
+
+    private static int bin(float value) {
+      return Math.max(0, Math.min(255, (int) value));
+    }
+  }
+
+  /**
+   * Quadtree clutter of an image, converted to gray levels.
+   * @see #quadtreeClutter(int[], int, int, int)
+   */
+  public int quadtreeClutter(BufferedImage image, int threshold) {
+    return this.quadtreeClutter(grayLevels(image), image.getWidth(), image
+        .getHeight(), threshold);
+  }
+
+  /**
+   * Quadtree clutter: number of leaves of the quadtree built by
+   * {@link fr.ign.cogit.carto.evaluation.clutter.quadtree.QuadtreeClutterMethod#computeQuadTree}
+   * . A leaf is split in four as soon as one of its interior pixels differs
+   * from one of its 8 neighbours by more than the threshold.
+   * @param gray gray levels, row by row
+   * @param width image width
+   * @param height image height
+   * @param threshold gray level difference threshold
+   * @return the number of leaves
+   */
+  public int quadtreeClutter(int[] gray, int width, int height, int threshold) {
+    return this.invoke(new QuadtreeTask(gray, width, threshold, 0, 0, width,
+        height));
+  }
+
+  /**
+   * Number of leaves of the quadtree below a leaf.
+   */
+  private static class QuadtreeTask extends RecursiveTask<Integer> {
+    private static final long serialVersionUID = 1L;
+    private final int[] gray;
+    private final int imageWidth, threshold;
+    private final int line, column, width, height;
+
+    QuadtreeTask(int[] gray, int imageWidth, int threshold, int line,
+        int column, int width, int height) {
+      this.gray = gray;
+      this.imageWidth = imageWidth;
+      this.threshold = threshold;
+      this.line = line;
+      this.column = column;
+      this.width = width;
+      this.height = height;
+    }
+
+    @Override
+    protected Integer compute() {
+      if (this.width * this.height <= SEQUENTIAL_AREA) {
+        return Integer.valueOf(this.count(this.line, this.column, this.width,
+            this.height));
+      }
+      if (!this.mustSplit(this.line, this.column, this.width, this.height)) {
+        return Integer.valueOf(1);
+      }
+      int w = this.width / 2;
+      int h = this.height / 2;
+      QuadtreeTask[] children = new QuadtreeTask[] {
+          new QuadtreeTask(this.gray, this.imageWidth, this.threshold,
+              this.line, this.column, w, h),
+          new QuadtreeTask(this.gray, this.imageWidth, this.threshold,
+              this.line, this.column + w, w, h),
+          new QuadtreeTask(this.gray, this.imageWidth, this.threshold,
+              this.line + h, this.column, w, h),
+          new QuadtreeTask(this.gray, this.imageWidth, this.threshold,
+              this.line + h, this.column + w, w, h) };
+      invokeAll(children);
+      int leaves = 0;
+      for (QuadtreeTask child : children) {
+        leaves += child.join().intValue();
+      }
+      return Integer.valueOf(leaves);
+    }
+
+    private int count(int l, int c, int w, int h) {
+      if (!this.mustSplit(l, c, w, h)) {
+        return 1;
+      }
+      int w2 = w / 2;
+      int h2 = h / 2;
+      return this.count(l, c, w2, h2) + this.count(l, c + w2, w2, h2)
+          + this.count(l + h2, c, w2, h2) + this.count(l + h2, c + w2, w2, h2);
+    }
+
+    private boolean mustSplit(int l, int c, int w, int h) {
+      int[] g = this.gray;
+      int iw = this.imageWidth;
+      int t = this.threshold;
+      for (int lin = l + 1; lin < l + h - 1; lin++) {
+        int row = lin * iw;
+        for (int col = c + 1; col < c + w - 1; col++) {
+          int p = row + col;
+          int v = g[p];
+          if (Math.abs(v - g[p - 1]) > t || Math.abs(v - g[p + 1]) > t
+              || Math.abs(v - g[p - iw]) > t || Math.abs(v - g[p + iw]) > t
+              || Math.abs(v - g[p - iw - 1]) > t
+              || Math.abs(v - g[p - iw + 1]) > t
+              || Math.abs(v - g[p + iw - 1]) > t
+              || Math.abs(v - g[p + iw + 1]) > t) {
+            return true;
+          }
+        }
+      }
+      return false;
+    }
+  }
+
+  private <T> T invoke(RecursiveTask<T> task) {
+    if (ForkJoinTask.inForkJoinPool()) {
+      // already in a worker (batch evaluation): run inside the current
+      // computation
+      return task.invoke();
+    }
+    return this.pool.invoke(task);
+  }
+
+  private static class InvokeAll extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+    private final List<RecursiveAction> actions;
+
+    InvokeAll(List<RecursiveAction> actions) {
+      this.actions = actions;
+    }
+
+    @Override
+    protected void compute() {
+      invokeAll(this.actions);
+    }
+  }
+
+  /**
+   * Clutter scores of a tile.
+   */
+  public static class TileScore {
+    private final File file;
+    private final int width, height;
+    private final double subbandEntropy;
+    private final int quadtreeClutter;
+
+    TileScore(File file, int width, int height, double subbandEntropy,
+        int quadtreeClutter) {
+      this.file = file;
+      this.width = width;
+      this.height = height;
+      this.subbandEntropy = subbandEntropy;
+      this.quadtreeClutter = quadtreeClutter;
+    }
+
+    public File getFile() {
+      return this.file;
+    }
+
+    public int getWidth() {
+      return this.width;
+    }
+
+    public int getHeight() {
+      return this.height;
+    }
+
+    public double getSubbandEntropy() {
+      return this.subbandEntropy;
+    }
+
+    public int getQuadtreeClutter() {
+      return this.quadtreeClutter;
+    }
+
+    /**
+     * @return the number of quadtree leaves divided by the number of pixels
+     */
+    public double getNormalizedQuadtreeClutter() {
+      return this.quadtreeClutter / ((double) this.width * this.height);
+    }
+
+    @Override
+    public String toString() {
+      return this.file.getName() + " subband entropy = " + this.subbandEntropy
+          + " quadtree = " + this.quadtreeClutter;
+    }
+  }
+
+  /**
+   * Result of the evaluation of a directory of tiles.
+   */
+  public static class BatchResult {
+    private final List<TileScore> scores;
+    private final long elapsedTime;
+    private final long nbPixels;
+
+    BatchResult(List<TileScore> scores, long elapsedTime, long nbPixels) {
+      this.scores = scores;
+      this.elapsedTime = elapsedTime;
+      this.nbPixels = nbPixels;
+    }
+
+    /**
+     * @return the scores of the tiles, sorted by file name
+     */
+    public List<TileScore> getScores() {
+      return this.scores;
+    }
+
+    /**
+     * @return the evaluation time in nanoseconds
+     */
+    public long getElapsedTime() {
+      return this.elapsedTime;
+    }
+
+    public double getTilesPerSecond() {
+      return this.scores.size() * 1e9 / Math.max(1, this.elapsedTime);
+    }
+
+    public double getMegaPixelsPerSecond() {
+      return this.nbPixels * 1e3 / Math.max(1, this.elapsedTime);
+    }
+  }
+
+  /**
+   * Score all the images of a directory (the files ImageIO can read), the
+   * tiles being evaluated in parallel. The throughput is logged regularly.
+   * @param directory directory of the tiles
+   * @param threshold gray level difference threshold of the quadtree clutter
+   * @return the scores and the throughput
+   */
+  public BatchResult evaluateDirectory(File directory, final int threshold) {
+    File[] files = directory.listFiles();
+    if (files == null) {
+      throw new IllegalArgumentException(directory + " is not a directory");
+    }
+    Arrays.sort(files);
+    final long start = System.nanoTime();
+    final AtomicInteger done = new AtomicInteger();
+    final AtomicLong pixels = new AtomicLong();
+    final int nbFiles = files.length;
+    final TileScore[] scores = new TileScore[nbFiles];
+    List<RecursiveAction> tasks = new ArrayList<RecursiveAction>();
+    for (int i = 0; i < nbFiles; i++) {
+      final int index = i;
+      final File file = files[i];
+      tasks.add(new RecursiveAction() {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected void compute() {
+          if (!file.isFile()) {
+            return;
+          }
+          BufferedImage image;
+          try {
+            image = ImageIO.read(file);
+          } catch (IOException e) {
+            logger.warn("cannot read tile " + file + " : " + e.getMessage());
+            return;
+          }
+          if (image == null) {
+            return;
+          }
+          scores[index] = new TileScore(file, image.getWidth(), image
+              .getHeight(), RasterBufferClutter.this.subbandEntropy(image),
+              RasterBufferClutter.this.quadtreeClutter(image, threshold));
+          pixels.addAndGet((long) image.getWidth() * image.getHeight());
+          int count = done.incrementAndGet();
+          if (count % 100 == 0) {
+            double seconds = (System.nanoTime() - start) / 1e9;
+            logger.info(count + " tiles evaluated, " + (count / seconds)
+                + " tiles/s");
+          }
+        }
+      });
+    }
+    this.pool.invoke(new InvokeAll(tasks));
+    long elapsed = System.nanoTime() - start;
+    List<TileScore> result = new ArrayList<TileScore>();
+    for (TileScore score : scores) {
+      if (score != null) {
+        result.add(score);
+      }
+    }
+    BatchResult batch = new BatchResult(result, elapsed, pixels.get());
+    logger.info(result.size() + " tiles evaluated in " + (elapsed / 1000000)
+        + " ms : " + batch.getTilesPerSecond() + " tiles/s, "
+        + batch.getMegaPixelsPerSecond() + " Mpixels/s");
+    return batch;
+  }
+}
@@ -0,0 +1,148 @@
+package fr.ign.cogit.carto.evaluation.clutter;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.Stack;
+
+import javax.imageio.ImageIO;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import fr.ign.cogit.carto.evaluation.clutter.quadtree.FeuilleQuadtree;
+import fr.ign.cogit.carto.evaluation.clutter.quadtree.QuadtreeClutterMethod;
+import fr.ign.cogit.carto.evaluation.clutter.subbandentropy.BinWavelet;
+import fr.ign.cogit.carto.evaluation.clutter.subbandentropy.ClutterBywavelet;
+import fr.ign.cogit.carto.evaluation.clutter.subbandentropy.ImageBis;
+
+public class RasterBufferClutterTest {
+
+  private BufferedImage map(int width, int height, Random random) {
+    BufferedImage image = new BufferedImage(width, height,
+        BufferedImage.TYPE_3BYTE_BGR);
+    Graphics2D g = image.createGraphics();
+    g.setColor(Color.WHITE);
+    g.fillRect(0, 0, width, height);
+    for (int i = 0; i < 40; i++) {
+      g.setColor(new Color(random.nextInt(256), random.nextInt(256), random
+          .nextInt(256)));
+      int x = random.nextInt(width), y = random.nextInt(height);
+      if (i % 2 == 0) {
+        g.fillRect(x, y, random.nextInt(width / 4), random.nextInt(height / 4));
+      } else {
+        g.drawLine(x, y, random.nextInt(width), random.nextInt(height));
+      }
+    }
+    g.dispose();
+    return image;
+  }
+
+  /** copy of a subband as done in SubbandClutter: last column left at 0 */
+  private ImageBis copy(ImageBis subband, int nbColorCanal) {
+    ImageBis copy = new ImageBis();
+    copy.len = subband.len;
+    copy.width = subband.width;
+    copy.nbColorCanal = nbColorCanal;
+    copy.cell = new float[copy.len][copy.width][3];
+    for (int k = 0; k < nbColorCanal; k++) {
+      for (int i = 0; i < copy.len; i++) {
+        for (int j = 0; j < copy.width - 1; j++) {
+          copy.cell[i][j][k] = subband.cell[i][j][k];
+        }
+      }
+    }
+    return copy;
+  }
+
+  private double referenceSubbandEntropy(BufferedImage image) {
+    ClutterBywavelet wavelet = new ClutterBywavelet();
+    BinWavelet bin = new BinWavelet();
+    ImageBis image1 = new ImageBis(image);
+    ImageBis f1 = this.copy(wavelet.WaveletCompressionX(image1)[0], 3);
+    ImageBis fh = this.copy(wavelet.WaveletCompressionY(image1)[1], 3);
+    ImageBis[] tab2 = wavelet.WaveletCompressionY(f1);
+    ImageBis[] tab3 = wavelet.WaveletCompressionY(fh);
+    ImageBis[] subbands = new ImageBis[] { f1, fh, this.copy(tab2[1], 3),
+        this.copy(tab3[0], 3), this.copy(tab2[0], 3), this.copy(tab3[1], 3) };
+    double sum = 0;
+    for (ImageBis subband : subbands) {
+      sum += bin.shanonEntro(subband, bin.makeHisto(subband));
+    }
+    return sum;
+  }
+
+  private int referenceQuadtreeClutter(BufferedImage image, int threshold) {
+    QuadtreeClutterMethod method = new QuadtreeClutterMethod(image, threshold);
+    BufferedImage bi = method.toGray();
+    FeuilleQuadtree feuille = new FeuilleQuadtree(0, 0, bi.getWidth(), bi
+        .getHeight(), bi, null);
+    Stack<FeuilleQuadtree> pile = new Stack<FeuilleQuadtree>();
+    ArrayList<FeuilleQuadtree> liste = new ArrayList<FeuilleQuadtree>();
+    liste.add(feuille);
+    pile.add(feuille);
+    method.computeQuadTree(pile, liste);
+    int leaves = 0;
+    for (FeuilleQuadtree f : liste) {
+      if (!f.hasChild()) {
+        leaves++;
+      }
+    }
+    return leaves;
+  }
+
+  @Test
+  public void testSubbandEntropy() {
+    RasterBufferClutter clutter = new RasterBufferClutter(4);
+    Random random = new Random(37);
+    for (int k = 0; k < 3; k++) {
+      BufferedImage image = this.map(150 + 60 * k, 310 - 50 * k, random);
+      Assert.assertEquals(this.referenceSubbandEntropy(image), clutter
+          .subbandEntropy(image), 1e-9);
+    }
+  }
+
+  @Test
+  public void testQuadtreeClutter() {
+    RasterBufferClutter clutter = new RasterBufferClutter(4);
+    Random random = new Random(38);
+    BufferedImage image = this.map(512, 400, random);
+    for (int threshold : new int[] { 5, 50, 100 }) {
+      Assert.assertEquals(this.referenceQuadtreeClutter(image, threshold),
+          clutter.quadtreeClutter(image, threshold));
+    }
+  }
+
+  @Test
+  public void testEvaluateDirectory() throws Exception {
+    File directory = File.createTempFile("tiles", "");
+    directory.delete();
+    directory.mkdir();
+    directory.deleteOnExit();
+    Random random = new Random(39);
+    BufferedImage[] tiles = new BufferedImage[6];
+    for (int i = 0; i < tiles.length; i++) {
+      tiles[i] = this.map(256, 256, random);
+      File file = new File(directory, "tile" + i + ".png");
+      ImageIO.write(tiles[i], "png", file);
+      file.deleteOnExit();
+    }
+    RasterBufferClutter clutter = new RasterBufferClutter(4);
+    RasterBufferClutter.BatchResult result = clutter.evaluateDirectory(
+        directory, 5);
+    Assert.assertEquals(tiles.length, result.getScores().size());
+    Assert.assertTrue(result.getTilesPerSecond() > 0);
+    for (int i = 0; i < tiles.length; i++) {
+      RasterBufferClutter.TileScore score = result.getScores().get(i);
+      Assert.assertEquals("tile" + i + ".png", score.getFile().getName());
+      BufferedImage tile = ImageIO.read(score.getFile());
+      Assert.assertEquals(clutter.subbandEntropy(tile), score
+          .getSubbandEntropy(), 1e-9);
+      Assert.assertEquals(clutter.quadtreeClutter(tile, 5), score
+          .getQuadtreeClutter());
+    }
+  }
+}
@@ -0,0 +1,596 @@
+/**
+ *
+ * This software is released under the licence CeCILL
+ *
+ * see Licence_CeCILL-C_fr.html see Licence_CeCILL-C_en.html
+ *
+ * see <a href="http://www.cecill.info/">http://www.cecill.info/a>
+ *
+ *
+ * @copyright IGN
+ *
+ */
+package fr.ign.cogit.geoxygene.contrib.algorithms;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.prep.PreparedGeometry;
+import com.vividsolutions.jts.geom.prep.PreparedGeometryFactory;
+import com.vividsolutions.jts.index.strtree.STRtree;
+
+import fr.ign.cogit.geoxygene.api.feature.IFeature;
+import fr.ign.cogit.geoxygene.api.feature.IFeatureCollection;
+import fr.ign.cogit.geoxygene.api.spatial.geomroot.IGeometry;
+import fr.ign.cogit.geoxygene.util.ParallelChunks;
+import fr.ign.cogit.geoxygene.util.ParallelChunks.RangeTask;
+import fr.ign.cogit.geoxygene.util.conversion.JtsGeOxygene;
+
+/**
+ * Spatial join between two feature collections: the pairs (feature1,
+ * feature2) of features of the first and second collections that satisfy a
+ * spatial predicate, or that are closer than a distance, or the k nearest
+ * features of the second collection for each feature of the first one.
+ * <p>
+ * The geometries of both collections are converted once into JTS geometries,
+ * prepared when the predicate benefits from it, and the candidate pairs are
+ * generated either by querying an STRtree of the second collection with each
+ * feature of the first one (index nested loop) or by a plane sweep in each
+ * cell of a grid partition of both collections (better when both collections
+ * are large and of similar size). Features of the first collection (or grid
+ * cells) are processed by several threads, and the pairs are given to a
+ * {@link PairConsumer} as soon as they are found, which must then be thread
+ * safe. The features without geometry are ignored, except by
+ * {@link #leftJoin(Predicate, PairConsumer)}.
+ *
+ * @param <F1> type of the features of the first collection
+ * @param <F2> type of the features of the second collection
+ */
+public class SpatialJoin<F1 extends IFeature, F2 extends IFeature> {
+
+  /**
+   * Predicate between the geometry of feature1 and the geometry of feature2,
+   * e.g. CONTAINS means feature1 contains feature2.
+   */
+  public enum Predicate {
+    INTERSECTS, CONTAINS, WITHIN, COVERS, COVERED_BY, CROSSES, OVERLAPS, TOUCHES
+  }
+
+  /**
+   * Generation of the candidate pairs. AUTO chooses the plane sweep when both
+   * collections are large and of similar size.
+   */
+  public enum Strategy {
+    AUTO, INDEX_NESTED_LOOP, PLANE_SWEEP
+  }
+
+  /**
+   * Receives the pairs of a join.
+   */
+  public interface PairConsumer<F1, F2> {
+    /**
+     * @param feature1 a feature of the first collection
+     * @param feature2 a feature of the second collection, null in a left join
+     *          when feature1 has no match
+     */
+    public void accept(F1 feature1, F2 feature2);
+  }
+
+  /** minimal size of both collections for the plane sweep */
+  private static final int SWEEP_MIN_SIZE = 1000;
+  /** maximal size ratio between the collections for the plane sweep */
+  private static final int SWEEP_MAX_RATIO = 16;
+  /** mean number of envelopes per cell of the plane sweep partition */
+  private static final int ITEMS_PER_CELL = 512;
+
+  private IFeatureCollection<F1> features1;
+  private IFeatureCollection<F2> features2;
+  private Strategy strategy = Strategy.AUTO;
+  private int nbThreads = Runtime.getRuntime().availableProcessors();
+
+  public SpatialJoin(IFeatureCollection<F1> features1,
+      IFeatureCollection<F2> features2) {
+    this.features1 = features1;
+    this.features2 = features2;
+  }
+
+  public Strategy getStrategy() {
+    return this.strategy;
+  }
+
+  public void setStrategy(Strategy strategy) {
+    this.strategy = strategy;
+  }
+
+  public int getNbThreads() {
+    return this.nbThreads;
+  }
+
+  /**
+   * @param nbThreads number of threads, the consumer is only called by the
+   *          calling thread if 1
+   */
+  public void setNbThreads(int nbThreads) {
+    this.nbThreads = nbThreads;
+  }
+
+  /**
+   * @return the strategy used for the current collections
+   */
+  public Strategy getEffectiveStrategy() {
+    if (this.strategy != Strategy.AUTO) {
+      return this.strategy;
+    }
+    int min = Math.min(this.features1.size(), this.features2.size());
+    int max = Math.max(this.features1.size(), this.features2.size());
+    if (min >= SWEEP_MIN_SIZE && max <= (long) SWEEP_MAX_RATIO * min) {
+      return Strategy.PLANE_SWEEP;
+    }
+    return Strategy.INDEX_NESTED_LOOP;
+  }
+
+  /**
+   * Gives to consumer all the pairs that satisfy the predicate.
+   * @param predicate
+   * @param consumer
+   */
+  public void innerJoin(Predicate predicate, PairConsumer<F1, F2> consumer) {
+    new Join(predicate, 0, false, consumer).run(0, 0);
+  }
+
+  /**
+   * Gives to consumer all the pairs that satisfy the predicate, and (feature1,
+   * null) for the features of the first collection without any match.
+   * @param predicate
+   * @param consumer
+   */
+  public void leftJoin(Predicate predicate, PairConsumer<F1, F2> consumer) {
+    new Join(predicate, 0, true, consumer).run(0, 0);
+  }
+
+  /**
+   * Gives to consumer all the pairs of features closer than distance.
+   * @param distance
+   * @param consumer
+   */
+  public void distanceJoin(double distance, PairConsumer<F1, F2> consumer) {
+    new Join(null, distance, false, consumer).run(0, 0);
+  }
+
+  /**
+   * Gives to consumer, for each feature of the first collection, its k nearest
+   * features of the second collection closer than maxDistance, from the
+   * nearest to the farthest. Always uses the index nested loop.
+   * @param k
+   * @param maxDistance maximal distance, may be Double.POSITIVE_INFINITY
+   * @param consumer
+   */
+  public void nearestJoin(int k, double maxDistance,
+      PairConsumer<F1, F2> consumer) {
+    if (k <= 0) {
+      throw new IllegalArgumentException("k must be positive: " + k);
+    }
+    new Join(null, 0, false, consumer).run(k, maxDistance);
+  }
+
+  /**
+   * Runs task on [0, size) split into chunks, on nbThreads threads.
+   */
+  private void execute(int size, RangeTask task) {
+    ParallelChunks.forEach(size, this.nbThreads, task);
+  }
+
+  /**
+   * One execution of a join, holding the converted geometries.
+   */
+  private class Join {
+    private final Predicate predicate;
+    private final double distance;
+    private final PairConsumer<F1, F2> consumer;
+    /** features of the first collection with a match, for left joins */
+    private final boolean[] matched;
+    private final Side<F1> side1;
+    private final Side<F2> side2;
+
+    /**
+     * @param predicate null for a distance join
+     */
+    public Join(Predicate predicate, double distance, boolean left,
+        PairConsumer<F1, F2> consumer) {
+      this.predicate = predicate;
+      this.distance = distance;
+      this.consumer = consumer;
+      this.side1 = new Side<F1>(features1);
+      this.side2 = new Side<F2>(features2);
+      this.matched = left ? new boolean[this.side1.features.size()] : null;
+    }
+
+    /**
+     * @param k number of neighbours for a kNN join, 0 otherwise
+     */
+    public void run(final int k, final double maxDistance) {
+      // the envelopes of the first collection are extended by the distance
+      // so that the candidates are the pairs of intersecting envelopes
+      execute(this.side1.features.size(), new RangeTask() {
+        @Override
+        public void run(int start, int end) {
+          side1.convert(start, end, distance);
+        }
+      });
+      execute(this.side2.features.size(), new RangeTask() {
+        @Override
+        public void run(int start, int end) {
+          side2.convert(start, end, 0);
+        }
+      });
+      if (k > 0) {
+        this.nearest(k, maxDistance);
+      } else if (getEffectiveStrategy() == Strategy.PLANE_SWEEP) {
+        this.planeSweep();
+      } else {
+        this.indexNestedLoop();
+      }
+      if (this.matched != null) {
+        for (int i = 0; i < this.matched.length; i++) {
+          if (!this.matched[i]) {
+            this.consumer.accept(this.side1.features.get(i), null);
+          }
+        }
+      }
+    }
+
+    private STRtree index() {
+      STRtree index = new STRtree();
+      for (int j = 0; j < this.side2.envelopes.length; j++) {
+        if (this.side2.envelopes[j] != null) {
+          index.insert(this.side2.envelopes[j], Integer.valueOf(j));
+        }
+      }
+      // build now, not during the first concurrent query
+      index.build();
+      return index;
+    }
+
+    private void indexNestedLoop() {
+      final STRtree index = this.index();
+      execute(this.side1.features.size(), new RangeTask() {
+        @SuppressWarnings("unchecked")
+        @Override
+        public void run(int start, int end) {
+          for (int i = start; i < end; i++) {
+            if (side1.envelopes[i] == null) {
+              continue;
+            }
+            List<Integer> candidates = index.query(side1.envelopes[i]);
+            Collections.sort(candidates);
+            for (Integer j : candidates) {
+              if (test(i, j.intValue())) {
+                emit(i, j.intValue());
+              }
+            }
+          }
+        }
+      });
+    }
+
+    private void planeSweep() {
+      Envelope extent = new Envelope();
+      for (Envelope envelope : this.side1.envelopes) {
+        if (envelope != null) {
+          extent.expandToInclude(envelope);
+        }
+      }
+      for (Envelope envelope : this.side2.envelopes) {
+        if (envelope != null) {
+          extent.expandToInclude(envelope);
+        }
+      }
+      if (extent.isNull()) {
+        return;
+      }
+      int size = (int) Math.ceil(Math.sqrt((double) (this.side1.features
+          .size() + this.side2.features.size())
+          / ITEMS_PER_CELL));
+      final Grid grid = new Grid(extent, Math.max(1, size));
+      final List<List<Integer>> cells1 = grid.assign(this.side1.envelopes);
+      final List<List<Integer>> cells2 = grid.assign(this.side2.envelopes);
+      execute(cells1.size(), new RangeTask() {
+        @Override
+        public void run(int start, int end) {
+          for (int cell = start; cell < end; cell++) {
+            sweep(grid, cell, cells1.get(cell), cells2.get(cell));
+          }
+        }
+      });
+    }
+
+    /**
+     * Plane sweep along x of the envelopes of a grid cell. A pair is only
+     * tested in the cell that contains the lower left corner of the
+     * intersection of its envelopes, so that it is reported once.
+     */
+    private void sweep(Grid grid, int cell, List<Integer> list1,
+        List<Integer> list2) {
+      if (list1.isEmpty() || list2.isEmpty()) {
+        return;
+      }
+      final Envelope[] envelopes1 = this.side1.envelopes;
+      final Envelope[] envelopes2 = this.side2.envelopes;
+      Collections.sort(list1, new Comparator<Integer>() {
+        @Override
+        public int compare(Integer i1, Integer i2) {
+          return Double.compare(envelopes1[i1.intValue()].getMinX(),
+              envelopes1[i2.intValue()].getMinX());
+        }
+      });
+      Collections.sort(list2, new Comparator<Integer>() {
+        @Override
+        public int compare(Integer j1, Integer j2) {
+          return Double.compare(envelopes2[j1.intValue()].getMinX(),
+              envelopes2[j2.intValue()].getMinX());
+        }
+      });
+      int i = 0, j = 0;
+      while (i < list1.size() && j < list2.size()) {
+        Envelope e1 = envelopes1[list1.get(i).intValue()];
+        Envelope e2 = envelopes2[list2.get(j).intValue()];
+        if (e1.getMinX() <= e2.getMinX()) {
+          for (int k = j; k < list2.size()
+              && envelopes2[list2.get(k).intValue()].getMinX() <= e1
+                  .getMaxX(); k++) {
+            this.candidate(grid, cell, list1.get(i).intValue(), list2.get(k)
+                .intValue());
+          }
+          i++;
+        } else {
+          for (int k = i; k < list1.size()
+              && envelopes1[list1.get(k).intValue()].getMinX() <= e2
+                  .getMaxX(); k++) {
+            this.candidate(grid, cell, list1.get(k).intValue(), list2.get(j)
+                .intValue());
+          }
+          j++;
+        }
+      }
+    }
+
+    private void candidate(Grid grid, int cell, int i, int j) {
+      Envelope e1 = this.side1.envelopes[i];
+      Envelope e2 = this.side2.envelopes[j];
+      if (e1.getMaxY() < e2.getMinY() || e2.getMaxY() < e1.getMinY()) {
+        return;
+      }
+      if (grid.cell(Math.max(e1.getMinX(), e2.getMinX()), Math.max(
+          e1.getMinY(), e2.getMinY())) != cell) {
+        return;
+      }
+      if (this.test(i, j)) {
+        this.emit(i, j);
+      }
+    }
+
+    /**
+     * k nearest neighbours: the search radius around each feature is doubled
+     * until it contains k features (any feature closer than the radius has
+     * its envelope in the search envelope).
+     */
+    private void nearest(final int k,
+        final double maxDistance) {
+      final STRtree index = this.index();
+      final Envelope extent = new Envelope();
+      int n = 0;
+      for (Envelope envelope : this.side2.envelopes) {
+        if (envelope != null) {
+          extent.expandToInclude(envelope);
+          n++;
+        }
+      }
+      if (n == 0) {
+        return;
+      }
+      // radius of a disc containing k features with a uniform density
+      double radius = Math.sqrt(extent.getArea() * k / n);
+      if (radius == 0) {
+        radius = Math.max(extent.getWidth(), extent.getHeight()) * k / n;
+      }
+      final double initialRadius = radius > 0 ? radius : 1;
+      execute(this.side1.features.size(), new RangeTask() {
+        @SuppressWarnings("unchecked")
+        @Override
+        public void run(int start, int end) {
+          for (int i = start; i < end; i++) {
+            if (side1.envelopes[i] == null) {
+              continue;
+            }
+            double r = Math.min(initialRadius, maxDistance);
+            while (true) {
+              Envelope search = new Envelope(side1.envelopes[i]);
+              search.expandBy(r);
+              boolean all = search.contains(extent);
+              double limit = all ? maxDistance : r;
+              List<Neighbour> neighbours = new ArrayList<Neighbour>();
+              for (Integer j : (List<Integer>) index.query(search)) {
+                double d = side1.geometries[i].distance(side2.geometries[j
+                    .intValue()]);
+                if (d <= limit) {
+                  neighbours.add(new Neighbour(j.intValue(), d));
+                }
+              }
+              if (neighbours.size() >= k || all || r >= maxDistance) {
+                Collections.sort(neighbours);
+                for (int m = 0; m < Math.min(k, neighbours.size()); m++) {
+                  emit(i, neighbours.get(m).index);
+                }
+                break;
+              }
+              r = Math.min(2 * r, maxDistance);
+            }
+          }
+        }
+      });
+    }
+
+    private boolean test(int i, int j) {
+      Geometry geom1 = this.side1.geometries[i];
+      Geometry geom2 = this.side2.geometries[j];
+      if (this.predicate == null) {
+        return geom1.isWithinDistance(geom2, this.distance);
+      }
+      // the prepared geometry is the one the predicate is optimised for
+      switch (this.predicate) {
+        case INTERSECTS:
+          return this.side2.prepared(j).intersects(geom1);
+        case CONTAINS:
+          return this.side1.prepared(i).contains(geom2);
+        case COVERS:
+          return this.side1.prepared(i).covers(geom2);
+        case WITHIN:
+          return this.side2.prepared(j).contains(geom1);
+        case COVERED_BY:
+          return this.side2.prepared(j).covers(geom1);
+        case CROSSES:
+          return geom1.crosses(geom2);
+        case OVERLAPS:
+          return geom1.overlaps(geom2);
+        default:
+          return geom1.touches(geom2);
+      }
+    }
+
+    private void emit(int i, int j) {
+      if (this.matched != null) {
+        this.matched[i] = true;
+      }
+      this.consumer.accept(this.side1.features.get(i), this.side2.features
+          .get(j));
+    }
+  }
+
+  /**
+   * Features of a collection with their JTS geometries and envelopes.
+   */
+  private static class Side<F extends IFeature> {
+    private final List<F> features;
+    private final Geometry[] geometries;
+    private final Envelope[] envelopes;
+    private final AtomicReferenceArray<PreparedGeometry> prepared;
+
+    public Side(IFeatureCollection<F> collection) {
+      this.features = new ArrayList<F>(collection.getElements());
+      this.geometries = new Geometry[this.features.size()];
+      this.envelopes = new Envelope[this.features.size()];
+      this.prepared = new AtomicReferenceArray<PreparedGeometry>(this.features
+          .size());
+    }
+
+    public void convert(int start, int end, double expansion) {
+      for (int i = start; i < end; i++) {
+        IGeometry geom = this.features.get(i).getGeom();
+        if (geom == null || geom.isEmpty()) {
+          continue;
+        }
+        try {
+          this.geometries[i] = JtsGeOxygene.makeJtsGeom(geom);
+        } catch (Exception e) {
+          throw new IllegalStateException(e);
+        }
+        this.envelopes[i] = new Envelope(this.geometries[i]
+            .getEnvelopeInternal());
+        if (expansion > 0) {
+          this.envelopes[i].expandBy(expansion);
+        }
+      }
+    }
+
+    public PreparedGeometry prepared(int i) {
+      PreparedGeometry prep = this.prepared.get(i);
+      if (prep == null) {
+        prep = PreparedGeometryFactory.prepare(this.geometries[i]);
+        if (!this.prepared.compareAndSet(i, null, prep)) {
+          prep = this.prepared.get(i);
+        }
+      }
+      return prep;
+    }
+  }
+
+  /**
+   * Regular grid partition of an extent.
+   */
+  private static class Grid {
+    private final double minX, minY, cellWidth, cellHeight;
+    private final int size;
+
+    public Grid(Envelope extent, int size) {
+      this.minX = extent.getMinX();
+      this.minY = extent.getMinY();
+      this.cellWidth = extent.getWidth() / size;
+      this.cellHeight = extent.getHeight() / size;
+      this.size = size;
+    }
+
+    private int column(double x) {
+      if (this.cellWidth == 0) {
+        return 0;
+      }
+      return Math.max(0, Math.min(this.size - 1,
+          (int) ((x - this.minX) / this.cellWidth)));
+    }
+
+    private int row(double y) {
+      if (this.cellHeight == 0) {
+        return 0;
+      }
+      return Math.max(0, Math.min(this.size - 1,
+          (int) ((y - this.minY) / this.cellHeight)));
+    }
+
+    public int cell(double x, double y) {
+      return this.row(y) * this.size + this.column(x);
+    }
+
+    /**
+     * @return for each cell, the indices of the envelopes that intersect it
+     */
+    public List<List<Integer>> assign(Envelope[] envelopes) {
+      List<List<Integer>> cells = new ArrayList<List<Integer>>();
+      for (int c = 0; c < this.size * this.size; c++) {
+        cells.add(new ArrayList<Integer>());
+      }
+      for (int i = 0; i < envelopes.length; i++) {
+        if (envelopes[i] == null) {
+          continue;
+        }
+        for (int row = this.row(envelopes[i].getMinY()); row <= this
+            .row(envelopes[i].getMaxY()); row++) {
+          for (int column = this.column(envelopes[i].getMinX()); column <= this
+              .column(envelopes[i].getMaxX()); column++) {
+            cells.get(row * this.size + column).add(Integer.valueOf(i));
+          }
+        }
+      }
+      return cells;
+    }
+  }
+
+  private static class Neighbour implements Comparable<Neighbour> {
+    private final int index;
+    private final double distance;
+
+    public Neighbour(int index, double distance) {
+      this.index = index;
+      this.distance = distance;
+    }
+
+    @Override
+    public int compareTo(Neighbour o) {
+      int c = Double.compare(this.distance, o.distance);
+      return c != 0 ? c : this.index - o.index;
+    }
+  }
+}
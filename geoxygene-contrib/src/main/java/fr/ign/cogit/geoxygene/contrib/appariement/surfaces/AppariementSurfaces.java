@@ -35,14 +35,13 @@ import fr.ign.cogit.geoxygene.contrib.cartetopo.Arc;
 import fr.ign.cogit.geoxygene.contrib.cartetopo.CarteTopo;
 import fr.ign.cogit.geoxygene.contrib.cartetopo.Groupe;
 import fr.ign.cogit.geoxygene.contrib.cartetopo.Noeud;
-import fr.ign.cogit.geoxygene.contrib.geometrie.Distances;
 import fr.ign.cogit.geoxygene.contrib.geometrie.Operateurs;
-import fr.ign.cogit.geoxygene.contrib.operateurs.Ensemble;
 import fr.ign.cogit.geoxygene.feature.DataSet;
 import fr.ign.cogit.geoxygene.spatial.coordgeom.GM_LineString;
 import fr.ign.cogit.geoxygene.spatial.geomaggr.GM_Aggregate;
 import fr.ign.cogit.geoxygene.spatial.geomaggr.GM_MultiSurface;
-import fr.ign.cogit.geoxygene.util.algo.JtsAlgorithms;
+import fr.ign.cogit.geoxygene.util.ParallelChunks;
+import fr.ign.cogit.geoxygene.util.ParallelChunks.RangeFunction;
 import fr.ign.cogit.geoxygene.util.index.Tiling;
 import org.apache.log4j.Logger;
 import org.geotools.data.DataUtilities;
@@ -268,6 +267,8 @@ public abstract class AppariementSurfaces {
       IFeatureCollection<? extends IFeature> popRef,
       IFeatureCollection<? extends IFeature> popComp, ParametresAppSurfaces param) {
     List<Groupe> groupesGardes = new ArrayList<>();
+    final List<Groupe> groupesARechercher = new ArrayList<>();
+    final List<List<Arc>> arcsEnlevablesGroupes = new ArrayList<>();
     // on crée les liens n-m (groupes connexes du graphe des liens)
     CarteTopo grapheDesLiens = liensPreApp.transformeEnCarteTopo(popRef, popComp);
     Groupe groupeTotal = grapheDesLiens.getPopGroupes().nouvelElement();
@@ -338,67 +339,41 @@ public abstract class AppariementSurfaces {
         groupesGardes.add(groupeConnexe);
         continue;
       }
-      // on cherche à enlever toutes les combinaisons possibles d'arcs virables
+      // on cherche à enlever la meilleure combinaison d'arcs virables
       if (AppariementSurfaces.LOGGER.isDebugEnabled()) {
         AppariementSurfaces.LOGGER
             .debug("Combinaisons de " + arcsEnlevables.size() + " arcs sur " + groupeConnexe.getListeArcs().size() + " " + new Time(System.currentTimeMillis())); //$NON-NLS-1$
       }
-      List<List<Arc>> combinaisons = Ensemble.combinaisons(new ArrayList<>(arcsEnlevables));
-      if (AppariementSurfaces.LOGGER.isDebugEnabled()) {
-        AppariementSurfaces.LOGGER.debug(combinaisons.size()
-            + " combinaisons trouvées " + new Time(System.currentTimeMillis())); //$NON-NLS-1$
-      }
-      double distSurfMin = 2; // cas de distance surfacique à minimiser
-      double distExacMax = 0; // cas de completude / exactitude à maximiser
-      List<Arc> arcsDuGroupeEnlevesFinal = new ArrayList<>();
-      int comb = 0;
-      long start = System.currentTimeMillis();
-      for (List<Arc> arcsDuGroupeEnleves : combinaisons) { // boucle sur les combinaisons possibles
-        Groupe groupeLight = groupeConnexe.copie(false);
-        groupeLight.getListeArcs().removeAll(arcsDuGroupeEnleves);
-        int size = groupeLight.getListeArcs().size();
-        if (groupeLight.getListeArcs().isEmpty()) {
-          continue; // on refuse la solution extreme de ne rien garder comme apparié
-        }
-        // if (AppariementSurfaces.LOGGER.isDebugEnabled()) {
-        // AppariementSurfaces.LOGGER
-        // .debug("\tGroupe de " + groupeLight.getListeArcs().size());
-        // }
-        double dist = AppariementSurfaces.mesureEvaluationGroupe(groupeLight, popRef, popComp,
-            param);
-        if (param.minimiseDistanceSurfacique) {
-          // cas de distance surfacique à minimiser
-          if (dist < distSurfMin) {
-            distSurfMin = dist;
-            arcsDuGroupeEnlevesFinal = arcsDuGroupeEnleves;
-          }
-        } else {
-          // cas de completude / exactitude à maximiser
-          if (dist > distExacMax) {
-            distExacMax = dist;
-            arcsDuGroupeEnlevesFinal = arcsDuGroupeEnleves;
-          }
-        }
-        if (comb != 0 && comb % 1000 == 0) {
-          long end = System.currentTimeMillis();
-          if (AppariementSurfaces.LOGGER.isDebugEnabled()) {
-            AppariementSurfaces.LOGGER.debug("\tCombinaison " + comb + " (" + size + ") "
-                + (end - start));
+      groupesARechercher.add(groupeConnexe);
+      arcsEnlevablesGroupes.add(arcsEnlevables);
+      groupesGardes.add(groupeConnexe);
+    }
+    // les recherches des groupes connexes sont indépendantes
+    List<List<Arc>> arcsAEnlever = ParallelChunks.map(groupesARechercher.size(),
+        param.nbThreads, groupesARechercher.size(), new RangeFunction<List<Arc>>() {
+          @Override
+          public List<Arc> apply(int start, int end) {
+            return AppariementSurfaces.rechercheArcsAEnlever(groupesARechercher.get(start),
+                arcsEnlevablesGroupes.get(start), param);
           }
-          start = end;
-        }
-        comb++;
-        // if (AppariementSurfaces.LOGGER.isDebugEnabled()) {
-        // AppariementSurfaces.LOGGER
-        // .debug("\t\t " + (end - start));
-        // }
-      } // fin boucle sur les combinaisons possibles
+        });
+    Map<Groupe, List<Arc>> recherches = new IdentityHashMap<>();
+    for (int k = 0; k < groupesARechercher.size(); k++) {
+      recherches.put(groupesARechercher.get(k), arcsAEnlever.get(k));
+    }
+    List<Groupe> groupesSimplifies = new ArrayList<>(groupesGardes.size());
+    for (Groupe groupe : groupesGardes) {
+      List<Arc> arcsDuGroupeEnlevesFinal = recherches.get(groupe);
+      if (arcsDuGroupeEnlevesFinal == null) {
+        groupesSimplifies.add(groupe);
+        continue;
+      }
       // simplification finale des liens d'appariement du groupe
-      groupeConnexe.getListeArcs().removeAll(arcsDuGroupeEnlevesFinal);
+      groupe.getListeArcs().removeAll(arcsDuGroupeEnlevesFinal);
       // création des groupes finaux gardés
-      List<Groupe> groupesDecomposes = groupeConnexe.decomposeConnexes(false);
-      groupesGardes.addAll(groupesDecomposes);
+      groupesSimplifies.addAll(groupe.decomposeConnexes(false));
     }
+    groupesGardes = groupesSimplifies;
     // création des liens retenus (passage de structure graphe à liens):
     // les groupes qui restent dans la carte topo représentent les liens finaux.
     EnsembleDeLiens liensGroupes = new EnsembleDeLiens();
@@ -431,109 +406,26 @@ public abstract class AppariementSurfaces {
   }
 
   /**
-   * Distance surfacique ou complétude "étendue" sur un groupe.
-   * <p>
-   * Attention: vide le groupe au passage.
-   * <p>
-   * MESURE NON SATISFAISANTE POUR LIENS N-M : moyenne entre parties connexes
-   * <p>
-   * A REVOIR
+   * Recherche des arcs à enlever d'un groupe connexe pour obtenir le meilleur
+   * regroupement (cf. {@link RegroupementOptimal}). La recherche n'utilise que
+   * les géométries et ne modifie pas le groupe.
    * @param groupe
-   * @param popRef
-   * @param popComp
+   * @param arcsEnlevables
+   *        arcs du groupe qui peuvent être enlevés
    * @param param
+   * @return les arcs à enlever
    */
-  @SuppressWarnings("unchecked")
-  private static double mesureEvaluationGroupe(Groupe groupe, IFeatureCollection<?> popRef,
-      IFeatureCollection<?> popComp, ParametresAppSurfaces param) {
-    /*
-     * double result = 0;
-     * double ds = 1;
-     * double exactitude = 1;
-     * double completude = 1;
-     * for (Arc arc : groupe.getListeArcs()) {
-     * Lien lien = (Lien) arc.getCorrespondant(0);
-     * // IFeature ref = lien.getObjetsRef().get(0);
-     * // IFeature comp = lien.getObjetsComp().get(0);
-     * // IMultiSurface<IOrientableSurface> geomRef = new GM_MultiSurface<IOrientableSurface>();
-     * // IMultiSurface<IOrientableSurface> geomComp = new GM_MultiSurface<IOrientableSurface>();
-     * // if (ref.getGeom() instanceof IMultiSurface) {
-     * // geomRef = (IMultiSurface<IOrientableSurface>) ref.getGeom();
-     * // } else {
-     * // geomRef.add((IOrientableSurface) ref.getGeom());
-     * // }
-     * // if (comp.getGeom() instanceof IMultiSurface) {
-     * // geomComp = (IMultiSurface<IOrientableSurface>) comp.getGeom();
-     * // } else {
-     * // geomComp.add((IOrientableSurface) comp.getGeom());
-     * // }
-     * if (param.minimiseDistanceSurfacique) {
-     * ds *= lien.getDistanceSurfacique();
-     * } else {
-     * exactitude *= lien.getExactitude();
-     * completude *= lien.getCompletude();
-     * }
-     * }
-     * if (param.minimiseDistanceSurfacique) {
-     * result = ds;
-     * } else {
-     * result = exactitude + completude;
-     * }
-     */
-    double result = param.minimiseDistanceSurfacique ? 2 : -1;
-    // on décompose le groupe en parties connexes
+  private static List<Arc> rechercheArcsAEnlever(Groupe groupe, List<Arc> arcsEnlevables,
+      ParametresAppSurfaces param) {
     long start = System.currentTimeMillis();
-    List<Groupe> groupesConnexes = groupe.decomposeConnexes(false);
-    long end = System.currentTimeMillis();
-    long duration = (end - start);
-    if (duration > 5) {
-      LOGGER.info("decomposeConnexes " + duration);
-    }
-    for (Groupe groupeConnnexe : groupesConnexes) {
-      // on mesure la qualité de l'appariement pour chaque partie connexe,
-      if (groupeConnnexe.getListeArcs().isEmpty()) {
-        continue;
-      }
-      // IMultiSurface<IOrientableSurface> geomRef = new GM_MultiSurface<IOrientableSurface>();
-      // IMultiSurface<IOrientableSurface> geomComp = new GM_MultiSurface<IOrientableSurface>();
-      List<IOrientableSurface> listRef = new ArrayList<>();
-      List<IOrientableSurface> listComp = new ArrayList<>();
-      for (Noeud noeud : groupeConnnexe.getListeNoeuds()) {
-        IFeature feat = noeud.getCorrespondant(0);
-        // if ( feat.getPopulation()==popRef ) geomRef.add(feat.getGeom());
-        // if ( feat.getPopulation()==popComp ) geomComp.add(feat.getGeom());
-        if (popRef.getElements().contains(feat)) {
-          listRef.add((IOrientableSurface) feat.getGeom());
-        }
-        if (popComp.getElements().contains(feat)) {
-          listComp.add((IOrientableSurface) feat.getGeom());
-        }
-      }
-      IGeometry unionRef = JtsAlgorithms.union(listRef);
-      IGeometry unionComp = JtsAlgorithms.union(listComp);
-      IMultiSurface<IOrientableSurface> geomRef = new GM_MultiSurface<>();
-      IMultiSurface<IOrientableSurface> geomComp = new GM_MultiSurface<>();
-      if (unionRef instanceof IMultiSurface<?>) {
-        geomRef = (IMultiSurface<IOrientableSurface>) unionRef;
-      } else {
-        geomRef.add((IOrientableSurface) unionRef);
-      }
-      if (unionComp instanceof IMultiSurface<?>) {
-        geomComp = (IMultiSurface<IOrientableSurface>) unionComp;
-      } else {
-        geomComp.add((IOrientableSurface) unionComp);
-      }
-      // on combine les mesures des parties connexes
-      if (param.minimiseDistanceSurfacique) {
-        double value = Distances.distanceSurfaciqueRobuste(geomRef, geomComp);
-        result = Math.min(result, value);
-      } else {
-        double value = Distances.exactitude(geomRef, geomComp)
-            + Distances.completude(geomRef, geomComp);
-        result = Math.max(result, value);
-      }
+    RegroupementOptimal recherche = RegroupementOptimal.cree(groupe, arcsEnlevables, param);
+    List<Arc> arcs = recherche.arcsAEnlever(arcsEnlevables);
+    if (AppariementSurfaces.LOGGER.isDebugEnabled()) {
+      AppariementSurfaces.LOGGER.debug("\t" + recherche.getNbEvaluations() //$NON-NLS-1$
+          + " combinaisons évaluées sur " + arcsEnlevables.size() + " arcs " //$NON-NLS-1$ //$NON-NLS-2$
+          + (System.currentTimeMillis() - start));
     }
-    return result; // / groupesConnexes.size();
+    return arcs;
   }
 
   /**
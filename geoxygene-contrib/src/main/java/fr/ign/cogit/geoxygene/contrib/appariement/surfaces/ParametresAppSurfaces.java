@@ -92,6 +92,13 @@ public class ParametresAppSurfaces implements Cloneable {
    */
   public boolean regroupementOptimal = true;
 
+  /**
+   * Nombre de threads utilisés pour rechercher les regroupements optimaux des
+   * groupes connexes de liens, qui sont indépendants. Valeur par défaut : le
+   * nombre de processeurs
+   */
+  public int nbThreads = Runtime.getRuntime().availableProcessors();
+
   /**
    * Paramètre indiquant si on souhaite faire un filtrage final des liens sur
    * des critères de distance surfacique ou de complétude
@@ -0,0 +1,509 @@
+/*
+ * This file is part of the GeOxygene project source files. GeOxygene aims at
+ * providing an open framework which implements OGC/ISO specifications for the
+ * development and deployment of geographic (GIS) applications. It is a open
+ * source contribution of the COGIT laboratory at the Institut Géographique
+ * National (the French National Mapping Agency). See:
+ * http://oxygene-project.sourceforge.net Copyright (C) 2005 Institut
+ * Géographique National This library is free software; you can redistribute it
+ * and/or modify it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of the License,
+ * or any later version. This library is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser
+ * General Public License for more details. You should have received a copy of
+ * the GNU Lesser General Public License along with this library (see file
+ * LICENSE if present); if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+
+package fr.ign.cogit.geoxygene.contrib.appariement.surfaces;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import fr.ign.cogit.geoxygene.api.spatial.geomroot.IGeometry;
+import fr.ign.cogit.geoxygene.contrib.cartetopo.Arc;
+import fr.ign.cogit.geoxygene.contrib.cartetopo.Groupe;
+import fr.ign.cogit.geoxygene.contrib.cartetopo.Noeud;
+import fr.ign.cogit.geoxygene.contrib.geometrie.Operateurs;
+
+/**
+ * Recherche, dans un groupe connexe de liens de pré-appariement, des arcs à
+ * enlever pour obtenir le meilleur regroupement, par séparation et évaluation.
+ * <p>
+ * Les combinaisons d'arcs enlevés sont parcourues dans l'ordre de
+ * {@link fr.ign.cogit.geoxygene.contrib.operateurs.Ensemble#combinaisons(List)}
+ * sans être construites, et la première combinaison optimale est retenue,
+ * comme avec l'énumération exhaustive. La mesure d'un regroupement est celle
+ * de sa meilleure partie connexe ; elle est calculée à partir des surfaces
+ * d'intersection entre objets de référence et de comparaison, calculées une
+ * seule fois. Comme pour
+ * {@link fr.ign.cogit.geoxygene.contrib.geometrie.Distances#distanceSurfaciqueRobuste(fr.ign.cogit.geoxygene.api.spatial.geomaggr.IMultiSurface, fr.ign.cogit.geoxygene.api.spatial.geomaggr.IMultiSurface)}
+ * , les surfaces d'une même population sont supposées ne pas se recouvrir.
+ * <p>
+ * Une branche de l'énumération est élaguée quand aucune des combinaisons de
+ * la branche ne peut améliorer la meilleure mesure trouvée (à {@link #EPSILON}
+ * près). Pour la distance surfacique, on cherche par coupe minimale s'il
+ * existe un ensemble de noeuds encore reliés par un arc, contenant les deux
+ * extrémités des arcs gardés à coup sûr dans la branche, dont le rapport
+ * intersection / union dépasse le meilleur rapport trouvé ; toute partie
+ * connexe d'une combinaison de la branche est un tel ensemble. Pour
+ * exactitude + complétude, la borne est la meilleure couverture d'un noeud de
+ * chaque population.
+ */
+class RegroupementOptimal {
+
+  /** Ecart de mesure en deçà duquel deux regroupements sont équivalents. */
+  static final double EPSILON = 1e-9;
+
+  private final boolean minimiseDistanceSurfacique;
+  private final int nbNoeuds;
+  private final double[] aires;
+  private final boolean[] ref;
+  private final int[] arcIni;
+  private final int[] arcFin;
+  /** indices des arcs enlevables, dans l'ordre de la liste des arcs */
+  private final int[] enlevables;
+  private final int[] pairesRef;
+  private final int[] pairesComp;
+  private final double[] pairesInter;
+
+  private final boolean[] enleve;
+  private final int[] degres;
+  private final BitSet disponibles = new BitSet();
+  private int nbArcsGardes;
+  private final int[] parents;
+
+  private double meilleureMesure;
+  private int[] meilleurEnleves = new int[0];
+  private int nbEvaluations = 0;
+
+  /**
+   * @param aires
+   *        surface de chaque noeud
+   * @param ref
+   *        vrai pour les noeuds de référence, faux pour ceux de comparaison
+   * @param arcIni
+   *        noeud de référence de chaque arc
+   * @param arcFin
+   *        noeud de comparaison de chaque arc
+   * @param enlevables
+   *        indices des arcs qui peuvent être enlevés
+   * @param pairesRef
+   *        noeud de référence de chaque couple de noeuds qui s'intersectent
+   * @param pairesComp
+   *        noeud de comparaison de chaque couple
+   * @param pairesInter
+   *        surface de l'intersection de chaque couple
+   * @param minimiseDistanceSurfacique
+   *        cf. {@link ParametresAppSurfaces#minimiseDistanceSurfacique}
+   */
+  RegroupementOptimal(double[] aires, boolean[] ref, int[] arcIni, int[] arcFin,
+      int[] enlevables, int[] pairesRef, int[] pairesComp, double[] pairesInter,
+      boolean minimiseDistanceSurfacique) {
+    this.nbNoeuds = aires.length;
+    this.aires = aires;
+    this.ref = ref;
+    this.arcIni = arcIni;
+    this.arcFin = arcFin;
+    this.enlevables = enlevables;
+    this.pairesRef = pairesRef;
+    this.pairesComp = pairesComp;
+    this.pairesInter = pairesInter;
+    this.minimiseDistanceSurfacique = minimiseDistanceSurfacique;
+    this.enleve = new boolean[arcIni.length];
+    this.degres = new int[this.nbNoeuds];
+    this.parents = new int[this.nbNoeuds];
+  }
+
+  /**
+   * Prépare la recherche sur un groupe connexe : les surfaces d'intersection
+   * entre les objets de référence (noeuds initiaux des arcs) et de comparaison
+   * (noeuds finaux) du groupe sont calculées une fois pour toutes.
+   */
+  static RegroupementOptimal cree(Groupe groupe, List<Arc> arcsEnlevables,
+      ParametresAppSurfaces param) {
+    List<Noeud> noeuds = new ArrayList<Noeud>();
+    Map<Noeud, Integer> indices = new HashMap<Noeud, Integer>();
+    List<Arc> arcs = groupe.getListeArcs();
+    int[] arcIni = new int[arcs.size()];
+    int[] arcFin = new int[arcs.size()];
+    List<Boolean> estRef = new ArrayList<Boolean>();
+    for (int i = 0; i < arcs.size(); i++) {
+      arcIni[i] = RegroupementOptimal.indice(arcs.get(i).getNoeudIni(), noeuds, indices,
+          estRef, true);
+      arcFin[i] = RegroupementOptimal.indice(arcs.get(i).getNoeudFin(), noeuds, indices,
+          estRef, false);
+    }
+    int n = noeuds.size();
+    double[] aires = new double[n];
+    boolean[] ref = new boolean[n];
+    IGeometry[] geoms = new IGeometry[n];
+    for (int i = 0; i < n; i++) {
+      geoms[i] = noeuds.get(i).getCorrespondant(0).getGeom();
+      aires[i] = geoms[i].area();
+      ref[i] = estRef.get(i).booleanValue();
+    }
+    List<int[]> paires = new ArrayList<int[]>();
+    List<Double> inters = new ArrayList<Double>();
+    for (int i = 0; i < n; i++) {
+      if (!ref[i]) {
+        continue;
+      }
+      for (int j = 0; j < n; j++) {
+        if (ref[j] || !geoms[i].getEnvelope().intersects(geoms[j].getEnvelope())) {
+          continue;
+        }
+        IGeometry inter = geoms[i].intersection(geoms[j]);
+        if (inter == null) {
+          inter = Operateurs.intersectionRobuste(geoms[i], geoms[j], param.resolutionMin,
+              param.resolutionMax);
+        }
+        if (inter == null || inter.area() <= 0) {
+          continue;
+        }
+        paires.add(new int[] { i, j });
+        inters.add(Double.valueOf(inter.area()));
+      }
+    }
+    int[] pairesRef = new int[paires.size()];
+    int[] pairesComp = new int[paires.size()];
+    double[] pairesInter = new double[paires.size()];
+    for (int p = 0; p < paires.size(); p++) {
+      pairesRef[p] = paires.get(p)[0];
+      pairesComp[p] = paires.get(p)[1];
+      pairesInter[p] = inters.get(p).doubleValue();
+    }
+    int[] enlevables = new int[arcsEnlevables.size()];
+    int k = 0;
+    for (int i = 0; i < arcs.size(); i++) {
+      if (arcsEnlevables.contains(arcs.get(i))) {
+        enlevables[k++] = i;
+      }
+    }
+    return new RegroupementOptimal(aires, ref, arcIni, arcFin, enlevables, pairesRef,
+        pairesComp, pairesInter, param.minimiseDistanceSurfacique);
+  }
+
+  private static int indice(Noeud noeud, List<Noeud> noeuds, Map<Noeud, Integer> indices,
+      List<Boolean> estRef, boolean ref) {
+    Integer indice = indices.get(noeud);
+    if (indice == null) {
+      indice = Integer.valueOf(noeuds.size());
+      indices.put(noeud, indice);
+      noeuds.add(noeud);
+      estRef.add(Boolean.valueOf(ref));
+    }
+    return indice.intValue();
+  }
+
+  /**
+   * Lance la recherche.
+   * @return les positions, dans la liste des arcs enlevables, des arcs à
+   *         enlever, dans l'ordre croissant
+   */
+  int[] recherche() {
+    this.meilleureMesure = this.minimiseDistanceSurfacique ? 2 : 0;
+    this.meilleurEnleves = new int[0];
+    this.nbEvaluations = 0;
+    Arrays.fill(this.enleve, false);
+    Arrays.fill(this.degres, 0);
+    this.disponibles.clear();
+    for (int a = 0; a < this.arcIni.length; a++) {
+      this.degres[this.arcIni[a]]++;
+      this.degres[this.arcFin[a]]++;
+    }
+    for (int i = 0; i < this.nbNoeuds; i++) {
+      if (this.degres[i] > 0) {
+        this.disponibles.set(i);
+      }
+    }
+    this.nbArcsGardes = this.arcIni.length;
+    int[] enleves = new int[this.enlevables.length];
+    // la combinaison vide est la première de l'énumération
+    this.evalue(enleves, 0);
+    this.explore(enleves, 0, 0);
+    return this.meilleurEnleves;
+  }
+
+  /**
+   * Arcs enlevés à la recherche.
+   */
+  List<Arc> arcsAEnlever(List<Arc> arcsEnlevables) {
+    List<Arc> arcs = new ArrayList<Arc>();
+    for (int position : this.recherche()) {
+      arcs.add(arcsEnlevables.get(position));
+    }
+    return arcs;
+  }
+
+  /** Nombre de combinaisons évaluées par la dernière recherche. */
+  int getNbEvaluations() {
+    return this.nbEvaluations;
+  }
+
+  /**
+   * Parcourt les combinaisons qui prolongent les nbEnleves premiers éléments
+   * de enleves avec des arcs enlevables de position au moins debut : chaque
+   * combinaison est évaluée après ses prolongements.
+   */
+  private void explore(int[] enleves, int nbEnleves, int debut) {
+    for (int position = debut; position < this.enlevables.length; position++) {
+      this.enleve(this.enlevables[position], true);
+      enleves[nbEnleves] = position;
+      if (!this.elague(position + 1)) {
+        this.explore(enleves, nbEnleves + 1, position + 1);
+        this.evalue(enleves, nbEnleves + 1);
+      }
+      this.enleve(this.enlevables[position], false);
+    }
+  }
+
+  private void enleve(int arc, boolean enleve) {
+    this.enleve[arc] = enleve;
+    int delta = enleve ? -1 : 1;
+    this.nbArcsGardes += delta;
+    for (int noeud : new int[] { this.arcIni[arc], this.arcFin[arc] }) {
+      this.degres[noeud] += delta;
+      this.disponibles.set(noeud, this.degres[noeud] > 0);
+    }
+  }
+
+  /**
+   * Vrai si aucune combinaison de la branche courante ne peut améliorer la
+   * meilleure mesure : les arcs enlevables de position au moins premierLibre
+   * peuvent encore être enlevés, les autres arcs non enlevés sont gardés.
+   */
+  private boolean elague(int premierLibre) {
+    if (!this.minimiseDistanceSurfacique) {
+      return this.borneExactitudeCompletude() <= this.meilleureMesure
+          + RegroupementOptimal.EPSILON;
+    }
+    if (this.meilleureMesure > 1) {
+      return false;
+    }
+    boolean[] libres = new boolean[this.arcIni.length];
+    for (int position = premierLibre; position < this.enlevables.length; position++) {
+      libres[this.enlevables[position]] = true;
+    }
+    return !this.existeMeilleurEnsemble(1 - this.meilleureMesure + RegroupementOptimal.EPSILON,
+        libres);
+  }
+
+  /**
+   * Evalue le regroupement formé des arcs non enlevés : mesure de sa meilleure
+   * partie connexe.
+   */
+  private void evalue(int[] enleves, int nbEnleves) {
+    if (this.nbArcsGardes == 0) {
+      return; // on refuse la solution extreme de ne rien garder comme apparié
+    }
+    this.nbEvaluations++;
+    this.composantes();
+    double[] inter = new double[this.nbNoeuds];
+    double[] aireRef = new double[this.nbNoeuds];
+    double[] aireComp = new double[this.nbNoeuds];
+    for (int i = 0; i < this.nbNoeuds; i++) {
+      if (this.degres[i] > 0) {
+        if (this.ref[i]) {
+          aireRef[this.racine(i)] += this.aires[i];
+        } else {
+          aireComp[this.racine(i)] += this.aires[i];
+        }
+      }
+    }
+    for (int p = 0; p < this.pairesInter.length; p++) {
+      int r = this.pairesRef[p], c = this.pairesComp[p];
+      if (this.degres[r] > 0 && this.degres[c] > 0) {
+        int racine = this.racine(r);
+        if (racine == this.racine(c)) {
+          inter[racine] += this.pairesInter[p];
+        }
+      }
+    }
+    double mesure = this.minimiseDistanceSurfacique ? 2 : -1;
+    for (int i = 0; i < this.nbNoeuds; i++) {
+      if (this.degres[i] == 0 || this.parents[i] != i) {
+        continue;
+      }
+      if (this.minimiseDistanceSurfacique) {
+        mesure = Math.min(mesure, 1 - inter[i] / (aireRef[i] + aireComp[i] - inter[i]));
+      } else {
+        mesure = Math.max(mesure, inter[i] / aireRef[i] + inter[i] / aireComp[i]);
+      }
+    }
+    if (this.minimiseDistanceSurfacique ? mesure < this.meilleureMesure
+        : mesure > this.meilleureMesure) {
+      this.meilleureMesure = mesure;
+      this.meilleurEnleves = Arrays.copyOf(enleves, nbEnleves);
+    }
+  }
+
+  /**
+   * Composantes connexes des arcs non enlevés (cf. {@link #racine(int)}).
+   */
+  private void composantes() {
+    for (int i = 0; i < this.nbNoeuds; i++) {
+      this.parents[i] = i;
+    }
+    for (int a = 0; a < this.arcIni.length; a++) {
+      if (!this.enleve[a]) {
+        int r1 = this.racine(this.arcIni[a]);
+        int r2 = this.racine(this.arcFin[a]);
+        if (r1 != r2) {
+          this.parents[r1] = r2;
+        }
+      }
+    }
+  }
+
+  private int racine(int i) {
+    while (this.parents[i] != i) {
+      this.parents[i] = this.parents[this.parents[i]];
+      i = this.parents[i];
+    }
+    return i;
+  }
+
+  /**
+   * Meilleure exactitude + complétude possible sur les noeuds disponibles :
+   * l'exactitude d'un groupe est au plus la meilleure couverture d'un de ses
+   * objets de référence, et de même pour la complétude.
+   */
+  private double borneExactitudeCompletude() {
+    double[] inter = new double[this.nbNoeuds];
+    for (int p = 0; p < this.pairesInter.length; p++) {
+      int r = this.pairesRef[p], c = this.pairesComp[p];
+      if (this.disponibles.get(r) && this.disponibles.get(c)) {
+        inter[r] += this.pairesInter[p];
+        inter[c] += this.pairesInter[p];
+      }
+    }
+    double maxRef = 0, maxComp = 0;
+    for (int i = this.disponibles.nextSetBit(0); i >= 0; i = this.disponibles.nextSetBit(i + 1)) {
+      double couverture = Math.min(1, inter[i] / this.aires[i]);
+      if (this.ref[i]) {
+        maxRef = Math.max(maxRef, couverture);
+      } else {
+        maxComp = Math.max(maxComp, couverture);
+      }
+    }
+    return maxRef + maxComp;
+  }
+
+  /**
+   * Vrai s'il existe un ensemble de noeuds disponibles, contenant les deux
+   * extrémités de chaque arc gardé non libre, de rapport intersection / union
+   * supérieur à lambda, i.e. tel que (1 + lambda) * inter - lambda * aire > 0.
+   * L'ensemble qui maximise cette somme des poids des couples inclus moins le
+   * coût des noeuds est obtenu par coupe minimale : source = 0, puits = 1,
+   * noeuds disponibles à partir de 2 et arcs gardés de capacité infinie.
+   */
+  private boolean existeMeilleurEnsemble(double lambda, boolean[] libres) {
+    // un ensemble ne peut être une partie connexe que s'il est inclus dans une
+    // composante connexe des arcs non enlevés : seuls les couples d'une même
+    // composante sont comptés, et le problème se découpe par composante
+    this.composantes();
+    boolean[] couples = new boolean[this.pairesInter.length];
+    for (int p = 0; p < this.pairesInter.length; p++) {
+      int r = this.pairesRef[p], c = this.pairesComp[p];
+      couples[p] = this.degres[r] > 0 && this.degres[c] > 0
+          && this.racine(r) == this.racine(c);
+    }
+    int[] sommets = new int[this.nbNoeuds];
+    int nbSommets = 2;
+    for (int i = this.disponibles.nextSetBit(0); i >= 0; i = this.disponibles.nextSetBit(i + 1)) {
+      sommets[i] = nbSommets++;
+    }
+    double[][] capacites = new double[nbSommets][nbSommets];
+    double[] b = new double[this.nbNoeuds];
+    double echelle = 0;
+    for (int i = this.disponibles.nextSetBit(0); i >= 0; i = this.disponibles.nextSetBit(i + 1)) {
+      b[i] = lambda * this.aires[i];
+      echelle += this.aires[i];
+    }
+    for (int p = 0; p < this.pairesInter.length; p++) {
+      int r = this.pairesRef[p], c = this.pairesComp[p];
+      if (couples[p]) {
+        double poids = (1 + lambda) * this.pairesInter[p];
+        b[r] -= poids / 2;
+        b[c] -= poids / 2;
+        capacites[sommets[r]][sommets[c]] += poids / 2;
+        capacites[sommets[c]][sommets[r]] += poids / 2;
+      }
+    }
+    for (int i = this.disponibles.nextSetBit(0); i >= 0; i = this.disponibles.nextSetBit(i + 1)) {
+      if (b[i] < 0) {
+        capacites[0][sommets[i]] = -b[i];
+      } else {
+        capacites[sommets[i]][1] = b[i];
+      }
+    }
+    for (int a = 0; a < this.arcIni.length; a++) {
+      if (!this.enleve[a] && !libres[a]) {
+        capacites[sommets[this.arcIni[a]]][sommets[this.arcFin[a]]] = Double.POSITIVE_INFINITY;
+        capacites[sommets[this.arcFin[a]]][sommets[this.arcIni[a]]] = Double.POSITIVE_INFINITY;
+      }
+    }
+    double tolerance = 1e-12 * (1 + echelle);
+    boolean[] source = RegroupementOptimal.coupeMinimale(capacites, tolerance);
+    double inter = 0, aire = 0;
+    for (int i = this.disponibles.nextSetBit(0); i >= 0; i = this.disponibles.nextSetBit(i + 1)) {
+      if (source[sommets[i]]) {
+        aire += this.aires[i];
+      }
+    }
+    for (int p = 0; p < this.pairesInter.length; p++) {
+      if (couples[p] && source[sommets[this.pairesRef[p]]]
+          && source[sommets[this.pairesComp[p]]]) {
+        inter += this.pairesInter[p];
+      }
+    }
+    return inter - lambda * (aire - inter) > tolerance;
+  }
+
+  /**
+   * Coupe minimale entre les sommets 0 et 1 (Edmonds-Karp).
+   * @return les sommets du côté de la source
+   */
+  private static boolean[] coupeMinimale(double[][] capacites, double tolerance) {
+    int n = capacites.length;
+    int[] precedents = new int[n];
+    int[] file = new int[n];
+    while (true) {
+      Arrays.fill(precedents, -1);
+      precedents[0] = 0;
+      int debut = 0, fin = 0;
+      file[fin++] = 0;
+      while (debut < fin && precedents[1] < 0) {
+        int u = file[debut++];
+        for (int v = 0; v < n; v++) {
+          if (precedents[v] < 0 && capacites[u][v] > tolerance) {
+            precedents[v] = u;
+            file[fin++] = v;
+          }
+        }
+      }
+      if (precedents[1] < 0) {
+        boolean[] source = new boolean[n];
+        for (int v = 0; v < n; v++) {
+          source[v] = precedents[v] >= 0;
+        }
+        return source;
+      }
+      double flot = Double.POSITIVE_INFINITY;
+      for (int v = 1; v != 0; v = precedents[v]) {
+        flot = Math.min(flot, capacites[precedents[v]][v]);
+      }
+      for (int v = 1; v != 0; v = precedents[v]) {
+        capacites[precedents[v]][v] -= flot;
+        capacites[v][precedents[v]] += flot;
+      }
+    }
+  }
+}
@@ -0,0 +1,162 @@
+package fr.ign.cogit.geoxygene.contrib.conflation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import fr.ign.cogit.geoxygene.api.spatial.coordgeom.IDirectPosition;
+
+/**
+ * A regular grid index of conflation vectors used by
+ * {@link RubberSheetingConflation}. A vector only influences the points where
+ * {@code norm / (dist * dist) >= distanceThreshold}, i.e. a disk of radius
+ * {@code sqrt(norm / distanceThreshold)} around its initial position: each
+ * vector is registered in all the cells covered by its influence disk, and
+ * vectors whose disk covers too many cells are kept in a list of global
+ * vectors tested everywhere. Candidates are returned in the iteration order
+ * of the original collection so that aggregations sum in the same order as
+ * the exhaustive method.
+ */
+public class ConflationVectorIndex {
+
+  /**
+   * Vectors covering more cells than this are tested for every query.
+   */
+  private static final int MAX_CELLS_PER_VECTOR = 256;
+
+  private ConflationVector[] vectors;
+  private double xMin, yMin, cellSize;
+  private int nx, ny;
+  /**
+   * Compressed cell lists: vectors of cell c are
+   * {@code cellItems[cellStart[c]..cellStart[c+1]-1]}.
+   */
+  private int[] cellStart, cellItems;
+  private int[] globalItems;
+
+  public ConflationVectorIndex(Collection<ConflationVector> conflationVectors,
+      double distanceThreshold) {
+    this.vectors = conflationVectors
+        .toArray(new ConflationVector[conflationVectors.size()]);
+    int n = vectors.length;
+
+    // influence radii, slightly enlarged to stay on the safe side of the
+    // exact test made by the caller
+    double[] radius = new double[n];
+    double xMax = Double.NEGATIVE_INFINITY, yMax = Double.NEGATIVE_INFINITY;
+    xMin = Double.POSITIVE_INFINITY;
+    yMin = Double.POSITIVE_INFINITY;
+    for (int i = 0; i < n; i++) {
+      IDirectPosition pos = vectors[i].getIniPos();
+      if (distanceThreshold <= 0.0)
+        radius[i] = Double.POSITIVE_INFINITY;
+      else
+        radius[i] = Math.sqrt(vectors[i].getVector().norme()
+            / distanceThreshold)
+            * (1.0 + 1e-9) + 1e-9;
+      xMin = Math.min(xMin, pos.getX());
+      yMin = Math.min(yMin, pos.getY());
+      xMax = Math.max(xMax, pos.getX());
+      yMax = Math.max(yMax, pos.getY());
+    }
+
+    // cell size: median influence radius, but not so small that the grid
+    // gets much bigger than the number of vectors
+    double[] sorted = radius.clone();
+    Arrays.sort(sorted);
+    double median = n == 0 ? 1.0 : sorted[n / 2];
+    double width = n == 0 ? 0.0 : xMax - xMin;
+    double height = n == 0 ? 0.0 : yMax - yMin;
+    cellSize = Math.max(median, Math.sqrt(width * height / Math.max(n, 1)));
+    cellSize = Math.max(cellSize, Math.max(width, height) / (2 * n + 1));
+    if (Double.isInfinite(cellSize) || cellSize <= 0.0)
+      cellSize = 1.0;
+    nx = n == 0 ? 1 : (int) Math.floor((xMax - xMin) / cellSize) + 1;
+    ny = n == 0 ? 1 : (int) Math.floor((yMax - yMin) / cellSize) + 1;
+
+    // first pass: count the vectors of each cell
+    int[][] ranges = new int[n][];
+    int[] counts = new int[nx * ny + 1];
+    List<Integer> globals = new ArrayList<Integer>();
+    for (int i = 0; i < n; i++) {
+      IDirectPosition pos = vectors[i].getIniPos();
+      double r = radius[i];
+      double side = 2 * r / cellSize + 1;
+      if (Double.isInfinite(r) || side * side > MAX_CELLS_PER_VECTOR) {
+        globals.add(i);
+        continue;
+      }
+      int[] range = new int[] { this.cellX(pos.getX() - r),
+          this.cellY(pos.getY() - r), this.cellX(pos.getX() + r),
+          this.cellY(pos.getY() + r) };
+      ranges[i] = range;
+      for (int cx = range[0]; cx <= range[2]; cx++)
+        for (int cy = range[1]; cy <= range[3]; cy++)
+          counts[cy * nx + cx + 1]++;
+    }
+    cellStart = new int[nx * ny + 1];
+    for (int c = 1; c <= nx * ny; c++)
+      cellStart[c] = cellStart[c - 1] + counts[c];
+
+    // second pass: fill the cells in increasing vector order
+    cellItems = new int[cellStart[nx * ny]];
+    int[] fill = Arrays.copyOf(cellStart, nx * ny);
+    for (int i = 0; i < n; i++) {
+      int[] range = ranges[i];
+      if (range == null)
+        continue;
+      for (int cx = range[0]; cx <= range[2]; cx++)
+        for (int cy = range[1]; cy <= range[3]; cy++)
+          cellItems[fill[cy * nx + cx]++] = i;
+    }
+    globalItems = new int[globals.size()];
+    for (int k = 0; k < globalItems.length; k++)
+      globalItems[k] = globals.get(k);
+  }
+
+  private int cellX(double x) {
+    int c = (int) Math.floor((x - xMin) / cellSize);
+    return Math.max(0, Math.min(nx - 1, c));
+  }
+
+  private int cellY(double y) {
+    int c = (int) Math.floor((y - yMin) / cellSize);
+    return Math.max(0, Math.min(ny - 1, c));
+  }
+
+  public int size() {
+    return vectors.length;
+  }
+
+  public ConflationVector getVector(int i) {
+    return vectors[i];
+  }
+
+  /**
+   * Get the indices of the vectors that may influence a point, sorted in the
+   * iteration order of the indexed collection.
+   * @param point
+   * @return
+   */
+  public int[] candidates(IDirectPosition point) {
+    if (vectors.length == 0)
+      return new int[0];
+    int cell = this.cellY(point.getY()) * nx + this.cellX(point.getX());
+    int from = cellStart[cell], to = cellStart[cell + 1];
+    // merge the cell list and the global list, both sorted
+    int[] result = new int[to - from + globalItems.length];
+    int i = from, j = 0, k = 0;
+    while (i < to && j < globalItems.length) {
+      if (cellItems[i] < globalItems[j])
+        result[k++] = cellItems[i++];
+      else
+        result[k++] = globalItems[j++];
+    }
+    while (i < to)
+      result[k++] = cellItems[i++];
+    while (j < globalItems.length)
+      result[k++] = globalItems[j++];
+    return result;
+  }
+}
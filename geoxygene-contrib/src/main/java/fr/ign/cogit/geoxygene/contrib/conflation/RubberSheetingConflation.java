@@ -1,6 +1,7 @@
 package fr.ign.cogit.geoxygene.contrib.conflation;
 
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -8,24 +9,45 @@ import fr.ign.cogit.geoxygene.api.feature.IFeature;
 import fr.ign.cogit.geoxygene.api.feature.IFeatureCollection;
 import fr.ign.cogit.geoxygene.api.spatial.coordgeom.IDirectPosition;
 import fr.ign.cogit.geoxygene.api.spatial.coordgeom.IDirectPositionList;
+import fr.ign.cogit.geoxygene.api.spatial.coordgeom.IEnvelope;
 import fr.ign.cogit.geoxygene.api.spatial.coordgeom.ILineString;
 import fr.ign.cogit.geoxygene.api.spatial.coordgeom.IPolygon;
 import fr.ign.cogit.geoxygene.api.spatial.geomprim.IPoint;
 import fr.ign.cogit.geoxygene.api.spatial.geomprim.IRing;
 import fr.ign.cogit.geoxygene.api.spatial.geomroot.IGeometry;
+import fr.ign.cogit.geoxygene.spatial.coordgeom.DirectPosition;
 import fr.ign.cogit.geoxygene.spatial.coordgeom.DirectPositionList;
 import fr.ign.cogit.geoxygene.spatial.coordgeom.GM_LineString;
 import fr.ign.cogit.geoxygene.spatial.coordgeom.GM_Polygon;
 import fr.ign.cogit.geoxygene.spatial.geomprim.GM_Point;
 import fr.ign.cogit.geoxygene.spatial.geomprim.GM_Ring;
+import fr.ign.cogit.geoxygene.util.ParallelChunks;
+import fr.ign.cogit.geoxygene.util.ParallelChunks.RangeTask;
 import fr.ign.cogit.geoxygene.util.algo.geomstructure.Vector2D;
 
+/**
+ * Rubber sheeting conflation of features from a set of conflation vectors: the
+ * displacement of each vertex is the inverse square distance weighted mean of
+ * the vectors close enough to it (see {@link #computeAggregatedVector}).
+ * <p>
+ * By default, all the vectors are tested for each vertex. For large datasets,
+ * the vectors can be indexed in a grid ({@link #setSpatialIndex(boolean)}),
+ * which gives the same result, the displacement field can be precomputed on a
+ * regular grid and bilinearly interpolated ({@link #setGridStep(double)}),
+ * which is an approximation, and features can be conflated by several threads
+ * ({@link #setThreadsNumber(int)}).
+ */
 public class RubberSheetingConflation {
 
   private IFeatureCollection<? extends IFeature> featsToConflate;
   private Set<ConflationVector> conflationVectors;
   private Map<IFeature, IGeometry> conflatedGeoms;
   private double distanceThreshold = 0.0005;
+  private boolean spatialIndex = false;
+  private double gridStep = 0.0;
+  private int threadsNumber = 1;
+  private ConflationVectorIndex index;
+  private DisplacementGrid grid;
 
   public RubberSheetingConflation(
       IFeatureCollection<? extends IFeature> featsToConflate,
@@ -51,6 +73,8 @@ public class RubberSheetingConflation {
 
   public void setConflationVectors(Set<ConflationVector> conflationVectors) {
     this.conflationVectors = conflationVectors;
+    this.index = null;
+    this.grid = null;
   }
 
   public Map<IFeature, IGeometry> getConflatedGeoms() {
@@ -67,6 +91,52 @@ public class RubberSheetingConflation {
 
   public void setDistanceThreshold(double distanceThreshold) {
     this.distanceThreshold = distanceThreshold;
+    this.index = null;
+    this.grid = null;
+  }
+
+  public boolean isSpatialIndex() {
+    return spatialIndex;
+  }
+
+  /**
+   * If true, the conflation vectors are indexed in a grid so that only the
+   * vectors close enough to a vertex are tested. Results are identical to the
+   * exhaustive computation.
+   * @param spatialIndex
+   */
+  public void setSpatialIndex(boolean spatialIndex) {
+    this.spatialIndex = spatialIndex;
+  }
+
+  public double getGridStep() {
+    return gridStep;
+  }
+
+  /**
+   * If strictly positive, the aggregated vectors are precomputed on a regular
+   * grid of this step covering the features to conflate, and vertices are
+   * displaced by bilinear interpolation of the four surrounding grid nodes.
+   * Vertices where a node has no aggregated vector fall back to the exact
+   * computation. The result is an approximation whose quality depends on the
+   * step compared to the variation of the vector field.
+   * @param gridStep
+   */
+  public void setGridStep(double gridStep) {
+    this.gridStep = gridStep;
+    this.grid = null;
+  }
+
+  public int getThreadsNumber() {
+    return threadsNumber;
+  }
+
+  /**
+   * Number of threads used to conflate the features (1 by default).
+   * @param threadsNumber
+   */
+  public void setThreadsNumber(int threadsNumber) {
+    this.threadsNumber = threadsNumber;
   }
 
   /**
@@ -74,20 +144,39 @@ public class RubberSheetingConflation {
    * to the conflation vectors.
    */
   public void conflation() {
-    for (IFeature feat : this.featsToConflate) {
-      IGeometry newGeom = null;
-      if (feat.getGeom() instanceof IPoint)
-        newGeom = conflatePoint((IPoint) feat.getGeom());
-      else if (feat.getGeom() instanceof ILineString)
-        newGeom = conflateLineString((ILineString) feat.getGeom());
-      else if (feat.getGeom() instanceof IPolygon)
-        newGeom = conflatePolygon((IPolygon) feat.getGeom());
-      // fill the output map
-      if (newGeom == null)
-        this.conflatedGeoms.put(feat, feat.getGeom());
-      else
-        this.conflatedGeoms.put(feat, newGeom);
+    if ((this.spatialIndex || this.gridStep > 0.0) && this.index == null)
+      this.index = new ConflationVectorIndex(this.conflationVectors,
+          this.distanceThreshold);
+    if (this.gridStep > 0.0 && this.grid == null) {
+      IEnvelope env = this.featsToConflate.getEnvelope();
+      if (env != null)
+        this.grid = new DisplacementGrid(env, this.gridStep);
     }
+
+    final List<? extends IFeature> feats = this.featsToConflate.getElements();
+    final IGeometry[] newGeoms = new IGeometry[feats.size()];
+    this.runInParallel(feats.size(), new Task() {
+      @Override
+      public void run(int i) {
+        newGeoms[i] = conflateFeature(feats.get(i));
+      }
+    });
+    // fill the output map
+    for (int i = 0; i < newGeoms.length; i++)
+      this.conflatedGeoms.put(feats.get(i), newGeoms[i]);
+  }
+
+  private IGeometry conflateFeature(IFeature feat) {
+    IGeometry newGeom = null;
+    if (feat.getGeom() instanceof IPoint)
+      newGeom = conflatePoint((IPoint) feat.getGeom());
+    else if (feat.getGeom() instanceof ILineString)
+      newGeom = conflateLineString((ILineString) feat.getGeom());
+    else if (feat.getGeom() instanceof IPolygon)
+      newGeom = conflatePolygon((IPolygon) feat.getGeom());
+    if (newGeom == null)
+      return feat.getGeom();
+    return newGeom;
   }
 
   private ILineString conflateLineString(ILineString geom) {
@@ -138,6 +227,13 @@ public class RubberSheetingConflation {
    * @return
    */
   public Vector2D computeAggregatedVector(IDirectPosition point) {
+    if (this.grid != null) {
+      Vector2D vect = this.grid.interpolate(point);
+      if (vect != null)
+        return vect;
+    }
+    if (this.index != null)
+      return this.computeIndexedVector(point);
     Vector2D vectFinal = null;
     double numerateurX = 0.0;
     double denominateur = 0.0;
@@ -165,4 +261,114 @@ public class RubberSheetingConflation {
         / denominateur);
     return vectFinal;
   }
+
+  /**
+   * Same computation as {@link #computeAggregatedVector(IDirectPosition)},
+   * only testing the vectors given by the spatial index, in the same order.
+   * @param point
+   * @return
+   */
+  private Vector2D computeIndexedVector(IDirectPosition point) {
+    double numerateurX = 0.0;
+    double denominateur = 0.0;
+    double numerateurY = 0.0;
+    for (int i : this.index.candidates(point)) {
+      ConflationVector vect = this.index.getVector(i);
+      double dist = vect.getIniPos().distance2D(point);
+      if (vect.getVector().norme() / (dist * dist) < distanceThreshold)
+        continue;
+      if (dist < 1.0)
+        dist = 1.0;
+      denominateur += 1 / (dist * dist);
+      numerateurX += vect.getVector().getX() / (dist * dist);
+      numerateurY += vect.getVector().getY() / (dist * dist);
+    }
+    if (denominateur == 0.0)
+      return null;
+    return new Vector2D(numerateurX / denominateur, numerateurY
+        / denominateur);
+  }
+
+  private interface Task {
+    public void run(int i);
+  }
+
+  /**
+   * Run a task for 0..n-1, by chunks on the threads.
+   */
+  private void runInParallel(int n, final Task task) {
+    ParallelChunks.forEach(n, Math.max(1, this.threadsNumber),
+        new RangeTask() {
+          @Override
+          public void run(int from, int to) {
+            for (int i = from; i < to; i++)
+              task.run(i);
+          }
+        });
+  }
+
+  /**
+   * Aggregated vectors precomputed on the nodes of a regular grid.
+   */
+  private class DisplacementGrid {
+    private double xMin, yMin, step;
+    private int nx, ny;
+    private double[] dx, dy;
+    private boolean[] defined;
+
+    DisplacementGrid(IEnvelope env, double step) {
+      this.step = step;
+      this.xMin = env.minX();
+      this.yMin = env.minY();
+      this.nx = (int) Math.ceil((env.maxX() - xMin) / step) + 1;
+      this.ny = (int) Math.ceil((env.maxY() - yMin) / step) + 1;
+      this.dx = new double[nx * ny];
+      this.dy = new double[nx * ny];
+      this.defined = new boolean[nx * ny];
+      runInParallel(ny, new Task() {
+        @Override
+        public void run(int j) {
+          for (int i = 0; i < DisplacementGrid.this.nx; i++) {
+            Vector2D vect = computeIndexedVector(new DirectPosition(xMin + i
+                * DisplacementGrid.this.step, yMin + j
+                * DisplacementGrid.this.step));
+            int node = j * DisplacementGrid.this.nx + i;
+            if (vect == null)
+              continue;
+            dx[node] = vect.getX();
+            dy[node] = vect.getY();
+            defined[node] = true;
+          }
+        }
+      });
+    }
+
+    /**
+     * Bilinear interpolation of the grid, null if the point is outside the
+     * grid or if a surrounding node has no aggregated vector.
+     */
+    Vector2D interpolate(IDirectPosition point) {
+      double u = (point.getX() - xMin) / step;
+      double v = (point.getY() - yMin) / step;
+      int i = (int) Math.floor(u);
+      int j = (int) Math.floor(v);
+      if (i < 0 || j < 0 || i >= nx || j >= ny)
+        return null;
+      if (i == nx - 1)
+        i--;
+      if (j == ny - 1)
+        j--;
+      if (i < 0 || j < 0)
+        return null;
+      int n00 = j * nx + i, n10 = n00 + 1, n01 = n00 + nx, n11 = n01 + 1;
+      if (!defined[n00] || !defined[n10] || !defined[n01] || !defined[n11])
+        return null;
+      double a = u - i, b = v - j;
+      double x = (1 - a) * (1 - b) * dx[n00] + a * (1 - b) * dx[n10]
+          + (1 - a) * b * dx[n01] + a * b * dx[n11];
+      double y = (1 - a) * (1 - b) * dy[n00] + a * (1 - b) * dy[n10]
+          + (1 - a) * b * dy[n01] + a * b * dy[n11];
+      return new Vector2D(x, y);
+    }
+  }
 }
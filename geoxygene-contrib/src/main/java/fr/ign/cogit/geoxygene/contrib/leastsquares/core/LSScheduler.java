@@ -22,7 +22,6 @@ import java.util.logging.Logger;
 import org.apache.commons.collections15.BidiMap;
 import org.apache.commons.collections15.bidimap.DualHashBidiMap;
 
-import Jama.Matrix;
 import fr.ign.cogit.geoxygene.api.feature.IFeature;
 import fr.ign.cogit.geoxygene.api.feature.IFeatureCollection;
 import fr.ign.cogit.geoxygene.api.feature.IPopulation;
@@ -63,8 +62,12 @@ public class LSScheduler {
 
   static Logger logger = Logger.getLogger(LSScheduler.class.getName());
 
+  /**
+   * JAMA : matrices denses, SPARSE : matrices creuses et gradient conjugué
+   * préconditionné, à préférer au-delà de quelques centaines de points.
+   */
   public enum MatrixSolver {
-    JAMA, EJML, COLT
+    JAMA, EJML, COLT, SPARSE
   }
 
   public enum GeometryType {
@@ -546,6 +549,10 @@ public class LSScheduler {
           this.systemeGlobal = point.getSystemeLocal().copy();
           if (this.systemeGlobal != null)
             prems = false;
+        } else if (this.systemeGlobal instanceof SparseEquationsSystem) {
+          // assemblage en place, sans recopie du système global
+          ((SparseEquationsSystem) this.systemeGlobal)
+              .append(point.getSystemeLocal());
         } else {
           // on assemble le systeme global et point.systemeLocal
           EquationsSystem nouveau = this.systemeGlobal
@@ -999,41 +1006,6 @@ public class LSScheduler {
 
   }
 
-  @SuppressWarnings("unused")
-  private static double determMatrice(Matrix mat) {
-    double determinant = 0.0;
-
-    if (mat.getColumnDimension() == 1) {
-      return mat.get(0, 0);
-    }
-
-    int n = mat.getRowDimension();
-    for (int i = 1; i <= n; i++) {
-      int[] lignes = new int[n - 1];
-      int[] colonnes = new int[n - 1];
-      for (int j = 1; j < n; j++) {
-        lignes[j - 1] = j;
-      }
-      int nb = 0;
-      for (int j = 0; j < n; j++) {
-        if (j == i - 1) {
-          continue;
-        }
-        lignes[nb] = j;
-        nb += 1;
-      }
-      Matrix sousMat = mat.getMatrix(lignes, colonnes);
-      double signe = -1.0;
-      for (int j = 1; j <= i; j++) {
-        signe = signe * (-1.0);
-      }
-      double sousDet = sousMat.det();
-      determinant = determinant + signe * mat.get(0, i - 1) * sousDet;
-    } // for i
-
-    return determinant;
-  }
-
   /**
    * <p>
    * Renvoie la largeur de symbole maximum trouvée parmi les objets du scheduler
@@ -1132,6 +1104,8 @@ public class LSScheduler {
   public EquationsSystem initSystemeLocal() {
     if (this.solver.equals(MatrixSolver.JAMA)) {
       return new JamaEquationsSystem();
+    } else if (this.solver.equals(MatrixSolver.SPARSE)) {
+      return new SparseEquationsSystem();
     } else if (this.solver.equals(MatrixSolver.COLT)) {
       // return new ColtSparseEquationsSystem();
     }
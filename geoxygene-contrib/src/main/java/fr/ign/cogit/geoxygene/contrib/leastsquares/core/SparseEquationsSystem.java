@@ -0,0 +1,515 @@
+/*******************************************************************************
+ * This software is released under the licence CeCILL
+ *
+ * see Licence_CeCILL-C_fr.html see Licence_CeCILL-C_en.html
+ *
+ * see <a href="http://www.cecill.info/">http://www.cecill.info/a>
+ *
+ * @copyright IGN
+ ******************************************************************************/
+package fr.ign.cogit.geoxygene.contrib.leastsquares.core;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Vector;
+import java.util.logging.Logger;
+
+/**
+ * Implémentation creuse de {@link EquationsSystem}. Chaque contrainte ne
+ * porte que sur quelques {@link LSPoint}, la matrice A est donc stockée ligne
+ * par ligne en ne gardant que les valeurs non nulles. L'assemblage se fait en
+ * place (voir {@link #append(EquationsSystem)}) et l'ajustement résout les
+ * équations normales A<sup>T</sup>PA x = A<sup>T</sup>Pl par gradient conjugué
+ * préconditionné (préconditionneur de Jacobi), sans jamais construire ni
+ * A<sup>T</sup>PA ni la matrice diagonale des poids.
+ *
+ * @author GTouya
+ */
+public class SparseEquationsSystem extends EquationsSystem {
+  private static Logger logger = Logger.getLogger(SparseEquationsSystem.class
+      .getName());
+
+  private static final int INITIAL_ROW_CAPACITY = 4;
+
+  private int rowNumber = 0;
+  private int obsRowNumber = 0;
+  private int columnNumber = 0;
+  // pour chaque ligne de A, les indices de colonne des valeurs non nulles
+  private int[][] rowColumns;
+  // pour chaque ligne de A, les valeurs non nulles
+  private double[][] rowValues;
+  // le nombre de valeurs non nulles de chaque ligne
+  private int[] rowSizes;
+  private double[] observations;
+  // l'indice de la colonne x de chaque inconnue (la colonne y est la suivante)
+  private Map<LSPoint, Integer> columnIndex = new HashMap<LSPoint, Integer>();
+
+  /**
+   * la précision relative demandée sur le résidu des équations normales
+   */
+  private double tolerance = 1.0e-12;
+  /**
+   * le nombre maximum d'itérations du gradient conjugué, 0 pour utiliser la
+   * dimension du système
+   */
+  private int maxIterations = 0;
+  private int iterations = 0;
+
+  public SparseEquationsSystem() {
+    super();
+  }
+
+  /**
+   * assemble deux systèmes d'équations en un nouveau. Les inconnues communes
+   * aux deux systèmes partagent les mêmes colonnes, les nouvelles sont
+   * ajoutées à la fin, dans le même ordre que pour {@link JamaEquationsSystem}.
+   */
+  @Override
+  public EquationsSystem assemble(EquationsSystem systeme) {
+    SparseEquationsSystem assemblage = this.copy();
+    assemblage.append(systeme);
+    return assemblage;
+  }
+
+  /**
+   * Ajoute en place les équations de {@code systeme} à ce système. Le coût est
+   * proportionnel au nombre de valeurs non nulles ajoutées, ce qui rend
+   * l'assemblage global linéaire dans {@link LSScheduler}.
+   * @param systeme
+   */
+  public void append(EquationsSystem systeme) {
+    if (systeme.estVide()) {
+      return;
+    }
+    if (this.estVide()) {
+      this.initMatriceA(0, 0);
+      this.initObservations(0);
+    }
+    this.setNonNullValues(this.getNonNullValues() + systeme.getNonNullValues());
+    this.getConstraints().addAll(systeme.getConstraints());
+
+    // correspondance entre les colonnes de systeme et celles de this
+    Vector<LSPoint> inconnues = systeme.getUnknowns();
+    int[] colonnes = new int[inconnues.size()];
+    for (int j = 0; j < inconnues.size(); j += 2) {
+      LSPoint point = inconnues.get(j);
+      Integer colonne = this.columnIndex.get(point);
+      if (colonne == null) {
+        colonne = Integer.valueOf(this.columnNumber);
+        this.columnIndex.put(point, colonne);
+        this.getUnknowns().addElement(point);
+        this.getUnknowns().addElement(point);
+        this.columnNumber += 2;
+      }
+      colonnes[j] = colonne.intValue();
+      if (j + 1 < colonnes.length) {
+        colonnes[j + 1] = colonne.intValue() + 1;
+      }
+    }
+
+    int first = this.rowNumber;
+    int nbLignes = systeme.getRowNumber();
+    this.ensureRowCapacity(first + nbLignes);
+    this.rowNumber = first + nbLignes;
+    this.obsRowNumber = this.rowNumber;
+    for (int i = 0; i < nbLignes; i++) {
+      this.observations[first + i] = systeme.getObs(i);
+      if (systeme instanceof SparseEquationsSystem) {
+        SparseEquationsSystem sparse = (SparseEquationsSystem) systeme;
+        int size = sparse.rowSizes[i];
+        this.rowColumns[first + i] = new int[Math.max(size,
+            SparseEquationsSystem.INITIAL_ROW_CAPACITY)];
+        this.rowValues[first + i] = new double[this.rowColumns[first + i].length];
+        for (int k = 0; k < size; k++) {
+          this.rowColumns[first + i][k] = colonnes[sparse.rowColumns[i][k]];
+          this.rowValues[first + i][k] = sparse.rowValues[i][k];
+        }
+        this.rowSizes[first + i] = size;
+      } else {
+        this.newRow(first + i);
+        for (int j = 0; j < systeme.getColumnNumber(); j++) {
+          double value = systeme.getA(i, j);
+          if (value != 0.0) {
+            this.setA(first + i, colonnes[j], value);
+          }
+        }
+      }
+    }
+  }
+
+  @Override
+  public void print(String nom) {
+    System.out.println("Description du systeme d equations " + nom + " :");
+    System.out.println("matrice A (lignes creuses)");
+    for (int i = 0; i < this.rowNumber; i++) {
+      StringBuffer buff = new StringBuffer();
+      for (int k = 0; k < this.rowSizes[i]; k++) {
+        buff.append("(" + this.rowColumns[i][k] + ", " + this.rowValues[i][k]
+            + ") ");
+      }
+      System.out.println(i + " : " + buff.toString());
+    }
+    System.out.println("inconnues");
+    System.out.println(this.getUnknowns());
+    System.out.println("observations");
+    System.out.println(Arrays.toString(Arrays.copyOf(this.observations,
+        this.rowNumber)));
+    System.out.println("contraintes");
+    System.out.println(this.getConstraints());
+    System.out.println("Fin de la description du systeme");
+    System.out.println("");
+  }
+
+  @Override
+  public SparseEquationsSystem copy() {
+    SparseEquationsSystem systeme = new SparseEquationsSystem();
+    systeme.tolerance = this.tolerance;
+    systeme.maxIterations = this.maxIterations;
+    if (this.estVide())
+      return systeme;
+
+    systeme.rowNumber = this.rowNumber;
+    systeme.obsRowNumber = this.obsRowNumber;
+    systeme.columnNumber = this.columnNumber;
+    systeme.rowSizes = Arrays.copyOf(this.rowSizes, this.rowSizes.length);
+    systeme.rowColumns = new int[this.rowColumns.length][];
+    systeme.rowValues = new double[this.rowValues.length][];
+    for (int i = 0; i < this.rowNumber; i++) {
+      systeme.rowColumns[i] = Arrays.copyOf(this.rowColumns[i],
+          this.rowColumns[i].length);
+      systeme.rowValues[i] = Arrays.copyOf(this.rowValues[i],
+          this.rowValues[i].length);
+    }
+    systeme.observations = Arrays.copyOf(this.observations,
+        this.observations.length);
+    systeme.columnIndex = new HashMap<LSPoint, Integer>(this.columnIndex);
+    systeme.setUnknowns(new Vector<LSPoint>(this.getUnknowns()));
+    systeme.setConstraints(new Vector<LSConstraint>(this.getConstraints()));
+    systeme.setNonNullValues(this.getNonNullValues());
+
+    return systeme;
+  }
+
+  @Override
+  public boolean estVide() {
+    if (this.rowColumns == null || this.getUnknowns() == null
+        || this.observations == null) {
+      return true;
+    }
+    return false;
+  }
+
+  @Override
+  public void clear() {
+    this.rowColumns = null;
+    this.rowValues = null;
+    this.rowSizes = null;
+    this.observations = null;
+    this.rowNumber = 0;
+    this.obsRowNumber = 0;
+    this.columnNumber = 0;
+    this.columnIndex.clear();
+    this.getUnknowns().clear();
+    this.getConstraints().clear();
+    if (this.getResiduals() != null) {
+      this.getResiduals().clear();
+    }
+    if (this.getSolutions() != null) {
+      this.getSolutions().clear();
+    }
+  }
+
+  @Override
+  public void ajustementMoindresCarres(Map<String, Double> poids) {
+    int n = this.columnNumber;
+    int m = this.rowNumber;
+
+    // on calcule le vecteur des poids (diagonale de la matrice des poids)
+    logger.fine("calcul des poids");
+    double[] w = this.calculerPoids(poids);
+
+    // on passe la matrice A en stockage CSR compact
+    logger.fine("compression de la matrice");
+    int[] rowPtr = new int[m + 1];
+    for (int i = 0; i < m; i++) {
+      rowPtr[i + 1] = rowPtr[i] + this.rowSizes[i];
+    }
+    int[] colIdx = new int[rowPtr[m]];
+    double[] vals = new double[rowPtr[m]];
+    for (int i = 0; i < m; i++) {
+      System.arraycopy(this.rowColumns[i], 0, colIdx, rowPtr[i],
+          this.rowSizes[i]);
+      System.arraycopy(this.rowValues[i], 0, vals, rowPtr[i], this.rowSizes[i]);
+    }
+
+    // second membre AtPl et diagonale de AtPA pour le préconditionneur
+    double[] b = new double[n];
+    double[] diag = new double[n];
+    for (int i = 0; i < m; i++) {
+      double wl = w[i] * this.observations[i];
+      for (int k = rowPtr[i]; k < rowPtr[i + 1]; k++) {
+        b[colIdx[k]] += vals[k] * wl;
+        diag[colIdx[k]] += w[i] * vals[k] * vals[k];
+      }
+    }
+    for (int j = 0; j < n; j++) {
+      diag[j] = diag[j] > 0.0 ? 1.0 / diag[j] : 1.0;
+    }
+
+    // gradient conjugué préconditionné sur AtPA x = AtPl
+    logger.fine("résolution par gradient conjugué");
+    double[] x = new double[n];
+    double[] r = Arrays.copyOf(b, n);
+    double[] z = new double[n];
+    double[] p = new double[n];
+    double[] q = new double[n];
+    double[] tmp = new double[m];
+    for (int j = 0; j < n; j++) {
+      z[j] = diag[j] * r[j];
+      p[j] = z[j];
+    }
+    double rz = dot(r, z);
+    double seuil = this.tolerance * this.tolerance * Math.max(dot(b, b), 1.0);
+    int maxIter = this.maxIterations > 0 ? this.maxIterations : Math.max(n,
+        10) * 2;
+    this.iterations = 0;
+    while (this.iterations < maxIter && dot(r, r) > seuil) {
+      normalProduct(rowPtr, colIdx, vals, w, p, tmp, q);
+      double pq = dot(p, q);
+      if (pq <= 0.0) {
+        break;
+      }
+      double alpha = rz / pq;
+      for (int j = 0; j < n; j++) {
+        x[j] += alpha * p[j];
+        r[j] -= alpha * q[j];
+        z[j] = diag[j] * r[j];
+      }
+      double rzNew = dot(r, z);
+      double beta = rzNew / rz;
+      rz = rzNew;
+      for (int j = 0; j < n; j++) {
+        p[j] = z[j] + beta * p[j];
+      }
+      this.iterations++;
+    }
+    logger.fine("convergence en " + this.iterations + " itérations");
+
+    Vector<Double> solutions = new Vector<Double>(n);
+    for (int j = 0; j < n; j++) {
+      solutions.add(Double.valueOf(x[j]));
+    }
+    this.setSolutions(solutions);
+
+    // on calcule maintenant les résidus
+    logger.fine("calcul des résidus");
+    Vector<Double> residus = new Vector<Double>(m);
+    for (int i = 0; i < m; i++) {
+      double ax = 0.0;
+      for (int k = rowPtr[i]; k < rowPtr[i + 1]; k++) {
+        ax += vals[k] * x[colIdx[k]];
+      }
+      residus.add(Double.valueOf(ax - this.observations[i]));
+    }
+    this.setResiduals(residus);
+  }
+
+  /**
+   * Calcule q = A<sup>T</sup>P(Ap) sans construire A<sup>T</sup>PA.
+   */
+  private static void normalProduct(int[] rowPtr, int[] colIdx, double[] vals,
+      double[] w, double[] p, double[] tmp, double[] q) {
+    Arrays.fill(q, 0.0);
+    for (int i = 0; i < tmp.length; i++) {
+      double ap = 0.0;
+      for (int k = rowPtr[i]; k < rowPtr[i + 1]; k++) {
+        ap += vals[k] * p[colIdx[k]];
+      }
+      tmp[i] = w[i] * ap;
+    }
+    for (int i = 0; i < tmp.length; i++) {
+      if (tmp[i] == 0.0) {
+        continue;
+      }
+      for (int k = rowPtr[i]; k < rowPtr[i + 1]; k++) {
+        q[colIdx[k]] += vals[k] * tmp[i];
+      }
+    }
+  }
+
+  private static double dot(double[] u, double[] v) {
+    double sum = 0.0;
+    for (int i = 0; i < u.length; i++) {
+      sum += u[i] * v[i];
+    }
+    return sum;
+  }
+
+  /**
+   * Construit la diagonale de la matrice des poids, de la même façon que
+   * {@link JamaEquationsSystem} construit la matrice complète.
+   */
+  private double[] calculerPoids(Map<String, Double> poids) {
+    int nb = this.getConstraints().size();
+    double[] w = new double[this.rowNumber];
+    for (int i = 0; i < nb && i < this.rowNumber; i++) {
+      LSConstraint contrainte = this.getConstraints().get(i);
+      Double poidsContr = poids.get(contrainte.getClass().getName());
+      w[i] = poidsContr.doubleValue() * contrainte.getWeightFactor();
+    }
+    return w;
+  }
+
+  private void ensureRowCapacity(int capacity) {
+    if (this.rowColumns.length >= capacity) {
+      return;
+    }
+    int newCapacity = Math.max(capacity, this.rowColumns.length * 2);
+    this.rowColumns = Arrays.copyOf(this.rowColumns, newCapacity);
+    this.rowValues = Arrays.copyOf(this.rowValues, newCapacity);
+    this.rowSizes = Arrays.copyOf(this.rowSizes, newCapacity);
+    if (this.observations.length < newCapacity) {
+      this.observations = Arrays.copyOf(this.observations, newCapacity);
+    }
+  }
+
+  private void newRow(int i) {
+    this.rowColumns[i] = new int[SparseEquationsSystem.INITIAL_ROW_CAPACITY];
+    this.rowValues[i] = new double[SparseEquationsSystem.INITIAL_ROW_CAPACITY];
+    this.rowSizes[i] = 0;
+  }
+
+  @Override
+  public double getA(int i, int j) {
+    for (int k = 0; k < this.rowSizes[i]; k++) {
+      if (this.rowColumns[i][k] == j) {
+        return this.rowValues[i][k];
+      }
+    }
+    return 0.0;
+  }
+
+  @Override
+  public void setA(int i, int j, double value) {
+    int size = this.rowSizes[i];
+    for (int k = 0; k < size; k++) {
+      if (this.rowColumns[i][k] == j) {
+        this.rowValues[i][k] = value;
+        return;
+      }
+    }
+    if (value == 0.0) {
+      return;
+    }
+    if (size == this.rowColumns[i].length) {
+      this.rowColumns[i] = Arrays.copyOf(this.rowColumns[i], size * 2);
+      this.rowValues[i] = Arrays.copyOf(this.rowValues[i], size * 2);
+    }
+    this.rowColumns[i][size] = j;
+    this.rowValues[i][size] = value;
+    this.rowSizes[i] = size + 1;
+  }
+
+  @Override
+  public int getColumnNumber() {
+    return this.columnNumber;
+  }
+
+  @Override
+  public double getObs(int i) {
+    return this.observations[i];
+  }
+
+  @Override
+  public void setObs(int i, double value) {
+    this.observations[i] = value;
+  }
+
+  @Override
+  public int getRowNumber() {
+    return this.rowNumber;
+  }
+
+  @Override
+  public int getObsRowNumber() {
+    return this.obsRowNumber;
+  }
+
+  @Override
+  public void initMatriceA(int rows, int columns) {
+    int capacity = Math.max(rows, 1);
+    this.rowColumns = new int[capacity][];
+    this.rowValues = new double[capacity][];
+    this.rowSizes = new int[capacity];
+    for (int i = 0; i < rows; i++) {
+      this.newRow(i);
+    }
+    this.rowNumber = rows;
+    this.columnNumber = columns;
+    if (this.observations == null || this.observations.length < capacity) {
+      double[] obs = new double[capacity];
+      if (this.observations != null) {
+        System.arraycopy(this.observations, 0, obs, 0, this.observations.length);
+      }
+      this.observations = obs;
+    }
+    this.indexUnknowns();
+  }
+
+  @Override
+  public void initObservations(int rows) {
+    int capacity = Math.max(rows, 1);
+    if (this.rowColumns != null) {
+      capacity = Math.max(capacity, this.rowColumns.length);
+    }
+    this.observations = new double[capacity];
+    this.obsRowNumber = rows;
+  }
+
+  /**
+   * Indexe les colonnes des inconnues déjà présentes dans le vecteur des
+   * inconnues, pour les systèmes locaux construits par les contraintes.
+   */
+  private void indexUnknowns() {
+    this.columnIndex.clear();
+    Vector<LSPoint> inconnues = this.getUnknowns();
+    for (int j = 0; j < inconnues.size(); j += 2) {
+      if (!this.columnIndex.containsKey(inconnues.get(j))) {
+        this.columnIndex.put(inconnues.get(j), Integer.valueOf(j));
+      }
+    }
+  }
+
+  @Override
+  public void setUnknowns(Vector<LSPoint> inconnues) {
+    super.setUnknowns(inconnues);
+    if (this.columnIndex != null) {
+      this.indexUnknowns();
+    }
+  }
+
+  public double getTolerance() {
+    return this.tolerance;
+  }
+
+  public void setTolerance(double tolerance) {
+    this.tolerance = tolerance;
+  }
+
+  public int getMaxIterations() {
+    return this.maxIterations;
+  }
+
+  public void setMaxIterations(int maxIterations) {
+    this.maxIterations = maxIterations;
+  }
+
+  /**
+   * @return le nombre d'itérations du gradient conjugué lors du dernier
+   *         ajustement
+   */
+  public int getIterations() {
+    return this.iterations;
+  }
+}
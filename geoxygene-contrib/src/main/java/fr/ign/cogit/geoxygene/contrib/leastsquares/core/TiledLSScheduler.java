@@ -0,0 +1,547 @@
+/*******************************************************************************
+ * This software is released under the licence CeCILL
+ *
+ * see Licence_CeCILL-C_fr.html see Licence_CeCILL-C_en.html
+ *
+ * see <a href="http://www.cecill.info/">http://www.cecill.info/a>
+ *
+ * @copyright IGN
+ ******************************************************************************/
+package fr.ign.cogit.geoxygene.contrib.leastsquares.core;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.logging.Logger;
+
+import fr.ign.cogit.geoxygene.api.feature.IFeature;
+import fr.ign.cogit.geoxygene.api.spatial.coordgeom.IDirectPosition;
+import fr.ign.cogit.geoxygene.api.spatial.coordgeom.IDirectPositionList;
+import fr.ign.cogit.geoxygene.api.spatial.coordgeom.IEnvelope;
+import fr.ign.cogit.geoxygene.api.spatial.geomroot.IGeometry;
+import fr.ign.cogit.geoxygene.contrib.delaunay.Triangulation;
+import fr.ign.cogit.geoxygene.contrib.leastsquares.core.LSScheduler.MatrixSolver;
+import fr.ign.cogit.geoxygene.util.ParallelChunks;
+import fr.ign.cogit.geoxygene.util.ParallelChunks.ItemFunction;
+
+/**
+ * @author GTouya
+ *
+ *         Ajustement par moindres carrés découpé en dalles, pour les
+ *         déplacements cartographiques sur de grandes zones. Les objets
+ *         sélectionnés dans les mapspecs sont répartis dans une grille de
+ *         dalles selon le centre de leur enveloppe. Les dalles sont agrandies
+ *         si nécessaire pour qu'aucun objet, élargi de l'overlap, ne touche
+ *         deux dalles de même couleur. Chaque dalle est ajustée
+ *         par son propre {@link LSScheduler}, les objets des dalles voisines
+ *         qui intersectent la bordure (overlap) de la dalle y sont fixés à leur
+ *         dernière position calculée. Les dalles sont traitées en quatre
+ *         passes (coloration 2x2 de la grille) : les dalles d'une même passe
+ *         ne se recouvrent pas et sont ajustées en parallèle. Les passes sont
+ *         répétées jusqu'à ce que les géométries ne bougent plus de plus de
+ *         la tolérance d'une itération à l'autre.
+ */
+public class TiledLSScheduler {
+
+  static Logger logger = Logger.getLogger(TiledLSScheduler.class.getName());
+
+  private MapspecsLS mapspec;
+  private double tileSize;
+  /** la taille des dalles du dernier ajustement, agrandie si nécessaire */
+  private double effectiveTileSize;
+  private double overlap;
+  private int maxIterations = 5;
+  /**
+   * le déplacement maximum d'un sommet entre deux itérations en dessous
+   * duquel on considère que l'ajustement a convergé
+   */
+  private double tolerance = 0.1;
+  private int nbThreads = Runtime.getRuntime().availableProcessors();
+  private MatrixSolver solver = MatrixSolver.SPARSE;
+
+  private List<Tile> tiles = new ArrayList<Tile>();
+  private List<TileReport> reports = new ArrayList<TileReport>();
+  private int iterations = 0;
+  /**
+   * Cette map relie les objets à leur ancienne géométrie (si l'ajustement a
+   * été commité) ou à leur nouvelle sinon, comme dans {@link LSScheduler}.
+   */
+  private Map<IFeature, IGeometry> mapObjGeom = new HashMap<IFeature, IGeometry>();
+
+  /**
+   * @param ms les mapspecs de l'ajustement, partagées par toutes les dalles
+   * @param tileSize la taille (en unités terrain) du côté des dalles
+   * @param overlap la largeur de la bordure de chaque dalle dans laquelle les
+   *          objets voisins sont fixés. Elle doit être inférieure à la moitié
+   *          de la taille des dalles pour que les dalles d'une même passe ne
+   *          se recouvrent pas.
+   */
+  public TiledLSScheduler(MapspecsLS ms, double tileSize, double overlap) {
+    if (tileSize <= 0.0) {
+      throw new IllegalArgumentException("tile size must be positive: "
+          + tileSize);
+    }
+    if (overlap < 0.0 || overlap >= tileSize / 2.0) {
+      throw new IllegalArgumentException(
+          "overlap must be positive and smaller than half the tile size: "
+              + overlap);
+    }
+    this.mapspec = ms;
+    this.tileSize = tileSize;
+    this.effectiveTileSize = tileSize;
+    this.overlap = overlap;
+  }
+
+  /**
+   * Lance l'ajustement par dalles.
+   * @param commit true si on veut appliquer les nouvelles géométries aux
+   *          objets et false si on veut juste les mettre dans la map
+   *          attitrée
+   * @throws java.util.concurrent.CancellationException si le thread est
+   *           interrompu, son statut d'interruption restant positionné
+   * @throws RuntimeException l'exception levée par l'ajustement d'une dalle.
+   *           En cas d'échec ou d'interruption, aucune géométrie n'est
+   *           modifiée et la map des géométries reste vide.
+   */
+  public void triggerAdjustment(boolean commit) {
+    this.reports.clear();
+    this.mapObjGeom.clear();
+    this.iterations = 0;
+    this.partition(this.mapspec.getSelectedObjects());
+    if (this.tiles.isEmpty()) {
+      logger.fine("Moindres carres par dalles : pas d objet a traiter");
+      return;
+    }
+
+    Map<IFeature, IGeometry> original = new HashMap<IFeature, IGeometry>();
+    for (IFeature obj : this.mapspec.getSelectedObjects()) {
+      original.put(obj, obj.getGeom());
+    }
+    Map<IFeature, IGeometry> current = new HashMap<IFeature, IGeometry>(
+        original);
+    try {
+      this.iterate(original, current);
+    } catch (RuntimeException e) {
+      // rien n'est appliqué : les objets reprennent leur géométrie initiale
+      for (IFeature obj : original.keySet()) {
+        obj.setGeom(original.get(obj));
+      }
+      throw e;
+    }
+
+    // enfin, on met à jour les géométries
+    for (IFeature obj : original.keySet()) {
+      if (commit) {
+        obj.setGeom(current.get(obj));
+        this.mapObjGeom.put(obj, original.get(obj));
+      } else {
+        obj.setGeom(original.get(obj));
+        this.mapObjGeom.put(obj, current.get(obj));
+      }
+    }
+  }
+
+  /**
+   * Répète les passes d'ajustement des dalles jusqu'à la convergence.
+   * @param original les géométries initiales des objets
+   * @param current les dernières géométries calculées, mises à jour
+   */
+  private void iterate(Map<IFeature, IGeometry> original,
+      Map<IFeature, IGeometry> current) {
+    for (int iteration = 1; iteration <= this.maxIterations; iteration++) {
+      this.iterations = iteration;
+      double maxChange = 0.0;
+      for (int color = 0; color < 4; color++) {
+        List<Tile> pass = new ArrayList<Tile>();
+        for (Tile tile : this.tiles) {
+          if (tile.getColor() == color) {
+            pass.add(tile);
+          }
+        }
+        if (pass.isEmpty()) {
+          continue;
+        }
+        // les objets des dalles de la passe repartent de leur position
+        // initiale, les autres sont à leur dernière position calculée
+        for (IFeature obj : original.keySet()) {
+          obj.setGeom(current.get(obj));
+        }
+        for (Tile tile : pass) {
+          for (IFeature obj : tile.coreObjs) {
+            obj.setGeom(original.get(obj));
+          }
+        }
+
+        // aucune géométrie n'est modifiée pendant la passe, les dalles
+        // peuvent donc être ajustées en parallèle
+        final int passIteration = iteration;
+        List<Map<IFeature, IGeometry>> solutions = ParallelChunks.map(pass,
+            this.nbThreads, new ItemFunction<Tile, Map<IFeature, IGeometry>>() {
+              @Override
+              public Map<IFeature, IGeometry> apply(Tile tile) {
+                return new TileAdjustment(tile, passIteration).call();
+              }
+            });
+        for (Map<IFeature, IGeometry> solution : solutions) {
+          for (IFeature obj : solution.keySet()) {
+            maxChange = Math.max(maxChange,
+                maxVertexMove(current.get(obj), solution.get(obj)));
+            current.put(obj, solution.get(obj));
+          }
+        }
+      }
+      logger.fine("Moindres carres par dalles : iteration " + iteration
+          + ", deplacement max " + maxChange);
+      if (maxChange < this.tolerance) {
+        break;
+      }
+    }
+  }
+
+  /**
+   * Répartit les objets dans les dalles : chaque objet appartient à la dalle
+   * qui contient le centre de son enveloppe, et sert d'objet fixe de bordure
+   * aux autres dalles dont la zone élargie de l'overlap intersecte son
+   * enveloppe.
+   * <p>
+   * Deux dalles de même couleur sont séparées par une dalle. Un objet dont la
+   * demi-enveloppe élargie de l'overlap dépasse la taille des dalles pourrait
+   * donc être ajusté par une dalle et fixé dans une autre dalle de la même
+   * passe : la taille des dalles est alors agrandie à cette demi-enveloppe.
+   */
+  private void partition(Collection<IFeature> objs) {
+    this.tiles.clear();
+    this.effectiveTileSize = this.tileSize;
+    double xMin = Double.MAX_VALUE, yMin = Double.MAX_VALUE;
+    double xMax = -Double.MAX_VALUE, yMax = -Double.MAX_VALUE;
+    for (IFeature obj : objs) {
+      IEnvelope env = obj.getGeom().envelope();
+      xMin = Math.min(xMin, env.minX());
+      yMin = Math.min(yMin, env.minY());
+      xMax = Math.max(xMax, env.maxX());
+      yMax = Math.max(yMax, env.maxY());
+      this.effectiveTileSize = Math.max(this.effectiveTileSize,
+          Math.max(env.width(), env.length()) / 2.0 + this.overlap);
+    }
+    if (objs.isEmpty()) {
+      return;
+    }
+    if (this.effectiveTileSize > this.tileSize) {
+      logger.warning("Moindres carres par dalles : dalles agrandies a "
+          + this.effectiveTileSize + " pour les objets les plus grands");
+    }
+    int nx = Math.max(1,
+        (int) Math.ceil((xMax - xMin) / this.effectiveTileSize));
+    int ny = Math.max(1,
+        (int) Math.ceil((yMax - yMin) / this.effectiveTileSize));
+    Tile[][] grid = new Tile[nx][ny];
+    for (IFeature obj : objs) {
+      IEnvelope env = obj.getGeom().envelope();
+      IDirectPosition center = env.center();
+      int ci = this.index(center.getX(), xMin, nx);
+      int cj = this.index(center.getY(), yMin, ny);
+      this.getTile(grid, ci, cj).coreObjs.add(obj);
+      int iMin = this.index(env.minX() - this.overlap, xMin, nx);
+      int iMax = this.index(env.maxX() + this.overlap, xMin, nx);
+      int jMin = this.index(env.minY() - this.overlap, yMin, ny);
+      int jMax = this.index(env.maxY() + this.overlap, yMin, ny);
+      for (int i = iMin; i <= iMax; i++) {
+        for (int j = jMin; j <= jMax; j++) {
+          if (i != ci || j != cj) {
+            this.getTile(grid, i, j).boundaryObjs.add(obj);
+          }
+        }
+      }
+    }
+    for (int i = 0; i < nx; i++) {
+      for (int j = 0; j < ny; j++) {
+        if (grid[i][j] != null && !grid[i][j].coreObjs.isEmpty()) {
+          this.tiles.add(grid[i][j]);
+        }
+      }
+    }
+    logger.fine("Moindres carres par dalles : " + this.tiles.size()
+        + " dalles non vides sur une grille " + nx + "x" + ny);
+  }
+
+  private int index(double coord, double min, int nb) {
+    int index = (int) Math.floor((coord - min) / this.effectiveTileSize);
+    return Math.max(0, Math.min(nb - 1, index));
+  }
+
+  private Tile getTile(Tile[][] grid, int i, int j) {
+    if (grid[i][j] == null) {
+      grid[i][j] = new Tile(i, j);
+    }
+    return grid[i][j];
+  }
+
+  /**
+   * Le plus grand déplacement entre deux sommets de même rang de deux
+   * géométries. Si les géométries n'ont pas le même nombre de sommets,
+   * renvoie l'infini.
+   */
+  private static double maxVertexMove(IGeometry geom1, IGeometry geom2) {
+    if (geom1 == null || geom2 == null) {
+      return Double.POSITIVE_INFINITY;
+    }
+    IDirectPositionList coords1 = geom1.coord();
+    IDirectPositionList coords2 = geom2.coord();
+    if (coords1.size() != coords2.size()) {
+      return Double.POSITIVE_INFINITY;
+    }
+    double max = 0.0;
+    for (int i = 0; i < coords1.size(); i++) {
+      max = Math.max(max, coords1.get(i).distance2D(coords2.get(i)));
+    }
+    return max;
+  }
+
+  /**
+   * Une dalle de l'ajustement.
+   */
+  private static class Tile {
+    private int i, j;
+    // les objets dont le centre est dans la dalle, ajustés par la dalle
+    private List<IFeature> coreObjs = new ArrayList<IFeature>();
+    // les objets voisins dans la bordure de la dalle, fixés
+    private List<IFeature> boundaryObjs = new ArrayList<IFeature>();
+
+    Tile(int i, int j) {
+      this.i = i;
+      this.j = j;
+    }
+
+    int getColor() {
+      return (this.i % 2) + 2 * (this.j % 2);
+    }
+  }
+
+  /**
+   * L'ajustement d'une dalle, qui renvoie les nouvelles géométries des objets
+   * de la dalle.
+   */
+  private class TileAdjustment implements Callable<Map<IFeature, IGeometry>> {
+    private Tile tile;
+    private int iteration;
+
+    TileAdjustment(Tile tile, int iteration) {
+      this.tile = tile;
+      this.iteration = iteration;
+    }
+
+    @Override
+    public Map<IFeature, IGeometry> call() {
+      TileScheduler sched = new TileScheduler(TiledLSScheduler.this.mapspec,
+          this.tile);
+      sched.setSolver(TiledLSScheduler.this.solver);
+      long start = System.currentTimeMillis();
+      sched.triggerAdjustment(false, false);
+      long time = System.currentTimeMillis() - start;
+
+      Map<IFeature, IGeometry> solution = new HashMap<IFeature, IGeometry>();
+      for (IFeature obj : this.tile.coreObjs) {
+        IGeometry geom = sched.getMapObjGeom().get(obj);
+        solution.put(obj, geom == null ? obj.getGeom() : geom);
+      }
+
+      double rms = 0.0, max = 0.0;
+      EquationsSystem systeme = sched.getSystemeGlobal();
+      if (systeme != null && systeme.getResiduals() != null
+          && !systeme.getResiduals().isEmpty()) {
+        for (Double residual : systeme.getResiduals()) {
+          rms += residual * residual;
+          max = Math.max(max, Math.abs(residual));
+        }
+        rms = Math.sqrt(rms / systeme.getResiduals().size());
+      }
+      TileReport report = new TileReport(this.tile.i, this.tile.j,
+          this.iteration, this.tile.coreObjs.size(),
+          this.tile.boundaryObjs.size(), time, rms, max);
+      logger.finer(report.toString());
+      synchronized (TiledLSScheduler.this.reports) {
+        TiledLSScheduler.this.reports.add(report);
+      }
+      return solution;
+    }
+  }
+
+  /**
+   * Le scheduler d'une dalle : ses objets sont ceux de la dalle, et non la
+   * sélection des mapspecs, et les objets de bordure sont fixes.
+   */
+  private static class TileScheduler extends LSScheduler {
+    private Tile tile;
+
+    TileScheduler(MapspecsLS ms, Tile tile) {
+      super(ms);
+      this.tile = tile;
+    }
+
+    @Override
+    public void setObjs() throws IllegalArgumentException, SecurityException,
+        IllegalAccessException, NoSuchFieldException, ClassNotFoundException {
+      for (IFeature obj : this.tile.coreObjs) {
+        Class<?> classe = Class.forName(obj.getClass().getName());
+        if (this.getMapspec().isFixedClass(classe)) {
+          this.getObjsFixes().add(obj);
+        } else if (this.getMapspec().isRigidClass(classe)) {
+          this.getObjsRigides().add(obj);
+        } else if (this.getMapspec().isMalleableClass(classe)) {
+          this.getObjsMalleables().add(obj);
+        }
+      }
+      for (IFeature obj : this.tile.boundaryObjs) {
+        this.getObjsFixes().add(obj);
+      }
+    }
+
+    @Override
+    protected void initialiserContraintesExternes() throws Exception {
+      if (!this.getMapspec().isProxiTinActive()) {
+        super.initialiserContraintesExternes();
+        return;
+      }
+      // la triangulation native n'est pas réentrante
+      synchronized (Triangulation.class) {
+        super.initialiserContraintesExternes();
+      }
+    }
+  }
+
+  /**
+   * Le compte-rendu de l'ajustement d'une dalle lors d'une itération.
+   */
+  public static class TileReport {
+    private int column, row, iteration, nbObjects, nbBoundaryObjects;
+    private long solveTime;
+    private double rmsResidual, maxResidual;
+
+    public TileReport(int column, int row, int iteration, int nbObjects,
+        int nbBoundaryObjects, long solveTime, double rmsResidual,
+        double maxResidual) {
+      this.column = column;
+      this.row = row;
+      this.iteration = iteration;
+      this.nbObjects = nbObjects;
+      this.nbBoundaryObjects = nbBoundaryObjects;
+      this.solveTime = solveTime;
+      this.rmsResidual = rmsResidual;
+      this.maxResidual = maxResidual;
+    }
+
+    public int getColumn() {
+      return this.column;
+    }
+
+    public int getRow() {
+      return this.row;
+    }
+
+    public int getIteration() {
+      return this.iteration;
+    }
+
+    public int getNbObjects() {
+      return this.nbObjects;
+    }
+
+    public int getNbBoundaryObjects() {
+      return this.nbBoundaryObjects;
+    }
+
+    /**
+     * @return le temps d'ajustement de la dalle, en ms
+     */
+    public long getSolveTime() {
+      return this.solveTime;
+    }
+
+    public double getRmsResidual() {
+      return this.rmsResidual;
+    }
+
+    public double getMaxResidual() {
+      return this.maxResidual;
+    }
+
+    @Override
+    public String toString() {
+      return "dalle (" + this.column + ", " + this.row + ") iteration "
+          + this.iteration + " : " + this.nbObjects + " objets, "
+          + this.nbBoundaryObjects + " objets de bordure, " + this.solveTime
+          + " ms, residus rms " + this.rmsResidual + " max "
+          + this.maxResidual;
+    }
+  }
+
+  public List<TileReport> getReports() {
+    return this.reports;
+  }
+
+  /**
+   * @return le nombre d'itérations effectuées lors du dernier ajustement
+   */
+  public int getIterations() {
+    return this.iterations;
+  }
+
+  public Map<IFeature, IGeometry> getMapObjGeom() {
+    return this.mapObjGeom;
+  }
+
+  public MapspecsLS getMapspec() {
+    return this.mapspec;
+  }
+
+  public double getTileSize() {
+    return this.tileSize;
+  }
+
+  /**
+   * @return la taille des dalles du dernier ajustement, supérieure à la
+   *         taille demandée si de grands objets ont imposé de l'agrandir
+   */
+  public double getEffectiveTileSize() {
+    return this.effectiveTileSize;
+  }
+
+  public double getOverlap() {
+    return this.overlap;
+  }
+
+  public int getMaxIterations() {
+    return this.maxIterations;
+  }
+
+  public void setMaxIterations(int maxIterations) {
+    this.maxIterations = maxIterations;
+  }
+
+  public double getTolerance() {
+    return this.tolerance;
+  }
+
+  public void setTolerance(double tolerance) {
+    this.tolerance = tolerance;
+  }
+
+  public int getNbThreads() {
+    return this.nbThreads;
+  }
+
+  public void setNbThreads(int nbThreads) {
+    this.nbThreads = nbThreads;
+  }
+
+  public MatrixSolver getSolver() {
+    return this.solver;
+  }
+
+  public void setSolver(MatrixSolver solver) {
+    this.solver = solver;
+  }
+}
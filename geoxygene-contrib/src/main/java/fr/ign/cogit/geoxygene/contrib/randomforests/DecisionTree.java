@@ -4,6 +4,7 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Enumeration;
 import java.util.Hashtable;
+import java.util.Random;
 
 
 // ===============================================================
@@ -67,6 +68,9 @@ public class DecisionTree {
 	// Verbose mode
 	private boolean verbose;
 
+	// Random generator for variables selection
+	private Random random;
+
 	// Tree architecture
 	private ArrayList<Node> PROCESSED;
 	private ArrayList<Node> TO_BE_PROCESSED;
@@ -115,6 +119,7 @@ public class DecisionTree {
 		CAT_VARIABLES = new Hashtable<String, Hashtable<String, Integer>>();
 
 		verbose = false;
+		random = new Random();
 
 	}
 	// ----------------------------------------------------------
@@ -141,6 +146,7 @@ public class DecisionTree {
 		CAT_VARIABLES = new Hashtable<String, Hashtable<String, Integer>>();
 
 		verbose = false;
+		random = new Random();
 
 	}
 
@@ -155,6 +161,7 @@ public class DecisionTree {
 	public double getRandomness(){return rho;}
 	public boolean getVerbose(){return verbose;}
 
+	public Node getRoot(){return PROCESSED.get(0);}
 
 	// ----------------------------------------------------------
 	// Setters
@@ -166,6 +173,7 @@ public class DecisionTree {
 	public void setMinImpurity(double min_imp){this.min_imp = min_imp;}
 	public void setRandomness(double rho){this.rho = rho;}
 	public void setVerbose(boolean verbose){this.verbose = verbose;}
+	public void setRandom(Random random){this.random = random;}
 
 	// ----------------------------------------------------------
 	// Set input variables list (to avoid checking)
@@ -1036,7 +1044,7 @@ public class DecisionTree {
 	// ----------------------------------------------------------
 	// Draw at random m variable from a set of p variables
 	// ----------------------------------------------------------
-	private static ArrayList<Integer> randomize(int m, int p){
+	private ArrayList<Integer> randomize(int m, int p){
 
 		// Extracted number
 		ArrayList<Integer> OUTPUT = new ArrayList<Integer>();
@@ -1048,7 +1056,7 @@ public class DecisionTree {
 		// Exctraction
 		while(OUTPUT.size() != m){
 
-			int index = (int)(Math.random()*SOURCE.size());
+			int index = random.nextInt(SOURCE.size());
 
 			OUTPUT.add(SOURCE.remove(index));
 
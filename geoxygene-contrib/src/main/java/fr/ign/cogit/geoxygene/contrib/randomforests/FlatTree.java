@@ -0,0 +1,866 @@
+package fr.ign.cogit.geoxygene.contrib.randomforests;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Random;
+
+// ===============================================================
+// CLASS FOR FLATTENED DECISION TREE
+// ===============================================================
+// Decision tree stored as parallel primitive arrays indexed by
+// node number (root is node 0) :
+//   - VARIABLE : split variable index (-1 for a leaf)
+//   - THRESHOLD : split threshold (ordered variables, X <= s goes
+//     to the left successor)
+//   - LEFT_CATEGORIES : modalities going to the left successor
+//     (categorical variables)
+//   - LEFT, RIGHT : successors indices
+//   - VALUE : a posteriori estimation (regression)
+//   - POSTERIOR, MODE : a posteriori probabilities and most
+//     probable class (classification)
+// Prediction is done on primitive rows encoded by a TrainingMatrix
+// without any object allocation. A flat tree is either converted
+// from a DecisionTree, or grown directly from a TrainingMatrix and
+// bootstrap weights, using the presorted indices of the matrix to
+// search ordered splits in linear time at each node.
+// ===============================================================
+
+public class FlatTree {
+
+	// ----------------------------------------------------------
+	// Attributes
+	// ----------------------------------------------------------
+	private int size;
+	private int classes;
+
+	private int[] VARIABLE;
+	private double[] THRESHOLD;
+	private boolean[][] LEFT_CATEGORIES;
+	private int[] LEFT;
+	private int[] RIGHT;
+	private double[] VALUE;
+	private double[] POSTERIOR;
+	private int[] MODE;
+
+	// Maximal number of modalities for exhaustive categorical splits
+	private static int MAX_EXHAUSTIVE_MODALITIES = 12;
+
+	// ----------------------------------------------------------
+	// Private constructor (see grow and fromTree)
+	// ----------------------------------------------------------
+	private FlatTree(int classes){
+
+		this.classes = classes;
+		this.size = 0;
+
+		int capacity = 16;
+
+		VARIABLE = new int[capacity];
+		THRESHOLD = new double[capacity];
+		LEFT_CATEGORIES = new boolean[capacity][];
+		LEFT = new int[capacity];
+		RIGHT = new int[capacity];
+		VALUE = new double[capacity];
+		POSTERIOR = new double[capacity*Math.max(classes, 1)];
+		MODE = new int[capacity];
+
+	}
+
+	// ----------------------------------------------------------
+	// Getters
+	// ----------------------------------------------------------
+	public int getNodesNumber(){return size;}
+	public boolean isLeaf(int node){return VARIABLE[node] < 0;}
+	public int getSplitVariable(int node){return VARIABLE[node];}
+	public double getThreshold(int node){return THRESHOLD[node];}
+	public int getLeftSuccessor(int node){return LEFT[node];}
+	public int getRightSuccessor(int node){return RIGHT[node];}
+
+	// ----------------------------------------------------------
+	// Adding a node (leaf by default)
+	// ----------------------------------------------------------
+	private int addNode(){
+
+		if (size == VARIABLE.length){
+
+			int capacity = 2*size;
+
+			VARIABLE = Arrays.copyOf(VARIABLE, capacity);
+			THRESHOLD = Arrays.copyOf(THRESHOLD, capacity);
+			LEFT_CATEGORIES = Arrays.copyOf(LEFT_CATEGORIES, capacity);
+			LEFT = Arrays.copyOf(LEFT, capacity);
+			RIGHT = Arrays.copyOf(RIGHT, capacity);
+			VALUE = Arrays.copyOf(VALUE, capacity);
+			POSTERIOR = Arrays.copyOf(POSTERIOR, capacity*Math.max(classes, 1));
+			MODE = Arrays.copyOf(MODE, capacity);
+
+		}
+
+		VARIABLE[size] = -1;
+		LEFT[size] = -1;
+		RIGHT[size] = -1;
+
+		return size++;
+
+	}
+
+	// ----------------------------------------------------------
+	// Trimming arrays to the number of nodes
+	// ----------------------------------------------------------
+	private void trim(){
+
+		VARIABLE = Arrays.copyOf(VARIABLE, size);
+		THRESHOLD = Arrays.copyOf(THRESHOLD, size);
+		LEFT_CATEGORIES = Arrays.copyOf(LEFT_CATEGORIES, size);
+		LEFT = Arrays.copyOf(LEFT, size);
+		RIGHT = Arrays.copyOf(RIGHT, size);
+		VALUE = Arrays.copyOf(VALUE, size);
+		POSTERIOR = Arrays.copyOf(POSTERIOR, size*Math.max(classes, 1));
+		MODE = Arrays.copyOf(MODE, size);
+
+	}
+
+	// ----------------------------------------------------------
+	// Method to get leaf index associated with a primitive row
+	// ----------------------------------------------------------
+	public int getLeaf(double[] row){
+
+		int node = 0;
+
+		while (VARIABLE[node] >= 0){
+
+			boolean left;
+			double x = row[VARIABLE[node]];
+
+			if (LEFT_CATEGORIES[node] != null){
+
+				int code = (int) x;
+				left = (code >= 0) && (code < LEFT_CATEGORIES[node].length) && LEFT_CATEGORIES[node][code];
+
+			}
+			else{
+
+				left = (x <= THRESHOLD[node]);
+
+			}
+
+			node = left ? LEFT[node] : RIGHT[node];
+
+		}
+
+		return node;
+
+	}
+
+	// ----------------------------------------------------------
+	// Regression : estimated value yhat
+	// ----------------------------------------------------------
+	public double estimate(double[] row){
+
+		return VALUE[getLeaf(row)];
+
+	}
+
+	// ----------------------------------------------------------
+	// Classification : most probable class index
+	// ----------------------------------------------------------
+	public int classify(double[] row){
+
+		return MODE[getLeaf(row)];
+
+	}
+
+	// ----------------------------------------------------------
+	// Classification : posterior probability P(c|X)
+	// ----------------------------------------------------------
+	public double posterior(int c, double[] row){
+
+		return POSTERIOR[getLeaf(row)*classes+c];
+
+	}
+
+	// ----------------------------------------------------------
+	// Converting a built decision tree
+	// ----------------------------------------------------------
+	public static FlatTree fromTree(DecisionTree tree, TrainingMatrix matrix){
+
+		FlatTree flat = new FlatTree(matrix.getClassesNumber());
+
+		HashMap<String, Integer> INDEX = new HashMap<String, Integer>();
+		for (int j=0; j<matrix.getVariablesNumber(); j++){INDEX.put(matrix.getVariable(j), j);}
+
+		Deque<Node> NODES = new ArrayDeque<Node>();
+		Deque<Integer> IDS = new ArrayDeque<Integer>();
+
+		NODES.add(tree.getRoot());
+		IDS.add(flat.addNode());
+
+		while (!NODES.isEmpty()){
+
+			Node node = NODES.poll();
+			int id = IDS.poll();
+
+			if (node.isTerminal()){
+
+				if (matrix.getMode() == RandomForest.MODE_CLASSIFICATION){
+
+					for (int c=0; c<flat.classes; c++){
+
+						flat.POSTERIOR[id*flat.classes+c] = node.getAPosteriori(matrix.getClass(c));
+
+					}
+
+					flat.MODE[id] = Math.max(0, matrix.getClassIndex(node.getMode()));
+
+				}
+				else{
+
+					flat.VALUE[id] = node.getYhat();
+
+				}
+
+				continue;
+
+			}
+
+			int j = INDEX.get(node.getSplitVariable());
+
+			flat.VARIABLE[id] = j;
+			flat.THRESHOLD[id] = node.getThreshold();
+
+			if (matrix.isCategorical(j)){
+
+				boolean[] categories = new boolean[matrix.getModalitiesNumber(j)];
+
+				for (String category : node.getCategories()){
+
+					int code = matrix.getModalityCode(j, category);
+					if (code >= 0){categories[code] = true;}
+
+				}
+
+				flat.LEFT_CATEGORIES[id] = categories;
+
+			}
+
+			int left = flat.addNode();
+			int right = flat.addNode();
+
+			flat.LEFT[id] = left;
+			flat.RIGHT[id] = right;
+
+			NODES.add(node.getLeftSuccessor());
+			IDS.add(left);
+			NODES.add(node.getRightSuccessor());
+			IDS.add(right);
+
+		}
+
+		flat.trim();
+
+		return flat;
+
+	}
+
+	// ----------------------------------------------------------
+	// Growing a randomized tree from a training matrix, weights
+	// being the number of times each data has been drawn by
+	// bagging (0 for data out of bag). Hyper-parameters have the
+	// same meaning as in DecisionTree.
+	// ----------------------------------------------------------
+	public static FlatTree grow(TrainingMatrix matrix, int[] weights, Random random, int impurity,
+			int max_depth, int max_data, double min_imp, double rho){
+
+		return new Grower(matrix, weights, random, impurity, max_depth, max_data, min_imp, rho).grow();
+
+	}
+
+	// ----------------------------------------------------------
+	// Tree growing state
+	// ----------------------------------------------------------
+	private static class Grower {
+
+		private TrainingMatrix matrix;
+		private int[] weights;
+		private Random random;
+		private int impurity;
+		private int max_depth;
+		private int max_data;
+		private double min_imp;
+		private int m;
+		private int p;
+		private boolean classification;
+		private int C;
+
+		private FlatTree tree;
+
+		// Temporary arrays
+		private boolean[] goLeft;
+		private int[] variables;
+		private double[] countsLeft;
+		private double[] countsTotal;
+
+		// Best split found on current node
+		private int bestVariable;
+		private double bestThreshold;
+		private boolean[] bestCategories;
+		private double bestImpurity;
+
+		private Grower(TrainingMatrix matrix, int[] weights, Random random, int impurity,
+				int max_depth, int max_data, double min_imp, double rho){
+
+			this.matrix = matrix;
+			this.weights = weights;
+			this.random = random;
+			this.impurity = impurity;
+			this.max_depth = max_depth < 0 ? Integer.MAX_VALUE : max_depth;
+			this.max_data = max_data;
+			this.min_imp = min_imp;
+			this.p = matrix.getVariablesNumber();
+			this.m = Math.max(1, Math.min(p, (int) (p*(1-rho))));
+			this.classification = (matrix.getMode() == RandomForest.MODE_CLASSIFICATION);
+			this.C = matrix.getClassesNumber();
+
+			tree = new FlatTree(C);
+
+			goLeft = new boolean[matrix.getDataNumber()];
+			variables = new int[p];
+			for (int j=0; j<p; j++){variables[j] = j;}
+			countsLeft = new double[Math.max(C, 1)];
+			countsTotal = new double[Math.max(C, 1)];
+
+		}
+
+		// Node waiting to be processed
+		private class Task {
+			int id;
+			int depth;
+			int[] rows;
+			int[][] sorted;
+		}
+
+		private FlatTree grow(){
+
+			int n = matrix.getDataNumber();
+
+			// Root : data drawn at least once
+			Task root = new Task();
+			root.id = tree.addNode();
+			root.depth = 0;
+			root.rows = filter(null, n);
+			root.sorted = new int[p][];
+
+			for (int j=0; j<p; j++){
+
+				if (!matrix.isCategorical(j)){root.sorted[j] = filter(matrix.getSortedIndices(j), n);}
+
+			}
+
+			Deque<Task> STACK = new ArrayDeque<Task>();
+			STACK.push(root);
+
+			while (!STACK.isEmpty()){
+
+				Task task = STACK.pop();
+
+				double parentImpurity = computeLeaf(task);
+
+				if (task.depth >= max_depth){continue;}
+				if (totalWeight(task.rows) <= max_data){continue;}
+				if (parentImpurity <= 0){continue;}
+
+				if (!searchBestSplit(task)){continue;}
+				if (parentImpurity-bestImpurity < min_imp){continue;}
+
+				// Operate split
+				int nl = 0;
+
+				for (int i : task.rows){
+
+					goLeft[i] = question(i);
+					if (goLeft[i]){nl++;}
+
+				}
+
+				if ((nl == 0) || (nl == task.rows.length)){continue;}
+
+				Task left = new Task();
+				Task right = new Task();
+
+				left.depth = task.depth+1;
+				right.depth = task.depth+1;
+
+				left.rows = new int[nl];
+				right.rows = new int[task.rows.length-nl];
+				partition(task.rows, left.rows, right.rows);
+
+				left.sorted = new int[p][];
+				right.sorted = new int[p][];
+
+				for (int j=0; j<p; j++){
+
+					if (task.sorted[j] == null){continue;}
+
+					left.sorted[j] = new int[nl];
+					right.sorted[j] = new int[task.rows.length-nl];
+					partition(task.sorted[j], left.sorted[j], right.sorted[j]);
+
+				}
+
+				tree.VARIABLE[task.id] = bestVariable;
+				tree.THRESHOLD[task.id] = bestThreshold;
+				tree.LEFT_CATEGORIES[task.id] = bestCategories;
+
+				left.id = tree.addNode();
+				right.id = tree.addNode();
+
+				tree.LEFT[task.id] = left.id;
+				tree.RIGHT[task.id] = right.id;
+
+				// Releasing parent lists before going deeper
+				task.rows = null;
+				task.sorted = null;
+
+				STACK.push(right);
+				STACK.push(left);
+
+			}
+
+			tree.trim();
+
+			return tree;
+
+		}
+
+		// ------------------------------------------------------
+		// Data of a list drawn at least once (all data if null)
+		// ------------------------------------------------------
+		private int[] filter(int[] list, int n){
+
+			int count = 0;
+			for (int i=0; i<n; i++){if (weights[i] > 0){count++;}}
+
+			int[] output = new int[count];
+			int k = 0;
+
+			for (int l=0; l<n; l++){
+
+				int i = (list == null) ? l : list[l];
+				if (weights[i] > 0){output[k++] = i;}
+
+			}
+
+			return output;
+
+		}
+
+		// ------------------------------------------------------
+		// Stable partition of a list according to goLeft
+		// ------------------------------------------------------
+		private void partition(int[] list, int[] left, int[] right){
+
+			int l = 0;
+			int r = 0;
+
+			for (int i : list){
+
+				if (goLeft[i]){left[l++] = i;}
+				else{right[r++] = i;}
+
+			}
+
+		}
+
+		private double totalWeight(int[] rows){
+
+			double w = 0;
+			for (int i : rows){w += weights[i];}
+
+			return w;
+
+		}
+
+		private boolean question(int i){
+
+			double x = matrix.getValue(bestVariable, i);
+
+			if (bestCategories != null){return bestCategories[(int) x];}
+
+			return x <= bestThreshold;
+
+		}
+
+		// ------------------------------------------------------
+		// Filling leaf estimations of a node and returning its
+		// impurity
+		// ------------------------------------------------------
+		private double computeLeaf(Task task){
+
+			double W = totalWeight(task.rows);
+
+			if (classification){
+
+				Arrays.fill(countsTotal, 0);
+				for (int i : task.rows){countsTotal[matrix.getOutputClass(i)] += weights[i];}
+
+				int mode = 0;
+
+				for (int c=0; c<C; c++){
+
+					tree.POSTERIOR[task.id*C+c] = countsTotal[c]/W;
+					if (countsTotal[c] > countsTotal[mode]){mode = c;}
+
+				}
+
+				tree.MODE[task.id] = mode;
+
+				return classImpurity(countsTotal, W);
+
+			}
+
+			double sy = 0;
+			double sy2 = 0;
+
+			for (int i : task.rows){
+
+				double y = matrix.getOutputValue(i);
+				sy += weights[i]*y;
+				sy2 += weights[i]*y*y;
+
+			}
+
+			tree.VALUE[task.id] = sy/W;
+
+			return sy2/W-Math.pow(sy/W, 2);
+
+		}
+
+		// ------------------------------------------------------
+		// Gini or entropy impurity from class weights
+		// ------------------------------------------------------
+		private double classImpurity(double[] counts, double W){
+
+			double it = 0;
+
+			for (int c=0; c<C; c++){
+
+				double pc = counts[c]/W;
+
+				if (impurity == RandomForest.FUNCTION_ENTROPY){
+
+					if (pc > 0){it -= pc*Math.log(pc)/Math.log(2);}
+
+				}
+				else{
+
+					it += pc*pc;
+
+				}
+
+			}
+
+			if (impurity != RandomForest.FUNCTION_ENTROPY){it = 1-it;}
+
+			return it;
+
+		}
+
+		// ------------------------------------------------------
+		// Search for optimal cut on m variables drawn at random
+		// ------------------------------------------------------
+		private boolean searchBestSplit(Task task){
+
+			bestVariable = -1;
+			bestImpurity = Double.MAX_VALUE;
+			bestCategories = null;
+
+			// Partial shuffle of variables
+			for (int k=0; k<m; k++){
+
+				int l = k+random.nextInt(p-k);
+				int temp = variables[k];
+				variables[k] = variables[l];
+				variables[l] = temp;
+
+			}
+
+			for (int k=0; k<m; k++){
+
+				int j = variables[k];
+
+				if (matrix.isCategorical(j)){searchCategoricalSplit(task, j);}
+				else{searchOrderedSplit(task, j);}
+
+			}
+
+			return bestVariable >= 0;
+
+		}
+
+		// ------------------------------------------------------
+		// Best split on an ordered variable, data being scanned
+		// in the presorted order
+		// ------------------------------------------------------
+		private void searchOrderedSplit(Task task, int j){
+
+			int[] sorted = task.sorted[j];
+			double[] column = matrix.getColumn(j);
+
+			double W = 0;
+			double Wl = 0;
+			double yl = 0, yr = 0, y2l = 0, y2r = 0;
+
+			if (classification){
+
+				Arrays.fill(countsLeft, 0);
+				Arrays.fill(countsTotal, 0);
+
+			}
+
+			for (int i : sorted){
+
+				W += weights[i];
+
+				if (classification){countsTotal[matrix.getOutputClass(i)] += weights[i];}
+				else{
+
+					double y = matrix.getOutputValue(i);
+					yr += weights[i]*y;
+					y2r += weights[i]*y*y;
+
+				}
+
+			}
+
+			for (int k=0; k<sorted.length-1; k++){
+
+				int i = sorted[k];
+				double w = weights[i];
+
+				Wl += w;
+
+				if (classification){countsLeft[matrix.getOutputClass(i)] += w;}
+				else{
+
+					double y = matrix.getOutputValue(i);
+					yl += w*y;
+					yr -= w*y;
+					y2l += w*y*y;
+					y2r -= w*y*y;
+
+				}
+
+				// No threshold between equal values
+				if (column[i] == column[sorted[k+1]]){continue;}
+
+				double Wr = W-Wl;
+				double sum;
+
+				if (classification){
+
+					double itl = classImpurity(countsLeft, Wl);
+
+					for (int c=0; c<C; c++){countsTotal[c] -= countsLeft[c];}
+					double itr = classImpurity(countsTotal, Wr);
+					for (int c=0; c<C; c++){countsTotal[c] += countsLeft[c];}
+
+					sum = (Wl/W)*itl+(Wr/W)*itr;
+
+				}
+				else{
+
+					double itl = y2l/Wl-Math.pow(yl/Wl, 2);
+					double itr = y2r/Wr-Math.pow(yr/Wr, 2);
+
+					sum = (Wl/W)*itl+(Wr/W)*itr;
+
+				}
+
+				if (sum < bestImpurity){
+
+					bestImpurity = sum;
+					bestVariable = j;
+					bestThreshold = (column[i]+column[sorted[k+1]])/2;
+					bestCategories = null;
+
+				}
+
+			}
+
+		}
+
+		// ------------------------------------------------------
+		// Best split on a categorical variable. All subsets of
+		// modalities are tested when there are few of them, as in
+		// DecisionTree, otherwise modalities are ordered by their
+		// mean output (regression) or by the proportion of the
+		// most frequent class and scanned like an ordered variable
+		// ------------------------------------------------------
+		private void searchCategoricalSplit(Task task, int j){
+
+			int K = matrix.getModalitiesNumber(j);
+			if (K < 2){return;}
+
+			int D = classification ? C : 2;
+
+			// Statistics by modality
+			double[] weight = new double[K];
+			double[][] stats = new double[K][D];
+
+			for (int i : task.rows){
+
+				int code = (int) matrix.getValue(j, i);
+				weight[code] += weights[i];
+
+				if (classification){stats[code][matrix.getOutputClass(i)] += weights[i];}
+				else{
+
+					double y = matrix.getOutputValue(i);
+					stats[code][0] += weights[i]*y;
+					stats[code][1] += weights[i]*y*y;
+
+				}
+
+			}
+
+			if (K <= MAX_EXHAUSTIVE_MODALITIES){
+
+				// Subsets not containing the last modality (complements
+				// give the same split)
+				for (int mask=1; mask<(1 << (K-1)); mask++){
+
+					boolean[] left = new boolean[K];
+					for (int k=0; k<K; k++){left[k] = ((mask >> k) & 1) == 1;}
+
+					evaluateCategoricalSplit(j, left, weight, stats, D);
+
+				}
+
+				return;
+
+			}
+
+			// Ordering modalities
+			final double[] key = new double[K];
+			int majority = 0;
+
+			if (classification){
+
+				double[] total = new double[C];
+				for (int k=0; k<K; k++){for (int c=0; c<C; c++){total[c] += stats[k][c];}}
+				for (int c=0; c<C; c++){if (total[c] > total[majority]){majority = c;}}
+
+			}
+
+			for (int k=0; k<K; k++){
+
+				if (weight[k] == 0){continue;}
+				key[k] = classification ? stats[k][majority]/weight[k] : stats[k][0]/weight[k];
+
+			}
+
+			Integer[] order = new Integer[K];
+			for (int k=0; k<K; k++){order[k] = k;}
+
+			Arrays.sort(order, new Comparator<Integer>(){
+				@Override
+				public int compare(Integer a, Integer b){
+					return Double.compare(key[a], key[b]);
+				}
+			});
+
+			boolean[] left = new boolean[K];
+
+			for (int k=0; k<K-1; k++){
+
+				left[order[k]] = true;
+				evaluateCategoricalSplit(j, left.clone(), weight, stats, D);
+
+			}
+
+		}
+
+		private void evaluateCategoricalSplit(int j, boolean[] left, double[] weight, double[][] stats, int D){
+
+			double Wl = 0;
+			double Wr = 0;
+			double[] sl = new double[D];
+			double[] sr = new double[D];
+
+			for (int k=0; k<left.length; k++){
+
+				if (left[k]){
+
+					Wl += weight[k];
+					for (int d=0; d<D; d++){sl[d] += stats[k][d];}
+
+				}
+				else{
+
+					Wr += weight[k];
+					for (int d=0; d<D; d++){sr[d] += stats[k][d];}
+
+				}
+
+			}
+
+			if ((Wl == 0) || (Wr == 0)){return;}
+
+			double W = Wl+Wr;
+			double itl, itr;
+
+			if (classification){
+
+				itl = classImpurity(sl, Wl);
+				itr = classImpurity(sr, Wr);
+
+			}
+			else{
+
+				itl = sl[1]/Wl-Math.pow(sl[0]/Wl, 2);
+				itr = sr[1]/Wr-Math.pow(sr[0]/Wr, 2);
+
+			}
+
+			double sum = (Wl/W)*itl+(Wr/W)*itr;
+
+			if (sum < bestImpurity){
+
+				bestImpurity = sum;
+				bestVariable = j;
+				bestThreshold = 0;
+				bestCategories = left;
+
+			}
+
+		}
+
+	}
+
+	// ----------------------------------------------------------
+	// String converter
+	// ----------------------------------------------------------
+	public String toString(){
+
+		ArrayList<String> LINES = new ArrayList<String>();
+
+		for (int i=0; i<size; i++){
+
+			if (VARIABLE[i] < 0){LINES.add("Node "+i+", terminal");}
+			else if (LEFT_CATEGORIES[i] != null){LINES.add("Node "+i+", split condition X"+VARIABLE[i]+" in "+Arrays.toString(LEFT_CATEGORIES[i]));}
+			else{LINES.add("Node "+i+", split condition X"+VARIABLE[i]+" < "+THRESHOLD[i]);}
+
+		}
+
+		String chaine = "";
+		for (String line : LINES){chaine += line+"\r\n";}
+
+		return chaine;
+
+	}
+
+}
@@ -1,8 +1,17 @@
 package fr.ign.cogit.geoxygene.contrib.randomforests;
 
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Enumeration;
 import java.util.Hashtable;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import fr.ign.cogit.geoxygene.api.feature.IFeature;
+import fr.ign.cogit.geoxygene.api.feature.IFeatureCollection;
+import fr.ign.cogit.geoxygene.util.ParallelChunks;
+import fr.ign.cogit.geoxygene.util.ParallelChunks.RangeTask;
 
 // ===============================================================
 // CLASS FOR RANDOM FORESTS  (BREIMAN 2001)
@@ -36,6 +45,15 @@ import java.util.Hashtable;
 // the regressions problems and according to the argmax of the 
 // posterior probabilities for the classification problems. 
 // ===============================================================
+// Trees are grown in parallel, tree i drawing its bagging sample
+// and its variables with its own generator seeded with seed+i, so
+// that a forest built with a given seed does not depend on the 
+// number of threads. Each tree is also stored as a FlatTree on a
+// primitive encoding of the variables (TrainingMatrix), used for
+// all predictions. In compact mode, trees are directly grown as 
+// flat trees from presorted primitive columns, which is much 
+// faster and lighter on large training sets.
+// ===============================================================
 
 public class RandomForest {
 
@@ -72,6 +90,15 @@ public class RandomForest {
 	// Random forest model
 	private ArrayList<DecisionTree> FOREST;
 
+	// Flattened random forest model (used for prediction)
+	private ArrayList<FlatTree> FLAT_FOREST;
+	private TrainingMatrix MATRIX;
+
+	// Parallel growing
+	private long seed;        // Random seed
+	private int threads;      // Number of threads
+	private boolean compact;  // Growing flat trees only
+
 	// ----------------------------------------------------------
 	// Getters
 	// ----------------------------------------------------------
@@ -84,8 +111,31 @@ public class RandomForest {
 	public double getMinImpurity(){return min_imp;}
 	public double getRandomness(){return rho;}
 	public boolean getVerbose(){return verbose;}
+	public double getOOB(){return oob;}
+
+	public long getSeed(){return seed;}
+	public int getThreadsNumber(){return threads;}
+	public boolean isCompact(){return compact;}
+
+	public FlatTree getFlatTree(int i){return FLAT_FOREST.get(i);}
+	public TrainingMatrix getTrainingMatrix(){return MATRIX;}
+
+	// ----------------------------------------------------------
+	// DecisionTree objects are not kept by a forest built in 
+	// compact mode : its trees are only available with 
+	// getFlatTree.
+	// ----------------------------------------------------------
+	public DecisionTree getTree(int i){
 
-	public DecisionTree getTree(int i){return FOREST.get(i);}
+		if (FOREST.size() < FLAT_FOREST.size()){
+
+			throw new IllegalStateException("Random forest built in compact mode : use getFlatTree");
+
+		}
+
+		return FOREST.get(i);
+
+	}
 
 	// ----------------------------------------------------------
 	// Setters
@@ -99,6 +149,9 @@ public class RandomForest {
 	public void setRandomness(double rho){this.rho = rho;}
 	public void setVerbose(boolean verbose){this.verbose = verbose;}
 	public void computeOOB(boolean oob_mode){this.oob_mode = oob_mode;}
+	public void setSeed(long seed){this.seed = seed;}
+	public void setThreadsNumber(int threads){this.threads = threads;}
+	public void setCompact(boolean compact){this.compact = compact;}
 
 	// ----------------------------------------------------------
 	// Constructor from trees number N and computation mode :
@@ -106,7 +159,9 @@ public class RandomForest {
 	//   - classification
 	// Note that default degree of randomness and tree max depth 
 	// are set accordingly to the training data set specificity.
-	// Default : no out of bag error computation.
+	// Default : no out of bag error computation, random seed, 
+	// as many threads as available processors, DecisionTree 
+	// objects kept along with flat trees (non compact mode).
 	// ----------------------------------------------------------
 	public RandomForest(int mode, int N){
 
@@ -125,22 +180,23 @@ public class RandomForest {
 		if (mode == MODE_REGRESSION){this.impurity = FUNCTION_MSE;}
 		if (mode == MODE_CLASSIFICATION){this.impurity = FUNCTION_GINI;}
 
+		seed = System.nanoTime();
+		threads = Runtime.getRuntime().availableProcessors();
+		compact = false;
+
 		FOREST = new ArrayList<DecisionTree>();
+		FLAT_FOREST = new ArrayList<FlatTree>();
 
 	}
 
 	// ----------------------------------------------------------
 	// Building a random forest from a training data set
 	// ----------------------------------------------------------
-	public void build(TrainingDataSet dataset){
-
-		ArrayList<Hashtable<Integer, Integer>> UNCALLED = null;
-
-		if (oob_mode){UNCALLED = new ArrayList<Hashtable<Integer, Integer>>();}
+	public void build(final TrainingDataSet dataset){
 
 		if (verbose){System.out.print("Checking dataset consistency : ");}
 		//Prepare a list of input fields
-		ArrayList<String> INPUT_VARIABLES = listInputVariables(dataset);
+		final ArrayList<String> INPUT_VARIABLES = listInputVariables(dataset);
 
 		// Number of variables
 		int p = INPUT_VARIABLES.size();
@@ -192,88 +248,126 @@ public class RandomForest {
 		if (verbose){System.out.println("Training dataset size = "+n);}
 		if (verbose){System.out.println("Number of trees to build = "+N);}
 
-		// Growing N randomized decision trees
-		for (int i=0; i<N; i++){
+		// Primitive encoding of training data
+		MATRIX = new TrainingMatrix(dataset, mode, INPUT_VARIABLES);
+
+		final DecisionTree[] TREES = new DecisionTree[N];
+		final FlatTree[] FLAT_TREES = new FlatTree[N];
+		final BitSet[] INBAG = new BitSet[N];
+
+		// Growing N randomized decision trees in parallel
+		final AtomicInteger counter = new AtomicInteger();
 
-			// OOB computation
-			Hashtable<Integer, Integer> uncalled = null;
-			if (oob_mode){
+		ParallelChunks.forEach(N, Math.max(1, threads), N, new RangeTask(){
+			@Override
+			public void run(int from, int to){
 
-				uncalled = new Hashtable<Integer, Integer>();
+				for (int index=from; index<to; index++){
 
-				for (int k=0; k<n; k++){
+					growTree(index, dataset, INPUT_VARIABLES, TREES, FLAT_TREES, INBAG);
 
-					uncalled.put(k, 0);
+					// Progression
+					int built = counter.incrementAndGet();
+					double pc = Math.floor(1000*(double)(built)/N)/10;
+					System.out.println("Tree number "+(index+1)+" built ("+pc+"%)");
 
 				}
 
 			}
+		});
 
-			// Initializing tree
-			DecisionTree tree = new DecisionTree(mode);
+		// Saving trees
+		FOREST.clear();
+		FLAT_FOREST.clear();
 
-			// Setting its parameters
-			tree.setImpurityFunction(impurity);
-			tree.setMaxDepth(max_depth);
-			tree.setMaxData(max_data);
-			tree.setMinImpurity(min_imp);
-			tree.setRandomness(rho);
-			
-			// Set its list of variables
-			tree.setInputVariablesList(INPUT_VARIABLES);
+		for (int i=0; i<N; i++){
 
-			// Making dataset for tree i
-			TrainingDataSet baggeddata = new TrainingDataSet();
+			if (!compact){FOREST.add(TREES[i]);}
+			FLAT_FOREST.add(FLAT_TREES[i]);
 
-			// Bagging data
-			for (int k=0; k<this.bagging; k++){
+		}
 
-				// Random index
-				int index = (int)(Math.random()*n);
+		// Compute out of bag error
+		if (oob_mode){
 
-				// Getting random number
-				baggeddata.addData(dataset.getData(index));			
+			System.out.print("Computing out of bag error : ");
 
+			oob = estimateOOB(dataset, INBAG);
 
-				if (oob_mode){
+			System.out.println(oob);
 
-					if(uncalled.containsKey(index)){
+		}
 
-						uncalled.remove(index);
+		// Training data are no longer needed
+		MATRIX.releaseData();
 
-					}
+		System.out.print("Random forest built with succes");
 
-				}
+	}
 
-			}
+	// ----------------------------------------------------------
+	// Growing tree i from its own random generator. Bagging is
+	// recorded as the number of times each data is drawn.
+	// ----------------------------------------------------------
+	private void growTree(int i, TrainingDataSet dataset, ArrayList<String> INPUT_VARIABLES, 
+			DecisionTree[] TREES, FlatTree[] FLAT_TREES, BitSet[] INBAG){
 
-			// Growing tree i
-			tree.build(baggeddata);
+		Random random = new Random(seed+i);
 
-			// Saving tree
-			FOREST.add(tree);
+		// Number of original data
+		int n = dataset.getTrainingDataNumber();
+
+		// Bagging data
+		int[] weights = new int[n];
+		TrainingDataSet baggeddata = compact ? null : new TrainingDataSet();
+
+		for (int k=0; k<this.bagging; k++){
+
+			// Random index
+			int index = random.nextInt(n);
 
-			// Saving oob sample
-			if (oob_mode){UNCALLED.add(uncalled);}
+			weights[index]++;
 
-			// Progression
-			double pc = Math.floor(1000*(double)(i)/N)/10;
-			System.out.println("Tree number "+(i+1)+" built ("+pc+"%)");
+			if (!compact){baggeddata.addData(dataset.getData(index));}
 
 		}
 
-		// Compute out of bag error
+		// Saving oob sample
 		if (oob_mode){
 
-			System.out.print("Computing out of bag error : ");
+			INBAG[i] = new BitSet(n);
+			for (int k=0; k<n; k++){if (weights[k] > 0){INBAG[i].set(k);}}
 
-			oob = estimateOOB(dataset, UNCALLED);
+		}
 
-			System.out.println(oob);
+		// Compact mode : growing flat tree i
+		if (compact){
+
+			FLAT_TREES[i] = FlatTree.grow(MATRIX, weights, random, impurity, max_depth, max_data, min_imp, rho);
+
+			return;
 
 		}
 
-		System.out.print("Random forest built with succes");
+		// Initializing tree
+		DecisionTree tree = new DecisionTree(mode);
+
+		// Setting its parameters
+		tree.setImpurityFunction(impurity);
+		tree.setMaxDepth(max_depth);
+		tree.setMaxData(max_data);
+		tree.setMinImpurity(min_imp);
+		tree.setRandomness(rho);
+		tree.setRandom(random);
+
+		// Set its list of variables
+		tree.setInputVariablesList(INPUT_VARIABLES);
+
+		// Growing tree i
+		tree.build(baggeddata);
+
+		TREES[i] = tree;
+		FLAT_TREES[i] = FlatTree.fromTree(tree, MATRIX);
 
 	}
 
@@ -287,70 +381,125 @@ public class RandomForest {
 	// ----------------------------------------------------------
 	public double estimate(InputData X){
 
-		double predicted_value = 0;
+		checkModel();
 
-		// Test
-		if (FOREST.size() == 0){
+		return estimate(MATRIX.encode(X));
 
-			System.out.println("Error : random forest should be built with training dataset before prediction");
-			System.exit(0);
+	}
 
-		}
+	// ----------------------------------------------------------
+	// Classification
+	// ----------------------------------------------------------
+	public String classify(InputData X){
 
-		// Prediction
-		for (int i=0; i<N; i++){
+		checkModel();
 
-			predicted_value += FOREST.get(i).estimate(X);
+		return MATRIX.getClass(classify(MATRIX.encode(X)));
 
-		}
+	}
+
+	// ----------------------------------------------------------
+	// Classification posterior probability P(c|X)
+	// ----------------------------------------------------------
+	public double posterior(String category, InputData X){
 
-		// Normalization
-		predicted_value /= N;
+		checkModel();
 
-		return predicted_value;
+		return posterior(MATRIX.getClassIndex(category), MATRIX.encode(X));
 
 	}
 
 	// ----------------------------------------------------------
-	// Classification
+	// Batch regression on a feature collection. Input variables
+	// are read from features attributes with the same names (see
+	// TrainingMatrix). Estimations are returned in the order of
+	// the collection elements.
 	// ----------------------------------------------------------
-	public String classify(InputData X){
+	public double[] estimate(IFeatureCollection<? extends IFeature> features){
 
-		Hashtable<String, Integer> CLASSES = new Hashtable<String, Integer>();
+		checkModel();
 
-		String predicted_value = "";
+		final List<? extends IFeature> FEATURES = features.getElements();
+		final double[] OUTPUT = new double[FEATURES.size()];
 
-		int max = 0;
+		runByChunks(FEATURES.size(), new RowProcessor(){
+			@Override
+			public void process(int i){OUTPUT[i] = estimate(MATRIX.encode(FEATURES.get(i)));}
+		});
 
-		// Test
-		if (FOREST.size() == 0){
+		return OUTPUT;
 
-			System.out.println("Error : random forest should be built with training dataset before prediction");
-			System.exit(0);
+	}
 
-		}
+	// ----------------------------------------------------------
+	// Batch classification on a feature collection
+	// ----------------------------------------------------------
+	public String[] classify(IFeatureCollection<? extends IFeature> features){
 
+		checkModel();
 
-		// Prediction
-		for (int i=0; i<N; i++){
+		final List<? extends IFeature> FEATURES = features.getElements();
+		final String[] OUTPUT = new String[FEATURES.size()];
 
-			String classe = FOREST.get(i).classify(X);
+		runByChunks(FEATURES.size(), new RowProcessor(){
+			@Override
+			public void process(int i){OUTPUT[i] = MATRIX.getClass(classify(MATRIX.encode(FEATURES.get(i))));}
+		});
 
-			if (!CLASSES.containsKey(classe)){
+		return OUTPUT;
 
-				CLASSES.put(classe, 1);
+	}
 
-			}
-			else{
+	// ----------------------------------------------------------
+	// Batch posterior probabilities P(c|X) on a feature collection
+	// ----------------------------------------------------------
+	public double[] posterior(String category, IFeatureCollection<? extends IFeature> features){
 
-				CLASSES.put(classe, CLASSES.get(classe)+1);
+		checkModel();
 
-			}
+		final int c = MATRIX.getClassIndex(category);
+		final List<? extends IFeature> FEATURES = features.getElements();
+		final double[] OUTPUT = new double[FEATURES.size()];
+
+		runByChunks(FEATURES.size(), new RowProcessor(){
+			@Override
+			public void process(int i){OUTPUT[i] = posterior(c, MATRIX.encode(FEATURES.get(i)));}
+		});
+
+		return OUTPUT;
+
+	}
+
+	// ----------------------------------------------------------
+	// Aggregations on a primitive row
+	// ----------------------------------------------------------
+	private double estimate(double[] row){
+
+		double predicted_value = 0;
+
+		for (FlatTree tree : FLAT_FOREST){predicted_value += tree.estimate(row);}
+
+		return predicted_value/FLAT_FOREST.size();
+
+	}
+
+	private int classify(double[] row){
+
+		int[] VOTES = new int[MATRIX.getClassesNumber()];
+
+		int predicted_value = -1;
+		int max = 0;
+
+		for (FlatTree tree : FLAT_FOREST){
+
+			int classe = tree.classify(row);
 
-			if (CLASSES.get(classe) > max){
+			VOTES[classe]++;
+
+			if (VOTES[classe] > max){
 
 				predicted_value = classe;
-				max = CLASSES.get(classe);
+				max = VOTES[classe];
 
 			}
 
@@ -360,90 +509,127 @@ public class RandomForest {
 
 	}
 
-	// ----------------------------------------------------------
-	// Classification posterior probability P(c|X)
-	// ----------------------------------------------------------
-	public double posterior(String category, InputData X){
+	private double posterior(int c, double[] row){
+
+		if (c < 0){return 0;}
 
 		double predicted_value = 0;
 
-		// Test
-		// Test
-		if (FOREST.size() == 0){
+		for (FlatTree tree : FLAT_FOREST){predicted_value += tree.posterior(c, row);}
+
+		return predicted_value/FLAT_FOREST.size();
+
+	}
+
+	// ----------------------------------------------------------
+	// Test before prediction
+	// ----------------------------------------------------------
+	private void checkModel(){
+
+		if (FLAT_FOREST.size() == 0){
 
 			System.out.println("Error : random forest should be built with training dataset before prediction");
 			System.exit(0);
 
 		}
 
+	}
 
-		// Prediction
-		for (int i=0; i<N; i++){
-
-			predicted_value += FOREST.get(i).posterior(category, X);
+	// ----------------------------------------------------------
+	// Processing rows 0..n-1 by contiguous chunks on threads
+	// ----------------------------------------------------------
+	private interface RowProcessor {
+		public void process(int i);
+	}
 
-		}
+	private void runByChunks(int n, final RowProcessor processor){
 
-		// Normalization
-		predicted_value /= N;
+		int nthreads = Math.max(1, Math.min(threads, n/256));
 
-		return predicted_value;
+		ParallelChunks.forEach(n, nthreads, nthreads, new RangeTask(){
+			@Override
+			public void run(int from, int to){
+				for (int i=from; i<to; i++){processor.process(i);}
+			}
+		});
 
 	}
 
-
 	// ----------------------------------------------------------
-	// Computing out of bag from a training data set and its 
-	// associated UNCALLED table
+	// Computing out of bag error from a training data set and 
+	// the bagging samples of trees. Each data is predicted by the
+	// trees which have not been trained on it :
+	//   - Classification : error rate
+	//   - Regression : mean squared error
+	// Data drawn by all trees are not taken into account.
 	// ----------------------------------------------------------
-	private double estimateOOB(TrainingDataSet dataset, ArrayList<Hashtable<Integer, Integer>> UNCALLED){
+	private double estimateOOB(TrainingDataSet dataset, BitSet[] INBAG){
 
 		double oob_error = 0;
+		int count = 0;
+
+		int C = MATRIX.getClassesNumber();
 
 		// Running on observations
 		for (int j=0; j<dataset.getTrainingDataNumber(); j++){
 
-			RandomForest RF = new RandomForest(mode, 0);
+			double[] row = MATRIX.encode(dataset.getData(j).getInputData());
 
-			// Get input and output
-			InputData X = dataset.getData(j).getInputData();
-			OutputData Y = dataset.getData(j).getOutputData();
+			int[] VOTES = new int[C];
+			int predicted_class = -1;
+			int max = 0;
+			double predicted_value = 0;
+			int trees = 0;
 
 			// Running on trees
-			for (int i=0; i<FOREST.size(); i++){
+			for (int i=0; i<FLAT_FOREST.size(); i++){
+
+				if (INBAG[i].get(j)){continue;}
+
+				trees++;
 
+				if (mode == MODE_CLASSIFICATION){
 
-				// Get list of uncalled data
-				Hashtable<Integer, Integer> uncalled = UNCALLED.get(i);
+					int classe = FLAT_FOREST.get(i).classify(row);
 
-				if (uncalled.containsKey(j)){
+					VOTES[classe]++;
 
-					// Get estimated output
-					RF.FOREST.add(this.FOREST.get(i));
+					if (VOTES[classe] > max){
 
+						predicted_class = classe;
+						max = VOTES[classe];
+
+					}
 
 				}
+				else{
 
+					predicted_value += FLAT_FOREST.get(i).estimate(row);
+
+				}
 
 			}
 
-			// Number of trees
-			RF.N = RF.FOREST.size();
+			if (trees == 0){continue;}
 
-			// Estimated output
-			String classe = RF.classify(X);
+			count++;
 
 			// Add error
-			if (!classe.equals(Y.getCategoricalValue())){
+			if (mode == MODE_CLASSIFICATION){
+
+				if (predicted_class != MATRIX.getOutputClass(j)){oob_error += 1.0;}
+
+			}
+			else{
 
-				oob_error += 1.0;
+				oob_error += Math.pow(predicted_value/trees-MATRIX.getOutputValue(j), 2);
 
 			}
 
 		}
 
 		// Renormalization
-		oob_error /= dataset.getTrainingDataNumber();
+		if (count > 0){oob_error /= count;}
 
 		return oob_error;
 
@@ -0,0 +1,302 @@
+package fr.ign.cogit.geoxygene.contrib.randomforests;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+
+import fr.ign.cogit.geoxygene.api.feature.IFeature;
+
+// ===============================================================
+// CLASS FOR PRIMITIVE TRAINING MATRIX
+// ===============================================================
+// Column-major primitive copy of a training data set, used to grow
+// compact trees (see FlatTree) without going through InputData
+// hashtables during split search :
+//   - X[j][i] : value of variable j for data i. Categorical
+//     variables are encoded by their modality index (0..K-1)
+//   - Y : class index (classification) or value (regression)
+//   - SORTED[j] : indices of data sorted by increasing Xj, computed
+//     once for each ordered variable
+// The matrix also holds the encoding of variables and classes so
+// that unseen InputData or IFeature can be turned into a primitive
+// row for prediction. Data arrays can be released once trees have
+// been grown, the encoding being kept.
+// ===============================================================
+
+public class TrainingMatrix {
+
+	// ----------------------------------------------------------
+	// Attributes
+	// ----------------------------------------------------------
+	private int mode;
+	private int n;
+
+	// Variables encoding
+	private String[] VARIABLES;
+	private boolean[] CATEGORICAL;
+	private ArrayList<HashMap<String, Integer>> MODALITIES;
+	private ArrayList<String[]> MODALITIES_NAMES;
+
+	// Output classes encoding (classification)
+	private HashMap<String, Integer> CLASSES_INDEX;
+	private String[] CLASSES;
+
+	// Data
+	private double[][] X;
+	private int[] Y_CLASS;
+	private double[] Y_VALUE;
+	private int[][] SORTED;
+
+	// ----------------------------------------------------------
+	// Constructor from a training data set, a computation mode
+	// and the list of input variables
+	// ----------------------------------------------------------
+	public TrainingMatrix(TrainingDataSet dataset, int mode, List<String> variables){
+
+		this.mode = mode;
+		this.n = dataset.getTrainingDataNumber();
+
+		int p = variables.size();
+
+		VARIABLES = variables.toArray(new String[p]);
+		CATEGORICAL = new boolean[p];
+		MODALITIES = new ArrayList<HashMap<String, Integer>>();
+		MODALITIES_NAMES = new ArrayList<String[]>();
+
+		X = new double[p][n];
+
+		// Input variables
+		for (int j=0; j<p; j++){
+
+			HashMap<String, Integer> modalities = null;
+			ArrayList<String> names = null;
+
+			for (int i=0; i<n; i++){
+
+				InputData data = dataset.getData(i).getInputData();
+
+				if (data.isCategorical(VARIABLES[j])){
+
+					if (modalities == null){
+
+						modalities = new HashMap<String, Integer>();
+						names = new ArrayList<String>();
+						CATEGORICAL[j] = true;
+
+					}
+
+					String category = data.getCategoricalFeature(VARIABLES[j]);
+					Integer code = modalities.get(category);
+
+					if (code == null){
+
+						code = modalities.size();
+						modalities.put(category, code);
+						names.add(category);
+
+					}
+
+					X[j][i] = code;
+
+				}
+				else{
+
+					X[j][i] = data.getOrderedFeature(VARIABLES[j]);
+
+				}
+
+			}
+
+			MODALITIES.add(modalities);
+			MODALITIES_NAMES.add(names == null ? null : names.toArray(new String[names.size()]));
+
+		}
+
+		// Output variable
+		if (mode == RandomForest.MODE_CLASSIFICATION){
+
+			CLASSES_INDEX = new HashMap<String, Integer>();
+			ArrayList<String> names = new ArrayList<String>();
+			Y_CLASS = new int[n];
+
+			for (int i=0; i<n; i++){
+
+				String classe = dataset.getData(i).getOutputData().getCategoricalValue();
+				Integer code = CLASSES_INDEX.get(classe);
+
+				if (code == null){
+
+					code = CLASSES_INDEX.size();
+					CLASSES_INDEX.put(classe, code);
+					names.add(classe);
+
+				}
+
+				Y_CLASS[i] = code;
+
+			}
+
+			CLASSES = names.toArray(new String[names.size()]);
+
+		}
+		else{
+
+			Y_VALUE = new double[n];
+
+			for (int i=0; i<n; i++){
+
+				Y_VALUE[i] = dataset.getData(i).getOutputData().getOrderedValue();
+
+			}
+
+		}
+
+		// Presorting ordered variables
+		SORTED = new int[p][];
+
+		for (int j=0; j<p; j++){
+
+			if (CATEGORICAL[j]){continue;}
+
+			final double[] column = X[j];
+
+			Integer[] order = new Integer[n];
+			for (int i=0; i<n; i++){order[i] = i;}
+
+			Arrays.sort(order, new Comparator<Integer>(){
+				@Override
+				public int compare(Integer a, Integer b){
+					return Double.compare(column[a], column[b]);
+				}
+			});
+
+			SORTED[j] = new int[n];
+			for (int i=0; i<n; i++){SORTED[j][i] = order[i];}
+
+		}
+
+	}
+
+	// ----------------------------------------------------------
+	// Getters
+	// ----------------------------------------------------------
+	public int getMode(){return mode;}
+	public int getDataNumber(){return n;}
+	public int getVariablesNumber(){return VARIABLES.length;}
+	public String getVariable(int j){return VARIABLES[j];}
+	public boolean isCategorical(int j){return CATEGORICAL[j];}
+	public int getModalitiesNumber(int j){return CATEGORICAL[j] ? MODALITIES_NAMES.get(j).length : 0;}
+	public String getModality(int j, int code){return MODALITIES_NAMES.get(j)[code];}
+	public int getClassesNumber(){return CLASSES == null ? 0 : CLASSES.length;}
+	public String getClass(int c){return CLASSES[c];}
+
+	public double getValue(int j, int i){return X[j][i];}
+	public double[] getColumn(int j){return X[j];}
+	public int[] getSortedIndices(int j){return SORTED[j];}
+	public int getOutputClass(int i){return Y_CLASS[i];}
+	public double getOutputValue(int i){return Y_VALUE[i];}
+
+	// ----------------------------------------------------------
+	// Index of a class (-1 if unknown)
+	// ----------------------------------------------------------
+	public int getClassIndex(String classe){
+
+		Integer code = CLASSES_INDEX.get(classe);
+
+		return code == null ? -1 : code;
+
+	}
+
+	// ----------------------------------------------------------
+	// Code of a categorical modality (-1 if unknown)
+	// ----------------------------------------------------------
+	public int getModalityCode(int j, String category){
+
+		Integer code = MODALITIES.get(j).get(category);
+
+		return code == null ? -1 : code;
+
+	}
+
+	// ----------------------------------------------------------
+	// Encoding an input data as a primitive row
+	// ----------------------------------------------------------
+	public double[] encode(InputData data){
+
+		double[] row = new double[VARIABLES.length];
+
+		for (int j=0; j<VARIABLES.length; j++){
+
+			if (CATEGORICAL[j]){
+
+				row[j] = getModalityCode(j, data.getCategoricalFeature(VARIABLES[j]));
+
+			}
+			else{
+
+				row[j] = data.getOrderedFeature(VARIABLES[j]);
+
+			}
+
+		}
+
+		return row;
+
+	}
+
+	// ----------------------------------------------------------
+	// Encoding a feature as a primitive row, input variables
+	// being read from the feature attributes with same names.
+	// Missing ordered values are encoded as NaN, missing or
+	// unknown categories as -1.
+	// ----------------------------------------------------------
+	public double[] encode(IFeature feature){
+
+		double[] row = new double[VARIABLES.length];
+
+		for (int j=0; j<VARIABLES.length; j++){
+
+			Object value = feature.getAttribute(VARIABLES[j]);
+
+			if (CATEGORICAL[j]){
+
+				row[j] = value == null ? -1 : getModalityCode(j, value.toString());
+
+			}
+			else if (value instanceof Number){
+
+				row[j] = ((Number) value).doubleValue();
+
+			}
+			else if (value != null){
+
+				row[j] = Double.parseDouble(value.toString());
+
+			}
+			else{
+
+				row[j] = Double.NaN;
+
+			}
+
+		}
+
+		return row;
+
+	}
+
+	// ----------------------------------------------------------
+	// Releasing data arrays (encoding is kept for prediction)
+	// ----------------------------------------------------------
+	public void releaseData(){
+
+		X = null;
+		Y_CLASS = null;
+		Y_VALUE = null;
+		SORTED = null;
+
+	}
+
+}
@@ -0,0 +1,226 @@
+package fr.ign.cogit.geoxygene.contrib.algorithms;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import fr.ign.cogit.geoxygene.api.feature.IFeature;
+import fr.ign.cogit.geoxygene.api.feature.IFeatureCollection;
+import fr.ign.cogit.geoxygene.feature.DefaultFeature;
+import fr.ign.cogit.geoxygene.feature.FT_FeatureCollection;
+import fr.ign.cogit.geoxygene.spatial.coordgeom.DirectPosition;
+import fr.ign.cogit.geoxygene.spatial.coordgeom.GM_Envelope;
+import fr.ign.cogit.geoxygene.spatial.coordgeom.GM_Polygon;
+import fr.ign.cogit.geoxygene.spatial.geomprim.GM_Point;
+
+public class SpatialJoinTest {
+
+  private IFeatureCollection<IFeature> squares(int n, double size, Random random) {
+    IFeatureCollection<IFeature> features = new FT_FeatureCollection<IFeature>();
+    for (int i = 0; i < n; i++) {
+      double x = random.nextDouble() * 1000, y = random.nextDouble() * 1000;
+      double s = 1 + random.nextDouble() * size;
+      IFeature feature = new DefaultFeature(new GM_Polygon(new GM_Envelope(x,
+          x + s, y, y + s)));
+      feature.setId(i);
+      features.add(feature);
+    }
+    return features;
+  }
+
+  private IFeatureCollection<IFeature> points(int n, Random random) {
+    IFeatureCollection<IFeature> features = new FT_FeatureCollection<IFeature>();
+    for (int i = 0; i < n; i++) {
+      IFeature feature = new DefaultFeature(new GM_Point(new DirectPosition(
+          random.nextDouble() * 1000, random.nextDouble() * 1000)));
+      feature.setId(i);
+      features.add(feature);
+    }
+    return features;
+  }
+
+  private SpatialJoin.PairConsumer<IFeature, IFeature> collect(
+      final Set<String> pairs) {
+    return new SpatialJoin.PairConsumer<IFeature, IFeature>() {
+      @Override
+      public void accept(IFeature feature1, IFeature feature2) {
+        synchronized (pairs) {
+          Assert.assertTrue(pairs.add(feature1.getId() + "-"
+              + (feature2 == null ? "null" : feature2.getId())));
+        }
+      }
+    };
+  }
+
+  @Test
+  public void testInnerJoin() {
+    Random random = new Random(39);
+    IFeatureCollection<IFeature> squares1 = this.squares(600, 40, random);
+    IFeatureCollection<IFeature> squares2 = this.squares(500, 40, random);
+    IFeatureCollection<IFeature> points = this.points(800, random);
+    Set<String> intersects = new HashSet<String>();
+    Set<String> contains = new HashSet<String>();
+    for (IFeature f1 : squares1) {
+      for (IFeature f2 : squares2) {
+        if (f1.getGeom().intersects(f2.getGeom())) {
+          intersects.add(f1.getId() + "-" + f2.getId());
+        }
+      }
+      for (IFeature f2 : points) {
+        if (f1.getGeom().contains(f2.getGeom())) {
+          contains.add(f1.getId() + "-" + f2.getId());
+        }
+      }
+    }
+    Assert.assertFalse(intersects.isEmpty());
+    Assert.assertFalse(contains.isEmpty());
+    for (SpatialJoin.Strategy strategy : SpatialJoin.Strategy.values()) {
+      for (int nbThreads : new int[] { 1, 4 }) {
+        SpatialJoin<IFeature, IFeature> join = new SpatialJoin<IFeature, IFeature>(
+            squares1, squares2);
+        join.setStrategy(strategy);
+        join.setNbThreads(nbThreads);
+        Set<String> pairs = new HashSet<String>();
+        join.innerJoin(SpatialJoin.Predicate.INTERSECTS, this.collect(pairs));
+        Assert.assertEquals(intersects, pairs);
+
+        join = new SpatialJoin<IFeature, IFeature>(squares1, points);
+        join.setStrategy(strategy);
+        join.setNbThreads(nbThreads);
+        pairs = new HashSet<String>();
+        join.innerJoin(SpatialJoin.Predicate.CONTAINS, this.collect(pairs));
+        Assert.assertEquals(contains, pairs);
+
+        join = new SpatialJoin<IFeature, IFeature>(points, squares1);
+        join.setStrategy(strategy);
+        join.setNbThreads(nbThreads);
+        pairs = new HashSet<String>();
+        join.innerJoin(SpatialJoin.Predicate.WITHIN, this.collect(pairs));
+        Set<String> within = new HashSet<String>();
+        for (String pair : contains) {
+          String[] ids = pair.split("-");
+          within.add(ids[1] + "-" + ids[0]);
+        }
+        Assert.assertEquals(within, pairs);
+      }
+    }
+  }
+
+  @Test
+  public void testLeftJoin() {
+    Random random = new Random(40);
+    IFeatureCollection<IFeature> points = this.points(300, random);
+    IFeatureCollection<IFeature> squares = this.squares(100, 60, random);
+    Set<String> expected = new HashSet<String>();
+    for (IFeature f1 : points) {
+      boolean matched = false;
+      for (IFeature f2 : squares) {
+        if (f2.getGeom().contains(f1.getGeom())) {
+          expected.add(f1.getId() + "-" + f2.getId());
+          matched = true;
+        }
+      }
+      if (!matched) {
+        expected.add(f1.getId() + "-null");
+      }
+    }
+    for (SpatialJoin.Strategy strategy : new SpatialJoin.Strategy[] {
+        SpatialJoin.Strategy.INDEX_NESTED_LOOP,
+        SpatialJoin.Strategy.PLANE_SWEEP }) {
+      SpatialJoin<IFeature, IFeature> join = new SpatialJoin<IFeature, IFeature>(
+          points, squares);
+      join.setStrategy(strategy);
+      Set<String> pairs = new HashSet<String>();
+      join.leftJoin(SpatialJoin.Predicate.WITHIN, this.collect(pairs));
+      Assert.assertEquals(expected, pairs);
+    }
+  }
+
+  @Test
+  public void testDistanceJoin() {
+    Random random = new Random(41);
+    IFeatureCollection<IFeature> points = this.points(400, random);
+    IFeatureCollection<IFeature> squares = this.squares(300, 20, random);
+    Set<String> expected = new HashSet<String>();
+    for (IFeature f1 : points) {
+      for (IFeature f2 : squares) {
+        if (f1.getGeom().distance(f2.getGeom()) <= 25) {
+          expected.add(f1.getId() + "-" + f2.getId());
+        }
+      }
+    }
+    Assert.assertFalse(expected.isEmpty());
+    for (SpatialJoin.Strategy strategy : new SpatialJoin.Strategy[] {
+        SpatialJoin.Strategy.INDEX_NESTED_LOOP,
+        SpatialJoin.Strategy.PLANE_SWEEP }) {
+      SpatialJoin<IFeature, IFeature> join = new SpatialJoin<IFeature, IFeature>(
+          points, squares);
+      join.setStrategy(strategy);
+      Set<String> pairs = new HashSet<String>();
+      join.distanceJoin(25, this.collect(pairs));
+      Assert.assertEquals(expected, pairs);
+    }
+  }
+
+  @Test
+  public void testNearestJoin() {
+    Random random = new Random(42);
+    IFeatureCollection<IFeature> points1 = this.points(200, random);
+    final IFeatureCollection<IFeature> points2 = this.points(500, random);
+    SpatialJoin<IFeature, IFeature> join = new SpatialJoin<IFeature, IFeature>(
+        points1, points2);
+    final List<IFeature[]> pairs = Collections
+        .synchronizedList(new ArrayList<IFeature[]>());
+    join.nearestJoin(3, Double.POSITIVE_INFINITY,
+        new SpatialJoin.PairConsumer<IFeature, IFeature>() {
+          @Override
+          public void accept(IFeature feature1, IFeature feature2) {
+            pairs.add(new IFeature[] { feature1, feature2 });
+          }
+        });
+    Assert.assertEquals(3 * points1.size(), pairs.size());
+    for (IFeature f1 : points1) {
+      List<Double> distances = new ArrayList<Double>();
+      for (IFeature f2 : points2) {
+        distances.add(Double.valueOf(f1.getGeom().distance(f2.getGeom())));
+      }
+      Collections.sort(distances);
+      List<Double> found = new ArrayList<Double>();
+      for (IFeature[] pair : pairs) {
+        if (pair[0] == f1) {
+          found.add(Double.valueOf(f1.getGeom().distance(pair[1].getGeom())));
+        }
+      }
+      Collections.sort(found);
+      Assert.assertEquals(distances.subList(0, 3), found);
+    }
+
+    // with a maximal distance, some points have less than 3 neighbours
+    pairs.clear();
+    join.setNbThreads(1);
+    join.nearestJoin(3, 20, new SpatialJoin.PairConsumer<IFeature, IFeature>() {
+      @Override
+      public void accept(IFeature feature1, IFeature feature2) {
+        Assert.assertTrue(feature1.getGeom().distance(feature2.getGeom()) <= 20);
+        pairs.add(new IFeature[] { feature1, feature2 });
+      }
+    });
+    int expected = 0;
+    for (IFeature f1 : points1) {
+      int n = 0;
+      for (IFeature f2 : points2) {
+        if (f1.getGeom().distance(f2.getGeom()) <= 20) {
+          n++;
+        }
+      }
+      expected += Math.min(3, n);
+    }
+    Assert.assertEquals(expected, pairs.size());
+  }
+}
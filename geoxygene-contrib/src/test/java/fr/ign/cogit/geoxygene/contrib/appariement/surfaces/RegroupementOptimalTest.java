@@ -0,0 +1,455 @@
+package fr.ign.cogit.geoxygene.contrib.appariement.surfaces;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import fr.ign.cogit.geoxygene.api.feature.IFeature;
+import fr.ign.cogit.geoxygene.api.spatial.coordgeom.IPolygon;
+import fr.ign.cogit.geoxygene.api.spatial.geomaggr.IMultiSurface;
+import fr.ign.cogit.geoxygene.api.spatial.geomprim.IOrientableSurface;
+import fr.ign.cogit.geoxygene.api.spatial.geomroot.IGeometry;
+import fr.ign.cogit.geoxygene.contrib.cartetopo.Arc;
+import fr.ign.cogit.geoxygene.contrib.cartetopo.CarteTopo;
+import fr.ign.cogit.geoxygene.contrib.cartetopo.Groupe;
+import fr.ign.cogit.geoxygene.contrib.cartetopo.Noeud;
+import fr.ign.cogit.geoxygene.contrib.geometrie.Distances;
+import fr.ign.cogit.geoxygene.contrib.operateurs.Ensemble;
+import fr.ign.cogit.geoxygene.feature.DefaultFeature;
+import fr.ign.cogit.geoxygene.spatial.coordgeom.DirectPosition;
+import fr.ign.cogit.geoxygene.spatial.coordgeom.GM_LineString;
+import fr.ign.cogit.geoxygene.spatial.coordgeom.GM_Polygon;
+import fr.ign.cogit.geoxygene.spatial.geomaggr.GM_MultiSurface;
+import fr.ign.cogit.geoxygene.util.algo.JtsAlgorithms;
+
+public class RegroupementOptimalTest {
+
+  /**
+   * Groupe synthétique : deux découpages d'une même rue en parcelles de
+   * largeurs aléatoires, les parcelles de comparaison étant décalées et de
+   * profondeurs variables ; les arcs relient les parcelles qui s'intersectent.
+   */
+  private static class Groupe {
+    double[] aires;
+    boolean[] ref;
+    int[] arcIni, arcFin, enlevables, pairesRef, pairesComp;
+    double[] pairesInter;
+
+    RegroupementOptimal recherche(boolean minimiseDistanceSurfacique) {
+      return new RegroupementOptimal(this.aires, this.ref, this.arcIni, this.arcFin,
+          this.enlevables, this.pairesRef, this.pairesComp, this.pairesInter,
+          minimiseDistanceSurfacique);
+    }
+  }
+
+  private double[] decoupage(int n, Random random) {
+    double[] coupes = new double[n + 1];
+    for (int i = 1; i < n; i++) {
+      coupes[i] = random.nextDouble() * 100;
+    }
+    coupes[n] = 100;
+    Arrays.sort(coupes);
+    return coupes;
+  }
+
+  private Groupe groupe(int nbRef, int nbComp, int nbArcs, Random random) {
+    double[] coupesRef = this.decoupage(nbRef, random);
+    double[] coupesComp = this.decoupage(nbComp, random);
+    Groupe groupe = new Groupe();
+    int n = nbRef + nbComp;
+    groupe.aires = new double[n];
+    groupe.ref = new boolean[n];
+    for (int i = 0; i < nbRef; i++) {
+      groupe.aires[i] = 10 * (coupesRef[i + 1] - coupesRef[i]);
+      groupe.ref[i] = true;
+    }
+    double[] basComp = new double[nbComp];
+    double[] hautComp = new double[nbComp];
+    for (int j = 0; j < nbComp; j++) {
+      basComp[j] = random.nextDouble() * 4 - 2;
+      hautComp[j] = basComp[j] + 6 + random.nextDouble() * 8;
+      groupe.aires[nbRef + j] = (hautComp[j] - basComp[j]) * (coupesComp[j + 1] - coupesComp[j]);
+    }
+    List<int[]> paires = new ArrayList<int[]>();
+    List<Double> inters = new ArrayList<Double>();
+    for (int i = 0; i < nbRef; i++) {
+      for (int j = 0; j < nbComp; j++) {
+        double inter = Math.min(coupesRef[i + 1], coupesComp[j + 1])
+            - Math.max(coupesRef[i], coupesComp[j]);
+        if (inter > 0) {
+          paires.add(new int[] { i, nbRef + j });
+          inters.add(inter * (Math.min(10, hautComp[j]) - Math.max(0, basComp[j])));
+        }
+      }
+    }
+    groupe.pairesRef = new int[paires.size()];
+    groupe.pairesComp = new int[paires.size()];
+    groupe.pairesInter = new double[paires.size()];
+    for (int p = 0; p < paires.size(); p++) {
+      groupe.pairesRef[p] = paires.get(p)[0];
+      groupe.pairesComp[p] = paires.get(p)[1];
+      groupe.pairesInter[p] = inters.get(p);
+    }
+    // les arcs sont les couples qui s'intersectent, dans un ordre quelconque
+    List<Integer> ordre = new ArrayList<Integer>();
+    for (int p = 0; p < paires.size(); p++) {
+      ordre.add(p);
+    }
+    Collections.shuffle(ordre, random);
+    int m = Math.min(nbArcs, paires.size());
+    groupe.arcIni = new int[m];
+    groupe.arcFin = new int[m];
+    List<Integer> enlevables = new ArrayList<Integer>();
+    for (int a = 0; a < m; a++) {
+      int p = ordre.get(a);
+      groupe.arcIni[a] = groupe.pairesRef[p];
+      groupe.arcFin[a] = groupe.pairesComp[p];
+      double recouvrement = Math.max(groupe.pairesInter[p] / groupe.aires[groupe.arcIni[a]],
+          groupe.pairesInter[p] / groupe.aires[groupe.arcFin[a]]);
+      if (recouvrement <= 0.8) {
+        enlevables.add(a);
+      }
+    }
+    groupe.enlevables = new int[enlevables.size()];
+    for (int k = 0; k < enlevables.size(); k++) {
+      groupe.enlevables[k] = enlevables.get(k);
+    }
+    return groupe;
+  }
+
+  /**
+   * Mesure de la meilleure partie connexe du groupe privé des arcs enlevés,
+   * comme la calculait l'énumération exhaustive des combinaisons.
+   */
+  private double mesure(Groupe groupe, List<Integer> enleves, boolean minimiseDistanceSurfacique) {
+    int n = groupe.aires.length;
+    boolean[] garde = new boolean[groupe.arcIni.length];
+    Arrays.fill(garde, true);
+    for (int position : enleves) {
+      garde[groupe.enlevables[position]] = false;
+    }
+    int[] composantes = new int[n];
+    Arrays.fill(composantes, -1);
+    int nbComposantes = 0;
+    for (int a = 0; a < garde.length; a++) {
+      if (!garde[a] || composantes[groupe.arcIni[a]] >= 0) {
+        continue;
+      }
+      // parcours en largeur depuis le noeud initial de l'arc
+      List<Integer> file = new ArrayList<Integer>();
+      file.add(groupe.arcIni[a]);
+      composantes[groupe.arcIni[a]] = nbComposantes;
+      for (int k = 0; k < file.size(); k++) {
+        int noeud = file.get(k);
+        for (int b = 0; b < garde.length; b++) {
+          if (!garde[b]) {
+            continue;
+          }
+          int autre = groupe.arcIni[b] == noeud ? groupe.arcFin[b]
+              : groupe.arcFin[b] == noeud ? groupe.arcIni[b] : -1;
+          if (autre >= 0 && composantes[autre] < 0) {
+            composantes[autre] = nbComposantes;
+            file.add(autre);
+          }
+        }
+      }
+      nbComposantes++;
+    }
+    if (nbComposantes == 0) {
+      return Double.NaN;
+    }
+    double[] inter = new double[nbComposantes];
+    double[] aireRef = new double[nbComposantes];
+    double[] aireComp = new double[nbComposantes];
+    for (int i = 0; i < n; i++) {
+      if (composantes[i] >= 0) {
+        if (groupe.ref[i]) {
+          aireRef[composantes[i]] += groupe.aires[i];
+        } else {
+          aireComp[composantes[i]] += groupe.aires[i];
+        }
+      }
+    }
+    for (int p = 0; p < groupe.pairesInter.length; p++) {
+      int c = composantes[groupe.pairesRef[p]];
+      if (c >= 0 && c == composantes[groupe.pairesComp[p]]) {
+        inter[c] += groupe.pairesInter[p];
+      }
+    }
+    double mesure = minimiseDistanceSurfacique ? 2 : -1;
+    for (int c = 0; c < nbComposantes; c++) {
+      if (minimiseDistanceSurfacique) {
+        mesure = Math.min(mesure, 1 - inter[c] / (aireRef[c] + aireComp[c] - inter[c]));
+      } else {
+        mesure = Math.max(mesure, inter[c] / aireRef[c] + inter[c] / aireComp[c]);
+      }
+    }
+    return mesure;
+  }
+
+  /**
+   * Enumération exhaustive de toutes les combinaisons d'arcs enlevés.
+   */
+  private int[] exhaustive(Groupe groupe, boolean minimiseDistanceSurfacique) {
+    List<Integer> positions = new ArrayList<Integer>();
+    for (int k = 0; k < groupe.enlevables.length; k++) {
+      positions.add(k);
+    }
+    double meilleure = minimiseDistanceSurfacique ? 2 : 0;
+    List<Integer> meilleurEnleves = new ArrayList<Integer>();
+    for (List<Integer> enleves : Ensemble.combinaisons(positions)) {
+      double mesure = this.mesure(groupe, enleves, minimiseDistanceSurfacique);
+      if (Double.isNaN(mesure)) {
+        continue;
+      }
+      if (minimiseDistanceSurfacique ? mesure < meilleure : mesure > meilleure) {
+        meilleure = mesure;
+        meilleurEnleves = enleves;
+      }
+    }
+    int[] resultat = new int[meilleurEnleves.size()];
+    for (int k = 0; k < resultat.length; k++) {
+      resultat[k] = meilleurEnleves.get(k);
+    }
+    return resultat;
+  }
+
+  @Test
+  public void testMemesRegroupements() {
+    Random random = new Random(41);
+    for (int essai = 0; essai < 60; essai++) {
+      Groupe groupe = this.groupe(2 + random.nextInt(5), 2 + random.nextInt(6),
+          4 + random.nextInt(9), random);
+      for (boolean minimiseDistanceSurfacique : new boolean[] { true, false }) {
+        int[] attendu = this.exhaustive(groupe, minimiseDistanceSurfacique);
+        RegroupementOptimal recherche = groupe.recherche(minimiseDistanceSurfacique);
+        int[] trouve = recherche.recherche();
+        Assert.assertArrayEquals(attendu, trouve);
+        Assert.assertEquals(this.mesure(groupe, this.liste(attendu), minimiseDistanceSurfacique),
+            this.mesure(groupe, this.liste(trouve), minimiseDistanceSurfacique), 0);
+        Assert.assertTrue(recherche.getNbEvaluations() <= 1 << groupe.enlevables.length);
+      }
+    }
+  }
+
+  private List<Integer> liste(int[] positions) {
+    List<Integer> liste = new ArrayList<Integer>();
+    for (int position : positions) {
+      liste.add(position);
+    }
+    return liste;
+  }
+
+  @Test
+  public void testAcceleration() {
+    Random random = new Random(42);
+    for (int essai = 0; essai < 5; essai++) {
+      Groupe groupe = this.groupe(10, 11, 20, random);
+      groupe.enlevables = new int[groupe.arcIni.length];
+      for (int a = 0; a < groupe.arcIni.length; a++) {
+        groupe.enlevables[a] = a;
+      }
+      Assert.assertEquals(20, groupe.enlevables.length);
+      RegroupementOptimal recherche = groupe.recherche(true);
+      int[] enleves = recherche.recherche();
+      // l'énumération exhaustive évaluait 2^20 - 1 combinaisons, en
+      // recalculant unions et intersections pour chacune
+      Assert.assertTrue(recherche.getNbEvaluations() + " évaluations",
+          recherche.getNbEvaluations() * 1000 < 1 << 20);
+      // la combinaison trouvée est optimale
+      double mesure = this.mesure(groupe, this.liste(enleves), true);
+      for (int k = 0; k < 20000; k++) {
+        List<Integer> combinaison = new ArrayList<Integer>();
+        for (int position = 0; position < 20; position++) {
+          if (random.nextBoolean()) {
+            combinaison.add(position);
+          }
+        }
+        double autre = this.mesure(groupe, combinaison, true);
+        Assert.assertTrue(Double.isNaN(autre) || autre >= mesure - RegroupementOptimal.EPSILON);
+      }
+    }
+  }
+
+  /**
+   * Abscisse en y de la droite qui passe par (xBas, yBas) et (xHaut, yHaut).
+   */
+  private static double abscisse(double xBas, double xHaut, double yBas, double yHaut, double y) {
+    return xBas + (xHaut - xBas) * (y - yBas) / (yHaut - yBas);
+  }
+
+  private static IPolygon quadrilatere(double xBas1, double xBas2, double xHaut2, double xHaut1,
+      double yBas, double yHaut) {
+    return new GM_Polygon(new GM_LineString(new DirectPosition(xBas1, yBas),
+        new DirectPosition(xBas2, yBas), new DirectPosition(xHaut2, yHaut),
+        new DirectPosition(xHaut1, yHaut), new DirectPosition(xBas1, yBas)));
+  }
+
+  /**
+   * Parcelles de part et d'autre de coupes obliques d'une même rue, comme dans
+   * {@link #groupe(int, int, int, Random)} : les parcelles de référence vont de
+   * y = 0 à y = 10, celles de comparaison ont des profondeurs variables.
+   */
+  private List<IFeature> parcelles(int n, boolean ref, Random random) {
+    double yBas = ref ? 0 : -2, yHaut = ref ? 10 : 16;
+    double[] coupesBas = this.decoupage(n, random);
+    double[] coupesHaut = this.decoupage(n, random);
+    List<IFeature> parcelles = new ArrayList<IFeature>();
+    for (int i = 0; i < n; i++) {
+      double bas = yBas, haut = yHaut;
+      if (!ref) {
+        bas = random.nextDouble() * 4 - 2;
+        haut = bas + 6 + random.nextDouble() * 8;
+      }
+      parcelles.add(new DefaultFeature(RegroupementOptimalTest.quadrilatere(
+          abscisse(coupesBas[i], coupesHaut[i], yBas, yHaut, bas),
+          abscisse(coupesBas[i + 1], coupesHaut[i + 1], yBas, yHaut, bas),
+          abscisse(coupesBas[i + 1], coupesHaut[i + 1], yBas, yHaut, haut),
+          abscisse(coupesBas[i], coupesHaut[i], yBas, yHaut, haut), bas, haut)));
+    }
+    return parcelles;
+  }
+
+  /**
+   * Mesure d'un groupe par union des géométries de chaque partie connexe,
+   * comme la calculait AppariementSurfaces avant {@link RegroupementOptimal}.
+   */
+  @SuppressWarnings("unchecked")
+  private static double mesureEvaluationGroupe(Groupe groupe, Set<IFeature> popRef,
+      boolean minimiseDistanceSurfacique) {
+    double result = minimiseDistanceSurfacique ? 2 : -1;
+    for (Groupe groupeConnexe : groupe.decomposeConnexes(false)) {
+      if (groupeConnexe.getListeArcs().isEmpty()) {
+        continue;
+      }
+      List<IOrientableSurface> listRef = new ArrayList<IOrientableSurface>();
+      List<IOrientableSurface> listComp = new ArrayList<IOrientableSurface>();
+      for (Noeud noeud : groupeConnexe.getListeNoeuds()) {
+        IFeature feat = noeud.getCorrespondant(0);
+        if (popRef.contains(feat)) {
+          listRef.add((IOrientableSurface) feat.getGeom());
+        } else {
+          listComp.add((IOrientableSurface) feat.getGeom());
+        }
+      }
+      IMultiSurface<IOrientableSurface> geomRef = new GM_MultiSurface<IOrientableSurface>();
+      IMultiSurface<IOrientableSurface> geomComp = new GM_MultiSurface<IOrientableSurface>();
+      IGeometry unionRef = JtsAlgorithms.union(listRef);
+      IGeometry unionComp = JtsAlgorithms.union(listComp);
+      if (unionRef instanceof IMultiSurface<?>) {
+        geomRef = (IMultiSurface<IOrientableSurface>) unionRef;
+      } else {
+        geomRef.add((IOrientableSurface) unionRef);
+      }
+      if (unionComp instanceof IMultiSurface<?>) {
+        geomComp = (IMultiSurface<IOrientableSurface>) unionComp;
+      } else {
+        geomComp.add((IOrientableSurface) unionComp);
+      }
+      if (minimiseDistanceSurfacique) {
+        result = Math.min(result, Distances.distanceSurfaciqueRobuste(geomRef, geomComp));
+      } else {
+        result = Math.max(result, Distances.exactitude(geomRef, geomComp)
+            + Distances.completude(geomRef, geomComp));
+      }
+    }
+    return result;
+  }
+
+  /** Mesure par union des géométries du groupe privé des arcs enlevés. */
+  private static double mesureSansArcs(Groupe groupe, List<Arc> enleves, Set<IFeature> popRef,
+      boolean minimiseDistanceSurfacique) {
+    Groupe groupeLight = groupe.copie(false);
+    groupeLight.getListeArcs().removeAll(enleves);
+    if (groupeLight.getListeArcs().isEmpty()) {
+      return Double.NaN;
+    }
+    return RegroupementOptimalTest.mesureEvaluationGroupe(groupeLight, popRef,
+        minimiseDistanceSurfacique);
+  }
+
+  @Test
+  public void testMemesMesuresQueLesUnions() {
+    Random random = new Random(43);
+    int nbGroupes = 0;
+    for (int essai = 0; essai < 12; essai++) {
+      List<IFeature> parcellesRef = this.parcelles(2 + random.nextInt(4), true, random);
+      List<IFeature> parcellesComp = this.parcelles(2 + random.nextInt(5), false, random);
+      Set<IFeature> popRef = new HashSet<IFeature>(parcellesRef);
+      CarteTopo carte = new CarteTopo("Carte de liens"); //$NON-NLS-1$
+      List<Noeud> noeudsRef = new ArrayList<Noeud>();
+      List<Noeud> noeudsComp = new ArrayList<Noeud>();
+      for (IFeature parcelle : parcellesRef) {
+        Noeud noeud = carte.getPopNoeuds().nouvelElement();
+        noeud.addCorrespondant(parcelle);
+        noeudsRef.add(noeud);
+      }
+      for (IFeature parcelle : parcellesComp) {
+        Noeud noeud = carte.getPopNoeuds().nouvelElement();
+        noeud.addCorrespondant(parcelle);
+        noeudsComp.add(noeud);
+      }
+      // les arcs relient les parcelles qui s'intersectent ; les arcs de fort
+      // recouvrement ne peuvent pas être enlevés
+      List<Arc> arcsEnlevables = new ArrayList<Arc>();
+      for (Noeud noeudRef : noeudsRef) {
+        for (Noeud noeudComp : noeudsComp) {
+          IGeometry geomRef = noeudRef.getCorrespondant(0).getGeom();
+          IGeometry geomComp = noeudComp.getCorrespondant(0).getGeom();
+          IGeometry inter = geomRef.intersection(geomComp);
+          if (inter == null || inter.area() < 1e-6) {
+            continue;
+          }
+          Arc arc = carte.getPopArcs().nouvelElement();
+          arc.setNoeudIni(noeudRef);
+          arc.setNoeudFin(noeudComp);
+          if (Math.max(inter.area() / geomRef.area(), inter.area() / geomComp.area()) <= 0.8
+              && arcsEnlevables.size() < 8) {
+            arcsEnlevables.add(arc);
+          }
+        }
+      }
+      Groupe groupeTotal = carte.getPopGroupes().nouvelElement();
+      groupeTotal.setListeArcs(new ArrayList<Arc>(carte.getListeArcs()));
+      groupeTotal.setListeNoeuds(new ArrayList<Noeud>(carte.getListeNoeuds()));
+      for (Groupe groupe : groupeTotal.decomposeConnexes(false)) {
+        List<Arc> enlevables = new ArrayList<Arc>(arcsEnlevables);
+        enlevables.retainAll(groupe.getListeArcs());
+        if (groupe.getListeArcs().size() < 2 || enlevables.isEmpty()) {
+          continue;
+        }
+        nbGroupes++;
+        for (boolean minimiseDistanceSurfacique : new boolean[] { true, false }) {
+          // énumération exhaustive, mesurée par union des géométries
+          double meilleure = minimiseDistanceSurfacique ? 2 : 0;
+          for (List<Arc> enleves : Ensemble.combinaisons(enlevables)) {
+            double mesure = RegroupementOptimalTest.mesureSansArcs(groupe, enleves, popRef,
+                minimiseDistanceSurfacique);
+            if (!Double.isNaN(mesure)
+                && (minimiseDistanceSurfacique ? mesure < meilleure : mesure > meilleure)) {
+              meilleure = mesure;
+            }
+          }
+          ParametresAppSurfaces param = new ParametresAppSurfaces();
+          param.minimiseDistanceSurfacique = minimiseDistanceSurfacique;
+          int nbArcs = groupe.getListeArcs().size();
+          List<Arc> enleves = RegroupementOptimal.cree(groupe, enlevables, param).arcsAEnlever(
+              enlevables);
+          // le groupe n'est pas modifié par la recherche
+          Assert.assertEquals(nbArcs, groupe.getListeArcs().size());
+          Assert.assertTrue(enlevables.containsAll(enleves));
+          Assert.assertEquals(meilleure, RegroupementOptimalTest.mesureSansArcs(groupe, enleves,
+              popRef, minimiseDistanceSurfacique), 1e-9);
+        }
+      }
+    }
+    Assert.assertTrue(nbGroupes > 5);
+  }
+}
@@ -0,0 +1,113 @@
+package fr.ign.cogit.geoxygene.contrib.conflation;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+import org.junit.Assert;
+import org.junit.Test;
+
+import fr.ign.cogit.geoxygene.api.feature.IFeature;
+import fr.ign.cogit.geoxygene.api.spatial.coordgeom.IDirectPositionList;
+import fr.ign.cogit.geoxygene.api.spatial.geomroot.IGeometry;
+import fr.ign.cogit.geoxygene.feature.DefaultFeature;
+import fr.ign.cogit.geoxygene.feature.FT_FeatureCollection;
+import fr.ign.cogit.geoxygene.spatial.coordgeom.DirectPosition;
+import fr.ign.cogit.geoxygene.spatial.coordgeom.DirectPositionList;
+import fr.ign.cogit.geoxygene.spatial.coordgeom.GM_LineString;
+import fr.ign.cogit.geoxygene.util.algo.geomstructure.Vector2D;
+
+public class RubberSheetingConflationTest {
+
+  private static Logger logger = Logger
+      .getLogger(RubberSheetingConflationTest.class);
+
+  /**
+   * Random vectors, or vectors following a slowly varying field if smooth.
+   */
+  private Set<ConflationVector> vectors(int nb, Random random, boolean smooth) {
+    Set<ConflationVector> vectors = new HashSet<ConflationVector>();
+    for (int i = 0; i < nb; i++) {
+      double x = random.nextDouble() * 5000, y = random.nextDouble() * 5000;
+      Vector2D vect = smooth ? new Vector2D(5 + x / 1000, -3 + y / 1000)
+          : new Vector2D(5 + random.nextGaussian(), -3 + random.nextGaussian());
+      vectors.add(new ConflationVector(new DirectPosition(x, y), vect));
+    }
+    return vectors;
+  }
+
+  private FT_FeatureCollection<IFeature> roads(int nb, Random random) {
+    FT_FeatureCollection<IFeature> roads = new FT_FeatureCollection<IFeature>();
+    for (int i = 0; i < nb; i++) {
+      IDirectPositionList points = new DirectPositionList();
+      double x = random.nextDouble() * 5000, y = random.nextDouble() * 5000;
+      for (int j = 0; j < 20; j++) {
+        points.add(new DirectPosition(x, y));
+        x += random.nextGaussian() * 10;
+        y += random.nextGaussian() * 10;
+      }
+      roads.add(new DefaultFeature(new GM_LineString(points)));
+    }
+    return roads;
+  }
+
+  private double maxDistance(Map<IFeature, IGeometry> geoms1,
+      Map<IFeature, IGeometry> geoms2) {
+    double max = 0.0;
+    for (IFeature feat : geoms1.keySet()) {
+      IDirectPositionList pts1 = geoms1.get(feat).coord();
+      IDirectPositionList pts2 = geoms2.get(feat).coord();
+      Assert.assertEquals(pts1.size(), pts2.size());
+      for (int i = 0; i < pts1.size(); i++)
+        max = Math.max(max, pts1.get(i).distance2D(pts2.get(i)));
+    }
+    return max;
+  }
+
+  @Test
+  public void testIndexedConflation() {
+    Random random = new Random(12);
+    Set<ConflationVector> vectors = this.vectors(2000, random, false);
+    FT_FeatureCollection<IFeature> roads = this.roads(500, random);
+
+    long start = System.currentTimeMillis();
+    RubberSheetingConflation exhaustive = new RubberSheetingConflation(roads,
+        vectors);
+    exhaustive.conflation();
+    long middle = System.currentTimeMillis();
+    RubberSheetingConflation indexed = new RubberSheetingConflation(roads,
+        vectors);
+    indexed.setSpatialIndex(true);
+    indexed.setThreadsNumber(4);
+    indexed.conflation();
+    long end = System.currentTimeMillis();
+    logger.info("10000 vertices, 2000 vectors : " + (middle - start)
+        + " ms (exhaustive), " + (end - middle) + " ms (indexed)");
+
+    Assert.assertEquals(roads.size(), indexed.getConflatedGeoms().size());
+    Assert.assertEquals(0.0, this.maxDistance(exhaustive.getConflatedGeoms(),
+        indexed.getConflatedGeoms()), 1e-9);
+  }
+
+  @Test
+  public void testGridConflation() {
+    Random random = new Random(13);
+    Set<ConflationVector> vectors = this.vectors(2000, random, true);
+    FT_FeatureCollection<IFeature> roads = this.roads(500, random);
+
+    RubberSheetingConflation exhaustive = new RubberSheetingConflation(roads,
+        vectors);
+    exhaustive.conflation();
+    RubberSheetingConflation grid = new RubberSheetingConflation(roads,
+        vectors);
+    grid.setGridStep(5.0);
+    grid.setThreadsNumber(4);
+    grid.conflation();
+
+    // the vector field varies slowly at the scale of the grid step
+    Assert.assertTrue(this.maxDistance(exhaustive.getConflatedGeoms(),
+        grid.getConflatedGeoms()) < 0.5);
+  }
+}
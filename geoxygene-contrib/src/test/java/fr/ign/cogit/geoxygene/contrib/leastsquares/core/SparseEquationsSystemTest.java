@@ -0,0 +1,318 @@
+package fr.ign.cogit.geoxygene.contrib.leastsquares.core;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Vector;
+
+import org.apache.log4j.Logger;
+import org.junit.Assert;
+import org.junit.Test;
+
+import fr.ign.cogit.geoxygene.api.feature.IFeature;
+import fr.ign.cogit.geoxygene.api.spatial.coordgeom.IDirectPositionList;
+import fr.ign.cogit.geoxygene.contrib.leastsquares.core.LSScheduler.GeometryType;
+import fr.ign.cogit.geoxygene.contrib.leastsquares.core.LSScheduler.MatrixSolver;
+import fr.ign.cogit.geoxygene.feature.DefaultFeature;
+import fr.ign.cogit.geoxygene.spatial.coordgeom.DirectPosition;
+import fr.ign.cogit.geoxygene.spatial.coordgeom.DirectPositionList;
+import fr.ign.cogit.geoxygene.spatial.coordgeom.GM_LineString;
+import fr.ign.cogit.geoxygene.spatial.coordgeom.GM_Polygon;
+
+/**
+ * Compare l'ajustement creux de {@link SparseEquationsSystem} à l'ajustement
+ * dense Jama sur un scénario de déplacement de route : une polyligne dont
+ * chaque sommet est contraint à ne pas bouger, dont les segments sont rigides
+ * et dont quelques sommets sont repoussés par des conflits de proximité.
+ * Le même ajustement est ensuite déclenché par {@link LSScheduler} sur un
+ * scénario de déplacement de bâtiments.
+ */
+public class SparseEquationsSystemTest {
+
+  private static Logger logger = Logger
+      .getLogger(SparseEquationsSystemTest.class);
+
+  /**
+   * Contrainte de rigidité entre deux sommets consécutifs.
+   */
+  static class StiffnessTestConstraint extends LSConstraint {
+  }
+
+  /**
+   * Contrainte de conflit qui repousse un sommet.
+   */
+  static class ConflictTestConstraint extends LSConstraint {
+  }
+
+  /** Emprise de la route y = 0 : les sommets plus proches sont repoussés. */
+  static final double ROAD_CLEARANCE = 20.0;
+
+  /**
+   * Contrainte qui repousse vers le nord les sommets de bâtiment qui
+   * chevauchent l'emprise de la route y = 0.
+   */
+  public static class RoadDisplacementConstraint extends LSInternalConstraint {
+
+    public static Boolean appliesTo(LSPoint point) {
+      return !point.isFixed() && point.getIniPt().getY() < ROAD_CLEARANCE;
+    }
+
+    public RoadDisplacementConstraint(LSPoint pt, LSScheduler scheduler) {
+      super(pt, scheduler);
+    }
+
+    @Override
+    public EquationsSystem calculeSystemeEquations(IFeature obj, LSPoint point) {
+      EquationsSystem systeme = this.sched.initSystemeLocal();
+      systeme.setUnknowns(new Vector<LSPoint>());
+      systeme.getUnknowns().addElement(point);
+      systeme.setConstraints(new Vector<LSConstraint>());
+      systeme.getConstraints().add(this);
+      // Delta(y) = emprise - y
+      systeme.initObservations(1);
+      systeme.setObs(0, ROAD_CLEARANCE - point.getIniPt().getY());
+      systeme.initMatriceA(1, 2);
+      systeme.setA(0, 1, 1.0);
+      systeme.setNonNullValues(1);
+      return systeme;
+    }
+  }
+
+  private Map<String, Double> poids() {
+    Map<String, Double> poids = new HashMap<String, Double>();
+    poids.put(LSMovementConstraint.class.getName(), 1.0);
+    poids.put(StiffnessTestConstraint.class.getName(), 10.0);
+    poids.put(ConflictTestConstraint.class.getName(), 20.0);
+    return poids;
+  }
+
+  private List<LSPoint> road(LSScheduler sched, int nb) {
+    IFeature road = new DefaultFeature();
+    List<LSPoint> points = new ArrayList<LSPoint>();
+    for (int i = 0; i < nb; i++) {
+      points.add(new LSPoint(road, new DirectPosition(10.0 * i, 0.0), i,
+          GeometryType.LINE, i == 0 || i == nb - 1, false, 1.0, sched));
+    }
+    return points;
+  }
+
+  private EquationsSystem link(LSScheduler sched, LSPoint p1, LSPoint p2) {
+    EquationsSystem systeme = sched.initSystemeLocal();
+    Vector<LSPoint> inconnues = new Vector<LSPoint>();
+    inconnues.add(p1);
+    inconnues.add(p1);
+    inconnues.add(p2);
+    inconnues.add(p2);
+    systeme.setUnknowns(inconnues);
+    StiffnessTestConstraint contrainte = new StiffnessTestConstraint();
+    systeme.getConstraints().add(contrainte);
+    systeme.getConstraints().add(contrainte);
+    systeme.initObservations(2);
+    systeme.initMatriceA(2, 4);
+    systeme.setA(0, 0, -1.0);
+    systeme.setA(0, 2, 1.0);
+    systeme.setA(1, 1, -1.0);
+    systeme.setA(1, 3, 1.0);
+    systeme.setNonNullValues(4);
+    return systeme;
+  }
+
+  private EquationsSystem conflict(LSScheduler sched, LSPoint p, double dy) {
+    EquationsSystem systeme = sched.initSystemeLocal();
+    Vector<LSPoint> inconnues = new Vector<LSPoint>();
+    inconnues.add(p);
+    inconnues.add(p);
+    systeme.setUnknowns(inconnues);
+    systeme.getConstraints().add(new ConflictTestConstraint());
+    systeme.initObservations(1);
+    systeme.initMatriceA(1, 2);
+    systeme.setA(0, 1, 1.0);
+    systeme.setObs(0, dy);
+    systeme.setNonNullValues(1);
+    return systeme;
+  }
+
+  private EquationsSystem buildSystem(LSScheduler sched, List<LSPoint> points) {
+    List<EquationsSystem> locaux = new ArrayList<EquationsSystem>();
+    for (int i = 0; i < points.size(); i++) {
+      LSPoint point = points.get(i);
+      locaux.add(new LSMovementConstraint(point, sched)
+          .calculeSystemeEquations(null, point));
+      if (i > 0) {
+        locaux.add(this.link(sched, points.get(i - 1), point));
+      }
+      if (i % 7 == 3) {
+        locaux.add(this.conflict(sched, point, 5.0));
+      }
+    }
+    EquationsSystem global = locaux.get(0).copy();
+    for (int i = 1; i < locaux.size(); i++) {
+      if (global instanceof SparseEquationsSystem) {
+        ((SparseEquationsSystem) global).append(locaux.get(i));
+      } else {
+        global = global.assemble(locaux.get(i));
+      }
+    }
+    return global;
+  }
+
+  /**
+   * Deux rangées de bâtiments carrés de 12 m le long de la route y = 0 : la
+   * première chevauche l'emprise de la route, la seconde est loin.
+   */
+  private static List<IFeature> buildings(int nb) {
+    List<IFeature> buildings = new ArrayList<IFeature>();
+    for (int i = 0; i < nb; i++) {
+      double x = 25.0 * i;
+      buildings.add(square(x, 10.0));
+      buildings.add(square(x, 100.0));
+    }
+    return buildings;
+  }
+
+  private static IFeature square(double x, double y) {
+    IDirectPositionList points = new DirectPositionList();
+    points.add(new DirectPosition(x, y));
+    points.add(new DirectPosition(x + 12.0, y));
+    points.add(new DirectPosition(x + 12.0, y + 12.0));
+    points.add(new DirectPosition(x, y + 12.0));
+    points.add(new DirectPosition(x, y));
+    return new DefaultFeature(new GM_Polygon(new GM_LineString(points)));
+  }
+
+  private static MapspecsLS buildingMapspecs(List<IFeature> buildings) {
+    Set<String> rigidConstraints = new HashSet<String>();
+    rigidConstraints.add(LSMovementConstraint.class.getName());
+    rigidConstraints.add(LSStiffnessConstraint.class.getName());
+    rigidConstraints.add(RoadDisplacementConstraint.class.getName());
+    Map<String, Double> poids = new HashMap<String, Double>();
+    poids.put(LSMovementConstraint.class.getName(), 1.0);
+    poids.put(LSStiffnessConstraint.class.getName(), 15.0);
+    poids.put(RoadDisplacementConstraint.class.getName(), 5.0);
+    Set<String> rigidClasses = new HashSet<String>();
+    rigidClasses.add(DefaultFeature.class.getName());
+    return new MapspecsLS(25000.0, new ArrayList<IFeature>(buildings),
+        new HashSet<String>(), rigidConstraints, new HashSet<String>(),
+        new HashMap<String[], Double>(), new HashSet<String>(), rigidClasses,
+        new HashSet<String>(), poids);
+  }
+
+  @Test
+  public void testBuildingDisplacement() {
+    List<IFeature> buildings = buildings(60);
+    MapspecsLS ms = buildingMapspecs(buildings);
+
+    LSScheduler jamaSched = new LSScheduler(ms);
+    jamaSched.setSolver(MatrixSolver.JAMA);
+    long start = System.currentTimeMillis();
+    jamaSched.triggerAdjustment(false, false);
+    long jamaTime = System.currentTimeMillis() - start;
+
+    LSScheduler sparseSched = new LSScheduler(ms);
+    sparseSched.setSolver(MatrixSolver.SPARSE);
+    start = System.currentTimeMillis();
+    sparseSched.triggerAdjustment(false, false);
+    long sparseTime = System.currentTimeMillis() - start;
+    logger.info(buildings.size() + " bâtiments : Jama " + jamaTime
+        + " ms, creux " + sparseTime + " ms");
+
+    Assert.assertTrue(sparseSched.getSystemeGlobal() instanceof SparseEquationsSystem);
+    Assert.assertFalse(jamaSched.getSystemeGlobal() instanceof SparseEquationsSystem);
+    Assert.assertEquals(jamaSched.getSystemeGlobal().getRowNumber(),
+        sparseSched.getSystemeGlobal().getRowNumber());
+
+    // l'assemblage seul, sur les mêmes points
+    start = System.currentTimeMillis();
+    jamaSched.assembleSystemesEquation();
+    jamaTime = System.currentTimeMillis() - start;
+    start = System.currentTimeMillis();
+    sparseSched.assembleSystemesEquation();
+    sparseTime = System.currentTimeMillis() - start;
+    logger.info("assemblage : Jama " + jamaTime + " ms, creux " + sparseTime
+        + " ms");
+
+    for (IFeature building : buildings) {
+      IDirectPositionList initial = building.getGeom().coord();
+      IDirectPositionList expected = jamaSched.getMapObjGeom().get(building)
+          .coord();
+      IDirectPositionList actual = sparseSched.getMapObjGeom().get(building)
+          .coord();
+      Assert.assertEquals(expected.size(), actual.size());
+      Assert.assertEquals(initial.size(), actual.size());
+      boolean nearRoad = initial.get(0).getY() < ROAD_CLEARANCE;
+      for (int i = 0; i < expected.size(); i++) {
+        Assert.assertEquals(expected.get(i).getX(), actual.get(i).getX(), 1e-6);
+        Assert.assertEquals(expected.get(i).getY(), actual.get(i).getY(), 1e-6);
+        double dy = actual.get(i).getY() - initial.get(i).getY();
+        if (nearRoad) {
+          // les bâtiments sur l'emprise sont repoussés vers le nord
+          Assert.assertTrue(dy > 1.0 && dy <= ROAD_CLEARANCE - 10.0);
+        } else {
+          // les autres ne bougent pas
+          Assert.assertEquals(0.0, dy, 1e-6);
+          Assert.assertEquals(initial.get(i).getX(), actual.get(i).getX(), 1e-6);
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testSameSolutionsAsJama() {
+    LSScheduler jamaSched = new LSScheduler(null);
+    jamaSched.setSolver(MatrixSolver.JAMA);
+    LSScheduler sparseSched = new LSScheduler(null);
+    sparseSched.setSolver(MatrixSolver.SPARSE);
+
+    List<LSPoint> points = this.road(jamaSched, 60);
+    EquationsSystem jama = this.buildSystem(jamaSched, points);
+    EquationsSystem sparse = this.buildSystem(sparseSched, points);
+
+    Assert.assertEquals(jama.getRowNumber(), sparse.getRowNumber());
+    Assert.assertEquals(jama.getColumnNumber(), sparse.getColumnNumber());
+    Assert.assertEquals(jama.getUnknowns(), sparse.getUnknowns());
+    for (int i = 0; i < jama.getRowNumber(); i++) {
+      Assert.assertEquals(jama.getObs(i), sparse.getObs(i), 0.0);
+      for (int j = 0; j < jama.getColumnNumber(); j++) {
+        Assert.assertEquals(jama.getA(i, j), sparse.getA(i, j), 0.0);
+      }
+    }
+
+    jama.ajustementMoindresCarres(this.poids());
+    sparse.ajustementMoindresCarres(this.poids());
+    for (int j = 0; j < jama.getColumnNumber(); j++) {
+      Assert.assertEquals(jama.getSolutions().get(j).doubleValue(), sparse
+          .getSolutions().get(j).doubleValue(), 1.0e-6);
+    }
+    for (int i = 0; i < jama.getRowNumber(); i++) {
+      Assert.assertEquals(jama.getResiduals().get(i).doubleValue(), sparse
+          .getResiduals().get(i).doubleValue(), 1.0e-6);
+    }
+  }
+
+  @Test
+  public void testLargeRoadNetwork() {
+    LSScheduler sched = new LSScheduler(null);
+    sched.setSolver(MatrixSolver.SPARSE);
+    List<LSPoint> points = this.road(sched, 20000);
+
+    long start = System.currentTimeMillis();
+    SparseEquationsSystem sparse = (SparseEquationsSystem) this.buildSystem(
+        sched, points);
+    long assembled = System.currentTimeMillis();
+    sparse.ajustementMoindresCarres(this.poids());
+    long solved = System.currentTimeMillis();
+    logger.info("20000 sommets : assemblage " + (assembled - start)
+        + " ms, résolution " + (solved - assembled) + " ms en "
+        + sparse.getIterations() + " itérations");
+
+    Assert.assertEquals(2 * points.size(), sparse.getSolutions().size());
+    // les sommets en conflit sont repoussés vers le haut, sans dépasser 5
+    for (int j = 1; j < sparse.getSolutions().size(); j += 2) {
+      double dy = sparse.getSolutions().get(j).doubleValue();
+      Assert.assertTrue(dy > 0.0 && dy < 5.0);
+    }
+  }
+}
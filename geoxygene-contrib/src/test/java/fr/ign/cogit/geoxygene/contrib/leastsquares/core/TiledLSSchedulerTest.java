@@ -0,0 +1,202 @@
+package fr.ign.cogit.geoxygene.contrib.leastsquares.core;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Vector;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import fr.ign.cogit.geoxygene.api.feature.IFeature;
+import fr.ign.cogit.geoxygene.api.spatial.coordgeom.IDirectPositionList;
+import fr.ign.cogit.geoxygene.api.spatial.geomroot.IGeometry;
+import fr.ign.cogit.geoxygene.contrib.leastsquares.core.LSScheduler.MatrixSolver;
+import fr.ign.cogit.geoxygene.feature.DefaultFeature;
+import fr.ign.cogit.geoxygene.spatial.coordgeom.DirectPosition;
+import fr.ign.cogit.geoxygene.spatial.coordgeom.DirectPositionList;
+import fr.ign.cogit.geoxygene.spatial.coordgeom.GM_LineString;
+import fr.ign.cogit.geoxygene.util.algo.geometricAlgorithms.LineDensification;
+
+/**
+ * Compare l'ajustement par dalles de {@link TiledLSScheduler} à l'ajustement
+ * d'un seul tenant de {@link LSScheduler}. Les objets sont des lignes
+ * malléables disjointes, contraintes à ne pas bouger et à se décaler vers
+ * l'est : leurs ajustements sont indépendants, le découpage en dalles doit
+ * donc donner exactement le même résultat. Une longue ligne traverse
+ * plusieurs dalles.
+ */
+public class TiledLSSchedulerTest {
+
+  /**
+   * Contrainte qui décale chaque sommet de 10 m vers l'est.
+   */
+  public static class ShiftConstraint extends LSInternalConstraint {
+
+    public static Boolean appliesTo(LSPoint point) {
+      return !point.isFixed();
+    }
+
+    public ShiftConstraint(LSPoint pt, LSScheduler scheduler) {
+      super(pt, scheduler);
+    }
+
+    @Override
+    public EquationsSystem calculeSystemeEquations(IFeature obj, LSPoint point) {
+      EquationsSystem systeme = this.sched.initSystemeLocal();
+      systeme.setUnknowns(new Vector<LSPoint>());
+      systeme.getUnknowns().addElement(point);
+      systeme.getUnknowns().addElement(point);
+      systeme.setConstraints(new Vector<LSConstraint>());
+      for (int i = 0; i < 2; i++) {
+        systeme.getConstraints().add(this);
+      }
+      // Delta(x) = 10 et Delta(y) = 0
+      systeme.initObservations(2);
+      systeme.setObs(0, 10.0);
+      systeme.initMatriceA(2, 2);
+      systeme.setA(0, 0, 1.0);
+      systeme.setA(1, 1, 1.0);
+      systeme.setNonNullValues(2);
+      return systeme;
+    }
+  }
+
+  static final AtomicInteger calls = new AtomicInteger();
+
+  /**
+   * Contrainte qui échoue après quelques sommets.
+   */
+  public static class FailingConstraint extends ShiftConstraint {
+
+    public static Boolean appliesTo(LSPoint point) {
+      return !point.isFixed();
+    }
+
+    public FailingConstraint(LSPoint pt, LSScheduler scheduler) {
+      super(pt, scheduler);
+    }
+
+    @Override
+    public EquationsSystem calculeSystemeEquations(IFeature obj, LSPoint point) {
+      if (calls.incrementAndGet() > 50) {
+        throw new IllegalStateException("echec de la dalle");
+      }
+      return super.calculeSystemeEquations(obj, point);
+    }
+  }
+
+  private static List<IFeature> lines() {
+    List<IFeature> lines = new ArrayList<IFeature>();
+    // des petites lignes en zigzag, espacées de 200 m
+    for (int row = 0; row < 5; row++) {
+      for (int col = 0; col < 15; col++) {
+        double x = 100 + 200 * col;
+        double y = 100 + 200 * row;
+        lines.add(line(x, y, x + 40, y + 30, x + 80, y, x + 120, y + 30));
+      }
+    }
+    // une ligne de 700 m, plus grande que les dalles
+    lines.add(line(1010, 200, 1360, 230, 1710, 200));
+    return lines;
+  }
+
+  private static IFeature line(double... coords) {
+    IDirectPositionList points = new DirectPositionList();
+    for (int i = 0; i < coords.length; i += 2) {
+      points.add(new DirectPosition(coords[i], coords[i + 1]));
+    }
+    return new DefaultFeature(new GM_LineString(points));
+  }
+
+  private static MapspecsLS mapspecs(List<IFeature> objs, Class<?>... constraints) {
+    Set<String> malleableConstraints = new HashSet<String>();
+    Map<String, Double> poids = new HashMap<String, Double>();
+    for (Class<?> constraint : constraints) {
+      malleableConstraints.add(constraint.getName());
+      poids.put(constraint.getName(), 1.0);
+    }
+    Set<String> malleableClasses = new HashSet<String>();
+    malleableClasses.add(DefaultFeature.class.getName());
+    return new MapspecsLS(25000.0, new ArrayList<IFeature>(objs),
+        new HashSet<String>(), new HashSet<String>(), malleableConstraints,
+        new HashMap<String[], Double>(), new HashSet<String>(),
+        new HashSet<String>(), malleableClasses, poids);
+  }
+
+  @Test
+  public void testSameAsMonolithic() {
+    List<IFeature> objs = lines();
+    Map<IFeature, IGeometry> original = new HashMap<IFeature, IGeometry>();
+    for (IFeature obj : objs) {
+      original.put(obj, obj.getGeom());
+    }
+    MapspecsLS ms = mapspecs(objs, LSMovementConstraint.class,
+        ShiftConstraint.class);
+
+    LSScheduler monolithic = new LSScheduler(ms);
+    monolithic.setSolver(MatrixSolver.SPARSE);
+    monolithic.triggerAdjustment(false, false);
+
+    TiledLSScheduler tiled = new TiledLSScheduler(ms, 300.0, 50.0);
+    tiled.setNbThreads(4);
+    tiled.triggerAdjustment(false);
+
+    // la grande ligne impose des dalles de 350 + 50 m
+    Assert.assertEquals(400.0, tiled.getEffectiveTileSize(), 1e-9);
+    Set<String> tiles = new HashSet<String>();
+    for (TiledLSScheduler.TileReport report : tiled.getReports()) {
+      tiles.add(report.getColumn() + " " + report.getRow());
+    }
+    Assert.assertTrue(tiles.size() > 4);
+
+    boolean moved = false;
+    for (IFeature obj : objs) {
+      // rien n'est appliqué sans commit
+      Assert.assertSame(original.get(obj), obj.getGeom());
+      IDirectPositionList expected = monolithic.getMapObjGeom().get(obj)
+          .coord();
+      IDirectPositionList actual = tiled.getMapObjGeom().get(obj).coord();
+      // les lignes malléables sont densifiées avant l'ajustement
+      IDirectPositionList initial = LineDensification.densification2(
+          obj.getGeom(), 50.0).coord();
+      Assert.assertEquals(expected.size(), actual.size());
+      Assert.assertEquals(initial.size(), actual.size());
+      for (int i = 0; i < expected.size(); i++) {
+        Assert.assertEquals(expected.get(i).getX(), actual.get(i).getX(), 1e-6);
+        Assert.assertEquals(expected.get(i).getY(), actual.get(i).getY(), 1e-6);
+        // les sommets intérieurs sont décalés vers l'est
+        moved |= actual.get(i).getX() > initial.get(i).getX() + 1.0;
+      }
+    }
+    Assert.assertTrue(moved);
+  }
+
+  @Test
+  public void testFailure() {
+    List<IFeature> objs = lines();
+    Map<IFeature, IGeometry> original = new HashMap<IFeature, IGeometry>();
+    for (IFeature obj : objs) {
+      original.put(obj, obj.getGeom());
+    }
+    calls.set(0);
+    TiledLSScheduler tiled = new TiledLSScheduler(mapspecs(objs,
+        LSMovementConstraint.class, FailingConstraint.class), 300.0, 50.0);
+    tiled.setNbThreads(4);
+    try {
+      tiled.triggerAdjustment(true);
+      Assert.fail();
+    } catch (IllegalStateException e) {
+      Assert.assertEquals("echec de la dalle", e.getMessage());
+    }
+    // aucune géométrie n'est appliquée
+    for (IFeature obj : objs) {
+      Assert.assertSame(original.get(obj), obj.getGeom());
+    }
+    Assert.assertTrue(tiled.getMapObjGeom().isEmpty());
+  }
+}
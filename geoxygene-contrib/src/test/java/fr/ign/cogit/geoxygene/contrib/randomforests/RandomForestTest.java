@@ -0,0 +1,154 @@
+package fr.ign.cogit.geoxygene.contrib.randomforests;
+
+import java.util.Random;
+
+import org.apache.log4j.Logger;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class RandomForestTest {
+
+	private static Logger logger = Logger.getLogger(RandomForestTest.class);
+
+	// ----------------------------------------------------------
+	// Synthetic data set : two ordered variables, one categorical
+	// variable and a class depending on the three of them
+	// ----------------------------------------------------------
+	private TrainingDataSet dataset(int n, long seed){
+
+		Random random = new Random(seed);
+		TrainingDataSet dataset = new TrainingDataSet();
+
+		String[] TYPES = {"road", "river", "building", "forest"};
+
+		for (int i=0; i<n; i++){
+
+			double x1 = random.nextDouble();
+			double x2 = random.nextDouble();
+			String type = TYPES[random.nextInt(TYPES.length)];
+
+			InputData X = new InputData();
+			X.addFeature("x1", x1);
+			X.addFeature("x2", x2);
+			X.addFeature("type", type);
+
+			String classe = "A";
+			if (x1+x2 > 1){classe = "B";}
+			if (type.equals("river") && (x1 > 0.8)){classe = "C";}
+
+			dataset.addData(new TrainingData(X, new OutputData("class", classe)));
+
+		}
+
+		return dataset;
+
+	}
+
+	private RandomForest forest(int N, long seed, int threads, boolean compact){
+
+		RandomForest forest = new RandomForest(RandomForest.MODE_CLASSIFICATION, N);
+		forest.setSeed(seed);
+		forest.setThreadsNumber(threads);
+		forest.setCompact(compact);
+		forest.computeOOB(true);
+
+		return forest;
+
+	}
+
+	@Test
+	public void testFlatTreesMatchDecisionTrees(){
+
+		TrainingDataSet training = dataset(300, 1);
+		TrainingDataSet validation = dataset(200, 2);
+
+		RandomForest forest = forest(10, 42, 4, false);
+		forest.build(training);
+
+		for (int i=0; i<forest.getTreesNumber(); i++){
+
+			DecisionTree tree = forest.getTree(i);
+			FlatTree flat = forest.getFlatTree(i);
+
+			for (int k=0; k<validation.getTrainingDataNumber(); k++){
+
+				InputData X = validation.getData(k).getInputData();
+				double[] row = forest.getTrainingMatrix().encode(X);
+
+				Assert.assertEquals(tree.classify(X), forest.getTrainingMatrix().getClass(flat.classify(row)));
+				Assert.assertEquals(tree.posterior("B", X), flat.posterior(forest.getTrainingMatrix().getClassIndex("B"), row), 1e-12);
+
+			}
+
+		}
+
+	}
+
+	@Test
+	public void testReproducibleWithSeed(){
+
+		TrainingDataSet training = dataset(500, 3);
+		TrainingDataSet validation = dataset(200, 4);
+
+		RandomForest forest1 = forest(20, 7, 1, true);
+		forest1.build(training);
+
+		RandomForest forest2 = forest(20, 7, 8, true);
+		forest2.build(training);
+
+		Assert.assertEquals(forest1.getOOB(), forest2.getOOB(), 0);
+
+		for (int k=0; k<validation.getTrainingDataNumber(); k++){
+
+			InputData X = validation.getData(k).getInputData();
+
+			Assert.assertEquals(forest1.classify(X), forest2.classify(X));
+			Assert.assertEquals(forest1.posterior("C", X), forest2.posterior("C", X), 0);
+
+		}
+
+	}
+
+	@Test
+	public void testCompactForestAccuracy(){
+
+		TrainingDataSet training = dataset(2000, 5);
+		TrainingDataSet validation = dataset(500, 6);
+
+		long start = System.currentTimeMillis();
+		RandomForest legacy = forest(20, 11, 4, false);
+		legacy.build(training);
+		long middle = System.currentTimeMillis();
+		RandomForest compact = forest(20, 11, 4, true);
+		compact.build(training);
+		long end = System.currentTimeMillis();
+
+		logger.info("20 trees on 2000 data : "+(middle-start)+" ms (DecisionTree), "+(end-middle)+" ms (compact)");
+
+		int errors = 0;
+
+		for (int k=0; k<validation.getTrainingDataNumber(); k++){
+
+			String y = validation.getData(k).getOutputData().getCategoricalValue();
+			if (!y.equals(compact.classify(validation.getData(k).getInputData()))){errors++;}
+
+		}
+
+		double rate = (double) errors/validation.getTrainingDataNumber();
+
+		Assert.assertTrue(rate < 0.1);
+		Assert.assertTrue(compact.getOOB() < 0.1);
+		Assert.assertTrue(Math.abs(compact.getOOB()-legacy.getOOB()) < 0.05);
+
+		// Only flat trees in compact mode
+		Assert.assertNotNull(compact.getFlatTree(0));
+		try {
+			compact.getTree(0);
+			Assert.fail("DecisionTree in compact mode");
+		} catch (IllegalStateException e) {
+			// expected
+		}
+
+	}
+
+}
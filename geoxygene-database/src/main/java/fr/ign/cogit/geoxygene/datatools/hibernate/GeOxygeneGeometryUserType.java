@@ -12,6 +12,7 @@ import org.hibernate.HibernateException;
 import org.hibernate.engine.spi.SessionImplementor;
 import org.hibernate.usertype.UserType;
 import org.postgis.PGgeometry;
+import org.postgresql.util.PGobject;
 
 import com.vividsolutions.jts.geom.Geometry;
 
@@ -21,6 +22,7 @@ import fr.ign.cogit.geoxygene.api.spatial.geomaggr.IMultiSurface;
 import fr.ign.cogit.geoxygene.api.spatial.geomprim.IOrientableCurve;
 import fr.ign.cogit.geoxygene.api.spatial.geomprim.IOrientableSurface;
 import fr.ign.cogit.geoxygene.api.spatial.geomroot.IGeometry;
+import fr.ign.cogit.geoxygene.datatools.postgis.WkbGeOxygene;
 import fr.ign.cogit.geoxygene.util.conversion.AdapterFactory;
 import fr.ign.cogit.geoxygene.util.conversion.ParseException;
 import fr.ign.cogit.geoxygene.util.conversion.WktGeOxygene;
@@ -57,6 +59,26 @@ public class GeOxygeneGeometryUserType implements UserType {
 			return null;
 		}
 
+		// binary transfer of the column
+		if (object instanceof byte[]) {
+			IGeometry geOxyGeom = this.convertWkb((byte[]) object);
+			if (geOxyGeom != null) {
+				return geOxyGeom;
+			}
+		}
+
+		// EWKB hexadecimal, as returned by PostGIS when the PGgeometry type is
+		// not registered on the connection : no need to go through WKT
+		if (object instanceof PGobject && !(object instanceof PGgeometry)) {
+			String value = ((PGobject) object).getValue();
+			if (WkbGeOxygene.isHex(value)) {
+				IGeometry geOxyGeom = this.convertWkb(WkbGeOxygene.fromHex(value));
+				if (geOxyGeom != null) {
+					return geOxyGeom;
+				}
+			}
+		}
+
 		if (object instanceof org.postgresql.util.PGobject) {
 			try {
 				object = new PGgeometry(object.toString());
@@ -141,6 +163,23 @@ public class GeOxygeneGeometryUserType implements UserType {
 		return null;
 	}
 
+	/**
+	 * Converts an EWKB geometry to a GeOxygene <code>GM_Object</code>, with
+	 * the CRS set to the EWKB SRID (-1 if none).
+	 * 
+	 * @param wkb
+	 *            WKB or EWKB bytes
+	 * @return GeOxygene geometry, or null if the bytes could not be decoded.
+	 */
+	private IGeometry convertWkb(byte[] wkb) {
+		try {
+			return WkbGeOxygene.read(wkb);
+		} catch (RuntimeException e) {
+			GeOxygeneGeometryUserType.logger.debug("WKB decoding failed, using WKT : " + e.getMessage()); //$NON-NLS-1$
+			return null;
+		}
+	}
+
 	/**
 	 * Converts a GeOxygene <code>GM_Object</code> to a native geometry object.
 	 * 
@@ -155,6 +194,15 @@ public class GeOxygeneGeometryUserType implements UserType {
 			if (geom == null) {
 				return null;
 			}
+			// EWKB hexadecimal, parsed directly by PostGIS
+			try {
+				PGobject pgObject = new PGobject();
+				pgObject.setType("geometry"); //$NON-NLS-1$
+				pgObject.setValue(WkbGeOxygene.writeHex(geom));
+				return pgObject;
+			} catch (IllegalArgumentException e) {
+				// type de geometrie sans equivalent WKB : passage par le WKT
+			}
 			String srid = "";
 			if (geom.getCRS() != -1) {
 				srid = "SRID=" + geom.getCRS() + ";";
@@ -208,6 +256,18 @@ public class GeOxygeneGeometryUserType implements UserType {
 	@Override
 	public Object nullSafeGet(ResultSet rs, String[] names, SessionImplementor arg2, Object arg3)
 			throws HibernateException, SQLException {
+		// raw value of the column : hexadecimal EWKB is decoded directly,
+		// without building any PostGIS object
+		String value = rs.getString(names[0]);
+		if (value == null) {
+			return null;
+		}
+		if (WkbGeOxygene.isHex(value)) {
+			IGeometry geOxyGeom = this.convertWkb(WkbGeOxygene.fromHex(value));
+			if (geOxyGeom != null) {
+				return geOxyGeom;
+			}
+		}
 		Object geomObj = rs.getObject(names[0]);
 		return this.convert2GM_Object(geomObj);
 	}
@@ -31,6 +31,7 @@ import java.sql.SQLException;
 
 import org.apache.log4j.Logger;
 import org.postgis.PGgeometry;
+import org.postgresql.util.PGobject;
 
 import fr.ign.cogit.geoxygene.api.spatial.geomroot.IGeometry;
 import fr.ign.cogit.geoxygene.spatial.geomaggr.GM_MultiCurve;
@@ -54,18 +55,36 @@ public class GeomGeOxygene2Postgis {
   static Logger logger = Logger
       .getLogger(GeomGeOxygene2Postgis.class.getName());
 
+  /**
+   * Lit la valeur d'une colonne geometry : EWKB brut (byte[]), EWKB
+   * hexadécimal (PGobject ou chaîne, format de sortie de PostGIS) lu
+   * directement, ou PGgeometry lu par son WKT.
+   * @param geom
+   * @return la géométrie GeOxygene, ou null si la valeur n'a pu être lue
+   */
   @SuppressWarnings("unchecked")
   public static Object sqlToJava(Object geom) {
-    PGgeometry pgGeom = (PGgeometry) geom;
-
     try {
-      /*
-       * In version 1.0.x of PostGIS, SRID is added to the beginning of the
-       * pgGeom string
-       */
-
-      IGeometry geOxyGeom = WktGeOxygene.makeGeOxygene(pgGeom.toString()
-          .substring(pgGeom.toString().indexOf(";") + 1));
+      IGeometry geOxyGeom = null;
+      if (geom instanceof byte[]) {
+        geOxyGeom = WkbGeOxygene.read((byte[]) geom);
+      } else {
+        String value = geom.toString();
+        if (geom instanceof PGobject && !(geom instanceof PGgeometry)) {
+          value = ((PGobject) geom).getValue();
+        }
+        if (!(geom instanceof PGgeometry) && WkbGeOxygene.isHex(value)) {
+          // lecture directe du WKB, sans passer par le texte
+          geOxyGeom = WkbGeOxygene.readHex(value);
+        } else {
+          /*
+           * In version 1.0.x of PostGIS, SRID is added to the beginning of
+           * the pgGeom string
+           */
+          geOxyGeom = WktGeOxygene.makeGeOxygene(value.substring(value
+              .indexOf(";") + 1));
+        }
+      }
       // GM_Object geOxyGeom = WktGeOxygene.makeGeOxygene(pgGeom.toString());
 
       if (geOxyGeom instanceof GM_MultiPoint) {
@@ -96,14 +115,34 @@ public class GeomGeOxygene2Postgis {
           .warn("## WARNING ## Postgis to GeOxygene returns NULL ");
       e.printStackTrace();
       return null;
+    } catch (RuntimeException e) {
+      GeomGeOxygene2Postgis.logger
+          .warn("## WARNING ## Postgis to GeOxygene returns NULL : invalid WKB "
+              + e.getMessage());
+      return null;
     }
   }
 
+  /**
+   * Convertit une géométrie GeOxygene en valeur de colonne geometry : EWKB
+   * hexadécimal avec le SRID de la géométrie, ou WKT pour les types de
+   * géométrie sans équivalent WKB.
+   * @param geom
+   * @return la valeur PostGIS, ou null
+   */
   public static Object javaToSql(Object geom) {
     try {
       if (geom == null) {
         return null;
       }
+      try {
+        PGobject pgObject = new PGobject();
+        pgObject.setType("geometry"); //$NON-NLS-1$
+        pgObject.setValue(WkbGeOxygene.writeHex((IGeometry) geom));
+        return pgObject;
+      } catch (IllegalArgumentException e) {
+        // type de geometrie sans equivalent WKB : passage par le WKT
+      }
       PGgeometry pgGeom = new PGgeometry(((IGeometry) geom).toString());
       return pgGeom;
     } catch (SQLException e) {
@@ -0,0 +1,466 @@
+/*
+ * This file is part of the GeOxygene project source files.
+ *
+ * GeOxygene aims at providing an open framework which implements OGC/ISO
+ * specifications for the development and deployment of geographic (GIS)
+ * applications. It is a open source contribution of the COGIT laboratory at the
+ * Institut Géographique National (the French National Mapping Agency).
+ *
+ * See: http://oxygene-project.sourceforge.net
+ *
+ * Copyright (C) 2005 Institut Géographique National
+ *
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library (see file LICENSE if present); if not, write to the
+ * Free Software Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA
+ * 02111-1307 USA
+ */
+
+package fr.ign.cogit.geoxygene.datatools.postgis;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+
+import fr.ign.cogit.geoxygene.api.spatial.coordgeom.IDirectPosition;
+import fr.ign.cogit.geoxygene.api.spatial.coordgeom.IDirectPositionList;
+import fr.ign.cogit.geoxygene.api.spatial.coordgeom.ILineString;
+import fr.ign.cogit.geoxygene.api.spatial.coordgeom.IPolygon;
+import fr.ign.cogit.geoxygene.api.spatial.geomaggr.IAggregate;
+import fr.ign.cogit.geoxygene.api.spatial.geomaggr.IMultiCurve;
+import fr.ign.cogit.geoxygene.api.spatial.geomaggr.IMultiPoint;
+import fr.ign.cogit.geoxygene.api.spatial.geomaggr.IMultiSurface;
+import fr.ign.cogit.geoxygene.api.spatial.geomprim.ICurve;
+import fr.ign.cogit.geoxygene.api.spatial.geomprim.IOrientableSurface;
+import fr.ign.cogit.geoxygene.api.spatial.geomprim.IPoint;
+import fr.ign.cogit.geoxygene.api.spatial.geomprim.IRing;
+import fr.ign.cogit.geoxygene.api.spatial.geomroot.IGeometry;
+import fr.ign.cogit.geoxygene.spatial.coordgeom.DirectPosition;
+import fr.ign.cogit.geoxygene.spatial.coordgeom.DirectPositionList;
+import fr.ign.cogit.geoxygene.spatial.coordgeom.GM_LineString;
+import fr.ign.cogit.geoxygene.spatial.coordgeom.GM_Polygon;
+import fr.ign.cogit.geoxygene.spatial.geomaggr.GM_Aggregate;
+import fr.ign.cogit.geoxygene.spatial.geomaggr.GM_MultiCurve;
+import fr.ign.cogit.geoxygene.spatial.geomaggr.GM_MultiPoint;
+import fr.ign.cogit.geoxygene.spatial.geomaggr.GM_MultiSurface;
+import fr.ign.cogit.geoxygene.spatial.geomprim.GM_Point;
+import fr.ign.cogit.geoxygene.spatial.geomprim.GM_Ring;
+
+/**
+ * Lecture et écriture directes des géométries GeOxygene au format binaire WKB
+ * (OGC et ISO) et EWKB (PostGIS, avec SRID), sans passer par du texte ni par
+ * JTS. Les géométries lues sont les mêmes que celles construites par
+ * {@link fr.ign.cogit.geoxygene.util.conversion.WktGeOxygene} : GM_Point,
+ * GM_LineString, GM_Polygon, GM_MultiPoint, GM_MultiCurve, GM_MultiSurface et
+ * GM_Aggregate. Les coordonnées M sont ignorées.
+ *
+ */
+public class WkbGeOxygene {
+
+  private static final int POINT = 1;
+  private static final int LINESTRING = 2;
+  private static final int POLYGON = 3;
+  private static final int MULTIPOINT = 4;
+  private static final int MULTILINESTRING = 5;
+  private static final int MULTIPOLYGON = 6;
+  private static final int GEOMETRYCOLLECTION = 7;
+
+  private static final int EWKB_Z = 0x80000000;
+  private static final int EWKB_M = 0x40000000;
+  private static final int EWKB_SRID = 0x20000000;
+
+  private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+  private WkbGeOxygene() {
+  }
+
+  /*- Lecture -------------------------------------------*/
+
+  /**
+   * Lit une géométrie WKB ou EWKB. Si le EWKB contient un SRID, il est affecté
+   * comme CRS de la géométrie.
+   * @param wkb
+   * @return la géométrie GeOxygene correspondante
+   */
+  public static IGeometry read(byte[] wkb) {
+    return WkbGeOxygene.read(ByteBuffer.wrap(wkb));
+  }
+
+  /**
+   * Lit une géométrie WKB ou EWKB à partir de la position courante du buffer.
+   * @param buffer
+   * @return la géométrie GeOxygene correspondante
+   */
+  public static IGeometry read(ByteBuffer buffer) {
+    int[] srid = new int[] { -1 };
+    IGeometry geom = WkbGeOxygene.readGeometry(buffer, srid);
+    if (srid[0] != -1) {
+      geom.setCRS(srid[0]);
+    }
+    return geom;
+  }
+
+  /**
+   * Lit une géométrie WKB ou EWKB encodée en hexadécimal (format de sortie
+   * des colonnes geometry de PostGIS).
+   * @param hex
+   * @return la géométrie GeOxygene correspondante
+   */
+  public static IGeometry readHex(String hex) {
+    return WkbGeOxygene.read(WkbGeOxygene.fromHex(hex));
+  }
+
+  /**
+   * @param value
+   * @return vrai si la chaîne est un WKB encodé en hexadécimal
+   */
+  public static boolean isHex(String value) {
+    if (value == null || value.length() < 10 || value.length() % 2 != 0) {
+      return false;
+    }
+    if (!value.startsWith("00") && !value.startsWith("01")) { //$NON-NLS-1$ //$NON-NLS-2$
+      return false;
+    }
+    for (int i = 0; i < value.length(); i++) {
+      if (Character.digit(value.charAt(i), 16) < 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static IGeometry readGeometry(ByteBuffer buffer, int[] srid) {
+    buffer.order(buffer.get() == 0 ? ByteOrder.BIG_ENDIAN
+        : ByteOrder.LITTLE_ENDIAN);
+    int typeInt = buffer.getInt();
+    boolean hasZ = (typeInt & EWKB_Z) != 0;
+    boolean hasM = (typeInt & EWKB_M) != 0;
+    if ((typeInt & EWKB_SRID) != 0) {
+      srid[0] = buffer.getInt();
+    }
+    int type = typeInt & 0x0FFFFFFF;
+    // variantes ISO : 1000 pour Z, 2000 pour M, 3000 pour ZM
+    if (type > 1000) {
+      int iso = type / 1000;
+      hasZ = hasZ || iso == 1 || iso == 3;
+      hasM = hasM || iso == 2 || iso == 3;
+      type = type % 1000;
+    }
+    switch (type) {
+      case POINT:
+        return new GM_Point(WkbGeOxygene.readPosition(buffer, hasZ, hasM));
+      case LINESTRING:
+        return new GM_LineString(WkbGeOxygene.readPositions(buffer, hasZ,
+            hasM));
+      case POLYGON:
+        return WkbGeOxygene.readPolygon(buffer, hasZ, hasM);
+      case MULTIPOINT: {
+        GM_MultiPoint multiPoint = new GM_MultiPoint();
+        int n = buffer.getInt();
+        for (int i = 0; i < n; i++) {
+          multiPoint.add((IPoint) WkbGeOxygene.readGeometry(buffer, srid));
+        }
+        return multiPoint;
+      }
+      case MULTILINESTRING: {
+        GM_MultiCurve<ILineString> multiCurve = new GM_MultiCurve<ILineString>();
+        int n = buffer.getInt();
+        for (int i = 0; i < n; i++) {
+          multiCurve.add((ILineString) WkbGeOxygene.readGeometry(buffer, srid));
+        }
+        return multiCurve;
+      }
+      case MULTIPOLYGON: {
+        GM_MultiSurface<IPolygon> multiSurface = new GM_MultiSurface<IPolygon>();
+        int n = buffer.getInt();
+        for (int i = 0; i < n; i++) {
+          multiSurface.add((IPolygon) WkbGeOxygene.readGeometry(buffer, srid));
+        }
+        return multiSurface;
+      }
+      case GEOMETRYCOLLECTION: {
+        GM_Aggregate<IGeometry> aggregate = new GM_Aggregate<IGeometry>();
+        int n = buffer.getInt();
+        for (int i = 0; i < n; i++) {
+          aggregate.add(WkbGeOxygene.readGeometry(buffer, srid));
+        }
+        return aggregate;
+      }
+      default:
+        throw new IllegalArgumentException("Unsupported WKB geometry type " //$NON-NLS-1$
+            + type);
+    }
+  }
+
+  private static IDirectPosition readPosition(ByteBuffer buffer, boolean hasZ,
+      boolean hasM) {
+    double x = buffer.getDouble();
+    double y = buffer.getDouble();
+    double z = hasZ ? buffer.getDouble() : Double.NaN;
+    if (hasM) {
+      buffer.getDouble();
+    }
+    // POINT EMPTY
+    if (Double.isNaN(x) && Double.isNaN(y)) {
+      return new DirectPosition();
+    }
+    if (hasZ) {
+      return new DirectPosition(x, y, z);
+    }
+    return new DirectPosition(x, y);
+  }
+
+  private static IDirectPositionList readPositions(ByteBuffer buffer,
+      boolean hasZ, boolean hasM) {
+    int n = buffer.getInt();
+    IDirectPositionList list = new DirectPositionList();
+    for (int i = 0; i < n; i++) {
+      list.add(WkbGeOxygene.readPosition(buffer, hasZ, hasM));
+    }
+    return list;
+  }
+
+  private static IPolygon readPolygon(ByteBuffer buffer, boolean hasZ,
+      boolean hasM) {
+    int nbRings = buffer.getInt();
+    if (nbRings == 0) {
+      return new GM_Polygon();
+    }
+    IPolygon polygon = new GM_Polygon(new GM_LineString(
+        WkbGeOxygene.readPositions(buffer, hasZ, hasM)));
+    for (int i = 1; i < nbRings; i++) {
+      polygon.addInterior(new GM_Ring(new GM_LineString(WkbGeOxygene
+          .readPositions(buffer, hasZ, hasM))));
+    }
+    return polygon;
+  }
+
+  /*- Ecriture ------------------------------------------*/
+
+  /**
+   * Ecrit une géométrie en EWKB little endian, avec le SRID de la géométrie
+   * s'il est défini (différent de -1).
+   * @param geom
+   * @return le EWKB de la géométrie
+   * @throws IllegalArgumentException si le type de géométrie n'a pas
+   *           d'équivalent WKB
+   */
+  public static byte[] write(IGeometry geom) {
+    return WkbGeOxygene.write(geom, geom.getCRS());
+  }
+
+  /**
+   * Ecrit une géométrie en EWKB little endian avec le SRID donné (pas de SRID
+   * si -1, ce qui donne un WKB OGC pour les géométries 2D).
+   * @param geom
+   * @param srid
+   * @return le EWKB de la géométrie
+   */
+  public static byte[] write(IGeometry geom, int srid) {
+    Output out = new Output();
+    WkbGeOxygene.writeGeometry(out, geom, srid, WkbGeOxygene.hasZ(geom));
+    return out.toByteArray();
+  }
+
+  /**
+   * Ecrit une géométrie en EWKB encodé en hexadécimal, format accepté en
+   * entrée par les colonnes geometry de PostGIS.
+   * @param geom
+   * @return le EWKB hexadécimal de la géométrie
+   */
+  public static String writeHex(IGeometry geom) {
+    return WkbGeOxygene.toHex(WkbGeOxygene.write(geom));
+  }
+
+  private static boolean hasZ(IGeometry geom) {
+    if (geom instanceof IPoint) {
+      return !Double.isNaN(((IPoint) geom).getPosition().getZ());
+    }
+    IDirectPositionList coord = geom.coord();
+    for (int i = 0; i < coord.size(); i++) {
+      if (!Double.isNaN(coord.get(i).getZ())) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static void writeGeometry(Output out, IGeometry geom, int srid,
+      boolean hasZ) {
+    if (geom instanceof IPoint) {
+      WkbGeOxygene.writeHeader(out, POINT, srid, hasZ);
+      WkbGeOxygene.writePosition(out, ((IPoint) geom).getPosition(), hasZ);
+    } else if (geom instanceof IMultiSurface) {
+      List<IPolygon> polygons = new ArrayList<IPolygon>();
+      WkbGeOxygene.flatten((IMultiSurface<IOrientableSurface>) geom, polygons);
+      WkbGeOxygene.writeHeader(out, MULTIPOLYGON, srid, hasZ);
+      out.putInt(polygons.size());
+      for (IPolygon polygon : polygons) {
+        WkbGeOxygene.writeGeometry(out, polygon, -1, hasZ);
+      }
+    } else if (geom instanceof IMultiCurve) {
+      IMultiCurve<ICurve> multiCurve = (IMultiCurve<ICurve>) geom;
+      WkbGeOxygene.writeHeader(out, MULTILINESTRING, srid, hasZ);
+      out.putInt(multiCurve.size());
+      for (int i = 0; i < multiCurve.size(); i++) {
+        WkbGeOxygene.writeHeader(out, LINESTRING, -1, hasZ);
+        WkbGeOxygene.writePositions(out, multiCurve.get(i).coord(), hasZ);
+      }
+    } else if (geom instanceof IMultiPoint) {
+      IMultiPoint multiPoint = (IMultiPoint) geom;
+      WkbGeOxygene.writeHeader(out, MULTIPOINT, srid, hasZ);
+      out.putInt(multiPoint.size());
+      for (int i = 0; i < multiPoint.size(); i++) {
+        WkbGeOxygene.writeGeometry(out, multiPoint.get(i), -1, hasZ);
+      }
+    } else if (geom instanceof IPolygon) {
+      IPolygon polygon = (IPolygon) geom;
+      WkbGeOxygene.writeHeader(out, POLYGON, srid, hasZ);
+      if (polygon.getExterior() == null) {
+        out.putInt(0);
+        return;
+      }
+      out.putInt(1 + polygon.sizeInterior());
+      WkbGeOxygene.writePositions(out, polygon.exteriorCoord(), hasZ);
+      for (int i = 0; i < polygon.sizeInterior(); i++) {
+        WkbGeOxygene.writePositions(out, polygon.interiorCoord(i), hasZ);
+      }
+    } else if (geom instanceof ILineString || geom instanceof IRing) {
+      WkbGeOxygene.writeHeader(out, LINESTRING, srid, hasZ);
+      WkbGeOxygene.writePositions(out, geom.coord(), hasZ);
+    } else if (geom instanceof IAggregate) {
+      IAggregate<IGeometry> aggregate = (IAggregate<IGeometry>) geom;
+      WkbGeOxygene.writeHeader(out, GEOMETRYCOLLECTION, srid, hasZ);
+      out.putInt(aggregate.size());
+      for (int i = 0; i < aggregate.size(); i++) {
+        WkbGeOxygene.writeGeometry(out, aggregate.get(i), -1, hasZ);
+      }
+    } else {
+      throw new IllegalArgumentException("No WKB type for " //$NON-NLS-1$
+          + geom.getClass().getName());
+    }
+  }
+
+  private static void flatten(IMultiSurface<IOrientableSurface> multiSurface,
+      List<IPolygon> polygons) {
+    for (int i = 0; i < multiSurface.size(); i++) {
+      IGeometry surface = multiSurface.get(i);
+      if (surface instanceof IPolygon) {
+        polygons.add((IPolygon) surface);
+      } else if (surface instanceof IMultiSurface) {
+        @SuppressWarnings("unchecked")
+        IMultiSurface<IOrientableSurface> inner = (IMultiSurface<IOrientableSurface>) surface;
+        WkbGeOxygene.flatten(inner, polygons);
+      } else {
+        throw new IllegalArgumentException("No WKB type for " //$NON-NLS-1$
+            + surface.getClass().getName());
+      }
+    }
+  }
+
+  private static void writeHeader(Output out, int type, int srid, boolean hasZ) {
+    out.putByte((byte) 1);
+    int typeInt = type;
+    if (hasZ) {
+      typeInt |= EWKB_Z;
+    }
+    if (srid != -1) {
+      typeInt |= EWKB_SRID;
+    }
+    out.putInt(typeInt);
+    if (srid != -1) {
+      out.putInt(srid);
+    }
+  }
+
+  private static void writePosition(Output out, IDirectPosition position,
+      boolean hasZ) {
+    out.putDouble(position.getX());
+    out.putDouble(position.getY());
+    if (hasZ) {
+      out.putDouble(position.getZ());
+    }
+  }
+
+  private static void writePositions(Output out, IDirectPositionList list,
+      boolean hasZ) {
+    out.putInt(list.size());
+    for (int i = 0; i < list.size(); i++) {
+      WkbGeOxygene.writePosition(out, list.get(i), hasZ);
+    }
+  }
+
+  /*- Hexadécimal ---------------------------------------*/
+
+  public static byte[] fromHex(String hex) {
+    byte[] bytes = new byte[hex.length() / 2];
+    for (int i = 0; i < bytes.length; i++) {
+      bytes[i] = (byte) ((Character.digit(hex.charAt(2 * i), 16) << 4) + Character
+          .digit(hex.charAt(2 * i + 1), 16));
+    }
+    return bytes;
+  }
+
+  public static String toHex(byte[] bytes) {
+    char[] chars = new char[2 * bytes.length];
+    for (int i = 0; i < bytes.length; i++) {
+      chars[2 * i] = HEX[(bytes[i] >> 4) & 0xF];
+      chars[2 * i + 1] = HEX[bytes[i] & 0xF];
+    }
+    return new String(chars);
+  }
+
+  /**
+   * Tampon d'écriture little endian extensible.
+   */
+  private static class Output {
+    private byte[] bytes = new byte[256];
+    private int size = 0;
+
+    private void ensure(int n) {
+      if (this.size + n > this.bytes.length) {
+        byte[] newBytes = new byte[Math.max(2 * this.bytes.length, this.size
+            + n)];
+        System.arraycopy(this.bytes, 0, newBytes, 0, this.size);
+        this.bytes = newBytes;
+      }
+    }
+
+    void putByte(byte b) {
+      this.ensure(1);
+      this.bytes[this.size++] = b;
+    }
+
+    void putInt(int value) {
+      this.ensure(4);
+      for (int i = 0; i < 4; i++) {
+        this.bytes[this.size++] = (byte) (value >>> (8 * i));
+      }
+    }
+
+    void putDouble(double value) {
+      this.ensure(8);
+      long bits = Double.doubleToLongBits(value);
+      for (int i = 0; i < 8; i++) {
+        this.bytes[this.size++] = (byte) (bits >>> (8 * i));
+      }
+    }
+
+    byte[] toByteArray() {
+      byte[] result = new byte[this.size];
+      System.arraycopy(this.bytes, 0, result, 0, this.size);
+      return result;
+    }
+  }
+}
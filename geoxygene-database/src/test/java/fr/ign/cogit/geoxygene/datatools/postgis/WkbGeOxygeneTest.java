@@ -0,0 +1,115 @@
+package fr.ign.cogit.geoxygene.datatools.postgis;
+
+import org.apache.log4j.Logger;
+import org.junit.Assert;
+import org.junit.Test;
+import org.postgresql.util.PGobject;
+
+import fr.ign.cogit.geoxygene.api.spatial.coordgeom.IDirectPositionList;
+import fr.ign.cogit.geoxygene.api.spatial.geomroot.IGeometry;
+import fr.ign.cogit.geoxygene.spatial.coordgeom.DirectPosition;
+import fr.ign.cogit.geoxygene.spatial.coordgeom.DirectPositionList;
+import fr.ign.cogit.geoxygene.spatial.coordgeom.GM_LineString;
+import fr.ign.cogit.geoxygene.spatial.coordgeom.GM_Polygon;
+import fr.ign.cogit.geoxygene.spatial.geomaggr.GM_MultiSurface;
+import fr.ign.cogit.geoxygene.spatial.geomprim.GM_Point;
+import fr.ign.cogit.geoxygene.util.conversion.WktGeOxygene;
+
+public class WkbGeOxygeneTest {
+
+  private static Logger logger = Logger.getLogger(WkbGeOxygeneTest.class);
+
+  private static final String[] WKT = new String[] {
+      "POINT (1.5 -2.25)",
+      "POINT (1.0 2.0 3.0)",
+      "LINESTRING (0.0 0.0, 10.0 5.0, 20.0 0.0)",
+      "LINESTRING (0.0 0.0 1.0, 10.0 5.0 2.0)",
+      "POLYGON ((0.0 0.0, 10.0 0.0, 10.0 10.0, 0.0 10.0, 0.0 0.0), (2.0 2.0, 4.0 2.0, 4.0 4.0, 2.0 2.0))",
+      "MULTIPOINT ((1.0 1.0), (2.0 2.0))",
+      "MULTILINESTRING ((0.0 0.0, 1.0 1.0), (2.0 2.0, 3.0 3.0))",
+      "MULTIPOLYGON (((0.0 0.0, 1.0 0.0, 1.0 1.0, 0.0 0.0)), ((5.0 5.0, 6.0 5.0, 6.0 6.0, 5.0 5.0)))",
+      "GEOMETRYCOLLECTION (POINT (1.0 1.0), LINESTRING (0.0 0.0, 1.0 1.0))" };
+
+  @Test
+  public void testRoundTrip() throws Exception {
+    for (String wkt : WKT) {
+      IGeometry geom = WktGeOxygene.makeGeOxygene(wkt);
+      IGeometry read = WkbGeOxygene.read(WkbGeOxygene.write(geom));
+      Assert.assertEquals(wkt, geom.getClass(), read.getClass());
+      Assert.assertEquals(wkt, geom.toString(), read.toString());
+      Assert.assertEquals(-1, read.getCRS());
+    }
+  }
+
+  @Test
+  public void testSrid() {
+    IGeometry point = new GM_Point(new DirectPosition(1.0, 2.0));
+    point.setCRS(4326);
+    String hex = WkbGeOxygene.writeHex(point);
+    // SRID=4326;POINT(1 2) as output by PostGIS
+    Assert.assertEquals("0101000020E6100000000000000000F03F0000000000000040",
+        hex);
+    Assert.assertTrue(WkbGeOxygene.isHex(hex));
+    Assert.assertFalse(WkbGeOxygene.isHex("POINT (1 2)"));
+    IGeometry read = WkbGeOxygene.readHex(hex);
+    Assert.assertEquals(4326, read.getCRS());
+    Assert.assertEquals(point.toString(), read.toString());
+  }
+
+  @Test
+  public void testPostgisConversion() throws Exception {
+    IGeometry line = WktGeOxygene
+        .makeGeOxygene("LINESTRING (0.0 0.0, 10.0 5.0, 20.0 0.0)");
+    line.setCRS(2154);
+    Object value = GeomGeOxygene2Postgis.javaToSql(line);
+    // bound as hex EWKB with the SRID of the geometry
+    Assert.assertEquals(PGobject.class, value.getClass());
+    Assert.assertEquals("geometry", ((PGobject) value).getType());
+    Assert.assertEquals(WkbGeOxygene.writeHex(line),
+        ((PGobject) value).getValue());
+    // read back from the raw column value, as a PGobject, a string or bytes
+    for (Object raw : new Object[] { value, ((PGobject) value).getValue(),
+        WkbGeOxygene.write(line) }) {
+      IGeometry read = (IGeometry) GeomGeOxygene2Postgis.sqlToJava(raw);
+      Assert.assertEquals(line.toString(), read.toString());
+      Assert.assertEquals(2154, read.getCRS());
+    }
+  }
+
+  @Test
+  public void testIsoAndBigEndian() {
+    // ISO WKB, big endian : POINT Z (1 2 3)
+    IGeometry read = WkbGeOxygene
+        .readHex("00000003E93FF000000000000040000000000000004008000000000000");
+    Assert.assertEquals(new DirectPosition(1.0, 2.0, 3.0).toString(),
+        ((GM_Point) read).getPosition().toString());
+  }
+
+  @Test
+  public void testPerformance() throws Exception {
+    GM_MultiSurface<GM_Polygon> parcels = new GM_MultiSurface<GM_Polygon>();
+    for (int i = 0; i < 2000; i++) {
+      IDirectPositionList points = new DirectPositionList();
+      for (int j = 0; j < 50; j++) {
+        double angle = 2 * Math.PI * j / 50;
+        points.add(new DirectPosition(651234.125 + i + Math.cos(angle),
+            6862345.875 + Math.sin(angle)));
+      }
+      points.add(points.get(0));
+      parcels.add(new GM_Polygon(new GM_LineString(points)));
+    }
+
+    long start = System.currentTimeMillis();
+    IGeometry wkt = WktGeOxygene.makeGeOxygene(parcels.toString());
+    long middle = System.currentTimeMillis();
+    IGeometry wkb = WkbGeOxygene.read(WkbGeOxygene.write(parcels));
+    long end = System.currentTimeMillis();
+    WkbGeOxygeneTest.logger.info("100000 vertices : " + (middle - start)
+        + " ms (WKT), " + (end - middle) + " ms (WKB)");
+
+    Assert.assertEquals(wkt.toString(), wkb.toString());
+    Assert.assertEquals(parcels.coord().size(), wkb.coord().size());
+    Assert.assertEquals(parcels.coord().get(1234).getX(), wkb.coord()
+        .get(1234).getX(), 0.0);
+  }
+}
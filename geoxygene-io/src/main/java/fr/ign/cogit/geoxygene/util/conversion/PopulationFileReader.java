@@ -0,0 +1,541 @@
+/*
+ * This file is part of the GeOxygene project source files. GeOxygene aims at
+ * providing an open framework which implements OGC/ISO specifications for the
+ * development and deployment of geographic (GIS) applications. It is a open
+ * source contribution of the COGIT laboratory at the Institut Géographique
+ * National (the French National Mapping Agency). See:
+ * http://oxygene-project.sourceforge.net Copyright (C) 2005 Institut
+ * Géographique National This library is free software; you can redistribute it
+ * and/or modify it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of the License,
+ * or any later version. This library is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser
+ * General Public License for more details. You should have received a copy of
+ * the GNU Lesser General Public License along with this library (see file
+ * LICENSE if present); if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+
+package fr.ign.cogit.geoxygene.util.conversion;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import fr.ign.cogit.geoxygene.api.feature.IFeature;
+import fr.ign.cogit.geoxygene.api.feature.IPopulation;
+import fr.ign.cogit.geoxygene.api.spatial.coordgeom.IDirectPosition;
+import fr.ign.cogit.geoxygene.api.spatial.coordgeom.IDirectPositionList;
+import fr.ign.cogit.geoxygene.api.spatial.coordgeom.IEnvelope;
+import fr.ign.cogit.geoxygene.api.spatial.coordgeom.ILineString;
+import fr.ign.cogit.geoxygene.api.spatial.coordgeom.IPolygon;
+import fr.ign.cogit.geoxygene.api.spatial.geomprim.IOrientableCurve;
+import fr.ign.cogit.geoxygene.api.spatial.geomprim.IOrientableSurface;
+import fr.ign.cogit.geoxygene.api.spatial.geomprim.IPoint;
+import fr.ign.cogit.geoxygene.api.spatial.geomroot.IGeometry;
+import fr.ign.cogit.geoxygene.feature.DefaultFeature;
+import fr.ign.cogit.geoxygene.feature.Population;
+import fr.ign.cogit.geoxygene.feature.SchemaDefaultFeature;
+import fr.ign.cogit.geoxygene.schema.schemaConceptuelISOJeu.AttributeType;
+import fr.ign.cogit.geoxygene.schema.schemaConceptuelISOJeu.FeatureType;
+import fr.ign.cogit.geoxygene.spatial.coordgeom.DirectPosition;
+import fr.ign.cogit.geoxygene.spatial.coordgeom.DirectPositionList;
+import fr.ign.cogit.geoxygene.spatial.coordgeom.GM_Envelope;
+import fr.ign.cogit.geoxygene.spatial.coordgeom.GM_LineString;
+import fr.ign.cogit.geoxygene.spatial.coordgeom.GM_Polygon;
+import fr.ign.cogit.geoxygene.spatial.geomaggr.GM_Aggregate;
+import fr.ign.cogit.geoxygene.spatial.geomaggr.GM_MultiCurve;
+import fr.ign.cogit.geoxygene.spatial.geomaggr.GM_MultiPoint;
+import fr.ign.cogit.geoxygene.spatial.geomaggr.GM_MultiSurface;
+import fr.ign.cogit.geoxygene.spatial.geomprim.GM_Point;
+import fr.ign.cogit.geoxygene.spatial.geomprim.GM_Ring;
+import fr.ign.cogit.geoxygene.spatial.geomroot.GM_Object;
+
+/**
+ * Lecture par projection mémoire des fichiers écrits par
+ * {@link PopulationFileWriter}. L'ouverture ne lit que l'en-tête et le
+ * schéma : les géométries et les attributs sont décodés à la demande, objet
+ * par objet, directement depuis le fichier projeté. Les sélections par emprise
+ * utilisent l'index spatial contenu dans le fichier.
+ * <p>
+ * Les lectures ne modifient pas l'état du lecteur : un même lecteur peut être
+ * utilisé par plusieurs threads. Les fichiers sont limités à 2 Go.
+ */
+public class PopulationFileReader implements Closeable {
+
+  static final int MAGIC = 0x47585046;
+  static final int VERSION = 1;
+  static final int HEADER_SIZE = 104;
+  static final int NODE_SIZE = 16;
+
+  /** Types de géométries */
+  static final int NULL = 0;
+  static final int POINT = 1;
+  static final int LINESTRING = 2;
+  static final int POLYGON = 3;
+  static final int MULTIPOINT = 4;
+  static final int MULTICURVE = 5;
+  static final int MULTISURFACE = 6;
+  static final int AGGREGATE = 7;
+
+  /** Types de colonnes */
+  static final byte INT = 1;
+  static final byte LONG = 2;
+  static final byte FLOAT = 3;
+  static final byte DOUBLE = 4;
+  static final byte BOOLEAN = 5;
+  static final byte STRING = 6;
+
+  /** Taille d'une entrée de la table des objets : emprise, structure, id */
+  private static final int FEATURE_ENTRY = 40;
+  /** Taille d'une emprise de l'index : xmin, ymin, xmax, ymax, indice */
+  private static final int INDEX_ENTRY = 36;
+
+  private static final Charset UTF8 = Charset.forName("UTF-8"); //$NON-NLS-1$
+
+  private RandomAccessFile file;
+  private ByteBuffer buffer;
+  private int size;
+  private int dimension;
+  private IEnvelope envelope;
+  private int featuresOffset, structureOffset, coordsOffset;
+  private int[] columnOffsets;
+  private byte[] kinds;
+  private int indexOffset, nodeSize;
+  private int[] levelEnds;
+  private String name;
+  private SchemaDefaultFeature schema;
+  private FeatureType featureType;
+
+  /**
+   * Ouvre un fichier et le projette en mémoire.
+   * @param fileName nom du fichier
+   * @throws IOException si le fichier ne peut être lu ou n'est pas au format
+   *           attendu
+   */
+  public PopulationFileReader(String fileName) throws IOException {
+    this.file = new RandomAccessFile(fileName, "r"); //$NON-NLS-1$
+    try {
+      FileChannel channel = this.file.getChannel();
+      if (channel.size() > Integer.MAX_VALUE) {
+        throw new IOException("File too large " + fileName); //$NON-NLS-1$
+      }
+      this.buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+          channel.size());
+      this.readHeader(fileName);
+    } catch (IOException e) {
+      this.file.close();
+      throw e;
+    }
+  }
+
+  private void readHeader(String fileName) throws IOException {
+    if (this.buffer.capacity() < HEADER_SIZE
+        || this.buffer.getInt(0) != MAGIC) {
+      throw new IOException("Not a population file " + fileName); //$NON-NLS-1$
+    }
+    if (this.buffer.getInt(4) != VERSION) {
+      throw new IOException("Unsupported version " + this.buffer.getInt(4) //$NON-NLS-1$
+          + " for " + fileName); //$NON-NLS-1$
+    }
+    this.size = this.buffer.getInt(8);
+    int nbAttributes = this.buffer.getInt(12);
+    this.dimension = this.buffer.getInt(16);
+    double xmin = this.buffer.getDouble(24);
+    if (!Double.isNaN(xmin)) {
+      this.envelope = new GM_Envelope(xmin, this.buffer.getDouble(32),
+          this.buffer.getDouble(40), this.buffer.getDouble(48));
+    }
+    int schemaOffset = (int) this.buffer.getLong(56);
+    this.featuresOffset = (int) this.buffer.getLong(64);
+    this.structureOffset = (int) this.buffer.getLong(72);
+    this.coordsOffset = (int) this.buffer.getLong(80);
+    int attributesOffset = (int) this.buffer.getLong(88);
+    this.indexOffset = (int) this.buffer.getLong(96);
+
+    // schéma, construit comme celui des shapefiles
+    int[] position = new int[] { schemaOffset };
+    this.name = this.readString(position);
+    String typeName = this.readString(position);
+    String geometryType = this.readString(position);
+    this.featureType = new FeatureType();
+    this.featureType.setTypeName(typeName != null ? typeName : this.name);
+    this.featureType.setGeometryType(PopulationFileReader
+        .geometryClass(geometryType));
+    this.schema = new SchemaDefaultFeature();
+    Map<Integer, String[]> attLookup = new HashMap<Integer, String[]>();
+    this.kinds = new byte[nbAttributes];
+    for (int a = 0; a < nbAttributes; a++) {
+      String memberName = this.readString(position);
+      String nomField = this.readString(position);
+      String valueType = this.readString(position);
+      this.kinds[a] = this.buffer.get(position[0]++);
+      this.featureType.addFeatureAttribute(new AttributeType(memberName,
+          nomField, valueType));
+      attLookup.put(a, new String[] { nomField, memberName });
+    }
+    this.schema.setFeatureType(this.featureType);
+    this.featureType.setSchema(this.schema);
+    this.schema.setAttLookup(attLookup);
+
+    this.columnOffsets = new int[nbAttributes];
+    for (int a = 0; a < nbAttributes; a++) {
+      this.columnOffsets[a] = (int) this.buffer.getLong(attributesOffset + 8
+          * a);
+    }
+
+    this.nodeSize = this.buffer.getInt(this.indexOffset);
+    this.levelEnds = new int[this.buffer.getInt(this.indexOffset + 4)];
+    for (int l = 0; l < this.levelEnds.length; l++) {
+      this.levelEnds[l] = this.buffer.getInt(this.indexOffset + 8 + 4 * l);
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private static Class<? extends IGeometry> geometryClass(String name) {
+    if (name != null) {
+      try {
+        Class<?> c = Class.forName(name);
+        if (IGeometry.class.isAssignableFrom(c)) {
+          return (Class<? extends IGeometry>) c;
+        }
+      } catch (ClassNotFoundException e) {
+        // type par défaut
+      }
+    }
+    return GM_Object.class;
+  }
+
+  private String readString(int[] position) {
+    int length = this.buffer.getInt(position[0]);
+    position[0] += 4;
+    if (length < 0) {
+      return null;
+    }
+    String value = this.decode(position[0], length);
+    position[0] += length;
+    return value;
+  }
+
+  private String decode(int offset, int length) {
+    byte[] bytes = new byte[length];
+    for (int i = 0; i < length; i++) {
+      bytes[i] = this.buffer.get(offset + i);
+    }
+    return new String(bytes, PopulationFileReader.UTF8);
+  }
+
+  @Override
+  public void close() throws IOException {
+    this.file.close();
+  }
+
+  /**
+   * @return le nombre d'objets du fichier
+   */
+  public int size() {
+    return this.size;
+  }
+
+  /**
+   * @return 3 si des coordonnées z sont présentes, 2 sinon
+   */
+  public int getDimension() {
+    return this.dimension;
+  }
+
+  /**
+   * @return l'emprise de tous les objets, null si aucun n'a de géométrie
+   */
+  public IEnvelope getEnvelope() {
+    return this.envelope;
+  }
+
+  /**
+   * @return le nom de la population écrite
+   */
+  public String getName() {
+    return this.name;
+  }
+
+  public SchemaDefaultFeature getSchema() {
+    return this.schema;
+  }
+
+  public FeatureType getFeatureType() {
+    return this.featureType;
+  }
+
+  /*- Accès aux objets ----------------------------------*/
+
+  /**
+   * @param i indice de l'objet
+   * @return l'emprise de l'objet, null si sa géométrie est nulle ou vide
+   */
+  public IEnvelope getEnvelope(int i) {
+    int offset = this.featuresOffset + FEATURE_ENTRY * i;
+    double xmin = this.buffer.getDouble(offset);
+    if (Double.isNaN(xmin)) {
+      return null;
+    }
+    return new GM_Envelope(xmin, this.buffer.getDouble(offset + 8),
+        this.buffer.getDouble(offset + 16), this.buffer.getDouble(offset + 24));
+  }
+
+  /**
+   * @param i indice de l'objet
+   * @return l'identifiant de l'objet écrit
+   */
+  public int getId(int i) {
+    return this.buffer.getInt(this.featuresOffset + FEATURE_ENTRY * i + 36);
+  }
+
+  /**
+   * Décode la géométrie d'un objet.
+   * @param i indice de l'objet
+   * @return la géométrie de l'objet
+   */
+  public IGeometry getGeometry(int i) {
+    int[] position = new int[] { this.buffer.getInt(this.featuresOffset
+        + FEATURE_ENTRY * i + 32) };
+    return this.readGeometry(position);
+  }
+
+  /**
+   * Décode un attribut d'un objet.
+   * @param i indice de l'objet
+   * @param attribute indice de l'attribut dans le schéma
+   * @return la valeur de l'attribut, éventuellement null
+   */
+  public Object getAttribute(int i, int attribute) {
+    int offset = this.columnOffsets[attribute];
+    byte kind = this.buffer.get(offset);
+    offset++;
+    if ((this.buffer.get(offset + (i >> 3)) & (1 << (i & 7))) != 0) {
+      return null;
+    }
+    offset += (this.size + 7) / 8;
+    switch (kind) {
+      case INT:
+        return Integer.valueOf(this.buffer.getInt(offset + 4 * i));
+      case LONG:
+        return Long.valueOf(this.buffer.getLong(offset + 8 * i));
+      case FLOAT:
+        return Float.valueOf(this.buffer.getFloat(offset + 4 * i));
+      case DOUBLE:
+        return Double.valueOf(this.buffer.getDouble(offset + 8 * i));
+      case BOOLEAN:
+        return Boolean.valueOf(this.buffer.get(offset + i) != 0);
+      case STRING: {
+        int start = this.buffer.getInt(offset + 4 * i);
+        int end = this.buffer.getInt(offset + 4 * i + 4);
+        return this.decode(offset + 4 * (this.size + 1) + start, end - start);
+      }
+      default:
+        return null;
+    }
+  }
+
+  /**
+   * Crée l'objet d'indice <code>i</code> : un DefaultFeature partageant le
+   * schéma et le FeatureType du fichier.
+   * @param i indice de l'objet
+   * @return l'objet
+   */
+  public DefaultFeature getFeature(int i) {
+    DefaultFeature feature = new DefaultFeature(this.getGeometry(i));
+    feature.setId(this.getId(i));
+    feature.setFeatureType(this.featureType);
+    feature.setSchema(this.schema);
+    Object[] attributes = new Object[this.kinds.length];
+    for (int a = 0; a < attributes.length; a++) {
+      attributes[a] = this.getAttribute(i, a);
+    }
+    feature.setAttributes(attributes);
+    return feature;
+  }
+
+  /**
+   * Sélectionne les objets dont l'emprise intersecte une emprise donnée, à
+   * l'aide de l'index spatial du fichier.
+   * @param env emprise de sélection
+   * @return les indices des objets sélectionnés, en ordre croissant
+   */
+  public int[] select(IEnvelope env) {
+    if (this.levelEnds.length == 0 || this.levelEnds[0] == 0) {
+      return new int[0];
+    }
+    double xmin = env.minX(), ymin = env.minY();
+    double xmax = env.maxX(), ymax = env.maxY();
+    int boxesOffset = this.indexOffset + 8 + 4 * this.levelEnds.length;
+    int[] result = new int[16];
+    int nbResults = 0;
+    // pile des boîtes à visiter, avec leur niveau
+    int[] stack = new int[64];
+    int top = 0;
+    stack[top++] = this.levelEnds[this.levelEnds.length - 1] - 1;
+    stack[top++] = this.levelEnds.length - 1;
+    while (top > 0) {
+      int level = stack[--top];
+      int box = stack[--top];
+      int offset = boxesOffset + INDEX_ENTRY * box;
+      if (this.buffer.getDouble(offset) > xmax
+          || this.buffer.getDouble(offset + 8) > ymax
+          || this.buffer.getDouble(offset + 16) < xmin
+          || this.buffer.getDouble(offset + 24) < ymin) {
+        continue;
+      }
+      int index = this.buffer.getInt(offset + 32);
+      if (level == 0) {
+        if (nbResults == result.length) {
+          result = Arrays.copyOf(result, 2 * nbResults);
+        }
+        result[nbResults++] = index;
+        continue;
+      }
+      int end = Math.min(index + this.nodeSize, this.levelEnds[level - 1]);
+      for (int child = index; child < end; child++) {
+        if (top + 2 > stack.length) {
+          stack = Arrays.copyOf(stack, 2 * stack.length);
+        }
+        stack[top++] = child;
+        stack[top++] = level - 1;
+      }
+    }
+    result = Arrays.copyOf(result, nbResults);
+    Arrays.sort(result);
+    return result;
+  }
+
+  /**
+   * Crée une population contenant tous les objets du fichier.
+   * @return la population
+   */
+  public IPopulation<IFeature> readPopulation() {
+    Population<IFeature> population = this.newPopulation();
+    for (int i = 0; i < this.size; i++) {
+      population.add(this.getFeature(i));
+    }
+    return population;
+  }
+
+  /**
+   * Crée une population contenant les objets dont l'emprise intersecte
+   * l'emprise donnée. Seuls ces objets sont décodés.
+   * @param env emprise de sélection
+   * @return la population
+   */
+  public IPopulation<IFeature> readPopulation(IEnvelope env) {
+    Population<IFeature> population = this.newPopulation();
+    for (int i : this.select(env)) {
+      population.add(this.getFeature(i));
+    }
+    return population;
+  }
+
+  private Population<IFeature> newPopulation() {
+    Population<IFeature> population = new Population<IFeature>(this.name);
+    population.setFeatureType(this.featureType);
+    if (this.envelope != null) {
+      population.setCenter(this.envelope.center());
+    }
+    return population;
+  }
+
+  /*- Géométries ----------------------------------------*/
+
+  private int nextInt(int[] position) {
+    int value = this.buffer.getInt(this.structureOffset + 4 * position[0]);
+    position[0]++;
+    return value;
+  }
+
+  private IDirectPosition readPosition(int index) {
+    int offset = this.coordsOffset + 8 * this.dimension * index;
+    double x = this.buffer.getDouble(offset);
+    double y = this.buffer.getDouble(offset + 8);
+    if (this.dimension == 3) {
+      double z = this.buffer.getDouble(offset + 16);
+      if (!Double.isNaN(z)) {
+        return new DirectPosition(x, y, z);
+      }
+    }
+    return new DirectPosition(x, y);
+  }
+
+  private IDirectPositionList readPositions(int[] position) {
+    int start = this.nextInt(position);
+    int count = this.nextInt(position);
+    IDirectPositionList list = new DirectPositionList();
+    for (int k = 0; k < count; k++) {
+      list.add(this.readPosition(start + k));
+    }
+    return list;
+  }
+
+  private IGeometry readGeometry(int[] position) {
+    int type = this.nextInt(position);
+    switch (type) {
+      case NULL:
+        return null;
+      case POINT:
+        return new GM_Point(this.readPosition(this.nextInt(position)));
+      case LINESTRING:
+        return new GM_LineString(this.readPositions(position));
+      case POLYGON: {
+        int nbRings = this.nextInt(position);
+        if (nbRings == 0) {
+          return new GM_Polygon();
+        }
+        IPolygon polygon = new GM_Polygon(new GM_LineString(this
+            .readPositions(position)));
+        for (int r = 1; r < nbRings; r++) {
+          polygon.addInterior(new GM_Ring(new GM_LineString(this
+              .readPositions(position))));
+        }
+        return polygon;
+      }
+      case MULTIPOINT: {
+        GM_MultiPoint multiPoint = new GM_MultiPoint();
+        int n = this.nextInt(position);
+        for (int k = 0; k < n; k++) {
+          multiPoint.add((IPoint) this.readGeometry(position));
+        }
+        return multiPoint;
+      }
+      case MULTICURVE: {
+        GM_MultiCurve<IOrientableCurve> multiCurve = new GM_MultiCurve<IOrientableCurve>();
+        int n = this.nextInt(position);
+        for (int k = 0; k < n; k++) {
+          multiCurve.add((ILineString) this.readGeometry(position));
+        }
+        return multiCurve;
+      }
+      case MULTISURFACE: {
+        GM_MultiSurface<IOrientableSurface> multiSurface = new GM_MultiSurface<IOrientableSurface>();
+        int n = this.nextInt(position);
+        for (int k = 0; k < n; k++) {
+          multiSurface.add((IPolygon) this.readGeometry(position));
+        }
+        return multiSurface;
+      }
+      case AGGREGATE: {
+        GM_Aggregate<IGeometry> aggregate = new GM_Aggregate<IGeometry>();
+        int n = this.nextInt(position);
+        for (int k = 0; k < n; k++) {
+          aggregate.add(this.readGeometry(position));
+        }
+        return aggregate;
+      }
+      default:
+        throw new IllegalStateException("Unknown geometry type " + type); //$NON-NLS-1$
+    }
+  }
+}
@@ -0,0 +1,693 @@
+/*
+ * This file is part of the GeOxygene project source files. GeOxygene aims at
+ * providing an open framework which implements OGC/ISO specifications for the
+ * development and deployment of geographic (GIS) applications. It is a open
+ * source contribution of the COGIT laboratory at the Institut Géographique
+ * National (the French National Mapping Agency). See:
+ * http://oxygene-project.sourceforge.net Copyright (C) 2005 Institut
+ * Géographique National This library is free software; you can redistribute it
+ * and/or modify it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of the License,
+ * or any later version. This library is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser
+ * General Public License for more details. You should have received a copy of
+ * the GNU Lesser General Public License along with this library (see file
+ * LICENSE if present); if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+
+package fr.ign.cogit.geoxygene.util.conversion;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import fr.ign.cogit.geoxygene.api.feature.IFeature;
+import fr.ign.cogit.geoxygene.api.feature.IFeatureCollection;
+import fr.ign.cogit.geoxygene.api.feature.IPopulation;
+import fr.ign.cogit.geoxygene.api.feature.type.GF_AttributeType;
+import fr.ign.cogit.geoxygene.api.feature.type.GF_FeatureType;
+import fr.ign.cogit.geoxygene.api.spatial.coordgeom.IDirectPosition;
+import fr.ign.cogit.geoxygene.api.spatial.coordgeom.IDirectPositionList;
+import fr.ign.cogit.geoxygene.api.spatial.coordgeom.IEnvelope;
+import fr.ign.cogit.geoxygene.api.spatial.coordgeom.IPolygon;
+import fr.ign.cogit.geoxygene.api.spatial.geomaggr.IAggregate;
+import fr.ign.cogit.geoxygene.api.spatial.geomaggr.IMultiCurve;
+import fr.ign.cogit.geoxygene.api.spatial.geomaggr.IMultiPoint;
+import fr.ign.cogit.geoxygene.api.spatial.geomaggr.IMultiSurface;
+import fr.ign.cogit.geoxygene.api.spatial.geomprim.ICurve;
+import fr.ign.cogit.geoxygene.api.spatial.geomprim.IOrientableCurve;
+import fr.ign.cogit.geoxygene.api.spatial.geomprim.IOrientableSurface;
+import fr.ign.cogit.geoxygene.api.spatial.geomprim.IPoint;
+import fr.ign.cogit.geoxygene.api.spatial.geomroot.IGeometry;
+import fr.ign.cogit.geoxygene.schema.schemaConceptuelISOJeu.AttributeType;
+
+/**
+ * Ecriture d'une collection de features dans le format binaire colonnes de
+ * GeOxygene, relu par projection mémoire avec {@link PopulationFileReader}.
+ * <p>
+ * Le fichier contient, dans l'ordre :
+ * <ul>
+ * <li>un en-tête de taille fixe (nombre d'objets et d'attributs, dimension,
+ * emprise, positions des sections) ;
+ * <li>le schéma : nom de la population, FeatureType, type de géométrie et
+ * attributs (nom, nom de colonne, type de valeur) ;
+ * <li>une table des objets : emprise, identifiant et position de la structure
+ * de la géométrie de chaque objet ;
+ * <li>la structure des géométries (types, nombres de parties, indices de
+ * coordonnées) ;
+ * <li>un bloc unique de coordonnées (x, y et éventuellement z) ;
+ * <li>une colonne par attribut (masque des valeurs nulles puis valeurs) ;
+ * <li>un index spatial R-tree compacté (emprises triées selon la courbe de
+ * Hilbert) sur les emprises des objets.
+ * </ul>
+ */
+public class PopulationFileWriter {
+
+  private static final Charset UTF8 = Charset.forName("UTF-8"); //$NON-NLS-1$
+
+  /**
+   * Ecrit la collection <code>features</code> dans le fichier
+   * <code>fileName</code>. Les attributs écrits sont ceux du FeatureType de
+   * la collection ou, à défaut, de celui du premier objet.
+   * @param features collection à écrire
+   * @param fileName nom du fichier à créer
+   * @throws IOException en cas d'erreur d'écriture
+   * @throws IllegalArgumentException si une géométrie n'est pas d'un type
+   *           supporté par le format
+   */
+  public static void write(IFeatureCollection<? extends IFeature> features,
+      String fileName) throws IOException {
+    int n = features.size();
+    GF_FeatureType featureType = features.getFeatureType();
+    if (featureType == null && n > 0) {
+      featureType = features.get(0).getFeatureType();
+    }
+    List<GF_AttributeType> attributes = new ArrayList<GF_AttributeType>();
+    if (featureType != null && featureType.getFeatureAttributes() != null) {
+      attributes.addAll(featureType.getFeatureAttributes());
+    }
+
+    // dimension commune à toutes les coordonnées du fichier
+    int dimension = 2;
+    for (int i = 0; i < n && dimension == 2; i++) {
+      IGeometry geom = features.get(i).getGeom();
+      if (geom != null && PopulationFileWriter.hasZ(geom)) {
+        dimension = 3;
+      }
+    }
+
+    // géométries : structure et coordonnées
+    IntArray structure = new IntArray();
+    DoubleArray coords = new DoubleArray();
+    int[] structureStart = new int[n];
+    double[] boxes = new double[4 * n];
+    for (int i = 0; i < n; i++) {
+      IGeometry geom = features.get(i).getGeom();
+      structureStart[i] = structure.size;
+      PopulationFileWriter.encode(geom, dimension, structure, coords);
+      IEnvelope env = (geom == null || geom.isEmpty()) ? null : geom
+          .getEnvelope();
+      if (env == null) {
+        Arrays.fill(boxes, 4 * i, 4 * i + 4, Double.NaN);
+      } else {
+        boxes[4 * i] = env.minX();
+        boxes[4 * i + 1] = env.maxX();
+        boxes[4 * i + 2] = env.minY();
+        boxes[4 * i + 3] = env.maxY();
+      }
+    }
+    double[] extent = PopulationFileWriter.extent(boxes, n);
+
+    CountingOutputStream counter = new CountingOutputStream(
+        new BufferedOutputStream(new FileOutputStream(fileName), 1 << 16));
+    DataOutputStream out = new DataOutputStream(counter);
+    long[] offsets = new long[6];
+    try {
+      // en-tête provisoire, réécrit à la fin
+      PopulationFileWriter.writeHeader(out, n, attributes.size(), dimension,
+          extent, offsets);
+
+      // schéma
+      offsets[0] = counter.count;
+      String name = features instanceof IPopulation<?> ? ((IPopulation<?>) features)
+          .getNom() : null;
+      PopulationFileWriter.writeString(out, name);
+      PopulationFileWriter.writeString(out, featureType == null ? null
+          : featureType.getTypeName());
+      PopulationFileWriter.writeString(out,
+          featureType == null || featureType.getGeometryType() == null ? null
+              : featureType.getGeometryType().getName());
+      byte[] kinds = new byte[attributes.size()];
+      for (int a = 0; a < attributes.size(); a++) {
+        GF_AttributeType attribute = attributes.get(a);
+        kinds[a] = PopulationFileWriter.kind(attribute, features);
+        PopulationFileWriter.writeString(out, attribute.getMemberName());
+        PopulationFileWriter.writeString(out,
+            attribute instanceof AttributeType ? ((AttributeType) attribute)
+                .getNomField() : attribute.getMemberName());
+        PopulationFileWriter.writeString(out, attribute.getValueType());
+        out.writeByte(kinds[a]);
+      }
+
+      // table des objets
+      offsets[1] = counter.count;
+      for (int i = 0; i < n; i++) {
+        for (int k = 0; k < 4; k++) {
+          out.writeDouble(boxes[4 * i + k]);
+        }
+        out.writeInt(structureStart[i]);
+        out.writeInt(features.get(i).getId());
+      }
+
+      // structure des géométries
+      offsets[2] = counter.count;
+      for (int i = 0; i < structure.size; i++) {
+        out.writeInt(structure.values[i]);
+      }
+
+      // coordonnées
+      offsets[3] = counter.count;
+      for (int i = 0; i < coords.size; i++) {
+        out.writeDouble(coords.values[i]);
+      }
+
+      // colonnes d'attributs
+      offsets[4] = counter.count;
+      long columnsStart = offsets[4] + 8L * attributes.size();
+      long[] columnOffsets = new long[attributes.size()];
+      List<byte[]> columns = new ArrayList<byte[]>(attributes.size());
+      for (int a = 0; a < attributes.size(); a++) {
+        byte[] column = PopulationFileWriter.encodeColumn(features,
+            attributes.get(a), kinds[a]);
+        columnOffsets[a] = columnsStart;
+        columnsStart += column.length;
+        columns.add(column);
+      }
+      for (int a = 0; a < attributes.size(); a++) {
+        out.writeLong(columnOffsets[a]);
+      }
+      for (byte[] column : columns) {
+        out.write(column);
+      }
+
+      // index spatial
+      offsets[5] = counter.count;
+      PopulationFileWriter.writeIndex(out, boxes, n, extent);
+    } finally {
+      out.close();
+    }
+
+    // réécriture de l'en-tête avec les positions des sections
+    RandomAccessFile file = new RandomAccessFile(fileName, "rw"); //$NON-NLS-1$
+    try {
+      ByteArrayOutputStream header = new ByteArrayOutputStream(
+          PopulationFileReader.HEADER_SIZE);
+      PopulationFileWriter.writeHeader(new DataOutputStream(header), n,
+          attributes.size(), dimension, extent, offsets);
+      file.seek(0);
+      file.write(header.toByteArray());
+    } finally {
+      file.close();
+    }
+  }
+
+  private static void writeHeader(DataOutputStream out, int n,
+      int nbAttributes, int dimension, double[] extent, long[] offsets)
+      throws IOException {
+    out.writeInt(PopulationFileReader.MAGIC);
+    out.writeInt(PopulationFileReader.VERSION);
+    out.writeInt(n);
+    out.writeInt(nbAttributes);
+    out.writeInt(dimension);
+    out.writeInt(0);
+    for (double d : extent) {
+      out.writeDouble(d);
+    }
+    for (long offset : offsets) {
+      out.writeLong(offset);
+    }
+  }
+
+  private static void writeString(DataOutputStream out, String value)
+      throws IOException {
+    if (value == null) {
+      out.writeInt(-1);
+      return;
+    }
+    byte[] bytes = value.getBytes(PopulationFileWriter.UTF8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  private static double[] extent(double[] boxes, int n) {
+    double[] extent = new double[] { Double.POSITIVE_INFINITY,
+        Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY,
+        Double.NEGATIVE_INFINITY };
+    for (int i = 0; i < n; i++) {
+      if (Double.isNaN(boxes[4 * i])) {
+        continue;
+      }
+      extent[0] = Math.min(extent[0], boxes[4 * i]);
+      extent[1] = Math.max(extent[1], boxes[4 * i + 1]);
+      extent[2] = Math.min(extent[2], boxes[4 * i + 2]);
+      extent[3] = Math.max(extent[3], boxes[4 * i + 3]);
+    }
+    if (extent[0] > extent[1]) {
+      Arrays.fill(extent, Double.NaN);
+    }
+    return extent;
+  }
+
+  /*- Géométries ----------------------------------------*/
+
+  private static boolean hasZ(IGeometry geom) {
+    IDirectPositionList coord = geom.coord();
+    for (int i = 0; i < coord.size(); i++) {
+      if (!Double.isNaN(coord.get(i).getZ())) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static void encode(IGeometry geom, int dimension, IntArray structure,
+      DoubleArray coords) {
+    if (geom == null) {
+      structure.add(PopulationFileReader.NULL);
+    } else if (geom instanceof IPoint) {
+      structure.add(PopulationFileReader.POINT);
+      structure.add(coords.size / dimension);
+      PopulationFileWriter.addPosition(((IPoint) geom).getPosition(),
+          dimension, coords);
+    } else if (geom instanceof IMultiSurface<?>) {
+      List<IPolygon> polygons = new ArrayList<IPolygon>();
+      PopulationFileWriter.flatten((IMultiSurface<IOrientableSurface>) geom,
+          polygons);
+      structure.add(PopulationFileReader.MULTISURFACE);
+      structure.add(polygons.size());
+      for (IPolygon polygon : polygons) {
+        PopulationFileWriter.encode(polygon, dimension, structure, coords);
+      }
+    } else if (geom instanceof IMultiCurve<?>) {
+      IMultiCurve<IOrientableCurve> multiCurve = (IMultiCurve<IOrientableCurve>) geom;
+      structure.add(PopulationFileReader.MULTICURVE);
+      structure.add(multiCurve.size());
+      for (int i = 0; i < multiCurve.size(); i++) {
+        structure.add(PopulationFileReader.LINESTRING);
+        PopulationFileWriter.addPositions(multiCurve.get(i).coord(),
+            dimension, structure, coords);
+      }
+    } else if (geom instanceof IMultiPoint) {
+      IMultiPoint multiPoint = (IMultiPoint) geom;
+      structure.add(PopulationFileReader.MULTIPOINT);
+      structure.add(multiPoint.size());
+      for (int i = 0; i < multiPoint.size(); i++) {
+        PopulationFileWriter.encode(multiPoint.get(i), dimension, structure,
+            coords);
+      }
+    } else if (geom instanceof IPolygon) {
+      IPolygon polygon = (IPolygon) geom;
+      structure.add(PopulationFileReader.POLYGON);
+      if (polygon.getExterior() == null) {
+        structure.add(0);
+        return;
+      }
+      structure.add(1 + polygon.sizeInterior());
+      PopulationFileWriter.addPositions(polygon.exteriorCoord(), dimension,
+          structure, coords);
+      for (int i = 0; i < polygon.sizeInterior(); i++) {
+        PopulationFileWriter.addPositions(polygon.interiorCoord(i), dimension,
+            structure, coords);
+      }
+    } else if (geom instanceof ICurve) {
+      structure.add(PopulationFileReader.LINESTRING);
+      PopulationFileWriter.addPositions(geom.coord(), dimension, structure,
+          coords);
+    } else if (geom instanceof IAggregate<?>) {
+      IAggregate<IGeometry> aggregate = (IAggregate<IGeometry>) geom;
+      structure.add(PopulationFileReader.AGGREGATE);
+      structure.add(aggregate.size());
+      for (int i = 0; i < aggregate.size(); i++) {
+        PopulationFileWriter.encode(aggregate.get(i), dimension, structure,
+            coords);
+      }
+    } else {
+      throw new IllegalArgumentException("Unsupported geometry type " //$NON-NLS-1$
+          + geom.getClass().getName());
+    }
+  }
+
+  private static void flatten(IMultiSurface<IOrientableSurface> multiSurface,
+      List<IPolygon> polygons) {
+    for (int i = 0; i < multiSurface.size(); i++) {
+      IGeometry surface = multiSurface.get(i);
+      if (surface instanceof IPolygon) {
+        polygons.add((IPolygon) surface);
+      } else if (surface instanceof IMultiSurface<?>) {
+        @SuppressWarnings("unchecked")
+        IMultiSurface<IOrientableSurface> inner = (IMultiSurface<IOrientableSurface>) surface;
+        PopulationFileWriter.flatten(inner, polygons);
+      } else {
+        throw new IllegalArgumentException("Unsupported geometry type " //$NON-NLS-1$
+            + surface.getClass().getName());
+      }
+    }
+  }
+
+  private static void addPosition(IDirectPosition position, int dimension,
+      DoubleArray coords) {
+    coords.add(position.getX());
+    coords.add(position.getY());
+    if (dimension == 3) {
+      coords.add(position.getZ());
+    }
+  }
+
+  private static void addPositions(IDirectPositionList list, int dimension,
+      IntArray structure, DoubleArray coords) {
+    structure.add(coords.size / dimension);
+    structure.add(list.size());
+    for (int i = 0; i < list.size(); i++) {
+      PopulationFileWriter.addPosition(list.get(i), dimension, coords);
+    }
+  }
+
+  /*- Attributs -----------------------------------------*/
+
+  private static byte kind(GF_AttributeType attribute,
+      IFeatureCollection<? extends IFeature> features) {
+    String valueType = attribute.getValueType();
+    if (valueType != null) {
+      String type = valueType.toLowerCase();
+      if (type.equals("integer") || type.equals("int") //$NON-NLS-1$ //$NON-NLS-2$
+          || type.equals("short") || type.equals("byte")) { //$NON-NLS-1$ //$NON-NLS-2$
+        return PopulationFileReader.INT;
+      }
+      if (type.equals("long")) { //$NON-NLS-1$
+        return PopulationFileReader.LONG;
+      }
+      if (type.equals("float")) { //$NON-NLS-1$
+        return PopulationFileReader.FLOAT;
+      }
+      if (type.equals("double") || type.equals("real")) { //$NON-NLS-1$ //$NON-NLS-2$
+        return PopulationFileReader.DOUBLE;
+      }
+      if (type.equals("boolean")) { //$NON-NLS-1$
+        return PopulationFileReader.BOOLEAN;
+      }
+      if (type.equals("string")) { //$NON-NLS-1$
+        return PopulationFileReader.STRING;
+      }
+    }
+    // type inconnu : déduit de la première valeur non nulle
+    for (IFeature feature : features) {
+      Object value = feature.getAttribute(attribute.getMemberName());
+      if (value == null) {
+        continue;
+      }
+      if (value instanceof Integer || value instanceof Short
+          || value instanceof Byte) {
+        return PopulationFileReader.INT;
+      }
+      if (value instanceof Long) {
+        return PopulationFileReader.LONG;
+      }
+      if (value instanceof Float) {
+        return PopulationFileReader.FLOAT;
+      }
+      if (value instanceof Number) {
+        return PopulationFileReader.DOUBLE;
+      }
+      if (value instanceof Boolean) {
+        return PopulationFileReader.BOOLEAN;
+      }
+      break;
+    }
+    return PopulationFileReader.STRING;
+  }
+
+  /**
+   * Encode une colonne : type, masque des valeurs nulles puis valeurs. Les
+   * chaînes sont précédées de la table de leurs positions.
+   */
+  private static byte[] encodeColumn(
+      IFeatureCollection<? extends IFeature> features,
+      GF_AttributeType attribute, byte kind) throws IOException {
+    int n = features.size();
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    Object[] values = new Object[n];
+    byte[] nulls = new byte[(n + 7) / 8];
+    for (int i = 0; i < n; i++) {
+      values[i] = PopulationFileWriter.convert(features.get(i).getAttribute(
+          attribute.getMemberName()), kind);
+      if (values[i] == null) {
+        nulls[i >> 3] |= 1 << (i & 7);
+      }
+    }
+    out.writeByte(kind);
+    out.write(nulls);
+    if (kind == PopulationFileReader.STRING) {
+      byte[][] strings = new byte[n][];
+      int position = 0;
+      for (int i = 0; i < n; i++) {
+        strings[i] = values[i] == null ? new byte[0] : values[i].toString()
+            .getBytes(PopulationFileWriter.UTF8);
+        out.writeInt(position);
+        position += strings[i].length;
+      }
+      out.writeInt(position);
+      for (byte[] string : strings) {
+        out.write(string);
+      }
+    } else {
+      for (int i = 0; i < n; i++) {
+        Object value = values[i];
+        switch (kind) {
+          case PopulationFileReader.INT:
+            out.writeInt(value == null ? 0 : ((Number) value).intValue());
+            break;
+          case PopulationFileReader.LONG:
+            out.writeLong(value == null ? 0 : ((Number) value).longValue());
+            break;
+          case PopulationFileReader.FLOAT:
+            out.writeFloat(value == null ? Float.NaN : ((Number) value)
+                .floatValue());
+            break;
+          case PopulationFileReader.DOUBLE:
+            out.writeDouble(value == null ? Double.NaN : ((Number) value)
+                .doubleValue());
+            break;
+          case PopulationFileReader.BOOLEAN:
+            out.writeBoolean(value != null && ((Boolean) value).booleanValue());
+            break;
+          default:
+            break;
+        }
+      }
+    }
+    out.close();
+    return bytes.toByteArray();
+  }
+
+  /**
+   * Convertit une valeur dans le type de la colonne, null si la conversion est
+   * impossible.
+   */
+  private static Object convert(Object value, byte kind) {
+    if (value == null || kind == PopulationFileReader.STRING) {
+      return value;
+    }
+    if (kind == PopulationFileReader.BOOLEAN) {
+      if (value instanceof Boolean) {
+        return value;
+      }
+      return Boolean.valueOf(value.toString());
+    }
+    if (value instanceof Number) {
+      return value;
+    }
+    try {
+      return Double.valueOf(value.toString().trim());
+    } catch (NumberFormatException e) {
+      return null;
+    }
+  }
+
+  /*- Index spatial -------------------------------------*/
+
+  /**
+   * Ecrit un R-tree compacté : les emprises des objets sont triées selon la
+   * courbe de Hilbert de leur centre et regroupées par paquets de
+   * {@link PopulationFileReader#NODE_SIZE}, niveau par niveau jusqu'à la
+   * racine.
+   */
+  private static void writeIndex(DataOutputStream out, final double[] boxes,
+      int n, double[] extent) throws IOException {
+    List<Integer> items = new ArrayList<Integer>();
+    for (int i = 0; i < n; i++) {
+      if (!Double.isNaN(boxes[4 * i])) {
+        items.add(i);
+      }
+    }
+    final long[] hilbert = new long[n];
+    double width = extent[1] - extent[0], height = extent[3] - extent[2];
+    for (int i : items) {
+      double x = width > 0 ? ((boxes[4 * i] + boxes[4 * i + 1]) / 2 - extent[0])
+          / width : 0;
+      double y = height > 0 ? ((boxes[4 * i + 2] + boxes[4 * i + 3]) / 2 - extent[2])
+          / height : 0;
+      hilbert[i] = PopulationFileWriter.hilbert((int) (x * 65535),
+          (int) (y * 65535));
+    }
+    Collections.sort(items, new Comparator<Integer>() {
+      @Override
+      public int compare(Integer i1, Integer i2) {
+        int c = Long.compare(hilbert[i1], hilbert[i2]);
+        return c != 0 ? c : i1.compareTo(i2);
+      }
+    });
+
+    int nodeSize = PopulationFileReader.NODE_SIZE;
+    // niveaux : feuilles (objets) puis noeuds jusqu'à la racine
+    List<double[]> levelBoxes = new ArrayList<double[]>();
+    List<int[]> levelIndices = new ArrayList<int[]>();
+    double[] level = new double[4 * items.size()];
+    int[] indices = new int[items.size()];
+    for (int k = 0; k < items.size(); k++) {
+      int i = items.get(k);
+      level[4 * k] = boxes[4 * i];
+      level[4 * k + 1] = boxes[4 * i + 2];
+      level[4 * k + 2] = boxes[4 * i + 1];
+      level[4 * k + 3] = boxes[4 * i + 3];
+      indices[k] = i;
+    }
+    levelBoxes.add(level);
+    levelIndices.add(indices);
+    int start = 0;
+    while (level.length / 4 > 1) {
+      int size = level.length / 4;
+      int nbNodes = (size + nodeSize - 1) / nodeSize;
+      double[] parents = new double[4 * nbNodes];
+      int[] children = new int[nbNodes];
+      for (int p = 0; p < nbNodes; p++) {
+        parents[4 * p] = Double.POSITIVE_INFINITY;
+        parents[4 * p + 1] = Double.POSITIVE_INFINITY;
+        parents[4 * p + 2] = Double.NEGATIVE_INFINITY;
+        parents[4 * p + 3] = Double.NEGATIVE_INFINITY;
+        // position absolue du premier fils dans la liste des emprises
+        children[p] = start + p * nodeSize;
+        for (int c = p * nodeSize; c < Math.min(size, (p + 1) * nodeSize); c++) {
+          parents[4 * p] = Math.min(parents[4 * p], level[4 * c]);
+          parents[4 * p + 1] = Math.min(parents[4 * p + 1], level[4 * c + 1]);
+          parents[4 * p + 2] = Math.max(parents[4 * p + 2], level[4 * c + 2]);
+          parents[4 * p + 3] = Math.max(parents[4 * p + 3], level[4 * c + 3]);
+        }
+      }
+      start += size;
+      level = parents;
+      levelBoxes.add(parents);
+      levelIndices.add(children);
+    }
+
+    out.writeInt(nodeSize);
+    out.writeInt(levelBoxes.size());
+    int end = 0;
+    for (double[] l : levelBoxes) {
+      end += l.length / 4;
+      out.writeInt(end);
+    }
+    for (int l = 0; l < levelBoxes.size(); l++) {
+      double[] b = levelBoxes.get(l);
+      int[] idx = levelIndices.get(l);
+      for (int k = 0; k < idx.length; k++) {
+        for (int c = 0; c < 4; c++) {
+          out.writeDouble(b[4 * k + c]);
+        }
+        out.writeInt(idx[k]);
+      }
+    }
+  }
+
+  /**
+   * Position d'un point d'une grille 65536 x 65536 sur la courbe de Hilbert.
+   */
+  private static long hilbert(int x, int y) {
+    long d = 0;
+    for (int s = 1 << 15; s > 0; s >>= 1) {
+      int rx = (x & s) > 0 ? 1 : 0;
+      int ry = (y & s) > 0 ? 1 : 0;
+      d += (long) s * s * ((3 * rx) ^ ry);
+      if (ry == 0) {
+        if (rx == 1) {
+          x = s - 1 - x;
+          y = s - 1 - y;
+        }
+        int t = x;
+        x = y;
+        y = t;
+      }
+    }
+    return d;
+  }
+
+  /*- Outils --------------------------------------------*/
+
+  private static class IntArray {
+    int[] values = new int[1024];
+    int size = 0;
+
+    void add(int value) {
+      if (this.size == this.values.length) {
+        this.values = Arrays.copyOf(this.values, 2 * this.size);
+      }
+      this.values[this.size++] = value;
+    }
+  }
+
+  private static class DoubleArray {
+    double[] values = new double[1024];
+    int size = 0;
+
+    void add(double value) {
+      if (this.size == this.values.length) {
+        this.values = Arrays.copyOf(this.values, 2 * this.size);
+      }
+      this.values[this.size++] = value;
+    }
+  }
+
+  private static class CountingOutputStream extends FilterOutputStream {
+    long count = 0;
+
+    CountingOutputStream(OutputStream out) {
+      super(out);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      this.out.write(b);
+      this.count++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      this.out.write(b, off, len);
+      this.count += len;
+    }
+  }
+}
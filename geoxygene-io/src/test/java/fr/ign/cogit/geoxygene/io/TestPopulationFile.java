@@ -0,0 +1,144 @@
+package fr.ign.cogit.geoxygene.io;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import fr.ign.cogit.geoxygene.api.feature.IFeature;
+import fr.ign.cogit.geoxygene.api.feature.IPopulation;
+import fr.ign.cogit.geoxygene.api.spatial.coordgeom.IDirectPositionList;
+import fr.ign.cogit.geoxygene.api.spatial.coordgeom.IEnvelope;
+import fr.ign.cogit.geoxygene.api.spatial.geomroot.IGeometry;
+import fr.ign.cogit.geoxygene.feature.DefaultFeature;
+import fr.ign.cogit.geoxygene.feature.Population;
+import fr.ign.cogit.geoxygene.feature.SchemaDefaultFeature;
+import fr.ign.cogit.geoxygene.schema.schemaConceptuelISOJeu.AttributeType;
+import fr.ign.cogit.geoxygene.schema.schemaConceptuelISOJeu.FeatureType;
+import fr.ign.cogit.geoxygene.spatial.coordgeom.DirectPosition;
+import fr.ign.cogit.geoxygene.spatial.coordgeom.DirectPositionList;
+import fr.ign.cogit.geoxygene.spatial.coordgeom.GM_Envelope;
+import fr.ign.cogit.geoxygene.spatial.coordgeom.GM_LineString;
+import fr.ign.cogit.geoxygene.spatial.coordgeom.GM_Polygon;
+import fr.ign.cogit.geoxygene.spatial.geomprim.GM_Point;
+import fr.ign.cogit.geoxygene.util.conversion.PopulationFileReader;
+import fr.ign.cogit.geoxygene.util.conversion.PopulationFileWriter;
+
+public class TestPopulationFile {
+
+  private IPopulation<IFeature> population(int n, Random random) {
+    Population<IFeature> population = new Population<IFeature>("parcelles");
+    FeatureType featureType = new FeatureType();
+    featureType.setTypeName("parcelles");
+    featureType.addFeatureAttribute(new AttributeType("id", "ID", "Integer"));
+    featureType.addFeatureAttribute(new AttributeType("surface", "SURF",
+        "Double"));
+    featureType.addFeatureAttribute(new AttributeType("nom", "NOM", "String"));
+    SchemaDefaultFeature schema = new SchemaDefaultFeature();
+    schema.setFeatureType(featureType);
+    featureType.setSchema(schema);
+    Map<Integer, String[]> attLookup = new HashMap<Integer, String[]>();
+    attLookup.put(0, new String[] { "ID", "id" });
+    attLookup.put(1, new String[] { "SURF", "surface" });
+    attLookup.put(2, new String[] { "NOM", "nom" });
+    schema.setAttLookup(attLookup);
+    population.setFeatureType(featureType);
+
+    for (int i = 0; i < n; i++) {
+      double x = random.nextDouble() * 10000, y = random.nextDouble() * 10000;
+      IGeometry geom;
+      if (i % 3 == 0) {
+        geom = new GM_Point(new DirectPosition(x, y));
+      } else {
+        IDirectPositionList points = new DirectPositionList();
+        points.add(new DirectPosition(x, y));
+        points.add(new DirectPosition(x + random.nextDouble() * 50, y));
+        points.add(new DirectPosition(x, y + random.nextDouble() * 50));
+        if (i % 3 == 1) {
+          geom = new GM_LineString(points);
+        } else {
+          points.add(new DirectPosition(x, y));
+          geom = new GM_Polygon(new GM_LineString(points));
+        }
+      }
+      DefaultFeature feature = new DefaultFeature(geom);
+      feature.setId(i);
+      feature.setFeatureType(featureType);
+      feature.setSchema(schema);
+      feature.setAttributes(new Object[] { Integer.valueOf(i),
+          Double.valueOf(geom.area()), i % 10 == 0 ? null : "parcelle " + i });
+      population.add(feature);
+    }
+    return population;
+  }
+
+  @Test
+  public void testWriteRead() throws Exception {
+    IPopulation<IFeature> population = this.population(3000, new Random(42));
+    File file = File.createTempFile("parcelles", ".gxp");
+    file.deleteOnExit();
+    PopulationFileWriter.write(population, file.getAbsolutePath());
+
+    PopulationFileReader reader = new PopulationFileReader(
+        file.getAbsolutePath());
+    try {
+      Assert.assertEquals(population.size(), reader.size());
+      Assert.assertEquals("parcelles", reader.getName());
+      Assert.assertEquals(3, reader.getFeatureType().getFeatureAttributes()
+          .size());
+      for (int i = 0; i < population.size(); i++) {
+        DefaultFeature expected = (DefaultFeature) population.get(i);
+        DefaultFeature read = reader.getFeature(i);
+        Assert.assertEquals(expected.getId(), read.getId());
+        Assert.assertEquals(expected.getGeom().getClass(), read.getGeom()
+            .getClass());
+        Assert.assertEquals(expected.getGeom().toString(), read.getGeom()
+            .toString());
+        Assert.assertArrayEquals(expected.getAttributes(), read
+            .getAttributes());
+        Assert.assertEquals(expected.getAttribute("nom"), read
+            .getAttribute("nom"));
+      }
+    } finally {
+      reader.close();
+    }
+  }
+
+  @Test
+  public void testSelect() throws Exception {
+    Random random = new Random(7);
+    IPopulation<IFeature> population = this.population(5000, random);
+    File file = File.createTempFile("parcelles", ".gxp");
+    file.deleteOnExit();
+    PopulationFileWriter.write(population, file.getAbsolutePath());
+
+    PopulationFileReader reader = new PopulationFileReader(
+        file.getAbsolutePath());
+    try {
+      for (int k = 0; k < 20; k++) {
+        double x = random.nextDouble() * 10000, y = random.nextDouble() * 10000;
+        IEnvelope env = new GM_Envelope(x, x + 800, y, y + 500);
+        List<Integer> expected = new ArrayList<Integer>();
+        for (int i = 0; i < population.size(); i++) {
+          if (population.get(i).getGeom().getEnvelope().intersects(env)) {
+            expected.add(i);
+          }
+        }
+        int[] selected = reader.select(env);
+        Assert.assertEquals(expected.size(), selected.length);
+        for (int i = 0; i < selected.length; i++) {
+          Assert.assertEquals(expected.get(i).intValue(), selected[i]);
+        }
+        Assert.assertEquals(expected.size(), reader.readPopulation(env)
+            .size());
+      }
+    } finally {
+      reader.close();
+    }
+  }
+}
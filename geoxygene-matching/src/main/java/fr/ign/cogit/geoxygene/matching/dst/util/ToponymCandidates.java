@@ -0,0 +1,154 @@
+/*******************************************************************************
+ * This file is part of the GeOxygene project source files.
+ *
+ * GeOxygene aims at providing an open framework which implements OGC/ISO
+ * specifications for the development and deployment of geographic (GIS)
+ * applications. It is a open source contribution of the COGIT laboratory at the
+ * Institut Géographique National (the French National Mapping Agency).
+ *
+ * See: http://oxygene-project.sourceforge.net
+ *
+ * Copyright (C) 2005 Institut Géographique National
+ *
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library (see file LICENSE if present); if not, write to the
+ * Free Software Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA
+ * 02111-1307 USA
+ *******************************************************************************/
+
+package fr.ign.cogit.geoxygene.matching.dst.util;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import fr.ign.cogit.geoxygene.api.feature.IFeature;
+import fr.ign.cogit.geoxygene.api.spatial.coordgeom.IDirectPosition;
+import fr.ign.cogit.geoxygene.api.spatial.coordgeom.IEnvelope;
+import fr.ign.cogit.geoxygene.util.string.ToponymIndex;
+
+/**
+ * Sélection des candidats d'appariement par leur toponyme.
+ * <p>
+ * Les objets candidats sont indexés une fois pour toutes par leur toponyme
+ * (voir {@link ToponymIndex}) et par le centre de leur enveloppe. Pour chaque
+ * objet de référence, on récupère ainsi sans parcourir tous les candidats
+ * ceux dont le nom est proche et qui sont dans un rayon donné, avant de les
+ * soumettre aux critères (sources) du processus de décision.
+ * <p>
+ * Le rayon porte sur la distance entre les géométries, comme dans
+ * {@link fr.ign.cogit.geoxygene.api.feature.IPopulation#selectionElementsProchesGenerale}
+ * : les centres des enveloppes ne servent qu'à un premier filtre, élargi des
+ * demi-diagonales des enveloppes.
+ *
+ */
+public class ToponymCandidates {
+
+  private final ToponymIndex<IFeature> index = new ToponymIndex<IFeature>();
+  private final String attributeNameRef;
+  /** Plus grande demi-diagonale des enveloppes des candidats. */
+  private double maxExtent = 0.0;
+
+  /**
+   * @param candidates objets candidats
+   * @param attributeNameCandidat attribut portant le toponyme des candidats
+   * @param attributeNameRef attribut portant le toponyme des objets de
+   *          référence
+   */
+  public ToponymCandidates(Collection<? extends IFeature> candidates,
+      String attributeNameCandidat, String attributeNameRef) {
+    this.attributeNameRef = attributeNameRef;
+    for (IFeature candidate : candidates) {
+      Object name = candidate.getAttribute(attributeNameCandidat);
+      if (name == null) {
+        continue;
+      }
+      if (candidate.getGeom() == null || candidate.getGeom().isEmpty()) {
+        this.index.add(name.toString(), candidate);
+      } else {
+        IEnvelope envelope = candidate.getGeom().getEnvelope();
+        IDirectPosition center = envelope.center();
+        this.index.add(name.toString(), candidate, center.getX(), center
+            .getY());
+        this.maxExtent = Math.max(this.maxExtent, extent(envelope));
+      }
+    }
+  }
+
+  /**
+   * @return l'index des toponymes des candidats
+   */
+  public ToponymIndex<IFeature> getIndex() {
+    return this.index;
+  }
+
+  /**
+   * Candidats dont le toponyme est à une distance d'édition au plus
+   * maxDistance de celui de l'objet de référence.
+   * @param reference objet de référence
+   * @param maxDistance distance de Levenshtein maximale
+   * @return les candidats, du plus proche au plus éloigné en distance
+   *         d'édition
+   */
+  public List<IFeature> select(IFeature reference, int maxDistance) {
+    return this.select(reference, maxDistance, Double.POSITIVE_INFINITY);
+  }
+
+  /**
+   * Candidats dont le toponyme est à une distance d'édition au plus
+   * maxDistance de celui de l'objet de référence et dont la géométrie est à
+   * moins de radius de la sienne. Un objet de référence sans géométrie n'a
+   * aucun candidat dans un rayon fini.
+   * @param reference objet de référence
+   * @param maxDistance distance de Levenshtein maximale
+   * @param radius rayon de recherche
+   * @return les candidats, du plus proche au plus éloigné en distance
+   *         d'édition
+   */
+  public List<IFeature> select(IFeature reference, int maxDistance,
+      double radius) {
+    List<IFeature> result = new ArrayList<IFeature>();
+    Object name = reference.getAttribute(this.attributeNameRef);
+    if (name == null) {
+      return result;
+    }
+    List<ToponymIndex.Match<IFeature>> matches;
+    if (Double.isInfinite(radius)) {
+      matches = this.index.search(name.toString(), maxDistance);
+    } else {
+      if (reference.getGeom() == null || reference.getGeom().isEmpty()) {
+        return result;
+      }
+      // deux géométries à moins de radius ont des centres d'enveloppe à
+      // moins de radius plus leurs demi-diagonales
+      IEnvelope envelope = reference.getGeom().getEnvelope();
+      IDirectPosition center = envelope.center();
+      matches = this.index.search(name.toString(), maxDistance, center.getX(),
+          center.getY(), radius + extent(envelope) + this.maxExtent);
+    }
+    for (ToponymIndex.Match<IFeature> match : matches) {
+      if (Double.isInfinite(radius)
+          || match.getValue().getGeom().distance(reference.getGeom()) < radius) {
+        result.add(match.getValue());
+      }
+    }
+    return result;
+  }
+
+  /**
+   * @return la demi-diagonale de l'enveloppe, distance maximale entre son
+   *         centre et un point de la géométrie
+   */
+  private static double extent(IEnvelope envelope) {
+    return Math.hypot(envelope.width(), envelope.length()) / 2;
+  }
+}
@@ -0,0 +1,143 @@
+package fr.ign.cogit.geoxygene.matching.dst.util;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import fr.ign.cogit.geoxygene.api.feature.IFeature;
+import fr.ign.cogit.geoxygene.api.spatial.coordgeom.IDirectPositionList;
+import fr.ign.cogit.geoxygene.api.spatial.geomroot.IGeometry;
+import fr.ign.cogit.geoxygene.feature.DefaultFeature;
+import fr.ign.cogit.geoxygene.spatial.coordgeom.DirectPosition;
+import fr.ign.cogit.geoxygene.spatial.coordgeom.DirectPositionList;
+import fr.ign.cogit.geoxygene.spatial.coordgeom.GM_Envelope;
+import fr.ign.cogit.geoxygene.spatial.coordgeom.GM_LineString;
+import fr.ign.cogit.geoxygene.spatial.coordgeom.GM_Polygon;
+import fr.ign.cogit.geoxygene.spatial.geomprim.GM_Point;
+
+public class ToponymCandidatesTest {
+
+  private static final String[] NAMES = { "Mont Blanc", "Mont Rond",
+      "Aiguille Verte", "Dent du Géant" };
+
+  /**
+   * Objet portant son toponyme dans les attributs NOM et toponyme.
+   */
+  private static class Named extends DefaultFeature {
+    private final String name;
+
+    public Named(String name, IGeometry geom) {
+      super(geom);
+      this.name = name;
+    }
+
+    @Override
+    public Object getAttribute(String nom) {
+      if (nom.equals("NOM") || nom.equals("toponyme")) {
+        return this.name;
+      }
+      return super.getAttribute(nom);
+    }
+  }
+
+  private static IGeometry point(double x, double y) {
+    return new GM_Point(new DirectPosition(x, y));
+  }
+
+  private static IGeometry line(double... coords) {
+    IDirectPositionList points = new DirectPositionList();
+    for (int i = 0; i < coords.length; i += 2) {
+      points.add(new DirectPosition(coords[i], coords[i + 1]));
+    }
+    return new GM_LineString(points);
+  }
+
+  private static Set<IFeature> select(ToponymCandidates candidates,
+      IFeature reference, int maxDistance, double radius) {
+    return new HashSet<IFeature>(candidates.select(reference, maxDistance,
+        radius));
+  }
+
+  @Test
+  public void testGeometryDistance() {
+    IFeature reference = new Named("Mont Blanc", point(0, 0));
+    List<IFeature> features = new ArrayList<IFeature>();
+    // longue crête à moins de 5 m, dont le centre de l'enveloppe est à 250 m
+    IFeature ridge = new Named("Mont Blanc", line(-5, -500, 5, 1000));
+    features.add(ridge);
+    // à 40 m
+    IFeature near = new Named("Mont-Blanc", point(40, 0));
+    features.add(near);
+    // centre de l'enveloppe sur la référence, mais ligne à 100 m
+    features.add(new Named("Mont Blanc", line(-100, 100, 100, 100, 100, -100)));
+    // à 60 m
+    features.add(new Named("Mont Blanc", point(0, 60)));
+    // nom trop différent
+    features.add(new Named("Mont Rond", point(10, 0)));
+    // sans géométrie
+    features.add(new Named("Mont Blanc", null));
+    ToponymCandidates candidates = new ToponymCandidates(features, "NOM",
+        "toponyme");
+
+    Set<IFeature> expected = new HashSet<IFeature>();
+    expected.add(ridge);
+    expected.add(near);
+    Assert.assertEquals(expected, select(candidates, reference, 1, 50.0));
+    // sans rayon, tous les toponymes proches
+    Assert.assertEquals(5, candidates.select(reference, 1).size());
+    // une référence sans géométrie n'a aucun candidat dans un rayon fini
+    Assert.assertTrue(candidates.select(new Named("Mont Blanc", null), 1,
+        50.0).isEmpty());
+  }
+
+  /**
+   * Compare la sélection à un parcours de tous les candidats.
+   */
+  @Test
+  public void testSameAsNestedLoop() {
+    Random random = new Random(35);
+    List<IFeature> features = new ArrayList<IFeature>();
+    for (int i = 0; i < 300; i++) {
+      String name = NAMES[random.nextInt(NAMES.length)];
+      double x = random.nextDouble() * 1000;
+      double y = random.nextDouble() * 1000;
+      IGeometry geom;
+      switch (i % 3) {
+        case 0:
+          geom = point(x, y);
+          break;
+        case 1:
+          geom = line(x, y, x + random.nextDouble() * 300, y
+              + random.nextDouble() * 300);
+          break;
+        default:
+          geom = new GM_Polygon(new GM_Envelope(x, x + random.nextDouble()
+              * 100, y, y + random.nextDouble() * 100));
+      }
+      features.add(new Named(name, geom));
+    }
+    ToponymCandidates candidates = new ToponymCandidates(features, "NOM",
+        "toponyme");
+    for (int q = 0; q < 50; q++) {
+      double x = random.nextDouble() * 1000;
+      double y = random.nextDouble() * 1000;
+      IFeature reference = new Named(NAMES[random.nextInt(NAMES.length)],
+          q % 2 == 0 ? point(x, y) : line(x, y, x + 50, y - 80));
+      double radius = 20 + random.nextDouble() * 100;
+      Set<IFeature> expected = new HashSet<IFeature>();
+      for (IFeature feature : features) {
+        if (feature.getAttribute("NOM").equals(
+            reference.getAttribute("toponyme"))
+            && feature.getGeom().distance(reference.getGeom()) < radius) {
+          expected.add(feature);
+        }
+      }
+      Assert.assertEquals(expected, select(candidates, reference, 0, radius));
+    }
+  }
+}
@@ -0,0 +1,302 @@
+/*******************************************************************************
+ * This software is released under the licence CeCILL
+ *
+ *  see Licence_CeCILL-C_fr.html see Licence_CeCILL-C_en.html
+ *
+ *  see <a href="http://www.cecill.info/">http://www.cecill.info/a>
+ *
+ *  @copyright IGN
+ ******************************************************************************/
+package fr.ign.cogit.ontology;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import edu.stanford.smi.protegex.owl.model.OWLModel;
+import edu.stanford.smi.protegex.owl.model.OWLNamedClass;
+
+/**
+ * Index de la hiérarchie des classes d'une ontologie, construit une seule fois,
+ * pour calculer rapidement profondeurs et plus petits parents communs.
+ * <p>
+ * Chaque classe est numérotée, Thing ayant le numéro 0. Sont précalculés :
+ * <ul>
+ * <li>la profondeur de chaque classe, i.e. la longueur du plus court chemin de
+ * relations isA jusqu'à Thing ;</li>
+ * <li>un arbre couvrant (chaque classe y est rattachée à un de ses parents les
+ * moins profonds) avec ses ancêtres de rang 2^k (binary lifting) : le plus
+ * petit parent commun de deux classes en héritage simple est trouvé en
+ * O(log n) ;</li>
+ * <li>pour les classes en héritage multiple (la classe ou un de ses ancêtres a
+ * plusieurs parents), la distance à chacun de leurs ancêtres : le plus petit
+ * parent commun est alors l'ancêtre commun qui minimise la somme des distances
+ * aux deux classes, le plus profond en cas d'égalité.</li>
+ * </ul>
+ * L'index reflète l'ontologie au moment de sa construction.
+ *
+ * @see OntologieOWL#getIndexHierarchie()
+ */
+public class IndexHierarchie {
+
+  /** Classes indexées, Thing en premier. */
+  private List<OWLNamedClass> classes = new ArrayList<OWLNamedClass>();
+
+  /** Numéro de chaque classe. */
+  private Map<OWLNamedClass, Integer> numeros = new HashMap<OWLNamedClass, Integer>();
+
+  /** Parents directs de chaque classe. */
+  private int[][] parents;
+
+  /** Profondeur de chaque classe. */
+  private int[] profondeurs;
+
+  /** sauts[k][i] : ancêtre de rang 2^k de la classe i dans l'arbre couvrant. */
+  private int[][] sauts;
+
+  /** Vrai si la classe ou un de ses ancêtres a plusieurs parents. */
+  private boolean[] heritageMultiple;
+
+  /** Distance de chaque classe en héritage multiple à ses ancêtres. */
+  private List<Map<Integer, Integer>> ancetres;
+
+  /**
+   * Construit l'index des classes nommées définies par l'utilisateur.
+   * @param owlModel modèle OWL de l'ontologie
+   */
+  @SuppressWarnings("unchecked")
+  public IndexHierarchie(OWLModel owlModel) {
+    OWLNamedClass thing = owlModel.getOWLThingClass();
+    this.classes.add(thing);
+    this.numeros.put(thing, 0);
+    for (Object cls : owlModel.getUserDefinedOWLNamedClasses()) {
+      if (cls instanceof OWLNamedClass && !this.numeros.containsKey(cls)) {
+        this.numeros.put((OWLNamedClass) cls, this.classes.size());
+        this.classes.add((OWLNamedClass) cls);
+      }
+    }
+    int n = this.classes.size();
+
+    // Parents directs, parmi les classes indexées
+    this.parents = new int[n][];
+    this.parents[0] = new int[0];
+    for (int i = 1; i < n; i++) {
+      List<Integer> parentsClasse = new ArrayList<Integer>();
+      for (Object parent : (Collection<Object>) this.classes.get(i).getNamedSuperclasses(false)) {
+        Integer numero = this.numeros.get(parent);
+        if (numero != null && numero != i && !parentsClasse.contains(numero)) {
+          parentsClasse.add(numero);
+        }
+      }
+      this.parents[i] = this.toArray(parentsClasse);
+    }
+
+    // Profondeurs et arbre couvrant par un parcours en largeur depuis Thing.
+    // Les classes qui n'y sont pas atteintes (cycles) sont rattachées à Thing.
+    int[] parentArbre = new int[n];
+    this.profondeurs = new int[n];
+    int[] ordre = this.parcoursEnLargeur(parentArbre);
+    if (ordre.length < n) {
+      for (int i = 1; i < n; i++) {
+        if (this.profondeurs[i] == -1) {
+          int[] parentsClasse = new int[this.parents[i].length + 1];
+          System.arraycopy(this.parents[i], 0, parentsClasse, 0, this.parents[i].length);
+          this.parents[i] = parentsClasse;
+        }
+      }
+      ordre = this.parcoursEnLargeur(parentArbre);
+    }
+
+    // Héritage multiple : un parent unique est forcément le parent dans
+    // l'arbre, déjà traité dans l'ordre du parcours
+    this.heritageMultiple = new boolean[n];
+    for (int i : ordre) {
+      this.heritageMultiple[i] = this.parents[i].length > 1
+          || (this.parents[i].length == 1 && this.heritageMultiple[this.parents[i][0]]);
+    }
+    this.ancetres = new ArrayList<Map<Integer, Integer>>(n);
+    for (int i = 0; i < n; i++) {
+      this.ancetres.add(this.heritageMultiple[i] ? this.distancesAncetres(i) : null);
+    }
+
+    // Binary lifting sur l'arbre couvrant
+    int maxProfondeur = 0;
+    for (int i = 0; i < n; i++) {
+      maxProfondeur = Math.max(maxProfondeur, this.profondeurs[i]);
+    }
+    int nbSauts = 1;
+    while ((1 << nbSauts) <= maxProfondeur) {
+      nbSauts++;
+    }
+    this.sauts = new int[nbSauts][];
+    this.sauts[0] = parentArbre;
+    for (int k = 1; k < nbSauts; k++) {
+      this.sauts[k] = new int[n];
+      for (int i = 0; i < n; i++) {
+        this.sauts[k][i] = this.sauts[k - 1][this.sauts[k - 1][i]];
+      }
+    }
+  }
+
+  private int[] toArray(List<Integer> liste) {
+    int[] tableau = new int[liste.size()];
+    for (int k = 0; k < tableau.length; k++) {
+      tableau[k] = liste.get(k);
+    }
+    return tableau;
+  }
+
+  /**
+   * Parcours en largeur des sous-classes depuis Thing : calcule les
+   * profondeurs (-1 pour les classes non atteintes) et le parent de chaque
+   * classe dans l'arbre couvrant.
+   * @return les classes atteintes, par profondeur croissante
+   */
+  private int[] parcoursEnLargeur(int[] parentArbre) {
+    int n = this.classes.size();
+    List<List<Integer>> enfants = new ArrayList<List<Integer>>(n);
+    for (int i = 0; i < n; i++) {
+      enfants.add(new ArrayList<Integer>());
+    }
+    for (int i = 0; i < n; i++) {
+      for (int p : this.parents[i]) {
+        enfants.get(p).add(i);
+      }
+    }
+    Arrays.fill(this.profondeurs, -1);
+    this.profondeurs[0] = 0;
+    parentArbre[0] = 0;
+    int[] ordre = new int[n];
+    int debut = 0, fin = 0;
+    ordre[fin++] = 0;
+    while (debut < fin) {
+      int i = ordre[debut++];
+      for (int enfant : enfants.get(i)) {
+        if (this.profondeurs[enfant] == -1) {
+          this.profondeurs[enfant] = this.profondeurs[i] + 1;
+          parentArbre[enfant] = i;
+          ordre[fin++] = enfant;
+        }
+      }
+    }
+    return Arrays.copyOf(ordre, fin);
+  }
+
+  /** Plus courte distance de la classe i à chacun de ses ancêtres (et à elle-même). */
+  private Map<Integer, Integer> distancesAncetres(int i) {
+    Map<Integer, Integer> distances = new HashMap<Integer, Integer>();
+    distances.put(i, 0);
+    ArrayDeque<Integer> file = new ArrayDeque<Integer>();
+    file.add(i);
+    while (!file.isEmpty()) {
+      int c = file.poll();
+      int d = distances.get(c) + 1;
+      for (int p : this.parents[c]) {
+        if (!distances.containsKey(p)) {
+          distances.put(p, d);
+          file.add(p);
+        }
+      }
+    }
+    return distances;
+  }
+
+  /** Ancêtres de la classe i avec leur distance, le long de l'arbre couvrant. */
+  private Map<Integer, Integer> ancetresArbre(int i) {
+    Map<Integer, Integer> distances = new HashMap<Integer, Integer>();
+    int c = i;
+    for (int d = 0; d <= this.profondeurs[i]; d++) {
+      distances.put(c, d);
+      c = this.sauts[0][c];
+    }
+    return distances;
+  }
+
+  /** Ancêtre de la classe i remonté de h niveaux dans l'arbre couvrant. */
+  private int remonte(int i, int h) {
+    int c = i;
+    for (int k = 0; h > 0; k++, h >>= 1) {
+      if ((h & 1) == 1) {
+        c = this.sauts[k][c];
+      }
+    }
+    return c;
+  }
+
+  /** @return le nombre de classes indexées, Thing compris. */
+  public int size() {
+    return this.classes.size();
+  }
+
+  /** @return le numéro de la classe, -1 si elle n'est pas indexée. */
+  public int getNumero(OWLNamedClass cls) {
+    Integer numero = this.numeros.get(cls);
+    return numero == null ? -1 : numero;
+  }
+
+  /** @return la classe de numéro i. */
+  public OWLNamedClass getClasse(int i) {
+    return this.classes.get(i);
+  }
+
+  /** @return la profondeur de la classe de numéro i (0 pour Thing). */
+  public int getProfondeur(int i) {
+    return this.profondeurs[i];
+  }
+
+  /**
+   * Détermine le plus petit parent commun de deux classes.
+   *
+   * @param i numéro de la classe 1
+   * @param j numéro de la classe 2
+   * @param distances si non null, reçoit la distance des classes 1 et 2 au
+   *          plus petit parent commun
+   * @return le numéro du plus petit parent commun
+   */
+  public int getPPPC(int i, int j, int[] distances) {
+    int pppc, d1, d2;
+    if (!this.heritageMultiple[i] && !this.heritageMultiple[j]) {
+      // Héritage simple : les ancêtres forment une chaîne dans l'arbre
+      int a = this.remonte(i, Math.max(0, this.profondeurs[i] - this.profondeurs[j]));
+      int b = this.remonte(j, Math.max(0, this.profondeurs[j] - this.profondeurs[i]));
+      for (int k = this.sauts.length - 1; k >= 0 && a != b; k--) {
+        if (this.sauts[k][a] != this.sauts[k][b]) {
+          a = this.sauts[k][a];
+          b = this.sauts[k][b];
+        }
+      }
+      pppc = a == b ? a : this.sauts[0][a];
+      d1 = this.profondeurs[i] - this.profondeurs[pppc];
+      d2 = this.profondeurs[j] - this.profondeurs[pppc];
+    } else {
+      Map<Integer, Integer> ancetres1 = this.heritageMultiple[i] ? this.ancetres.get(i) : this.ancetresArbre(i);
+      Map<Integer, Integer> ancetres2 = this.heritageMultiple[j] ? this.ancetres.get(j) : this.ancetresArbre(j);
+      pppc = 0;
+      d1 = ancetres1.get(0);
+      d2 = ancetres2.get(0);
+      for (Map.Entry<Integer, Integer> ancetre : ancetres1.entrySet()) {
+        Integer dist2 = ancetres2.get(ancetre.getKey());
+        if (dist2 == null) {
+          continue;
+        }
+        int somme = ancetre.getValue() + dist2;
+        if (somme < d1 + d2 || (somme == d1 + d2
+            && this.profondeurs[ancetre.getKey()] > this.profondeurs[pppc])) {
+          pppc = ancetre.getKey();
+          d1 = ancetre.getValue();
+          d2 = dist2;
+        }
+      }
+    }
+    if (distances != null) {
+      distances[0] = d1;
+      distances[1] = d2;
+    }
+    return pppc;
+  }
+
+}
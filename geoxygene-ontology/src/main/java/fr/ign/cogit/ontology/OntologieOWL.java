@@ -48,6 +48,9 @@ public final class OntologieOWL {
   
   /** Stockage des plus courts chemins entre une classe et thing. */
   private HashMap<OWLNamedClass, Integer> pcc;
+  
+  /** Index de la hiérarchie des classes, construit au premier besoin. */
+  private IndexHierarchie indexHierarchie;
 
   /**
    * Default constructor.
@@ -93,6 +96,19 @@ public final class OntologieOWL {
   /** Affecte un modele owl a cette ontologie */
   public void setOWLModel(JenaOWLModel model) {
     this.owlmodel = model;
+    this.indexHierarchie = null;
+  }
+  
+  /**
+   * Renvoie l'index de la hiérarchie des classes de cette ontologie,
+   * construit une seule fois pour tous les calculs de profondeur et de
+   * plus petit parent commun.
+   */
+  public synchronized IndexHierarchie getIndexHierarchie() {
+    if (this.indexHierarchie == null) {
+      this.indexHierarchie = new IndexHierarchie(this.owlmodel);
+    }
+    return this.indexHierarchie;
   }
   
   public HashMap<OWLNamedClass, Integer> getPcc() {
@@ -114,6 +130,7 @@ public final class OntologieOWL {
       // On charge l'ontologie a partir du fichier OWL
       FileInputStream fis = new FileInputStream(new File(uri));
       this.owlmodel = ProtegeOWL.createJenaOWLModelFromInputStream(fis);
+      this.indexHierarchie = null;
     } catch (Exception ex) {
       System.out.println("-------------------------------");
       LOGGER.info(uri);
@@ -189,7 +206,7 @@ public final class OntologieOWL {
   @SuppressWarnings("unchecked")
   public OWLNamedClass getPPPC(OWLNamedClass c1, OWLNamedClass c2) {
     
-    LOGGER.info("Calcul du plus petit subsumant commun");
+    LOGGER.debug("Calcul du plus petit subsumant commun");
     
     /*
      * Initialisation des variables : 
@@ -205,20 +222,20 @@ public final class OntologieOWL {
     if (!superClassesC1.contains(thing)) {
       superClassesC1.add(thing);
     }
-    LOGGER.info("SuperClassesC1 OK");
+    LOGGER.debug("SuperClassesC1 OK");
     
     // Récupère la collection des superclasses à comparer pour C2
     Collection<OWLNamedClass> superClassesC2 = c2.getNamedSuperclasses(true);
     if (!superClassesC2.contains(thing)) {
       superClassesC2.add(thing);
     }
-    LOGGER.info("SuperClassesC2 OK");
+    LOGGER.debug("SuperClassesC2 OK");
 
     // Testons les cas où nos deux classes sont confondues 
     // ou parents directs l'une de l'autre
 
     if (c1.equals(c2)) {
-      LOGGER.info("C1 == C2");
+      LOGGER.debug("C1 == C2");
       // int distC1C2 = 0;
       pppc = c1;
       distMin = 0;
@@ -226,9 +243,9 @@ public final class OntologieOWL {
     } 
     
     if (superClassesC1.contains(c2)) {
-      LOGGER.info("SuperClassesC1 contient C2");
+      LOGGER.debug("SuperClassesC1 contient C2");
       int distC2 = 10000000;
-      LOGGER.info("distC2 à calculer");
+      LOGGER.debug("distC2 à calculer");
       distC2 = this.getShortestPathLengthWithoutMatrix(c2, c1);
       if (distC2 < distMin) {
         pppc = c2;
@@ -238,9 +255,9 @@ public final class OntologieOWL {
     } 
 
     if (superClassesC2.contains(c1)) {
-      LOGGER.info("SuperClassesC2 contient C1");
+      LOGGER.debug("SuperClassesC2 contient C1");
       int distC1 = 10000000;
-      LOGGER.info("distC1 à calculer");
+      LOGGER.debug("distC1 à calculer");
       distC1 = this.getShortestPathLengthWithoutMatrix(c1, c2);
       if (distC1 < distMin) {
         pppc = c1;
@@ -264,11 +281,11 @@ public final class OntologieOWL {
       OWLNamedClass superC = (OWLNamedClass) it.next();
       // Si cette classe est commune aux deux listes...
       if (superClassesC2.contains(superC)) {
-        LOGGER.info("PPPC potentiel: " + superC.getLocalName());
+        LOGGER.debug("PPPC potentiel: " + superC.getLocalName());
         // ...et si sa distance aux deux classes C1 et C2 est inférieure à
         // distMin
 
-        LOGGER.info("distanceToClasses à calculer");
+        LOGGER.debug("distanceToClasses à calculer");
         distanceToClasses = this.getShortestPathLengthWithoutMatrix(c1, superC)
             + this.getShortestPathLengthWithoutMatrix(c2, superC);
 
@@ -285,7 +302,7 @@ public final class OntologieOWL {
         continue;
       }
     }
-    LOGGER.info("And the winner is..... " + pppc.getLocalName());
+    LOGGER.debug("And the winner is..... " + pppc.getLocalName());
     return pppc;
   
   }
@@ -302,13 +319,13 @@ public final class OntologieOWL {
    */
   public int getShortestPathViaXLengthWithoutMatrix(OWLNamedClass start,
       OWLNamedClass via, OWLNamedClass end) {
-    LOGGER.info("Calcul de plus court chemin via X");
+    LOGGER.debug("Calcul de plus court chemin via X");
     int length = 0;
     length = this.getShortestPathLengthWithoutMatrix(start, via);
-    LOGGER.info("Calcul de plus court chemin entre " + start.getLocalName()
+    LOGGER.debug("Calcul de plus court chemin entre " + start.getLocalName()
         + " et " + via.getLocalName());
     length = length + this.getShortestPathLengthWithoutMatrix(via, end);
-    LOGGER.info("Calcul de plus court chemin entre " + via.getLocalName()
+    LOGGER.debug("Calcul de plus court chemin entre " + via.getLocalName()
         + " et " + end.getLocalName());
     return length;
   }
@@ -330,7 +347,7 @@ public final class OntologieOWL {
     // Cas où start et end sont confondus
     if (start.equals(end)) {
       length = 0;
-      LOGGER.info("Longueur plus court chemin entre " + start.getLocalName()
+      LOGGER.debug("Longueur plus court chemin entre " + start.getLocalName()
           + " et " + end.getLocalName() + " = " + length);
       return length;
     }
@@ -392,7 +409,7 @@ public final class OntologieOWL {
     if (valeurStop == 1) {
       // les classes sont voisines directes: on sort
       length = 1;
-      LOGGER.info("Longueur plus court chemin entre " + start.getLocalName()
+      LOGGER.debug("Longueur plus court chemin entre " + start.getLocalName()
           + " et " + end.getLocalName() + " = " + length);
       return length;
     } else {
@@ -440,7 +457,7 @@ public final class OntologieOWL {
 
       }// Fin de la boucle sur les claculs de puissance
       length = puissance;
-      LOGGER.info("Longueur plus court chemin entre " + start.getLocalName()
+      LOGGER.debug("Longueur plus court chemin entre " + start.getLocalName()
           + " et " + end.getLocalName() + " = " + length);
       return length;
     }// Fin du else
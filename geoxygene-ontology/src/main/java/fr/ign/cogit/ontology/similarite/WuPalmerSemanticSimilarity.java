@@ -10,11 +10,17 @@
 package fr.ign.cogit.ontology.similarite;
 
 import java.io.File;
+import java.lang.ref.SoftReference;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 import org.apache.log4j.Logger;
 
 import edu.stanford.smi.protegex.owl.model.OWLNamedClass;
 import edu.stanford.smi.protegex.owl.model.RDFResource;
+import fr.ign.cogit.geoxygene.util.ParallelChunks;
+import fr.ign.cogit.ontology.IndexHierarchie;
 import fr.ign.cogit.ontology.OntologieOWL;
 
 /**
@@ -25,11 +31,30 @@ public class WuPalmerSemanticSimilarity extends MesureSimilariteSemantique {
 
   /** Logger. */
   private final static Logger LOGGER = Logger.getLogger(WuPalmerSemanticSimilarity.class);
+  
+  /**
+   * Mesures déjà construites, par chemin absolu du fichier d'ontologie. Les
+   * références sont souples : une ontologie inutilisée peut être libérée et
+   * sera rechargée à la demande.
+   */
+  private final static Map<String, SoftReference<WuPalmerSemanticSimilarity>> MESURES =
+      new HashMap<String, SoftReference<WuPalmerSemanticSimilarity>>();
+
+  /** Nombre de threads du calcul des matrices de similarité (thread courant si 1). */
+  private int nbThreads = ParallelChunks.getDefaultThreads();
 
   public WuPalmerSemanticSimilarity(OntologieOWL onto) {
     super(onto);
   }
 
+  public int getNbThreads() {
+    return this.nbThreads;
+  }
+
+  public void setNbThreads(int nbThreads) {
+    this.nbThreads = nbThreads;
+  }
+
   @Override
   public double calcule(RDFResource o1, RDFResource o2) {
     return this.calculeSimilariteConceptsOntologieUnique(o1, o2);
@@ -39,61 +64,123 @@ public class WuPalmerSemanticSimilarity extends MesureSimilariteSemantique {
   public double calculeSimilariteConceptsOntologieUnique(RDFResource c1, RDFResource c2) {
 		
     /* Initialisation des variables */
-	double sim = 0;
-	OWLNamedClass cls1 = (OWLNamedClass) c1;
-	OWLNamedClass cls2 = (OWLNamedClass) c2;
+    double sim = 0;
+    OWLNamedClass cls1 = (OWLNamedClass) c1;
+    OWLNamedClass cls2 = (OWLNamedClass) c2;
 	
-	if (cls1 == null || cls2 == null) {
-	  sim=0.0;
-      LOGGER.info("Valeur = " + sim);
-      return sim;
-	}
-	
-	LOGGER.info("Similarite entre " + cls1.getLocalName() + " et " + cls2.getLocalName());
-	
-	if(c1.equals(c2)){
-      sim=1.0;
-      LOGGER.info("Valeur = " + sim);
-      return sim;
+    if (cls1 == null || cls2 == null) {
+      return 0.0;
     }
 	
-	// Calcul du plus petit parent commun à nos deux classes
-	OWLNamedClass C = this.getOnto().getPPPC(cls1, cls2);
-    LOGGER.info("Plus petit parent commun: " + C);
+    if (c1.equals(c2)) {
+      return 1.0;
+    }
+    
+    IndexHierarchie index = this.getOnto().getIndexHierarchie();
+    int i = index.getNumero(cls1);
+    int j = index.getNumero(cls2);
+    if (i != -1 && j != -1) {
+      sim = WuPalmerSemanticSimilarity.similarite(index, i, j);
+    } else {
+      // Classes non indexées (classes système) : calcul sur l'ontologie
+      sim = this.calculeSansIndex(cls1, cls2);
+    }
+    
+    if (LOGGER.isDebugEnabled()) {
+      LOGGER.debug("Similarite entre " + cls1.getLocalName() + " et " + cls2.getLocalName()
+          + " = " + sim);
+    }
+    return sim;
+  }
+  
+  /**
+   * Similarité de Wu-Palmer entre deux classes indexées, en O(log n) :
+   * 2 * prof(C) / (prof(C1) + prof(C2)) où C est le plus petit parent commun et
+   * prof(Ci) la longueur du chemin de Ci à la racine passant par C.
+   */
+  private static double similarite(IndexHierarchie index, int i, int j) {
+    if (i == j) {
+      return 1.0;
+    }
+    int[] distances = new int[2];
+    int pppc = index.getPPPC(i, j, distances);
+    if (pppc == 0) {
+      // Le plus petit parent commun est Thing
+      return 0.0;
+    }
+    double profC = index.getProfondeur(pppc);
+    double profC1 = distances[0] + profC;
+    double profC2 = distances[1] + profC;
+    return (2 * profC) / (profC1 + profC2);
+  }
+  
+  /**
+   * Calcule la matrice des similarités entre deux listes de concepts, par
+   * exemple pour l'appariement de schémas. L'index de la hiérarchie est
+   * construit une seule fois et les lignes sont calculées en parallèle.
+   * 
+   * @param concepts1 les concepts en ligne
+   * @param concepts2 les concepts en colonne
+   * @return la matrice des similarités, de taille concepts1.size() x concepts2.size()
+   */
+  public double[][] calculeMatriceSimilarite(List<? extends RDFResource> concepts1,
+      List<? extends RDFResource> concepts2) {
+    IndexHierarchie index = this.getOnto().getIndexHierarchie();
+    int[] numeros1 = WuPalmerSemanticSimilarity.numeros(index, concepts1);
+    int[] numeros2 = WuPalmerSemanticSimilarity.numeros(index, concepts2);
+    double[][] matrice = new double[concepts1.size()][concepts2.size()];
+    ParallelChunks.forEach(numeros1.length, this.nbThreads, (start, end) -> {
+      for (int k = start; k < end; k++) {
+        for (int l = 0; l < numeros2.length; l++) {
+          if (numeros1[k] >= 0 && numeros2[l] >= 0) {
+            matrice[k][l] = WuPalmerSemanticSimilarity.similarite(index, numeros1[k], numeros2[l]);
+          }
+        }
+      }
+    });
+    // Concepts non indexés : calcul séquentiel sur le modèle OWL
+    for (int k = 0; k < numeros1.length; k++) {
+      for (int l = 0; l < numeros2.length; l++) {
+        if (numeros1[k] < 0 || numeros2[l] < 0) {
+          matrice[k][l] = this.calculeSimilariteConceptsOntologieUnique(concepts1.get(k),
+              concepts2.get(l));
+        }
+      }
+    }
+    return matrice;
+  }
+  
+  /** Numéros des concepts dans l'index, -1 pour les concepts non indexés. */
+  private static int[] numeros(IndexHierarchie index, List<? extends RDFResource> concepts) {
+    int[] numeros = new int[concepts.size()];
+    for (int k = 0; k < numeros.length; k++) {
+      RDFResource concept = concepts.get(k);
+      numeros[k] = concept instanceof OWLNamedClass ? index.getNumero((OWLNamedClass) concept) : -1;
+    }
+    return numeros;
+  }
+  
+  /**
+   * Calcul de la similarité sans l'index, par des parcours de l'ontologie.
+   */
+  double calculeSansIndex(OWLNamedClass cls1, OWLNamedClass cls2) {
+    // Calcul du plus petit parent commun à nos deux classes
+    OWLNamedClass C = this.getOnto().getPPPC(cls1, cls2);
     
     // Calcul de la distance du PPPC et des classes à la racine
     OWLNamedClass thing = this.getOnto().getOWLModel().getOWLThingClass();
-	if (C.equals(thing)) {
-	  sim = 0.0;
-	} else {
-	  double profC = this.getOnto().getShortestPathLengthWithoutMatrix(C, thing);
-	  LOGGER.info("ProfC = " + profC);
-	  double profC1 = this.getOnto().getShortestPathViaXLengthWithoutMatrix(cls1, C, thing);
-	  LOGGER.info("ProfC1 = " + profC1);
-	  double profC2 = this.getOnto().getShortestPathViaXLengthWithoutMatrix(cls2, C, thing);
-	  LOGGER.info("ProfC2 = " + profC2);
-
-	  // Calcul
-	  sim = ((2 * profC) / (profC1 + profC2));
-	}
-
-	LOGGER.info("Valeur = " + sim);
-	return sim;
+    if (C.equals(thing)) {
+      return 0.0;
+    }
+    double profC = this.getOnto().getShortestPathLengthWithoutMatrix(C, thing);
+    double profC1 = this.getOnto().getShortestPathViaXLengthWithoutMatrix(cls1, C, thing);
+    double profC2 = this.getOnto().getShortestPathViaXLengthWithoutMatrix(cls2, C, thing);
+    return ((2 * profC) / (profC1 + profC2));
   }
   
-  
   public static double getEvaluation(String filepath, String s, String t) {
-    OntologieOWL ontoTopoCarto = null;
-    try {
-      // On charge l'ontologie 
-      LOGGER.info("On charge l'ontologie.");
-      File file = new File(filepath);
-      LOGGER.info(file.getAbsolutePath());
-      ontoTopoCarto = new OntologieOWL("Onto", file.getPath());
-      // ontoTopoCarto.affiche();
-    } catch(Exception e) {
-      e.printStackTrace();
-    }
+    WuPalmerSemanticSimilarity mesureSim = WuPalmerSemanticSimilarity.getMesure(filepath);
+    OntologieOWL ontoTopoCarto = mesureSim.getOnto();
     
     LOGGER.trace("s = " + s);
     LOGGER.trace("t = " + t);
@@ -101,12 +188,44 @@ public class WuPalmerSemanticSimilarity extends MesureSimilariteSemantique {
     RDFResource rS = ontoTopoCarto.getOWLModel().getRDFResource(s.toLowerCase());
     RDFResource rT = ontoTopoCarto.getOWLModel().getRDFResource(t.toLowerCase());
     
-    MesureSimilariteSemantique mesureSim = new WuPalmerSemanticSimilarity(ontoTopoCarto);
-    
     // SOMMET-MONTAGNE
     double scoreSimilariteSemantique = 1 - mesureSim.calcule(rS, rT);
     LOGGER.debug("scoreSimilariteSemantique = " + scoreSimilariteSemantique);
     return scoreSimilariteSemantique;
   }
+  
+  /**
+   * Renvoie la mesure associée à l'ontologie du fichier : l'ontologie n'est
+   * chargée et indexée qu'une fois par fichier tant qu'elle reste en mémoire.
+   * Un échec de chargement n'est pas mémorisé.
+   * 
+   * @throws IllegalArgumentException si l'ontologie ne peut pas être chargée
+   */
+  static synchronized WuPalmerSemanticSimilarity getMesure(String filepath) {
+    File file = new File(filepath);
+    String cle = file.getAbsolutePath();
+    SoftReference<WuPalmerSemanticSimilarity> reference = MESURES.get(cle);
+    WuPalmerSemanticSimilarity mesureSim = reference == null ? null : reference.get();
+    if (mesureSim != null) {
+      return mesureSim;
+    }
+    MESURES.remove(cle);
+    
+    OntologieOWL ontoTopoCarto = null;
+    try {
+      // On charge l'ontologie 
+      LOGGER.info("On charge l'ontologie " + cle);
+      ontoTopoCarto = new OntologieOWL("Onto", file.getPath());
+    } catch (Exception e) {
+      LOGGER.error("Impossible de charger l'ontologie " + cle, e);
+    }
+    if (ontoTopoCarto == null || ontoTopoCarto.getOWLModel() == null) {
+      throw new IllegalArgumentException("Impossible de charger l'ontologie " + cle);
+    }
+    
+    mesureSim = new WuPalmerSemanticSimilarity(ontoTopoCarto);
+    MESURES.put(cle, new SoftReference<WuPalmerSemanticSimilarity>(mesureSim));
+    return mesureSim;
+  }
 
 }
@@ -0,0 +1,155 @@
+package fr.ign.cogit.ontology;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.stanford.smi.protegex.owl.model.OWLModel;
+import edu.stanford.smi.protegex.owl.model.OWLNamedClass;
+
+/**
+ * Tests de l'index de la hiérarchie des classes, sur une petite ontologie
+ * construite en mémoire :
+ * 
+ * <pre>
+ * Thing
+ *  |- A
+ *  |  |- A1
+ *  |  |  |- A11
+ *  |  |  `- M (aussi sous-classe de B1)
+ *  |  |     `- N
+ *  |  `- A2
+ *  `- B
+ *     `- B1
+ * </pre>
+ */
+public class IndexHierarchieTest {
+
+  private OWLModel owlModel;
+  private OWLNamedClass a, a1, a11, a2, b, b1, m, n;
+
+  /** Construit l'ontologie de test. */
+  public static OntologieOWL hierarchie() {
+    OntologieOWL onto = new OntologieOWL("test");
+    OWLModel owlModel = onto.getOWLModel();
+    OWLNamedClass a = owlModel.createOWLNamedClass("A");
+    OWLNamedClass a1 = owlModel.createOWLNamedSubclass("A1", a);
+    owlModel.createOWLNamedSubclass("A11", a1);
+    owlModel.createOWLNamedSubclass("A2", a);
+    OWLNamedClass b = owlModel.createOWLNamedClass("B");
+    OWLNamedClass b1 = owlModel.createOWLNamedSubclass("B1", b);
+    OWLNamedClass m = owlModel.createOWLNamedSubclass("M", a1);
+    m.addSuperclass(b1);
+    owlModel.createOWLNamedSubclass("N", m);
+    return onto;
+  }
+
+  @Before
+  public void setUp() {
+    this.owlModel = hierarchie().getOWLModel();
+    this.a = this.owlModel.getOWLNamedClass("A");
+    this.a1 = this.owlModel.getOWLNamedClass("A1");
+    this.a11 = this.owlModel.getOWLNamedClass("A11");
+    this.a2 = this.owlModel.getOWLNamedClass("A2");
+    this.b = this.owlModel.getOWLNamedClass("B");
+    this.b1 = this.owlModel.getOWLNamedClass("B1");
+    this.m = this.owlModel.getOWLNamedClass("M");
+    this.n = this.owlModel.getOWLNamedClass("N");
+  }
+
+  /** Vérifie le plus petit parent commun et les distances à ce parent. */
+  private static void assertPPPC(IndexHierarchie index, OWLNamedClass c1,
+      OWLNamedClass c2, OWLNamedClass pppc, int distance1, int distance2) {
+    int[] distances = new int[2];
+    Assert.assertEquals(pppc, index.getClasse(index.getPPPC(index.getNumero(c1),
+        index.getNumero(c2), distances)));
+    Assert.assertEquals(distance1, distances[0]);
+    Assert.assertEquals(distance2, distances[1]);
+    // symétrique
+    Assert.assertEquals(pppc, index.getClasse(index.getPPPC(index.getNumero(c2),
+        index.getNumero(c1), distances)));
+    Assert.assertEquals(distance2, distances[0]);
+    Assert.assertEquals(distance1, distances[1]);
+  }
+
+  @Test
+  public void testProfondeur() {
+    IndexHierarchie index = new IndexHierarchie(this.owlModel);
+    OWLNamedClass thing = this.owlModel.getOWLThingClass();
+    Assert.assertEquals(9, index.size());
+    Assert.assertEquals(0, index.getNumero(thing));
+    Assert.assertEquals(thing, index.getClasse(0));
+    Assert.assertEquals(0, index.getProfondeur(0));
+    OWLNamedClass[] classes = { this.a, this.a1, this.a11, this.a2, this.b,
+        this.b1, this.m, this.n };
+    int[] profondeurs = { 1, 2, 3, 2, 1, 2, 3, 4 };
+    for (int k = 0; k < classes.length; k++) {
+      int i = index.getNumero(classes[k]);
+      Assert.assertEquals(classes[k], index.getClasse(i));
+      Assert.assertEquals(profondeurs[k], index.getProfondeur(i));
+    }
+  }
+
+  @Test
+  public void testPPPCFreres() {
+    IndexHierarchie index = new IndexHierarchie(this.owlModel);
+    assertPPPC(index, this.a1, this.a2, this.a, 1, 1);
+    assertPPPC(index, this.a11, this.a2, this.a, 2, 1);
+    assertPPPC(index, this.a, this.b, this.owlModel.getOWLThingClass(), 1, 1);
+    assertPPPC(index, this.a2, this.b1, this.owlModel.getOWLThingClass(), 2, 2);
+  }
+
+  @Test
+  public void testPPPCAncetre() {
+    IndexHierarchie index = new IndexHierarchie(this.owlModel);
+    assertPPPC(index, this.a11, this.a, this.a, 2, 0);
+    assertPPPC(index, this.a1, this.a1, this.a1, 0, 0);
+    assertPPPC(index, this.a, this.owlModel.getOWLThingClass(),
+        this.owlModel.getOWLThingClass(), 1, 0);
+  }
+
+  @Test
+  public void testHeritageMultiple() {
+    IndexHierarchie index = new IndexHierarchie(this.owlModel);
+    // les deux parents de M sont des ancêtres
+    assertPPPC(index, this.m, this.a1, this.a1, 1, 0);
+    assertPPPC(index, this.m, this.b1, this.b1, 1, 0);
+    assertPPPC(index, this.n, this.b, this.b, 3, 0);
+    // par l'un ou l'autre des parents de M
+    assertPPPC(index, this.m, this.a11, this.a1, 1, 1);
+    assertPPPC(index, this.n, this.a2, this.a, 3, 1);
+    OWLNamedClass b2 = this.owlModel.createOWLNamedSubclass("B2", this.b);
+    index = new IndexHierarchie(this.owlModel);
+    assertPPPC(index, this.n, b2, this.b, 3, 1);
+  }
+
+  @Test
+  public void testCycle() {
+    // X et Y sont sous-classes l'une de l'autre, sans être sous-classes de Thing
+    OWLNamedClass x = this.owlModel.createOWLNamedClass("X");
+    OWLNamedClass y = this.owlModel.createOWLNamedSubclass("Y", x);
+    x.addSuperclass(y);
+    x.removeSuperclass(this.owlModel.getOWLThingClass());
+    OWLNamedClass z = this.owlModel.createOWLNamedSubclass("Z", y);
+
+    IndexHierarchie index = new IndexHierarchie(this.owlModel);
+    Assert.assertEquals(12, index.size());
+    int i = index.getNumero(x);
+    int j = index.getNumero(y);
+    int k = index.getNumero(z);
+    Assert.assertTrue(i > 0 && j > 0 && k > 0);
+    // les classes du cycle sont rattachées à Thing
+    Assert.assertTrue(index.getProfondeur(i) >= 1 && index.getProfondeur(i) <= 2);
+    Assert.assertTrue(index.getProfondeur(j) >= 1 && index.getProfondeur(j) <= 2);
+    Assert.assertEquals(Math.min(index.getProfondeur(i), index.getProfondeur(j)) + 1,
+        index.getProfondeur(k));
+    int[] distances = new int[2];
+    int pppc = index.getPPPC(i, j, distances);
+    Assert.assertTrue(pppc == i || pppc == j);
+    Assert.assertEquals(1, distances[0] + distances[1]);
+    Assert.assertEquals(0, index.getPPPC(k, index.getNumero(this.a), null));
+    // le reste de la hiérarchie n'est pas modifié
+    Assert.assertEquals(4, index.getProfondeur(index.getNumero(this.n)));
+  }
+
+}
@@ -0,0 +1,64 @@
+package fr.ign.cogit.ontology.similarite;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import edu.stanford.smi.protegex.owl.model.OWLNamedClass;
+import fr.ign.cogit.ontology.IndexHierarchieTest;
+import fr.ign.cogit.ontology.OntologieOWL;
+
+/**
+ * Compare la similarité de Wu-Palmer calculée avec l'index de la hiérarchie
+ * au calcul par parcours de l'ontologie.
+ */
+public class WuPalmerSemanticSimilarityTest {
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testMatriceSimilarite() {
+    OntologieOWL onto = IndexHierarchieTest.hierarchie();
+    WuPalmerSemanticSimilarity mesure = new WuPalmerSemanticSimilarity(onto);
+    List<OWLNamedClass> concepts = new ArrayList<OWLNamedClass>(
+        onto.getOWLModel().getUserDefinedOWLNamedClasses());
+    Assert.assertEquals(8, concepts.size());
+
+    double[][] matrice = mesure.calculeMatriceSimilarite(concepts, concepts);
+    for (int k = 0; k < concepts.size(); k++) {
+      for (int l = 0; l < concepts.size(); l++) {
+        double attendu = k == l ? 1.0 : mesure.calculeSansIndex(concepts.get(k),
+            concepts.get(l));
+        Assert.assertEquals(concepts.get(k).getLocalName() + " / "
+            + concepts.get(l).getLocalName(), attendu, matrice[k][l], 1E-12);
+        Assert.assertEquals(attendu, mesure.calcule(concepts.get(k), concepts.get(l)),
+            1E-12);
+      }
+    }
+
+    OWLNamedClass m = onto.getOWLModel().getOWLNamedClass("M");
+    OWLNamedClass a11 = onto.getOWLModel().getOWLNamedClass("A11");
+    OWLNamedClass b = onto.getOWLModel().getOWLNamedClass("B");
+    // PPPC A1 de profondeur 2, M et A11 à 1 de A1
+    Assert.assertEquals(2.0 / 3, mesure.calcule(m, a11), 1E-12);
+    // PPPC Thing
+    Assert.assertEquals(0, mesure.calcule(a11, b), 0);
+  }
+
+  @Test
+  public void testEchecChargement() {
+    String chemin = new File("introuvable.owl").getAbsolutePath();
+    // l'échec n'est pas mémorisé : chaque appel tente de recharger
+    for (int k = 0; k < 2; k++) {
+      try {
+        WuPalmerSemanticSimilarity.getMesure(chemin);
+        Assert.fail();
+      } catch (IllegalArgumentException e) {
+        Assert.assertTrue(e.getMessage().contains("introuvable.owl"));
+      }
+    }
+  }
+
+}
@@ -0,0 +1,560 @@
+package fr.ign.cogit.geoxygene.osm.contributor;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.jgrapht.graph.DefaultDirectedWeightedGraph;
+import org.jgrapht.graph.DefaultWeightedEdge;
+import org.jgrapht.graph.SimpleWeightedGraph;
+
+import fr.ign.cogit.geoxygene.osm.importexport.OSMNode;
+import fr.ign.cogit.geoxygene.osm.importexport.OSMResource;
+import fr.ign.cogit.geoxygene.osm.importexport.OSMWay;
+
+/**
+ * Incremental construction of the co-contribution graph of OSM contributors:
+ * each time a contributor edits an object, the weight of the edge towards
+ * each previous contributor of the object is increased by the number of
+ * versions this contributor made, which gives the same weights as
+ * {@link SocialGraph#createCoContribGraph(java.util.HashMap, java.util.HashMap)}
+ * without iterating over all the pairs of versions of each object again for
+ * each analysis.
+ * <p>
+ * The versions of an object must be given in increasing order, but objects
+ * may be interleaved (e.g. all the contributions sorted by date). Edges are
+ * stored in primitive hash tables keyed by the pair of uids. When the
+ * history is kept, each weight increase is recorded with the date of the
+ * contribution that caused it, so that the graph of any time window can be
+ * built afterwards. For a full history file, read object by object (see
+ * {@link fr.ign.cogit.geoxygene.osm.importexport.pbf.CoContributionSink}),
+ * {@link #release(long, int)} frees the state of the objects already read.
+ */
+public class CoContributionGraphBuilder {
+	public static final int NODE = 0;
+	public static final int WAY = 1;
+	public static final int RELATION = 2;
+
+	/** previous contributors of each object, key: id and type */
+	private final LongObjectMap<ObjectContributors> objects = new LongObjectMap<ObjectContributors>();
+	/** directed weights, key: (later uid, earlier uid) */
+	private final LongDoubleMap edges = new LongDoubleMap();
+	/** neighbours of each contributor in the undirected graph */
+	private final LongObjectMap<IntList> neighbours = new LongObjectMap<IntList>();
+	private int nbEdges = 0;
+	private long nbContributions = 0;
+
+	private final boolean keepHistory;
+	private long[] historyTimes = new long[0];
+	private long[] historyPairs = new long[0];
+	private int[] historyIncrements = new int[0];
+	private int historySize = 0;
+	private boolean historySorted = true;
+
+	/**
+	 * @param keepHistory
+	 *            true to record the weight increases for time-window queries
+	 */
+	public CoContributionGraphBuilder(boolean keepHistory) {
+		this.keepHistory = keepHistory;
+		if (keepHistory) {
+			this.historyTimes = new long[1024];
+			this.historyPairs = new long[1024];
+			this.historyIncrements = new int[1024];
+		}
+	}
+
+	public CoContributionGraphBuilder() {
+		this(true);
+	}
+
+	/**
+	 * Adds a new version of an object.
+	 *
+	 * @param id
+	 *            OSM id of the object
+	 * @param type
+	 *            NODE, WAY or RELATION
+	 * @param uid
+	 *            contributor of the version
+	 * @param time
+	 *            date of the version (ms)
+	 */
+	public void addContribution(long id, int type, int uid, long time) {
+		long key = objectKey(id, type);
+		ObjectContributors contributors = this.objects.get(key);
+		if (contributors == null) {
+			contributors = new ObjectContributors();
+			this.objects.put(key, contributors);
+		}
+		if (!this.neighbours.containsKey(uid))
+			this.neighbours.put(uid, new IntList());
+		for (int k = 0; k < contributors.size; k++) {
+			if (contributors.uids[k] != uid)
+				this.increase(uid, contributors.uids[k], contributors.counts[k], time);
+		}
+		contributors.add(uid);
+		this.nbContributions++;
+	}
+
+	/**
+	 * Adds a new version of an object.
+	 */
+	public void addContribution(OSMResource resource) {
+		int type = RELATION;
+		if (resource.getGeom() instanceof OSMNode)
+			type = NODE;
+		else if (resource.getGeom() instanceof OSMWay)
+			type = WAY;
+		this.addContribution(resource.getId(), type, resource.getUid(), resource.getDate().getTime());
+	}
+
+	/**
+	 * Adds versions of objects, e.g. loaded from PostGIS, in chronological
+	 * order (then by version).
+	 */
+	public void addContributions(Collection<OSMResource> resources) {
+		List<OSMResource> sorted = new ArrayList<OSMResource>(resources);
+		Collections.sort(sorted, new Comparator<OSMResource>() {
+			@Override
+			public int compare(OSMResource r1, OSMResource r2) {
+				int c = r1.getDate().compareTo(r2.getDate());
+				return c != 0 ? c : Integer.compare(r1.getVersion(), r2.getVersion());
+			}
+		});
+		for (OSMResource resource : sorted)
+			this.addContribution(resource);
+	}
+
+	/**
+	 * Adds the versions read from a result set with the columns id, uid and
+	 * datemodif, ordered by id then version (e.g.
+	 * {@code SELECT id, uid, datemodif FROM node ORDER BY id, vnode}). Each
+	 * object is released after its last version.
+	 *
+	 * @return the number of rows read
+	 */
+	public int addContributions(ResultSet r, int type) throws SQLException {
+		int nbRows = 0;
+		boolean first = true;
+		long current = 0;
+		while (r.next()) {
+			long id = r.getLong("id");
+			if (!first && id != current)
+				this.release(current, type);
+			first = false;
+			current = id;
+			this.addContribution(id, type, r.getInt("uid"), r.getTimestamp("datemodif").getTime());
+			nbRows++;
+		}
+		if (!first)
+			this.release(current, type);
+		return nbRows;
+	}
+
+	/**
+	 * Forgets the previous contributors of an object, that will not be edited
+	 * anymore in the analysed data.
+	 */
+	public void release(long id, int type) {
+		this.objects.remove(objectKey(id, type));
+	}
+
+	private void increase(int later, int earlier, int increment, long time) {
+		long pair = pairKey(later, earlier);
+		if (!this.edges.containsKey(pair) && !this.edges.containsKey(pairKey(earlier, later))) {
+			this.neighbours.get(later).add(earlier);
+			this.neighbours.get(earlier).add(later);
+			this.nbEdges++;
+		}
+		this.edges.add(pair, increment);
+		if (this.keepHistory) {
+			if (this.historySize == this.historyTimes.length) {
+				int length = 2 * this.historyTimes.length;
+				this.historyTimes = Arrays.copyOf(this.historyTimes, length);
+				this.historyPairs = Arrays.copyOf(this.historyPairs, length);
+				this.historyIncrements = Arrays.copyOf(this.historyIncrements, length);
+			}
+			if (this.historySize > 0 && time < this.historyTimes[this.historySize - 1])
+				this.historySorted = false;
+			this.historyTimes[this.historySize] = time;
+			this.historyPairs[this.historySize] = pair;
+			this.historyIncrements[this.historySize] = increment;
+			this.historySize++;
+		}
+	}
+
+	public long getNbContributions() {
+		return this.nbContributions;
+	}
+
+	public int getNbContributors() {
+		return this.neighbours.size();
+	}
+
+	/**
+	 * @return the number of edges of the undirected graph
+	 */
+	public int getNbEdges() {
+		return this.nbEdges;
+	}
+
+	/**
+	 * @return the number of co-contributions of uid1 and uid2, in both
+	 *         directions
+	 */
+	public double getWeight(int uid1, int uid2) {
+		return this.edges.get(pairKey(uid1, uid2)) + this.edges.get(pairKey(uid2, uid1));
+	}
+
+	/**
+	 * @return the number of times later edited an object after earlier
+	 */
+	public double getDirectedWeight(int later, int earlier) {
+		return this.edges.get(pairKey(later, earlier));
+	}
+
+	/**
+	 * @return the contributors linked to uid in the undirected graph
+	 */
+	public int[] getNeighbours(int uid) {
+		IntList list = this.neighbours.get(uid);
+		if (list == null)
+			return new int[0];
+		return Arrays.copyOf(list.values, list.size);
+	}
+
+	/**
+	 * Number of co-contributions of uid1 and uid2 caused by contributions made
+	 * in [start, end[.
+	 */
+	public double getWeight(int uid1, int uid2, long start, long end) {
+		this.checkHistory();
+		long pair1 = pairKey(uid1, uid2), pair2 = pairKey(uid2, uid1);
+		double weight = 0;
+		for (int i = this.firstIndex(start); i < this.historySize; i++) {
+			long time = this.historyTimes[i];
+			if (time >= end) {
+				if (this.historySorted)
+					break;
+				continue;
+			}
+			if (time < start)
+				continue;
+			if (this.historyPairs[i] == pair1 || this.historyPairs[i] == pair2)
+				weight += this.historyIncrements[i];
+		}
+		return weight;
+	}
+
+	/**
+	 * @return the undirected weighted graph, as built by
+	 *         {@link SocialGraph#createCoContribGraph(java.util.HashMap, java.util.HashMap)}
+	 *         (which only considers nodes)
+	 */
+	public SimpleWeightedGraph<Long, DefaultWeightedEdge> toCoContribGraph() {
+		SimpleWeightedGraph<Long, DefaultWeightedEdge> g = new SimpleWeightedGraph<Long, DefaultWeightedEdge>(
+				DefaultWeightedEdge.class);
+		this.addVertices(g);
+		for (int i = 0; i < this.edges.keys.length; i++) {
+			if (this.edges.used[i])
+				addWeight(g, later(this.edges.keys[i]), earlier(this.edges.keys[i]), this.edges.values[i]);
+		}
+		return g;
+	}
+
+	/**
+	 * @return the undirected weighted graph of the co-contributions caused by
+	 *         contributions made in [start, end[
+	 */
+	public SimpleWeightedGraph<Long, DefaultWeightedEdge> toCoContribGraph(long start, long end) {
+		this.checkHistory();
+		SimpleWeightedGraph<Long, DefaultWeightedEdge> g = new SimpleWeightedGraph<Long, DefaultWeightedEdge>(
+				DefaultWeightedEdge.class);
+		this.addVertices(g);
+		LongDoubleMap window = new LongDoubleMap();
+		for (int i = this.firstIndex(start); i < this.historySize; i++) {
+			long time = this.historyTimes[i];
+			if (time >= end) {
+				if (this.historySorted)
+					break;
+				continue;
+			}
+			if (time >= start)
+				window.add(this.historyPairs[i], this.historyIncrements[i]);
+		}
+		for (int i = 0; i < window.keys.length; i++) {
+			if (window.used[i])
+				addWeight(g, later(window.keys[i]), earlier(window.keys[i]), window.values[i]);
+		}
+		return g;
+	}
+
+	/**
+	 * @return the directed graph with an edge from each contributor to the
+	 *         previous contributors of the objects they edited (as
+	 *         {@link SocialGraph#createCoContributionGraph(java.util.HashMap, java.util.HashMap)}),
+	 *         weighted by the number of co-contributions
+	 */
+	public DefaultDirectedWeightedGraph<Long, DefaultWeightedEdge> toCoContributionGraph() {
+		DefaultDirectedWeightedGraph<Long, DefaultWeightedEdge> g = new DefaultDirectedWeightedGraph<Long, DefaultWeightedEdge>(
+				DefaultWeightedEdge.class);
+		for (int i = 0; i < this.neighbours.keys.length; i++) {
+			if (this.neighbours.values[i] != null)
+				g.addVertex(this.neighbours.keys[i]);
+		}
+		for (int i = 0; i < this.edges.keys.length; i++) {
+			if (this.edges.used[i]) {
+				DefaultWeightedEdge e = g.addEdge((long) later(this.edges.keys[i]),
+						(long) earlier(this.edges.keys[i]));
+				g.setEdgeWeight(e, this.edges.values[i]);
+			}
+		}
+		return g;
+	}
+
+	private void addVertices(SimpleWeightedGraph<Long, DefaultWeightedEdge> g) {
+		for (int i = 0; i < this.neighbours.keys.length; i++) {
+			if (this.neighbours.values[i] != null)
+				g.addVertex(this.neighbours.keys[i]);
+		}
+	}
+
+	private static void addWeight(SimpleWeightedGraph<Long, DefaultWeightedEdge> g, long uid1, long uid2,
+			double weight) {
+		DefaultWeightedEdge e = g.getEdge(uid1, uid2);
+		if (e == null) {
+			e = g.addEdge(uid1, uid2);
+			g.setEdgeWeight(e, weight);
+		} else {
+			g.setEdgeWeight(e, g.getEdgeWeight(e) + weight);
+		}
+	}
+
+	private void checkHistory() {
+		if (!this.keepHistory)
+			throw new IllegalStateException("The history of the co-contributions has not been kept");
+	}
+
+	/**
+	 * @return the first index of the history that may be in a window starting
+	 *         at start
+	 */
+	private int firstIndex(long start) {
+		if (!this.historySorted)
+			return 0;
+		int index = Arrays.binarySearch(this.historyTimes, 0, this.historySize, start);
+		if (index < 0)
+			return -index - 1;
+		// first of the equal times
+		while (index > 0 && this.historyTimes[index - 1] == start)
+			index--;
+		return index;
+	}
+
+	private static long objectKey(long id, int type) {
+		return (id << 2) | type;
+	}
+
+	private static long pairKey(int later, int earlier) {
+		return ((long) later << 32) | (earlier & 0xFFFFFFFFL);
+	}
+
+	private static int later(long pair) {
+		return (int) (pair >>> 32);
+	}
+
+	private static int earlier(long pair) {
+		return (int) pair;
+	}
+
+	private static int hash(long key, int mask) {
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32)) & mask;
+	}
+
+	/**
+	 * Distinct contributors of an object with their number of versions.
+	 */
+	private static class ObjectContributors {
+		private int[] uids = new int[2];
+		private int[] counts = new int[2];
+		private int size = 0;
+
+		private void add(int uid) {
+			for (int k = 0; k < this.size; k++) {
+				if (this.uids[k] == uid) {
+					this.counts[k]++;
+					return;
+				}
+			}
+			if (this.size == this.uids.length) {
+				this.uids = Arrays.copyOf(this.uids, 2 * this.size);
+				this.counts = Arrays.copyOf(this.counts, 2 * this.size);
+			}
+			this.uids[this.size] = uid;
+			this.counts[this.size] = 1;
+			this.size++;
+		}
+	}
+
+	private static class IntList {
+		private int[] values = new int[4];
+		private int size = 0;
+
+		private void add(int value) {
+			if (this.size == this.values.length)
+				this.values = Arrays.copyOf(this.values, 2 * this.size);
+			this.values[this.size++] = value;
+		}
+	}
+
+	/**
+	 * Open addressing hash table from long keys to summed double values.
+	 */
+	private static class LongDoubleMap {
+		private long[] keys = new long[16];
+		private double[] values = new double[16];
+		private boolean[] used = new boolean[16];
+		private int size = 0;
+
+		private double get(long key) {
+			int mask = this.keys.length - 1;
+			for (int i = hash(key, mask); this.used[i]; i = (i + 1) & mask) {
+				if (this.keys[i] == key)
+					return this.values[i];
+			}
+			return 0;
+		}
+
+		private boolean containsKey(long key) {
+			int mask = this.keys.length - 1;
+			for (int i = hash(key, mask); this.used[i]; i = (i + 1) & mask) {
+				if (this.keys[i] == key)
+					return true;
+			}
+			return false;
+		}
+
+		private void add(long key, double value) {
+			if (2 * (this.size + 1) > this.keys.length)
+				this.rehash(2 * this.keys.length);
+			int mask = this.keys.length - 1;
+			int i = hash(key, mask);
+			while (this.used[i]) {
+				if (this.keys[i] == key) {
+					this.values[i] += value;
+					return;
+				}
+				i = (i + 1) & mask;
+			}
+			this.used[i] = true;
+			this.keys[i] = key;
+			this.values[i] = value;
+			this.size++;
+		}
+
+		private void rehash(int capacity) {
+			long[] oldKeys = this.keys;
+			double[] oldValues = this.values;
+			boolean[] oldUsed = this.used;
+			this.keys = new long[capacity];
+			this.values = new double[capacity];
+			this.used = new boolean[capacity];
+			this.size = 0;
+			for (int i = 0; i < oldKeys.length; i++) {
+				if (oldUsed[i])
+					this.add(oldKeys[i], oldValues[i]);
+			}
+		}
+	}
+
+	/**
+	 * Open addressing hash table from long keys to non null values, with
+	 * removal.
+	 */
+	private static class LongObjectMap<V> {
+		private long[] keys = new long[16];
+		private Object[] values = new Object[16];
+		private int size = 0;
+
+		@SuppressWarnings("unchecked")
+		private V get(long key) {
+			int mask = this.keys.length - 1;
+			for (int i = hash(key, mask); this.values[i] != null; i = (i + 1) & mask) {
+				if (this.keys[i] == key)
+					return (V) this.values[i];
+			}
+			return null;
+		}
+
+		private boolean containsKey(long key) {
+			return this.get(key) != null;
+		}
+
+		private int size() {
+			return this.size;
+		}
+
+		private void put(long key, V value) {
+			if (2 * (this.size + 1) > this.keys.length)
+				this.rehash(2 * this.keys.length);
+			int mask = this.keys.length - 1;
+			int i = hash(key, mask);
+			while (this.values[i] != null) {
+				if (this.keys[i] == key) {
+					this.values[i] = value;
+					return;
+				}
+				i = (i + 1) & mask;
+			}
+			this.keys[i] = key;
+			this.values[i] = value;
+			this.size++;
+		}
+
+		private void remove(long key) {
+			int mask = this.keys.length - 1;
+			int i = hash(key, mask);
+			while (this.values[i] != null && this.keys[i] != key)
+				i = (i + 1) & mask;
+			if (this.values[i] == null)
+				return;
+			this.values[i] = null;
+			this.size--;
+			// shift back the following entries of the cluster
+			int j = i;
+			while (true) {
+				j = (j + 1) & mask;
+				if (this.values[j] == null)
+					return;
+				int k = hash(this.keys[j], mask);
+				boolean inPlace = i <= j ? (i < k && k <= j) : (i < k || k <= j);
+				if (inPlace)
+					continue;
+				this.keys[i] = this.keys[j];
+				this.values[i] = this.values[j];
+				this.values[j] = null;
+				i = j;
+			}
+		}
+
+		@SuppressWarnings("unchecked")
+		private void rehash(int capacity) {
+			long[] oldKeys = this.keys;
+			Object[] oldValues = this.values;
+			this.keys = new long[capacity];
+			this.values = new Object[capacity];
+			this.size = 0;
+			for (int i = 0; i < oldKeys.length; i++) {
+				if (oldValues[i] != null)
+					this.put(oldKeys[i], (V) oldValues[i]);
+			}
+		}
+	}
+}
@@ -21,6 +21,7 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.BlockingQueue;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -95,7 +96,7 @@ public class OSMLoader extends SwingWorker<Void, Void> {
   }
 
   public enum OSMLoaderType {
-    XML, POSTGIS
+    XML, POSTGIS, XML_STAX
   }
 
   private OsmGeometryConversion convertor;
@@ -127,6 +128,10 @@ public class OSMLoader extends SwingWorker<Void, Void> {
     this.nodes = new HashSet<OSMResource>();
     this.ways = new HashSet<OSMResource>();
     this.relations = new HashSet<OSMResource>();
+    if (loaderType.equals(OSMLoaderType.XML_STAX)) {
+      loadOsmFileStAX(fic);
+      return;
+    }
     // this.loadOsmFile(fic);
     if (loaderType.equals(OSMLoaderType.XML))
       loadOsmFileSAX(fic);
@@ -149,6 +154,53 @@ public class OSMLoader extends SwingWorker<Void, Void> {
     }
   }
 
+  /**
+   * Loads the file with the streaming {@link OsmStaxLoader}, for big files:
+   * the features are directly put into the layers, without the intermediate
+   * {@link OSMResource} objects.
+   * 
+   * @param fic
+   * @throws Exception
+   */
+  private void loadOsmFileStAX(File fic) throws Exception {
+    this.currentTask = OsmLoadingTask.OBJECTS;
+    IPopulation<IFeature> nodeFeats = new Population<>("nodes");
+    IPopulation<IFeature> lineFeats = new Population<>("lines");
+    IPopulation<IFeature> polygonFeats = new Population<>("polygons");
+
+    OsmStaxLoader loader = new OsmStaxLoader(fic, convertor.getEpsg());
+    loader.setTagFilter(tagFilter);
+    BlockingQueue<OSMDefaultFeature> queue = loader.start(10000);
+    OSMDefaultFeature feature = queue.take();
+    while (feature != OsmStaxLoader.END_OF_STREAM) {
+      if (feature.getGeom() instanceof IPoint)
+        nodeFeats.add(feature);
+      else if (feature.getGeom() instanceof ILineString)
+        lineFeats.add(feature);
+      else
+        polygonFeats.add(feature);
+      feature = queue.take();
+    }
+    if (loader.getError() != null)
+      throw loader.getError();
+
+    this.nbNoeuds = (int) loader.getNbNodes();
+    this.nbWays = (int) loader.getNbWays();
+    this.nbRels = (int) loader.getNbRels();
+    this.nbResources = this.nbNoeuds + this.nbWays + this.nbRels;
+    if (this.logger.isLoggable(Level.FINE)) {
+      this.logger.fine(loader.getNbFeatures() + " features loaded");
+    }
+
+    // add layers to sld
+    sld.getDataSet().addPopulation(nodeFeats);
+    sld.getDataSet().addPopulation(lineFeats);
+    sld.getDataSet().addPopulation(polygonFeats);
+    sld.createLayerRandomColor("nodes", IPoint.class);
+    sld.createLayerRandomColor("lines", ILineString.class);
+    sld.createLayerRandomColor("polygons", IPolygon.class);
+  }
+
   /**
    * A SAX parser that is quicker than the default DOM parser loadOsmFile.
    * 
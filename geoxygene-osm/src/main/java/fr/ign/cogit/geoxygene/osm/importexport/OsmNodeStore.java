@@ -0,0 +1,300 @@
+/*******************************************************************************
+ * This software is released under the licence CeCILL
+ *
+ * see Licence_CeCILL-C_fr.html see Licence_CeCILL-C_en.html
+ *
+ * see <a href="http://www.cecill.info/">http://www.cecill.info/a>
+ *
+ * @copyright IGN
+ ******************************************************************************/
+package fr.ign.cogit.geoxygene.osm.importexport;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A store of the coordinates of OSM nodes, indexed by node id, made of
+ * primitive arrays rather than objects. The nodes are kept in memory up to a
+ * given number; beyond it, they are spilled by sorted chunks into a temporary
+ * file which is memory-mapped once the store is sealed, so that the heap used
+ * does not depend on the number of nodes.
+ * <p>
+ * Nodes are looked up by a binary search in each sorted run of the store.
+ * As OSM files are sorted by node id, there is usually a single run.
+ *
+ * @see OsmStaxLoader
+ */
+public class OsmNodeStore implements Closeable {
+
+  /** Size of a record in the spill file: id, longitude, latitude. */
+  private static final int RECORD_SIZE = 24;
+  /** Number of records in each mapped segment of the spill file. */
+  private static final int SEGMENT_RECORDS = Integer.MAX_VALUE / RECORD_SIZE;
+
+  private final int maxInMemory;
+  private final File directory;
+
+  // in-memory chunk
+  private long[] ids;
+  private double[] coords;
+  private int count = 0;
+
+  // spill file
+  private File spillFile;
+  private RandomAccessFile raf;
+  private FileChannel channel;
+  private long nbSpilled = 0;
+  private MappedByteBuffer[] segments;
+  /** Start and end (excluded) of the sorted runs in the spill file. */
+  private List<long[]> runs = new ArrayList<long[]>();
+  private long lastSpilledId = Long.MIN_VALUE;
+
+  private boolean sealed = false;
+
+  /**
+   * @param maxInMemory the number of nodes kept in memory before spilling to a
+   *          file
+   * @param directory the directory of the spill file, the default temporary
+   *          directory if null
+   */
+  public OsmNodeStore(int maxInMemory, File directory) {
+    this.maxInMemory = Math.max(1, maxInMemory);
+    this.directory = directory;
+    int capacity = Math.min(this.maxInMemory, 1 << 16);
+    this.ids = new long[capacity];
+    this.coords = new double[2 * capacity];
+  }
+
+  /**
+   * Adds the coordinates of a node.
+   * @param id the OSM id of the node
+   * @param lon the longitude of the node
+   * @param lat the latitude of the node
+   * @throws IOException
+   */
+  public void put(long id, double lon, double lat) throws IOException {
+    if (this.sealed) {
+      throw new IllegalStateException("The node store is sealed");
+    }
+    if (this.count == this.maxInMemory) {
+      this.spill();
+    }
+    if (this.count == this.ids.length) {
+      int capacity = (int) Math.min(this.maxInMemory, 2L * this.ids.length);
+      this.ids = Arrays.copyOf(this.ids, capacity);
+      this.coords = Arrays.copyOf(this.coords, 2 * capacity);
+    }
+    this.ids[this.count] = id;
+    this.coords[2 * this.count] = lon;
+    this.coords[2 * this.count + 1] = lat;
+    this.count++;
+  }
+
+  /**
+   * Ends the filling of the store: sorts the nodes kept in memory or, if some
+   * were spilled, spills the last ones and maps the file.
+   * @throws IOException
+   */
+  public void seal() throws IOException {
+    if (this.sealed) {
+      return;
+    }
+    if (this.channel == null) {
+      this.sort(0, this.count - 1);
+    } else {
+      if (this.count > 0) {
+        this.spill();
+      }
+      this.ids = null;
+      this.coords = null;
+      int nbSegments = (int) ((this.nbSpilled + SEGMENT_RECORDS - 1) / SEGMENT_RECORDS);
+      this.segments = new MappedByteBuffer[nbSegments];
+      for (int s = 0; s < nbSegments; s++) {
+        long first = (long) s * SEGMENT_RECORDS;
+        long size = Math.min(SEGMENT_RECORDS, this.nbSpilled - first) * RECORD_SIZE;
+        this.segments[s] = this.channel.map(FileChannel.MapMode.READ_ONLY,
+            first * RECORD_SIZE, size);
+      }
+    }
+    this.sealed = true;
+  }
+
+  /**
+   * Gets the coordinates of a node of the sealed store.
+   * @param id the OSM id of the node
+   * @param lonLat receives the longitude and latitude of the node
+   * @return false if the node is unknown
+   */
+  public boolean get(long id, double[] lonLat) {
+    if (this.segments == null) {
+      int i = Arrays.binarySearch(this.ids, 0, this.count, id);
+      if (i < 0) {
+        return false;
+      }
+      lonLat[0] = this.coords[2 * i];
+      lonLat[1] = this.coords[2 * i + 1];
+      return true;
+    }
+    for (long[] run : this.runs) {
+      long low = run[0], high = run[1] - 1;
+      while (low <= high) {
+        long mid = (low + high) >>> 1;
+        long midId = this.buffer(mid).getLong(this.offset(mid));
+        if (midId < id) {
+          low = mid + 1;
+        } else if (midId > id) {
+          high = mid - 1;
+        } else {
+          ByteBuffer buffer = this.buffer(mid);
+          int offset = this.offset(mid);
+          lonLat[0] = buffer.getDouble(offset + 8);
+          lonLat[1] = buffer.getDouble(offset + 16);
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  /** @return the number of nodes in the store. */
+  public long size() {
+    return this.nbSpilled + (this.segments == null ? this.count : 0);
+  }
+
+  /** @return true if some nodes were spilled to a file. */
+  public boolean isSpilled() {
+    return this.channel != null;
+  }
+
+  /** @return the number of sorted runs of the store. */
+  public int getNbRuns() {
+    return this.segments == null ? 1 : this.runs.size();
+  }
+
+  private ByteBuffer buffer(long record) {
+    return this.segments[(int) (record / SEGMENT_RECORDS)];
+  }
+
+  private int offset(long record) {
+    return (int) (record % SEGMENT_RECORDS) * RECORD_SIZE;
+  }
+
+  /**
+   * Writes the in-memory chunk, sorted, at the end of the spill file. The
+   * chunk continues the last run if its first id follows the last spilled id.
+   */
+  private void spill() throws IOException {
+    if (this.channel == null) {
+      this.spillFile = File.createTempFile("osmnodes", ".bin", this.directory);
+      this.spillFile.deleteOnExit();
+      this.raf = new RandomAccessFile(this.spillFile, "rw");
+      this.channel = this.raf.getChannel();
+    }
+    this.sort(0, this.count - 1);
+    if (this.runs.isEmpty() || this.ids[0] <= this.lastSpilledId) {
+      this.runs.add(new long[] { this.nbSpilled, this.nbSpilled });
+    }
+    ByteBuffer buffer = ByteBuffer.allocate(RECORD_SIZE * 4096);
+    for (int i = 0; i < this.count; i++) {
+      if (!buffer.hasRemaining()) {
+        this.write(buffer);
+      }
+      buffer.putLong(this.ids[i]);
+      buffer.putDouble(this.coords[2 * i]);
+      buffer.putDouble(this.coords[2 * i + 1]);
+    }
+    this.write(buffer);
+    this.nbSpilled += this.count;
+    this.runs.get(this.runs.size() - 1)[1] = this.nbSpilled;
+    this.lastSpilledId = this.ids[this.count - 1];
+    this.count = 0;
+  }
+
+  private void write(ByteBuffer buffer) throws IOException {
+    buffer.flip();
+    while (buffer.hasRemaining()) {
+      this.channel.write(buffer);
+    }
+    buffer.clear();
+  }
+
+  /** Sorts the in-memory chunk by id, unless it is already sorted. */
+  private void sort(int low, int high) {
+    boolean sorted = true;
+    for (int i = low; i < high && sorted; i++) {
+      sorted = this.ids[i] <= this.ids[i + 1];
+    }
+    if (!sorted) {
+      this.quickSort(low, high);
+    }
+  }
+
+  private void quickSort(int low, int high) {
+    while (high - low > 16) {
+      long pivot = this.ids[(low + high) >>> 1];
+      int i = low, j = high;
+      while (i <= j) {
+        while (this.ids[i] < pivot) {
+          i++;
+        }
+        while (this.ids[j] > pivot) {
+          j--;
+        }
+        if (i <= j) {
+          this.swap(i++, j--);
+        }
+      }
+      // recursion on the smaller part
+      if (j - low < high - i) {
+        this.quickSort(low, j);
+        low = i;
+      } else {
+        this.quickSort(i, high);
+        high = j;
+      }
+    }
+    for (int i = low + 1; i <= high; i++) {
+      for (int j = i; j > low && this.ids[j - 1] > this.ids[j]; j--) {
+        this.swap(j - 1, j);
+      }
+    }
+  }
+
+  private void swap(int i, int j) {
+    long id = this.ids[i];
+    this.ids[i] = this.ids[j];
+    this.ids[j] = id;
+    double c = this.coords[2 * i];
+    this.coords[2 * i] = this.coords[2 * j];
+    this.coords[2 * j] = c;
+    c = this.coords[2 * i + 1];
+    this.coords[2 * i + 1] = this.coords[2 * j + 1];
+    this.coords[2 * j + 1] = c;
+  }
+
+  /**
+   * Releases the spill file.
+   */
+  @Override
+  public void close() throws IOException {
+    this.segments = null;
+    this.ids = null;
+    this.coords = null;
+    this.count = 0;
+    if (this.channel != null) {
+      this.channel.close();
+      this.raf.close();
+      this.channel = null;
+      this.spillFile.delete();
+    }
+  }
+
+}
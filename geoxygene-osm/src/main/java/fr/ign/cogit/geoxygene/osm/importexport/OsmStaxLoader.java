@@ -0,0 +1,747 @@
+/*******************************************************************************
+ * This software is released under the licence CeCILL
+ *
+ * see Licence_CeCILL-C_fr.html see Licence_CeCILL-C_en.html
+ *
+ * see <a href="http://www.cecill.info/">http://www.cecill.info/a>
+ *
+ * @copyright IGN
+ ******************************************************************************/
+package fr.ign.cogit.geoxygene.osm.importexport;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.text.DateFormat;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.function.Predicate;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import fr.ign.cogit.geoxygene.api.spatial.coordgeom.IDirectPositionList;
+import fr.ign.cogit.geoxygene.api.spatial.coordgeom.IPolygon;
+import fr.ign.cogit.geoxygene.api.spatial.geomroot.IGeometry;
+import fr.ign.cogit.geoxygene.osm.schema.OSMDefaultFeature;
+import fr.ign.cogit.geoxygene.osm.schema.OSMFeature;
+import fr.ign.cogit.geoxygene.osm.schema.OsmCaptureTool;
+import fr.ign.cogit.geoxygene.osm.schema.OsmGeometryConversion;
+import fr.ign.cogit.geoxygene.osm.schema.OsmSource;
+import fr.ign.cogit.geoxygene.spatial.coordgeom.GM_LineString;
+import fr.ign.cogit.geoxygene.spatial.coordgeom.GM_Polygon;
+import fr.ign.cogit.geoxygene.spatial.geomaggr.GM_MultiSurface;
+import fr.ign.cogit.geoxygene.spatial.geomprim.GM_Point;
+import fr.ign.cogit.geoxygene.spatial.geomprim.GM_Ring;
+
+/**
+ * A streaming loader of OSM XML files, for extracts too big for
+ * {@link OSMLoader}. The file is read with StAX, without building
+ * {@link OSMResource} objects:
+ * <ul>
+ * <li>the first pass stores the coordinates of all the nodes in an
+ * {@link OsmNodeStore}, which spills to a memory-mapped file beyond a given
+ * number of nodes, emits the tagged nodes and the ways as soon as they are
+ * read, and collects the ids of the multipolygon relations to build and of
+ * their member ways;</li>
+ * <li>the second pass, only run when there are such relations, reads again
+ * the ways to keep the member ways, then builds and emits the multipolygons,
+ * dropping each member way once all its relations are emitted.</li>
+ * </ul>
+ * The nodes must come before the ways and the ways before the relations, as in
+ * the files of the OSM API and of Osmosis (see --sort): an
+ * {@link IOException} is thrown otherwise.
+ * Features are emitted into a bounded queue, so that the heap used grows with
+ * the output rather than with the input file. Untagged nodes (way vertices)
+ * are not emitted. An optional filter on the tags and an optional bounding box
+ * (in WGS84) select the emitted features; a way or a relation is kept when one
+ * of its nodes is in the box. With a box, only the multipolygons with a member
+ * way in the box are built.
+ * <p>
+ * Unlike {@link OSMLoader}, a multipolygon relation with a single outer way
+ * is emitted as a new polygon feature carrying the tags of the relation,
+ * rather than by adding holes to the feature of the outer way.
+ */
+public class OsmStaxLoader {
+
+  private Logger logger = Logger.getLogger(OsmStaxLoader.class.getName());
+
+  /**
+   * Put in the queue by {@link #start(int)} after the last feature.
+   */
+  public static final OSMDefaultFeature END_OF_STREAM = new OSMDefaultFeature(
+      null, null, -1, 0, 0, 0, null, null);
+
+  private File file;
+  private OsmGeometryConversion convertor;
+  private Predicate<Map<String, String>> tagFilter;
+  private double[] bbox;
+  private int maxNodesInMemory = 1 << 22;
+  private File spillDirectory;
+  private long nbNodes = 0, nbWays = 0, nbRels = 0, nbFeatures = 0;
+  private Exception error;
+
+  private DateFormat formatDate = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss");
+
+  /** The sections of an OSM file, in their order. */
+  private static final int NODES = 0, WAYS = 1, RELATIONS = 2;
+
+  /**
+   * @param file the OSM XML file
+   * @param epsg the EPSG code of the coordinate system of the features,
+   *          Lambert93 if null or empty
+   */
+  public OsmStaxLoader(File file, String epsg) {
+    this.file = file;
+    this.convertor = new OsmGeometryConversion(epsg);
+  }
+
+  /**
+   * Only keeps the features whose tags are accepted by the filter.
+   */
+  public void setTagFilter(Predicate<Map<String, String>> tagFilter) {
+    this.tagFilter = tagFilter;
+  }
+
+  /**
+   * Only keeps the features having the given tag key, as the tag filter of
+   * {@link OSMLoader}. A null or empty key removes the filter.
+   */
+  public void setTagFilter(final String key) {
+    if (key == null || key.equals("")) {
+      this.tagFilter = null;
+    } else {
+      this.tagFilter = tags -> tags.containsKey(key);
+    }
+  }
+
+  /**
+   * Only keeps the features having a node in the given box, in WGS84
+   * coordinates.
+   */
+  public void setBoundingBox(double minLon, double minLat, double maxLon,
+      double maxLat) {
+    this.bbox = new double[] { minLon, minLat, maxLon, maxLat };
+  }
+
+  /**
+   * @param maxNodesInMemory the number of node coordinates kept in memory
+   *          before spilling to a file
+   */
+  public void setMaxNodesInMemory(int maxNodesInMemory) {
+    this.maxNodesInMemory = maxNodesInMemory;
+  }
+
+  /**
+   * @param spillDirectory the directory of the node coordinates file, the
+   *          default temporary directory if null
+   */
+  public void setSpillDirectory(File spillDirectory) {
+    this.spillDirectory = spillDirectory;
+  }
+
+  public long getNbNodes() {
+    return nbNodes;
+  }
+
+  public long getNbWays() {
+    return nbWays;
+  }
+
+  public long getNbRels() {
+    return nbRels;
+  }
+
+  public long getNbFeatures() {
+    return nbFeatures;
+  }
+
+  /**
+   * @return the exception that stopped the loading started by
+   *         {@link #start(int)}, null if none
+   */
+  public Exception getError() {
+    return error;
+  }
+
+  /**
+   * Loads the file in a new thread.
+   *
+   * @param capacity the capacity of the queue
+   * @return the queue of the features, ended by {@link #END_OF_STREAM}, even
+   *         if the loading fails
+   */
+  public BlockingQueue<OSMDefaultFeature> start(int capacity) {
+    final BlockingQueue<OSMDefaultFeature> queue = new ArrayBlockingQueue<OSMDefaultFeature>(
+        capacity);
+    Thread thread = new Thread(() -> {
+      try {
+        this.load(queue);
+      } catch (Exception e) {
+        this.error = e;
+        this.logger.log(Level.SEVERE, "Failed to load " + this.file, e);
+      } finally {
+        try {
+          queue.put(END_OF_STREAM);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    }, "OsmStaxLoader");
+    thread.setDaemon(true);
+    thread.start();
+    return queue;
+  }
+
+  /**
+   * Loads the file in the current thread, putting the features in the queue
+   * as soon as they are built.
+   *
+   * @param queue
+   * @throws Exception
+   */
+  public void load(BlockingQueue<? super OSMDefaultFeature> queue)
+      throws Exception {
+    this.nbNodes = 0;
+    this.nbWays = 0;
+    this.nbRels = 0;
+    this.nbFeatures = 0;
+    try (OsmNodeStore store = new OsmNodeStore(this.maxNodesInMemory,
+        this.spillDirectory)) {
+      long[][] relations = this.firstPass(store, queue);
+      if (relations[0].length > 0) {
+        this.secondPass(store, relations[0], relations[1], queue);
+      }
+    }
+    if (this.logger.isLoggable(Level.FINE)) {
+      this.logger.fine(this.nbNodes + " nodes, " + this.nbWays + " ways, "
+          + this.nbRels + " relations read");
+      this.logger.fine(this.nbFeatures + " features loaded");
+    }
+  }
+
+  /**
+   * Stores the nodes, emits the tagged nodes and the ways and returns the
+   * sorted ids of the multipolygons to build and the sorted ids of their
+   * member ways, repeated for each membership.
+   */
+  private long[][] firstPass(OsmNodeStore store,
+      BlockingQueue<? super OSMDefaultFeature> queue) throws Exception {
+    long[] relations = new long[16];
+    int nbRelations = 0;
+    long[] relationWays = new long[16];
+    int nbRelationWays = 0;
+    // the ways with a node in the bounding box, if any
+    long[] inBoxWays = new long[16];
+    int nbInBoxWays = 0;
+    int section = NODES;
+    double[] lonLat = new double[2];
+    InputStream in = new BufferedInputStream(new FileInputStream(this.file),
+        1 << 16);
+    XMLStreamReader reader = XMLInputFactory.newInstance()
+        .createXMLStreamReader(in);
+    try {
+      Element elem = new Element();
+      while (reader.hasNext()) {
+        if (reader.next() != XMLStreamConstants.START_ELEMENT) {
+          continue;
+        }
+        String name = reader.getLocalName();
+        if (name.equals(OSMFeature.TAG_NODE)) {
+          elem.read(reader);
+          this.checkOrder(section, NODES, elem);
+          this.nbNodes++;
+          store.put(elem.id, elem.lon, elem.lat);
+          lonLat[0] = elem.lon;
+          lonLat[1] = elem.lat;
+          if (elem.tags != null && this.accept(elem.tags)
+              && this.inBox(lonLat, 1)) {
+            this.emit(elem,
+                new GM_Point(this.convertor.convertLonLat(lonLat, 1).get(0)),
+                queue);
+          }
+        } else if (name.equals(OSMFeature.TAG_WAY)) {
+          elem.read(reader);
+          this.checkOrder(section, WAYS, elem);
+          section = WAYS;
+          store.seal();
+          this.nbWays++;
+          if (this.emitWay(elem, store, queue) && this.bbox != null) {
+            if (nbInBoxWays == inBoxWays.length) {
+              inBoxWays = Arrays.copyOf(inBoxWays, 2 * nbInBoxWays);
+            }
+            inBoxWays[nbInBoxWays++] = elem.id;
+          }
+        } else if (name.equals(OSMFeature.TAG_REL)) {
+          elem.read(reader);
+          if (section != RELATIONS) {
+            // all the ways are read
+            Arrays.sort(inBoxWays, 0, nbInBoxWays);
+            section = RELATIONS;
+          }
+          store.seal();
+          this.nbRels++;
+          if (this.isMultipolygon(elem)
+              && this.hasWayInBox(elem, inBoxWays, nbInBoxWays)) {
+            if (nbRelations == relations.length) {
+              relations = Arrays.copyOf(relations, 2 * nbRelations);
+            }
+            relations[nbRelations++] = elem.id;
+            for (int i = 0; i < elem.nbMembers; i++) {
+              if (elem.memberWays[i]) {
+                if (nbRelationWays == relationWays.length) {
+                  relationWays = Arrays.copyOf(relationWays,
+                      2 * nbRelationWays);
+                }
+                relationWays[nbRelationWays++] = elem.refs[i];
+              }
+            }
+          }
+        }
+      }
+    } finally {
+      reader.close();
+      in.close();
+    }
+    store.seal();
+    relations = Arrays.copyOf(relations, nbRelations);
+    Arrays.sort(relations);
+    relationWays = Arrays.copyOf(relationWays, nbRelationWays);
+    Arrays.sort(relationWays);
+    return new long[][] { relations, relationWays };
+  }
+
+  /**
+   * Throws an exception if an element of the given section follows the
+   * elements of a later section.
+   */
+  private void checkOrder(int current, int section, Element elem)
+      throws IOException {
+    if (section < current) {
+      throw new IOException(this.file + " is not sorted: "
+          + (section == NODES ? "node " : "way ") + elem.id + " follows the "
+          + (current == WAYS ? "ways" : "relations")
+          + ", sort it first (e.g. osmosis --sort)");
+    }
+  }
+
+  /**
+   * @return true if there is no bounding box or if a member way of the
+   *         relation has a node in the box
+   */
+  private boolean hasWayInBox(Element elem, long[] inBoxWays,
+      int nbInBoxWays) {
+    if (this.bbox == null) {
+      return true;
+    }
+    for (int i = 0; i < elem.nbMembers; i++) {
+      if (elem.memberWays[i]
+          && Arrays.binarySearch(inBoxWays, 0, nbInBoxWays, elem.refs[i]) >= 0) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Keeps the member ways of the multipolygons, then builds and emits the
+   * multipolygons. A member way is dropped once all its relations are
+   * emitted.
+   */
+  private void secondPass(OsmNodeStore store, long[] relations,
+      long[] relationWays, BlockingQueue<? super OSMDefaultFeature> queue)
+      throws Exception {
+    Map<Long, MemberWay> memberWays = new HashMap<Long, MemberWay>();
+    InputStream in = new BufferedInputStream(new FileInputStream(this.file),
+        1 << 16);
+    XMLStreamReader reader = XMLInputFactory.newInstance()
+        .createXMLStreamReader(in);
+    try {
+      Element elem = new Element();
+      while (reader.hasNext()) {
+        if (reader.next() != XMLStreamConstants.START_ELEMENT) {
+          continue;
+        }
+        String name = reader.getLocalName();
+        if (name.equals(OSMFeature.TAG_WAY)) {
+          long id = Long.parseLong(reader.getAttributeValue(null,
+              OSMFeature.ATTR_ID));
+          int index = Arrays.binarySearch(relationWays, id);
+          if (index >= 0) {
+            elem.read(reader);
+            MemberWay way = new MemberWay(elem, store);
+            // the number of relations using the way
+            int first = index, last = index;
+            while (first > 0 && relationWays[first - 1] == id) {
+              first--;
+            }
+            while (last < relationWays.length - 1
+                && relationWays[last + 1] == id) {
+              last++;
+            }
+            way.nbUses = last - first + 1;
+            memberWays.put(id, way);
+          }
+        } else if (name.equals(OSMFeature.TAG_REL)) {
+          long id = Long.parseLong(reader.getAttributeValue(null,
+              OSMFeature.ATTR_ID));
+          if (Arrays.binarySearch(relations, id) >= 0) {
+            elem.read(reader);
+            this.emitMultipolygon(elem, memberWays, queue);
+            for (int i = 0; i < elem.nbMembers; i++) {
+              MemberWay way = elem.memberWays[i] ? memberWays.get(elem.refs[i])
+                  : null;
+              if (way != null && --way.nbUses == 0) {
+                memberWays.remove(elem.refs[i]);
+              }
+            }
+          }
+        }
+      }
+    } finally {
+      reader.close();
+      in.close();
+    }
+  }
+
+  private boolean accept(Map<String, String> tags) {
+    return this.tagFilter == null || this.tagFilter
+        .test(tags == null ? new HashMap<String, String>(0) : tags);
+  }
+
+  private boolean inBox(double[] lonLat, int nbPoints) {
+    if (this.bbox == null) {
+      return true;
+    }
+    for (int i = 0; i < nbPoints; i++) {
+      double lon = lonLat[2 * i], lat = lonLat[2 * i + 1];
+      if (lon >= this.bbox[0] && lat >= this.bbox[1] && lon <= this.bbox[2]
+          && lat <= this.bbox[3]) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private boolean isMultipolygon(Element elem) {
+    return elem.tags != null && "multipolygon".equals(elem.tags.get("type"))
+        && this.accept(elem.tags);
+  }
+
+  /**
+   * Emits a way if its tags are accepted and if it has a node in the box.
+   *
+   * @return true if the way has a node in the box
+   */
+  private boolean emitWay(Element elem, OsmNodeStore store,
+      BlockingQueue<? super OSMDefaultFeature> queue) throws Exception {
+    // on ne charge pas les lignes ne contenant qu'un point
+    boolean accepted = elem.nbRefs >= 2 && this.accept(elem.tags);
+    // the nodes of the other ways are only looked at to select the
+    // multipolygons in the box
+    if (!accepted && this.bbox == null) {
+      return true;
+    }
+    double[] lonLat = new double[2 * elem.nbRefs];
+    double[] vertex = new double[2];
+    int nbPoints = 0;
+    for (int i = 0; i < elem.nbRefs; i++) {
+      if (store.get(elem.refs[i], vertex)) {
+        lonLat[2 * nbPoints] = vertex[0];
+        lonLat[2 * nbPoints + 1] = vertex[1];
+        nbPoints++;
+      }
+    }
+    boolean inBox = this.inBox(lonLat, nbPoints);
+    if (!accepted || nbPoints < 2 || !inBox) {
+      return inBox;
+    }
+    IDirectPositionList coord = this.convertor.convertLonLat(lonLat, nbPoints);
+    boolean closed = elem.refs[0] == elem.refs[elem.nbRefs - 1];
+    if (closed && nbPoints >= 4) {
+      this.emit(elem, new GM_Polygon(new GM_LineString(coord)), queue);
+    } else {
+      this.emit(elem, new GM_LineString(coord), queue);
+    }
+    return true;
+  }
+
+  private void emitMultipolygon(Element elem, Map<Long, MemberWay> memberWays,
+      BlockingQueue<? super OSMDefaultFeature> queue) throws Exception {
+    List<MemberWay> outerWays = new ArrayList<MemberWay>();
+    List<MemberWay> innerWays = new ArrayList<MemberWay>();
+    for (int i = 0; i < elem.nbMembers; i++) {
+      MemberWay way = elem.memberWays[i] ? memberWays.get(elem.refs[i]) : null;
+      if (way == null) {
+        continue;
+      }
+      if ("inner".equals(elem.roles[i])) {
+        innerWays.add(way);
+      } else {
+        outerWays.add(way);
+      }
+    }
+    List<double[]> outers = MemberWay.rings(outerWays);
+    List<double[]> inners = MemberWay.rings(innerWays);
+    if (outers.isEmpty()) {
+      return;
+    }
+    boolean inBox = false;
+    for (double[] outer : outers) {
+      inBox = inBox || this.inBox(outer, outer.length / 2);
+    }
+    if (!inBox) {
+      return;
+    }
+    List<IPolygon> polygons = new ArrayList<IPolygon>();
+    for (double[] outer : outers) {
+      IPolygon polygon = new GM_Polygon(new GM_LineString(
+          this.convertor.convertLonLat(outer, outer.length / 2)));
+      // add inner rings to the outer ring containing them
+      for (double[] inner : inners) {
+        if (MemberWay.contains(outer, inner[0], inner[1])) {
+          polygon.addInterior(new GM_Ring(new GM_LineString(
+              this.convertor.convertLonLat(inner, inner.length / 2))));
+        }
+      }
+      polygons.add(polygon);
+    }
+    if (polygons.size() == 1) {
+      this.emit(elem, polygons.get(0), queue);
+    } else {
+      this.emit(elem, new GM_MultiSurface<IPolygon>(polygons), queue);
+    }
+  }
+
+  private void emit(Element elem, IGeometry geom,
+      BlockingQueue<? super OSMDefaultFeature> queue)
+      throws InterruptedException {
+    Date date = null;
+    if (elem.timeStamp != null) {
+      try {
+        date = this.formatDate.parse(elem.timeStamp);
+      } catch (ParseException e) {
+        this.logger.log(Level.WARNING, "Invalid timestamp " + elem.timeStamp
+            + " of element " + elem.id, e);
+      }
+    }
+    Map<String, String> tags = elem.tags == null
+        ? new HashMap<String, String>(0) : elem.tags;
+    OSMDefaultFeature feature = new OSMDefaultFeature(elem.user, geom, elem.id,
+        elem.changeSet, elem.version, elem.uid, date, tags);
+    feature.setSource(OsmSource.valueOfTag(tags.get(OSMFeature.TAG_SOURCE)));
+    feature.setCaptureTool(
+        OsmCaptureTool.valueOfTexte(tags.get(OSMFeature.TAG_OUTIL)));
+    queue.put(feature);
+    this.nbFeatures++;
+  }
+
+  /**
+   * A node, way or relation element, reused from one element to the next.
+   */
+  private static class Element {
+    long id;
+    int version, changeSet, uid;
+    String user, timeStamp;
+    double lon, lat;
+    /** The tags, null when the element has none. */
+    Map<String, String> tags;
+    /** The node refs of a way, or the member refs of a relation. */
+    long[] refs = new long[64];
+    int nbRefs;
+    boolean[] memberWays = new boolean[64];
+    String[] roles = new String[64];
+    int nbMembers;
+
+    /**
+     * Reads the element at the current start tag, up to its end tag.
+     */
+    void read(XMLStreamReader reader) throws XMLStreamException {
+      String name = reader.getLocalName();
+      this.id = Long.parseLong(reader.getAttributeValue(null,
+          OSMFeature.ATTR_ID));
+      String versionAttr = reader.getAttributeValue(null,
+          OSMFeature.ATTR_VERSION);
+      this.version = versionAttr == null ? 1 : Integer.parseInt(versionAttr);
+      String changeSetAttr = reader.getAttributeValue(null,
+          OSMFeature.ATTR_SET);
+      this.changeSet = changeSetAttr == null ? 0
+          : Integer.parseInt(changeSetAttr);
+      this.user = reader.getAttributeValue(null, OSMFeature.ATTR_USER);
+      String uidAttr = reader.getAttributeValue(null, OSMFeature.ATTR_UID);
+      this.uid = uidAttr == null ? 0 : Integer.parseInt(uidAttr);
+      this.timeStamp = reader.getAttributeValue(null, OSMFeature.ATTR_DATE);
+      if (name.equals(OSMFeature.TAG_NODE)) {
+        this.lat = Double.parseDouble(reader.getAttributeValue(null,
+            OSMFeature.ATTR_LAT));
+        this.lon = Double.parseDouble(reader.getAttributeValue(null,
+            OSMFeature.ATTR_LON));
+      }
+      this.tags = null;
+      this.nbRefs = 0;
+      this.nbMembers = 0;
+      while (reader.hasNext()) {
+        int event = reader.next();
+        if (event == XMLStreamConstants.END_ELEMENT
+            && reader.getLocalName().equals(name)) {
+          return;
+        }
+        if (event != XMLStreamConstants.START_ELEMENT) {
+          continue;
+        }
+        String child = reader.getLocalName();
+        if (child.equals("tag")) {
+          if (this.tags == null) {
+            this.tags = new HashMap<String, String>();
+          }
+          this.tags.put(reader.getAttributeValue(null, "k"),
+              reader.getAttributeValue(null, "v"));
+        } else if (child.equals("nd")) {
+          this.addRef(Long.parseLong(reader.getAttributeValue(null, "ref")));
+        } else if (child.equals("member")) {
+          this.addRef(Long.parseLong(reader.getAttributeValue(null, "ref")));
+          this.memberWays[this.nbMembers] = "way"
+              .equals(reader.getAttributeValue(null, "type"));
+          this.roles[this.nbMembers] = reader.getAttributeValue(null, "role");
+          this.nbMembers++;
+        }
+      }
+    }
+
+    private void addRef(long ref) {
+      if (this.nbRefs == this.refs.length) {
+        this.refs = Arrays.copyOf(this.refs, 2 * this.nbRefs);
+        this.memberWays = Arrays.copyOf(this.memberWays, 2 * this.nbRefs);
+        this.roles = Arrays.copyOf(this.roles, 2 * this.nbRefs);
+      }
+      this.refs[this.nbRefs++] = ref;
+    }
+  }
+
+  /**
+   * A member way of a multipolygon: its node refs and their coordinates.
+   */
+  private static class MemberWay {
+    long[] refs;
+    /** Longitude and latitude of each node, NaN if the node is unknown. */
+    double[] lonLat;
+    /** The number of memberships of the way not emitted yet. */
+    int nbUses;
+
+    MemberWay(Element elem, OsmNodeStore store) {
+      this.refs = Arrays.copyOf(elem.refs, elem.nbRefs);
+      this.lonLat = new double[2 * elem.nbRefs];
+      double[] vertex = new double[2];
+      for (int i = 0; i < elem.nbRefs; i++) {
+        if (!store.get(this.refs[i], vertex)) {
+          vertex[0] = Double.NaN;
+          vertex[1] = Double.NaN;
+        }
+        this.lonLat[2 * i] = vertex[0];
+        this.lonLat[2 * i + 1] = vertex[1];
+      }
+    }
+
+    /**
+     * Joins the ways by their end nodes into closed rings. The ways that do
+     * not end up in a closed ring are dropped.
+     *
+     * @return the coordinates of each ring, without the unknown nodes
+     */
+    static List<double[]> rings(List<MemberWay> ways) {
+      List<double[]> rings = new ArrayList<double[]>();
+      List<MemberWay> remaining = new ArrayList<MemberWay>(ways);
+      while (!remaining.isEmpty()) {
+        MemberWay way = remaining.remove(0);
+        if (way.refs.length < 2) {
+          continue;
+        }
+        List<MemberWay> parts = new ArrayList<MemberWay>();
+        List<Boolean> reversed = new ArrayList<Boolean>();
+        parts.add(way);
+        reversed.add(false);
+        long first = way.refs[0], last = way.refs[way.refs.length - 1];
+        while (first != last) {
+          MemberWay next = null;
+          for (MemberWay candidate : remaining) {
+            if (candidate.refs.length < 2) {
+              continue;
+            }
+            if (candidate.refs[0] == last) {
+              reversed.add(false);
+              last = candidate.refs[candidate.refs.length - 1];
+              next = candidate;
+              break;
+            }
+            if (candidate.refs[candidate.refs.length - 1] == last) {
+              reversed.add(true);
+              last = candidate.refs[0];
+              next = candidate;
+              break;
+            }
+          }
+          if (next == null) {
+            break;
+          }
+          remaining.remove(next);
+          parts.add(next);
+        }
+        if (first != last) {
+          continue;
+        }
+        // concatenate the parts, without repeating the shared nodes
+        double[] ring = new double[0];
+        int nbPoints = 0;
+        for (int p = 0; p < parts.size(); p++) {
+          MemberWay part = parts.get(p);
+          int n = part.refs.length;
+          ring = Arrays.copyOf(ring, 2 * (nbPoints + n));
+          for (int k = p == 0 ? 0 : 1; k < n; k++) {
+            int i = reversed.get(p) ? n - 1 - k : k;
+            if (!Double.isNaN(part.lonLat[2 * i])) {
+              ring[2 * nbPoints] = part.lonLat[2 * i];
+              ring[2 * nbPoints + 1] = part.lonLat[2 * i + 1];
+              nbPoints++;
+            }
+          }
+        }
+        if (nbPoints >= 4) {
+          rings.add(Arrays.copyOf(ring, 2 * nbPoints));
+        }
+      }
+      return rings;
+    }
+
+    /**
+     * @return true if the point is inside the ring (even-odd rule)
+     */
+    static boolean contains(double[] ring, double lon, double lat) {
+      boolean inside = false;
+      int n = ring.length / 2;
+      for (int i = 0, j = n - 1; i < n; j = i++) {
+        double xi = ring[2 * i], yi = ring[2 * i + 1];
+        double xj = ring[2 * j], yj = ring[2 * j + 1];
+        if ((yi > lat) != (yj > lat)
+            && lon < (xj - xi) * (lat - yi) / (yj - yi) + xi) {
+          inside = !inside;
+        }
+      }
+      return inside;
+    }
+  }
+
+}
@@ -72,90 +72,95 @@ public class BuildingAssessment {
 
 	public Map<Long, IFeature> buildGeometry() throws Exception {
 		Map<Long, IFeature> buildingGeom = new HashMap<Long, IFeature>();
-		for (OSMResource b : buildings.values()) {
-			if (!b.isVisible()) {
-				OSMDefaultFeature feature = new OSMDefaultFeature(b.getContributeur(), null, b.getId(),
-						b.getChangeSet(), b.getVersion(), b.getUid(), b.getDate(), b.getTags());
-				feature.setSource(OsmSource.valueOfTag(b.getSource()));
-				feature.setCaptureTool(b.getCaptureTool());
-				buildingGeom.put(b.getId(), feature);
-				continue;
-			}
-
-			List<OSMResource> nodes = new ArrayList<OSMResource>();
-			if (b.getGeom().getClass().getSimpleName().equalsIgnoreCase("OSMWay")) {
-				// Récupérer la liste des nodes qui composent le way
-				if (((OSMWay) b.getGeom()).isPolygon()) {
-					System.out.println("OSMResource ID : " + b.getId());
-					List<Long> vertices = ((OSMWay) b.getGeom()).getVertices();
-					System.out.println("Number of vertices :" + vertices.size());
-					nodes = loader.getNodes(vertices, timestamp);
-					if (nodes == null)
-						continue;
-					System.out.println("Number of nodes :" + nodes.size());
-					for (OSMResource n : nodes)
-						System.out.println(n.getId());
-					System.out.println(((OSMWay) b.getGeom()).isPolygon());
-					// if
-					// (OsmGeometryConversion.convertOSMPolygonToLambert93((OSMWay)
-					// b.getGeom(), nodes).dimension() < 2)
-
-					// throw new NumberPointsException(
-					// "Way #" + b.getId() + " est composé de " + nodes.size() +
-					// "nodes");
-
-					OSMDefaultFeature feature = new OSMDefaultFeature(b.getContributeur(),
-							OsmGeometryConversion.convertOSMPolygonToLambert93((OSMWay) b.getGeom(), nodes), b.getId(),
+		try {
+			for (OSMResource b : buildings.values()) {
+				if (!b.isVisible()) {
+					OSMDefaultFeature feature = new OSMDefaultFeature(b.getContributeur(), null, b.getId(),
 							b.getChangeSet(), b.getVersion(), b.getUid(), b.getDate(), b.getTags());
 					feature.setSource(OsmSource.valueOfTag(b.getSource()));
 					feature.setCaptureTool(b.getCaptureTool());
 					buildingGeom.put(b.getId(), feature);
-					nodes.clear();
+					continue;
 				}
 
-			}
-			if (b.getGeom().getClass().getSimpleName().equalsIgnoreCase("OSMRelation")) {
-				// Récupérer les membres de la relation
-				OSMRelation primitive = (OSMRelation) b.getGeom();
-				OsmRelationMember outer = primitive.getOuterMembers().get(0);
-				OSMResource outerWay = loader.getWay(outer.getRef(), timestamp);
-
-				nodes = loader.getNodes(((OSMWay) outerWay.getGeom()).getVertices(), timestamp);
-				if (nodes == null)
-					continue;
+				List<OSMResource> nodes = new ArrayList<OSMResource>();
+				if (b.getGeom().getClass().getSimpleName().equalsIgnoreCase("OSMWay")) {
+					// Récupérer la liste des nodes qui composent le way
+					if (((OSMWay) b.getGeom()).isPolygon()) {
+						System.out.println("OSMResource ID : " + b.getId());
+						List<Long> vertices = ((OSMWay) b.getGeom()).getVertices();
+						System.out.println("Number of vertices :" + vertices.size());
+						nodes = loader.getNodes(vertices, timestamp);
+						if (nodes == null)
+							continue;
+						System.out.println("Number of nodes :" + nodes.size());
+						for (OSMResource n : nodes)
+							System.out.println(n.getId());
+						System.out.println(((OSMWay) b.getGeom()).isPolygon());
+						// if
+						// (OsmGeometryConversion.convertOSMPolygonToLambert93((OSMWay)
+						// b.getGeom(), nodes).dimension() < 2)
+
+						// throw new NumberPointsException(
+						// "Way #" + b.getId() + " est composé de " + nodes.size() +
+						// "nodes");
+
+						OSMDefaultFeature feature = new OSMDefaultFeature(b.getContributeur(),
+								OsmGeometryConversion.convertOSMPolygonToLambert93((OSMWay) b.getGeom(), nodes), b.getId(),
+								b.getChangeSet(), b.getVersion(), b.getUid(), b.getDate(), b.getTags());
+						feature.setSource(OsmSource.valueOfTag(b.getSource()));
+						feature.setCaptureTool(b.getCaptureTool());
+						buildingGeom.put(b.getId(), feature);
+						nodes.clear();
+					}
 
-				IPolygon polygon = OsmGeometryConversion.convertOSMPolygonToLambert93((OSMWay) outerWay.getGeom(),
-						nodes);
-				// if (polygon.dimension() < 2)
-				// throw new NumberPointsException("Way #" + b.getId() + " est
-				// composé de " + nodes.size() + "nodes");
+				}
+				if (b.getGeom().getClass().getSimpleName().equalsIgnoreCase("OSMRelation")) {
+					// Récupérer les membres de la relation
+					OSMRelation primitive = (OSMRelation) b.getGeom();
+					OsmRelationMember outer = primitive.getOuterMembers().get(0);
+					OSMResource outerWay = loader.getWay(outer.getRef(), timestamp);
 
-				List<OsmRelationMember> inners = primitive.getInnerMembers();
-				// add inner rings to polygon
-				for (OsmRelationMember inner : inners) {
-					OSMResource resource = loader.getWay(inner.getRef(), timestamp);
-					nodes.clear();
-					if (resource == null)
-						continue;
-					nodes = loader.getNodes(((OSMWay) resource.getGeom()).getVertices(), timestamp);
+					nodes = loader.getNodes(((OSMWay) outerWay.getGeom()).getVertices(), timestamp);
 					if (nodes == null)
 						continue;
-					IRing ring = OsmGeometryConversion.convertOSMPolygonToLambert93((OSMWay) resource.getGeom(), nodes)
-							.getExterior();
-					if (ring.coord().size() < 4)
-						continue;
-					polygon.addInterior(ring);
-				}
-				OSMDefaultFeature feature = new OSMDefaultFeature(b.getContributeur(), polygon, b.getId(),
-						b.getChangeSet(), b.getVersion(), b.getUid(), b.getDate(), b.getTags());
-				feature.setSource(OsmSource.valueOfTag(b.getSource()));
-				feature.setCaptureTool(b.getCaptureTool());
 
-				buildingGeom.put(b.getId(), feature);
-				nodes.clear();
+					IPolygon polygon = OsmGeometryConversion.convertOSMPolygonToLambert93((OSMWay) outerWay.getGeom(),
+							nodes);
+					// if (polygon.dimension() < 2)
+					// throw new NumberPointsException("Way #" + b.getId() + " est
+					// composé de " + nodes.size() + "nodes");
+
+					List<OsmRelationMember> inners = primitive.getInnerMembers();
+					// add inner rings to polygon
+					for (OsmRelationMember inner : inners) {
+						OSMResource resource = loader.getWay(inner.getRef(), timestamp);
+						nodes.clear();
+						if (resource == null)
+							continue;
+						nodes = loader.getNodes(((OSMWay) resource.getGeom()).getVertices(), timestamp);
+						if (nodes == null)
+							continue;
+						IRing ring = OsmGeometryConversion.convertOSMPolygonToLambert93((OSMWay) resource.getGeom(), nodes)
+								.getExterior();
+						if (ring.coord().size() < 4)
+							continue;
+						polygon.addInterior(ring);
+					}
+					OSMDefaultFeature feature = new OSMDefaultFeature(b.getContributeur(), polygon, b.getId(),
+							b.getChangeSet(), b.getVersion(), b.getUid(), b.getDate(), b.getTags());
+					feature.setSource(OsmSource.valueOfTag(b.getSource()));
+					feature.setCaptureTool(b.getCaptureTool());
+
+					buildingGeom.put(b.getId(), feature);
+					nodes.clear();
+				}
 			}
+			return buildingGeom;
+		} finally {
+			// connections of getNodes/getWay
+			loader.close();
 		}
-		return buildingGeom;
 	}
 
 	public OSMObject getHistorySinceDate(OSMResource r, String timestamp) throws Exception {
@@ -335,34 +340,39 @@ public class BuildingAssessment {
 		String[] lulcKeyTags = { "amenity", "leisure", "landuse", "natural" };
 		Set<OSMResource> lulc = this.loader.filterByTags(lulcKeyTags);
 		Map<Long, IFeature> lulcGeom = new HashMap<Long, IFeature>();
-		for (OSMResource b : lulc) {
-			// On retire les batiments qui pourraient se trouver dans la
-			// sélection
-			if (b.getTags().containsKey("building") || b.getTags().containsKey("building:part")
-					|| b.getTags().containsKey("indoor"))
-				continue;
-			if (((OSMWay) b.getGeom()).isPolygon()) {
-				System.out.println("OSMResource ID : " + b.getId());
-				List<Long> vertices = ((OSMWay) b.getGeom()).getVertices();
-				System.out.println("Number of vertices :" + vertices.size());
-				List<OSMResource> nodes = loader.getNodes(vertices, timestamp);
-				if (nodes == null)
+		try {
+			for (OSMResource b : lulc) {
+				// On retire les batiments qui pourraient se trouver dans la
+				// sélection
+				if (b.getTags().containsKey("building") || b.getTags().containsKey("building:part")
+						|| b.getTags().containsKey("indoor"))
 					continue;
-				System.out.println("Number of nodes :" + nodes.size());
-				for (OSMResource n : nodes)
-					System.out.println(n.getId());
-				System.out.println(((OSMWay) b.getGeom()).isPolygon());
-				OSMDefaultFeature feature = new OSMDefaultFeature(b.getContributeur(),
-						OsmGeometryConversion.convertOSMPolygonToLambert93((OSMWay) b.getGeom(), nodes), b.getId(),
-						b.getChangeSet(), b.getVersion(), b.getUid(), b.getDate(), b.getTags());
-				feature.setSource(OsmSource.valueOfTag(b.getSource()));
-				feature.setCaptureTool(b.getCaptureTool());
-				lulcGeom.put(b.getId(), feature);
-				nodes.clear();
+				if (((OSMWay) b.getGeom()).isPolygon()) {
+					System.out.println("OSMResource ID : " + b.getId());
+					List<Long> vertices = ((OSMWay) b.getGeom()).getVertices();
+					System.out.println("Number of vertices :" + vertices.size());
+					List<OSMResource> nodes = loader.getNodes(vertices, timestamp);
+					if (nodes == null)
+						continue;
+					System.out.println("Number of nodes :" + nodes.size());
+					for (OSMResource n : nodes)
+						System.out.println(n.getId());
+					System.out.println(((OSMWay) b.getGeom()).isPolygon());
+					OSMDefaultFeature feature = new OSMDefaultFeature(b.getContributeur(),
+							OsmGeometryConversion.convertOSMPolygonToLambert93((OSMWay) b.getGeom(), nodes), b.getId(),
+							b.getChangeSet(), b.getVersion(), b.getUid(), b.getDate(), b.getTags());
+					feature.setSource(OsmSource.valueOfTag(b.getSource()));
+					feature.setCaptureTool(b.getCaptureTool());
+					lulcGeom.put(b.getId(), feature);
+					nodes.clear();
+				}
 			}
-		}
 
-		return lulcGeom;
+			return lulcGeom;
+		} finally {
+			// connections of getNodes
+			loader.close();
+		}
 	}
 
 	public static void toCSV(String FILE_HEADER, Map<Long, Object[]> indicatorList, File file) throws IOException {
@@ -0,0 +1,73 @@
+package fr.ign.cogit.geoxygene.osm.importexport.pbf;
+
+import java.util.Map;
+
+import org.openstreetmap.osmosis.core.container.v0_6.EntityContainer;
+import org.openstreetmap.osmosis.core.domain.v0_6.Entity;
+import org.openstreetmap.osmosis.core.task.v0_6.Sink;
+
+import fr.ign.cogit.geoxygene.osm.contributor.CoContributionGraphBuilder;
+
+/**
+ * Feeds a {@link CoContributionGraphBuilder} with the versions read from a
+ * full history PBF file, without creating the OSM resources. The versions of
+ * an object are contiguous in a history file, so each object is released as
+ * soon as the next one is read.
+ */
+public class CoContributionSink implements Sink {
+
+	private final CoContributionGraphBuilder builder;
+	private boolean first;
+	private long currentId;
+	private int currentType;
+
+	public CoContributionSink(CoContributionGraphBuilder builder) {
+		this.builder = builder;
+	}
+
+	public CoContributionGraphBuilder getBuilder() {
+		return builder;
+	}
+
+	@Override
+	public void initialize(Map<String, Object> arg0) {
+		this.first = true;
+	}
+
+	@Override
+	public void process(EntityContainer arg0) {
+		Entity entity = arg0.getEntity();
+		int type;
+		switch (entity.getType()) {
+		case Node:
+			type = CoContributionGraphBuilder.NODE;
+			break;
+		case Way:
+			type = CoContributionGraphBuilder.WAY;
+			break;
+		case Relation:
+			type = CoContributionGraphBuilder.RELATION;
+			break;
+		default:
+			return;
+		}
+		if (!first && (entity.getId() != currentId || type != currentType))
+			builder.release(currentId, currentType);
+		first = false;
+		currentId = entity.getId();
+		currentType = type;
+		builder.addContribution(entity.getId(), type, entity.getUser().getId(), entity.getTimestamp().getTime());
+	}
+
+	@Override
+	public void complete() {
+		if (!first)
+			builder.release(currentId, currentType);
+		first = true;
+	}
+
+	@Override
+	public void release() {
+	}
+
+}
@@ -22,6 +22,7 @@ import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 
 import fr.ign.cogit.geoxygene.osm.anonymization.db.SQLDBPreAnonymization;
+import fr.ign.cogit.geoxygene.osm.contributor.CoContributionGraphBuilder;
 
 public class GeoxPbfReader {
 
@@ -83,6 +84,23 @@ public class GeoxPbfReader {
 
 	}
 
+	/*******
+	 * Builds the co-contribution graph of a full history PBF file without
+	 * loading it into PostGIS.
+	 * 
+	 * @param pbfFilePath:
+	 *            path to PBF file
+	 * @param builder:
+	 *            builder that receives the versions of the file
+	 */
+	public static CoContributionGraphBuilder pbf2CoContributionGraph(String pbfFilePath,
+			CoContributionGraphBuilder builder) {
+		PbfReader reader = new PbfReader(new File(pbfFilePath), 1);
+		reader.setSink(new CoContributionSink(builder));
+		reader.run();
+		return builder;
+	}
+
 	/*****
 	 * Adds a new column "visible" to a PostgreSQL table
 	 * 
@@ -9,6 +9,7 @@
  ******************************************************************************/
 package fr.ign.cogit.geoxygene.osm.importexport.postgis;
 
+import java.io.Closeable;
 import java.sql.DriverManager;
 import java.sql.ResultSet;
 import java.sql.SQLException;
@@ -19,6 +20,7 @@ import java.text.SimpleDateFormat;
 import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -26,6 +28,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.function.Consumer;
 
 import org.threeten.extra.Interval;
 import org.w3c.dom.Document;
@@ -46,7 +49,14 @@ import fr.ign.cogit.geoxygene.osm.importexport.metrics.OSMResourceComparator;
 import twitter4j.JSONException;
 import twitter4j.JSONObject;
 
-public class LoadFromPostGIS {
+/**
+ * Loads OSM history data from a PostGIS database. The methods based on the
+ * {@link SnapshotLoader} (getNodes, getWay, getSnapshotWay,
+ * getRelationMemberList) share a pool of connections which is opened on first
+ * use and kept until {@link #close()}; it is opened again if the loader is
+ * used after being closed.
+ */
+public class LoadFromPostGIS implements Closeable {
 	public String host;
 	public String port;
 	public String dbName;
@@ -56,6 +66,8 @@ public class LoadFromPostGIS {
 	// public Map<OsmRelationMember, Long> OsmRelMbList;
 	public Map<Long, List<OsmRelationMember>> OsmRelMbList;
 	public Set<OSMResource> myJavaRelations;
+	private PostGISConnectionPool pool;
+	private SnapshotLoader snapshotLoader;
 
 	public LoadFromPostGIS(String host, String port, String dbName, String dbUser, String dbPwd) {
 		this.host = host;
@@ -69,6 +81,30 @@ public class LoadFromPostGIS {
 		this.myJavaRelations = new HashSet<OSMResource>();
 	}
 
+	/**
+	 * Loader of historical snapshots using set-based queries and a pool of
+	 * connections to the same database (created on first call, closed by
+	 * {@link #close()}).
+	 */
+	public SnapshotLoader getSnapshotLoader() {
+		if (this.snapshotLoader == null) {
+			this.pool = new PostGISConnectionPool(this.host, this.port, this.dbName, this.dbUser, this.dbPwd, 4);
+			this.snapshotLoader = new SnapshotLoader(this.pool);
+		}
+		return this.snapshotLoader;
+	}
+
+	/**
+	 * Closes the connections opened by the snapshot loader.
+	 */
+	@Override
+	public void close() {
+		if (this.pool != null)
+			this.pool.close();
+		this.pool = null;
+		this.snapshotLoader = null;
+	}
+
 	/**
 	 * Récupère les coordonnées lon_min, lat_min, lon_max, lat_max de la commune
 	 * Attention: il faut lancer le script
@@ -492,54 +528,27 @@ public class LoadFromPostGIS {
 		}
 	}
 
+	/**
+	 * Latest versions at timestamp of the nodes of a closed way: all the nodes
+	 * but the last one (which repeats the first one), then the first node
+	 * again. Returns null if one of the nodes is not in the database. The
+	 * nodes are retrieved with set-based queries (see {@link SnapshotLoader}).
+	 */
 	public List<OSMResource> getNodes(List<Long> nodes, String timestamp) throws Exception {
 		List<OSMResource> nodeSet = new ArrayList<OSMResource>();
 		OSMResource firstResource = null;
-
-		java.sql.Connection conn;
-		try {
-			String url = "jdbc:postgresql://" + this.host + ":" + this.port + "/" + this.dbName;
-			conn = DriverManager.getConnection(url, this.dbUser, this.dbPwd);
-			Statement s = conn.createStatement(ResultSet.TYPE_SCROLL_INSENSITIVE, ResultSet.CONCUR_UPDATABLE);
-
-			for (int i = 0; i < nodes.size() - 1; i++) {
-				Long id = nodes.get(i);
-
-				String vmax = "(SELECT max(vnode) AS max FROM node WHERE id = " + id + " AND datemodif <= '" + timestamp
-						+ "')";
-				System.out.println("Node ID" + id + ", vmax : " + vmax);
-				String query = "SELECT node.idnode, node.id,node.uid,node.vnode, node.changeset, node.username, node.datemodif, hstore_to_json(node.tags), node.visible, node.lon, node.lat "
-						+ "FROM node WHERE id = " + id + " AND vnode = " + vmax;
-				ResultSet r = s.executeQuery(query);
-				if (r.next() == false) {
-					s.close();
-					conn.close();
-					return null;
-					// OSMResource n = getNodeFromAPI(id, timestamp);
-					// nodeSet.add(n);
-					// if (i == 0)
-					// firstResource = n;
-
-					// TODO : mettre à jour la base de donnée à partir d'un
-					// OSMResource
-					// continue;
-				} else {
-					do {
-						OSMResource n = this.writeNode(r);
-						nodeSet.add(n);
-						if (i == 0)
-							firstResource = n;
-					} while (r.next());
-				}
-
-			}
-			s.close();
-			conn.close();
-			nodeSet.add(firstResource);
-			return nodeSet;
-		} catch (Exception e) {
-			throw e;
+		List<Long> ids = nodes.subList(0, Math.max(0, nodes.size() - 1));
+		Map<Long, OSMResource> latest = this.getSnapshotLoader().getNodes(ids, timestamp);
+		for (int i = 0; i < ids.size(); i++) {
+			OSMResource n = latest.get(ids.get(i));
+			if (n == null)
+				return null;
+			nodeSet.add(n);
+			if (i == 0)
+				firstResource = n;
 		}
+		nodeSet.add(firstResource);
+		return nodeSet;
 	}
 
 	public OSMResource getNodeFromAPI(Long nodeID, String date) {
@@ -695,36 +704,15 @@ public class LoadFromPostGIS {
 		}
 	}
 
+	/**
+	 * Latest version at timestamp of a way (visible or not), retrieved from
+	 * the OSM API if it is not in the database.
+	 */
 	public OSMResource getWay(Long id, String timestamp) throws Exception {
-		java.sql.Connection conn;
-		try {
-			String url = "jdbc:postgresql://" + this.host + ":" + this.port + "/" + this.dbName;
-			conn = DriverManager.getConnection(url, this.dbUser, this.dbPwd);
-			Statement s = conn.createStatement(ResultSet.TYPE_SCROLL_INSENSITIVE, ResultSet.CONCUR_UPDATABLE);
-			// Query the evolution of all buildings which where selected at
-			// timespan[0] until timespan[1]
-			String vmax = "(SELECT max(vway) AS max FROM way WHERE id = " + id + " AND datemodif <= '" + timestamp
-					+ "')";
-			String query = "SELECT way.id,way.uid,way.vway, way.changeset, way.username, way.datemodif, hstore_to_json(way.tags), way.visible,way.composedof "
-					+ "FROM way WHERE id = " + id + " AND vway = " + vmax;
-			ResultSet r = s.executeQuery(query);
-			System.out.println("------- Query Executed -------");
-			OSMResource way = null;
-			if (r.next() == false) {
-				way = getWayFromAPI(id, timestamp);
-			} else {
-				do {
-					way = writeWay(r);
-				} while (r.next());
-			}
-			// while (r.next())
-			// way = writeWay(r);
-			s.close();
-			conn.close();
-			return way;
-		} catch (Exception e) {
-			throw e;
-		}
+		OSMResource way = this.getSnapshotLoader().getWays(Collections.singletonList(id), timestamp).get(id);
+		if (way == null)
+			way = getWayFromAPI(id, timestamp);
+		return way;
 	}
 
 	public OSMResource getWayFromAPI(Long wayID, String vway) {
@@ -802,33 +790,14 @@ public class LoadFromPostGIS {
 	 * @throws Exception
 	 */
 	public Set<OSMResource> getSnapshotWay(Double[] borders, String timestamp) throws Exception {
-		Set<OSMResource> waySet = new HashSet<OSMResource>();
-		java.sql.Connection conn;
-		try {
-			String url = "jdbc:postgresql://" + this.host + ":" + this.port + "/" + this.dbName;
-			conn = DriverManager.getConnection(url, this.dbUser, this.dbPwd);
-			Statement s = conn.createStatement(ResultSet.TYPE_SCROLL_INSENSITIVE, ResultSet.CONCUR_UPDATABLE);
-
-			String uniqueWayQuery = "SELECT DISTINCT ON (id) * FROM way WHERE lon_min >= " + borders[0]
-					+ "AND lat_min>= " + borders[1] + "AND lon_max<= " + borders[2] + "AND lat_max<= " + borders[3]
-					+ "ORDER BY id, datemodif DESC";
-			String infoWayQuery = "SELECT max(way.vway) as max, way.id FROM way, (" + uniqueWayQuery
-					+ ") as unique_way WHERE way.id = unique_way.id AND way.datemodif <='" + timestamp
-					+ "' GROUP BY way.id";
-			String query = "SELECT way.idway, way.id, way.uid, way.vway, way.changeset, way.username, way.datemodif, hstore_to_json(way.tags), way.composedof, way.visible "
-					+ "FROM way, (" + infoWayQuery
-					+ ") AS info_way WHERE way.id=info_way.id AND way.vway=info_way.max;";
-
-			ResultSet r = s.executeQuery(query);
-			System.out.println("------- Query Executed -------");
-			while (r.next())
-				waySet.add(this.writeWay(r));
-			s.close();
-			conn.close();
-			return waySet;
-		} catch (Exception e) {
-			throw e;
-		}
+		final Set<OSMResource> waySet = new HashSet<OSMResource>();
+		this.getSnapshotLoader().streamWaysInBbox(borders, timestamp, new Consumer<OSMResource>() {
+			@Override
+			public void accept(OSMResource way) {
+				waySet.add(way);
+			}
+		});
+		return waySet;
 	}
 
 	/**
@@ -897,27 +866,16 @@ public class LoadFromPostGIS {
 		getEvolutionVisibleWay(bbox, timespan);
 	}
 
+	/**
+	 * Members of the relation version idrel (relation.idrel).
+	 */
 	public ArrayList<OsmRelationMember> getRelationMemberList(int idrel) throws Exception {
-		String query = "SELECT * FROM relationmember WHERE idrel=" + idrel;
-		java.sql.Connection conn;
 		ArrayList<OsmRelationMember> members = new ArrayList<OsmRelationMember>();
-		try {
-			String url = "jdbc:postgresql://" + this.host + ":" + this.port + "/" + this.dbName;
-			conn = DriverManager.getConnection(url, this.dbUser, this.dbPwd);
-			Statement s = conn.createStatement(ResultSet.TYPE_SCROLL_INSENSITIVE, ResultSet.CONCUR_READ_ONLY);
-			ResultSet r = s.executeQuery(query);
-			System.out.println("------- Query Executed -------");
-			while (r.next()) {
-				OsmRelationMember mb = writeRelationMember(r);
-				members.add(mb);
-			}
-			s.close();
-			conn.close();
-		} catch (Exception e) {
-			throw e;
-		}
+		List<OsmRelationMember> found = this.getSnapshotLoader()
+				.getMembers(Collections.singletonList(Long.valueOf(idrel))).get(Long.valueOf(idrel));
+		if (found != null)
+			members.addAll(found);
 		return members;
-
 	}
 
 	public TypeRelation getRelationType(ResultSet r) throws SQLException {
@@ -0,0 +1,136 @@
+/*******************************************************************************
+ * This software is released under the licence CeCILL
+ *
+ * see Licence_CeCILL-C_fr.html see Licence_CeCILL-C_en.html
+ *
+ * see <a href="http://www.cecill.info/">http://www.cecill.info/a>
+ *
+ * @copyright IGN
+ ******************************************************************************/
+package fr.ign.cogit.geoxygene.osm.importexport.postgis;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Minimal pool of JDBC connections to an OSM history PostGIS database: at most
+ * maxSize connections are open at the same time, idle connections are reused
+ * instead of opening a new DriverManager connection for each query.
+ */
+public class PostGISConnectionPool {
+	private String url;
+	private String dbUser;
+	private String dbPwd;
+	private Semaphore permits;
+	private LinkedBlockingDeque<Connection> idle;
+	private List<Connection> opened;
+	private boolean closed;
+
+	public PostGISConnectionPool(String host, String port, String dbName, String dbUser, String dbPwd,
+			int maxSize) {
+		this.url = "jdbc:postgresql://" + host + ":" + port + "/" + dbName;
+		this.dbUser = dbUser;
+		this.dbPwd = dbPwd;
+		this.permits = new Semaphore(maxSize, true);
+		this.idle = new LinkedBlockingDeque<Connection>();
+		this.opened = new ArrayList<Connection>();
+		this.closed = false;
+	}
+
+	/**
+	 * Gets a connection, waiting for one to be released if maxSize connections
+	 * are already in use. The connection must be given back with
+	 * {@link #release(Connection)}.
+	 */
+	public Connection acquire() throws SQLException {
+		if (closed)
+			throw new SQLException("Connection pool is closed");
+		try {
+			permits.acquire();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SQLException(e);
+		}
+		try {
+			Connection conn;
+			while ((conn = idle.pollFirst()) != null) {
+				if (conn.isValid(2))
+					return conn;
+				discard(conn);
+			}
+			conn = openConnection();
+			synchronized (opened) {
+				opened.add(conn);
+			}
+			return conn;
+		} catch (SQLException e) {
+			permits.release();
+			throw e;
+		}
+	}
+
+	/**
+	 * Gives back a connection obtained with {@link #acquire()}. Pending
+	 * transactions are rolled back.
+	 */
+	public void release(Connection conn) {
+		if (conn == null)
+			return;
+		try {
+			if (closed || conn.isClosed()) {
+				discard(conn);
+			} else {
+				if (!conn.getAutoCommit()) {
+					conn.rollback();
+					conn.setAutoCommit(true);
+				}
+				idle.addFirst(conn);
+			}
+		} catch (SQLException e) {
+			discard(conn);
+		} finally {
+			permits.release();
+		}
+	}
+
+	/**
+	 * Opens a new connection to the database.
+	 */
+	protected Connection openConnection() throws SQLException {
+		return DriverManager.getConnection(url, dbUser, dbPwd);
+	}
+
+	private void discard(Connection conn) {
+		synchronized (opened) {
+			opened.remove(conn);
+		}
+		try {
+			conn.close();
+		} catch (SQLException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Closes all the connections of the pool.
+	 */
+	public void close() {
+		closed = true;
+		synchronized (opened) {
+			for (Connection conn : opened) {
+				try {
+					conn.close();
+				} catch (SQLException e) {
+					e.printStackTrace();
+				}
+			}
+			opened.clear();
+		}
+		idle.clear();
+	}
+}
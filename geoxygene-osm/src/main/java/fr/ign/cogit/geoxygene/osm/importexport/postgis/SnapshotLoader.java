@@ -0,0 +1,539 @@
+/*******************************************************************************
+ * This software is released under the licence CeCILL
+ *
+ * see Licence_CeCILL-C_fr.html see Licence_CeCILL-C_en.html
+ *
+ * see <a href="http://www.cecill.info/">http://www.cecill.info/a>
+ *
+ * @copyright IGN
+ ******************************************************************************/
+package fr.ign.cogit.geoxygene.osm.importexport.postgis;
+
+import java.sql.Array;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.text.DateFormat;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+
+import fr.ign.cogit.geoxygene.osm.contributor.CoContributionGraphBuilder;
+import fr.ign.cogit.geoxygene.osm.importexport.OSMNode;
+import fr.ign.cogit.geoxygene.osm.importexport.OSMRelation;
+import fr.ign.cogit.geoxygene.osm.importexport.OSMRelation.RoleMembre;
+import fr.ign.cogit.geoxygene.osm.importexport.OSMRelation.TypeRelation;
+import fr.ign.cogit.geoxygene.osm.importexport.OSMResource;
+import fr.ign.cogit.geoxygene.osm.importexport.OSMWay;
+import fr.ign.cogit.geoxygene.osm.importexport.OsmRelationMember;
+import twitter4j.JSONException;
+import twitter4j.JSONObject;
+
+/**
+ * Loads the state of an OSM history database at a given date with set-based
+ * queries: the latest version of each object at the date is selected with
+ * {@code DISTINCT ON (id) ... ORDER BY id, version DESC} over arrays of
+ * identifiers ({@code id = ANY(?)}), by batches, instead of one query per
+ * object. Statements are prepared, connections come from a
+ * {@link PostGISConnectionPool} and results are streamed with a cursor
+ * (fetch size) to a consumer, so that a whole city can be rebuilt without
+ * holding all rows in memory.
+ */
+public class SnapshotLoader {
+	private static final String NODE_COLUMNS = "idnode, id, uid, vnode, changeset, username, datemodif, hstore_to_json(tags), visible, lon, lat";
+	private static final String WAY_COLUMNS = "idway, id, uid, vway, changeset, username, datemodif, hstore_to_json(tags), visible, composedof";
+	private static final String RELATION_COLUMNS = "idrel, id, uid, vrel, changeset, username, datemodif, hstore_to_json(tags), visible";
+
+	private static final String NODES_BY_ID = "SELECT DISTINCT ON (id) " + NODE_COLUMNS
+			+ " FROM node WHERE id = ANY(?) AND datemodif <= ?::timestamptz ORDER BY id, vnode DESC";
+	private static final String WAYS_BY_ID = "SELECT DISTINCT ON (id) " + WAY_COLUMNS
+			+ " FROM way WHERE id = ANY(?) AND datemodif <= ?::timestamptz ORDER BY id, vway DESC";
+	private static final String RELATIONS_BY_ID = "SELECT DISTINCT ON (id) " + RELATION_COLUMNS
+			+ " FROM relation WHERE id = ANY(?) AND datemodif <= ?::timestamptz ORDER BY id, vrel DESC";
+	private static final String WAYS_IN_BBOX = "SELECT DISTINCT ON (id) " + WAY_COLUMNS
+			+ " FROM way WHERE datemodif <= ?::timestamptz AND id IN (SELECT id FROM way WHERE lon_min >= ?"
+			+ " AND lat_min >= ? AND lon_max <= ? AND lat_max <= ?) ORDER BY id, vway DESC";
+	private static final String VISIBLE_WAYS_IN_BBOX = "SELECT * FROM (" + WAYS_IN_BBOX + ") AS snapshot"
+			+ " WHERE visible IS TRUE";
+	private static final String RELATIONS_OF_WAYS = "SELECT DISTINCT ON (id) " + RELATION_COLUMNS
+			+ " FROM relation WHERE datemodif <= ?::timestamptz AND id IN (SELECT relation.id FROM relation"
+			+ " JOIN relationmember ON relationmember.idrel = relation.idrel WHERE relationmember.idmb = ANY(?)"
+			+ " AND lower(substr(relationmember.typemb, 1, 1)) = 'w') ORDER BY id, vrel DESC";
+	private static final String CONTRIBUTIONS = "SELECT id, uid, datemodif FROM %s WHERE datemodif <= ?::timestamptz ORDER BY id, %s";
+	private static final String MEMBERS_BY_RELATION = "SELECT idrel, idmb, typemb, rolemb FROM relationmember WHERE idrel = ANY(?)";
+
+	private static final ThreadLocal<DateFormat> DATE_FORMAT = new ThreadLocal<DateFormat>() {
+		@Override
+		protected DateFormat initialValue() {
+			return new SimpleDateFormat("yyyy-MM-dd HH:mm:ssX");
+		}
+	};
+
+	private PostGISConnectionPool pool;
+	private int batchSize = 10000;
+	private int fetchSize = 5000;
+
+	public SnapshotLoader(PostGISConnectionPool pool) {
+		this.pool = pool;
+	}
+
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	/**
+	 * Number of identifiers sent in each {@code = ANY(?)} array.
+	 */
+	public void setBatchSize(int batchSize) {
+		this.batchSize = batchSize;
+	}
+
+	public int getFetchSize() {
+		return fetchSize;
+	}
+
+	/**
+	 * Number of rows fetched at once from the cursor.
+	 */
+	public void setFetchSize(int fetchSize) {
+		this.fetchSize = fetchSize;
+	}
+
+	/**
+	 * Streams the latest version at timestamp of the given nodes (visible or
+	 * not). Nodes created after timestamp are ignored.
+	 */
+	public void streamNodes(Collection<Long> ids, String timestamp, Consumer<OSMResource> consumer)
+			throws SQLException {
+		streamByIds(NODES_BY_ID, ids, timestamp, "node", consumer);
+	}
+
+	/**
+	 * Streams the latest version at timestamp of the given ways (visible or
+	 * not).
+	 */
+	public void streamWays(Collection<Long> ids, String timestamp, Consumer<OSMResource> consumer)
+			throws SQLException {
+		streamByIds(WAYS_BY_ID, ids, timestamp, "way", consumer);
+	}
+
+	/**
+	 * Streams the latest version at timestamp of the given relations with
+	 * their members.
+	 */
+	public void streamRelations(Collection<Long> ids, String timestamp, Consumer<OSMResource> consumer)
+			throws SQLException {
+		Connection conn = pool.acquire();
+		try {
+			for (Long[] batch : batches(ids)) {
+				PreparedStatement ps = prepare(conn, RELATIONS_BY_ID);
+				try {
+					ps.setArray(1, conn.createArrayOf("bigint", batch));
+					ps.setString(2, timestamp);
+					readRelations(conn, ps, consumer);
+				} finally {
+					ps.close();
+				}
+			}
+		} finally {
+			pool.release(conn);
+		}
+	}
+
+	/**
+	 * Streams the latest visible version at timestamp of the ways having a
+	 * version inside the bounding box {xmin, ymin, xmax, ymax}.
+	 */
+	public void streamVisibleWays(Double[] bbox, String timestamp, Consumer<OSMResource> consumer)
+			throws SQLException {
+		streamByBbox(VISIBLE_WAYS_IN_BBOX, bbox, timestamp, consumer);
+	}
+
+	/**
+	 * Streams the latest version at timestamp (visible or not) of the ways
+	 * having a version inside the bounding box {xmin, ymin, xmax, ymax}.
+	 */
+	public void streamWaysInBbox(Double[] bbox, String timestamp, Consumer<OSMResource> consumer)
+			throws SQLException {
+		streamByBbox(WAYS_IN_BBOX, bbox, timestamp, consumer);
+	}
+
+	/**
+	 * Streams the latest version at timestamp of the relations having one of
+	 * the given ways as member, with their members.
+	 */
+	public void streamRelationsOfWays(Collection<Long> wayIds, String timestamp, Consumer<OSMResource> consumer)
+			throws SQLException {
+		// a relation may reference ways of several batches
+		final Set<Long> seen = new HashSet<Long>();
+		final Consumer<OSMResource> next = consumer;
+		Consumer<OSMResource> unique = new Consumer<OSMResource>() {
+			@Override
+			public void accept(OSMResource resource) {
+				if (seen.add(resource.getId()))
+					next.accept(resource);
+			}
+		};
+		Connection conn = pool.acquire();
+		try {
+			for (Long[] batch : batches(wayIds)) {
+				PreparedStatement ps = prepare(conn, RELATIONS_OF_WAYS);
+				try {
+					ps.setString(1, timestamp);
+					ps.setArray(2, conn.createArrayOf("bigint", batch));
+					readRelations(conn, ps, unique);
+				} finally {
+					ps.close();
+				}
+			}
+		} finally {
+			pool.release(conn);
+		}
+	}
+
+	/**
+	 * Latest versions at timestamp of the given nodes, indexed by id.
+	 */
+	public Map<Long, OSMResource> getNodes(Collection<Long> ids, String timestamp) throws SQLException {
+		final Map<Long, OSMResource> nodes = new HashMap<Long, OSMResource>();
+		streamNodes(ids, timestamp, new Consumer<OSMResource>() {
+			@Override
+			public void accept(OSMResource resource) {
+				nodes.put(resource.getId(), resource);
+			}
+		});
+		return nodes;
+	}
+
+	/**
+	 * Members of the given relation versions (relation.idrel), indexed by
+	 * idrel. Versions without member are absent from the map.
+	 */
+	public Map<Long, List<OsmRelationMember>> getMembers(Collection<Long> idrels) throws SQLException {
+		Map<Long, List<OsmRelationMember>> members = new HashMap<Long, List<OsmRelationMember>>();
+		Connection conn = pool.acquire();
+		try {
+			for (Long[] batch : batches(idrels))
+				readMembers(conn, batch, members);
+		} finally {
+			pool.release(conn);
+		}
+		return members;
+	}
+
+	/**
+	 * Latest versions at timestamp of the given ways, indexed by id.
+	 */
+	public Map<Long, OSMResource> getWays(Collection<Long> ids, String timestamp) throws SQLException {
+		final Map<Long, OSMResource> ways = new HashMap<Long, OSMResource>();
+		streamWays(ids, timestamp, new Consumer<OSMResource>() {
+			@Override
+			public void accept(OSMResource resource) {
+				ways.put(resource.getId(), resource);
+			}
+		});
+		return ways;
+	}
+
+	/**
+	 * Rebuilds the state of the bounding box at timestamp: the visible ways of
+	 * the box, the latest versions of the nodes composing them and of the
+	 * relations they belong to, with a constant number of queries per batch
+	 * of identifiers.
+	 *
+	 * @param bbox
+	 *            {xmin, ymin, xmax, ymax}
+	 * @param timestamp
+	 * @param consumer
+	 *            receives the ways, then the nodes, then the relations
+	 */
+	public void loadSnapshot(Double[] bbox, String timestamp, final Consumer<OSMResource> consumer)
+			throws SQLException {
+		final Set<Long> wayIds = new LinkedHashSet<Long>();
+		final Set<Long> nodeIds = new LinkedHashSet<Long>();
+		streamVisibleWays(bbox, timestamp, new Consumer<OSMResource>() {
+			@Override
+			public void accept(OSMResource way) {
+				wayIds.add(way.getId());
+				nodeIds.addAll(((OSMWay) way.getGeom()).getVertices());
+				consumer.accept(way);
+			}
+		});
+		streamNodes(nodeIds, timestamp, consumer);
+		streamRelationsOfWays(wayIds, timestamp, consumer);
+	}
+
+	/**
+	 * Rebuilds the state of the bounding box at timestamp in a set (see
+	 * {@link #loadSnapshot(Double[], String, Consumer)}).
+	 */
+	public Set<OSMResource> loadSnapshot(Double[] bbox, String timestamp) throws SQLException {
+		final Set<OSMResource> resources = new HashSet<OSMResource>();
+		loadSnapshot(bbox, timestamp, new Consumer<OSMResource>() {
+			@Override
+			public void accept(OSMResource resource) {
+				resources.add(resource);
+			}
+		});
+		return resources;
+	}
+
+	/**
+	 * Feeds the co-contribution graph builder with all the versions of a
+	 * table ("node", "way" or "relation") until timestamp, read object by
+	 * object through the cursor, so that the state of each object is released
+	 * once its last version is read.
+	 *
+	 * @return the number of versions read
+	 */
+	public int streamContributions(String osmDataType, String timestamp, CoContributionGraphBuilder builder)
+			throws SQLException {
+		String query;
+		int type;
+		if (osmDataType.equals("node")) {
+			query = String.format(CONTRIBUTIONS, "node", "vnode");
+			type = CoContributionGraphBuilder.NODE;
+		} else if (osmDataType.equals("way")) {
+			query = String.format(CONTRIBUTIONS, "way", "vway");
+			type = CoContributionGraphBuilder.WAY;
+		} else if (osmDataType.equals("relation")) {
+			query = String.format(CONTRIBUTIONS, "relation", "vrel");
+			type = CoContributionGraphBuilder.RELATION;
+		} else
+			throw new IllegalArgumentException("Unknown OSM data type: " + osmDataType);
+		Connection conn = pool.acquire();
+		try {
+			PreparedStatement ps = prepare(conn, query);
+			try {
+				ps.setString(1, timestamp);
+				ResultSet r = ps.executeQuery();
+				try {
+					return builder.addContributions(r, type);
+				} finally {
+					r.close();
+				}
+			} finally {
+				ps.close();
+			}
+		} finally {
+			pool.release(conn);
+		}
+	}
+
+	private void streamByBbox(String query, Double[] bbox, String timestamp, Consumer<OSMResource> consumer)
+			throws SQLException {
+		Connection conn = pool.acquire();
+		try {
+			PreparedStatement ps = prepare(conn, query);
+			try {
+				ps.setString(1, timestamp);
+				for (int i = 0; i < 4; i++)
+					ps.setDouble(i + 2, bbox[i]);
+				read(ps, "way", consumer);
+			} finally {
+				ps.close();
+			}
+		} finally {
+			pool.release(conn);
+		}
+	}
+
+	private void streamByIds(String query, Collection<Long> ids, String timestamp, String osmDataType,
+			Consumer<OSMResource> consumer) throws SQLException {
+		Connection conn = pool.acquire();
+		try {
+			for (Long[] batch : batches(ids)) {
+				PreparedStatement ps = prepare(conn, query);
+				try {
+					ps.setArray(1, conn.createArrayOf("bigint", batch));
+					ps.setString(2, timestamp);
+					read(ps, osmDataType, consumer);
+				} finally {
+					ps.close();
+				}
+			}
+		} finally {
+			pool.release(conn);
+		}
+	}
+
+	/**
+	 * Prepares a forward only statement read through a cursor (PostgreSQL
+	 * only uses a cursor outside auto-commit mode).
+	 */
+	private PreparedStatement prepare(Connection conn, String query) throws SQLException {
+		conn.setAutoCommit(false);
+		PreparedStatement ps = conn.prepareStatement(query, ResultSet.TYPE_FORWARD_ONLY,
+				ResultSet.CONCUR_READ_ONLY);
+		ps.setFetchSize(fetchSize);
+		return ps;
+	}
+
+	private List<Long[]> batches(Collection<Long> ids) {
+		List<Long[]> batches = new ArrayList<Long[]>();
+		Long[] all = ids.toArray(new Long[ids.size()]);
+		for (int i = 0; i < all.length; i += batchSize)
+			batches.add(Arrays.copyOfRange(all, i, Math.min(all.length, i + batchSize)));
+		return batches;
+	}
+
+	private void read(PreparedStatement ps, String osmDataType, Consumer<OSMResource> consumer)
+			throws SQLException {
+		ResultSet r = ps.executeQuery();
+		try {
+			while (r.next()) {
+				if (osmDataType.equals("node"))
+					consumer.accept(readNode(r));
+				else
+					consumer.accept(readWay(r));
+			}
+		} finally {
+			r.close();
+		}
+	}
+
+	/**
+	 * Reads relations, then loads the members of all of them with a single
+	 * query.
+	 */
+	private void readRelations(Connection conn, PreparedStatement ps, Consumer<OSMResource> consumer)
+			throws SQLException {
+		Map<Long, OSMResource> relations = new HashMap<Long, OSMResource>();
+		ResultSet r = ps.executeQuery();
+		try {
+			while (r.next())
+				relations.put(r.getLong("idrel"), readRelation(r));
+		} finally {
+			r.close();
+		}
+		if (relations.isEmpty())
+			return;
+
+		Map<Long, List<OsmRelationMember>> members = new HashMap<Long, List<OsmRelationMember>>();
+		readMembers(conn, relations.keySet().toArray(new Long[relations.size()]), members);
+		for (Map.Entry<Long, List<OsmRelationMember>> entry : members.entrySet())
+			((OSMRelation) relations.get(entry.getKey()).getGeom()).getMembers().addAll(entry.getValue());
+		for (OSMResource relation : relations.values())
+			consumer.accept(relation);
+	}
+
+	/**
+	 * Reads the members of the relation versions idrels with a single query.
+	 */
+	private void readMembers(Connection conn, Long[] idrels, Map<Long, List<OsmRelationMember>> members)
+			throws SQLException {
+		PreparedStatement ps = prepare(conn, MEMBERS_BY_RELATION);
+		try {
+			Array array = conn.createArrayOf("bigint", idrels);
+			ps.setArray(1, array);
+			ResultSet m = ps.executeQuery();
+			try {
+				while (m.next()) {
+					List<OsmRelationMember> list = members.get(m.getLong("idrel"));
+					if (list == null) {
+						list = new ArrayList<OsmRelationMember>();
+						members.put(m.getLong("idrel"), list);
+					}
+					list.add(readMember(m));
+				}
+			} finally {
+				m.close();
+			}
+		} finally {
+			ps.close();
+		}
+	}
+
+	/**
+	 * Maps the current row of a node query (columns of the node table, tags
+	 * as hstore_to_json) to an OSMResource.
+	 */
+	public static OSMResource readNode(ResultSet r) throws SQLException {
+		OSMResource node = new OSMResource(r.getString("username"),
+				new OSMNode(r.getDouble("lat"), r.getDouble("lon")), r.getLong("id"), r.getInt("changeset"),
+				r.getInt("vnode"), r.getInt("uid"), parseDate(r.getString("datemodif")));
+		node.setVisible(r.getBoolean("visible"));
+		readTags(r.getString("hstore_to_json"), node);
+		return node;
+	}
+
+	/**
+	 * Maps the current row of a way query to an OSMResource whose geometry is
+	 * the list of the composing nodes (composedof).
+	 */
+	public static OSMResource readWay(ResultSet r) throws SQLException {
+		Long[] vertices = (Long[]) r.getArray("composedof").getArray();
+		OSMResource way = new OSMResource(r.getString("username"), new OSMWay(Arrays.asList(vertices)),
+				r.getLong("id"), r.getInt("changeset"), r.getInt("vway"), r.getInt("uid"),
+				parseDate(r.getString("datemodif")));
+		way.setVisible(r.getBoolean("visible"));
+		readTags(r.getString("hstore_to_json"), way);
+		return way;
+	}
+
+	/**
+	 * Maps the current row of a relation query to an OSMResource without
+	 * members. The relation type is read from the "type" tag.
+	 */
+	public static OSMResource readRelation(ResultSet r) throws SQLException {
+		OSMResource relation = new OSMResource(r.getString("username"),
+				new OSMRelation(TypeRelation.NON_DEF, new ArrayList<OsmRelationMember>()), r.getLong("id"),
+				r.getInt("changeset"), r.getInt("vrel"), r.getInt("uid"), parseDate(r.getString("datemodif")));
+		relation.setVisible(r.getBoolean("visible"));
+		readTags(r.getString("hstore_to_json"), relation);
+		if (relation.getTags().containsKey(OSMRelation.TAG_TYPE))
+			((OSMRelation) relation.getGeom())
+					.setType(TypeRelation.valueOfTexte(relation.getTags().get(OSMRelation.TAG_TYPE)));
+		return relation;
+	}
+
+	/**
+	 * Maps the current row of the relationmember table to an
+	 * OsmRelationMember.
+	 */
+	public static OsmRelationMember readMember(ResultSet m) throws SQLException {
+		String type = m.getString("typemb").toLowerCase();
+		RoleMembre role = RoleMembre.NON_DEF;
+		if (m.getString("rolemb") != null)
+			role = RoleMembre.valueOfTexte(m.getString("rolemb").toLowerCase());
+		return new OsmRelationMember(role, type.startsWith("n"), type.startsWith("w"), type.startsWith("r"),
+				m.getLong("idmb"));
+	}
+
+	private static Date parseDate(String date) {
+		try {
+			return DATE_FORMAT.get().parse(date);
+		} catch (ParseException e) {
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	private static void readTags(String hstoreToJson, OSMResource resource) {
+		if (hstoreToJson == null || hstoreToJson.equalsIgnoreCase("{}"))
+			return;
+		try {
+			JSONObject obj = new JSONObject(hstoreToJson);
+			for (int i = 0; i < obj.names().length(); i++) {
+				String key = obj.names().getString(i);
+				String value = obj.getString(key);
+				resource.addTag(key, value);
+				if (key.equalsIgnoreCase("source"))
+					resource.setSource(value);
+			}
+		} catch (JSONException e) {
+			e.printStackTrace();
+		}
+	}
+}
@@ -1,21 +1,17 @@
 package fr.ign.cogit.geoxygene.osm.lodanalysis.relations;
 
-import java.util.Collection;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
-import java.util.Map;
+import java.util.List;
 import java.util.Set;
-import java.util.Vector;
 
 import fr.ign.cogit.geoxygene.api.feature.IFeature;
 import fr.ign.cogit.geoxygene.api.feature.IFeatureCollection;
-import fr.ign.cogit.geoxygene.contrib.algorithms.SpatialQuery;
-import fr.ign.cogit.geoxygene.contrib.multicriteriadecision.Criterion;
-import fr.ign.cogit.geoxygene.contrib.multicriteriadecision.classifying.ConclusionIntervals;
-import fr.ign.cogit.geoxygene.contrib.multicriteriadecision.classifying.electretri.RobustELECTRETRIMethod;
-import fr.ign.cogit.geoxygene.osm.lodanalysis.LoDCategory;
-import fr.ign.cogit.geoxygene.osm.lodanalysis.individual.LoDMultiCriteria;
-import fr.ign.cogit.geoxygene.osm.schema.OSMFeature;
+import fr.ign.cogit.geoxygene.contrib.algorithms.SpatialJoin;
+import fr.ign.cogit.geoxygene.contrib.algorithms.SpatialJoin.PairConsumer;
+import fr.ign.cogit.geoxygene.contrib.algorithms.SpatialJoin.Predicate;
+import fr.ign.cogit.geoxygene.feature.FT_FeatureCollection;
 
 public class BuildingInBuiltUp extends LoDSpatialRelationDetection {
 
@@ -29,82 +25,45 @@ public class BuildingInBuiltUp extends LoDSpatialRelationDetection {
   }
 
   @Override
-  public Set<LoDSpatialRelation> findInstances() {
-    // build the decision method and its criteria
-    RobustELECTRETRIMethod electre = LoDMultiCriteria.buildELECTRETRIMethod();
-    ConclusionIntervals conclusion = LoDMultiCriteria
-        .initConclusion(electre.getCriteria());
-    Set<LoDSpatialRelation> instances = new HashSet<LoDSpatialRelation>();
+  protected void findInstances(SpatialJoin<IFeature, IFeature> join,
+      final LoDSpatialRelationSink sink) {
     // features1 is the set of buildings
-    for (IFeature building : getFeatures1()) {
-      // get the LoD category for the building
-      Map<String, Double> valeursCourantes = new HashMap<String, Double>();
-      for (Criterion crit : electre.getCriteria()) {
-        Map<String, Object> param = LoDMultiCriteria
-            .initParameters((OSMFeature) building, crit);
-        valeursCourantes.put(crit.getName(), new Double(crit.value(param)));
-      }
-      LoDCategory category1 = LoDCategory.valueOf(
-          electre.decision(electre.getCriteria(), valeursCourantes, conclusion)
-              .getCategory());
-
-      // searches for a built-up area that contains building
-      Collection<IFeature> builtUps = getFeatures2().select(building.getGeom());
+    final Set<IFeature> inBuiltUps = Collections
+        .synchronizedSet(new HashSet<IFeature>());
+    // searches for a built-up area that contains building
+    firstMatchJoin(join, Predicate.INTERSECTS, 0.0,
+        new PairConsumer<IFeature, IFeature>() {
+          @Override
+          public void accept(IFeature building, IFeature builtUp) {
+            // there should be only one built-up area
+            inBuiltUps.add(building);
+            // test if it contains the building (no need to create a relation)
+            if (builtUp.getGeom().contains(building.getGeom()))
+              return;
+            // now check the LoDs and build a new instance
+            report(sink, building, builtUp, getCategory(building),
+                getCategory(builtUp));
+          }
+        });
 
-      if (builtUps.size() == 0) {
-        // case without builtUp area: is there one close?
-        // select the nearest built-up area
-        if (building.getGeom() == null)
-          continue;
-        Vector<Object> nearest = SpatialQuery.selectNearestWithDistance(
-            building.getGeom(), getFeatures2(), distanceThreshold + 1.0);
-        if (nearest.get(0) == null)
-          continue;
-        if ((Double) nearest.get(1) > distanceThreshold)
-          continue;
-
-        // now check the LoDs
-        OSMFeature builtUp = (OSMFeature) nearest.get(0);
-        Map<String, Double> valeursCourantes2 = new HashMap<String, Double>();
-        for (Criterion crit : electre.getCriteria()) {
-          Map<String, Object> param = LoDMultiCriteria.initParameters(builtUp,
-              crit);
-          valeursCourantes2.put(crit.getName(), new Double(crit.value(param)));
-        }
-        LoDCategory category2 = LoDCategory.valueOf(electre
-            .decision(electre.getCriteria(), valeursCourantes2, conclusion)
-            .getCategory());
-        if (Math.abs(category1.ordinal() - category2.ordinal()) < this
-            .getLodDiffThreshold())
-          continue;
-        // build a new instance
-        instances.add(new LoDSpatialRelation(building, builtUp, category1,
-            category2, getName()));
-      } else {
-        // there should be only one built-up area
-        OSMFeature builtUp = (OSMFeature) builtUps.iterator().next();
-        // test if it contains the building (no need to create a relation)
-        if (builtUp.getGeom().contains(building.getGeom()))
-          continue;
-        // now check the LoDs
-        Map<String, Double> valeursCourantes2 = new HashMap<String, Double>();
-        for (Criterion crit : electre.getCriteria()) {
-          Map<String, Object> param = LoDMultiCriteria.initParameters(builtUp,
-              crit);
-          valeursCourantes2.put(crit.getName(), new Double(crit.value(param)));
-        }
-        LoDCategory category2 = LoDCategory.valueOf(electre
-            .decision(electre.getCriteria(), valeursCourantes2, conclusion)
-            .getCategory());
-        if (Math.abs(category1.ordinal() - category2.ordinal()) < this
-            .getLodDiffThreshold())
-          continue;
-        // build a new instance
-        instances.add(new LoDSpatialRelation(building, builtUp, category1,
-            category2, getName()));
-      }
+    // case without builtUp area: is there one close?
+    List<IFeature> others = new ArrayList<IFeature>();
+    for (IFeature building : getFeatures1()) {
+      if (!inBuiltUps.contains(building))
+        others.add(building);
     }
-    return instances;
+    // select the nearest built-up area
+    join(new FT_FeatureCollection<IFeature>(others)).nearestJoin(1,
+        distanceThreshold + 1.0, new PairConsumer<IFeature, IFeature>() {
+          @Override
+          public void accept(IFeature building, IFeature builtUp) {
+            if (building.getGeom().distance(builtUp.getGeom()) > distanceThreshold)
+              return;
+            // now check the LoDs and build a new instance
+            report(sink, building, builtUp, getCategory(building),
+                getCategory(builtUp));
+          }
+        });
   }
 
   @Override
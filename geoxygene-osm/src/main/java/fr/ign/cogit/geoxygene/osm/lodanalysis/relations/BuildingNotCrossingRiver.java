@@ -1,19 +1,9 @@
 package fr.ign.cogit.geoxygene.osm.lodanalysis.relations;
 
-import java.util.Collection;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Map;
-import java.util.Set;
-
 import fr.ign.cogit.geoxygene.api.feature.IFeature;
 import fr.ign.cogit.geoxygene.api.feature.IFeatureCollection;
-import fr.ign.cogit.geoxygene.contrib.multicriteriadecision.Criterion;
-import fr.ign.cogit.geoxygene.contrib.multicriteriadecision.classifying.ConclusionIntervals;
-import fr.ign.cogit.geoxygene.contrib.multicriteriadecision.classifying.electretri.RobustELECTRETRIMethod;
-import fr.ign.cogit.geoxygene.osm.lodanalysis.LoDCategory;
-import fr.ign.cogit.geoxygene.osm.lodanalysis.individual.LoDMultiCriteria;
-import fr.ign.cogit.geoxygene.osm.schema.OSMFeature;
+import fr.ign.cogit.geoxygene.contrib.algorithms.SpatialJoin;
+import fr.ign.cogit.geoxygene.contrib.algorithms.SpatialJoin.PairConsumer;
 
 public class BuildingNotCrossingRiver extends LoDSpatialRelationDetection {
 
@@ -27,54 +17,20 @@ public class BuildingNotCrossingRiver extends LoDSpatialRelationDetection {
   }
 
   @Override
-  public Set<LoDSpatialRelation> findInstances() {
-    // build the decision method and its criteria
-    RobustELECTRETRIMethod electre = LoDMultiCriteria.buildELECTRETRIMethod();
-    ConclusionIntervals conclusion = LoDMultiCriteria
-        .initConclusion(electre.getCriteria());
-    Set<LoDSpatialRelation> instances = new HashSet<LoDSpatialRelation>();
+  protected void findInstances(SpatialJoin<IFeature, IFeature> join,
+      final LoDSpatialRelationSink sink) {
     // features1 is the set of buildings
-    for (IFeature building : getFeatures1()) {
-      // get the LoD category for the building
-      Map<String, Double> valeursCourantes = new HashMap<String, Double>();
-      for (Criterion crit : electre.getCriteria()) {
-        Map<String, Object> param = LoDMultiCriteria
-            .initParameters((OSMFeature) building, crit);
-        valeursCourantes.put(crit.getName(), new Double(crit.value(param)));
-      }
-      LoDCategory category1 = LoDCategory.valueOf(
-          electre.decision(electre.getCriteria(), valeursCourantes, conclusion)
-              .getCategory());
-
-      // searches for a water areas that cross the building
-      Collection<IFeature> rivers = getFeatures2()
-          .select(building.getGeom().buffer(distanceThreshold));
-
-      if (rivers.size() == 0) {
-        continue;
-      } else {
-        // there should be only one built-up area
-        OSMFeature river = (OSMFeature) rivers.iterator().next();
-
-        // now check the LoDs
-        Map<String, Double> valeursCourantes2 = new HashMap<String, Double>();
-        for (Criterion crit : electre.getCriteria()) {
-          Map<String, Object> param = LoDMultiCriteria.initParameters(river,
-              crit);
-          valeursCourantes2.put(crit.getName(), new Double(crit.value(param)));
-        }
-        LoDCategory category2 = LoDCategory.valueOf(electre
-            .decision(electre.getCriteria(), valeursCourantes2, conclusion)
-            .getCategory());
-        if (Math.abs(category1.ordinal() - category2.ordinal()) < this
-            .getLodDiffThreshold())
-          continue;
-        // build a new instance
-        instances.add(new LoDSpatialRelation(building, river, category1,
-            category2, getName()));
-      }
-    }
-    return instances;
+    // searches for a water areas closer than the threshold to the building
+    firstMatchJoin(join, null, distanceThreshold,
+        new PairConsumer<IFeature, IFeature>() {
+          @Override
+          public void accept(IFeature building, IFeature river) {
+            // there should be only one water area
+            // now check the LoDs and build a new instance
+            report(sink, building, river, getCategory(building),
+                getCategory(river));
+          }
+        });
   }
 
   @Override
@@ -1,18 +1,13 @@
 package fr.ign.cogit.geoxygene.osm.lodanalysis.relations;
 
-import java.util.Collection;
-import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Map;
 import java.util.Set;
 
 import fr.ign.cogit.geoxygene.api.feature.IFeature;
 import fr.ign.cogit.geoxygene.api.feature.IFeatureCollection;
-import fr.ign.cogit.geoxygene.contrib.multicriteriadecision.Criterion;
-import fr.ign.cogit.geoxygene.contrib.multicriteriadecision.classifying.ConclusionIntervals;
-import fr.ign.cogit.geoxygene.contrib.multicriteriadecision.classifying.electretri.RobustELECTRETRIMethod;
-import fr.ign.cogit.geoxygene.osm.lodanalysis.LoDCategory;
-import fr.ign.cogit.geoxygene.osm.lodanalysis.individual.LoDMultiCriteria;
+import fr.ign.cogit.geoxygene.contrib.algorithms.SpatialJoin;
+import fr.ign.cogit.geoxygene.contrib.algorithms.SpatialJoin.PairConsumer;
+import fr.ign.cogit.geoxygene.contrib.algorithms.SpatialJoin.Predicate;
 import fr.ign.cogit.geoxygene.osm.schema.OSMFeature;
 
 public class FunctionalSiteComponents extends LoDSpatialRelationDetection {
@@ -31,57 +26,36 @@ public class FunctionalSiteComponents extends LoDSpatialRelationDetection {
   }
 
   @Override
-  public Set<LoDSpatialRelation> findInstances() {
-    // build the decision method and its criteria
-    RobustELECTRETRIMethod electre = LoDMultiCriteria.buildELECTRETRIMethod();
-    ConclusionIntervals conclusion = LoDMultiCriteria
-        .initConclusion(electre.getCriteria());
-    Set<LoDSpatialRelation> instances = new HashSet<LoDSpatialRelation>();
+  protected void findInstances(SpatialJoin<IFeature, IFeature> join,
+      final LoDSpatialRelationSink sink) {
     // features1 is the set of functional sites
-    for (IFeature site : getFeatures1()) {
-      // get the components that intersect the site
-      Collection<IFeature> components = getFeatures2().select(site.getGeom());
-      Map<String, Double> valeursCourantes = new HashMap<String, Double>();
-      for (Criterion crit : electre.getCriteria()) {
-        Map<String, Object> param = LoDMultiCriteria
-            .initParameters((OSMFeature) site, crit);
-        valeursCourantes.put(crit.getName(), new Double(crit.value(param)));
-      }
-      LoDCategory category1 = LoDCategory.valueOf(
-          electre.decision(electre.getCriteria(), valeursCourantes, conclusion)
-              .getCategory());
-      // qualify the intersection with each component
-      for (IFeature component : components) {
-        if (site.getGeom().contains(component.getGeom()))
-          continue;
-        Map<String, Double> valeursCourantes2 = new HashMap<String, Double>();
-        for (Criterion crit : electre.getCriteria()) {
-          Map<String, Object> param = LoDMultiCriteria
-              .initParameters((OSMFeature) component, crit);
-          valeursCourantes2.put(crit.getName(), new Double(crit.value(param)));
-        }
-        LoDCategory category2 = LoDCategory.valueOf(electre
-            .decision(electre.getCriteria(), valeursCourantes2, conclusion)
-            .getCategory());
-        // check LoD difference
-        if (Math.abs(category1.ordinal() - category2.ordinal()) < this
-            .getLodDiffThreshold())
-          continue;
-        LoDSpatialRelation relation = new LoDSpatialRelation(site, component,
-            category1, category2, getName());
-        instances.add(relation);
-        int funcBelong = FunctionalSite
-            .getFunctionalBelonging((OSMFeature) site, (OSMFeature) component);
-        int spatialBelong = FunctionalSite
-            .getSpatialBelonging((OSMFeature) site, (OSMFeature) component);
-        if (funcBelong + spatialBelong > belongThreshold)
-          includeInstances.add(relation);
-        else if (funcBelong + spatialBelong < excludeThreshold)
-          excludeInstances.add(relation);
-      }
-    }
-
-    return instances;
+    // qualify the intersection with each component that intersects the site
+    join.innerJoin(Predicate.INTERSECTS,
+        new PairConsumer<IFeature, IFeature>() {
+          @Override
+          public void accept(IFeature site, IFeature component) {
+            if (site.getGeom().contains(component.getGeom()))
+              return;
+            // check LoD difference
+            LoDSpatialRelation relation = report(sink, site, component,
+                getCategory(site), getCategory(component));
+            if (relation == null)
+              return;
+            int funcBelong = FunctionalSite.getFunctionalBelonging(
+                (OSMFeature) site, (OSMFeature) component);
+            int spatialBelong = FunctionalSite.getSpatialBelonging(
+                (OSMFeature) site, (OSMFeature) component);
+            if (funcBelong + spatialBelong > belongThreshold) {
+              synchronized (includeInstances) {
+                includeInstances.add(relation);
+              }
+            } else if (funcBelong + spatialBelong < excludeThreshold) {
+              synchronized (excludeInstances) {
+                excludeInstances.add(relation);
+              }
+            }
+          }
+        });
   }
 
   @Override
@@ -1,20 +1,62 @@
 package fr.ign.cogit.geoxygene.osm.lodanalysis.relations;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import fr.ign.cogit.geoxygene.api.feature.IFeature;
 import fr.ign.cogit.geoxygene.api.feature.IFeatureCollection;
+import fr.ign.cogit.geoxygene.contrib.algorithms.SpatialJoin;
+import fr.ign.cogit.geoxygene.contrib.algorithms.SpatialJoin.PairConsumer;
+import fr.ign.cogit.geoxygene.contrib.algorithms.SpatialJoin.Predicate;
+import fr.ign.cogit.geoxygene.contrib.multicriteriadecision.Criterion;
+import fr.ign.cogit.geoxygene.contrib.multicriteriadecision.classifying.ConclusionIntervals;
+import fr.ign.cogit.geoxygene.contrib.multicriteriadecision.classifying.electretri.RobustELECTRETRIMethod;
+import fr.ign.cogit.geoxygene.osm.lodanalysis.LoDCategory;
+import fr.ign.cogit.geoxygene.osm.lodanalysis.individual.LoDMultiCriteria;
+import fr.ign.cogit.geoxygene.osm.schema.OSMFeature;
+import fr.ign.cogit.geoxygene.util.ParallelChunks;
+import fr.ign.cogit.geoxygene.util.ParallelChunks.RangeTask;
 
 /**
  * the classes that extend LoDSpatialRelationDetection are classes to identify
  * instances of a given spatial relation with inconsistent LoD.
+ * <p>
+ * The detection is a {@link SpatialJoin} between features1 and features2 (see
+ * {@link #findInstances(SpatialJoin, LoDSpatialRelationSink)}), run on
+ * nbThreads threads (see {@link #setNbThreads(int)}). The LoD categories are
+ * cached so that each category is computed once per detection.
  * @author GTouya
- * 
+ *
  */
 public abstract class LoDSpatialRelationDetection {
 
   private IFeatureCollection<IFeature> features1, features2;
   private int lodDiffThreshold;
+  private int nbThreads = 1;
+
+  // caches of the LoD categories, only set during a detection
+  private Map<IFeature, LoDCategory> categories, pointCategories;
+
+  // the decision methods are not thread safe: one per thread
+  private final ThreadLocal<LoDDecision> decision = new ThreadLocal<LoDDecision>() {
+    @Override
+    protected LoDDecision initialValue() {
+      return new LoDDecision(LoDMultiCriteria.buildELECTRETRIMethod());
+    }
+  };
+  private final ThreadLocal<LoDDecision> pointDecision = new ThreadLocal<LoDDecision>() {
+    @Override
+    protected LoDDecision initialValue() {
+      return new LoDDecision(LoDMultiCriteria.buildELECTRETRIMethodForPts());
+    }
+  };
 
   public LoDSpatialRelationDetection(IFeatureCollection<IFeature> features1,
       IFeatureCollection<IFeature> features2, int lodDiffThreshold) {
@@ -45,7 +87,45 @@ public abstract class LoDSpatialRelationDetection {
    * features1 and the features of features2, considering the lodDiffThreshold.
    * @return
    */
-  public abstract Set<LoDSpatialRelation> findInstances();
+  public Set<LoDSpatialRelation> findInstances() {
+    final Set<LoDSpatialRelation> instances = Collections
+        .synchronizedSet(new HashSet<LoDSpatialRelation>());
+    this.findInstances(new LoDSpatialRelationSink() {
+      @Override
+      public void accept(LoDSpatialRelation relation) {
+        instances.add(relation);
+      }
+    });
+    return new HashSet<LoDSpatialRelation>(instances);
+  }
+
+  /**
+   * Find the {@link LoDSpatialRelation} instances and give them to sink as
+   * soon as they are found, without keeping them. If nbThreads is greater
+   * than 1, sink is called concurrently and must be thread safe.
+   * @param sink
+   */
+  public void findInstances(LoDSpatialRelationSink sink) {
+    this.categories = new ConcurrentHashMap<IFeature, LoDCategory>();
+    this.pointCategories = new ConcurrentHashMap<IFeature, LoDCategory>();
+    try {
+      this.findInstances(this.join(getFeatures1()), sink);
+    } finally {
+      this.categories = null;
+      this.pointCategories = null;
+    }
+  }
+
+  /**
+   * Find the {@link LoDSpatialRelation} instances with a spatial join between
+   * features1 and features2, giving to the join a consumer that tests the
+   * pairs of features and reports the instances. Called during
+   * {@link #findInstances(LoDSpatialRelationSink)} only.
+   * @param join the join between features1 and features2
+   * @param sink
+   */
+  protected abstract void findInstances(SpatialJoin<IFeature, IFeature> join,
+      LoDSpatialRelationSink sink);
 
   public abstract String getName();
 
@@ -56,4 +136,152 @@ public abstract class LoDSpatialRelationDetection {
   public int getLodDiffThreshold() {
     return lodDiffThreshold;
   }
+
+  public void setNbThreads(int nbThreads) {
+    this.nbThreads = nbThreads;
+  }
+
+  public int getNbThreads() {
+    return nbThreads;
+  }
+
+  /**
+   * A spatial join between features and features2, on nbThreads threads.
+   * @param features
+   * @return
+   */
+  protected SpatialJoin<IFeature, IFeature> join(
+      IFeatureCollection<IFeature> features) {
+    SpatialJoin<IFeature, IFeature> join = new SpatialJoin<IFeature, IFeature>(
+        features, getFeatures2());
+    join.setNbThreads(nbThreads);
+    return join;
+  }
+
+  /**
+   * Gives to consumer each feature of features1 that satisfies predicate with
+   * features of features2 (or that is closer than distance to features of
+   * features2 if predicate is null) with one of these features: the first one
+   * in the iteration order of features2, whatever the number of threads.
+   * @param join the join between features1 and features2
+   * @param predicate the predicate of the join, null for a distance join
+   * @param distance
+   * @param consumer
+   */
+  protected void firstMatchJoin(SpatialJoin<IFeature, IFeature> join,
+      Predicate predicate, double distance,
+      final PairConsumer<IFeature, IFeature> consumer) {
+    final Map<IFeature, List<IFeature>> matches = new HashMap<IFeature, List<IFeature>>();
+    PairConsumer<IFeature, IFeature> collector = new PairConsumer<IFeature, IFeature>() {
+      @Override
+      public void accept(IFeature feature1, IFeature feature2) {
+        synchronized (matches) {
+          List<IFeature> list = matches.get(feature1);
+          if (list == null) {
+            list = new ArrayList<IFeature>();
+            matches.put(feature1, list);
+          }
+          list.add(feature2);
+        }
+      }
+    };
+    if (predicate == null)
+      join.distanceJoin(distance, collector);
+    else
+      join.innerJoin(predicate, collector);
+    final Map<IFeature, Integer> ranks = new HashMap<IFeature, Integer>();
+    for (IFeature feature : getFeatures2()) {
+      if (!ranks.containsKey(feature))
+        ranks.put(feature, ranks.size());
+    }
+    final Comparator<IFeature> order = new Comparator<IFeature>() {
+      @Override
+      public int compare(IFeature f1, IFeature f2) {
+        return ranks.get(f1).compareTo(ranks.get(f2));
+      }
+    };
+    final List<IFeature> features = new ArrayList<IFeature>(matches.keySet());
+    ParallelChunks.forEach(features.size(), nbThreads, new RangeTask() {
+      @Override
+      public void run(int start, int end) {
+        for (int i = start; i < end; i++) {
+          consumer.accept(features.get(i),
+              Collections.min(matches.get(features.get(i)), order));
+        }
+      }
+    });
+  }
+
+  /**
+   * The LoD category of an OSM feature, computed with
+   * {@link LoDMultiCriteria#buildELECTRETRIMethod()} once per detection.
+   * @param feature
+   * @return
+   */
+  protected LoDCategory getCategory(IFeature feature) {
+    LoDCategory category = this.categories.get(feature);
+    if (category == null) {
+      category = this.decision.get().category((OSMFeature) feature);
+      this.categories.put(feature, category);
+    }
+    return category;
+  }
+
+  /**
+   * The LoD category of a punctual OSM feature, computed with
+   * {@link LoDMultiCriteria#buildELECTRETRIMethodForPts()} once per
+   * detection.
+   * @param feature
+   * @return
+   */
+  protected LoDCategory getPointCategory(IFeature feature) {
+    LoDCategory category = this.pointCategories.get(feature);
+    if (category == null) {
+      category = this.pointDecision.get().category((OSMFeature) feature);
+      this.pointCategories.put(feature, category);
+    }
+    return category;
+  }
+
+  /**
+   * Builds and reports a new instance if the LoD difference between the
+   * categories reaches lodDiffThreshold.
+   * @return the reported instance, null if the LoDs are consistent
+   */
+  protected LoDSpatialRelation report(LoDSpatialRelationSink sink,
+      IFeature feature1, IFeature feature2, LoDCategory category1,
+      LoDCategory category2) {
+    if (Math.abs(category1.ordinal() - category2.ordinal()) < this
+        .getLodDiffThreshold())
+      return null;
+    LoDSpatialRelation relation = new LoDSpatialRelation(feature1, feature2,
+        category1, category2, getName());
+    sink.accept(relation);
+    return relation;
+  }
+
+  /**
+   * A decision method and its conclusion, to compute LoD categories.
+   */
+  private static class LoDDecision {
+    private RobustELECTRETRIMethod electre;
+    private ConclusionIntervals conclusion;
+
+    public LoDDecision(RobustELECTRETRIMethod electre) {
+      this.electre = electre;
+      this.conclusion = LoDMultiCriteria.initConclusion(electre.getCriteria());
+    }
+
+    public LoDCategory category(OSMFeature feature) {
+      Map<String, Double> valeursCourantes = new HashMap<String, Double>();
+      for (Criterion crit : electre.getCriteria()) {
+        Map<String, Object> param = LoDMultiCriteria.initParameters(feature,
+            crit);
+        valeursCourantes.put(crit.getName(), new Double(crit.value(param)));
+      }
+      return LoDCategory.valueOf(electre
+          .decision(electre.getCriteria(), valeursCourantes, conclusion)
+          .getCategory());
+    }
+  }
 }
@@ -0,0 +1,13 @@
+package fr.ign.cogit.geoxygene.osm.lodanalysis.relations;
+
+/**
+ * Receives the {@link LoDSpatialRelation} instances as soon as they are found
+ * by a {@link LoDSpatialRelationDetection}, e.g. to write them out without
+ * keeping all the instances of a large dataset in memory.
+ *
+ */
+public interface LoDSpatialRelationSink {
+
+  public void accept(LoDSpatialRelation relation);
+
+}
@@ -1,19 +1,10 @@
 package fr.ign.cogit.geoxygene.osm.lodanalysis.relations;
 
-import java.util.Collection;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Map;
-import java.util.Set;
-
 import fr.ign.cogit.geoxygene.api.feature.IFeature;
 import fr.ign.cogit.geoxygene.api.feature.IFeatureCollection;
-import fr.ign.cogit.geoxygene.contrib.multicriteriadecision.Criterion;
-import fr.ign.cogit.geoxygene.contrib.multicriteriadecision.classifying.ConclusionIntervals;
-import fr.ign.cogit.geoxygene.contrib.multicriteriadecision.classifying.electretri.RobustELECTRETRIMethod;
-import fr.ign.cogit.geoxygene.osm.lodanalysis.LoDCategory;
-import fr.ign.cogit.geoxygene.osm.lodanalysis.individual.LoDMultiCriteria;
-import fr.ign.cogit.geoxygene.osm.schema.OSMFeature;
+import fr.ign.cogit.geoxygene.contrib.algorithms.SpatialJoin;
+import fr.ign.cogit.geoxygene.contrib.algorithms.SpatialJoin.PairConsumer;
+import fr.ign.cogit.geoxygene.contrib.algorithms.SpatialJoin.Predicate;
 
 public class PathNotCrossingLake extends LoDSpatialRelationDetection {
 
@@ -23,50 +14,17 @@ public class PathNotCrossingLake extends LoDSpatialRelationDetection {
   }
 
   @Override
-  public Set<LoDSpatialRelation> findInstances() {
-    // build the decision method and its criteria
-    RobustELECTRETRIMethod electre = LoDMultiCriteria.buildELECTRETRIMethod();
-    ConclusionIntervals conclusion = LoDMultiCriteria
-        .initConclusion(electre.getCriteria());
-    Set<LoDSpatialRelation> instances = new HashSet<LoDSpatialRelation>();
-    // features1 is the set of buildings
-    for (IFeature lake : getFeatures1()) {
-      Collection<IFeature> pathes = getFeatures2().select(lake.getGeom());
-
-      if (pathes.size() == 0)
-        continue;
-
-      // get the LoD category for the lake
-      Map<String, Double> valeursCourantes = new HashMap<String, Double>();
-      for (Criterion crit : electre.getCriteria()) {
-        Map<String, Object> param = LoDMultiCriteria
-            .initParameters((OSMFeature) lake, crit);
-        valeursCourantes.put(crit.getName(), new Double(crit.value(param)));
-      }
-      LoDCategory category1 = LoDCategory.valueOf(
-          electre.decision(electre.getCriteria(), valeursCourantes, conclusion)
-              .getCategory());
-
-      for (IFeature path : pathes) {
-        // check the LoDs
-        Map<String, Double> valeursCourantes2 = new HashMap<String, Double>();
-        for (Criterion crit : electre.getCriteria()) {
-          Map<String, Object> param = LoDMultiCriteria
-              .initParameters((OSMFeature) path, crit);
-          valeursCourantes2.put(crit.getName(), new Double(crit.value(param)));
-        }
-        LoDCategory category2 = LoDCategory.valueOf(electre
-            .decision(electre.getCriteria(), valeursCourantes2, conclusion)
-            .getCategory());
-        if (Math.abs(category1.ordinal() - category2.ordinal()) < this
-            .getLodDiffThreshold())
-          continue;
-        // build a new instance
-        instances.add(new LoDSpatialRelation(lake, path, category1, category2,
-            getName()));
-      }
-    }
-    return instances;
+  protected void findInstances(SpatialJoin<IFeature, IFeature> join,
+      final LoDSpatialRelationSink sink) {
+    // features1 is the set of lakes
+    join.innerJoin(Predicate.INTERSECTS,
+        new PairConsumer<IFeature, IFeature>() {
+          @Override
+          public void accept(IFeature lake, IFeature path) {
+            // check the LoDs and build a new instance
+            report(sink, lake, path, getCategory(lake), getCategory(path));
+          }
+        });
   }
 
   @Override
@@ -2,6 +2,9 @@ package fr.ign.cogit.geoxygene.osm.schema;
 
 import java.util.Collection;
 
+import org.geotools.referencing.CRS;
+import org.opengis.referencing.operation.MathTransform;
+
 import fr.ign.cogit.geoxygene.api.spatial.coordgeom.IDirectPosition;
 import fr.ign.cogit.geoxygene.api.spatial.coordgeom.IDirectPositionList;
 import fr.ign.cogit.geoxygene.api.spatial.coordgeom.ILineString;
@@ -11,6 +14,7 @@ import fr.ign.cogit.geoxygene.datatools.CRSConversion;
 import fr.ign.cogit.geoxygene.osm.importexport.OSMNode;
 import fr.ign.cogit.geoxygene.osm.importexport.OSMResource;
 import fr.ign.cogit.geoxygene.osm.importexport.OSMWay;
+import fr.ign.cogit.geoxygene.spatial.coordgeom.DirectPosition;
 import fr.ign.cogit.geoxygene.spatial.coordgeom.DirectPositionList;
 import fr.ign.cogit.geoxygene.spatial.coordgeom.GM_LineString;
 import fr.ign.cogit.geoxygene.spatial.coordgeom.GM_Polygon;
@@ -24,12 +28,19 @@ public class OsmGeometryConversion {
    */
   private String epsg = "2154";
 
+  /**
+   * The transformation from WGS84 to the projected coordinate system, computed
+   * at the first use of {@link #convertLonLat(double[], int)}.
+   */
+  private MathTransform transform;
+
   public String getEpsg() {
     return epsg;
   }
 
   public void setEpsg(String epsg) {
     this.epsg = epsg;
+    this.transform = null;
   }
 
   public OsmGeometryConversion(String epsg) {
@@ -174,6 +185,32 @@ public class OsmGeometryConversion {
     return pt.toGM_Point();
   }
 
+  /**
+   * Converts WGS84 coordinates, given as (longitude, latitude) pairs, into
+   * positions projected in the given coordinate system. Unlike the other
+   * methods, the transformation is only looked up once per convertor, and the
+   * coordinates are transformed in a single call.
+   * 
+   * @param lonLat the longitudes and latitudes of the points
+   * @param nbPoints the number of points to convert
+   * @return
+   * @throws Exception
+   */
+  public IDirectPositionList convertLonLat(double[] lonLat, int nbPoints)
+      throws Exception {
+    if (this.transform == null) {
+      this.transform = CRS.findMathTransform(CRS.decode("EPSG:4326", true),
+          CRS.decode("EPSG:" + epsg, false));
+    }
+    double[] xy = new double[2 * nbPoints];
+    this.transform.transform(lonLat, 0, xy, 0, nbPoints);
+    IDirectPositionList coord = new DirectPositionList();
+    for (int i = 0; i < nbPoints; i++) {
+      coord.add(new DirectPosition(xy[2 * i], xy[2 * i + 1]));
+    }
+    return coord;
+  }
+
   public IPoint convertOsmPoint(OSMNode node) throws Exception {
     IDirectPosition pt = CRSConversion
         .changeCRS(new GM_Point(node.getPosition()), "4326", epsg, false, true)
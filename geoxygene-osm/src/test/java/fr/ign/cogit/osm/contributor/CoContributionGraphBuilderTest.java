@@ -0,0 +1,163 @@
+package fr.ign.cogit.osm.contributor;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.jgrapht.graph.DefaultWeightedEdge;
+import org.jgrapht.graph.SimpleWeightedGraph;
+import org.junit.Assert;
+import org.junit.Test;
+
+import fr.ign.cogit.geoxygene.osm.contributor.CoContributionGraphBuilder;
+
+public class CoContributionGraphBuilderTest {
+
+  /** id, type, uid, time */
+  private List<long[]> contributions(int nbObjects, int nbUsers, Random random) {
+    List<long[]> contributions = new ArrayList<long[]>();
+    for (int i = 0; i < nbObjects; i++) {
+      int type = random.nextInt(3);
+      int nbVersions = 1 + random.nextInt(6);
+      long time = random.nextInt(1000);
+      for (int v = 0; v < nbVersions; v++) {
+        contributions.add(new long[] { i, type, random.nextInt(nbUsers), time });
+        time += random.nextInt(200);
+      }
+    }
+    return contributions;
+  }
+
+  /**
+   * Weights of the pairs of versions (later, earlier) by different users,
+   * counted when the later version is in [start, end[.
+   */
+  private Map<String, Double> bruteForce(List<long[]> contributions, long start, long end) {
+    Map<String, Double> weights = new HashMap<String, Double>();
+    for (long[] c1 : contributions) {
+      if (c1[3] < start || c1[3] >= end) {
+        continue;
+      }
+      for (long[] c2 : contributions) {
+        if (c1 == c2 || c1[0] != c2[0] || c1[1] != c2[1] || c1[2] == c2[2]) {
+          continue;
+        }
+        // versions of an object are in chronological order in the list
+        if (contributions.indexOf(c2) < contributions.indexOf(c1)) {
+          String key = Math.min(c1[2], c2[2]) + "-" + Math.max(c1[2], c2[2]);
+          Double w = weights.get(key);
+          weights.put(key, w == null ? 1 : w + 1);
+        }
+      }
+    }
+    return weights;
+  }
+
+  private Map<String, Double> edges(SimpleWeightedGraph<Long, DefaultWeightedEdge> g) {
+    Map<String, Double> weights = new HashMap<String, Double>();
+    for (DefaultWeightedEdge e : g.edgeSet()) {
+      long u = g.getEdgeSource(e), v = g.getEdgeTarget(e);
+      weights.put(Math.min(u, v) + "-" + Math.max(u, v), g.getEdgeWeight(e));
+    }
+    return weights;
+  }
+
+  @Test
+  public void testIncrementalWeights() {
+    Random random = new Random(40);
+    List<long[]> contributions = this.contributions(300, 25, random);
+    Map<String, Double> expected = this.bruteForce(contributions, Long.MIN_VALUE, Long.MAX_VALUE);
+
+    // objects interleaved in chronological order
+    List<long[]> sorted = new ArrayList<long[]>(contributions);
+    Collections.sort(sorted, new Comparator<long[]>() {
+      @Override
+      public int compare(long[] c1, long[] c2) {
+        return Long.compare(c1[3], c2[3]);
+      }
+    });
+    CoContributionGraphBuilder builder = new CoContributionGraphBuilder();
+    for (long[] c : sorted) {
+      builder.addContribution(c[0], (int) c[1], (int) c[2], c[3]);
+    }
+    Assert.assertEquals(contributions.size(), builder.getNbContributions());
+    Assert.assertEquals(expected.size(), builder.getNbEdges());
+    Assert.assertEquals(expected, this.edges(builder.toCoContribGraph()));
+    for (int u = 0; u < 25; u++) {
+      Set<Integer> neighbours = new HashSet<Integer>();
+      for (int v = 0; v < 25; v++) {
+        Double w = expected.get(Math.min(u, v) + "-" + Math.max(u, v));
+        Assert.assertEquals(w == null ? 0 : w, builder.getWeight(u, v), 0);
+        if (w != null) {
+          neighbours.add(v);
+        }
+      }
+      Set<Integer> found = new HashSet<Integer>();
+      for (int v : builder.getNeighbours(u)) {
+        found.add(v);
+      }
+      Assert.assertEquals(neighbours, found);
+    }
+  }
+
+  @Test
+  public void testTimeWindow() {
+    Random random = new Random(41);
+    List<long[]> contributions = this.contributions(200, 15, random);
+    // object by object, as in a history file: the history is not sorted
+    CoContributionGraphBuilder builder = new CoContributionGraphBuilder();
+    long previous = -1;
+    int previousType = 0;
+    for (long[] c : contributions) {
+      if (previous >= 0 && c[0] != previous) {
+        builder.release(previous, previousType);
+      }
+      previous = c[0];
+      previousType = (int) c[1];
+      builder.addContribution(c[0], (int) c[1], (int) c[2], c[3]);
+    }
+    for (long[] window : new long[][] { { 0, 300 }, { 250, 700 }, { 500, 2000 } }) {
+      Map<String, Double> expected = this.bruteForce(contributions, window[0], window[1]);
+      Assert.assertEquals(expected, this.edges(builder.toCoContribGraph(window[0], window[1])));
+      for (String pair : expected.keySet()) {
+        int[] uids = new int[2];
+        String[] split = pair.split("-");
+        uids[0] = Integer.parseInt(split[0]);
+        uids[1] = Integer.parseInt(split[1]);
+        Assert.assertEquals(expected.get(pair), builder.getWeight(uids[0], uids[1], window[0], window[1]), 0);
+      }
+    }
+  }
+
+  @Test
+  public void testRelease() {
+    CoContributionGraphBuilder builder = new CoContributionGraphBuilder(false);
+    builder.addContribution(1, CoContributionGraphBuilder.NODE, 10, 0);
+    builder.addContribution(1, CoContributionGraphBuilder.NODE, 10, 1);
+    // same id, other type: another object
+    builder.addContribution(1, CoContributionGraphBuilder.WAY, 12, 2);
+    builder.addContribution(1, CoContributionGraphBuilder.NODE, 11, 3);
+    Assert.assertEquals(2, builder.getDirectedWeight(11, 10), 0);
+    Assert.assertEquals(0, builder.getDirectedWeight(10, 11), 0);
+    Assert.assertEquals(0, builder.getWeight(12, 10), 0);
+    builder.release(1, CoContributionGraphBuilder.NODE);
+    builder.addContribution(1, CoContributionGraphBuilder.NODE, 12, 4);
+    Assert.assertEquals(0, builder.getWeight(12, 10), 0);
+    builder.addContribution(1, CoContributionGraphBuilder.WAY, 10, 5);
+    Assert.assertEquals(1, builder.getDirectedWeight(10, 12), 0);
+    Assert.assertEquals(3, builder.getNbContributors());
+    Assert.assertEquals(2, builder.getNbEdges());
+    try {
+      builder.toCoContribGraph(0, 10);
+      Assert.fail();
+    } catch (IllegalStateException e) {
+      // no history kept
+    }
+  }
+}
@@ -0,0 +1,56 @@
+package fr.ign.cogit.osm.importexport;
+
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import fr.ign.cogit.geoxygene.osm.importexport.OsmNodeStore;
+
+public class OsmNodeStoreTest {
+
+  private static long[] fill(OsmNodeStore store) throws Exception {
+    Random random = new Random(42);
+    long[] ids = new long[5000];
+    for (int i = 0; i < ids.length; i++) {
+      // a sorted part then random ids, as in a merged file
+      ids[i] = i < 2500 ? 3L * i : 10000L + random.nextInt(1 << 30);
+      store.put(ids[i], ids[i] * 0.5, -ids[i]);
+    }
+    store.seal();
+    return ids;
+  }
+
+  private static void check(OsmNodeStore store, long[] ids) {
+    double[] lonLat = new double[2];
+    for (long id : ids) {
+      Assert.assertTrue(store.get(id, lonLat));
+      Assert.assertEquals(id * 0.5, lonLat[0], 0);
+      Assert.assertEquals(-id, lonLat[1], 0);
+    }
+    Assert.assertFalse(store.get(1, lonLat));
+  }
+
+  @Test
+  public void testInMemory() throws Exception {
+    try (OsmNodeStore store = new OsmNodeStore(10000, null)) {
+      long[] ids = fill(store);
+      Assert.assertFalse(store.isSpilled());
+      Assert.assertEquals(ids.length, store.size());
+      check(store, ids);
+    }
+  }
+
+  @Test
+  public void testSpilled() throws Exception {
+    try (OsmNodeStore store = new OsmNodeStore(1000, null)) {
+      long[] ids = fill(store);
+      Assert.assertTrue(store.isSpilled());
+      Assert.assertEquals(ids.length, store.size());
+      // the sorted chunks continue the first run
+      Assert.assertEquals(3, store.getNbRuns());
+      check(store, ids);
+    }
+  }
+
+}
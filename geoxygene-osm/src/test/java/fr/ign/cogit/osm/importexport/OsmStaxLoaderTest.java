@@ -0,0 +1,200 @@
+package fr.ign.cogit.osm.importexport;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import fr.ign.cogit.geoxygene.api.spatial.coordgeom.IPolygon;
+import fr.ign.cogit.geoxygene.api.spatial.geomaggr.IMultiSurface;
+import fr.ign.cogit.geoxygene.api.spatial.geomprim.IPoint;
+import fr.ign.cogit.geoxygene.api.spatial.geomroot.IGeometry;
+import fr.ign.cogit.geoxygene.osm.importexport.OsmStaxLoader;
+import fr.ign.cogit.geoxygene.osm.schema.OSMDefaultFeature;
+import fr.ign.cogit.geoxygene.spatial.coordgeom.GM_LineString;
+
+public class OsmStaxLoaderTest {
+
+  private static final String NODES = ""
+      // a square and a smaller square inside it
+      + node(1, 2.000, 48.000) + node(2, 2.010, 48.000)
+      + node(3, 2.010, 48.010) + node(4, 2.000, 48.010)
+      + node(5, 2.003, 48.003) + node(6, 2.007, 48.003)
+      + node(7, 2.007, 48.007) + node(8, 2.003, 48.007)
+      // tagged nodes
+      + "<node id=\"9\" lon=\"2.005\" lat=\"48.001\" version=\"1\">"
+      + "<tag k=\"amenity\" v=\"bench\"/></node>\n"
+      + "<node id=\"10\" lon=\"3.0\" lat=\"49.0\" version=\"1\">"
+      + "<tag k=\"amenity\" v=\"bench\"/></node>\n"
+      // a square far away
+      + node(11, 3.000, 49.000) + node(12, 3.010, 49.000)
+      + node(13, 3.010, 49.010) + node(14, 3.000, 49.010);
+
+  private static final String WAYS = ""
+      // the outer ring of the forest in two parts, the second one reversed
+      + way(100, "", 1, 2, 3) + way(101, "", 1, 4, 3)
+      + way(102, "", 5, 6, 7, 8, 5)
+      + way(103, tag("highway", "residential"), 1, 3)
+      + way(104, tag("landuse", "forest"), 11, 12, 13, 14, 11)
+      + way(105, tag("landuse", "meadow"), 1, 2, 3, 4, 1);
+
+  private static final String RELATIONS = ""
+      + relation(200, tag("landuse", "forest"), "outer", 100, "outer", 101,
+          "inner", 102)
+      // outside the box
+      + relation(201, tag("landuse", "forest"), "outer", 104)
+      // 102 is a member of several multipolygons
+      + relation(203, tag("building", "yes"), "outer", 102)
+      + relation(204, tag("building", "yes"), "outer", 104, "outer", 102)
+      + "<relation id=\"202\" version=\"1\"><member type=\"way\" ref=\"103\""
+      + " role=\"\"/>" + tag("type", "route") + "</relation>\n";
+
+  private static String node(long id, double lon, double lat) {
+    return "<node id=\"" + id + "\" lon=\"" + lon + "\" lat=\"" + lat
+        + "\" version=\"1\" timestamp=\"2015-03-02T10:00:00Z\"/>\n";
+  }
+
+  private static String tag(String key, String value) {
+    return "<tag k=\"" + key + "\" v=\"" + value + "\"/>";
+  }
+
+  private static String way(long id, String tags, long... refs) {
+    StringBuilder way = new StringBuilder("<way id=\"" + id
+        + "\" version=\"1\">");
+    for (long ref : refs) {
+      way.append("<nd ref=\"" + ref + "\"/>");
+    }
+    return way.append(tags).append("</way>\n").toString();
+  }
+
+  private static String relation(long id, String tags, Object... members) {
+    StringBuilder relation = new StringBuilder("<relation id=\"" + id
+        + "\" version=\"1\">");
+    for (int i = 0; i < members.length; i += 2) {
+      relation.append("<member type=\"way\" ref=\"" + members[i + 1]
+          + "\" role=\"" + members[i] + "\"/>");
+    }
+    return relation.append(tag("type", "multipolygon")).append(tags)
+        .append("</relation>\n").toString();
+  }
+
+  private static File write(String content) throws IOException {
+    File file = File.createTempFile("OsmStaxLoaderTest", ".osm");
+    file.deleteOnExit();
+    try (Writer writer = new OutputStreamWriter(new FileOutputStream(file),
+        StandardCharsets.UTF_8)) {
+      writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+          + "<osm version=\"0.6\">\n" + content + "</osm>\n");
+    }
+    return file;
+  }
+
+  private static Map<Long, IGeometry> load(OsmStaxLoader loader)
+      throws Exception {
+    BlockingQueue<OSMDefaultFeature> queue = new LinkedBlockingQueue<OSMDefaultFeature>();
+    loader.load(queue);
+    Map<Long, IGeometry> features = new HashMap<Long, IGeometry>();
+    for (OSMDefaultFeature feature : queue) {
+      Assert.assertNull(features.put(feature.getOsmId(), feature.getGeom()));
+    }
+    return features;
+  }
+
+  @Test
+  public void testLoad() throws Exception {
+    OsmStaxLoader loader = new OsmStaxLoader(write(NODES + WAYS + RELATIONS),
+        null);
+    // the nodes are spilled to a file
+    loader.setMaxNodesInMemory(4);
+    Map<Long, IGeometry> features = load(loader);
+    Assert.assertEquals(14, loader.getNbNodes());
+    Assert.assertEquals(6, loader.getNbWays());
+    Assert.assertEquals(5, loader.getNbRels());
+    Assert.assertEquals(features.size(), loader.getNbFeatures());
+    Assert.assertEquals(12, features.size());
+    Assert.assertTrue(features.get(9L) instanceof IPoint);
+    Assert.assertTrue(features.get(10L) instanceof IPoint);
+    for (long id = 100; id <= 103; id++) {
+      Assert.assertTrue(features.get(id) instanceof GM_LineString
+          || features.get(id) instanceof IPolygon);
+    }
+    Assert.assertTrue(features.get(100L) instanceof GM_LineString);
+    Assert.assertTrue(features.get(102L) instanceof IPolygon);
+    Assert.assertTrue(features.get(105L) instanceof IPolygon);
+
+    // the two parts of the outer ring are joined around the inner ring
+    IPolygon forest = (IPolygon) features.get(200L);
+    Assert.assertEquals(5, forest.getExterior().coord().size());
+    Assert.assertEquals(1, forest.getInterior().size());
+    Assert.assertEquals(5, forest.getInterior(0).coord().size());
+    Assert.assertEquals(
+        ((IPolygon) features.get(105L)).area() - ((IPolygon) features.get(102L))
+            .area(), forest.area(), 1e-3);
+    Assert.assertEquals(0, ((IPolygon) features.get(201L)).getInterior()
+        .size());
+    Assert.assertEquals(0, ((IPolygon) features.get(203L)).getInterior()
+        .size());
+    // the shared member way is still known by the last multipolygon
+    Assert.assertEquals(2, ((IMultiSurface<?>) features.get(204L)).size());
+    Assert.assertFalse(features.containsKey(202L));
+  }
+
+  @Test
+  public void testFilters() throws Exception {
+    OsmStaxLoader loader = new OsmStaxLoader(write(NODES + WAYS + RELATIONS),
+        null);
+    loader.setTagFilter("landuse");
+    loader.setBoundingBox(1.99, 47.99, 2.02, 48.02);
+    Map<Long, IGeometry> features = load(loader);
+    // the meadow and the forest in the box
+    Assert.assertEquals(2, features.size());
+    Assert.assertTrue(features.get(105L) instanceof IPolygon);
+    Assert.assertEquals(1, ((IPolygon) features.get(200L)).getInterior()
+        .size());
+
+    loader.setTagFilter("building");
+    features = load(loader);
+    // the polygon of 204 outside the box is kept with the one in the box
+    Assert.assertEquals(2, features.size());
+    Assert.assertTrue(features.get(203L) instanceof IPolygon);
+    Assert.assertEquals(2, ((IMultiSurface<?>) features.get(204L)).size());
+  }
+
+  @Test
+  public void testStart() throws Exception {
+    OsmStaxLoader loader = new OsmStaxLoader(write(NODES + WAYS + RELATIONS),
+        null);
+    loader.setTagFilter("amenity");
+    BlockingQueue<OSMDefaultFeature> queue = loader.start(1);
+    Assert.assertEquals(9L, queue.take().getOsmId());
+    Assert.assertEquals(10L, queue.take().getOsmId());
+    Assert.assertSame(OsmStaxLoader.END_OF_STREAM, queue.take());
+    Assert.assertNull(loader.getError());
+  }
+
+  @Test
+  public void testUnsorted() throws Exception {
+    OsmStaxLoader loader = new OsmStaxLoader(write(WAYS + NODES), null);
+    try {
+      load(loader);
+      Assert.fail();
+    } catch (IOException e) {
+      Assert.assertTrue(e.getMessage().contains("not sorted"));
+    }
+    // the error is kept and the stream still ends
+    BlockingQueue<OSMDefaultFeature> queue = loader.start(10);
+    while (queue.take() != OsmStaxLoader.END_OF_STREAM) {
+    }
+    Assert.assertTrue(loader.getError() instanceof IOException);
+  }
+
+}
@@ -0,0 +1,170 @@
+package fr.ign.cogit.osm.importexport;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import fr.ign.cogit.geoxygene.osm.importexport.postgis.PostGISConnectionPool;
+
+public class PostGISConnectionPoolTest {
+
+  /** State of a connection stub. */
+  private static class FakeConnection implements InvocationHandler {
+    boolean valid = true;
+    boolean closed = false;
+    boolean autoCommit = true;
+    int rollbacks = 0;
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) {
+      String name = method.getName();
+      if (name.equals("isValid")) {
+        return this.valid && !this.closed;
+      } else if (name.equals("isClosed")) {
+        return this.closed;
+      } else if (name.equals("close")) {
+        this.closed = true;
+      } else if (name.equals("getAutoCommit")) {
+        return this.autoCommit;
+      } else if (name.equals("setAutoCommit")) {
+        this.autoCommit = (Boolean) args[0];
+      } else if (name.equals("rollback")) {
+        this.rollbacks++;
+      } else if (name.equals("hashCode")) {
+        return System.identityHashCode(proxy);
+      } else if (name.equals("equals")) {
+        return proxy == args[0];
+      }
+      return null;
+    }
+  }
+
+  /** Pool opening connection stubs instead of database connections. */
+  private static class FakePool extends PostGISConnectionPool {
+    final List<FakeConnection> opened = new ArrayList<FakeConnection>();
+
+    FakePool(int maxSize) {
+      super("localhost", "5432", "osm", "user", "pwd", maxSize);
+    }
+
+    @Override
+    protected Connection openConnection() {
+      FakeConnection state = new FakeConnection();
+      synchronized (this.opened) {
+        this.opened.add(state);
+      }
+      return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+          new Class<?>[] { Connection.class }, state);
+    }
+
+    FakeConnection state(Connection conn) {
+      return (FakeConnection) Proxy.getInvocationHandler(conn);
+    }
+  }
+
+  @Test
+  public void testReuse() throws SQLException {
+    FakePool pool = new FakePool(2);
+    Connection c1 = pool.acquire();
+    Connection c2 = pool.acquire();
+    Assert.assertNotSame(c1, c2);
+    Assert.assertEquals(2, pool.opened.size());
+    pool.release(c1);
+    // the idle connection is given back instead of opening a new one
+    Assert.assertSame(c1, pool.acquire());
+    Assert.assertEquals(2, pool.opened.size());
+    pool.release(c1);
+    pool.release(c2);
+    pool.close();
+  }
+
+  @Test
+  public void testReleaseRollsBack() throws SQLException {
+    FakePool pool = new FakePool(1);
+    Connection conn = pool.acquire();
+    conn.setAutoCommit(false);
+    pool.release(conn);
+    Assert.assertEquals(1, pool.state(conn).rollbacks);
+    Assert.assertTrue(pool.state(conn).autoCommit);
+    Assert.assertFalse(pool.state(conn).closed);
+    pool.close();
+  }
+
+  @Test
+  public void testDiscard() throws SQLException {
+    FakePool pool = new FakePool(1);
+    Connection broken = pool.acquire();
+    pool.release(broken);
+    pool.state(broken).valid = false;
+    // an invalid idle connection is closed and replaced
+    Connection conn = pool.acquire();
+    Assert.assertNotSame(broken, conn);
+    Assert.assertTrue(pool.state(broken).closed);
+    pool.release(conn);
+    // a connection closed by its user is not given back to the pool
+    conn = pool.acquire();
+    conn.close();
+    pool.release(conn);
+    Connection next = pool.acquire();
+    Assert.assertNotSame(conn, next);
+    Assert.assertEquals(3, pool.opened.size());
+    pool.release(next);
+    pool.close();
+  }
+
+  @Test
+  public void testBound() throws Exception {
+    final FakePool pool = new FakePool(1);
+    Connection conn = pool.acquire();
+    final AtomicReference<Connection> waiting = new AtomicReference<Connection>();
+    Thread thread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          waiting.set(pool.acquire());
+        } catch (SQLException e) {
+          e.printStackTrace();
+        }
+      }
+    });
+    thread.start();
+    thread.join(200);
+    // maxSize connections are in use: the second acquire waits
+    Assert.assertTrue(thread.isAlive());
+    Assert.assertNull(waiting.get());
+    pool.release(conn);
+    thread.join(5000);
+    Assert.assertFalse(thread.isAlive());
+    Assert.assertSame(conn, waiting.get());
+    Assert.assertEquals(1, pool.opened.size());
+    pool.release(waiting.get());
+    pool.close();
+  }
+
+  @Test
+  public void testClose() throws SQLException {
+    FakePool pool = new FakePool(2);
+    Connection idle = pool.acquire();
+    Connection used = pool.acquire();
+    pool.release(idle);
+    pool.close();
+    Assert.assertTrue(pool.state(idle).closed);
+    Assert.assertTrue(pool.state(used).closed);
+    // released after close: closed, not kept
+    pool.release(used);
+    try {
+      pool.acquire();
+      Assert.fail("acquire on a closed pool");
+    } catch (SQLException e) {
+      // expected
+    }
+  }
+}
@@ -0,0 +1,137 @@
+package fr.ign.cogit.osm.importexport;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Array;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import fr.ign.cogit.geoxygene.osm.importexport.OSMNode;
+import fr.ign.cogit.geoxygene.osm.importexport.OSMRelation;
+import fr.ign.cogit.geoxygene.osm.importexport.OSMRelation.RoleMembre;
+import fr.ign.cogit.geoxygene.osm.importexport.OSMRelation.TypeRelation;
+import fr.ign.cogit.geoxygene.osm.importexport.OSMResource;
+import fr.ign.cogit.geoxygene.osm.importexport.OSMWay;
+import fr.ign.cogit.geoxygene.osm.importexport.OsmRelationMember;
+import fr.ign.cogit.geoxygene.osm.importexport.postgis.SnapshotLoader;
+
+/**
+ * Mapping of the rows of the history database to OSMResource, on result set
+ * stubs (no database needed).
+ */
+public class SnapshotLoaderTest {
+
+  /** Current row of a result set, by column name. */
+  private static ResultSet row(final Map<String, Object> values) {
+    return (ResultSet) Proxy.newProxyInstance(ResultSet.class.getClassLoader(),
+        new Class<?>[] { ResultSet.class }, new InvocationHandler() {
+          @Override
+          public Object invoke(Object proxy, Method method, Object[] args) {
+            if (args == null) {
+              return null;
+            }
+            final Object value = values.get(args[0]);
+            if (method.getName().equals("getArray")) {
+              return Proxy.newProxyInstance(Array.class.getClassLoader(),
+                  new Class<?>[] { Array.class }, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object p, Method m, Object[] a) {
+                      return value;
+                    }
+                  });
+            }
+            return value;
+          }
+        });
+  }
+
+  private static Map<String, Object> common(long id, String tags) {
+    Map<String, Object> values = new HashMap<String, Object>();
+    values.put("id", id);
+    values.put("uid", 42);
+    values.put("changeset", 1234);
+    values.put("username", "contributor");
+    values.put("datemodif", "2014-01-01 10:00:00+01");
+    values.put("hstore_to_json", tags);
+    values.put("visible", true);
+    return values;
+  }
+
+  @Test
+  public void testReadNode() throws SQLException {
+    Map<String, Object> values = common(10L, "{\"amenity\": \"cafe\", \"source\": \"survey\"}");
+    values.put("vnode", 3);
+    values.put("lon", 2.35);
+    values.put("lat", 48.85);
+    OSMResource node = SnapshotLoader.readNode(row(values));
+    Assert.assertEquals(10L, node.getId());
+    Assert.assertEquals(3, node.getVersion());
+    Assert.assertEquals(42, node.getUid());
+    Assert.assertEquals(1234, node.getChangeSet());
+    Assert.assertEquals("contributor", node.getContributeur());
+    Assert.assertTrue(node.isVisible());
+    // 2014-01-01 09:00:00 UTC
+    Assert.assertEquals(1388566800000L, node.getDate().getTime());
+    Assert.assertEquals("cafe", node.getTags().get("amenity"));
+    Assert.assertEquals("survey", node.getSource());
+    OSMNode geom = (OSMNode) node.getGeom();
+    Assert.assertEquals(48.85, geom.getLatitude(), 0);
+    Assert.assertEquals(2.35, geom.getLongitude(), 0);
+  }
+
+  @Test
+  public void testReadWay() throws SQLException {
+    Map<String, Object> values = common(20L, "{}");
+    values.put("vway", 2);
+    values.put("visible", false);
+    values.put("composedof", new Long[] { 1L, 2L, 3L, 1L });
+    OSMResource way = SnapshotLoader.readWay(row(values));
+    Assert.assertEquals(20L, way.getId());
+    Assert.assertEquals(2, way.getVersion());
+    Assert.assertFalse(way.isVisible());
+    Assert.assertTrue(way.getTags().isEmpty());
+    Assert.assertEquals(Arrays.asList(1L, 2L, 3L, 1L), ((OSMWay) way.getGeom()).getVertices());
+  }
+
+  @Test
+  public void testReadRelation() throws SQLException {
+    Map<String, Object> values = common(30L, "{\"type\": \"multipolygon\", \"building\": \"yes\"}");
+    values.put("vrel", 5);
+    OSMResource relation = SnapshotLoader.readRelation(row(values));
+    Assert.assertEquals(30L, relation.getId());
+    Assert.assertEquals(5, relation.getVersion());
+    OSMRelation geom = (OSMRelation) relation.getGeom();
+    Assert.assertEquals(TypeRelation.MULTIPOLYGON, geom.getType());
+    Assert.assertTrue(geom.getMembers().isEmpty());
+    Assert.assertEquals("yes", relation.getTags().get("building"));
+  }
+
+  @Test
+  public void testReadMember() throws SQLException {
+    Map<String, Object> values = new HashMap<String, Object>();
+    values.put("idrel", 7L);
+    values.put("idmb", 20L);
+    values.put("typemb", "W");
+    values.put("rolemb", "Outer");
+    OsmRelationMember member = SnapshotLoader.readMember(row(values));
+    Assert.assertEquals(20L, member.getRef());
+    Assert.assertTrue(member.isWay());
+    Assert.assertFalse(member.isNode());
+    Assert.assertFalse(member.isRelation());
+    Assert.assertEquals(RoleMembre.OUTER, member.getRole());
+
+    // no role
+    values.put("typemb", "n");
+    values.put("rolemb", null);
+    member = SnapshotLoader.readMember(row(values));
+    Assert.assertTrue(member.isNode());
+    Assert.assertEquals(RoleMembre.NON_DEF, member.getRole());
+  }
+}
@@ -0,0 +1,560 @@
+package fr.ign.cogit.osm.lodanalysis;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Vector;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import fr.ign.cogit.geoxygene.api.feature.IFeature;
+import fr.ign.cogit.geoxygene.api.feature.IFeatureCollection;
+import fr.ign.cogit.geoxygene.api.spatial.coordgeom.IDirectPositionList;
+import fr.ign.cogit.geoxygene.api.spatial.coordgeom.ILineString;
+import fr.ign.cogit.geoxygene.api.spatial.coordgeom.IPolygon;
+import fr.ign.cogit.geoxygene.api.spatial.geomprim.IPoint;
+import fr.ign.cogit.geoxygene.api.spatial.geomroot.IGeometry;
+import fr.ign.cogit.geoxygene.contrib.algorithms.SpatialQuery;
+import fr.ign.cogit.geoxygene.contrib.multicriteriadecision.Criterion;
+import fr.ign.cogit.geoxygene.contrib.multicriteriadecision.classifying.ConclusionIntervals;
+import fr.ign.cogit.geoxygene.contrib.multicriteriadecision.classifying.electretri.RobustELECTRETRIMethod;
+import fr.ign.cogit.geoxygene.feature.FT_FeatureCollection;
+import fr.ign.cogit.geoxygene.osm.lodanalysis.LoDCategory;
+import fr.ign.cogit.geoxygene.osm.lodanalysis.individual.LoDMultiCriteria;
+import fr.ign.cogit.geoxygene.osm.lodanalysis.relations.BuildingInBuiltUp;
+import fr.ign.cogit.geoxygene.osm.lodanalysis.relations.BuildingNotCrossingRiver;
+import fr.ign.cogit.geoxygene.osm.lodanalysis.relations.BusStopAlongRoad;
+import fr.ign.cogit.geoxygene.osm.lodanalysis.relations.CoastlineCrossingLand;
+import fr.ign.cogit.geoxygene.osm.lodanalysis.relations.FunctionalSite;
+import fr.ign.cogit.geoxygene.osm.lodanalysis.relations.FunctionalSiteComponents;
+import fr.ign.cogit.geoxygene.osm.lodanalysis.relations.HouseGroupInForest;
+import fr.ign.cogit.geoxygene.osm.lodanalysis.relations.LoDSpatialRelation;
+import fr.ign.cogit.geoxygene.osm.lodanalysis.relations.PathNotCrossingLake;
+import fr.ign.cogit.geoxygene.osm.lodanalysis.relations.TreeAlongRoad;
+import fr.ign.cogit.geoxygene.osm.schema.OSMDefaultFeature;
+import fr.ign.cogit.geoxygene.osm.schema.OSMFeature;
+import fr.ign.cogit.geoxygene.osm.schema.OsmSource;
+import fr.ign.cogit.geoxygene.schemageo.api.support.elementsIndependants.ElementIndependant;
+import fr.ign.cogit.geoxygene.schemageo.api.support.elementsIndependants.Meso;
+import fr.ign.cogit.geoxygene.schemageo.impl.bati.IlotImpl;
+import fr.ign.cogit.geoxygene.spatial.coordgeom.DirectPosition;
+import fr.ign.cogit.geoxygene.spatial.coordgeom.DirectPositionList;
+import fr.ign.cogit.geoxygene.spatial.coordgeom.GM_Envelope;
+import fr.ign.cogit.geoxygene.spatial.coordgeom.GM_LineString;
+import fr.ign.cogit.geoxygene.spatial.coordgeom.GM_Polygon;
+import fr.ign.cogit.geoxygene.spatial.geomprim.GM_Point;
+import fr.ign.cogit.geoxygene.util.algo.geometricAlgorithms.GeometryFactory;
+import fr.ign.cogit.geoxygene.util.algo.geometricAlgorithms.morphomaths.BufferComputing;
+import fr.ign.cogit.geoxygene.util.algo.geometricAlgorithms.morphomaths.Side;
+
+/**
+ * Compares each detection of LoD spatial relations with the nested loop over
+ * features2 it was before being a spatial join, on small fixtures, with 1 and
+ * 4 threads. With a LoD difference threshold of 0, every pair of the relation
+ * is an instance, which checks the geometric part of the detection.
+ */
+public class LoDSpatialRelationDetectionTest {
+
+  private static final int[] THREADS = { 1, 4 };
+  private static final int[] THRESHOLDS = { 0, 1 };
+  private static final OsmSource[] SOURCES = { OsmSource.DGI, OsmSource.BING,
+      OsmSource.CORINE_LANDCOVER, OsmSource.SURVEY, OsmSource.PGS };
+
+  private final RobustELECTRETRIMethod electre = LoDMultiCriteria
+      .buildELECTRETRIMethod();
+  private final RobustELECTRETRIMethod electrePt = LoDMultiCriteria
+      .buildELECTRETRIMethodForPts();
+  private long nextId = 1;
+
+  /**
+   * A component of an urban block.
+   */
+  private static class OsmElement extends OSMDefaultFeature implements
+      ElementIndependant {
+    private Meso meso;
+
+    public OsmElement(IGeometry geom, long id) {
+      super("test", geom, id, 1, 1, 1, null, new HashMap<String, String>());
+    }
+
+    @Override
+    public Meso getMeso() {
+      return this.meso;
+    }
+
+    @Override
+    public void setMeso(Meso meso) {
+      this.meso = meso;
+    }
+  }
+
+  private OSMDefaultFeature osm(IGeometry geom, String... tags) {
+    Map<String, String> map = new HashMap<String, String>();
+    for (int i = 0; i < tags.length; i += 2) {
+      map.put(tags[i], tags[i + 1]);
+    }
+    OSMDefaultFeature feature = new OSMDefaultFeature("test", geom,
+        this.nextId, 1, (int) (this.nextId % 4) + 1, 1, null, map);
+    this.source(feature);
+    return feature;
+  }
+
+  private void source(OSMDefaultFeature feature) {
+    feature.setSource(SOURCES[(int) (this.nextId % SOURCES.length)]);
+    this.nextId++;
+  }
+
+  private static IPolygon rect(double xmin, double xmax, double ymin,
+      double ymax) {
+    return new GM_Polygon(new GM_Envelope(xmin, xmax, ymin, ymax));
+  }
+
+  private static ILineString line(double... coords) {
+    IDirectPositionList points = new DirectPositionList();
+    for (int i = 0; i < coords.length; i += 2) {
+      points.add(new DirectPosition(coords[i], coords[i + 1]));
+    }
+    return new GM_LineString(points);
+  }
+
+  private static IPoint point(double x, double y) {
+    return new GM_Point(new DirectPosition(x, y));
+  }
+
+  private static IFeatureCollection<IFeature> collection() {
+    return new FT_FeatureCollection<IFeature>();
+  }
+
+  private LoDCategory category(IFeature feature,
+      RobustELECTRETRIMethod method) {
+    ConclusionIntervals conclusion = LoDMultiCriteria.initConclusion(method
+        .getCriteria());
+    Map<String, Double> valeursCourantes = new HashMap<String, Double>();
+    for (Criterion crit : method.getCriteria()) {
+      Map<String, Object> param = LoDMultiCriteria.initParameters(
+          (OSMFeature) feature, crit);
+      valeursCourantes.put(crit.getName(), new Double(crit.value(param)));
+    }
+    return LoDCategory.valueOf(method.decision(method.getCriteria(),
+        valeursCourantes, conclusion).getCategory());
+  }
+
+  private static String key(IFeature feature1, IFeature feature2,
+      LoDCategory category1, LoDCategory category2) {
+    return feature1.getId() + " " + feature2.getId() + " " + category1 + " "
+        + category2;
+  }
+
+  private static Set<String> keys(Collection<LoDSpatialRelation> relations) {
+    Set<String> keys = new HashSet<String>();
+    for (LoDSpatialRelation relation : relations) {
+      keys.add(key(relation.getFeature1(), relation.getFeature2(),
+          relation.getCategory1(), relation.getCategory2()));
+    }
+    return keys;
+  }
+
+  private static boolean add(Set<String> instances, int threshold,
+      IFeature feature1, IFeature feature2, LoDCategory category1,
+      LoDCategory category2) {
+    if (Math.abs(category1.ordinal() - category2.ordinal()) < threshold)
+      return false;
+    instances.add(key(feature1, feature2, category1, category2));
+    return true;
+  }
+
+  /**
+   * The first feature of features that is in selected, in the iteration order
+   * of features.
+   */
+  private static IFeature first(IFeatureCollection<IFeature> features,
+      Collection<IFeature> selected) {
+    for (IFeature feature : features) {
+      if (selected.contains(feature))
+        return feature;
+    }
+    return null;
+  }
+
+  /**
+   * Squares of 10 m every 30 m.
+   */
+  private IFeatureCollection<IFeature> buildings() {
+    IFeatureCollection<IFeature> buildings = collection();
+    for (int i = 0; i < 8; i++) {
+      for (int j = 0; j < 8; j++) {
+        buildings.add(this.osm(rect(30 * i, 30 * i + 10, 30 * j, 30 * j + 10),
+            "building", "yes"));
+      }
+    }
+    return buildings;
+  }
+
+  @Test
+  public void testBuildingInBuiltUp() {
+    IFeatureCollection<IFeature> buildings = this.buildings();
+    IFeatureCollection<IFeature> builtUps = collection();
+    // containing some buildings, crossing others
+    builtUps.add(this.osm(rect(-5, 95, -5, 95)));
+    // overlapping the previous one on buildings that intersect both
+    builtUps.add(this.osm(rect(85, 160, 50, 130)));
+    builtUps.add(this.osm(rect(0, 50, 183, 260)));
+    builtUps.add(this.osm(rect(183, 240, 0, 40)));
+    // 3 m from buildings that intersect no built-up area
+    builtUps.add(this.osm(rect(223, 260, 62, 100)));
+    for (int threshold : THRESHOLDS) {
+      Set<String> expected = new HashSet<String>();
+      for (IFeature building : buildings) {
+        LoDCategory category1 = this.category(building, this.electre);
+        Collection<IFeature> selected = builtUps.select(building.getGeom());
+        IFeature builtUp;
+        if (selected.size() == 0) {
+          Vector<Object> nearest = SpatialQuery.selectNearestWithDistance(
+              building.getGeom(), builtUps, 5.0 + 1.0);
+          if (nearest.get(0) == null || (Double) nearest.get(1) > 5.0)
+            continue;
+          builtUp = (IFeature) nearest.get(0);
+        } else {
+          builtUp = first(builtUps, selected);
+          if (builtUp.getGeom().contains(building.getGeom()))
+            continue;
+        }
+        add(expected, threshold, building, builtUp, category1,
+            this.category(builtUp, this.electre));
+      }
+      if (threshold == 0)
+        Assert.assertFalse(expected.isEmpty());
+      for (int nbThreads : THREADS) {
+        BuildingInBuiltUp detection = new BuildingInBuiltUp(buildings,
+            builtUps, threshold, 5.0);
+        detection.setNbThreads(nbThreads);
+        Assert.assertEquals(expected, keys(detection.findInstances()));
+      }
+    }
+  }
+
+  @Test
+  public void testBuildingNotCrossingRiver() {
+    IFeatureCollection<IFeature> buildings = this.buildings();
+    IFeatureCollection<IFeature> rivers = collection();
+    // 2 m from a column of buildings
+    rivers.add(this.osm(rect(42, 44, -10, 250)));
+    // crossing a row of buildings
+    rivers.add(this.osm(rect(-10, 250, 125, 127)));
+    // overlapping the previous one
+    rivers.add(this.osm(rect(100, 200, 110, 128)));
+    for (int threshold : THRESHOLDS) {
+      Set<String> expected = new HashSet<String>();
+      for (IFeature building : buildings) {
+        LoDCategory category1 = this.category(building, this.electre);
+        Collection<IFeature> selected = rivers.select(building.getGeom()
+            .buffer(5.0));
+        if (selected.size() == 0)
+          continue;
+        IFeature river = first(rivers, selected);
+        add(expected, threshold, building, river, category1,
+            this.category(river, this.electre));
+      }
+      if (threshold == 0)
+        Assert.assertFalse(expected.isEmpty());
+      for (int nbThreads : THREADS) {
+        BuildingNotCrossingRiver detection = new BuildingNotCrossingRiver(
+            buildings, rivers, threshold, 5.0);
+        detection.setNbThreads(nbThreads);
+        Assert.assertEquals(expected, keys(detection.findInstances()));
+      }
+    }
+  }
+
+  @Test
+  public void testBusStopAlongRoad() {
+    IFeatureCollection<IFeature> busStops = collection();
+    double[] offsets = { 1, 10, 20, 29, 45, 2.5 };
+    for (int k = 0; k < 12; k++) {
+      busStops.add(this.osm(point(25 * k + 5, 100 * (k % 3) + offsets[k % 6]),
+          "highway", "bus_stop"));
+    }
+    IFeatureCollection<IFeature> roads = collection();
+    for (int k = 0; k < 3; k++) {
+      roads.add(this.osm(line(0, 100 * k, 300, 100 * k), "highway",
+          "primary"));
+    }
+    for (int threshold : THRESHOLDS) {
+      Set<String> expected = new HashSet<String>();
+      for (IFeature busStop : busStops) {
+        Vector<Object> nearest = SpatialQuery.selectNearestWithDistance(
+            busStop.getGeom(), roads, 3.0 * 10.0);
+        if (nearest.get(0) == null || (Double) nearest.get(1) < 3.0)
+          continue;
+        IFeature road = (IFeature) nearest.get(0);
+        add(expected, threshold, busStop, road,
+            this.category(busStop, this.electre),
+            this.category(road, this.electre));
+      }
+      if (threshold == 0)
+        Assert.assertFalse(expected.isEmpty());
+      for (int nbThreads : THREADS) {
+        BusStopAlongRoad detection = new BusStopAlongRoad(busStops, roads,
+            threshold, 3.0);
+        detection.setNbThreads(nbThreads);
+        Assert.assertEquals(expected, keys(detection.findInstances()));
+      }
+    }
+  }
+
+  /**
+   * Squares of 40 m every 50 m.
+   */
+  private IFeatureCollection<IFeature> parcels() {
+    IFeatureCollection<IFeature> parcels = collection();
+    for (int i = 0; i < 3; i++) {
+      for (int j = 0; j < 3; j++) {
+        parcels.add(this.osm(rect(50 * i, 50 * i + 40, 50 * j, 50 * j + 40),
+            "landuse", "meadow"));
+      }
+    }
+    return parcels;
+  }
+
+  private IFeatureCollection<IFeature> lines() {
+    IFeatureCollection<IFeature> lines = collection();
+    // crossing a row of parcels
+    lines.add(this.osm(line(-10, 20, 160, 20)));
+    // within a parcel
+    lines.add(this.osm(line(55, 55, 85, 85)));
+    // on the boundary of a parcel
+    lines.add(this.osm(line(0, 100, 40, 100)));
+    // crossing the diagonal parcels
+    lines.add(this.osm(line(-10, -10, 160, 160)));
+    // ending in a parcel
+    lines.add(this.osm(line(45, 60, 70, 60)));
+    // between the parcels
+    lines.add(this.osm(line(45, -10, 45, 160)));
+    return lines;
+  }
+
+  @Test
+  public void testCoastlineCrossingLand() {
+    IFeatureCollection<IFeature> coastlines = this.lines();
+    IFeatureCollection<IFeature> parcels = this.parcels();
+    for (int threshold : THRESHOLDS) {
+      Set<String> expected = new HashSet<String>();
+      for (IFeature coastline : coastlines) {
+        LoDCategory category1 = this.category(coastline, this.electre);
+        for (IFeature parcel : parcels.select(coastline.getGeom())) {
+          if (!coastline.getGeom().crosses(parcel.getGeom()))
+            continue;
+          add(expected, threshold, coastline, parcel, category1,
+              this.category(parcel, this.electre));
+        }
+      }
+      if (threshold == 0)
+        Assert.assertFalse(expected.isEmpty());
+      for (int nbThreads : THREADS) {
+        CoastlineCrossingLand detection = new CoastlineCrossingLand(
+            coastlines, parcels, threshold);
+        detection.setNbThreads(nbThreads);
+        Assert.assertEquals(expected, keys(detection.findInstances()));
+      }
+    }
+  }
+
+  @Test
+  public void testPathNotCrossingLake() {
+    IFeatureCollection<IFeature> lakes = this.parcels();
+    IFeatureCollection<IFeature> paths = this.lines();
+    for (int threshold : THRESHOLDS) {
+      Set<String> expected = new HashSet<String>();
+      for (IFeature lake : lakes) {
+        LoDCategory category1 = this.category(lake, this.electre);
+        for (IFeature path : paths.select(lake.getGeom())) {
+          add(expected, threshold, lake, path, category1,
+              this.category(path, this.electre));
+        }
+      }
+      if (threshold == 0)
+        Assert.assertFalse(expected.isEmpty());
+      for (int nbThreads : THREADS) {
+        PathNotCrossingLake detection = new PathNotCrossingLake(lakes, paths,
+            threshold);
+        detection.setNbThreads(nbThreads);
+        Assert.assertEquals(expected, keys(detection.findInstances()));
+      }
+    }
+  }
+
+  @Test
+  public void testFunctionalSiteComponents() {
+    IFeatureCollection<IFeature> sites = collection();
+    sites.add(this.osm(rect(0, 100, 0, 100), "amenity", "hospital"));
+    sites.add(this.osm(rect(150, 250, 0, 100), "amenity", "school"));
+    IFeatureCollection<IFeature> components = collection();
+    // within the hospital
+    components.add(this.osm(rect(10, 30, 10, 30), "building", "hospital"));
+    components.add(this.osm(rect(90, 120, 10, 30), "building", "yes"));
+    components.add(this.osm(rect(140, 160, 40, 60), "leisure", "pitch"));
+    components.add(this.osm(line(50, 50, 50, 130), "highway", "service"));
+    // within the school
+    components.add(this.osm(line(200, 50, 200, 80), "highway", "service"));
+    // on both sites
+    components.add(this.osm(rect(95, 155, 80, 90), "amenity", "doctors"));
+    components.add(this.osm(rect(400, 420, 0, 20), "building", "yes"));
+    for (int threshold : THRESHOLDS) {
+      Set<String> expected = new HashSet<String>();
+      Set<String> include = new HashSet<String>();
+      Set<String> exclude = new HashSet<String>();
+      for (IFeature site : sites) {
+        LoDCategory category1 = this.category(site, this.electre);
+        for (IFeature component : components.select(site.getGeom())) {
+          if (site.getGeom().contains(component.getGeom()))
+            continue;
+          LoDCategory category2 = this.category(component, this.electre);
+          if (!add(expected, threshold, site, component, category1,
+              category2))
+            continue;
+          int belonging = FunctionalSite.getFunctionalBelonging(
+              (OSMFeature) site, (OSMFeature) component)
+              + FunctionalSite.getSpatialBelonging((OSMFeature) site,
+                  (OSMFeature) component);
+          if (belonging > 5)
+            include.add(key(site, component, category1, category2));
+          else if (belonging < 0)
+            exclude.add(key(site, component, category1, category2));
+        }
+      }
+      if (threshold == 0)
+        Assert.assertFalse(expected.isEmpty());
+      for (int nbThreads : THREADS) {
+        FunctionalSiteComponents detection = new FunctionalSiteComponents(
+            sites, components, threshold, 5, 0);
+        detection.setNbThreads(nbThreads);
+        Assert.assertEquals(expected, keys(detection.findInstances()));
+        Assert.assertEquals(include, keys(detection.getIncludeInstances()));
+        Assert.assertEquals(exclude, keys(detection.getExcludeInstances()));
+      }
+    }
+  }
+
+  private IlotImpl block(IPolygon geom, int nbComponents) {
+    IlotImpl block = new IlotImpl(geom);
+    block.setId((int) this.nextId++);
+    for (int i = 0; i < nbComponents; i++) {
+      double x = geom.envelope().minX() + 10 + 20 * i;
+      double y = geom.envelope().minY() + 10;
+      OsmElement element = new OsmElement(rect(x, x + 10, y, y + 10),
+          this.nextId);
+      this.source(element);
+      block.getComposants().add(element);
+    }
+    return block;
+  }
+
+  @Test
+  public void testHouseGroupInForest() {
+    IFeatureCollection<IFeature> blocks = collection();
+    blocks.add(this.block(rect(0, 100, 0, 100), 2));
+    blocks.add(this.block(rect(200, 300, 0, 100), 3));
+    blocks.add(this.block(rect(0, 100, 200, 300), 1));
+    IFeatureCollection<IFeature> forests = collection();
+    // overlapping 60 % of a block
+    forests.add(this.osm(rect(-10, 60, -10, 110), "landuse", "forest"));
+    // overlapping 50 % of a block
+    forests.add(this.osm(rect(250, 400, 0, 100), "landuse", "forest"));
+    // overlapping 10 % of blocks
+    forests.add(this.osm(rect(90, 110, 0, 100), "landuse", "forest"));
+    forests.add(this.osm(rect(0, 100, 290, 400), "landuse", "forest"));
+    // containing a block
+    forests.add(this.osm(rect(-50, 150, 150, 350), "landuse", "forest"));
+    for (int threshold : THRESHOLDS) {
+      Set<String> expected = new HashSet<String>();
+      for (IFeature block : blocks) {
+        for (IFeature forest : forests.select(block.getGeom())) {
+          IGeometry inter = forest.getGeom().intersection(block.getGeom());
+          if (inter == null)
+            continue;
+          if (inter.area() / block.getGeom().area() > 0.3) {
+            List<LoDCategory> categories = new ArrayList<LoDCategory>();
+            for (ElementIndependant element : ((IlotImpl) block)
+                .getComposants())
+              categories.add(this.category(element, this.electre));
+            add(expected, threshold, block, forest,
+                LoDCategory.mean(categories),
+                this.category(forest, this.electre));
+          }
+        }
+      }
+      if (threshold == 0)
+        Assert.assertFalse(expected.isEmpty());
+      for (int nbThreads : THREADS) {
+        HouseGroupInForest detection = new HouseGroupInForest(blocks,
+            forests, threshold, 0.3);
+        detection.setNbThreads(nbThreads);
+        Assert.assertEquals(expected, keys(detection.findInstances()));
+      }
+    }
+  }
+
+  @Test
+  public void testTreeAlongRoad() {
+    IFeatureCollection<IFeature> roads = collection();
+    roads.add(this.osm(line(0, 0, 200, 0), "highway", "residential"));
+    roads.add(this.osm(line(300, 0, 300, 200), "highway", "residential"));
+    roads.add(this.osm(line(0, 100, 100, 150, 200, 100), "highway",
+        "residential"));
+    IFeatureCollection<IFeature> trees = collection();
+    double[] offsets = { 4, -4, 8.5, -8.5, 10, -10, 0 };
+    for (int k = 0; k < offsets.length; k++) {
+      trees.add(this.osm(point(20 + 25 * k, offsets[k]), "natural", "tree"));
+      trees.add(this.osm(point(300 + offsets[k], 20 + 25 * k), "natural",
+          "tree"));
+    }
+    trees.add(this.osm(point(100, 146), "natural", "tree"));
+    trees.add(this.osm(point(100, 155), "natural", "tree"));
+    trees.add(this.osm(point(150, 130), "natural", "tree"));
+    double treeWidth = 2.0, roadWidth = 5.0;
+    for (int threshold : THRESHOLDS) {
+      Set<String> right = new HashSet<String>();
+      Set<String> left = new HashSet<String>();
+      for (IFeature road : roads) {
+        LoDCategory category1 = this.category(road, this.electre);
+        IPolygon rightBuffer = BufferComputing.buildHalfOffsetBuffer(
+            Side.RIGHT, (ILineString) road.getGeom(), roadWidth + treeWidth);
+        IPolygon leftBuffer = BufferComputing.buildHalfOffsetBuffer(
+            Side.LEFT, (ILineString) road.getGeom(), roadWidth + treeWidth);
+        for (IFeature tree : trees) {
+          IPolygon circle = GeometryFactory.buildCircle(
+              ((IPoint) tree.getGeom()).getPosition(), treeWidth, 12);
+          if (rightBuffer != null && rightBuffer.intersects(circle)) {
+            if (!add(right, threshold, road, tree, category1,
+                this.category(tree, this.electrePt)))
+              continue;
+          }
+          if (leftBuffer != null && leftBuffer.intersects(circle)) {
+            add(left, threshold, road, tree, category1,
+                this.category(tree, this.electre));
+          }
+        }
+      }
+      Set<String> expected = new HashSet<String>(right);
+      expected.addAll(left);
+      if (threshold == 0) {
+        Assert.assertFalse(right.isEmpty());
+        Assert.assertFalse(left.isEmpty());
+      }
+      for (int nbThreads : THREADS) {
+        TreeAlongRoad detection = new TreeAlongRoad(roads, trees, threshold,
+            0.0, treeWidth, roadWidth);
+        detection.setNbThreads(nbThreads);
+        Assert.assertEquals(expected, keys(detection.findInstances()));
+        Assert.assertEquals(right, keys(detection.getRightInstances()));
+        Assert.assertEquals(left, keys(detection.getLeftInstances()));
+      }
+    }
+  }
+
+}
@@ -7,16 +7,15 @@ import fr.ign.cogit.geoxygene.style.Rule;
 import fr.ign.cogit.geoxygene.style.Style;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
 
 import org.apache.log4j.Logger;
 
 import fr.ign.cogit.geoxygene.semio.legend.legendContent.Legend;
-import fr.ign.cogit.geoxygene.semio.legend.legendContent.LegendComponent;
 import fr.ign.cogit.geoxygene.semio.legend.mapContent.operation.ContrastOp;
 import fr.ign.cogit.geoxygene.semio.legend.mapContent.operation.NRBuilder;
-import fr.ign.cogit.geoxygene.semio.legend.metadata.SemanticRelation;
 import fr.ign.cogit.geoxygene.semio.legend.symbol.GraphicSymbol;
 import fr.ign.cogit.geoxygene.semio.legend.symbol.color.Contrast;
 
@@ -300,38 +299,10 @@ public class Map {
 	 */
 	public void searchForNeighbors(double maxDistance) {
 	  logger.info("Recherche des relations de voisinages.");
-		for(int i=0; i<this.getSymbolisedFeatureCollections().size(); i++) {
-			SymbolisedFeatureCollection famille1 = this.getSymbolisedFeatureCollections().get(i);
-			for(int j=i+1; j<this.getSymbolisedFeatureCollections().size(); j++) {
-				SymbolisedFeatureCollection famille2 = this.getSymbolisedFeatureCollections().get(j);
-				// on recherche si les deux familles sont en relation
-				List<SemanticRelation> relations = famille1.getLegend().getRelations();
-				for (SemanticRelation relation : relations) {
-					if ( relation.getRelatedComponents().contains(famille2.getLegend()) ) {
-						// NB: si deux familes sont en relations de deux maniéres,
-						// on crée deux relations de voisinage pour chaque couple
-						// d'objets voisins
-						boolean ordre = true;
-						if (relation.getType() == SemanticRelation.ORDER) {
-							// determination de la famille la plus "faible" dans une relation d'ordre
-							// on parcours les éléments de la relation dans l'ordre et on cherche le
-							// premier rencontré
-							for (LegendComponent element : relation.getRelatedComponents()) {
-								if (element == famille1.getLegend()) break;
-								if (element == famille2.getLegend()) {
-									ordre = false;
-									break;
-								}
-							}
-						}
-						for (SymbolisedFeature objetCarto : famille1) {
-							// Détermine les voisins d'un objet en cours de traitement
-							// La notion de voisinage est déterminée sur des critères topologiques et géométriques
-							NRBuilder.buildNR(objetCarto, famille2, maxDistance, relation.getType(), ordre);
-						}
-					}
-				}
-			}
+		// Jointure spatiale de toutes les familles en relation, en une seule passe
+		NRBuilder.buildNRs(this.getSymbolisedFeatureCollections(), maxDistance);
+		this.neighborsDistance = maxDistance;
+		for (SymbolisedFeatureCollection famille1 : this.getSymbolisedFeatureCollections()) {
 			int nbVoisins = 0;
 			for (SymbolisedFeature objet : famille1) {
 				nbVoisins = nbVoisins+objet.getNeighborhoodRelationships().size();
@@ -341,6 +312,36 @@ public class Map {
 		
 	}
 
+	/**
+	 * Distance used by the last call to {@link #searchForNeighbors(double)}, -1 if
+	 * the neighborhood relationships have not been built yet.
+	 */
+	private double neighborsDistance = -1;
+	
+	public double getNeighborsDistance() {
+	  return this.neighborsDistance;
+	}
+
+	/**
+	 * Rebuilds only the neighborhood relationships of the features of the given
+	 * collections, for instance after a change of the width or size of their symbols.
+	 * <p>
+	 * <strong>French: </strong>Reconstruit uniquement les relations de voisinage des
+	 * objets des familles dont le symbole a changé, avec la distance utilisée lors
+	 * de la recherche initiale des voisins.
+	 *  
+	 * @param changed collections whose symbols changed.
+	 */
+	public void updateNeighbors(Collection<SymbolisedFeatureCollection> changed) {
+		if (this.neighborsDistance == -1) {
+			logger.warn("Les relations de voisinage n'ont pas été construites.");
+			return;
+		}
+		int nbRelations = NRBuilder.updateNRs(this.getSymbolisedFeatureCollections(),
+				this.neighborsDistance, changed);
+		logger.info(nbRelations + " relations de voisinage reconstruites.");
+	}
+
 	public List<Float> getAreas(){
 		List<Float> areas = new ArrayList<Float>();
 		for (SymbolisedFeatureCollection collection : this.getSymbolisedFeatureCollections()) {
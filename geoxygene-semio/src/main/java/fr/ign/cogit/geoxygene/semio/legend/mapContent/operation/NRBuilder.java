@@ -1,12 +1,26 @@
 package fr.ign.cogit.geoxygene.semio.legend.mapContent.operation;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.index.strtree.STRtree;
 
 import fr.ign.cogit.geoxygene.feature.FT_FeatureCollection;
+import fr.ign.cogit.geoxygene.util.ParallelChunks;
+import fr.ign.cogit.geoxygene.util.conversion.JtsGeOxygene;
 import fr.ign.cogit.geoxygene.util.index.Tiling;
 
+import fr.ign.cogit.geoxygene.semio.legend.legendContent.LegendComponent;
 import fr.ign.cogit.geoxygene.semio.legend.mapContent.NeighbohoodRelationship;
 import fr.ign.cogit.geoxygene.semio.legend.mapContent.SymbolisedFeature;
+import fr.ign.cogit.geoxygene.semio.legend.mapContent.SymbolisedFeatureCollection;
+import fr.ign.cogit.geoxygene.semio.legend.metadata.SemanticRelation;
 
 /**
  * 
@@ -31,6 +45,19 @@ import fr.ign.cogit.geoxygene.semio.legend.mapContent.SymbolisedFeature;
 
 public class NRBuilder {
   
+  private static Logger logger = Logger.getLogger(NRBuilder.class.getName());
+  
+  /** Nombre de threads de {@link #buildNRs(List, double)} (thread courant si 1). */
+  private static int nbThreads = ParallelChunks.getDefaultThreads();
+  
+  public static int getNbThreads() {
+    return nbThreads;
+  }
+  
+  public static void setNbThreads(int nbThreads) {
+    NRBuilder.nbThreads = nbThreads;
+  }
+  
   private SymbolisedFeature symbolisedFeature;
   
   public SymbolisedFeature getSymbolisedFeature() {
@@ -126,32 +153,52 @@ public class NRBuilder {
     // Objets qui intersectent la géométrie de self
     Collection<SymbolisedFeature> voisins =
         this.symboFC.select(this.symbolisedFeature.getGeom(), this.radius);
-    voisins.remove(this);
+    voisins.remove(this.symbolisedFeature);
     
     // creation d'un nouveau lien pour chaque voisin
     for (SymbolisedFeature voisin : voisins) {
         // initialisation de la superficie de l'objet au besoin
-        if (this.symbolisedFeature.getArea() == -1) {
+        if (voisin.getArea() == -1) {
           AreaOp.computeArea(voisin);
         }
         // crée une nouvelle relation entre voisin et this
-        NeighbohoodRelationship relation = new NeighbohoodRelationship();
-        if (!this.order) {
-            relation.addSymbolisedFeature(voisin);
-            relation.addSymbolisedFeature(this.symbolisedFeature);
-        }
-        else {
-            relation.addSymbolisedFeature(this.symbolisedFeature);
-            relation.addSymbolisedFeature(voisin);
-        }   
-        relation.setType(type);
-        if (this.symbolisedFeature.getArea() != 0 && voisin.getArea() != 0) {
-            relation.setRatioAreas(Math.max(
-                this.symbolisedFeature.getArea()/voisin.getArea(),
-                voisin.getArea()/this.symbolisedFeature.getArea()));
-        }
-        else relation.setRatioAreas(1);
+        NRBuilder.createNR(this.symbolisedFeature, voisin, this.type, this.order);
+    }
+  }
+  
+  /**
+   * Creates the neighborhood relationship between two features
+   * whose areas are known.
+   * 
+   * <strong>French:</strong><br />
+   * Crée la relation de voisinage entre deux objets carto dont les superficies
+   * sont déjà calculées.
+   * 
+   * @param symbolisedFeature : objet carto.
+   * @param voisin : objet carto voisin.
+   * @param type :  type de la relation (ordre, association, dissociation).
+   * @param order : true si symbolisedFeature est plus faible que voisin.
+   * @return la relation créée.
+   */
+  public static NeighbohoodRelationship createNR(SymbolisedFeature symbolisedFeature,
+      SymbolisedFeature voisin, int type, boolean order) {
+    NeighbohoodRelationship relation = new NeighbohoodRelationship();
+    if (!order) {
+        relation.addSymbolisedFeature(voisin);
+        relation.addSymbolisedFeature(symbolisedFeature);
+    }
+    else {
+        relation.addSymbolisedFeature(symbolisedFeature);
+        relation.addSymbolisedFeature(voisin);
+    }   
+    relation.setType(type);
+    if (symbolisedFeature.getArea() != 0 && voisin.getArea() != 0) {
+        relation.setRatioAreas(Math.max(
+            symbolisedFeature.getArea()/voisin.getArea(),
+            voisin.getArea()/symbolisedFeature.getArea()));
     }
+    else relation.setRatioAreas(1);
+    return relation;
   }
   
   public static void buildNR(SymbolisedFeature symbolisedFeature,
@@ -162,4 +209,215 @@ public class NRBuilder {
     builder.buildNR();
   }
   
+  /**
+   * Search all neighbors on the map in a single pass.
+   * 
+   * <strong>French:</strong><br />
+   * Détermine en une seule passe les voisins de tous les objets carto des familles
+   * en relation, et crée les relations de voisinage correspondantes.
+   * Les superficies sont calculées une seule fois, tous les objets concernés sont
+   * rangés dans un même index (R-Tree) et les voisins sont cherchés en parallèle,
+   * chaque couple d'objets voisins n'étant testé qu'une fois.
+   * Les relations obtenues sont les mêmes qu'en appelant {@link #buildNR()}
+   * pour chaque objet de chaque couple de familles en relation.
+   * 
+   * @param collections : familles de la carte.
+   * @param radius : seuil de distance entre objets pour les considérer voisins.
+   * @return le nombre de relations créées.
+   */
+  public static int buildNRs(List<SymbolisedFeatureCollection> collections, double radius) {
+    return NRBuilder.buildNRs(collections, radius, null);
+  }
+  
+  /**
+   * Rebuild the neighborhood relationships of the features
+   * whose symbols changed.
+   * 
+   * <strong>French:</strong><br />
+   * Reconstruit uniquement les relations de voisinage des objets des familles
+   * dont le symbole a changé (épaisseur, taille...) : leurs anciennes relations
+   * sont supprimées, leurs superficies recalculées, et seuls les couples de
+   * familles dont l'une au moins a changé sont de nouveau parcourus.
+   * 
+   * @param collections : familles de la carte.
+   * @param radius : seuil de distance utilisé lors de la construction initiale.
+   * @param changed : familles dont le symbole a changé.
+   * @return le nombre de relations créées.
+   */
+  public static int updateNRs(List<SymbolisedFeatureCollection> collections,
+      double radius, Collection<SymbolisedFeatureCollection> changed) {
+    if (changed.isEmpty()) {
+      return 0;
+    }
+    for (SymbolisedFeatureCollection famille : changed) {
+      for (SymbolisedFeature objet : famille) {
+        List<NeighbohoodRelationship> relations =
+            new ArrayList<NeighbohoodRelationship>(objet.getNeighborhoodRelationships());
+        for (NeighbohoodRelationship relation : relations) {
+          relation.setSymbolisedFeatures(new ArrayList<SymbolisedFeature>());
+        }
+        objet.setArea(-1);
+      }
+    }
+    return NRBuilder.buildNRs(collections, radius, changed);
+  }
+  
+  /**
+   * Jointure spatiale de toutes les familles en relation.
+   * 
+   * @param changed : si non null, seuls les couples de familles dont l'une au
+   *          moins appartient à changed sont traités.
+   */
+  private static int buildNRs(final List<SymbolisedFeatureCollection> collections,
+      final double radius, Collection<SymbolisedFeatureCollection> changed) {
+    final int nbFamilles = collections.size();
+    
+    // Relations sémantiques entre chaque couple de familles (i < j)
+    @SuppressWarnings("unchecked")
+    final List<int[]>[] relations = new List[nbFamilles * nbFamilles];
+    boolean[] concernees = new boolean[nbFamilles];
+    for (int i = 0; i < nbFamilles; i++) {
+      for (int j = i + 1; j < nbFamilles; j++) {
+        SymbolisedFeatureCollection famille1 = collections.get(i);
+        SymbolisedFeatureCollection famille2 = collections.get(j);
+        List<int[]> relationsFamilles = new ArrayList<int[]>(0);
+        if (changed == null || changed.contains(famille1) || changed.contains(famille2)) {
+          relationsFamilles = NRBuilder.semanticRelations(famille1, famille2);
+        }
+        relations[i * nbFamilles + j] = relationsFamilles;
+        if (!relationsFamilles.isEmpty()) {
+          concernees[i] = true;
+          concernees[j] = true;
+        }
+      }
+    }
+    
+    // Objets des familles concernées
+    final List<SymbolisedFeature> objets = new ArrayList<SymbolisedFeature>();
+    List<Integer> numerosFamilles = new ArrayList<Integer>();
+    for (int i = 0; i < nbFamilles; i++) {
+      if (concernees[i]) {
+        for (SymbolisedFeature objet : collections.get(i)) {
+          objets.add(objet);
+          numerosFamilles.add(i);
+        }
+      }
+    }
+    final int nbObjets = objets.size();
+    if (nbObjets == 0) {
+      return 0;
+    }
+    final int[] familles = new int[nbObjets];
+    for (int k = 0; k < nbObjets; k++) {
+      familles[k] = numerosFamilles.get(k);
+    }
+    
+    // Superficies et géométries JTS, calculées une seule fois par objet
+    final Geometry[] geometries = new Geometry[nbObjets];
+    ParallelChunks.forEach(nbObjets, nbThreads, (start, end) -> {
+      for (int k = start; k < end; k++) {
+        SymbolisedFeature objet = objets.get(k);
+        if (objet.getArea() == -1) {
+          AreaOp.computeArea(objet);
+        }
+        try {
+          geometries[k] = JtsGeOxygene.makeJtsGeom(objet.getGeom());
+        } catch (Exception e) {
+          logger.error("Géométrie non convertie " + objet.getGeom());
+        }
+      }
+    });
+    
+    // Un seul index pour tous les objets
+    final STRtree index = new STRtree();
+    for (int k = 0; k < nbObjets; k++) {
+      if (geometries[k] != null) {
+        index.insert(geometries[k].getEnvelopeInternal(), k);
+      }
+    }
+    index.build();
+    
+    // Recherche des voisins en parallèle : chaque objet k ne garde que les
+    // voisins l > k, de sorte que chaque couple n'est testé qu'une fois
+    @SuppressWarnings("unchecked")
+    final List<Integer>[] voisins = new List[nbObjets];
+    ParallelChunks.forEach(nbObjets, nbThreads, (start, end) -> {
+      for (int k = start; k < end; k++) {
+        List<Integer> voisinsObjet = new ArrayList<Integer>(0);
+        if (geometries[k] != null) {
+          Envelope envelope = new Envelope(geometries[k].getEnvelopeInternal());
+          envelope.expandBy(radius);
+          for (Object item : index.query(envelope)) {
+            int l = ((Integer) item).intValue();
+            if (l <= k || familles[l] == familles[k]) {
+              continue;
+            }
+            int i = Math.min(familles[k], familles[l]);
+            int j = Math.max(familles[k], familles[l]);
+            if (!relations[i * nbFamilles + j].isEmpty()
+                && geometries[k].isWithinDistance(geometries[l], radius)) {
+              voisinsObjet.add(l);
+            }
+          }
+          Collections.sort(voisinsObjet);
+        }
+        voisins[k] = voisinsObjet;
+      }
+    });
+    
+    // Création des relations, séquentielle car elle modifie les listes
+    // de relations des objets
+    int nbRelations = 0;
+    for (int k = 0; k < nbObjets; k++) {
+      for (int l : voisins[k]) {
+        SymbolisedFeature objet1 = objets.get(k);
+        SymbolisedFeature objet2 = objets.get(l);
+        int i = familles[k];
+        int j = familles[l];
+        if (i > j) {
+          objet1 = objets.get(l);
+          objet2 = objets.get(k);
+          i = familles[l];
+          j = familles[k];
+        }
+        for (int[] relation : relations[i * nbFamilles + j]) {
+          NRBuilder.createNR(objet1, objet2, relation[0], relation[1] == 1);
+          nbRelations++;
+        }
+      }
+    }
+    return nbRelations;
+  }
+  
+  /**
+   * Relations sémantiques entre deux familles, sous la forme {type, ordre}
+   * où ordre vaut 1 si famille1 est la plus faible et 0 sinon.
+   * NB: si deux familes sont en relations de deux manières,
+   * on crée deux relations de voisinage pour chaque couple
+   * d'objets voisins.
+   */
+  private static List<int[]> semanticRelations(SymbolisedFeatureCollection famille1,
+      SymbolisedFeatureCollection famille2) {
+    List<int[]> relations = new ArrayList<int[]>(0);
+    for (SemanticRelation relation : famille1.getLegend().getRelations()) {
+      if (relation.getRelatedComponents().contains(famille2.getLegend())) {
+        int ordre = 1;
+        if (relation.getType() == SemanticRelation.ORDER) {
+          // determination de la famille la plus "faible" dans une relation d'ordre
+          // on parcours les éléments de la relation dans l'ordre et on cherche le
+          // premier rencontré
+          for (LegendComponent element : relation.getRelatedComponents()) {
+            if (element == famille1.getLegend()) break;
+            if (element == famille2.getLegend()) {
+              ordre = 0;
+              break;
+            }
+          }
+        }
+        relations.add(new int[] { relation.getType(), ordre });
+      }
+    }
+    return relations;
+  }
+  
 }
@@ -0,0 +1,115 @@
+package fr.ign.cogit.geoxygene.semio.legend.mapContent.operation;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import fr.ign.cogit.geoxygene.semio.legend.legendContent.LegendLeaf;
+import fr.ign.cogit.geoxygene.semio.legend.mapContent.DefaultSymbolisedFeature;
+import fr.ign.cogit.geoxygene.semio.legend.mapContent.NeighbohoodRelationship;
+import fr.ign.cogit.geoxygene.semio.legend.mapContent.SymbolisedFeature;
+import fr.ign.cogit.geoxygene.semio.legend.mapContent.SymbolisedFeatureCollection;
+import fr.ign.cogit.geoxygene.semio.legend.metadata.SemanticRelation;
+import fr.ign.cogit.geoxygene.semio.legend.symbol.GraphicSymbol;
+import fr.ign.cogit.geoxygene.spatial.coordgeom.GM_Envelope;
+import fr.ign.cogit.geoxygene.spatial.coordgeom.GM_Polygon;
+
+public class NRBuilderTest {
+
+  private List<SymbolisedFeatureCollection> familles;
+  private SymbolisedFeature a1, a2, b1, c1;
+
+  private static SymbolisedFeatureCollection famille(String name) {
+    LegendLeaf leaf = new LegendLeaf();
+    leaf.setName(name);
+    leaf.setSymbol(new GraphicSymbol());
+    SymbolisedFeatureCollection famille = new SymbolisedFeatureCollection();
+    famille.setName(name);
+    famille.setLegend(leaf);
+    return famille;
+  }
+
+  private static SymbolisedFeature carre(SymbolisedFeatureCollection famille,
+      double xmin, double xmax, double ymin, double ymax) {
+    SymbolisedFeature objet = new DefaultSymbolisedFeature();
+    objet.setGeom(new GM_Polygon(new GM_Envelope(xmin, xmax, ymin, ymax)));
+    objet.setSymbolisedFeatureCollection(famille);
+    return objet;
+  }
+
+  private static void relation(int type, SymbolisedFeatureCollection... familles) {
+    SemanticRelation relation = new SemanticRelation();
+    relation.setType(type);
+    for (SymbolisedFeatureCollection famille : familles) {
+      relation.addRelatedComponents(famille.getLegend());
+    }
+  }
+
+  @Before
+  public void setUp() {
+    SymbolisedFeatureCollection a = famille("A");
+    SymbolisedFeatureCollection b = famille("B");
+    SymbolisedFeatureCollection c = famille("C");
+    SymbolisedFeatureCollection d = famille("D");
+    this.a1 = carre(a, 0, 10, 0, 10);
+    this.a2 = carre(a, 100, 110, 0, 10);
+    // à 2 de a1
+    this.b1 = carre(b, 12, 22, 0, 10);
+    // à 5 de a1, à plus de 5 de b1
+    this.c1 = carre(c, 0, 10, 15, 25);
+    // famille sans relation
+    carre(d, 0, 10, 0, 10);
+    // B est plus faible que A
+    relation(SemanticRelation.ORDER, b, a);
+    relation(SemanticRelation.ASSOCIATION, a, c);
+    this.familles = new ArrayList<SymbolisedFeatureCollection>();
+    Collections.addAll(this.familles, a, b, c, d);
+  }
+
+  @Test
+  public void testBuildNRs() {
+    Assert.assertEquals(2, NRBuilder.buildNRs(this.familles, 6));
+
+    Assert.assertEquals(2, this.a1.getNeighborhoodRelationships().size());
+    Assert.assertEquals(0, this.a2.getNeighborhoodRelationships().size());
+    Assert.assertEquals(1, this.b1.getNeighborhoodRelationships().size());
+    Assert.assertEquals(1, this.c1.getNeighborhoodRelationships().size());
+    Assert.assertEquals(100, this.a1.getArea(), 1e-9);
+
+    NeighbohoodRelationship ordre = this.b1.getNeighborhoodRelationships().get(0);
+    Assert.assertEquals(SemanticRelation.ORDER, ordre.getType());
+    Assert.assertSame(this.b1, ordre.getSymbolisedFeatures().get(0));
+    Assert.assertSame(this.a1, ordre.getSymbolisedFeatures().get(1));
+
+    NeighbohoodRelationship association = this.c1.getNeighborhoodRelationships().get(0);
+    Assert.assertEquals(SemanticRelation.ASSOCIATION, association.getType());
+    Assert.assertSame(this.a1, association.getSymbolisedFeatures().get(0));
+    Assert.assertSame(this.c1, association.getSymbolisedFeatures().get(1));
+    Assert.assertEquals(1, association.getRatioAreas(), 1e-9);
+  }
+
+  @Test
+  public void testUpdateNRs() {
+    NRBuilder.buildNRs(this.familles, 6);
+    NeighbohoodRelationship ordre = this.b1.getNeighborhoodRelationships().get(0);
+    NeighbohoodRelationship association = this.c1.getNeighborhoodRelationships().get(0);
+
+    // Contour de 4 autour de c1 : superficie 14 x 14
+    SymbolisedFeatureCollection c = this.c1.getSymbolisedFeatureCollection();
+    c.getLegend().getSymbol().setWidthOnMap(4);
+    Assert.assertEquals(1, NRBuilder.updateNRs(this.familles, 6,
+        Collections.singletonList(c)));
+
+    Assert.assertEquals(2, this.a1.getNeighborhoodRelationships().size());
+    Assert.assertTrue(this.a1.getNeighborhoodRelationships().contains(ordre));
+    Assert.assertFalse(this.a1.getNeighborhoodRelationships().contains(association));
+    Assert.assertSame(ordre, this.b1.getNeighborhoodRelationships().get(0));
+    Assert.assertEquals(1, this.c1.getNeighborhoodRelationships().size());
+    Assert.assertEquals(1.96, this.c1.getNeighborhoodRelationships().get(0).getRatioAreas(), 1e-9);
+  }
+
+}
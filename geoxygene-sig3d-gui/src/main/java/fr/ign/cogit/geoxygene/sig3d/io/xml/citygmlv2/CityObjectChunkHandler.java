@@ -0,0 +1,40 @@
+package fr.ign.cogit.geoxygene.sig3d.io.xml.citygmlv2;
+
+import java.util.List;
+
+import fr.ign.cogit.geoxygene.sig3d.model.citygml.appearance.CG_AbstractSurfaceData;
+import fr.ign.cogit.geoxygene.sig3d.model.citygml.core.CG_CityObject;
+
+/**
+ * 
+ * This software is released under the licence CeCILL
+ * 
+ * see LICENSE.TXT
+ * 
+ * see <http://www.cecill.info/ http://www.cecill.info/
+ * 
+ * 
+ * 
+ * @copyright IGN
+ * 
+ * @version 1.7
+ * 
+ *          Receives the city objects read by
+ *          {@link LoaderCityGML#stream(java.io.File, String, CityObjectChunkHandler, fr.ign.cogit.geoxygene.api.spatial.coordgeom.IEnvelope, int, int, int, int, boolean)}
+ *          chunk by chunk, in the order of the file. The chunks are always
+ *          handled by the thread that reads the file, so an implementation
+ *          does not have to be thread safe.
+ */
+public interface CityObjectChunkHandler {
+
+	/**
+	 * @param chunk
+	 *            the converted city objects, the list is not reused by the
+	 *            loader
+	 * @param lCGA
+	 *            the global appearances of the file targeting the surfaces of
+	 *            the chunk, in the order of the file
+	 */
+	public void handleChunk(List<CG_CityObject> chunk, List<CG_AbstractSurfaceData> lCGA);
+
+}
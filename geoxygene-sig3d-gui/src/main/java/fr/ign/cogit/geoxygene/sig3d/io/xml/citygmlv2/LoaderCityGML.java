@@ -1,28 +1,58 @@
 package fr.ign.cogit.geoxygene.sig3d.io.xml.citygmlv2;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
 
 import javax.xml.bind.JAXBException;
+import javax.xml.namespace.QName;
 
 import org.citygml4j.CityGMLContext;
 import org.citygml4j.builder.jaxb.JAXBBuilder;
+import org.citygml4j.geometry.BoundingBox;
 import org.citygml4j.model.citygml.CityGML;
+import org.citygml4j.model.citygml.appearance.Appearance;
+import org.citygml4j.model.citygml.core.AbstractCityObject;
 import org.citygml4j.model.citygml.core.CityModel;
+import org.citygml4j.model.citygml.core.LodRepresentation;
+import org.citygml4j.model.gml.geometry.AbstractGeometry;
+import org.citygml4j.model.gml.geometry.GeometryProperty;
+import org.citygml4j.model.gml.geometry.primitives.Envelope;
+import org.citygml4j.util.walker.FeatureWalker;
+import org.citygml4j.util.walker.GeometryWalker;
 import org.citygml4j.xml.io.CityGMLInputFactory;
+import org.citygml4j.xml.io.reader.CityGMLInputFilter;
 import org.citygml4j.xml.io.reader.CityGMLReadException;
 import org.citygml4j.xml.io.reader.CityGMLReader;
+import org.citygml4j.xml.io.reader.FeatureReadMode;
 
 import fr.ign.cogit.geoxygene.api.feature.IFeature;
 import fr.ign.cogit.geoxygene.api.feature.IFeatureCollection;
+import fr.ign.cogit.geoxygene.api.spatial.coordgeom.IEnvelope;
 import fr.ign.cogit.geoxygene.api.spatial.geomprim.IPoint;
 import fr.ign.cogit.geoxygene.feature.DefaultFeature;
 import fr.ign.cogit.geoxygene.feature.FT_FeatureCollection;
+import fr.ign.cogit.geoxygene.sig3d.model.citygml.appearance.CG_AbstractSurfaceData;
+import fr.ign.cogit.geoxygene.sig3d.model.citygml.appearance.CG_AbstractTextureParameterization;
+import fr.ign.cogit.geoxygene.sig3d.model.citygml.appearance.CG_GeoreferencedTexture;
+import fr.ign.cogit.geoxygene.sig3d.model.citygml.appearance.CG_ParameterizedTexture;
+import fr.ign.cogit.geoxygene.sig3d.model.citygml.appearance.CG_TexCoordList;
+import fr.ign.cogit.geoxygene.sig3d.model.citygml.appearance.CG_TextureCoordinates;
+import fr.ign.cogit.geoxygene.sig3d.model.citygml.appearance.CG_X3DMaterial;
 import fr.ign.cogit.geoxygene.sig3d.model.citygml.core.CG_CityModel;
 import fr.ign.cogit.geoxygene.sig3d.model.citygml.core.CG_CityObject;
 import fr.ign.cogit.geoxygene.sig3d.representation.citygml.CG_VectorLayer;
 import fr.ign.cogit.geoxygene.sig3d.representation.citygml.core.RP_CityObject;
 import fr.ign.cogit.geoxygene.sig3d.semantic.VectorLayer;
 import fr.ign.cogit.geoxygene.spatial.geomprim.GM_Point;
+import fr.ign.cogit.geoxygene.util.ParallelChunks;
+import fr.ign.cogit.geoxygene.util.ParallelChunks.ItemFunction;
 
 /**
  * 
@@ -125,8 +155,500 @@ public class LoaderCityGML {
 
 	}
 
+	/**
+	 * Reads a CityGML file member by member without loading the whole city
+	 * model : the city objects are converted in worker threads and given to
+	 * the handler in chunks of at most chunkSize objects. At most nbThreads
+	 * chunks of city objects are in memory at the same time, whatever the
+	 * number of city objects of the file.
+	 * 
+	 * The global appearances usually follow the city objects in the file : they
+	 * are collected by a first reading of the file that only unmarshals the
+	 * appearances, and indexed by the identifiers of the surfaces and rings
+	 * they target. They stay in memory during the whole reading, so the memory
+	 * used also grows with the size of the appearances of the file (not with
+	 * the size of its geometries). Each chunk only receives the appearances
+	 * targeting its surfaces.
+	 * 
+	 * @param f
+	 *            the CityGML file
+	 * @param context
+	 *            the folder of the textures
+	 * @param handler
+	 *            the handler of the chunks, called by the current thread
+	 * @param envelope
+	 *            only the city objects intersecting this envelope (in 2D) are
+	 *            kept, null to keep all of them
+	 * @param lodMin
+	 *            only the city objects having a geometry (or a nested city
+	 *            object having a geometry) with a LoD between lodMin and lodMax
+	 *            are kept
+	 * @param lodMax
+	 * @param chunkSize
+	 *            the maximal number of city objects of a chunk
+	 * @param nbThreads
+	 *            the number of conversion threads
+	 * @param generateRepresentation
+	 *            if true, the representations are generated and the city
+	 *            objects without representation are removed
+	 * @return the number of city objects given to the handler
+	 * @throws CityGMLReadException
+	 * @throws JAXBException
+	 */
+	public static int stream(File f, String context, CityObjectChunkHandler handler, IEnvelope envelope, int lodMin,
+			int lodMax, int chunkSize, int nbThreads, boolean generateRepresentation)
+			throws CityGMLReadException, JAXBException {
+
+		Context.CITY_GML_CONTEXT = context;
+
+		AppearanceIndex appearances = LoaderCityGML.readAppearances(f);
+
+		CityGMLReader reader = LoaderCityGML.getCityGMLStreamInputFactory().createCityGMLReader(f);
+
+		// Chunks read but not yet converted, at most nbThreads
+		List<List<AbstractCityObject>> pending = new ArrayList<List<AbstractCityObject>>();
+
+		int nbEmitted = 0;
+
+		try {
+
+			List<AbstractCityObject> chunk = new ArrayList<AbstractCityObject>(chunkSize);
+
+			while (reader.hasNext()) {
+
+				CityGML citygml = reader.nextFeature();
+
+				// Le CityModel lui-même est renvoyé vide de ses membres, les
+				// apparences sont déjà lues
+				if (!(citygml instanceof AbstractCityObject)) {
+					continue;
+				}
+
+				AbstractCityObject cO = (AbstractCityObject) citygml;
+
+				if (!LoaderCityGML.accept(cO, envelope, lodMin, lodMax)) {
+					continue;
+				}
+
+				chunk.add(cO);
+
+				if (chunk.size() < chunkSize) {
+					continue;
+				}
+
+				pending.add(chunk);
+				chunk = new ArrayList<AbstractCityObject>(chunkSize);
+
+				// On convertit les chunks lus pour borner la mémoire
+				if (pending.size() >= Math.max(1, nbThreads)) {
+					nbEmitted += LoaderCityGML.convertAndEmit(pending, nbThreads, handler, appearances,
+							generateRepresentation);
+				}
+
+			}
+
+			if (!chunk.isEmpty()) {
+				pending.add(chunk);
+			}
+
+			nbEmitted += LoaderCityGML.convertAndEmit(pending, nbThreads, handler, appearances,
+					generateRepresentation);
+
+		} finally {
+
+			reader.close();
+
+		}
+
+		return nbEmitted;
+
+	}
+
+	/**
+	 * Reads the global appearances of a file. The other members of the city
+	 * model are skipped by the reader without being unmarshalled.
+	 */
+	private static AppearanceIndex readAppearances(File f) throws CityGMLReadException, JAXBException {
+
+		CityGMLInputFactory in = LoaderCityGML.getCityGMLStreamInputFactory();
+
+		CityGMLReader reader = in.createFilteredCityGMLReader(in.createCityGMLReader(f), new CityGMLInputFilter() {
+			@Override
+			public boolean accept(QName name) {
+				return "Appearance".equals(name.getLocalPart());
+			}
+		});
+
+		AppearanceIndex appearances = new AppearanceIndex();
+
+		try {
+
+			while (reader.hasNext()) {
+
+				CityGML citygml = reader.nextFeature();
+
+				if (!(citygml instanceof Appearance) || !((Appearance) citygml).isSetSurfaceDataMember()) {
+					continue;
+				}
+
+				Appearance ap = (Appearance) citygml;
+
+				int nbDataMember = ap.getSurfaceDataMember().size();
+
+				for (int j = 0; j < nbDataMember; j++) {
+					appearances.add(CG_AbstractSurfaceData
+							.generateAbstractSurfaceData(ap.getSurfaceDataMember().get(j).getSurfaceData()));
+				}
+
+			}
+
+		} finally {
+
+			reader.close();
+
+		}
+
+		return appearances;
+
+	}
+
+	/**
+	 * Converts the pending chunks in parallel, then gives them to the handler
+	 * in the order of the file and clears the list.
+	 */
+	private static int convertAndEmit(List<List<AbstractCityObject>> pending, int nbThreads,
+			CityObjectChunkHandler handler, final AppearanceIndex appearances, boolean generateRepresentation)
+			throws CityGMLReadException {
+
+		List<ConvertedChunk> converted;
+
+		try {
+			converted = ParallelChunks.map(pending, nbThreads, new ItemFunction<List<AbstractCityObject>, ConvertedChunk>() {
+				@Override
+				public ConvertedChunk apply(List<AbstractCityObject> chunk) {
+					// Les identifiants sont lus avant que la conversion ne
+					// libère les objets citygml4j
+					List<CG_AbstractSurfaceData> lCGA = appearances.resolve(LoaderCityGML.geometryIds(chunk));
+					return new ConvertedChunk(LoaderCityGML.convert(chunk), lCGA);
+				}
+			});
+		} catch (CancellationException e) {
+			throw new CityGMLReadException("Interrupted while converting city objects", e);
+		} catch (RuntimeException e) {
+			throw new CityGMLReadException("Error while converting city objects", e);
+		} finally {
+			pending.clear();
+		}
+
+		int nbEmitted = 0;
+
+		for (ConvertedChunk chunk : converted) {
+			nbEmitted += LoaderCityGML.emit(chunk.lCGO, handler, chunk.lCGA, generateRepresentation);
+		}
+
+		return nbEmitted;
+
+	}
+
+	/**
+	 * Identifiers (lower case, without #) of the geometries of the city objects
+	 * and of their nested city objects.
+	 */
+	private static Set<String> geometryIds(List<AbstractCityObject> chunk) {
+
+		final Set<String> ids = new HashSet<String>();
+
+		GeometryWalker walker = new GeometryWalker() {
+			@Override
+			public void visit(AbstractGeometry geometry) {
+				if (geometry.isSetId()) {
+					ids.add(geometry.getId().toLowerCase());
+				}
+				super.visit(geometry);
+			}
+		};
+
+		for (AbstractCityObject cO : chunk) {
+			cO.accept(walker);
+		}
+
+		return ids;
+
+	}
+
+	/**
+	 * City objects of a chunk and the global appearances targeting them.
+	 */
+	private static class ConvertedChunk {
+
+		private List<CG_CityObject> lCGO;
+		private List<CG_AbstractSurfaceData> lCGA;
+
+		private ConvertedChunk(List<CG_CityObject> lCGO, List<CG_AbstractSurfaceData> lCGA) {
+			this.lCGO = lCGO;
+			this.lCGA = lCGA;
+		}
+
+	}
+
+	/**
+	 * Global appearances indexed by the identifiers of the surfaces and rings
+	 * they target. The identifiers are compared in lower case without #, so a
+	 * chunk may receive a few more appearances than the ones selected by
+	 * CG_StylePreparator, never less. Read only once built, it is shared by the
+	 * conversion threads.
+	 */
+	private static class AppearanceIndex {
+
+		private List<CG_AbstractSurfaceData> lCGA = new ArrayList<CG_AbstractSurfaceData>();
+		private Map<String, List<Integer>> byTarget = new HashMap<String, List<Integer>>();
+
+		private void add(CG_AbstractSurfaceData cABS) {
+
+			int index = this.lCGA.size();
+			this.lCGA.add(cABS);
+
+			if (cABS instanceof CG_X3DMaterial) {
+
+				this.index(((CG_X3DMaterial) cABS).getTarget(), index);
+
+			} else if (cABS instanceof CG_GeoreferencedTexture) {
+
+				this.index(((CG_GeoreferencedTexture) cABS).getTarget(), index);
+
+			} else if (cABS instanceof CG_ParameterizedTexture) {
+
+				Map<String, CG_AbstractTextureParameterization> mapTarget = ((CG_ParameterizedTexture) cABS)
+						.getMapTarget();
+
+				this.index(mapTarget.keySet(), index);
+
+				for (CG_AbstractTextureParameterization param : mapTarget.values()) {
+
+					if (param instanceof CG_TexCoordList) {
+						for (CG_TextureCoordinates coordList : ((CG_TexCoordList) param).getTextureCoordinates()) {
+							this.index(coordList.getRing(), index);
+						}
+					}
+
+				}
+
+			}
+
+		}
+
+		private void index(Iterable<String> targets, int index) {
+
+			if (targets == null) {
+				return;
+			}
+
+			for (String target : targets) {
+				this.index(target, index);
+			}
+
+		}
+
+		private void index(String target, int index) {
+
+			if (target == null) {
+				return;
+			}
+
+			String key = target.startsWith("#") ? target.substring(1) : target;
+			key = key.toLowerCase();
+
+			List<Integer> indexes = this.byTarget.get(key);
+
+			if (indexes == null) {
+				indexes = new ArrayList<Integer>(1);
+				this.byTarget.put(key, indexes);
+			}
+
+			indexes.add(index);
+
+		}
+
+		/**
+		 * Appearances targeting one of the identifiers, in the order of the
+		 * file.
+		 */
+		private List<CG_AbstractSurfaceData> resolve(Set<String> ids) {
+
+			BitSet found = new BitSet(this.lCGA.size());
+
+			for (String id : ids) {
+
+				List<Integer> indexes = this.byTarget.get(id);
+
+				if (indexes == null) {
+					continue;
+				}
+
+				for (int index : indexes) {
+					found.set(index);
+				}
+
+			}
+
+			List<CG_AbstractSurfaceData> result = new ArrayList<CG_AbstractSurfaceData>(found.cardinality());
+
+			for (int i = found.nextSetBit(0); i >= 0; i = found.nextSetBit(i + 1)) {
+				result.add(this.lCGA.get(i));
+			}
+
+			return result;
+
+		}
+
+	}
+
+	private static List<CG_CityObject> convert(List<AbstractCityObject> chunk) {
+
+		List<CG_CityObject> lCGO = new ArrayList<CG_CityObject>(chunk.size());
+
+		for (int i = 0; i < chunk.size(); i++) {
+
+			CG_CityObject cGO = CG_CityObject.generateCityObject(chunk.get(i));
+
+			// Libère l'objet citygml4j dès qu'il est converti
+			chunk.set(i, null);
+
+			if (cGO != null) {
+				lCGO.add(cGO);
+			}
+
+		}
+
+		return lCGO;
+
+	}
+
+	private static int emit(List<CG_CityObject> lCGO, CityObjectChunkHandler handler,
+			List<CG_AbstractSurfaceData> lCGA, boolean generateRepresentation) {
+
+		// Le TextureManager n'est pas thread-safe : les représentations sont
+		// générées par le thread de lecture
+		if (generateRepresentation) {
+
+			List<CG_CityObject> lRepresented = new ArrayList<CG_CityObject>(lCGO.size());
+
+			for (CG_CityObject cGO : lCGO) {
+
+				RP_CityObject.generateCityObjectRepresentation(cGO, lCGA);
+
+				if (cGO.getRepresentation() != null) {
+					lRepresented.add(cGO);
+				}
+
+			}
+
+			lCGO = lRepresented;
+		}
+
+		if (!lCGO.isEmpty()) {
+			handler.handleChunk(lCGO, lCGA);
+		}
+
+		return lCGO.size();
+
+	}
+
+	/**
+	 * Filters a city object before its conversion, with the geometries of the
+	 * requested LoDs of the object and of its nested city objects. The
+	 * boundedBy envelope is used when these geometries are only referenced.
+	 */
+	private static boolean accept(AbstractCityObject cO, IEnvelope envelope, final int lodMin, final int lodMax) {
+
+		final boolean[] lodFound = { false };
+		final double[] box = { Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY,
+				Double.NEGATIVE_INFINITY };
+
+		cO.accept(new FeatureWalker() {
+
+			@Override
+			public void visit(AbstractCityObject cityObject) {
+
+				LodRepresentation lodRep = cityObject.getLodRepresentation();
+
+				for (int lod = lodMin; lod <= lodMax; lod++) {
+
+					if (!lodRep.isSetLodGeometry(lod)) {
+						continue;
+					}
+
+					lodFound[0] = true;
+
+					for (Object prop : lodRep.getLodGeometry(lod)) {
+
+						if (!(prop instanceof GeometryProperty) || !((GeometryProperty<?>) prop).isSetGeometry()) {
+							continue;
+						}
+
+						BoundingBox bB = ((GeometryProperty<?>) prop).getGeometry().calcBoundingBox();
+
+						if (bB == null || bB.getLowerCorner() == null) {
+							continue;
+						}
+
+						box[0] = Math.min(box[0], bB.getLowerCorner().getX());
+						box[1] = Math.min(box[1], bB.getLowerCorner().getY());
+						box[2] = Math.max(box[2], bB.getUpperCorner().getX());
+						box[3] = Math.max(box[3], bB.getUpperCorner().getY());
+
+					}
+
+				}
+
+				super.visit(cityObject);
+			}
+		});
+
+		if (!lodFound[0]) {
+			return false;
+		}
+
+		if (envelope == null) {
+			return true;
+		}
+
+		if (box[0] > box[2] && cO.isSetBoundedBy() && cO.getBoundedBy().isSetEnvelope()) {
+
+			Envelope bS = cO.getBoundedBy().getEnvelope();
+
+			if (bS.getLowerCorner() != null) {
+
+				box[0] = bS.getLowerCorner().getValue().get(0);
+				box[1] = bS.getLowerCorner().getValue().get(1);
+				box[2] = bS.getUpperCorner().getValue().get(0);
+				box[3] = bS.getUpperCorner().getValue().get(1);
+
+			} else if (bS.getPos().size() > 1) {
+
+				box[0] = bS.getPos().get(0).getValue().get(0);
+				box[1] = bS.getPos().get(0).getValue().get(1);
+				box[2] = bS.getPos().get(1).getValue().get(0);
+				box[3] = bS.getPos().get(1).getValue().get(1);
+
+			}
+
+		}
+
+		// Emprise inconnue : l'objet est conservé
+		if (box[0] > box[2]) {
+			return true;
+		}
+
+		return box[0] <= envelope.maxX() && box[2] >= envelope.minX() && box[1] <= envelope.maxY()
+				&& box[3] >= envelope.minY();
+
+	}
+
 	private static CityGMLInputFactory in = null;
 
+	private static CityGMLInputFactory inStream = null;
+
 	private static CityGMLInputFactory getCityGMLInputFactory() throws JAXBException, CityGMLReadException {
 
 		if (LoaderCityGML.in == null) {
@@ -140,4 +662,21 @@ public class LoaderCityGML {
 		return LoaderCityGML.in;
 
 	}
+
+	private static CityGMLInputFactory getCityGMLStreamInputFactory() throws JAXBException, CityGMLReadException {
+
+		if (LoaderCityGML.inStream == null) {
+
+			CityGMLContext ctx = new CityGMLContext();
+			JAXBBuilder builder = ctx.createJAXBBuilder();
+
+			// Chaque membre du CityModel est renvoyé séparément par le reader
+			LoaderCityGML.inStream = builder.createCityGMLInputFactory();
+			LoaderCityGML.inStream.setProperty(CityGMLInputFactory.FEATURE_READ_MODE,
+					FeatureReadMode.SPLIT_PER_COLLECTION_MEMBER);
+
+		}
+		return LoaderCityGML.inStream;
+
+	}
 }
@@ -2,12 +2,13 @@ package fr.ign.cogit.geoxygene.sig3d.semantic;
 
 import java.awt.Color;
 import java.awt.Component;
-import java.io.BufferedReader;
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.net.URL;
+import java.util.Arrays;
 
 import javax.media.j3d.Appearance;
 import javax.media.j3d.BranchGroup;
@@ -39,8 +40,8 @@ import com.vividsolutions.jts.geom.Polygon;
 
 import fr.ign.cogit.geoxygene.api.spatial.coordgeom.IDirectPosition;
 import fr.ign.cogit.geoxygene.api.spatial.coordgeom.IEnvelope;
-import fr.ign.cogit.geoxygene.contrib.geometrie.Vecteur;
 import fr.ign.cogit.geoxygene.sig3d.Messages;
+import fr.ign.cogit.geoxygene.sig3d.dtm.MappedDTM;
 import fr.ign.cogit.geoxygene.sig3d.geometry.Box3D;
 import fr.ign.cogit.geoxygene.sig3d.representation.texture.TextureManager;
 import fr.ign.cogit.geoxygene.spatial.coordgeom.DirectPosition;
@@ -112,6 +113,9 @@ public class DTM extends AbstractDTMLayer {
 
   protected Color4f[] color4fShade = null;
 
+  // MNT sans affichage sur lequel s'appuient castCoordinate et les plaquages
+  protected MappedDTM core = null;
+
   /**
    * Ajoute à la carte un MNT avec orthophoto. L'orthophoto doit être orientée
    * nord, sud
@@ -216,230 +220,32 @@ public class DTM extends AbstractDTMLayer {
     // On initialize les paramètres génèraux concernant le MNT
     this.layerName = layerName;
     this.exageration = exager;
-    // Les informations concernant le coin supérieur gauche du MNT
-    double shiftX = 0;
-    double shiftY = 0;
-
-    // Le nombre d'éléments présents dans le MNT
-    int nbpoints = 0;
-    int numligne = 0;
-    int numcol = 0;
-
-    // Il s'agit d'une chaine contenant les informations en train d'être lu
-    // dans le fichier
-    String ligne;
-
-    double denomX = this.imageEnvelope.getUpperCorner().getX()
-        - this.imageEnvelope.getLowerCorner().getX();
-    double denomY = this.imageEnvelope.getUpperCorner().getY()
-        - this.imageEnvelope.getLowerCorner().getY();
 
     try {
 
-      // Lecture du fichier et récupèration des différentes valeurs citées
-      // précédemment
-
-      BufferedReader br = new BufferedReader(new InputStreamReader(is));
-
-      ligne = br.readLine();
-
-      String[] result = ligne.split(" ");
-
-      int ncols = Integer.parseInt(result[result.length - 1]);
-
-      // System.out.println("ncols" + result[result.length - 1]);
-
-      ligne = br.readLine();
-      result = ligne.split("\\s");
-
-      // System.out.println("nrows" + result[result.length - 1]);
-
-      int nrows = Integer.parseInt(result[result.length - 1]);
-
-      ligne = br.readLine();
-      result = ligne.split("\\s");
-
-      shiftX = Double.parseDouble(result[result.length - 1]);
-
-      // System.out.println("xllcorner" + result[result.length - 1]);
-
-      ligne = br.readLine();
-      result = ligne.split("\\s");
-
-      shiftY = Double.parseDouble(result[result.length - 1]);
-
-      // System.out.println("yllcorner" + shiftY);
-
-      ligne = br.readLine();
-      result = ligne.split("\\s");
-
-      // System.out.println("cellsize" + result[result.length - 1]);
-
-      double cellsize = Double.parseDouble(result[result.length - 1]);
-
-      ligne = br.readLine();
-
-      this.noDataValue = Double.parseDouble(result[result.length - 1]);
-
-      ligne = br.readLine();
-
-      double maxy = ((nrows - 1) * cellsize + shiftY);
-
-      // On prépare le nombre de lignes
-      nrows = nrows / this.echantillonage;
-      ncols = ncols / this.echantillonage;
-
-      // Tab contiendra les Z de la ligne précédente
-      int[] tab = new int[nrows - 1];
-
-      for (int i = 0; i < nrows - 1; i++) {
-
-        tab[i] = 2 * ncols;
-      }
-
-      // Création de la géométrie Java3D qui accueillera le MNT
-      TriangleStripArray strp = null;
-
-      // La construction se fait en TriangleStripArray
-      // C'est un mode de construction efficace et rapide
-      // Toutefois chaque point se retrouve chargé 2 fois en mémoire
-      // (un test avec un autre mode de représentation indexé n'a pas été
-      // concluant)
-
-      strp = new TriangleStripArray(2 * ncols * (nrows - 1),
-          GeometryArray.COORDINATES | GeometryArray.TEXTURE_COORDINATE_2, tab);
-
-      strp.setCapability(GeometryArray.ALLOW_COORDINATE_READ);
-      strp.setCapability(IndexedGeometryArray.ALLOW_COORDINATE_INDEX_READ);
-      strp.setCapability(Geometry.ALLOW_INTERSECT);
-
-      // On renseigne les différentes valeurs donnant des informations sur
-      // le MNT
-      this.xIni = shiftX;
-      this.yIni = shiftY;
-      // on initialize la ligne précédente
-      double[] lignePred = new double[ncols];
-
-      result = ligne.split("\\s");
-
-      // On remplit la premiere ligne : initialisation
-      for (int i = 0; i < ncols; i++) {
-
-        lignePred[i] = Double.parseDouble(result[i * this.echantillonage]);
-        this.zMin = Math.min(lignePred[i], this.zMin);
-        this.zMax = Math.max(lignePred[i], this.zMax);
-      }
-
-      // On passe des lignes pour sous échantillonner
-      for (int i = 0; i < this.echantillonage; i++) {
-        ligne = br.readLine();
-
-      }
-
-      numligne = 0;
-      // On traite le fichier ligne par ligne
-      for (int j = 0; j < nrows; j++) {
-
-        if (ligne == null) {
-          break;
-        }
+      // Le fichier est chargé dans le MNT sans affichage, à partir duquel on
+      // construit la bande de triangles
+      this.strip = this.createStrip(is, GeometryArray.COORDINATES
+          | GeometryArray.TEXTURE_COORDINATE_2, exager);
 
-        numcol = 0;
+      double denomX = this.imageEnvelope.getUpperCorner().getX()
+          - this.imageEnvelope.getLowerCorner().getX();
+      double denomY = this.imageEnvelope.getUpperCorner().getY()
+          - this.imageEnvelope.getLowerCorner().getY();
 
-        // On charge la ligne en mémoire
-        result = ligne.split("\\s");
-
-        double qx = 0;
-        double qy = 0;
-
-        // Pour chaque colonne que l'on souhaite récupèrer
-        for (int i = 0; i < ncols; i++) {
-
-          // On récupère le Z du point que l'on traite actuellement
-          // Le Z du point en dessous
-          double nouvZ = Double.parseDouble(result[i * this.echantillonage]);
-          double oldZ = lignePred[i];
-
-          this.zMin = Math.min(nouvZ, this.zMin);
-          this.zMax = Math.max(nouvZ, this.zMax);
-
-          // On crée le nouveau point
-
-          // On crée le nouveau point
-          Point3d pointAncien = null;
-          if (oldZ == this.noDataValue) {
-
-            pointAncien = new Point3d((cellsize * numcol + shiftX),
-                (maxy - cellsize * numligne), this.noDataValue * exager);
-          } else {
-
-            pointAncien = new Point3d((cellsize * numcol + shiftX),
-                (maxy - cellsize * numligne), oldZ * exager);
-          }
-
-          Point3d nouvePoint = null;
-
-          if (nouvZ == this.noDataValue) {
-            nouvePoint = new Point3d((cellsize * numcol + shiftX),
-                (maxy - cellsize * (numligne + this.echantillonage)),
-                this.noDataValue * exager);
-
-          } else {
-            nouvePoint = new Point3d((cellsize * numcol + shiftX),
-                (maxy - cellsize * (numligne + this.echantillonage)), nouvZ
-                    * exager);
-
-          }
-
-          TexCoord2f q = new TexCoord2f();
-
-          TexCoord2f q2 = new TexCoord2f();
-
-          qx = pointAncien.x - this.getImageEnvelope().getLowerCorner().getX();
-          qy = pointAncien.y - this.getImageEnvelope().getLowerCorner().getY();
-
-          double q2x = nouvePoint.x
-              - this.getImageEnvelope().getLowerCorner().getX();
-          double q2y = nouvePoint.y
-              - this.getImageEnvelope().getLowerCorner().getY();
-
-          q.set((float) (qx / denomX), (float) (qy / denomY));
-          q2.set((float) (q2x / denomX), (float) (q2y / denomY));
-
-          strp.setCoordinate(nbpoints, pointAncien);
-
-          strp.setTextureCoordinate(0, nbpoints, q);
-
-          nbpoints++;
-
-          strp.setCoordinate(nbpoints, nouvePoint);
-
-          strp.setTextureCoordinate(0, nbpoints, q2);
-
-          nbpoints++;
-          lignePred[i] = nouvZ;
-
-          numcol = numcol + this.echantillonage;
-
-        }
-        numligne = numligne + this.echantillonage;
-        // On passe des lignes pour sous àchantillonner
-        for (int l = 0; l < this.echantillonage; l++) {
-          ligne = br.readLine();
+      // Coordonnées de texture des sommets dans l'emprise de l'image
+      int nbpoints = this.strip.getVertexCount();
+      for (int i = 0; i < nbpoints; i++) {
+        Point3d p = new Point3d();
+        this.strip.getCoordinate(i, p);
 
-        }
+        double qx = p.x - this.getImageEnvelope().getLowerCorner().getX();
+        double qy = p.y - this.getImageEnvelope().getLowerCorner().getY();
 
+        this.strip.setTextureCoordinate(0, i, new TexCoord2f(
+            (float) (qx / denomX), (float) (qy / denomY)));
       }
 
-      br.close();
-
-      this.stepX = this.echantillonage * cellsize;
-      this.stepY = this.echantillonage * cellsize;
-      this.nX = ncols;
-      this.nY = nrows;
-      this.sampling = this.echantillonage;
-      this.strip = strp;
-
       Appearance app = new Appearance();
       TransparencyAttributes tra = new TransparencyAttributes();
       tra.setTransparencyMode(TransparencyAttributes.NONE);
@@ -586,222 +392,15 @@ public class DTM extends AbstractDTMLayer {
       this.color4fShade[i] = new Color4f(colorGradation[i]);
     }
 
-    // Les informations concernant le coin supérieur gauche du MNT
-    double shiftX = 0;
-    double shiftY = 0;
-
-    // Le nombre d'éléments présents dans le MNT
-    int nbpoints = 0;
-    int numligne = 0;
-    int numcol = 0;
-
-    // Valeur indiquant l'absence de données
-    this.noDataValue = Double.NaN;
-
-    this.zMin = Double.POSITIVE_INFINITY;
-    this.zMax = Double.NEGATIVE_INFINITY;
-
-    // Il s'agit d'une chaine contenant les informations en train d'être lu
-    // dans le fichier
-    String ligne;
-
     try {
-      BufferedReader br = new BufferedReader(new InputStreamReader(is));
-      // Lecture du fichier et récupèration des différentes valeurs citées
-      // précédemment
-
-      ligne = br.readLine();
-
-      
-      
-      String[] result = ligne.split(" ");
-
-      int ncols = Integer.parseInt(result[result.length - 1]);
-
-      // System.out.println("ncols" + result[result.length - 1]);
-
-      ligne = br.readLine();
-      result = ligne.split("\\s");
 
-      // System.out.println("nrows" + result[result.length - 1]);
-
-      int nrows = Integer.parseInt(result[result.length - 1]);
-
-      ligne = br.readLine();
-      result = ligne.split("\\s");
-
-      shiftX = Double.parseDouble(result[result.length - 1]);
-
-      // System.out.println("xllcorner" + result[result.length - 1]);
-
-      ligne = br.readLine();
-      result = ligne.split("\\s");
-
-      shiftY = Double.parseDouble(result[result.length - 1]);
-
-      // System.out.println("yllcorner" + shiftY);
-
-      ligne = br.readLine();
-      result = ligne.split("\\s");
-
-       stepX = Double.parseDouble(result[result.length - 1]);
-
-      // 2 lignes à ne pas lire
-      ligne = br.readLine();
-      result = ligne.split("\\s");
-       stepY = Double.parseDouble(result[result.length - 1]);
-
-      ligne = br.readLine();
-      result = ligne.split("\\s");
-      this.noDataValue = Double.parseDouble(result[result.length - 1]);
-
-      ligne = br.readLine();
-
-      double maxy = ((nrows - 1) *  stepY + shiftY);
-
-      // On prépare le nombre de lignes
-      nrows = nrows / this.echantillonage;
-      ncols = ncols / this.echantillonage;
-
-      // Tab contiendra les Z de la ligne précédente
-      int[] tab = new int[nrows - 1];
-
-      for (int i = 0; i < nrows - 1; i++) {
-
-        tab[i] = 2 * ncols;
-      }
-
-      // Création de la géométrie Java3D qui accueillera le MNT
-      TriangleStripArray strp = null;
-
-      // La construction se fait en TriangleStripArray
-      // C'est un mode de construction efficace et rapide
-      // Toutefois chaque point se retrouve chargé 2 fois en mémoire
-      // (un test avec un autre mode de représentation indexé n'a pas été
-      // concluant)
-
-      strp = new TriangleStripArray(2 * ncols * (nrows - 1),
-          GeometryArray.COORDINATES | GeometryArray.COLOR_4
-              | GeometryArray.NORMALS, tab);
-
-      strp.setCapability(GeometryArray.ALLOW_COORDINATE_READ);
-      strp.setCapability(Geometry.ALLOW_INTERSECT);
-      // On renseigne les différentes valeurs donnant des informations sur
-      // le MNT
-      this.xIni = shiftX;
-      this.yIni = shiftY;
-      // on initialize la ligne précédente
-      double[] lignePred = new double[ncols];
-
-      result = ligne.split("\\s");
-      
-	  
-	  String s = result[0];
-	  int shift = 0;
-	 if(s.isEmpty()){
-		 shift = 1;
-	 }
-
-      // On remplit la premiere ligne : initialisation
-      for (int i = 0 + shift; i < ncols+shift; i++) {
-
-    	  
-    	  
-        lignePred[i-shift] = Double.parseDouble(result[i* this.echantillonage]);
-        
-        
-        if(lignePred[i-shift] == noDataValue){
-        	continue;
-        }
-        
-        
-        this.zMin = Math.min(lignePred[i-shift], this.zMin);
-        this.zMax = Math.max(lignePred[i-shift], this.zMax);
-      }
-
-      // On passe des lignes pour sous échantillonner
-      for (int i = 0; i < this.echantillonage; i++) {
-        ligne = br.readLine();
-
-      }
-
-      numligne = 0;
-      // On traite le fichier ligne par ligne
-      for (int j = 1; j < nrows; j++) {
-
-        if (ligne == null) {
-          break;
-        }
-
-        numcol = 0;
-
-        // On charge la ligne en mémoire
-        result = ligne.split("\\s");
-
-        // Pour chaque colonne que l'on souhaite récupèrer
-        for (int i = 0+shift; i < ncols+shift; i++) {
-
-        //	System.out.println("row : " + j + " col : " + i  );
-          // On récupère le Z du point que l'on traite actuellement
-          // Le Z du point en dessous
-          double nouvZ = Double.parseDouble(result[i * this.echantillonage]);
-          double oldZ = lignePred[i-shift];
-
-          if(nouvZ != noDataValue){
-              this.zMin = Math.min(nouvZ, this.zMin);
-              this.zMax = Math.max(nouvZ, this.zMax);
-          }
-          
- 
-
-          // On crée le nouveau point
-          Point3d pointAncien = null;
-          if (oldZ == this.noDataValue) {
-
-            pointAncien = new Point3d(( stepX * numcol + shiftX),
-                (maxy -  stepY * numligne), this.noDataValue * exager);
-          } else {
-
-            pointAncien = new Point3d(( stepX * numcol + shiftX),
-                (maxy -  stepY * numligne), oldZ * exager);
-          }
-
-          Point3d nouvePoint = null;
-
-          if (nouvZ == this.noDataValue) {
-            nouvePoint = new Point3d(( stepX * numcol + shiftX),
-                (maxy -  stepY * (numligne + this.echantillonage)),
-                this.noDataValue * exager);
-
-          } else {
-            nouvePoint = new Point3d(( stepX * numcol + shiftX),
-                (maxy -  stepY * (numligne + this.echantillonage)), nouvZ
-                    * exager);
-
-          }
-
-          strp.setCoordinate(nbpoints, pointAncien);
-
-          nbpoints++;
-
-          strp.setCoordinate(nbpoints, nouvePoint);
-
-          nbpoints++;
-          lignePred[i-shift] = nouvZ;
-
-          numcol = numcol + this.echantillonage;
-
-        }
-        numligne = numligne + this.echantillonage;
-        // On passe des lignes pour sous àchantillonner
-        for (int l = 0; l < this.echantillonage; l++) {
-          ligne = br.readLine();
-
-        }
-
-      }
+      // Le fichier est chargé dans le MNT sans affichage, à partir duquel on
+      // construit la bande de triangles
+      TriangleStripArray strp = this.createStrip(is, GeometryArray.COORDINATES
+          | GeometryArray.COLOR_4 | GeometryArray.NORMALS, exager);
 
       // Assignation des couleurs.
+      int nbpoints = strp.getVertexCount();
       for (int i = 0; i < nbpoints; i++) {
         Point3d p = new Point3d();
         strp.getCoordinate(i, p);
@@ -809,13 +408,6 @@ public class DTM extends AbstractDTMLayer {
         strp.setColor(i, this.getColor4f(p.getZ()));
       }
 
-      br.close();
-
-      this.stepX = this.echantillonage *  stepX;
-      this.stepY = this.echantillonage *  stepY;
-      this.nX = ncols;
-      this.nY = nrows;
-      this.sampling = this.echantillonage;
       this.strip = strp;
 
       Appearance app = new Appearance();
@@ -1202,173 +794,141 @@ public class DTM extends AbstractDTMLayer {
   }
 
   /**
-   * Cette fonction permet de projeter un point sur un MNT en lui ajoutant un
-   * altitude offsetting
+   * Cette fonction permet de projeter un point sur le MNT. L'altitude est
+   * interpolée de manière bilinéaire dans le MNT sans affichage (cf.
+   * getCore()) puis exagérée.
    * 
    * @param x ,y le point à projeter
-   * @param offsetting l'altitude que l'on rajoute au point final
-   * @return un point 3D ayant comme altitude Z du MNT + offesting
+   * @return un point 3D ayant comme altitude Z du MNT + CONSTANT_OFFSET, ou 0
+   *         hors du MNT
    */
   @Override
   public Coordinate castCoordinate(double x, double y) {
 
-    // Etant donne que l'on a translaté le MNT
-    // On fait de meme avec le vecteur
-
-    // On recupere la maille dans laquelle se trouve le point
-    int posx = (int) ((x - this.xIni) / (this.stepX * this.sampling));
-    int posy = (int) ((y - this.yIni) / (this.stepY * this.sampling));
-
-    if (posx >= (this.nX) || posx < 0 || posy >= (this.nY) || posy < 0) {
-
+    if (this.core == null) {
       return new Coordinate(x, y, 0);
+    }
 
-    } else if (posx == this.nX - 1) {
+    double z = this.core.getHeight(x, y);
 
-      /*
-       * int lignInit2 = 2 * (posx-1) + 2 * (this.nY - 1 - (posy + 1)) this.nX;
-       * Point3d pointemp1 = new Point3d(); this.strip.getCoordinate(lignInit2 +
-       * 2, pointemp1); Point3d pointemp2 = new Point3d();
-       * this.strip.getCoordinate(lignInit2 + 3, pointemp2); DirectPosition
-       * ptloc2D = new DirectPosition(x, y); DirectPosition pt12D = new
-       * DirectPosition(pointemp1.x, pointemp1.y); DirectPosition pt22D = new
-       * DirectPosition(pointemp2.x, pointemp2.y); double d1 =
-       * ptloc2D.distance(pt12D); double d2 = ptloc2D.distance(pt22D); double
-       * zMoy; if (d1 < 0.5) { zMoy = pointemp1.z; return new Coordinate(x, y,
-       * zMoy + offsetting); } else if (d2 < 0.5) { zMoy = pointemp2.z; return
-       * new Coordinate(x, y, zMoy + offsetting); } pt12D.setZ(pointemp1.z);
-       * pt22D.setZ(pointemp2.z); double invDist1 = 1/d1; double invDist2 =
-       * 1/d2; //Un peu bancal, mais on fait une moyenne pondérée par l'inverse
-       * des distances ... zMoy = (invDist1 *pt12D.getZ() +
-       * invDist1*pt22D.getZ())/(invDist1+invDist2 );
-       */
+    if (Double.isNaN(z)) {
       return new Coordinate(x, y, 0);
+    }
 
-    } else if (posy == this.nY - 1) {
+    return new Coordinate(x, y, z * this.exageration + DTM.CONSTANT_OFFSET);
 
-      /*
-       * int lignInit2 = 2 * (posx) + 2 * (this.nY - 1 - posy ) this.nX; Point3d
-       * pointemp1 = new Point3d(); this.strip.getCoordinate(lignInit2+1,
-       * pointemp1); Point3d pointemp2 = new Point3d();
-       * this.strip.getCoordinate(lignInit2 + 2, pointemp2); DirectPosition
-       * ptloc2D = new DirectPosition(x, y); DirectPosition pt12D = new
-       * DirectPosition(pointemp1.x, pointemp1.y); DirectPosition pt22D = new
-       * DirectPosition(pointemp2.x, pointemp2.y); double d1 =
-       * ptloc2D.distance(pt12D); double d2 = ptloc2D.distance(pt22D); double
-       * zMoy; if (d1 < 0.5) { zMoy = pointemp1.z; return new Coordinate(x, y,
-       * zMoy + offsetting); } else if (d2 < 0.5) { zMoy = pointemp2.z; return
-       * new Coordinate(x, y, zMoy + offsetting); } double invDist1 = 1/d1;
-       * double invDist2 = 1/d2; pt12D.setZ(pointemp1.z);
-       * pt22D.setZ(pointemp2.z); //Un peu bancal, mais on fait une moyenne
-       * pondérée par l'inverse des distances ... zMoy = (invDist1 *pt12D.getZ()
-       * + invDist1*pt22D.getZ())/(invDist1+invDist2 );
-       */
+  }
 
-      return new Coordinate(x, y, 0);
-    } else {
-      int lignInit2 = 2 * (posx) + 2 * (this.nY - 1 - (posy + 1)) * this.nX;
+  /**
+   * Charge le fichier .asc dans le MNT sans affichage (cf. getCore()), seule
+   * copie de la grille, puis construit à partir de celui-ci la bande de
+   * triangles représentant le MNT, en affichant un noeud sur echantillonage
+   * 
+   * @param is le flux au format .asc, fermé après la lecture
+   * @param vertexFormat le format des sommets de la bande
+   * @param exager l'exagération appliquée aux altitudes
+   * @return la bande de triangles, dont seules les coordonnées sont
+   *         renseignées
+   * @throws IOException
+   */
+  private TriangleStripArray createStrip(InputStream is, int vertexFormat,
+      int exager) throws IOException {
 
-      // int lignInit2 = 2 * (posx) + 2 * (this.nY - 1 - (posy + 1)) * this.nX;
+    if (this.core != null) {
+      this.core.close();
+    }
 
-      Point3d pointemp1 = new Point3d();
-      this.strip.getCoordinate(lignInit2, pointemp1);
+    // Les tuiles sont stockées dans un fichier projeté en mémoire
+    File file = File.createTempFile("dtm", ".tiles");
+    file.deleteOnExit();
 
-      Point3d pointemp2 = new Point3d();
-      this.strip.getCoordinate(lignInit2 + 1, pointemp2);
+    try {
+      this.core = MappedDTM.fromASC(is, file);
+    } finally {
+      is.close();
+    }
 
-      Point3d pointemp3 = new Point3d();
-      this.strip.getCoordinate(lignInit2 + 2, pointemp3);
+    // On prépare le nombre de lignes
+    int ncols = this.core.getNX() / this.echantillonage;
+    int nrows = this.core.getNY() / this.echantillonage;
+
+    // On renseigne les différentes valeurs donnant des informations sur
+    // le MNT
+    this.xIni = this.core.getXIni();
+    this.yIni = this.core.getYIni();
+    this.stepX = this.echantillonage * this.core.getStepX();
+    this.stepY = this.echantillonage * this.core.getStepY();
+    this.nX = ncols;
+    this.nY = nrows;
+    this.sampling = this.echantillonage;
+    this.noDataValue = this.core.getNoDataValue();
+    this.zMin = Double.POSITIVE_INFINITY;
+    this.zMax = Double.NEGATIVE_INFINITY;
 
-      Point3d pointemp4 = new Point3d();
-      this.strip.getCoordinate(lignInit2 + 3, pointemp4);
+    // Chaque bande relie deux lignes affichées successives
+    int[] tab = new int[nrows - 1];
+    Arrays.fill(tab, 2 * ncols);
 
-      DirectPosition pt12D = new DirectPosition(pointemp1.x, pointemp1.y);
-      DirectPosition pt22D = new DirectPosition(pointemp2.x, pointemp2.y);
-      DirectPosition pt32D = new DirectPosition(pointemp3.x, pointemp3.y);
-      DirectPosition pt42D = new DirectPosition(pointemp4.x, pointemp4.y);
+    // La construction se fait en TriangleStripArray
+    // C'est un mode de construction efficace et rapide
+    // Toutefois chaque point se retrouve chargé 2 fois en mémoire
+    // (un test avec un autre mode de représentation indexé n'a pas été
+    // concluant)
+    TriangleStripArray strp = new TriangleStripArray(2 * ncols * (nrows - 1),
+        vertexFormat, tab);
 
-      DirectPosition ptloc2D = new DirectPosition(x, y);
+    strp.setCapability(GeometryArray.ALLOW_COORDINATE_READ);
+    strp.setCapability(IndexedGeometryArray.ALLOW_COORDINATE_INDEX_READ);
+    strp.setCapability(Geometry.ALLOW_INTERSECT);
 
-      double d1 = ptloc2D.distance(pt12D);
-      double d2 = ptloc2D.distance(pt22D);
+    // Les lignes sont parcourues du nord au sud, comme dans le fichier
+    int nbpoints = 0;
+    for (int r = 0; r < nrows - 1; r++) {
 
-      double d3 = ptloc2D.distance(pt32D);
+      int j = this.core.getNY() - 1 - r * this.echantillonage;
 
-      double d4 = ptloc2D.distance(pt42D);
+      for (int c = 0; c < ncols; c++) {
 
-      double zMoy = 0;
-      if (d1 < 5) {
+        int i = c * this.echantillonage;
 
-        zMoy = pointemp1.z;
-        return new Coordinate(x, y, zMoy + DTM.CONSTANT_OFFSET);
-      } else if (d2 < 5) {
-        zMoy = pointemp2.z;
-        return new Coordinate(x, y, zMoy + DTM.CONSTANT_OFFSET);
-      } else if (d3 < 5) {
-        zMoy = pointemp3.z;
-        return new Coordinate(x, y, zMoy + DTM.CONSTANT_OFFSET);
-      } else if (d4 < 5) {
-        zMoy = pointemp4.z;
-        return new Coordinate(x, y, zMoy + DTM.CONSTANT_OFFSET);
+        strp.setCoordinate(nbpoints++, this.vertex(i, j, exager));
+        strp.setCoordinate(nbpoints++,
+            this.vertex(i, j - this.echantillonage, exager));
       }
+    }
 
-      Vecteur v1 = new Vecteur(pt22D, pt32D);
-      Vecteur v2 = new Vecteur(pt22D, ptloc2D);
-
-      double d = v1.prodVectoriel(v2).prodScalaire(new Vecteur(0, 0, 1));
-
-      if (d > 0) {// Triangle 1 2 3
-
-        double xn = (pointemp2.y - pointemp1.y) * (pointemp3.z - pointemp1.z)
-            - (pointemp3.y - pointemp1.y) * (pointemp2.z - pointemp1.z);
-        double yn = (pointemp3.x - pointemp1.x) * (pointemp2.z - pointemp1.z)
-            - (pointemp2.x - pointemp1.x) * (pointemp3.z - pointemp1.z);
-        double zn = (pointemp2.x - pointemp1.x) * (pointemp3.y - pointemp1.y)
-            - (pointemp3.x - pointemp1.x) * (pointemp2.y - pointemp1.y);
-
-        zMoy = (pointemp1.x * xn + pointemp1.y * yn + pointemp1.z * zn - x * xn - y
-            * yn)
-            / zn;
-
-        // zMoy = ((1 / d1) * pointemp1.z + (1 / d2) * pointemp2.z + (1 / d3)
-        // * pointemp3.z)
-        // / (1 / d1 + 1 / d2 + 1 / d3);
-        // zMoy = (pointemp1.z + pointemp2.z + pointemp3.z)/3;
-        // PlanEquation eq = new PlanEquation(pt12D, pt22D, pt32D);
-
-        // zMoy = eq.getZ(ptloc2D);
+    return strp;
 
-      } else {// Il se trouve dans le triangle 2 3 4
+  }
 
-        double xn = (pointemp2.y - pointemp4.y) * (pointemp3.z - pointemp4.z)
-            - (pointemp3.y - pointemp4.y) * (pointemp2.z - pointemp4.z);
-        double yn = (pointemp3.x - pointemp4.x) * (pointemp2.z - pointemp4.z)
-            - (pointemp2.x - pointemp4.x) * (pointemp3.z - pointemp4.z);
-        double zn = (pointemp2.x - pointemp4.x) * (pointemp3.y - pointemp4.y)
-            - (pointemp3.x - pointemp4.x) * (pointemp2.y - pointemp4.y);
+  /**
+   * @return le sommet affiché pour le noeud (i, j) du MNT sans affichage, en
+   *         mettant à jour zMin et zMax
+   */
+  private Point3d vertex(int i, int j, int exager) {
 
-        zMoy = (pointemp4.x * xn + pointemp4.y * yn + pointemp4.z * zn - x * xn - y
-            * yn)
-            / zn;
+    double x = this.xIni + i * this.core.getStepX();
+    double y = this.yIni + j * this.core.getStepY();
 
-        // pt42D.setZ(pointemp4.getZ());
-        // pt22D.setZ(pointemp2.getZ());
-        // pt32D.setZ(pointemp3.getZ());
+    float z = this.core.getValue(i, j);
 
-        // PlanEquation eq = new PlanEquation(pt42D, pt22D, pt32D);
+    if (this.core.isNoData(z)) {
+      return new Point3d(x, y, this.noDataValue * exager);
+    }
 
-        // zMoy = eq.getZ(ptloc2D);
+    this.zMin = Math.min(z, this.zMin);
+    this.zMax = Math.max(z, this.zMax);
 
-        // zMoy = ((1 / d4) * pointemp4.z + (1 / d2) * pointemp2.z + (1 / d3)
-        // * pointemp3.z)
-        // / (1 / d4 + 1 / d2 + 1 / d3);
-        // zMoy = (pointemp4.z + pointemp2.z + pointemp3.z)/3;
-      }
+    return new Point3d(x, y, z * exager);
 
-      return new Coordinate(x, y, zMoy + DTM.CONSTANT_OFFSET);
-
-    }
+  }
 
+  /**
+   * @return le MNT sans affichage portant les altitudes (non exagérées) de
+   *         tous les noeuds du fichier, utilisable pour les calculs
+   */
+  public MappedDTM getCore() {
+    return this.core;
   }
 
   @Override
@@ -1,7 +1,9 @@
 package fr.ign.cogit;
 
 import fr.ign.cogit.calculation.TestBooleanOperators;
+import fr.ign.cogit.io.TestLoaderCityGML;
 import fr.ign.cogit.sample.TestSample;
+import fr.ign.cogit.semantic.TestDTM;
 import junit.framework.Test;
 import junit.framework.TestSuite;
 import junit.textui.TestRunner;
@@ -20,6 +22,8 @@ public class MainTest {
 
 		suite.addTestSuite(TestBooleanOperators.class);
 		suite.addTestSuite(TestSample.class);
+		suite.addTestSuite(TestLoaderCityGML.class);
+		suite.addTestSuite(TestDTM.class);
 
 		return suite;
 
@@ -0,0 +1,199 @@
+package fr.ign.cogit.io;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import fr.ign.cogit.geoxygene.api.feature.IFeature;
+import fr.ign.cogit.geoxygene.sig3d.io.xml.citygmlv2.CityObjectChunkHandler;
+import fr.ign.cogit.geoxygene.sig3d.io.xml.citygmlv2.LoaderCityGML;
+import fr.ign.cogit.geoxygene.sig3d.model.citygml.appearance.CG_AbstractSurfaceData;
+import fr.ign.cogit.geoxygene.sig3d.model.citygml.building.CG_AbstractBuilding;
+import fr.ign.cogit.geoxygene.sig3d.model.citygml.core.CG_CityObject;
+import fr.ign.cogit.geoxygene.sig3d.model.citygml.geometry.ConvertCityGMLtoGeometry;
+import fr.ign.cogit.geoxygene.sig3d.semantic.VectorLayer;
+import fr.ign.cogit.geoxygene.spatial.coordgeom.GM_Envelope;
+import junit.framework.TestCase;
+
+//--------------------------------------------------------------------------------
+// Compares the streaming read of LoaderCityGML with the read of the whole city
+// model, on 5 buildings 100 m apart followed by a global appearance. The
+// buildings are identified by their measured height.
+//--------------------------------------------------------------------------------
+
+public class TestLoaderCityGML extends TestCase {
+
+	private static final int NB_BUILDINGS = 5;
+
+	// Chunks received by the handler, and the appearances given with them
+	private List<List<CG_CityObject>> chunks = new ArrayList<List<CG_CityObject>>();
+	private List<List<CG_AbstractSurfaceData>> appearances = new ArrayList<List<CG_AbstractSurfaceData>>();
+
+	// Largest X converted when the first chunk is handled
+	private double xMaxAtFirstChunk;
+
+	private CityObjectChunkHandler handler = new CityObjectChunkHandler() {
+		@Override
+		public void handleChunk(List<CG_CityObject> chunk, List<CG_AbstractSurfaceData> lCGA) {
+			if (chunks.isEmpty()) {
+				xMaxAtFirstChunk = ConvertCityGMLtoGeometry.xMax;
+			}
+			chunks.add(chunk);
+			appearances.add(lCGA);
+		}
+	};
+
+	// ---------------------------------- FIXTURE -------------------------------------
+
+	private static String posList(double... coords) {
+		StringBuilder sb = new StringBuilder();
+		for (double c : coords) {
+			sb.append(c).append(' ');
+		}
+		return sb.toString().trim();
+	}
+
+	private static String polygon(String id, double... coords) {
+		return "<gml:surfaceMember><gml:Polygon gml:id=\"" + id + "\"><gml:exterior><gml:LinearRing><gml:posList>"
+				+ posList(coords) + "</gml:posList></gml:LinearRing></gml:exterior></gml:Polygon></gml:surfaceMember>";
+	}
+
+	// A 10 m box with its lower corner at (x, 0, 0)
+	private static String solid(int lod, String id, double x) {
+		double x2 = x + 10, h = 10;
+		return "<bldg:lod" + lod + "Solid><gml:Solid><gml:exterior><gml:CompositeSurface>"
+				+ polygon(id + "_0", x, 0, 0, x, 10, 0, x2, 10, 0, x2, 0, 0, x, 0, 0)
+				+ polygon(id + "_1", x, 0, h, x2, 0, h, x2, 10, h, x, 10, h, x, 0, h)
+				+ polygon(id + "_2", x, 0, 0, x2, 0, 0, x2, 0, h, x, 0, h, x, 0, 0)
+				+ polygon(id + "_3", x2, 0, 0, x2, 10, 0, x2, 10, h, x2, 0, h, x2, 0, 0)
+				+ polygon(id + "_4", x2, 10, 0, x, 10, 0, x, 10, h, x2, 10, h, x2, 10, 0)
+				+ polygon(id + "_5", x, 10, 0, x, 0, 0, x, 0, h, x, 10, h, x, 10, 0)
+				+ "</gml:CompositeSurface></gml:exterior></gml:Solid></bldg:lod" + lod + "Solid>";
+	}
+
+	private static File writeCityGML() throws Exception {
+		StringBuilder sb = new StringBuilder();
+		sb.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+		sb.append("<core:CityModel xmlns:core=\"http://www.opengis.net/citygml/2.0\""
+				+ " xmlns:bldg=\"http://www.opengis.net/citygml/building/2.0\""
+				+ " xmlns:app=\"http://www.opengis.net/citygml/appearance/2.0\""
+				+ " xmlns:gml=\"http://www.opengis.net/gml\">\n");
+		for (int i = 0; i < NB_BUILDINGS; i++) {
+			// the last building only has a LoD2 geometry
+			int lod = i == NB_BUILDINGS - 1 ? 2 : 1;
+			sb.append("<core:cityObjectMember><bldg:Building gml:id=\"b" + i + "\">");
+			sb.append("<bldg:measuredHeight uom=\"m\">" + (i + 1) + "</bldg:measuredHeight>");
+			sb.append(solid(lod, "b" + i, 100 * i));
+			sb.append("</bldg:Building></core:cityObjectMember>\n");
+		}
+		// the appearance follows the buildings, as in most files
+		sb.append("<app:appearanceMember><app:Appearance><app:theme>test</app:theme>"
+				+ "<app:surfaceDataMember><app:X3DMaterial><app:diffuseColor>1 0 0</app:diffuseColor>"
+				+ "<app:target>#b0_1</app:target></app:X3DMaterial></app:surfaceDataMember>"
+				+ "</app:Appearance></app:appearanceMember>\n");
+		sb.append("</core:CityModel>\n");
+
+		File f = File.createTempFile("TestLoaderCityGML", ".gml");
+		f.deleteOnExit();
+		try (Writer writer = new OutputStreamWriter(new FileOutputStream(f), StandardCharsets.UTF_8)) {
+			writer.write(sb.toString());
+		}
+		return f;
+	}
+
+	private List<Double> streamedHeights() {
+		List<Double> heights = new ArrayList<Double>();
+		for (List<CG_CityObject> chunk : chunks) {
+			for (CG_CityObject cGO : chunk) {
+				heights.add(((CG_AbstractBuilding) cGO).getMeasuredHeight());
+			}
+		}
+		return heights;
+	}
+
+	// ------------------------------------ TESTS -------------------------------------
+
+	@Test
+	// --------------------------------------------------------------------------------
+	// Test that the streamed buildings are the buildings of the city model, in the
+	// same order, and that the appearance that follows them is given with the
+	// chunk of its target surface only
+	// --------------------------------------------------------------------------------
+	public void testSameAsRead() throws Exception {
+
+		File f = writeCityGML();
+
+		VectorLayer layer = LoaderCityGML.read(f, f.getParent(), "read", false);
+		List<Double> expected = new ArrayList<Double>();
+		for (IFeature feat : layer) {
+			expected.add(((CG_AbstractBuilding) feat).getMeasuredHeight());
+		}
+		assertEquals(NB_BUILDINGS, expected.size());
+
+		int nb = LoaderCityGML.stream(f, f.getParent(), handler, null, 0, 4, 2, 3, false);
+
+		assertEquals(NB_BUILDINGS, nb);
+		assertEquals(expected, streamedHeights());
+		assertEquals(3, chunks.size());
+		for (int i = 0; i < chunks.size(); i++) {
+			assertTrue(chunks.get(i).size() <= 2);
+			// the appearance targets b0_1, a surface of the first chunk
+			assertEquals(i == 0 ? 1 : 0, appearances.get(i).size());
+		}
+
+	}
+
+	@Test
+	// --------------------------------------------------------------------------------
+	// Test for the LoD and envelope filters
+	// --------------------------------------------------------------------------------
+	public void testFilters() throws Exception {
+
+		File f = writeCityGML();
+
+		LoaderCityGML.stream(f, f.getParent(), handler, null, 1, 1, 10, 2, false);
+		List<Double> expected = new ArrayList<Double>();
+		for (int i = 1; i < NB_BUILDINGS; i++) {
+			expected.add((double) i);
+		}
+		assertEquals(expected, streamedHeights());
+
+		chunks.clear();
+		LoaderCityGML.stream(f, f.getParent(), handler, new GM_Envelope(150, 350, -10, 20), 0, 4, 10, 2, false);
+		expected.clear();
+		expected.add(3.0);
+		expected.add(4.0);
+		assertEquals(expected, streamedHeights());
+
+		chunks.clear();
+		LoaderCityGML.stream(f, f.getParent(), handler, new GM_Envelope(1000, 2000, -10, 20), 0, 4, 10, 2, false);
+		assertTrue(chunks.isEmpty());
+
+	}
+
+	@Test
+	// --------------------------------------------------------------------------------
+	// Test that the first chunks are handled before the last buildings are
+	// converted
+	// --------------------------------------------------------------------------------
+	public void testBoundedChunks() throws Exception {
+
+		File f = writeCityGML();
+
+		ConvertCityGMLtoGeometry.xMax = Double.NEGATIVE_INFINITY;
+		LoaderCityGML.stream(f, f.getParent(), handler, null, 0, 4, 1, 2, false);
+
+		assertEquals(NB_BUILDINGS, chunks.size());
+		// at most 2 chunks of one building are converted before being handled
+		assertTrue(xMaxAtFirstChunk <= 110);
+		assertTrue(ConvertCityGMLtoGeometry.xMax >= 100 * (NB_BUILDINGS - 1));
+
+	}
+
+}
@@ -0,0 +1,104 @@
+package fr.ign.cogit.semantic;
+
+import java.awt.Color;
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+
+import javax.media.j3d.TriangleStripArray;
+import javax.vecmath.Point3d;
+
+import org.junit.Test;
+
+import com.vividsolutions.jts.geom.Coordinate;
+
+import fr.ign.cogit.geoxygene.sig3d.semantic.DTM;
+import junit.framework.TestCase;
+
+//--------------------------------------------------------------------------------
+// Checks that the Java3D DTM is built from its MappedDTM core, on a 7 x 5
+// grid on a plane with a NoData value at the north-east node
+//--------------------------------------------------------------------------------
+
+public class TestDTM extends TestCase {
+
+	private static double epsilon = Math.pow(10, -3);
+
+	private static final int EXAGER = 2;
+
+	private static double plane(double x, double y) {
+		return 100 + 0.5 * (x - 1000) - 0.25 * (y - 2000);
+	}
+
+	private static DTM dtm() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("ncols 7\nnrows 5\nxllcorner 1000\nyllcorner 2000\ncellsize 10\nNODATA_value -9999\n");
+		for (int r = 0; r < 5; r++) {
+			for (int i = 0; i < 7; i++) {
+				if (r == 0 && i == 6) {
+					sb.append(" -9999");
+				} else {
+					sb.append(" " + plane(1000 + 10 * i, 2000 + 10 * (4 - r)));
+				}
+			}
+			sb.append("\n");
+		}
+		return new DTM(new ByteArrayInputStream(sb.toString().getBytes(StandardCharsets.UTF_8)), "dtm", true,
+				EXAGER, new Color[] { Color.BLUE, Color.RED });
+	}
+
+	@Test
+	// --------------------------------------------------------------------------------
+	// Test that the triangle strip is built from the nodes of the core
+	// --------------------------------------------------------------------------------
+	public void testStrip() {
+
+		DTM dtm = dtm();
+
+		assertEquals(7, dtm.getNX());
+		assertEquals(5, dtm.getNY());
+		assertEquals(7, dtm.getCore().getNX());
+		assertEquals(5, dtm.getCore().getNY());
+
+		TriangleStripArray strip = dtm.getRepresentation();
+		assertEquals(2 * 7 * 4, strip.getVertexCount());
+
+		// Each pair of vertices links a node to the node south of it, the
+		// rows going from north to south
+		Point3d p = new Point3d();
+		for (int r = 0; r < 4; r++) {
+			for (int i = 0; i < 7; i++) {
+				for (int k = 0; k < 2; k++) {
+					strip.getCoordinate(2 * (7 * r + i) + k, p);
+					double x = 1000 + 10 * i;
+					double y = 2040 - 10 * (r + k);
+					assertEquals(x, p.x, epsilon);
+					assertEquals(y, p.y, epsilon);
+					if (r + k == 0 && i == 6) {
+						assertEquals(-9999 * EXAGER, p.z, epsilon);
+					} else {
+						assertEquals(plane(x, y) * EXAGER, p.z, epsilon);
+					}
+				}
+			}
+		}
+
+	}
+
+	@Test
+	// --------------------------------------------------------------------------------
+	// Test that castCoordinate interpolates the core
+	// --------------------------------------------------------------------------------
+	public void testCastCoordinate() {
+
+		DTM dtm = dtm();
+
+		Coordinate c = dtm.castCoordinate(1013.7, 2027.4);
+		assertEquals(plane(1013.7, 2027.4) * EXAGER + DTM.CONSTANT_OFFSET, c.z, epsilon);
+
+		// Outside the grid and in a cell with NoData
+		assertEquals(0, dtm.castCoordinate(990, 2010).z, epsilon);
+		assertEquals(0, dtm.castCoordinate(1055, 2035).z, epsilon);
+
+	}
+
+}
@@ -0,0 +1,745 @@
+package fr.ign.cogit.geoxygene.sig3d.calculation.raycasting;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import fr.ign.cogit.geoxygene.api.feature.IFeature;
+import fr.ign.cogit.geoxygene.api.feature.IFeatureCollection;
+import fr.ign.cogit.geoxygene.api.spatial.coordgeom.IDirectPosition;
+import fr.ign.cogit.geoxygene.api.spatial.coordgeom.IDirectPositionList;
+import fr.ign.cogit.geoxygene.api.spatial.coordgeom.IPolygon;
+import fr.ign.cogit.geoxygene.api.spatial.geomprim.IOrientableSurface;
+import fr.ign.cogit.geoxygene.api.spatial.geomprim.IRing;
+import fr.ign.cogit.geoxygene.convert.FromGeomToSurface;
+import fr.ign.cogit.geoxygene.sig3d.equation.ApproximatedPlanEquation;
+import fr.ign.cogit.geoxygene.spatial.coordgeom.DirectPosition;
+import fr.ign.cogit.geoxygene.util.ParallelChunks;
+
+/**
+ * This software is released under the licence CeCILL
+ *
+ * see LICENSE.TXT
+ *
+ * see <http://www.cecill.info/ http://www.cecill.info/
+ *
+ *
+ *
+ * @copyright IGN
+ *
+ *
+ *            Hiérarchie de boîtes englobantes (BVH) construite sur les faces
+ *            d'une scène 3D suivant l'heuristique des surfaces (SAH). Les
+ *            rayons sont lancés par paquets qui parcourent l'arbre ensemble,
+ *            les paquets étant traités en parallèle.
+ *
+ *            Une face est intersectée dans les mêmes conditions que dans
+ *            {@link RayCasting#intersectionPolygonLine} : intersection avec
+ *            le plan approché de la face, point dans l'anneau extérieur et
+ *            hors des trous, en acceptant les points sur les arrêtes si
+ *            {@link RayCasting#CHECK_IS_ON_EDGE} (valeurs de
+ *            {@link RayCasting#CHECK_IS_ON_EDGE} et {@link RayCasting#EPSILON}
+ *            lues à la construction). Les faces sont gardées telles quelles
+ *            (et non triangulées) pour conserver ces tests sur les trous et
+ *            les arrêtes.
+ */
+public class FacetBVH {
+
+	/**
+	 * Nombre de rayons d'un paquet (un bit par rayon)
+	 */
+	private static final int PACKET_SIZE = 64;
+
+	/**
+	 * Nombre de classes pour l'évaluation de la SAH
+	 */
+	private static final int NB_BINS = 16;
+
+	/**
+	 * Coût d'un parcours de noeud, relatif au coût du test d'une face
+	 */
+	private static final double TRAVERSAL_COST = 1;
+
+	/**
+	 * Nombre maximal de faces d'une feuille, au-delà on découpe toujours
+	 */
+	private static final int MAX_LEAF_SIZE = 8;
+
+	private final boolean checkOnEdge;
+	private final double epsilon;
+
+	// Les faces d'origine (nulles si construit à partir de coordonnées) et
+	// l'indice de l'entité dont elles proviennent
+	private final List<IOrientableSurface> surfaces = new ArrayList<IOrientableSurface>();
+	private int[] featureIndexes;
+
+	// Faces : plan normalisé (a, b, c, d), axe de projection, anneaux
+	private int nbFacets = 0;
+	private double[] plans = new double[64];
+	private int[] axes = new int[16];
+	private int[] facetRings = new int[17];
+	private int nbRings = 0;
+	private int[] ringStarts = new int[17];
+	private int nbCoords = 0;
+	private double[] coords = new double[192];
+	private double[] boxes = new double[96];
+
+	// Arbre : boîte, premier fils (le second le suit) ou -1 pour une feuille,
+	// axe de découpe, faces des feuilles dans order
+	private int nbNodes = 0;
+	private double[] nodeBoxes;
+	private int[] nodeChildren;
+	private int[] nodeAxes;
+	private int[] nodeStarts;
+	private int[] nodeCounts;
+	private int[] order;
+	private int depth = 0;
+
+	// Nombre de threads utilisés pour lancer les paquets de rayons
+	private int nbThreads = ParallelChunks.getDefaultThreads();
+
+	/**
+	 * Construit la hiérarchie sur les faces des entités
+	 *
+	 * @param lFeat
+	 *            les entités de la scène
+	 */
+	public FacetBVH(IFeatureCollection<? extends IFeature> lFeat) {
+		this.checkOnEdge = RayCasting.CHECK_IS_ON_EDGE;
+		this.epsilon = RayCasting.EPSILON;
+
+		List<Integer> indexes = new ArrayList<Integer>();
+		int nbFeat = lFeat.size();
+		for (int i = 0; i < nbFeat; i++) {
+			List<IOrientableSurface> lOS = FromGeomToSurface.convertGeom(lFeat.get(i).getGeom());
+			if (lOS == null) {
+				continue;
+			}
+			for (IOrientableSurface os : lOS) {
+				if (this.addSurface(os)) {
+					indexes.add(i);
+				}
+			}
+		}
+		this.featureIndexes = new int[indexes.size()];
+		for (int i = 0; i < this.featureIndexes.length; i++) {
+			this.featureIndexes[i] = indexes.get(i);
+		}
+		this.build();
+	}
+
+	/**
+	 * Construit la hiérarchie sur une liste de faces
+	 *
+	 * @param lOS
+	 *            les faces de la scène
+	 */
+	public FacetBVH(List<? extends IOrientableSurface> lOS) {
+		this.checkOnEdge = RayCasting.CHECK_IS_ON_EDGE;
+		this.epsilon = RayCasting.EPSILON;
+
+		for (IOrientableSurface os : lOS) {
+			this.addSurface(os);
+		}
+		this.build();
+	}
+
+	/**
+	 * Construit la hiérarchie sur des faces données par leurs anneaux (le
+	 * premier étant l'anneau extérieur, les suivants des trous), chaque anneau
+	 * étant un tableau x, y, z. Le plan des faces est calculé par la méthode
+	 * de Newell.
+	 */
+	FacetBVH(List<double[][]> facets, boolean checkOnEdge, double epsilon) {
+		this.checkOnEdge = checkOnEdge;
+		this.epsilon = epsilon;
+
+		for (double[][] rings : facets) {
+			double nx = 0, ny = 0, nz = 0, cx = 0, cy = 0, cz = 0;
+			double[] r = rings[0];
+			int n = r.length / 3;
+			for (int i = 0; i < n; i++) {
+				int j = (i + 1) % n;
+				nx += (r[3 * i + 1] - r[3 * j + 1]) * (r[3 * i + 2] + r[3 * j + 2]);
+				ny += (r[3 * i + 2] - r[3 * j + 2]) * (r[3 * i] + r[3 * j]);
+				nz += (r[3 * i] - r[3 * j]) * (r[3 * i + 1] + r[3 * j + 1]);
+				cx += r[3 * i];
+				cy += r[3 * i + 1];
+				cz += r[3 * i + 2];
+			}
+			this.addFacet(rings, nx, ny, nz, -(nx * cx + ny * cy + nz * cz) / n);
+		}
+		this.build();
+	}
+
+	/**
+	 * @return le nombre de faces de la hiérarchie
+	 */
+	public int getNbFacets() {
+		return this.nbFacets;
+	}
+
+	/**
+	 * @param facet
+	 *            indice d'une face
+	 * @return la face correspondante
+	 */
+	public IOrientableSurface getFacet(int facet) {
+		return this.surfaces.get(facet);
+	}
+
+	/**
+	 * @param facet
+	 *            indice d'une face
+	 * @return l'indice dans la collection de l'entité d'où provient la face,
+	 *         -1 si la hiérarchie n'a pas été construite sur des entités
+	 */
+	public int getFeatureIndex(int facet) {
+		return this.featureIndexes == null ? -1 : this.featureIndexes[facet];
+	}
+
+	/**
+	 * @return le nombre de threads utilisés pour lancer les rayons
+	 */
+	public int getNbThreads() {
+		return this.nbThreads;
+	}
+
+	/**
+	 * @param nbThreads
+	 *            le nombre de threads utilisés pour lancer les rayons, le
+	 *            lancer se fait dans le thread courant si 1 (par défaut le
+	 *            nombre de processeurs)
+	 */
+	public void setNbThreads(int nbThreads) {
+		this.nbThreads = nbThreads;
+	}
+
+	private boolean addSurface(IOrientableSurface os) {
+		List<IDirectPositionList> lDPL = new ArrayList<IDirectPositionList>();
+		if (os instanceof IPolygon) {
+			IPolygon poly = (IPolygon) os;
+			lDPL.add(poly.getExterior().coord());
+			for (IRing r : poly.getInterior()) {
+				lDPL.add(r.coord());
+			}
+		} else {
+			lDPL.add(os.coord());
+		}
+
+		double[][] rings = new double[lDPL.size()][];
+		for (int k = 0; k < rings.length; k++) {
+			IDirectPositionList dpl = lDPL.get(k);
+			int n = dpl.size();
+			// L'anneau est fermé implicitement
+			if (n > 1 && dpl.get(0).distance(dpl.get(n - 1)) <= 0.001) {
+				n--;
+			}
+			rings[k] = new double[3 * n];
+			for (int i = 0; i < n; i++) {
+				IDirectPosition dp = dpl.get(i);
+				rings[k][3 * i] = dp.getX();
+				rings[k][3 * i + 1] = dp.getY();
+				rings[k][3 * i + 2] = dp.getZ();
+			}
+		}
+		if (rings[0].length < 9) {
+			return false;
+		}
+
+		ApproximatedPlanEquation aPE = new ApproximatedPlanEquation(os);
+		if (!this.addFacet(rings, aPE.getCoeffa(), aPE.getCoeffb(), aPE.getCoeffc(), aPE.getCoeffd())) {
+			return false;
+		}
+		this.surfaces.add(os);
+		return true;
+	}
+
+	/**
+	 * Ajoute une face de plan a x + b y + c z + d = 0. Les faces dégénérées
+	 * (sans normale) sont ignorées.
+	 */
+	private boolean addFacet(double[][] rings, double a, double b, double c, double d) {
+		double norm = Math.sqrt(a * a + b * b + c * c);
+		if (!(norm > 0) || Double.isInfinite(norm) || rings[0].length < 9) {
+			return false;
+		}
+		a /= norm;
+		b /= norm;
+		c /= norm;
+		d /= norm;
+
+		int f = this.nbFacets++;
+		if (this.axes.length <= f) {
+			int size = 2 * this.axes.length;
+			this.axes = Arrays.copyOf(this.axes, size);
+			this.plans = Arrays.copyOf(this.plans, 4 * size);
+			this.boxes = Arrays.copyOf(this.boxes, 6 * size);
+			this.facetRings = Arrays.copyOf(this.facetRings, size + 1);
+		}
+		this.plans[4 * f] = a;
+		this.plans[4 * f + 1] = b;
+		this.plans[4 * f + 2] = c;
+		this.plans[4 * f + 3] = d;
+		// On projette suivant la plus grande composante de la normale
+		double ax = Math.abs(a), ay = Math.abs(b), az = Math.abs(c);
+		this.axes[f] = ax >= ay && ax >= az ? 0 : (ay >= az ? 1 : 2);
+
+		double[] box = this.boxes;
+		for (int i = 0; i < 3; i++) {
+			box[6 * f + i] = Double.POSITIVE_INFINITY;
+			box[6 * f + 3 + i] = Double.NEGATIVE_INFINITY;
+		}
+		double residual = 0, maxEdge = 0, maxCoord = 0;
+		this.facetRings[f] = this.nbRings;
+		for (double[] ring : rings) {
+			if (this.ringStarts.length <= this.nbRings + 1) {
+				this.ringStarts = Arrays.copyOf(this.ringStarts, 2 * this.ringStarts.length);
+			}
+			this.ringStarts[this.nbRings++] = this.nbCoords;
+			if (this.coords.length < this.nbCoords + ring.length) {
+				this.coords = Arrays.copyOf(this.coords, Math.max(2 * this.coords.length, this.nbCoords + ring.length));
+			}
+			System.arraycopy(ring, 0, this.coords, this.nbCoords, ring.length);
+			this.nbCoords += ring.length;
+
+			int n = ring.length / 3;
+			for (int i = 0; i < n; i++) {
+				for (int k = 0; k < 3; k++) {
+					box[6 * f + k] = Math.min(box[6 * f + k], ring[3 * i + k]);
+					box[6 * f + 3 + k] = Math.max(box[6 * f + 3 + k], ring[3 * i + k]);
+					maxCoord = Math.max(maxCoord, Math.abs(ring[3 * i + k]));
+				}
+				residual = Math.max(residual, Math.abs(a * ring[3 * i] + b * ring[3 * i + 1] + c * ring[3 * i + 2] + d));
+				int j = (i + 1) % n;
+				double dx = ring[3 * j] - ring[3 * i], dy = ring[3 * j + 1] - ring[3 * i + 1],
+						dz = ring[3 * j + 2] - ring[3 * i + 2];
+				maxEdge = Math.max(maxEdge, Math.sqrt(dx * dx + dy * dy + dz * dz));
+			}
+		}
+		this.ringStarts[this.nbRings] = this.nbCoords;
+		this.facetRings[f + 1] = this.nbRings;
+
+		// Marge de la boîte : écart au plan approché et, si les points proches
+		// des arrêtes sont acceptés, distance maximale à une arrête d'un point
+		// qui la voit sous un angle de cosinus inférieur à -1 + epsilon
+		double pad = residual + 1e-9 * (1 + maxCoord);
+		if (this.checkOnEdge) {
+			double angle = Math.acos(Math.max(-1, 1 - this.epsilon));
+			pad += Math.max(this.epsilon, maxEdge / 2 * Math.tan(angle / 2));
+		}
+		for (int k = 0; k < 3; k++) {
+			box[6 * f + k] -= pad;
+			box[6 * f + 3 + k] += pad;
+		}
+		return true;
+	}
+
+	// ----------------------------------------------------------------------------
+	// Construction de l'arbre
+	// ----------------------------------------------------------------------------
+
+	private void build() {
+		int n = this.nbFacets;
+		this.order = new int[n];
+		for (int i = 0; i < n; i++) {
+			this.order[i] = i;
+		}
+		int maxNodes = Math.max(1, 2 * n - 1);
+		this.nodeBoxes = new double[6 * maxNodes];
+		this.nodeChildren = new int[maxNodes];
+		this.nodeAxes = new int[maxNodes];
+		this.nodeStarts = new int[maxNodes];
+		this.nodeCounts = new int[maxNodes];
+		if (n == 0) {
+			return;
+		}
+		this.nbNodes = 1;
+		this.build(0, 0, n, 0);
+	}
+
+	private static double area(double[] box, int offset) {
+		double dx = box[offset + 3] - box[offset];
+		double dy = box[offset + 4] - box[offset + 1];
+		double dz = box[offset + 5] - box[offset + 2];
+		return 2 * (dx * dy + dy * dz + dz * dx);
+	}
+
+	private static void reset(double[] box, int offset) {
+		for (int k = 0; k < 3; k++) {
+			box[offset + k] = Double.POSITIVE_INFINITY;
+			box[offset + 3 + k] = Double.NEGATIVE_INFINITY;
+		}
+	}
+
+	private static void grow(double[] box, int offset, double[] other, int offsetOther) {
+		for (int k = 0; k < 3; k++) {
+			box[offset + k] = Math.min(box[offset + k], other[offsetOther + k]);
+			box[offset + 3 + k] = Math.max(box[offset + 3 + k], other[offsetOther + 3 + k]);
+		}
+	}
+
+	private void build(int node, int start, int end, int level) {
+		this.depth = Math.max(this.depth, level);
+		int count = end - start;
+
+		// Boîte du noeud et des centres des faces
+		reset(this.nodeBoxes, 6 * node);
+		double[] centers = new double[6];
+		reset(centers, 0);
+		for (int i = start; i < end; i++) {
+			int f = this.order[i];
+			grow(this.nodeBoxes, 6 * node, this.boxes, 6 * f);
+			for (int k = 0; k < 3; k++) {
+				double c = (this.boxes[6 * f + k] + this.boxes[6 * f + 3 + k]) / 2;
+				centers[k] = Math.min(centers[k], c);
+				centers[3 + k] = Math.max(centers[3 + k], c);
+			}
+		}
+
+		int axis = 0;
+		for (int k = 1; k < 3; k++) {
+			if (centers[3 + k] - centers[k] > centers[3 + axis] - centers[axis]) {
+				axis = k;
+			}
+		}
+		double min = centers[axis];
+		double extent = centers[3 + axis] - min;
+
+		if (count <= 1 || !(extent > 0)) {
+			this.makeLeaf(node, start, count);
+			return;
+		}
+
+		// Répartition des faces en classes suivant leur centre
+		int[] binCounts = new int[NB_BINS];
+		double[] binBoxes = new double[6 * NB_BINS];
+		for (int b = 0; b < NB_BINS; b++) {
+			reset(binBoxes, 6 * b);
+		}
+		for (int i = start; i < end; i++) {
+			int f = this.order[i];
+			int b = this.bin(f, axis, min, extent);
+			binCounts[b]++;
+			grow(binBoxes, 6 * b, this.boxes, 6 * f);
+		}
+
+		// Coûts des découpes entre les classes b et b + 1
+		double[] rightAreas = new double[NB_BINS];
+		double[] acc = new double[6];
+		reset(acc, 0);
+		int accCount = 0;
+		for (int b = NB_BINS - 1; b > 0; b--) {
+			grow(acc, 0, binBoxes, 6 * b);
+			accCount += binCounts[b];
+			rightAreas[b - 1] = accCount == 0 ? 0 : area(acc, 0) * accCount;
+		}
+		reset(acc, 0);
+		accCount = 0;
+		double bestCost = Double.POSITIVE_INFINITY;
+		int bestBin = -1;
+		for (int b = 0; b < NB_BINS - 1; b++) {
+			grow(acc, 0, binBoxes, 6 * b);
+			accCount += binCounts[b];
+			if (accCount == 0 || accCount == count) {
+				continue;
+			}
+			double cost = area(acc, 0) * accCount + rightAreas[b];
+			if (cost < bestCost) {
+				bestCost = cost;
+				bestBin = b;
+			}
+		}
+
+		double nodeArea = area(this.nodeBoxes, 6 * node);
+		if (bestBin < 0
+				|| (count <= MAX_LEAF_SIZE && TRAVERSAL_COST * nodeArea + bestCost >= count * nodeArea)) {
+			this.makeLeaf(node, start, count);
+			return;
+		}
+
+		// Partition des faces de part et d'autre de la découpe
+		int i = start, j = end - 1;
+		while (i <= j) {
+			if (this.bin(this.order[i], axis, min, extent) <= bestBin) {
+				i++;
+			} else {
+				int tmp = this.order[i];
+				this.order[i] = this.order[j];
+				this.order[j] = tmp;
+				j--;
+			}
+		}
+
+		int left = this.nbNodes;
+		this.nbNodes += 2;
+		this.nodeChildren[node] = left;
+		this.nodeAxes[node] = axis;
+		this.build(left, start, i, level + 1);
+		this.build(left + 1, i, end, level + 1);
+	}
+
+	private int bin(int f, int axis, double min, double extent) {
+		double c = (this.boxes[6 * f + axis] + this.boxes[6 * f + 3 + axis]) / 2;
+		int b = (int) ((c - min) / extent * NB_BINS);
+		return Math.max(0, Math.min(NB_BINS - 1, b));
+	}
+
+	private void makeLeaf(int node, int start, int count) {
+		this.nodeChildren[node] = -1;
+		this.nodeStarts[node] = start;
+		this.nodeCounts[node] = count;
+	}
+
+	// ----------------------------------------------------------------------------
+	// Lancer de rayons
+	// ----------------------------------------------------------------------------
+
+	/**
+	 * Lance un ensemble de rayons et renvoie pour chacun la face intersectée
+	 * la plus proche (à égalité, celle de plus petit indice). Les rayons sont
+	 * traités par paquets, en parallèle sur {@link #getNbThreads()} threads.
+	 *
+	 * @param origins
+	 *            les origines des rayons (x, y, z à la suite)
+	 * @param directions
+	 *            les directions des rayons (x, y, z à la suite, non
+	 *            nécessairement normées)
+	 * @param maxDistance
+	 *            la distance maximale d'intersection depuis l'origine
+	 * @param distances
+	 *            si non nul, reçoit la distance à l'intersection de chaque
+	 *            rayon (infinie si pas d'intersection)
+	 * @return l'indice de la face intersectée par chaque rayon, -1 si aucune
+	 */
+	public int[] castNearest(final double[] origins, final double[] directions, final double maxDistance,
+			double[] distances) {
+		final int nbRays = origins.length / 3;
+		final int[] facets = new int[nbRays];
+		final double[] tHits = distances == null ? new double[nbRays] : distances;
+		Arrays.fill(facets, -1);
+		Arrays.fill(tHits, 0, nbRays, Double.POSITIVE_INFINITY);
+		if (this.nbFacets == 0) {
+			return facets;
+		}
+		int nbPackets = (nbRays + PACKET_SIZE - 1) / PACKET_SIZE;
+		ParallelChunks.forEach(nbPackets, this.nbThreads, (start, end) -> {
+			for (int p = start; p < end; p++) {
+				this.castPacket(origins, directions, maxDistance, p * PACKET_SIZE,
+						Math.min(PACKET_SIZE, nbRays - p * PACKET_SIZE), facets, tHits);
+			}
+		});
+		return facets;
+	}
+
+	/**
+	 * Lance des rayons depuis un centre vers des points visés et renvoie le
+	 * point d'intersection le plus proche pour chaque rayon
+	 *
+	 * @param centre
+	 *            l'origine des rayons
+	 * @param aims
+	 *            les points visés, qui donnent la direction des rayons
+	 * @param maxDistance
+	 *            la distance maximale d'intersection
+	 * @return pour chaque point visé, l'intersection la plus proche ou null
+	 */
+	public IDirectPosition[] castNearest(IDirectPosition centre, IDirectPositionList aims, double maxDistance) {
+		int nbRays = aims.size();
+		double[] origins = new double[3 * nbRays];
+		double[] directions = new double[3 * nbRays];
+		for (int i = 0; i < nbRays; i++) {
+			IDirectPosition aim = aims.get(i);
+			origins[3 * i] = centre.getX();
+			origins[3 * i + 1] = centre.getY();
+			origins[3 * i + 2] = centre.getZ();
+			directions[3 * i] = aim.getX() - centre.getX();
+			directions[3 * i + 1] = aim.getY() - centre.getY();
+			directions[3 * i + 2] = aim.getZ() - centre.getZ();
+		}
+		double[] distances = new double[nbRays];
+		int[] facets = this.castNearest(origins, directions, maxDistance, distances);
+		IDirectPosition[] hits = new IDirectPosition[nbRays];
+		for (int i = 0; i < nbRays; i++) {
+			if (facets[i] < 0) {
+				continue;
+			}
+			double norm = Math.sqrt(directions[3 * i] * directions[3 * i]
+					+ directions[3 * i + 1] * directions[3 * i + 1] + directions[3 * i + 2] * directions[3 * i + 2]);
+			double t = distances[i] / norm;
+			hits[i] = new DirectPosition(origins[3 * i] + t * directions[3 * i],
+					origins[3 * i + 1] + t * directions[3 * i + 1], origins[3 * i + 2] + t * directions[3 * i + 2]);
+		}
+		return hits;
+	}
+
+	private void castPacket(double[] origins, double[] directions, double maxDistance, int first, int count,
+			int[] facets, double[] distances) {
+		double[] o = new double[3 * count];
+		double[] d = new double[3 * count];
+		double[] inv = new double[3 * count];
+		double[] tMax = new double[count];
+		int[] best = new int[count];
+		long active = 0;
+		for (int r = 0; r < count; r++) {
+			int i = 3 * (first + r);
+			double norm = Math.sqrt(directions[i] * directions[i] + directions[i + 1] * directions[i + 1]
+					+ directions[i + 2] * directions[i + 2]);
+			best[r] = -1;
+			tMax[r] = maxDistance;
+			if (!(norm > 0)) {
+				continue;
+			}
+			for (int k = 0; k < 3; k++) {
+				o[3 * r + k] = origins[i + k];
+				d[3 * r + k] = directions[i + k] / norm;
+				inv[3 * r + k] = 1 / d[3 * r + k];
+			}
+			active |= 1L << r;
+		}
+
+		int[] nodes = new int[this.depth + 2];
+		long[] masks = new long[this.depth + 2];
+		int top = 0;
+		nodes[top] = 0;
+		masks[top++] = active;
+		while (top > 0) {
+			top--;
+			int node = nodes[top];
+			long mask = masks[top];
+			long hit = 0;
+			for (long m = mask; m != 0; m &= m - 1) {
+				int r = Long.numberOfTrailingZeros(m);
+				if (this.hitBox(node, o, inv, r, tMax[r])) {
+					hit |= 1L << r;
+				}
+			}
+			if (hit == 0) {
+				continue;
+			}
+			int left = this.nodeChildren[node];
+			if (left < 0) {
+				int end = this.nodeStarts[node] + this.nodeCounts[node];
+				for (int k = this.nodeStarts[node]; k < end; k++) {
+					int f = this.order[k];
+					for (long m = hit; m != 0; m &= m - 1) {
+						this.intersect(f, o, d, Long.numberOfTrailingZeros(m), tMax, best);
+					}
+				}
+				continue;
+			}
+			// Le fils le plus proche suivant la direction des rayons est
+			// parcouru en premier
+			int near = d[3 * Long.numberOfTrailingZeros(hit) + this.nodeAxes[node]] < 0 ? left + 1 : left;
+			nodes[top] = near == left ? left + 1 : left;
+			masks[top++] = hit;
+			nodes[top] = near;
+			masks[top++] = hit;
+		}
+
+		for (int r = 0; r < count; r++) {
+			if (best[r] >= 0) {
+				facets[first + r] = best[r];
+				distances[first + r] = tMax[r];
+			}
+		}
+	}
+
+	private boolean hitBox(int node, double[] o, double[] inv, int r, double tMax) {
+		double tNear = 0, tFar = tMax;
+		for (int k = 0; k < 3; k++) {
+			double t1 = (this.nodeBoxes[6 * node + k] - o[3 * r + k]) * inv[3 * r + k];
+			double t2 = (this.nodeBoxes[6 * node + 3 + k] - o[3 * r + k]) * inv[3 * r + k];
+			if (t1 > t2) {
+				double tmp = t1;
+				t1 = t2;
+				t2 = tmp;
+			}
+			// Les NaN (origine sur le bord et direction parallèle) sont ignorés
+			tNear = t1 > tNear ? t1 : tNear;
+			tFar = t2 < tFar ? t2 : tFar;
+			if (tNear > tFar) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private void intersect(int f, double[] o, double[] d, int r, double[] tMax, int[] best) {
+		double a = this.plans[4 * f], b = this.plans[4 * f + 1], c = this.plans[4 * f + 2];
+		double denom = a * d[3 * r] + b * d[3 * r + 1] + c * d[3 * r + 2];
+		if (denom == 0) {
+			return;
+		}
+		double t = -(a * o[3 * r] + b * o[3 * r + 1] + c * o[3 * r + 2] + this.plans[4 * f + 3]) / denom;
+		if (!(t > 0) || t > tMax[r] || (t == tMax[r] && best[r] >= 0 && best[r] < f)) {
+			return;
+		}
+		double px = o[3 * r] + t * d[3 * r];
+		double py = o[3 * r + 1] + t * d[3 * r + 1];
+		double pz = o[3 * r + 2] + t * d[3 * r + 2];
+		if (this.contains(f, px, py, pz)) {
+			tMax[r] = t;
+			best[r] = f;
+		}
+	}
+
+	/**
+	 * Indique si un point du plan d'une face est dans la face : dans l'anneau
+	 * extérieur et dans aucun trou, comme RayCasting.lieInsidePolygon
+	 */
+	private boolean contains(int f, double px, double py, double pz) {
+		int first = this.facetRings[f], last = this.facetRings[f + 1];
+		if (!this.ringContains(first, f, px, py, pz)) {
+			return false;
+		}
+		for (int ring = first + 1; ring < last; ring++) {
+			if (this.ringContains(ring, f, px, py, pz)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private boolean ringContains(int ring, int f, double px, double py, double pz) {
+		int start = this.ringStarts[ring], end = this.ringStarts[ring + 1];
+		// Test de parité dans le plan de projection de la face
+		int u = (this.axes[f] + 1) % 3, v = (this.axes[f] + 2) % 3;
+		double pu = u == 0 ? px : (u == 1 ? py : pz);
+		double pv = v == 0 ? px : (v == 1 ? py : pz);
+		boolean inside = false;
+		for (int i = start, j = end - 3; i < end; j = i, i += 3) {
+			double ui = this.coords[i + u], vi = this.coords[i + v];
+			double uj = this.coords[j + u], vj = this.coords[j + v];
+			if ((vi > pv) != (vj > pv) && pu < (uj - ui) * (pv - vi) / (vj - vi) + ui) {
+				inside = !inside;
+			}
+		}
+		if (inside || !this.checkOnEdge) {
+			return inside;
+		}
+		return this.onEdge(start, end, px, py, pz);
+	}
+
+	/**
+	 * Même critère que RayCasting.checkOnEdge : sommet à moins de epsilon, ou
+	 * arrête vue sous un angle de cosinus inférieur à -1 + epsilon
+	 */
+	private boolean onEdge(int start, int end, double px, double py, double pz) {
+		for (int i = start; i < end; i += 3) {
+			double dx = this.coords[i] - px, dy = this.coords[i + 1] - py, dz = this.coords[i + 2] - pz;
+			if (Math.sqrt(dx * dx + dy * dy + dz * dz) < this.epsilon) {
+				return true;
+			}
+		}
+		for (int i = start, j = end - 3; i < end; j = i, i += 3) {
+			double x1 = this.coords[j] - px, y1 = this.coords[j + 1] - py, z1 = this.coords[j + 2] - pz;
+			double x2 = this.coords[i] - px, y2 = this.coords[i + 1] - py, z2 = this.coords[i + 2] - pz;
+			double n1 = Math.sqrt(x1 * x1 + y1 * y1 + z1 * z1), n2 = Math.sqrt(x2 * x2 + y2 * y2 + z2 * z2);
+			if ((x1 * x2 + y1 * y2 + z1 * z2) / (n1 * n2) <= -1 + this.epsilon) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
@@ -65,6 +65,12 @@ public class RayCasting {
 	public static int TYPE_CAST_SOLID_POINT = 3;
 	public static int TYPE_CAST_SOLID_POINT_GAUSS = 4;
 
+	// Mêmes résultats que TYPE_FIRST_POINT_INTERSECTED et
+	// TYPE_FIRST_POINT_AND_SPHERE, calculés avec une hiérarchie de boîtes
+	// englobantes sur les faces (FacetBVH)
+	public static int TYPE_FIRST_POINT_INTERSECTED_BVH = 5;
+	public static int TYPE_FIRST_POINT_AND_SPHERE_BVH = 6;
+
 	public static int TYPE_FIRST_AND_SPHERE_OPTIMIZED = 98;
 	public static int TYPE_FIRST_POINT_INTERSECTED_OPTIMIZED = 99;
 
@@ -131,6 +137,12 @@ public class RayCasting {
 
 			this.dpGenerated = this.castOptimized(centre, lFeat, nbPointsCouronnes, rayon, isSphere);
 
+		} else if (resultType == RayCasting.TYPE_FIRST_POINT_INTERSECTED_BVH
+				|| resultType == RayCasting.TYPE_FIRST_POINT_AND_SPHERE_BVH) {
+
+			this.dpGenerated = this.castBVH(centre, lFeat, nbPointsCouronnes, rayon,
+					resultType == RayCasting.TYPE_FIRST_POINT_AND_SPHERE_BVH, isSphere);
+
 		} else {
 			this.dpGenerated = this.cast(centre, lFeat, nbPointsCouronnes, rayon, resultType, isSphere);
 		}
@@ -357,6 +369,87 @@ public class RayCasting {
 
 	}
 
+	/**
+	 * Lancer de rayon suivant les mêmes directions que
+	 * {@link #cast(IDirectPosition, IFeatureCollection, int, double, int, boolean)}
+	 * , les rayons étant lancés par paquets dans une hiérarchie de boîtes
+	 * englobantes construite sur les faces des entités
+	 * 
+	 * @param centre
+	 *            le centre du lancer de rayon
+	 * @param lFeat
+	 *            les entités sur lesquelles on effectue le lancer
+	 * @param nbPointsCouronnes
+	 *            le nombre de point sur une couronne
+	 * @param rayon
+	 *            le rayon dans lequel on effectule lancer
+	 * @param addSphere
+	 *            ajoute le point visé sur la sphère pour les rayons sans
+	 *            intersection
+	 * @return une liste de point correspondant aux intersections entre les
+	 *         rayons et les faces des géométries
+	 */
+	private IDirectPositionList castBVH(IDirectPosition centre, IFeatureCollection<IFeature> lFeat,
+			int nbPointsCouronnes, double rayon, boolean addSphere, boolean isSphere) {
+
+		double pasAlpha = 2 * Math.PI / nbPointsCouronnes;
+
+		double pasBeta = 2 * Math.PI / (nbPointsCouronnes);
+
+		int nbPCouronnesP = nbPointsCouronnes;
+		int nbPCouronnesA = nbPointsCouronnes / 4;
+
+		if (isSphere) {
+			nbPCouronnesA = nbPCouronnesA * 2;
+
+		}
+
+		// Les points visés, dans l'ordre du lancer
+		DirectPositionList aims = new DirectPositionList();
+
+		for (int i = 0; i < nbPCouronnesP; i++) {
+
+			double alpha = i * pasAlpha;
+			double cosI = Math.cos(alpha);
+			double sinI = Math.sin(alpha);
+
+			for (int j = 0; j < nbPCouronnesA; j++) {
+
+				double beta;
+
+				if (isSphere) {
+					beta = j * pasBeta - Math.PI / 2;
+				} else {
+					beta = j * pasBeta;
+
+				}
+
+				double cosJ = Math.cos(beta);
+				double sinJ = Math.sin(beta);
+
+				aims.add(new DirectPosition(centre.getX() + rayon * sinI * cosJ,
+						centre.getY() + rayon * cosI * cosJ, centre.getZ() + rayon * sinJ));
+			}
+		}
+
+		FacetBVH bvh = new FacetBVH(lFeat);
+		IDirectPosition[] hits = bvh.castNearest(centre, aims, rayon);
+
+		DirectPositionList dplOut = new DirectPositionList();
+
+		for (int i = 0; i < hits.length; i++) {
+
+			if (hits[i] != null) {
+				dplOut.add(hits[i]);
+			} else if (addSphere) {
+				dplOut.add(aims.get(i));
+			}
+		}
+
+		return dplOut;
+
+	}
+
 	/**
 	 * Methode permettant de créer un lancer de rayon positive
 	 * 
@@ -1409,7 +1502,17 @@ public class RayCasting {
 
 	SphericalProjection sphericalProjection;
 
+	/**
+	 * Le lancer par hiérarchie de boîtes n'utilise pas de projection
+	 * sphérique : elle n'est alors calculée qu'à la première demande
+	 * 
+	 * @return la projection sphérique des entités depuis le centre
+	 */
 	public SphericalProjection getSphericalProjection() {
+		if (this.sphericalProjection == null && (this.resultType == RayCasting.TYPE_FIRST_POINT_INTERSECTED_BVH
+				|| this.resultType == RayCasting.TYPE_FIRST_POINT_AND_SPHERE_BVH)) {
+			this.sphericalProjection = new SphericalProjection(this.lFeat, this.centre, this.rayon, true);
+		}
 		return this.sphericalProjection;
 	}
 	
@@ -0,0 +1,826 @@
+package fr.ign.cogit.geoxygene.sig3d.dtm;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+import fr.ign.cogit.geoxygene.api.feature.IFeature;
+import fr.ign.cogit.geoxygene.api.feature.IFeatureCollection;
+import fr.ign.cogit.geoxygene.api.spatial.coordgeom.IDirectPosition;
+import fr.ign.cogit.geoxygene.api.spatial.coordgeom.IDirectPositionList;
+import fr.ign.cogit.geoxygene.api.spatial.coordgeom.IPolygon;
+import fr.ign.cogit.geoxygene.api.spatial.geomaggr.IAggregate;
+import fr.ign.cogit.geoxygene.api.spatial.geomaggr.IMultiCurve;
+import fr.ign.cogit.geoxygene.api.spatial.geomaggr.IMultiPoint;
+import fr.ign.cogit.geoxygene.api.spatial.geomaggr.IMultiSurface;
+import fr.ign.cogit.geoxygene.api.spatial.geomprim.ICurve;
+import fr.ign.cogit.geoxygene.api.spatial.geomprim.IOrientableCurve;
+import fr.ign.cogit.geoxygene.api.spatial.geomprim.IOrientableSurface;
+import fr.ign.cogit.geoxygene.api.spatial.geomprim.IPoint;
+import fr.ign.cogit.geoxygene.api.spatial.geomprim.IRing;
+import fr.ign.cogit.geoxygene.api.spatial.geomroot.IGeometry;
+import fr.ign.cogit.geoxygene.feature.FT_FeatureCollection;
+import fr.ign.cogit.geoxygene.spatial.coordgeom.DirectPosition;
+import fr.ign.cogit.geoxygene.spatial.coordgeom.DirectPositionList;
+import fr.ign.cogit.geoxygene.spatial.coordgeom.GM_LineString;
+import fr.ign.cogit.geoxygene.spatial.coordgeom.GM_Polygon;
+import fr.ign.cogit.geoxygene.spatial.geomaggr.GM_Aggregate;
+import fr.ign.cogit.geoxygene.spatial.geomaggr.GM_MultiCurve;
+import fr.ign.cogit.geoxygene.spatial.geomaggr.GM_MultiPoint;
+import fr.ign.cogit.geoxygene.spatial.geomaggr.GM_MultiSurface;
+import fr.ign.cogit.geoxygene.spatial.geomprim.GM_Point;
+import fr.ign.cogit.geoxygene.spatial.geomprim.GM_Ring;
+import fr.ign.cogit.geoxygene.util.ParallelChunks;
+
+/**
+ *
+ * This software is released under the licence CeCILL
+ *
+ * see LICENSE.TXT
+ *
+ * see <http://www.cecill.info/ http://www.cecill.info/
+ *
+ *
+ *
+ * @copyright IGN
+ *
+ * @version 1.7
+ *
+ *          MNT en grille sans dépendance à Java3D, utilisable dans des
+ *          traitements sans affichage. Les altitudes sont stockées en float
+ *          dans un fichier découpé en tuiles carrées et projeté en mémoire :
+ *          seules les tuiles utilisées sont chargées par le système, quelle
+ *          que soit la taille du MNT. Le noeud (i, j) de la grille se trouve
+ *          en (xIni + i * stepX, yIni + j * stepY), j croissant vers le nord.
+ *          Les traitements par lots sont faits en parallèle sur nbThreads
+ *          threads (cf. setNbThreads).
+ *
+ *          Headless grid DTM stored as memory-mapped float tiles, with bilinear
+ *          interpolation, draping of geometries and slope/aspect computation
+ *
+ */
+public class MappedDTM implements Closeable {
+
+  /**
+   * Taille par défaut (en nombre de noeuds) du côté d'une tuile
+   */
+  public static final int DEFAULT_TILE_SIZE = 256;
+
+  // "DTM1"
+  private static final int MAGIC = 0x44544D31;
+
+  private static final int HEADER_SIZE = 64;
+
+  private final RandomAccessFile raf;
+
+  private final int nX;
+  private final int nY;
+  private final double xIni;
+  private final double yIni;
+  private final double stepX;
+  private final double stepY;
+  private final float noDataValue;
+
+  private final int tileSize;
+  private final int nTilesX;
+  private final int nTilesY;
+
+  // Une projection par ligne de tuiles, les tuiles d'une ligne étant
+  // contiguës dans le fichier
+  private final FloatBuffer[] stripes;
+
+  // Nombre de threads des traitements par lots
+  private int nbThreads = ParallelChunks.getDefaultThreads();
+
+  private MappedDTM(RandomAccessFile raf, int nX, int nY, double xIni,
+      double yIni, double stepX, double stepY, float noDataValue, int tileSize,
+      boolean writable) throws IOException {
+
+    this.raf = raf;
+    this.nX = nX;
+    this.nY = nY;
+    this.xIni = xIni;
+    this.yIni = yIni;
+    this.stepX = stepX;
+    this.stepY = stepY;
+    this.noDataValue = noDataValue;
+    this.tileSize = tileSize;
+    this.nTilesX = (nX + tileSize - 1) / tileSize;
+    this.nTilesY = (nY + tileSize - 1) / tileSize;
+
+    long stripeSize = 4L * this.nTilesX * tileSize * tileSize;
+
+    if (stripeSize > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("Grid too wide for tiles of "
+          + tileSize + " nodes");
+    }
+
+    this.stripes = new FloatBuffer[this.nTilesY];
+
+    FileChannel channel = raf.getChannel();
+
+    for (int ty = 0; ty < this.nTilesY; ty++) {
+      this.stripes[ty] = channel
+          .map(writable ? FileChannel.MapMode.READ_WRITE
+              : FileChannel.MapMode.READ_ONLY, HEADER_SIZE + ty * stripeSize,
+              stripeSize).order(ByteOrder.nativeOrder()).asFloatBuffer();
+    }
+
+  }
+
+  /**
+   * Crée un MNT vide dans le fichier file (écrasé s'il existe). Les altitudes
+   * sont ensuite renseignées avec setValue.
+   *
+   * @param file le fichier contenant les tuiles
+   * @param nX le nombre de noeuds en X
+   * @param nY le nombre de noeuds en Y
+   * @param xIni le X du noeud sud-ouest
+   * @param yIni le Y du noeud sud-ouest
+   * @param stepX le pas en X
+   * @param stepY le pas en Y
+   * @param noDataValue la valeur indiquant l'absence de données
+   * @param tileSize le côté d'une tuile en nombre de noeuds
+   * @return le MNT, dont toutes les altitudes valent 0
+   * @throws IOException
+   */
+  public static MappedDTM create(File file, int nX, int nY, double xIni,
+      double yIni, double stepX, double stepY, double noDataValue, int tileSize)
+      throws IOException {
+
+    if (nX < 2 || nY < 2 || tileSize < 1) {
+      throw new IllegalArgumentException("A DTM needs at least 2 x 2 nodes");
+    }
+
+    RandomAccessFile raf = new RandomAccessFile(file, "rw");
+
+    try {
+
+      int nTilesX = (nX + tileSize - 1) / tileSize;
+      int nTilesY = (nY + tileSize - 1) / tileSize;
+
+      raf.setLength(0);
+      raf.setLength(HEADER_SIZE + 4L * nTilesX * nTilesY * tileSize
+          * tileSize);
+
+      ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+      header.putInt(MAGIC).putInt(nX).putInt(nY).putInt(tileSize);
+      header.putDouble(xIni).putDouble(yIni).putDouble(stepX)
+          .putDouble(stepY);
+      header.putFloat((float) noDataValue);
+      header.rewind();
+      raf.getChannel().write(header, 0);
+
+      return new MappedDTM(raf, nX, nY, xIni, yIni, stepX, stepY,
+          (float) noDataValue, tileSize, true);
+
+    } catch (IOException e) {
+      raf.close();
+      throw e;
+    }
+
+  }
+
+  /**
+   * Ouvre en lecture seule un MNT créé par create ou fromASC
+   *
+   * @param file le fichier contenant les tuiles
+   * @return le MNT
+   * @throws IOException
+   */
+  public static MappedDTM open(File file) throws IOException {
+
+    RandomAccessFile raf = new RandomAccessFile(file, "r");
+
+    try {
+
+      ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+      raf.getChannel().read(header, 0);
+      header.rewind();
+
+      if (header.getInt() != MAGIC) {
+        throw new IOException("Not a tiled DTM file : " + file);
+      }
+
+      int nX = header.getInt();
+      int nY = header.getInt();
+      int tileSize = header.getInt();
+
+      return new MappedDTM(raf, nX, nY, header.getDouble(),
+          header.getDouble(), header.getDouble(), header.getDouble(),
+          header.getFloat(), tileSize, false);
+
+    } catch (IOException e) {
+      raf.close();
+      throw e;
+    }
+
+  }
+
+  /**
+   * Convertit un fichier .asc (ESRI ASCII Grid) en MNT tuilé. Le fichier est
+   * lu ligne par ligne, sans être chargé en mémoire. Comme pour la classe DTM,
+   * xllcorner et yllcorner sont les coordonnées du noeud sud-ouest.
+   *
+   * @param ascFile le fichier .asc
+   * @param file le fichier des tuiles
+   * @return le MNT
+   * @throws IOException
+   */
+  public static MappedDTM fromASC(File ascFile, File file) throws IOException {
+
+    InputStream is = new FileInputStream(ascFile);
+
+    try {
+      return MappedDTM.fromASC(is, file);
+    } finally {
+      is.close();
+    }
+
+  }
+
+  /**
+   * Convertit un flux au format .asc (ESRI ASCII Grid) en MNT tuilé
+   *
+   * @param is le flux, qui n'est pas fermé
+   * @param file le fichier des tuiles
+   * @return le MNT
+   * @throws IOException
+   */
+  public static MappedDTM fromASC(InputStream is, File file)
+      throws IOException {
+
+    BufferedReader br = new BufferedReader(new InputStreamReader(is));
+
+    int ncols = -1;
+    int nrows = -1;
+    double xll = 0;
+    double yll = 0;
+    double dx = Double.NaN;
+    double dy = Double.NaN;
+    double noData = Double.NaN;
+
+    String ligne = br.readLine();
+
+    // Les lignes d'en-tête commencent par un mot clef
+    while (ligne != null) {
+
+      String[] result = ligne.trim().split("\\s+");
+
+      if (result[0].isEmpty()) {
+        ligne = br.readLine();
+        continue;
+      }
+
+      if (!Character.isLetter(result[0].charAt(0))) {
+        break;
+      }
+
+      String key = result[0].toLowerCase();
+      String value = result[result.length - 1];
+
+      if (key.equals("ncols")) {
+        ncols = Integer.parseInt(value);
+      } else if (key.equals("nrows")) {
+        nrows = Integer.parseInt(value);
+      } else if (key.startsWith("xll")) {
+        xll = Double.parseDouble(value);
+      } else if (key.startsWith("yll")) {
+        yll = Double.parseDouble(value);
+      } else if (key.equals("cellsize")) {
+        dx = Double.parseDouble(value);
+        dy = dx;
+      } else if (key.equals("dx")) {
+        dx = Double.parseDouble(value);
+      } else if (key.equals("dy")) {
+        dy = Double.parseDouble(value);
+      } else if (key.startsWith("nodata")) {
+        noData = Double.parseDouble(value);
+      }
+
+      ligne = br.readLine();
+    }
+
+    if (ncols < 0 || nrows < 0 || Double.isNaN(dx) || Double.isNaN(dy)) {
+      throw new IOException("Incomplete ASC header");
+    }
+
+    MappedDTM dtm = MappedDTM.create(file, ncols, nrows, xll, yll, dx, dy,
+        noData, DEFAULT_TILE_SIZE);
+
+    // Les valeurs d'une ligne de la grille peuvent être réparties sur
+    // plusieurs lignes du fichier
+    long nbValues = (long) ncols * nrows;
+    long k = 0;
+
+    while (ligne != null && k < nbValues) {
+
+      String[] result = ligne.trim().split("\\s+");
+
+      for (String s : result) {
+
+        if (s.isEmpty() || k >= nbValues) {
+          continue;
+        }
+
+        int i = (int) (k % ncols);
+        int j = nrows - 1 - (int) (k / ncols);
+        dtm.setValue(i, j, Float.parseFloat(s));
+        k++;
+      }
+
+      ligne = br.readLine();
+    }
+
+    if (k < nbValues) {
+      dtm.close();
+      throw new IOException("Missing values in ASC grid : " + k + " / "
+          + nbValues);
+    }
+
+    return dtm;
+
+  }
+
+  private int index(int i, int j) {
+    return ((i / this.tileSize) * this.tileSize + (j % this.tileSize))
+        * this.tileSize + (i % this.tileSize);
+  }
+
+  /**
+   * @param i l'indice du noeud en X
+   * @param j l'indice du noeud en Y (0 au sud)
+   * @return l'altitude stockée au noeud
+   */
+  public float getValue(int i, int j) {
+    return this.stripes[j / this.tileSize].get(this.index(i, j));
+  }
+
+  /**
+   * Renseigne l'altitude d'un noeud. Des noeuds différents peuvent être
+   * renseignés par plusieurs threads en même temps.
+   *
+   * @param i l'indice du noeud en X
+   * @param j l'indice du noeud en Y (0 au sud)
+   * @param z l'altitude
+   */
+  public void setValue(int i, int j, float z) {
+    this.stripes[j / this.tileSize].put(this.index(i, j), z);
+  }
+
+  /**
+   * @param z une valeur du MNT
+   * @return true si la valeur indique l'absence de données
+   */
+  public boolean isNoData(float z) {
+    return z == this.noDataValue || Float.isNaN(z);
+  }
+
+  /**
+   * Interpolation bilinéaire de l'altitude du MNT
+   *
+   * @param x
+   * @param y
+   * @return l'altitude en x, y ou NaN si le point est hors du MNT ou dans une
+   *         maille sans données
+   */
+  public double getHeight(double x, double y) {
+
+    double fx = (x - this.xIni) / this.stepX;
+    double fy = (y - this.yIni) / this.stepY;
+
+    if (!(fx >= 0 && fy >= 0 && fx <= this.nX - 1 && fy <= this.nY - 1)) {
+      return Double.NaN;
+    }
+
+    int i = Math.min((int) fx, this.nX - 2);
+    int j = Math.min((int) fy, this.nY - 2);
+
+    float z00 = this.getValue(i, j);
+    float z10 = this.getValue(i + 1, j);
+    float z01 = this.getValue(i, j + 1);
+    float z11 = this.getValue(i + 1, j + 1);
+
+    if (this.isNoData(z00) || this.isNoData(z10) || this.isNoData(z01)
+        || this.isNoData(z11)) {
+      return Double.NaN;
+    }
+
+    double u = fx - i;
+    double v = fy - j;
+
+    return (1 - v) * ((1 - u) * z00 + u * z10) + v * ((1 - u) * z01 + u * z11);
+
+  }
+
+  /**
+   * Calcule en parallèle l'altitude d'un ensemble de points
+   *
+   * @param x les X des points
+   * @param y les Y des points
+   * @return les altitudes, NaN hors du MNT
+   */
+  public double[] getHeights(final double[] x, final double[] y) {
+
+    final double[] z = new double[x.length];
+
+    ParallelChunks.forEach(x.length, this.nbThreads, (start, end) -> {
+      for (int k = start; k < end; k++) {
+        z[k] = this.getHeight(x[k], y[k]);
+      }
+    });
+
+    return z;
+
+  }
+
+  private DirectPosition cast(double x, double y, double offset) {
+
+    double z = this.getHeight(x, y);
+
+    // Comme AbstractDTM.castCoordinate, on renvoie 0 hors du MNT
+    if (Double.isNaN(z)) {
+      z = 0;
+    }
+
+    return new DirectPosition(x, y, z + offset);
+
+  }
+
+  /**
+   * Plaque une liste de points sur le MNT, en ajoutant un point à chaque
+   * intersection d'un segment avec une ligne de la grille
+   */
+  private DirectPositionList densify(IDirectPositionList dpl, double offset) {
+
+    DirectPositionList result = new DirectPositionList();
+
+    int nbPoints = dpl.size();
+
+    for (int k = 0; k < nbPoints; k++) {
+
+      IDirectPosition p = dpl.get(k);
+      result.add(this.cast(p.getX(), p.getY(), offset));
+
+      if (k == nbPoints - 1) {
+        break;
+      }
+
+      IDirectPosition q = dpl.get(k + 1);
+
+      double[] tX = crossings(p.getX(), q.getX(), this.xIni, this.stepX);
+      double[] tY = crossings(p.getY(), q.getY(), this.yIni, this.stepY);
+
+      double[] t = Arrays.copyOf(tX, tX.length + tY.length);
+      System.arraycopy(tY, 0, t, tX.length, tY.length);
+      Arrays.sort(t);
+
+      double tPrec = 0;
+
+      for (double tk : t) {
+
+        if (tk - tPrec < 1e-9 || 1 - tk < 1e-9) {
+          continue;
+        }
+
+        result.add(this.cast(p.getX() + tk * (q.getX() - p.getX()), p.getY()
+            + tk * (q.getY() - p.getY()), offset));
+        tPrec = tk;
+      }
+
+    }
+
+    return result;
+
+  }
+
+  // Paramètres des intersections du segment [a, b] avec les lignes
+  // ini + k * step
+  private static double[] crossings(double a, double b, double ini,
+      double step) {
+
+    if (a == b) {
+      return new double[0];
+    }
+
+    double fa = (a - ini) / step;
+    double fb = (b - ini) / step;
+
+    long kMin = (long) Math.floor(Math.min(fa, fb)) + 1;
+    long kMax = (long) Math.ceil(Math.max(fa, fb)) - 1;
+
+    if (kMax < kMin) {
+      return new double[0];
+    }
+
+    double[] t = new double[(int) (kMax - kMin + 1)];
+
+    for (long k = kMin; k <= kMax; k++) {
+      t[(int) (k - kMin)] = (k - fa) / (fb - fa);
+    }
+
+    return t;
+
+  }
+
+  /**
+   * Plaque une géométrie sur le MNT : les points reçoivent l'altitude du MNT
+   * augmentée de offset, et les lignes et contours de polygones sont
+   * densifiés aux intersections avec les lignes de la grille. Les points hors
+   * du MNT reçoivent l'altitude offset.
+   *
+   * @param geom une géométrie ponctuelle, linéaire, surfacique ou un agrégat
+   * @param offset l'altitude ajoutée à celle du MNT
+   * @return une nouvelle géométrie 3D
+   */
+  @SuppressWarnings("unchecked")
+  public IGeometry drape(IGeometry geom, double offset) {
+
+    if (geom instanceof IPoint) {
+
+      IDirectPosition dp = ((IPoint) geom).getPosition();
+      return new GM_Point(this.cast(dp.getX(), dp.getY(), offset));
+
+    }
+
+    if (geom instanceof ICurve) {
+
+      return new GM_LineString(this.densify(geom.coord(), offset));
+
+    }
+
+    if (geom instanceof IPolygon) {
+
+      IPolygon poly = (IPolygon) geom;
+
+      GM_Polygon result = new GM_Polygon(new GM_LineString(this.densify(poly
+          .getExterior().coord(), offset)));
+
+      for (IRing ring : poly.getInterior()) {
+        result.addInterior(new GM_Ring(new GM_LineString(this.densify(
+            ring.coord(), offset))));
+      }
+
+      return result;
+
+    }
+
+    if (geom instanceof IMultiPoint) {
+
+      GM_MultiPoint result = new GM_MultiPoint();
+
+      for (IPoint p : (IMultiPoint) geom) {
+        result.add((IPoint) this.drape(p, offset));
+      }
+
+      return result;
+
+    }
+
+    if (geom instanceof IMultiCurve<?>) {
+
+      GM_MultiCurve<IOrientableCurve> result = new GM_MultiCurve<IOrientableCurve>();
+
+      for (IOrientableCurve c : (IMultiCurve<IOrientableCurve>) geom) {
+        result.add((IOrientableCurve) this.drape(c, offset));
+      }
+
+      return result;
+
+    }
+
+    if (geom instanceof IMultiSurface<?>) {
+
+      GM_MultiSurface<IOrientableSurface> result = new GM_MultiSurface<IOrientableSurface>();
+
+      for (IOrientableSurface s : (IMultiSurface<IOrientableSurface>) geom) {
+        result.add((IOrientableSurface) this.drape(s, offset));
+      }
+
+      return result;
+
+    }
+
+    if (geom instanceof IAggregate<?>) {
+
+      GM_Aggregate<IGeometry> result = new GM_Aggregate<IGeometry>();
+
+      for (IGeometry g : (IAggregate<IGeometry>) geom) {
+        result.add(this.drape(g, offset));
+      }
+
+      return result;
+
+    }
+
+    throw new IllegalArgumentException("Unsupported geometry type : "
+        + geom.getClass().getName());
+
+  }
+
+  /**
+   * Plaque en parallèle les géométries d'une collection sur le MNT
+   *
+   * @param featColl la collection à plaquer
+   * @param offset l'altitude ajoutée à celle du MNT
+   * @return une nouvelle collection, dont les entités sont des copies de
+   *         celles de featColl avec les géométries plaquées
+   * @throws CloneNotSupportedException
+   */
+  public IFeatureCollection<IFeature> drape(
+      final IFeatureCollection<? extends IFeature> featColl,
+      final double offset) throws CloneNotSupportedException {
+
+    int nb = featColl.size();
+
+    final IGeometry[] geoms = new IGeometry[nb];
+
+    ParallelChunks.forEach(nb, this.nbThreads, (start, end) -> {
+      for (int i = start; i < end; i++) {
+        geoms[i] = this.drape(featColl.get(i).getGeom(), offset);
+      }
+    });
+
+    IFeatureCollection<IFeature> lObjFinal = new FT_FeatureCollection<IFeature>();
+
+    for (int i = 0; i < nb; i++) {
+      IFeature feat = featColl.get(i).cloneGeom();
+      feat.setGeom(geoms[i]);
+      lObjFinal.add(feat);
+    }
+
+    return lObjFinal;
+
+  }
+
+  /**
+   * Calcule la pente en degrés de chaque noeud (méthode de Horn), en
+   * parallèle tuile par tuile
+   *
+   * @param file le fichier des tuiles du résultat
+   * @return une grille de mêmes dimensions contenant les pentes
+   * @throws IOException
+   */
+  public MappedDTM slope(File file) throws IOException {
+    return this.derive(file, true);
+  }
+
+  /**
+   * Calcule l'orientation de chaque noeud (méthode de Horn), en degrés dans le
+   * sens horaire depuis le nord, -1 pour un terrain plat. Le calcul est fait
+   * en parallèle tuile par tuile.
+   *
+   * @param file le fichier des tuiles du résultat
+   * @return une grille de mêmes dimensions contenant les orientations
+   * @throws IOException
+   */
+  public MappedDTM aspect(File file) throws IOException {
+    return this.derive(file, false);
+  }
+
+  private MappedDTM derive(File file, final boolean slope) throws IOException {
+
+    final MappedDTM result = MappedDTM.create(file, this.nX, this.nY,
+        this.xIni, this.yIni, this.stepX, this.stepY, this.noDataValue,
+        this.tileSize);
+    result.setNbThreads(this.nbThreads);
+
+    // Une tuile par tâche
+    int nbTiles = this.nTilesX * this.nTilesY;
+
+    ParallelChunks.forEach(nbTiles, this.nbThreads, nbTiles, (t, end) -> {
+
+      int iMin = (t % this.nTilesX) * this.tileSize;
+      int jMin = (t / this.nTilesX) * this.tileSize;
+      int iMax = Math.min(iMin + this.tileSize, this.nX);
+      int jMax = Math.min(jMin + this.tileSize, this.nY);
+
+      double[] gradient = new double[2];
+
+      for (int j = jMin; j < jMax; j++) {
+        for (int i = iMin; i < iMax; i++) {
+
+          if (!this.gradient(i, j, gradient)) {
+            result.setValue(i, j, this.noDataValue);
+          } else if (slope) {
+            result.setValue(i, j, (float) Math.toDegrees(Math.atan(Math.hypot(
+                gradient[0], gradient[1]))));
+          } else if (gradient[0] == 0 && gradient[1] == 0) {
+            result.setValue(i, j, -1);
+          } else {
+            // Direction de la plus grande pente descendante
+            double aspect = Math.toDegrees(Math.atan2(-gradient[0],
+                -gradient[1]));
+            result.setValue(i, j, (float) (aspect < 0 ? aspect + 360 : aspect));
+          }
+
+        }
+      }
+
+    });
+
+    return result;
+
+  }
+
+  /**
+   * Gradient de Horn au noeud (i, j). Sur les bords, les différences sont
+   * calculées avec les noeuds existants.
+   *
+   * @return false si un des voisins n'a pas de données
+   */
+  private boolean gradient(int i, int j, double[] gradient) {
+
+    int im = Math.max(i - 1, 0);
+    int ip = Math.min(i + 1, this.nX - 1);
+    int jm = Math.max(j - 1, 0);
+    int jp = Math.min(j + 1, this.nY - 1);
+
+    // Voisinage de 3 x 3 noeuds, du sud-ouest au nord-est
+    float z0 = this.getValue(im, jm);
+    float z1 = this.getValue(i, jm);
+    float z2 = this.getValue(ip, jm);
+    float z3 = this.getValue(im, j);
+    float z5 = this.getValue(ip, j);
+    float z6 = this.getValue(im, jp);
+    float z7 = this.getValue(i, jp);
+    float z8 = this.getValue(ip, jp);
+
+    if (this.isNoData(z0) || this.isNoData(z1) || this.isNoData(z2)
+        || this.isNoData(z3) || this.isNoData(this.getValue(i, j))
+        || this.isNoData(z5) || this.isNoData(z6) || this.isNoData(z7)
+        || this.isNoData(z8)) {
+      return false;
+    }
+
+    gradient[0] = ((z2 + 2 * z5 + z8) - (z0 + 2 * z3 + z6))
+        / (4 * (ip - im) * this.stepX);
+    gradient[1] = ((z6 + 2 * z7 + z8) - (z0 + 2 * z1 + z2))
+        / (4 * (jp - jm) * this.stepY);
+
+    return true;
+
+  }
+
+  @Override
+  public void close() throws IOException {
+    this.raf.close();
+  }
+
+  public int getNX() {
+    return this.nX;
+  }
+
+  public int getNY() {
+    return this.nY;
+  }
+
+  public double getXIni() {
+    return this.xIni;
+  }
+
+  public double getYIni() {
+    return this.yIni;
+  }
+
+  public double getStepX() {
+    return this.stepX;
+  }
+
+  public double getStepY() {
+    return this.stepY;
+  }
+
+  public float getNoDataValue() {
+    return this.noDataValue;
+  }
+
+  public int getTileSize() {
+    return this.tileSize;
+  }
+
+  public int getNbThreads() {
+    return this.nbThreads;
+  }
+
+  /**
+   * @param nbThreads le nombre de threads des traitements par lots
+   *          (getHeights, drape d'une collection, slope, aspect), qui sont
+   *          faits dans le thread courant si 1. Par défaut le nombre de
+   *          processeurs.
+   */
+  public void setNbThreads(int nbThreads) {
+    this.nbThreads = nbThreads;
+  }
+
+}
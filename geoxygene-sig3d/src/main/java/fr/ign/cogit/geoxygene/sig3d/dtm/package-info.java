@@ -0,0 +1,20 @@
+/**
+ * 
+ *        This software is released under the licence CeCILL
+ * 
+ *        see LICENSE.TXT
+ * 
+ *        see <http://www.cecill.info/ http://www.cecill.info/
+ * 
+ * 
+ * 
+ * @copyright IGN
+ * 
+ * @version 1.7
+ * 
+ *
+ * Package contenant un MNT en grille tuilée, utilisable sans affichage
+ * 
+ * Package containing a headless tiled grid DTM
+ */
+package fr.ign.cogit.geoxygene.sig3d.dtm;
\ No newline at end of file
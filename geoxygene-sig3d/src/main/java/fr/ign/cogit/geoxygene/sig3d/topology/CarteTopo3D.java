@@ -1,9 +1,13 @@
 package fr.ign.cogit.geoxygene.sig3d.topology;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 
 import fr.ign.cogit.geoxygene.api.feature.IFeature;
+import fr.ign.cogit.geoxygene.api.spatial.coordgeom.IDirectPosition;
 import fr.ign.cogit.geoxygene.api.spatial.coordgeom.ITriangle;
 import fr.ign.cogit.geoxygene.api.spatial.geomprim.IOrientableSurface;
 import fr.ign.cogit.geoxygene.api.spatial.geomroot.IGeometry;
@@ -40,8 +44,29 @@ public class CarteTopo3D {
 
   public static final double AREA_EPSILON = 0.0001;
 
+  /**
+   * Tolérance utilisée par Triangle.equals pour comparer les sommets
+   */
+  private static final double TRIANGLE_TOLERANCE = 0.01;
+
+  /**
+   * Tolérance de fusion des sommets (0 : coordonnées identiques)
+   */
+  private final double tolerance;
+
   public CarteTopo3D(IGeometry geom) {
-  
+    this(geom, 0);
+  }
+
+  /**
+   * @param geom la géométrie à structurer
+   * @param tolerance distance en dessous de laquelle deux sommets sont
+   *          fusionnés
+   */
+  public CarteTopo3D(IGeometry geom, double tolerance) {
+
+    this.tolerance = tolerance;
+
     List<IOrientableSurface> lIOS = FromGeomToSurface.convertGeom(geom);
     
     
@@ -65,6 +90,14 @@ public class CarteTopo3D {
 
   private void process(List<ITriangle> lTri) {
 
+    // Index des sommets par case de grille (x, y), le z pouvant être NaN
+    Map<Long, List<Vertex>> vertexGrid = new HashMap<Long, List<Vertex>>();
+    Map<Vertex, Integer> vertexIds = new IdentityHashMap<Vertex, Integer>();
+    // Index des arrètes par couple (plus petit id, plus grand id) de sommets
+    Map<Long, Edge> edgeIndex = new HashMap<Long, Edge>();
+    // Index des triangles par case de leur premier sommet
+    Map<Long, List<Triangle>> triangleGrid = new HashMap<Long, List<Triangle>>();
+
     for (ITriangle tri : lTri) {
 
       // System.out.println(tri.area());
@@ -78,26 +111,9 @@ public class CarteTopo3D {
       Vertex v2 = new Vertex(tri.coord().get(1));
       Vertex v3 = new Vertex(tri.coord().get(2));
 
-      int index1 = lVertexTopo.indexOf(v1);
-      if (index1 != -1) {
-        v1 = lVertexTopo.get(index1);
-      } else {
-        lVertexTopo.add(v1);
-      }
-
-      int index2 = lVertexTopo.indexOf(v2);
-      if (index2 != -1) {
-        v2 = this.lVertexTopo.get(index2);
-      } else {
-        lVertexTopo.add(v2);
-      }
-
-      int index3 = lVertexTopo.indexOf(v3);
-      if (index3 != -1) {
-        v3 = this.lVertexTopo.get(index3);
-      } else {
-        lVertexTopo.add(v3);
-      }
+      v1 = this.getOrAddVertex(v1, vertexGrid, vertexIds);
+      v2 = this.getOrAddVertex(v2, vertexGrid, vertexIds);
+      v3 = this.getOrAddVertex(v3, vertexGrid, vertexIds);
 
       Triangle triangle = new Triangle(v1, v2, v3);
 
@@ -106,7 +122,7 @@ public class CarteTopo3D {
         triangle.equals((Object) tri);
       }
 
-      if (this.lTrianglesTopo.contains(triangle)) {
+      if (this.containsTriangle(triangle, triangleGrid)) {
         continue;
       }
 
@@ -115,19 +131,29 @@ public class CarteTopo3D {
       v3.ajouteTriangle(triangle);
 
       this.lTrianglesTopo.add(triangle);
+      long cellTri = cellKey((long) Math.floor(v1.getX() / TRIANGLE_TOLERANCE),
+          (long) Math.floor(v1.getY() / TRIANGLE_TOLERANCE));
+      List<Triangle> lTriCell = triangleGrid.get(cellTri);
+      if (lTriCell == null) {
+        lTriCell = new ArrayList<Triangle>(1);
+        triangleGrid.put(cellTri, lTriCell);
+      }
+      lTriCell.add(triangle);
 
       List<Edge> lE = new ArrayList<Edge>();
       lE.addAll(triangle.calculEdge());
 
       for (Edge eTemp : lE) {
 
-        int indexE = lEdgeTopo.indexOf(eTemp);
+        int id1 = vertexIds.get(eTemp.getVertIni());
+        int id2 = vertexIds.get(eTemp.getVertFin());
+        long keyE = ((long) Math.min(id1, id2) << 32) | Math.max(id1, id2);
 
-        if (indexE != -1) {
+        Edge eToAddTemp = edgeIndex.get(keyE);
 
-          triangle.calculEdge().remove(eTemp);
+        if (eToAddTemp != null) {
 
-          Edge eToAddTemp = lEdgeTopo.get(indexE);
+          triangle.calculEdge().remove(eTemp);
 
           triangle.calculEdge().add(eToAddTemp);
           eToAddTemp.getNeighbourTriangles().add(triangle);
@@ -135,6 +161,7 @@ public class CarteTopo3D {
         } else {
 
           lEdgeTopo.add(eTemp);
+          edgeIndex.put(keyE, eTemp);
 
         }
 
@@ -144,6 +171,88 @@ public class CarteTopo3D {
 
   }
 
+  /**
+   * Clé de la case (i, j) d'une grille en x et y. Les collisions sont
+   * possibles, les éléments d'une case sont de toute façon comparés un à un.
+   */
+  private static long cellKey(long i, long j) {
+    return i * 0x9E3779B97F4A7C15L + j;
+  }
+
+  /**
+   * Renvoie le premier sommet déjà créé égal à v (à la tolérance près), ou
+   * ajoute v à la liste des sommets. Les sommets proches sont recherchés dans
+   * la case de v et les cases voisines, comme l'aurait fait un parcours de la
+   * liste.
+   */
+  private Vertex getOrAddVertex(Vertex v, Map<Long, List<Vertex>> vertexGrid,
+      Map<Vertex, Integer> vertexIds) {
+
+    // Sans tolérance, les sommets égaux ont les mêmes x et y : une seule case
+    double size = this.tolerance > 0 ? this.tolerance : 1;
+    int range = this.tolerance > 0 ? 1 : 0;
+    long i = (long) Math.floor(v.getX() / size);
+    long j = (long) Math.floor(v.getY() / size);
+
+    Vertex found = null;
+    int foundId = Integer.MAX_VALUE;
+    for (long di = -range; di <= range; di++) {
+      for (long dj = -range; dj <= range; dj++) {
+        List<Vertex> lVCell = vertexGrid.get(cellKey(i + di, j + dj));
+        if (lVCell == null) {
+          continue;
+        }
+        for (Vertex vTemp : lVCell) {
+          int id = vertexIds.get(vTemp);
+          if (id < foundId && v.equals(vTemp, this.tolerance)) {
+            found = vTemp;
+            foundId = id;
+          }
+        }
+      }
+    }
+
+    if (found != null) {
+      return found;
+    }
+
+    vertexIds.put(v, this.lVertexTopo.size());
+    this.lVertexTopo.add(v);
+    long key = cellKey(i, j);
+    List<Vertex> lVCell = vertexGrid.get(key);
+    if (lVCell == null) {
+      lVCell = new ArrayList<Vertex>(1);
+      vertexGrid.put(key, lVCell);
+    }
+    lVCell.add(v);
+    return v;
+  }
+
+  /**
+   * Indique si un triangle égal (au sens de Triangle.equals, qui compare les
+   * sommets rang par rang) a déjà été ajouté
+   */
+  private boolean containsTriangle(Triangle triangle,
+      Map<Long, List<Triangle>> triangleGrid) {
+    IDirectPosition dp = triangle.getLVertices()[0];
+    long i = (long) Math.floor(dp.getX() / TRIANGLE_TOLERANCE);
+    long j = (long) Math.floor(dp.getY() / TRIANGLE_TOLERANCE);
+    for (long di = -1; di <= 1; di++) {
+      for (long dj = -1; dj <= 1; dj++) {
+        List<Triangle> lTriCell = triangleGrid.get(cellKey(i + di, j + dj));
+        if (lTriCell == null) {
+          continue;
+        }
+        for (Triangle tTemp : lTriCell) {
+          if (triangle.equals((Object) tTemp)) {
+            return true;
+          }
+        }
+      }
+    }
+    return false;
+  }
+
   private List<List<Triangle>> processGroupes() {
     List<List<Triangle>> lLTri = new ArrayList<List<Triangle>>();
     // On initialise
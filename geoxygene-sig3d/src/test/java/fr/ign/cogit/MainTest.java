@@ -2,10 +2,12 @@ package fr.ign.cogit;
 
 import fr.ign.cogit.calculation.TestCalculation3D;
 import fr.ign.cogit.calculation.TestProximity;
+import fr.ign.cogit.calculation.TestRayCastingBVH;
 import fr.ign.cogit.calculation.TestUtil;
 import fr.ign.cogit.convert.geom.TestFromGeomToSurface;
 import fr.ign.cogit.convert.geom.TestFromPolygonToLineString;
 import fr.ign.cogit.convert.transform.TestExtrusion2DObject;
+import fr.ign.cogit.dtm.TestMappedDTM;
 import fr.ign.cogit.equation.TestApproximatedPlanEquation;
 import fr.ign.cogit.equation.TestLineEquation;
 import fr.ign.cogit.equation.TestPlanEquation;
@@ -13,6 +15,7 @@ import fr.ign.cogit.geometry.TestBox3D;
 import fr.ign.cogit.geometry.TestTriangle;
 import fr.ign.cogit.geometry.TestVertex;
 import fr.ign.cogit.io.vector.TestShapeFileLoader;
+import fr.ign.cogit.topology.TestCarteTopo3D;
 import junit.framework.Test;
 import junit.framework.TestSuite;
 import junit.textui.TestRunner;
@@ -42,6 +45,9 @@ public class MainTest {
 		suite.addTestSuite(TestBox3D.class);
 		suite.addTestSuite(TestVertex.class);
 		suite.addTestSuite(TestTriangle.class);
+		suite.addTestSuite(TestRayCastingBVH.class);
+		suite.addTestSuite(TestCarteTopo3D.class);
+		suite.addTestSuite(TestMappedDTM.class);
 
 		return suite;
 
@@ -0,0 +1,256 @@
+package fr.ign.cogit.calculation;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.log4j.Logger;
+import org.junit.Test;
+
+import fr.ign.cogit.geoxygene.api.feature.IFeature;
+import fr.ign.cogit.geoxygene.api.feature.IFeatureCollection;
+import fr.ign.cogit.geoxygene.api.spatial.coordgeom.IDirectPosition;
+import fr.ign.cogit.geoxygene.api.spatial.coordgeom.IDirectPositionList;
+import fr.ign.cogit.geoxygene.api.spatial.coordgeom.IPolygon;
+import fr.ign.cogit.geoxygene.api.spatial.geomprim.IOrientableSurface;
+import fr.ign.cogit.geoxygene.contrib.geometrie.Vecteur;
+import fr.ign.cogit.geoxygene.convert.FromGeomToSurface;
+import fr.ign.cogit.geoxygene.feature.DefaultFeature;
+import fr.ign.cogit.geoxygene.feature.FT_FeatureCollection;
+import fr.ign.cogit.geoxygene.sig3d.calculation.Util;
+import fr.ign.cogit.geoxygene.sig3d.calculation.raycasting.FacetBVH;
+import fr.ign.cogit.geoxygene.sig3d.calculation.raycasting.RayCasting;
+import fr.ign.cogit.geoxygene.sig3d.equation.LineEquation;
+import fr.ign.cogit.geoxygene.spatial.coordgeom.DirectPosition;
+import fr.ign.cogit.geoxygene.spatial.coordgeom.DirectPositionList;
+import fr.ign.cogit.geoxygene.spatial.coordgeom.GM_LineString;
+import fr.ign.cogit.geoxygene.spatial.coordgeom.GM_Polygon;
+import fr.ign.cogit.geoxygene.spatial.geomprim.GM_Ring;
+import fr.ign.cogit.tools.Utils;
+import junit.framework.TestCase;
+
+public class TestRayCastingBVH extends TestCase {
+
+	// ---------------------------------- ATTRIBUTES ----------------------------------
+
+	private static double epsilon = Math.pow(10, -6);
+
+	private static Logger log = Logger.getLogger(TestRayCastingBVH.class);
+
+	// ----------------------------------- METHODS ------------------------------------
+
+	// Grille de cubes de tailles variables
+	private IFeatureCollection<IFeature> scene(int n) {
+		IFeatureCollection<IFeature> lFeat = new FT_FeatureCollection<IFeature>();
+		for (int i = 0; i < n; i++) {
+			for (int j = 0; j < n; j++) {
+				lFeat.add(new DefaultFeature(Utils.createCube(20 * i, 20 * j, 0, 5 + 3 * ((i + j) % 3))));
+			}
+		}
+		return lFeat;
+	}
+
+	// Intersection la plus proche en testant toutes les faces
+	private IDirectPosition bruteForce(List<IOrientableSurface> lOS, IDirectPosition origin, Vecteur dir,
+			double maxDistance) {
+		LineEquation lE = new LineEquation(origin, dir);
+		IDirectPosition nearest = null;
+		double dMin = Double.POSITIVE_INFINITY;
+		for (IOrientableSurface os : lOS) {
+			IDirectPosition dp = RayCasting.intersectionPolygonLine(lE, (IPolygon) os);
+			if (dp == null || new Vecteur(origin, dp).prodScalaire(dir) <= 0) {
+				continue;
+			}
+			double d = origin.distance(dp);
+			if (d < dMin && d <= maxDistance) {
+				dMin = d;
+				nearest = dp;
+			}
+		}
+		return nearest;
+	}
+
+	private void compare(FacetBVH bvh, List<IOrientableSurface> lOS, IDirectPosition origin, Vecteur dir) {
+		DirectPositionList aims = new DirectPositionList();
+		aims.add(new DirectPosition(origin.getX() + dir.getX(), origin.getY() + dir.getY(),
+				origin.getZ() + dir.getZ()));
+		IDirectPosition hit = bvh.castNearest(origin, aims, 500)[0];
+		IDirectPosition expected = this.bruteForce(lOS, origin, dir, 500);
+		if (expected == null) {
+			assertNull(hit);
+		} else {
+			assertNotNull(hit);
+			assertTrue("Wrong intersection " + hit + " " + expected, hit.equals(expected, epsilon));
+		}
+	}
+
+	@Test
+	// --------------------------------------------------------------------------------
+	// Test that the BVH gives the nearest intersections of the brute-force path
+	// --------------------------------------------------------------------------------
+	public void testSameAsBruteForce() {
+
+		log.info("Test that the BVH gives the nearest intersections of the brute-force path");
+
+		IFeatureCollection<IFeature> lFeat = this.scene(6);
+		FacetBVH bvh = new FacetBVH(lFeat);
+		List<IOrientableSurface> lOS = new ArrayList<IOrientableSurface>();
+		for (IFeature feat : lFeat) {
+			lOS.addAll(FromGeomToSurface.convertGeom(feat.getGeom()));
+		}
+		assertEquals(6 * 36, bvh.getNbFacets());
+
+		double[] offsets = { 1.37, 3.61, 6.2, 9.83, 12.4, 15.9 };
+		for (int i = 0; i < 6; i++) {
+			for (double dx : offsets) {
+				for (double dy : offsets) {
+					// Vers le bas, vers le haut depuis l'intérieur des cubes
+					this.compare(bvh, lOS, new DirectPosition(20 * i + dx, 20 * i + dy, 60), new Vecteur(0, 0, -1));
+					this.compare(bvh, lOS, new DirectPosition(20 * i + dx, 20 * i + dy, 1.1), new Vecteur(0, 0, 1));
+				}
+				// Horizontalement, à travers les rangées de cubes
+				this.compare(bvh, lOS, new DirectPosition(-5, 20 * i + dx, 2.3), new Vecteur(1, 0, 0));
+				this.compare(bvh, lOS, new DirectPosition(20 * i + dx, 150, 4.7), new Vecteur(0, -1, 0));
+			}
+		}
+
+		// Rayons obliques visant le centre des faces, depuis un point proche
+		// (décalé d'au moins 0.5 suivant chaque axe pour ne pas être parallèle)
+		Random random = new Random(43);
+		for (IOrientableSurface os : lOS) {
+			IDirectPosition center = Util.centerOf(os.coord());
+			double[] shift = new double[3];
+			for (int k = 0; k < 3; k++) {
+				shift[k] = (0.5 + random.nextDouble() / 2) * (random.nextBoolean() ? 1 : -1);
+			}
+			IDirectPosition origin = new DirectPosition(center.getX() + shift[0], center.getY() + shift[1],
+					center.getZ() + shift[2]);
+			this.compare(bvh, lOS, origin, new Vecteur(origin, center));
+		}
+
+	}
+
+	private void compareCast(int resultType, int resultTypeBVH) {
+		// Centre entre deux colonnes de cubes, pour qu'aucune face ne soit
+		// découpée par la projection sphérique
+		IDirectPosition centre = new DirectPosition(17.3, 13.7, 1.6);
+
+		RayCasting rC = new RayCasting(centre, this.scene(4), 40, 60, resultType, false);
+		rC.cast();
+		RayCasting rCBVH = new RayCasting(centre, this.scene(4), 40, 60, resultTypeBVH, false);
+		rCBVH.cast();
+
+		assertNotNull(rCBVH.getSphericalProjection());
+
+		IDirectPositionList expected = rC.getDpGenerated();
+		IDirectPositionList hits = rCBVH.getDpGenerated();
+		assertEquals(expected.size(), hits.size());
+		for (int i = 0; i < hits.size(); i++) {
+			assertTrue("Wrong intersection " + hits.get(i) + " " + expected.get(i),
+					hits.get(i).equals(expected.get(i), epsilon));
+		}
+	}
+
+	@Test
+	// --------------------------------------------------------------------------------
+	// Test that castBVH gives the points of the path based on the spherical
+	// projection
+	// --------------------------------------------------------------------------------
+	public void testSameAsCast() {
+
+		log.info("Test that castBVH gives the points of the path based on the spherical projection");
+
+		this.compareCast(RayCasting.TYPE_FIRST_POINT_INTERSECTED, RayCasting.TYPE_FIRST_POINT_INTERSECTED_BVH);
+		this.compareCast(RayCasting.TYPE_FIRST_POINT_AND_SPHERE, RayCasting.TYPE_FIRST_POINT_AND_SPHERE_BVH);
+
+	}
+
+	@Test
+	// --------------------------------------------------------------------------------
+	// Test that the rays go through the holes of the facets
+	// --------------------------------------------------------------------------------
+	public void testHole() {
+
+		log.info("Test that the rays go through the holes of the facets");
+
+		GM_Polygon square = Utils.createSquarePolygon(10, 0, 0);
+		DirectPositionList hole = new DirectPositionList();
+		hole.add(new DirectPosition(4, 4, 0));
+		hole.add(new DirectPosition(6, 4, 0));
+		hole.add(new DirectPosition(6, 6, 0));
+		hole.add(new DirectPosition(4, 6, 0));
+		hole.add(new DirectPosition(4, 4, 0));
+		square.addInterior(new GM_Ring(new GM_LineString(hole)));
+
+		DirectPositionList ground = Utils.createPointsList(100, -50, -50, -5);
+		ground.add(ground.get(0));
+
+		List<IOrientableSurface> lOS = new ArrayList<IOrientableSurface>();
+		lOS.add(square);
+		lOS.add(new GM_Polygon(new GM_LineString(ground)));
+		FacetBVH bvh = new FacetBVH(lOS);
+
+		IDirectPositionList aims = new DirectPositionList();
+		aims.add(new DirectPosition(2, 2, 0));
+		aims.add(new DirectPosition(5, 5, 0));
+		aims.add(new DirectPosition(30, 30, 0));
+		IDirectPosition[] hits = bvh.castNearest(new DirectPosition(2, 2, 10), aims, 100);
+
+		assertTrue(hits[0].equals(new DirectPosition(2, 2, 0), epsilon));
+		// Dans le trou, on atteint le sol
+		assertTrue(hits[1].equals(new DirectPosition(6.5, 6.5, -5), epsilon));
+		assertTrue(hits[2].equals(new DirectPosition(44, 44, -5), epsilon));
+
+		assertNull(bvh.castNearest(new DirectPosition(2, 2, 10), aims, 40)[2]);
+
+	}
+
+	@Test
+	// --------------------------------------------------------------------------------
+	// Benchmark of a batch of rays
+	// --------------------------------------------------------------------------------
+	public void testBenchmark() {
+
+		log.info("Benchmark of a batch of rays");
+
+		IFeatureCollection<IFeature> lFeat = this.scene(40);
+		long t = System.currentTimeMillis();
+		FacetBVH bvh = new FacetBVH(lFeat);
+		log.info(bvh.getNbFacets() + " facets, BVH built in " + (System.currentTimeMillis() - t) + " ms");
+
+		int nbRays = 200000;
+		double[] origins = new double[3 * nbRays];
+		double[] directions = new double[3 * nbRays];
+		Random random = new Random(42);
+		for (int i = 0; i < nbRays; i++) {
+			// 100 points de vue au niveau du sol, des rayons dans toutes les
+			// directions de la demi-sphère
+			int viewPoint = i / 2000;
+			origins[3 * i] = 17 + 20 * (viewPoint % 10) + 200;
+			origins[3 * i + 1] = 17 + 20 * (viewPoint / 10) + 200;
+			origins[3 * i + 2] = 1.6;
+			double alpha = random.nextDouble() * 2 * Math.PI;
+			double beta = random.nextDouble() * Math.PI / 2;
+			directions[3 * i] = Math.sin(alpha) * Math.cos(beta);
+			directions[3 * i + 1] = Math.cos(alpha) * Math.cos(beta);
+			directions[3 * i + 2] = Math.sin(beta);
+		}
+
+		double[] distances = new double[nbRays];
+		t = System.nanoTime();
+		int[] facets = bvh.castNearest(origins, directions, 500, distances);
+		double duration = (System.nanoTime() - t) / 1e9;
+		log.info(nbRays + " rays in " + duration + " s : " + Math.round(nbRays / duration) + " rays/s");
+
+		int nbHits = 0;
+		for (int i = 0; i < nbRays; i++) {
+			if (facets[i] >= 0) {
+				nbHits++;
+				assertTrue(distances[i] <= 500);
+			}
+		}
+		assertTrue(nbHits > 0 && nbHits < nbRays);
+
+	}
+
+}
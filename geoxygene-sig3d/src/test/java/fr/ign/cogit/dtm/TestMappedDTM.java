@@ -0,0 +1,180 @@
+package fr.ign.cogit.dtm;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+import org.apache.log4j.Logger;
+import org.junit.Test;
+
+import fr.ign.cogit.geoxygene.api.spatial.coordgeom.IDirectPosition;
+import fr.ign.cogit.geoxygene.api.spatial.coordgeom.IDirectPositionList;
+import fr.ign.cogit.geoxygene.api.spatial.coordgeom.IPolygon;
+import fr.ign.cogit.geoxygene.sig3d.dtm.MappedDTM;
+import fr.ign.cogit.geoxygene.spatial.coordgeom.DirectPosition;
+import fr.ign.cogit.geoxygene.spatial.coordgeom.DirectPositionList;
+import fr.ign.cogit.geoxygene.spatial.coordgeom.GM_LineString;
+import fr.ign.cogit.tools.Utils;
+import junit.framework.TestCase;
+
+public class TestMappedDTM extends TestCase {
+
+	// ---------------------------------- ATTRIBUTES ----------------------------------
+
+	private static double epsilon = Math.pow(10, -4);
+
+	private static Logger log = Logger.getLogger(TestMappedDTM.class);
+
+	// ----------------------------------- METHODS ------------------------------------
+
+	private static double plane(double x, double y) {
+		return 100 + 0.5 * (x - 1000) - 0.25 * (y - 2000);
+	}
+
+	// MNT .asc de 7 x 5 noeuds au pas de 10 sur un plan, avec une valeur
+	// NoData au noeud nord-est
+	private File asc() throws IOException {
+		File f = File.createTempFile("dtm", ".asc");
+		f.deleteOnExit();
+		Writer w = new FileWriter(f);
+		w.write("ncols 7\nnrows 5\nxllcorner 1000\nyllcorner 2000\ncellsize 10\nNODATA_value -9999\n");
+		for (int r = 0; r < 5; r++) {
+			for (int i = 0; i < 7; i++) {
+				if (r == 0 && i == 6) {
+					w.write(" -9999");
+				} else {
+					w.write(" " + plane(1000 + 10 * i, 2000 + 10 * (4 - r)));
+				}
+			}
+			w.write("\n");
+		}
+		w.close();
+		return f;
+	}
+
+	private File tiles() throws IOException {
+		File f = File.createTempFile("dtm", ".tiles");
+		f.deleteOnExit();
+		return f;
+	}
+
+	@Test
+	// --------------------------------------------------------------------------------
+	// Test the bilinear interpolation on a DTM read from an ASC file
+	// --------------------------------------------------------------------------------
+	public void testFromASC() throws IOException {
+
+		log.info("Test the bilinear interpolation on a DTM read from an ASC file");
+
+		File tiles = this.tiles();
+		MappedDTM dtm = MappedDTM.fromASC(this.asc(), tiles);
+
+		assertEquals(7, dtm.getNX());
+		assertEquals(5, dtm.getNY());
+		assertEquals(100, dtm.getValue(0, 0), epsilon);
+		assertTrue(dtm.isNoData(dtm.getValue(6, 4)));
+
+		double[] x = { 1000, 1013.7, 1042.2, 1060, 1059, 1030 };
+		double[] y = { 2000, 2027.4, 2005.5, 2000, 2039, 2040 };
+		double[] z = dtm.getHeights(x, y);
+		for (int k = 0; k < x.length - 1; k++) {
+			assertEquals(plane(x[k], y[k]), z[k], epsilon);
+		}
+		dtm.close();
+
+		// Maille contenant la valeur NoData et points hors du MNT
+		assertTrue(Double.isNaN(z[4]));
+		assertEquals(plane(1030, 2040), z[5], epsilon);
+
+		MappedDTM reopened = MappedDTM.open(tiles);
+		assertEquals(plane(1042.2, 2005.5), reopened.getHeight(1042.2, 2005.5), epsilon);
+		assertTrue(Double.isNaN(reopened.getHeight(999, 2010)));
+		assertTrue(Double.isNaN(reopened.getHeight(1010, 2040.1)));
+		reopened.close();
+
+	}
+
+	@Test
+	// --------------------------------------------------------------------------------
+	// Test the densification of the draped geometries
+	// --------------------------------------------------------------------------------
+	public void testDrape() throws IOException {
+
+		log.info("Test the densification of the draped geometries");
+
+		MappedDTM dtm = MappedDTM.fromASC(this.asc(), this.tiles());
+
+		DirectPositionList dpl = new DirectPositionList();
+		dpl.add(new DirectPosition(1005, 2005));
+		dpl.add(new DirectPosition(1035, 2025));
+		IDirectPositionList draped = dtm.drape(new GM_LineString(dpl), 2).coord();
+
+		// 3 lignes de la grille en X, 2 en Y, aux extrémités près
+		assertEquals(7, draped.size());
+		double xPrec = 1000;
+		for (IDirectPosition dp : draped) {
+			assertTrue(dp.getX() > xPrec);
+			xPrec = dp.getX();
+			assertEquals(2005 + (dp.getX() - 1005) * 2 / 3, dp.getY(), epsilon);
+			assertEquals(plane(dp.getX(), dp.getY()) + 2, dp.getZ(), epsilon);
+		}
+
+		IPolygon square = Utils.createSquarePolygon(20, 1020, 2020);
+		IPolygon drapedSquare = (IPolygon) dtm.drape(square, 0);
+		assertEquals(square.coord().size() + 4, drapedSquare.coord().size());
+		for (IDirectPosition dp : drapedSquare.coord()) {
+			assertEquals(plane(dp.getX(), dp.getY()), dp.getZ(), epsilon);
+		}
+
+		dtm.close();
+
+	}
+
+	@Test
+	// --------------------------------------------------------------------------------
+	// Test the slope and aspect computed over several tiles
+	// --------------------------------------------------------------------------------
+	public void testSlopeAspect() throws IOException {
+
+		log.info("Test the slope and aspect computed over several tiles");
+
+		// Versant montant vers l'est (pente 45°), sur des tuiles de 4 x 4
+		// noeuds
+		MappedDTM dtm = MappedDTM.create(this.tiles(), 10, 9, 0, 0, 2, 2, -9999, 4);
+		for (int j = 0; j < 9; j++) {
+			for (int i = 0; i < 10; i++) {
+				dtm.setValue(i, j, 2 * i);
+			}
+		}
+		dtm.setValue(5, 5, -9999);
+
+		MappedDTM slope = dtm.slope(this.tiles());
+		MappedDTM aspect = dtm.aspect(this.tiles());
+
+		for (int j = 0; j < 9; j++) {
+			for (int i = 0; i < 10; i++) {
+				if (Math.abs(i - 5) <= 1 && Math.abs(j - 5) <= 1) {
+					assertTrue(slope.isNoData(slope.getValue(i, j)));
+					assertTrue(aspect.isNoData(aspect.getValue(i, j)));
+				} else {
+					assertEquals(45, slope.getValue(i, j), epsilon);
+					// La pente descend vers l'ouest
+					assertEquals(270, aspect.getValue(i, j), epsilon);
+				}
+			}
+		}
+
+		// Terrain plat
+		MappedDTM flat = MappedDTM.create(this.tiles(), 3, 3, 0, 0, 1, 1, -9999, 4);
+		assertEquals(-1, flat.aspect(this.tiles()).getValue(1, 1), epsilon);
+		assertEquals(0, flat.slope(this.tiles()).getValue(1, 1), epsilon);
+
+		dtm.close();
+		slope.close();
+		aspect.close();
+		flat.close();
+
+	}
+
+}
@@ -0,0 +1,234 @@
+package fr.ign.cogit.topology;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.log4j.Logger;
+import org.junit.Test;
+
+import fr.ign.cogit.geoxygene.api.spatial.coordgeom.ITriangle;
+import fr.ign.cogit.geoxygene.api.spatial.geomprim.IOrientableSurface;
+import fr.ign.cogit.geoxygene.convert.FromGeomToSurface;
+import fr.ign.cogit.geoxygene.sig3d.convert.geom.FromPolygonToTriangle;
+import fr.ign.cogit.geoxygene.sig3d.geometry.topology.Edge;
+import fr.ign.cogit.geoxygene.sig3d.geometry.topology.Triangle;
+import fr.ign.cogit.geoxygene.sig3d.geometry.topology.Vertex;
+import fr.ign.cogit.geoxygene.sig3d.topology.CarteTopo3D;
+import fr.ign.cogit.geoxygene.spatial.coordgeom.DirectPosition;
+import fr.ign.cogit.geoxygene.spatial.coordgeom.DirectPositionList;
+import fr.ign.cogit.geoxygene.spatial.coordgeom.GM_LineString;
+import fr.ign.cogit.geoxygene.spatial.coordgeom.GM_Polygon;
+import fr.ign.cogit.geoxygene.spatial.geomaggr.GM_MultiSurface;
+import junit.framework.TestCase;
+
+public class TestCarteTopo3D extends TestCase {
+
+	// ---------------------------------- ATTRIBUTES ----------------------------------
+
+	private static Logger log = Logger.getLogger(TestCarteTopo3D.class);
+
+	// ----------------------------------- METHODS ------------------------------------
+
+	private GM_Polygon polygon(DirectPosition... dps) {
+		DirectPositionList dpl = new DirectPositionList();
+		for (DirectPosition dp : dps) {
+			dpl.add(dp);
+		}
+		dpl.add(dps[0]);
+		return new GM_Polygon(new GM_LineString(dpl));
+	}
+
+	// Terrain maillé en carrés, avec des triangles répétés (dans le même ordre
+	// ou non) et des sommets légèrement décalés
+	private GM_MultiSurface<IOrientableSurface> mesh(int n, Random random) {
+		double[][] z = new double[n + 1][n + 1];
+		for (int i = 0; i <= n; i++) {
+			for (int j = 0; j <= n; j++) {
+				z[i][j] = random.nextInt(4);
+			}
+		}
+		GM_MultiSurface<IOrientableSurface> ms = new GM_MultiSurface<IOrientableSurface>();
+		for (int i = 0; i < n; i++) {
+			for (int j = 0; j < n; j++) {
+				DirectPosition p1 = new DirectPosition(i, j, z[i][j]);
+				DirectPosition p2 = new DirectPosition(i + 1, j, z[i + 1][j]);
+				DirectPosition p3 = new DirectPosition(i + 1, j + 1, z[i + 1][j + 1]);
+				DirectPosition p4 = new DirectPosition(i, j + 1, z[i][j + 1]);
+				switch (random.nextInt(5)) {
+				case 0:
+					ms.add(this.polygon(p1, p2, p3, p4));
+					break;
+				case 1:
+					ms.add(this.polygon(p1, p2, p3));
+					ms.add(this.polygon(p3, p4, p1));
+					ms.add(this.polygon(p1, p2, p3));
+					break;
+				case 2:
+					ms.add(this.polygon(p1, p2, p3));
+					ms.add(this.polygon(p3, p4, p1));
+					ms.add(this.polygon(p4, p1, p3));
+					break;
+				case 3:
+					ms.add(this.polygon(p1, p2, p3));
+					ms.add(this.polygon(p3, p4, p1));
+					ms.add(this.polygon(new DirectPosition(i + 0.005, j, z[i][j]), p2, p3));
+					break;
+				default:
+					ms.add(this.polygon(p1, p2, p4));
+					ms.add(this.polygon(p2, p3, p4));
+				}
+			}
+		}
+		return ms;
+	}
+
+	// Construction de la topologie par parcours des listes
+	private void reference(List<ITriangle> lTri, List<Vertex> lVertex, List<Edge> lEdge,
+			List<Triangle> lTriangle) {
+		for (ITriangle tri : lTri) {
+			if (tri.area() < CarteTopo3D.AREA_EPSILON) {
+				continue;
+			}
+			Vertex[] v = new Vertex[3];
+			for (int k = 0; k < 3; k++) {
+				v[k] = new Vertex(tri.coord().get(k));
+				int index = lVertex.indexOf(v[k]);
+				if (index != -1) {
+					v[k] = lVertex.get(index);
+				} else {
+					lVertex.add(v[k]);
+				}
+			}
+			Triangle triangle = new Triangle(v[0], v[1], v[2]);
+			if (lTriangle.contains(triangle)) {
+				continue;
+			}
+			for (int k = 0; k < 3; k++) {
+				v[k].ajouteTriangle(triangle);
+			}
+			lTriangle.add(triangle);
+			for (Edge eTemp : new ArrayList<Edge>(triangle.calculEdge())) {
+				int indexE = lEdge.indexOf(eTemp);
+				if (indexE != -1) {
+					triangle.calculEdge().remove(eTemp);
+					triangle.calculEdge().add(lEdge.get(indexE));
+					lEdge.get(indexE).getNeighbourTriangles().add(triangle);
+				} else {
+					lEdge.add(eTemp);
+				}
+			}
+		}
+	}
+
+	private int[] indexes(List<Vertex> lVertex, Vertex... vertices) {
+		int[] indexes = new int[vertices.length];
+		for (int k = 0; k < vertices.length; k++) {
+			indexes[k] = -1;
+			for (int l = 0; l < lVertex.size(); l++) {
+				if (lVertex.get(l) == vertices[k]) {
+					indexes[k] = l;
+				}
+			}
+		}
+		return indexes;
+	}
+
+	@Test
+	// --------------------------------------------------------------------------------
+	// Test that the hashed topology is the one built by list traversal
+	// --------------------------------------------------------------------------------
+	public void testSameTopology() {
+
+		log.info("Test that the hashed topology is the one built by list traversal");
+
+		GM_MultiSurface<IOrientableSurface> ms = this.mesh(12, new Random(42));
+		CarteTopo3D carte = new CarteTopo3D(ms);
+
+		List<Vertex> lVertex = new ArrayList<Vertex>();
+		List<Edge> lEdge = new ArrayList<Edge>();
+		List<Triangle> lTriangle = new ArrayList<Triangle>();
+		this.reference(FromPolygonToTriangle.convertAndTriangle(FromGeomToSurface.convertGeom(ms)), lVertex,
+				lEdge, lTriangle);
+
+		assertEquals(lVertex.size(), carte.getlVertexTopo().size());
+		for (int k = 0; k < lVertex.size(); k++) {
+			assertTrue(lVertex.get(k).equals(carte.getlVertexTopo().get(k), 0));
+			assertEquals(lVertex.get(k).getLTRiRel().size(), carte.getlVertexTopo().get(k).getLTRiRel().size());
+		}
+
+		assertEquals(lTriangle.size(), carte.getlTrianglesTopo().size());
+		for (int k = 0; k < lTriangle.size(); k++) {
+			Triangle t1 = lTriangle.get(k);
+			Triangle t2 = carte.getlTrianglesTopo().get(k);
+			assertTrue(java.util.Arrays.equals(this.indexes(lVertex, t1.getLVertices()),
+					this.indexes(carte.getlVertexTopo(), t2.getLVertices())));
+			List<Edge> lE1 = t1.calculEdge();
+			List<Edge> lE2 = t2.calculEdge();
+			for (int e = 0; e < 3; e++) {
+				assertEquals(lEdge.indexOf(lE1.get(e)), carte.getlEdgeTopo().indexOf(lE2.get(e)));
+				assertEquals(lE1.get(e).getNeighbourTriangles().size(), lE2.get(e).getNeighbourTriangles().size());
+			}
+		}
+
+		assertEquals(lEdge.size(), carte.getlEdgeTopo().size());
+		for (int k = 0; k < lEdge.size(); k++) {
+			Edge e1 = lEdge.get(k);
+			Edge e2 = carte.getlEdgeTopo().get(k);
+			assertTrue(java.util.Arrays.equals(this.indexes(lVertex, e1.getVertIni(), e1.getVertFin()),
+					this.indexes(carte.getlVertexTopo(), e2.getVertIni(), e2.getVertFin())));
+		}
+
+	}
+
+	@Test
+	// --------------------------------------------------------------------------------
+	// Test the topology of a large regular mesh
+	// --------------------------------------------------------------------------------
+	public void testLargeMesh() {
+
+		log.info("Test the topology of a large regular mesh");
+
+		int n = 200;
+		GM_MultiSurface<IOrientableSurface> ms = new GM_MultiSurface<IOrientableSurface>();
+		for (int i = 0; i < n; i++) {
+			for (int j = 0; j < n; j++) {
+				ms.add(this.polygon(new DirectPosition(i, j, 0), new DirectPosition(i + 1, j, 0),
+						new DirectPosition(i + 1, j + 1, 1), new DirectPosition(i, j + 1, 1)));
+			}
+		}
+
+		long t = System.currentTimeMillis();
+		CarteTopo3D carte = new CarteTopo3D(ms);
+		t = System.currentTimeMillis() - t;
+		log.info(2 * n * n + " triangles in " + t + " ms");
+
+		assertEquals((n + 1) * (n + 1), carte.getlVertexTopo().size());
+		assertEquals(3 * n * n + 2 * n, carte.getlEdgeTopo().size());
+		assertEquals(2 * n * n, carte.getlTrianglesTopo().size());
+
+	}
+
+	@Test
+	// --------------------------------------------------------------------------------
+	// Test the merging of close vertices
+	// --------------------------------------------------------------------------------
+	public void testTolerance() {
+
+		log.info("Test the merging of close vertices");
+
+		GM_MultiSurface<IOrientableSurface> ms = new GM_MultiSurface<IOrientableSurface>();
+		ms.add(this.polygon(new DirectPosition(0, 0, 0), new DirectPosition(1, 0, 0), new DirectPosition(1, 1, 0)));
+		ms.add(this.polygon(new DirectPosition(1.0004, 1, 0), new DirectPosition(0, 1, 0),
+				new DirectPosition(-0.0004, 0, 0)));
+
+		assertEquals(6, new CarteTopo3D(ms).getlVertexTopo().size());
+
+		CarteTopo3D carte = new CarteTopo3D(ms, 0.001);
+		assertEquals(4, carte.getlVertexTopo().size());
+		assertEquals(5, carte.getlEdgeTopo().size());
+		assertEquals(1, carte.getlTrianglesTopo().get(0).getNeighBourTriangles().size());
+
+	}
+
+}
@@ -2,6 +2,7 @@ package fr.ign.cogit.geoxygene.distance;
 
 import java.util.ArrayList;
 import java.util.List;
+
 import fr.ign.cogit.geoxygene.api.spatial.coordgeom.IDirectPosition;
 import fr.ign.cogit.geoxygene.api.spatial.coordgeom.IDirectPositionList;
 import fr.ign.cogit.geoxygene.api.spatial.coordgeom.ILineString;
@@ -11,6 +12,8 @@ import fr.ign.cogit.geoxygene.spatial.coordgeom.DirectPosition;
 import fr.ign.cogit.geoxygene.spatial.coordgeom.DirectPositionList;
 import fr.ign.cogit.geoxygene.spatial.coordgeom.GM_LineString;
 import fr.ign.cogit.geoxygene.spatial.coordgeom.GM_Polygon;
+import fr.ign.cogit.geoxygene.util.ParallelChunks;
+import fr.ign.cogit.geoxygene.util.ParallelChunks.RangeTask;
 
 /**
  * A class to compute the Fréchet distance.
@@ -18,48 +21,108 @@ import fr.ign.cogit.geoxygene.spatial.coordgeom.GM_Polygon;
  */
 public class Frechet {
   /**
-   * Internal method for computing the discrete Fréchet distance using a dynamic
-   * programming approach.
-   * @param p linestring
-   * @param q linestring
-   * @param i index on p
-   * @param j index on q
-   * @param ca matrix containing the computed distances between the points from
-   *          p and q. Its size is p*q.
-   * @return the coupling measure between points i of p and j of q
-   * @see #discreteFrechet(ILineString, ILineString)
+   * Coordinates of the vertices of a polygonal curve, extracted once so that
+   * the dynamic programming loops work on primitive arrays.
    */
-  private static double discreteFrechetCouplingMeasure(ILineString p,
-      ILineString q, int i, int j, double[][] ca) {
-    if (ca[i][j] > -1) {
-      return ca[i][j];
-    }
-    double d = p.getControlPoint(i).distance(q.getControlPoint(j));
-    if (i == 0 && j == 0) {
-      return ca[i][j] = d;
+  private static final class Curve {
+    final double[] x, y, z;
+    /** bounding box: xmin, ymin, xmax, ymax */
+    final double[] box = new double[] { Double.POSITIVE_INFINITY,
+        Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY,
+        Double.NEGATIVE_INFINITY };
+
+    Curve(List<IDirectPosition> points) {
+      int n = points.size();
+      this.x = new double[n];
+      this.y = new double[n];
+      this.z = new double[n];
+      for (int i = 0; i < n; i++) {
+        IDirectPosition point = points.get(i);
+        this.x[i] = point.getX();
+        this.y[i] = point.getY();
+        this.z[i] = point.getZ();
+        this.box[0] = Math.min(this.box[0], this.x[i]);
+        this.box[1] = Math.min(this.box[1], this.y[i]);
+        this.box[2] = Math.max(this.box[2], this.x[i]);
+        this.box[3] = Math.max(this.box[3], this.y[i]);
+      }
     }
-    if (i > 0 && j == 0) {
-      return ca[i][j] = Math.max(
-          discreteFrechetCouplingMeasure(p, q, i - 1, j, ca), d);
+
+    Curve(ILineString line) {
+      this(line.coord().getList());
     }
-    if (i == 0 && j > 0) {
-      return ca[i][j] = Math.max(
-          discreteFrechetCouplingMeasure(p, q, i, j - 1, ca), d);
+
+    int size() {
+      return this.x.length;
     }
-    if (i > 0 && j > 0) {
-      return ca[i][j] = Math.max(Math.min(
-          discreteFrechetCouplingMeasure(p, q, i - 1, j, ca), Math.min(
-              discreteFrechetCouplingMeasure(p, q, i - 1, j - 1, ca),
-              discreteFrechetCouplingMeasure(p, q, i, j - 1, ca))), d);
+
+    /**
+     * Same as {@link IDirectPosition#distance(IDirectPosition)}: 3D if both z
+     * are defined, 2D otherwise.
+     */
+    double distance(int i, Curve q, int j) {
+      double dx = this.x[i] - q.x[j];
+      double dy = this.y[i] - q.y[j];
+      double z1 = this.z[i], z2 = q.z[j];
+      if (!Double.isNaN(z1) && !Double.isNaN(z2) && !Double.isInfinite(z1)
+          && !Double.isInfinite(z2)) {
+        double dz = z1 - z2;
+        return Math.sqrt(dx * dx + dy * dy + dz * dz);
+      }
+      return Math.sqrt(dx * dx + dy * dy);
     }
+  }
 
-    return ca[i][j] = Double.POSITIVE_INFINITY;
+  /**
+   * Discrete Fréchet distance computed row by row, keeping only two rows of
+   * the coupling matrix. The computation stops as soon as all the couplings
+   * of a row exceed <code>bound</code>: every coupling goes through each row,
+   * so the distance is then greater than the bound.
+   * @return the discrete Fréchet distance, or positive infinity if it is
+   *         greater than bound
+   */
+  private static double discreteFrechet(Curve p, Curve q, double bound) {
+    int sizeP = p.size();
+    int sizeQ = q.size();
+    if (sizeP == 0 || sizeQ == 0) {
+      return Double.NaN;
+    }
+    double[] previous = new double[sizeQ];
+    double[] current = new double[sizeQ];
+    double rowMin = Double.POSITIVE_INFINITY;
+    for (int j = 0; j < sizeQ; j++) {
+      double d = p.distance(0, q, j);
+      previous[j] = (j == 0) ? d : Math.max(previous[j - 1], d);
+      rowMin = Math.min(rowMin, previous[j]);
+    }
+    if (rowMin > bound) {
+      return Double.POSITIVE_INFINITY;
+    }
+    for (int i = 1; i < sizeP; i++) {
+      current[0] = Math.max(previous[0], p.distance(i, q, 0));
+      rowMin = current[0];
+      for (int j = 1; j < sizeQ; j++) {
+        double best = Math.min(previous[j], Math.min(previous[j - 1],
+            current[j - 1]));
+        current[j] = Math.max(best, p.distance(i, q, j));
+        if (current[j] < rowMin) {
+          rowMin = current[j];
+        }
+      }
+      if (rowMin > bound) {
+        return Double.POSITIVE_INFINITY;
+      }
+      double[] swap = previous;
+      previous = current;
+      current = swap;
+    }
+    return previous[sizeQ - 1];
   }
 
   /**
    * Discrete Fréchet distance.
    * <p>
-   * Complexity O(pq).
+   * Complexity O(pq) in time, O(q) in memory.
    * <p>
    * Eiter, Thomas; Mannila, Heikki (1994), Computing discrete Fréchet distance,
    * Tech. Report CD-TR 94/64, Christian Doppler Laboratory for Expert Systems,
@@ -69,19 +132,157 @@ public class Frechet {
    * @return the discrete Fréchet distance between the 2 input polygonal curves
    */
   public static double discreteFrechet(ILineString p, ILineString q) {
-    // System.out.println("FRECHET P = " + p);
-    // System.out.println("FRECHET Q = " + q);
-    int sizeP = p.sizeControlPoint();
-    int sizeQ = q.sizeControlPoint();
-    double[][] ca = new double[sizeP][sizeQ];
-    for (int i = 0; i < sizeP; i++) {
-      for (int j = 0; j < sizeQ; j++) {
-        ca[i][j] = -1.0;
+    return discreteFrechet(new Curve(p), new Curve(q),
+        Double.POSITIVE_INFINITY);
+  }
+
+  /**
+   * Lower bound of the discrete Fréchet distance: distances between the
+   * endpoints, which are always coupled, and between the sides of the
+   * bounding boxes (the vertex of a curve with the minimum x is coupled to a
+   * vertex of the other curve whose x is greater than its minimum x, and
+   * conversely).
+   */
+  private static double lowerBound(Curve p, Curve q) {
+    double bound = Math.max(p.distance(0, q, 0), p.distance(p.size() - 1, q,
+        q.size() - 1));
+    for (int k = 0; k < 4; k++) {
+      bound = Math.max(bound, Math.abs(p.box[k] - q.box[k]));
+    }
+    return bound;
+  }
+
+  /**
+   * Decision procedure: is the discrete Fréchet distance between p and q
+   * lower than or equal to epsilon? Cheap lower bounds are checked first, then
+   * the reachable couplings are propagated row by row, only over the columns
+   * reachable from the previous row, and the procedure stops as soon as a row
+   * has no reachable coupling.
+   * @param p linestring
+   * @param q linestring
+   * @param epsilon distance threshold
+   * @return true if the discrete Fréchet distance is lower than or equal to
+   *         epsilon
+   */
+  public static boolean discreteFrechetLessThan(ILineString p, ILineString q,
+      double epsilon) {
+    return discreteFrechetLessThan(new Curve(p), new Curve(q), epsilon);
+  }
+
+  private static boolean discreteFrechetLessThan(Curve p, Curve q,
+      double epsilon) {
+    int sizeP = p.size();
+    int sizeQ = q.size();
+    if (sizeP == 0 || sizeQ == 0 || lowerBound(p, q) > epsilon) {
+      return false;
+    }
+    boolean[] previous = new boolean[sizeQ];
+    boolean[] current = new boolean[sizeQ];
+    // first row: reachable prefix. Only the columns between first and last
+    // are meaningful in each row.
+    int first = 0, last = -1;
+    for (int j = 0; j < sizeQ && p.distance(0, q, j) <= epsilon; j++) {
+      previous[j] = true;
+      last = j;
+    }
+    for (int i = 1; i < sizeP; i++) {
+      // columns before the first reachable column of the previous row cannot
+      // be reached
+      int newFirst = -1, newLast = -1;
+      for (int j = first; j < sizeQ; j++) {
+        boolean reachable = (j <= last && previous[j])
+            || (j > first && j - 1 <= last && previous[j - 1])
+            || (j > first && current[j - 1]);
+        reachable = reachable && p.distance(i, q, j) <= epsilon;
+        current[j] = reachable;
+        if (reachable) {
+          if (newFirst < 0) {
+            newFirst = j;
+          }
+          newLast = j;
+        } else if (j > last) {
+          // nothing further right can be reached in this row
+          break;
+        }
       }
+      if (newFirst < 0) {
+        return false;
+      }
+      boolean[] swap = previous;
+      previous = current;
+      current = swap;
+      first = newFirst;
+      last = newLast;
     }
-    double d = discreteFrechetCouplingMeasure(p, q, sizeP - 1, sizeQ - 1, ca);
+    return last == sizeQ - 1;
+  }
 
-    return d;
+  /**
+   * Discrete Fréchet distances between the pairs (ps[i], qs[i]), computed in
+   * parallel.
+   * @param ps first linestrings
+   * @param qs second linestrings, same size as ps
+   * @param threads number of threads
+   * @return the discrete Fréchet distances of the pairs
+   */
+  public static double[] discreteFrechet(final List<? extends ILineString> ps,
+      final List<? extends ILineString> qs, int threads) {
+    final double[] result = new double[ps.size()];
+    runBatch(ps, qs, threads, new PairTask() {
+      @Override
+      public void run(int i, Curve p, Curve q) {
+        result[i] = discreteFrechet(p, q, Double.POSITIVE_INFINITY);
+      }
+    });
+    return result;
+  }
+
+  /**
+   * Decision procedure {@link #discreteFrechetLessThan(ILineString, ILineString, double)}
+   * on the pairs (ps[i], qs[i]), computed in parallel.
+   * @param ps first linestrings
+   * @param qs second linestrings, same size as ps
+   * @param epsilon distance threshold
+   * @param threads number of threads
+   * @return for each pair, true if its discrete Fréchet distance is lower than
+   *         or equal to epsilon
+   */
+  public static boolean[] discreteFrechetLessThan(
+      final List<? extends ILineString> ps,
+      final List<? extends ILineString> qs, final double epsilon, int threads) {
+    final boolean[] result = new boolean[ps.size()];
+    runBatch(ps, qs, threads, new PairTask() {
+      @Override
+      public void run(int i, Curve p, Curve q) {
+        result[i] = discreteFrechetLessThan(p, q, epsilon);
+      }
+    });
+    return result;
+  }
+
+  private interface PairTask {
+    void run(int i, Curve p, Curve q);
+  }
+
+  /**
+   * Run a task on all the pairs, split into chunks.
+   */
+  private static void runBatch(final List<? extends ILineString> ps,
+      final List<? extends ILineString> qs, int threads, final PairTask task) {
+    if (ps.size() != qs.size()) {
+      throw new IllegalArgumentException(
+          "The lists of linestrings must have the same size: " + ps.size()
+              + " != " + qs.size());
+    }
+    // several chunks per thread to balance curves of different sizes
+    ParallelChunks.forEach(ps.size(), threads, new RangeTask() {
+      @Override
+      public void run(int start, int end) {
+        for (int i = start; i < end; i++) {
+          task.run(i, new Curve(ps.get(i)), new Curve(qs.get(i)));
+        }
+      }
+    });
   }
 
   /**
@@ -155,7 +356,7 @@ public class Frechet {
     }
     int n = pPoints.size() - 1;
     int m = qPoints.size() - 1;
-    GM_LineString l1 = new GM_LineString(pPoints);
+    Curve l1 = new Curve(pPoints);
     ArrayList<IDirectPosition> b = new ArrayList<IDirectPosition>();
     ArrayList<IDirectPosition> e = new ArrayList<IDirectPosition>();
     for (int i = 0; i < qPoints.size() - 1; i++) {
@@ -170,8 +371,9 @@ public class Frechet {
         for (int jj = 0; jj < e.size(); jj++) {
 
           if (j <= jj && pPoints.get(m).distance(qPoints.get(jj)) < d) {
-            GM_LineString sub = new GM_LineString(qPoints.subList(j, jj + 1));
-            double f = Frechet.discreteFrechet(l1, sub);
+            // couplings worse than the current minimum are abandoned early
+            Curve sub = new Curve(qPoints.subList(j, jj + 1));
+            double f = Frechet.discreteFrechet(l1, sub, d);
             if (f < d) {
               d = f;
             }
@@ -710,45 +710,7 @@ public class JtsAlgorithms implements GeomAlgorithms {
    * @return union d'une liste de géométries
    */
   public static IGeometry union(List<? extends IGeometry> listeGeometries) {
-    try {
-      List<Polygon> lpoly = new ArrayList<>();
-      for (IGeometry g : listeGeometries) {
-        lpoly.add((Polygon) JtsGeOxygene.makeJtsGeom(g));
-      }
-      Geometry g = CascadedPolygonUnion.union(lpoly);
-      return JtsGeOxygene.makeGeOxygeneGeom(g);
-    } catch (Exception e) {
-      // Continuer pour les autres types de géométries
-    }
-
-    List<Geometry> listeGeometriesJts = new ArrayList<>(0);
-    for (IGeometry geom : listeGeometries) {
-      try {
-        listeGeometriesJts.add(JtsGeOxygene.makeJtsGeom(geom));
-      } catch (Exception e) {
-        JtsAlgorithms.logger.error(I18N
-            .getString("JtsAlgorithms.GeometryConversionError")); //$NON-NLS-1$
-        if (JtsAlgorithms.logger.isDebugEnabled()) {
-          JtsAlgorithms.logger
-              .debug(I18N.getString("JtsAlgorithms.Geometry") + ((geom != null) ? geom.toString() : I18N.getString("JtsAlgorithms.NullGeometry"))); //$NON-NLS-1$ //$NON-NLS-2$
-          JtsAlgorithms.logger.debug(e.getMessage());
-        }
-      }
-    }
-    Geometry union = JtsAlgorithms.union(listeGeometriesJts);
-    try {
-      return JtsGeOxygene.makeGeOxygeneGeom(union);
-    } catch (Exception e) {
-      JtsAlgorithms.logger.error(I18N
-          .getString("JtsAlgorithms.GeometryConversionError")); //$NON-NLS-1$
-      if (JtsAlgorithms.logger.isDebugEnabled()) {
-        JtsAlgorithms.logger
-            .debug(I18N.getString("JtsAlgorithms.Geometry") + ((union != null) ? union.toString() : I18N.getString("JtsAlgorithms.NullGeometry"))); //$NON-NLS-1$ //$NON-NLS-2$
-        JtsAlgorithms.logger.debug(e.getMessage());
-      }
-      e.printStackTrace();
-      return null;
-    }
+    return JtsDissolve.union(listeGeometries);
   }
 
   /**
@@ -882,6 +844,14 @@ public class JtsAlgorithms implements GeomAlgorithms {
     JtsAlgorithms.listenerList.add(ActionListener.class, l);
   }
 
+  /**
+   * Removes an <code>ActionListener</code>.
+   * @param l the <code>ActionListener</code> to be removed
+   */
+  public static void removeActionListener(ActionListener l) {
+    JtsAlgorithms.listenerList.remove(ActionListener.class, l);
+  }
+
   /**
    * Notifies all listeners that have registered interest for notification on
    * this event type. The event instance is lazily created.
@@ -914,50 +884,20 @@ public class JtsAlgorithms implements GeomAlgorithms {
   }
 
   /**
-   * Union d'une collection de Polygones
+   * Union d'une collection de Polygones. La progression est notifiée aux
+   * écouteurs (cf. {@link JtsDissolve}).
    * @param geometryCollection collection de Polygones JTS
    * @return union des Polygones
    */
   public static Geometry union(Collection<Geometry> geometryCollection) {
     Collection<Geometry> newGeometryCollection = geometryCollection;
-    final int cellSize = 1 + (int) Math.sqrt(newGeometryCollection.size());
-    Comparator<Geometry> comparator = new Comparator<Geometry>() {
-      @Override
-      public int compare(Geometry o1, Geometry o2) {
-        if (o1 == null || o2 == null) {
-          return 0;
-        }
-        Envelope env1 = o1.getEnvelopeInternal();
-        Envelope env2 = o2.getEnvelopeInternal();
-        double indice1 = env1.getMinX() / cellSize + cellSize
-            * ((int) env1.getMinY() / cellSize);
-        double indice2 = env2.getMinX() / cellSize + cellSize
-            * ((int) env2.getMinY() / cellSize);
-        return indice1 >= indice2 ? 1 : indice1 < indice2 ? -1 : 0;
-      }
-
-      @Override
-      public boolean equals(Object obj) {
-        return this.equals(obj);
-      }
-    };
-
-    int iteration = 1;
-    int nbIteration = 1 + (int) (Math.log(newGeometryCollection.size()) / Math
-        .log(4));
-    JtsAlgorithms.fireActionPerformed(new ActionEvent(JtsAlgorithms.singleton,
-        0, I18N.getString("JtsAlgorithms.UnionAction"), nbIteration)); //$NON-NLS-1$
-    while (newGeometryCollection.size() > 1) {
+    if (geometryCollection.size() > 1) {
+      newGeometryCollection = Collections.singletonList(JtsDissolve.unionJts(
+          geometryCollection, Runtime.getRuntime().availableProcessors(), true));
+    } else {
       JtsAlgorithms.fireActionPerformed(new ActionEvent(
-          JtsAlgorithms.singleton, 1, I18N
-              .getString("JtsAlgorithms.UnionIterationAction"), iteration++)); //$NON-NLS-1$
-      if (JtsAlgorithms.logger.isDebugEnabled()) {
-        JtsAlgorithms.logger
-            .debug("Union (" + iteration + "/" + nbIteration + ")"); //$NON-NLS-1$ //$NON-NLS-2$//$NON-NLS-3$
-      }
-      TreeSet<Geometry> treeSet = new TreeSet<Geometry>(comparator);
-      treeSet.addAll(newGeometryCollection);
-      newGeometryCollection = JtsAlgorithms.union(treeSet, 4);
+          JtsAlgorithms.singleton, 0, I18N
+              .getString("JtsAlgorithms.UnionAction"), 1)); //$NON-NLS-1$
     }
     List<Geometry> geometries = new ArrayList<Geometry>();
     for (Geometry geom : newGeometryCollection) {
@@ -1001,44 +941,6 @@ public class JtsAlgorithms implements GeomAlgorithms {
         .createGeometryCollection(geometries.toArray(new Geometry[0]));
   }
 
-  /**
-   * Union des éléments d'un ensemble de Polygones triés par groupes. Par
-   * exemple, si la taille des groupes vaut 4, on effectue l'union des Polygones
-   * 4 par 4.
-   * 
-   * @param treeSet ensemble de Polygones triés
-   * @param groupSize taille des groupes sur lesquels on effectue l'union
-   * @return liste des unions
-   */
-  private static List<Geometry> union(TreeSet<Geometry> treeSet, int groupSize) {
-    List<Geometry> unionGeometryList = new ArrayList<Geometry>();
-    Geometry currUnion = null;
-    int size = treeSet.size();
-    int count = 0;
-    JtsAlgorithms.fireActionPerformed(new ActionEvent(JtsAlgorithms.singleton,
-        2, I18N.getString("JtsAlgorithms.UnionDetailAction"), size)); //$NON-NLS-1$
-    for (Geometry geom : treeSet) {
-      if ((currUnion == null) || (count % groupSize == 0)) {
-        currUnion = geom;
-      } else {
-        currUnion = currUnion.union(geom);
-        if (groupSize - count % groupSize == 1) {
-          unionGeometryList.add(currUnion);
-        }
-      }
-      JtsAlgorithms.fireActionPerformed(new ActionEvent(
-          JtsAlgorithms.singleton, 3, I18N
-              .getString("JtsAlgorithms.UnionDetailIterationAction"), ++count)); //$NON-NLS-1$
-      if (JtsAlgorithms.logger.isDebugEnabled()) {
-        JtsAlgorithms.logger.debug(" " + (count) + " - " + size + " features"); //$NON-NLS-1$//$NON-NLS-2$ //$NON-NLS-3$
-      }
-    }
-    if (groupSize - count % groupSize != 0) {
-      unionGeometryList.add(currUnion);
-    }
-    return unionGeometryList;
-  }
-
   /**
    * Union d'une collection de LineStrings.
    * @param geometryCollection collection de LineStrings
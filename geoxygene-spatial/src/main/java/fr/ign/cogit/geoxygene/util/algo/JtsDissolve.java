@@ -0,0 +1,447 @@
+/*
+ * This file is part of the GeOxygene project source files. GeOxygene aims at
+ * providing an open framework which implements OGC/ISO specifications for the
+ * development and deployment of geographic (GIS) applications. It is a open
+ * source contribution of the COGIT laboratory at the Institut Géographique
+ * National (the French National Mapping Agency). See:
+ * http://oxygene-project.sourceforge.net Copyright (C) 2005 Institut
+ * Géographique National This library is free software; you can redistribute it
+ * and/or modify it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of the License,
+ * or any later version. This library is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser
+ * General Public License for more details. You should have received a copy of
+ * the GNU Lesser General Public License along with this library (see file
+ * LICENSE if present); if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+
+package fr.ign.cogit.geoxygene.util.algo;
+
+import java.awt.event.ActionEvent;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.Polygon;
+import com.vividsolutions.jts.geom.Polygonal;
+import com.vividsolutions.jts.operation.union.CascadedPolygonUnion;
+import com.vividsolutions.jts.operation.union.UnaryUnionOp;
+
+import fr.ign.cogit.geoxygene.api.feature.IFeature;
+import fr.ign.cogit.geoxygene.api.feature.IFeatureCollection;
+import fr.ign.cogit.geoxygene.api.spatial.geomroot.IGeometry;
+import fr.ign.cogit.geoxygene.spatial.I18N;
+import fr.ign.cogit.geoxygene.util.ParallelChunks;
+import fr.ign.cogit.geoxygene.util.ParallelChunks.ItemFunction;
+import fr.ign.cogit.geoxygene.util.ParallelChunks.RangeFunction;
+import fr.ign.cogit.geoxygene.util.conversion.JtsGeOxygene;
+
+/**
+ * Union (fusion) d'un grand nombre de géométries. Les géométries sont
+ * converties une seule fois en JTS, triées selon la courbe de Hilbert de leur
+ * centre puis découpées en paquets spatialement compacts. Chaque paquet est
+ * fusionné par {@link CascadedPolygonUnion} dans un thread, puis les résultats
+ * des paquets voisins sont fusionnés deux à deux, en parallèle, jusqu'à
+ * obtenir une seule géométrie.
+ * <p>
+ * Les géométries non surfaciques (lignes, points) sont fusionnées par
+ * {@link UnaryUnionOp} avec le résultat surfacique.
+ * <p>
+ * Appelée par {@link JtsAlgorithms#union(Collection)}, l'union notifie sa
+ * progression aux écouteurs de {@link JtsAlgorithms} : l'union en cascade des
+ * paquets puis chaque niveau de la réduction sont des itérations, et les
+ * géométries fusionnées à chaque itération en sont le détail.
+ *
+ */
+public class JtsDissolve {
+  private static Logger logger = Logger.getLogger(JtsDissolve.class.getName());
+
+  /**
+   * Nombre minimal de polygones par paquet : en dessous, le découpage coûte
+   * plus qu'il ne rapporte.
+   */
+  private static final int MIN_PARTITION_SIZE = 256;
+
+  private JtsDissolve() {
+  }
+
+  /**
+   * Union d'une collection de géométries GeOxygene, en utilisant tous les
+   * processeurs disponibles.
+   * @param geometries géométries à unir (les géométries nulles sont ignorées)
+   * @return l'union des géométries, null si la collection ne contient aucune
+   *         géométrie
+   */
+  public static IGeometry union(Collection<? extends IGeometry> geometries) {
+    return JtsDissolve.union(geometries, Runtime.getRuntime()
+        .availableProcessors());
+  }
+
+  /**
+   * Union d'une collection de géométries GeOxygene.
+   * @param geometries géométries à unir (les géométries nulles sont ignorées)
+   * @param threads nombre de threads à utiliser
+   * @return l'union des géométries, null si la collection ne contient aucune
+   *         géométrie
+   */
+  public static IGeometry union(Collection<? extends IGeometry> geometries,
+      int threads) {
+    List<Geometry> jtsGeometries = JtsDissolve.toJts(geometries);
+    return JtsDissolve.toGeOxygene(JtsDissolve.unionJts(jtsGeometries,
+        threads));
+  }
+
+  /**
+   * Union d'une collection de géométries JTS.
+   * @param geometries géométries JTS à unir
+   * @param threads nombre de threads à utiliser
+   * @return l'union des géométries, null si la collection est vide
+   */
+  public static Geometry unionJts(Collection<Geometry> geometries, int threads) {
+    return JtsDissolve.unionJts(geometries, threads, false);
+  }
+
+  /**
+   * Union d'une collection de géométries JTS.
+   * @param geometries géométries JTS à unir
+   * @param threads nombre de threads à utiliser
+   * @param events vrai pour notifier la progression aux écouteurs de
+   *          {@link JtsAlgorithms}
+   * @return l'union des géométries, null si la collection est vide
+   */
+  static Geometry unionJts(Collection<Geometry> geometries, int threads,
+      boolean events) {
+    if (geometries.isEmpty()) {
+      return null;
+    }
+    GeometryFactory factory = geometries.iterator().next().getFactory();
+    List<Polygon> polygons = new ArrayList<Polygon>();
+    List<Geometry> others = new ArrayList<Geometry>();
+    for (Geometry geom : geometries) {
+      if (geom instanceof Polygonal) {
+        for (int i = 0; i < geom.getNumGeometries(); i++) {
+          Polygon polygon = (Polygon) geom.getGeometryN(i);
+          if (!polygon.isEmpty()) {
+            polygons.add(polygon);
+          }
+        }
+      } else if (!geom.isEmpty()) {
+        others.add(geom);
+      }
+    }
+    int nbPartitions = polygons.isEmpty() ? 0 : JtsDissolve.nbPartitions(
+        polygons.size(), threads);
+    int nbLevels = polygons.isEmpty() ? 0 : 1 + JtsDissolve
+        .nbReductions(nbPartitions);
+    Progress progress = new Progress(events);
+    progress.start(others.isEmpty() ? nbLevels : nbLevels + 1);
+    Geometry polygonUnion = null;
+    if (nbPartitions == 1) {
+      progress.iteration(1, polygons.size());
+      polygonUnion = CascadedPolygonUnion.union(polygons);
+      progress.advance(polygons.size());
+    } else if (nbPartitions > 1) {
+      polygonUnion = JtsDissolve.parallelUnion(polygons, threads,
+          nbPartitions, progress);
+    }
+    if (others.isEmpty()) {
+      return polygonUnion != null ? polygonUnion : factory
+          .createGeometryCollection(new Geometry[0]);
+    }
+    if (polygonUnion != null) {
+      others.add(polygonUnion);
+    }
+    progress.iteration(nbLevels + 1, others.size());
+    Geometry union = UnaryUnionOp.union(others, factory);
+    progress.advance(others.size());
+    return union;
+  }
+
+  /**
+   * Union des géométries d'une collection de features.
+   * @param features features dont on veut l'union des géométries
+   * @return l'union des géométries, null si aucun feature n'a de géométrie
+   */
+  public static IGeometry dissolve(
+      IFeatureCollection<? extends IFeature> features) {
+    List<IGeometry> geometries = new ArrayList<IGeometry>(features.size());
+    for (IFeature feature : features) {
+      geometries.add(feature.getGeom());
+    }
+    return JtsDissolve.union(geometries);
+  }
+
+  /**
+   * Fusion des géométries d'une collection de features regroupés selon la
+   * valeur d'un attribut (les features dont l'attribut est nul forment un
+   * groupe).
+   * @param features features à fusionner
+   * @param attribute nom de l'attribut de regroupement
+   * @return pour chaque valeur de l'attribut, dans l'ordre de première
+   *         apparition, l'union des géométries des features de cette valeur
+   */
+  public static Map<Object, IGeometry> dissolve(
+      IFeatureCollection<? extends IFeature> features, String attribute) {
+    return JtsDissolve.dissolve(features, attribute, Runtime.getRuntime()
+        .availableProcessors());
+  }
+
+  /**
+   * Fusion des géométries d'une collection de features regroupés selon la
+   * valeur d'un attribut.
+   * @param features features à fusionner
+   * @param attribute nom de l'attribut de regroupement
+   * @param threads nombre de threads à utiliser
+   * @return pour chaque valeur de l'attribut, l'union des géométries des
+   *         features de cette valeur
+   */
+  public static Map<Object, IGeometry> dissolve(
+      IFeatureCollection<? extends IFeature> features, String attribute,
+      int threads) {
+    final Map<Object, List<IGeometry>> groups = new LinkedHashMap<Object, List<IGeometry>>();
+    for (IFeature feature : features) {
+      Object key = feature.getAttribute(attribute);
+      List<IGeometry> group = groups.get(key);
+      if (group == null) {
+        group = new ArrayList<IGeometry>();
+        groups.put(key, group);
+      }
+      group.add(feature.getGeom());
+    }
+    Map<Object, IGeometry> result = new LinkedHashMap<Object, IGeometry>();
+    if (threads <= 1 || groups.size() < threads) {
+      // peu de groupes : chaque groupe utilise tous les threads
+      for (Map.Entry<Object, List<IGeometry>> entry : groups.entrySet()) {
+        result.put(entry.getKey(), JtsDissolve.union(entry.getValue(),
+            threads));
+      }
+      return result;
+    }
+    // beaucoup de groupes : un groupe par tâche, chacun en séquentiel
+    List<Map.Entry<Object, List<IGeometry>>> entries = new ArrayList<Map.Entry<Object, List<IGeometry>>>(
+        groups.entrySet());
+    List<IGeometry> unions = ParallelChunks.map(entries, threads,
+        new ItemFunction<Map.Entry<Object, List<IGeometry>>, IGeometry>() {
+          @Override
+          public IGeometry apply(Map.Entry<Object, List<IGeometry>> entry) {
+            return JtsDissolve.union(entry.getValue(), 1);
+          }
+        });
+    for (int i = 0; i < entries.size(); i++) {
+      result.put(entries.get(i).getKey(), unions.get(i));
+    }
+    return result;
+  }
+
+  /*- Implémentation ------------------------------------*/
+
+  private static List<Geometry> toJts(Collection<? extends IGeometry> geometries) {
+    List<Geometry> jtsGeometries = new ArrayList<Geometry>(geometries.size());
+    for (IGeometry geom : geometries) {
+      if (geom == null) {
+        continue;
+      }
+      try {
+        jtsGeometries.add(JtsGeOxygene.makeJtsGeom(geom));
+      } catch (Exception e) {
+        JtsDissolve.logger.error(I18N
+            .getString("JtsAlgorithms.GeometryConversionError")); //$NON-NLS-1$
+        if (JtsDissolve.logger.isDebugEnabled()) {
+          JtsDissolve.logger.debug(I18N.getString("JtsAlgorithms.Geometry") //$NON-NLS-1$
+              + geom.toString());
+          JtsDissolve.logger.debug(e.getMessage());
+        }
+      }
+    }
+    return jtsGeometries;
+  }
+
+  private static IGeometry toGeOxygene(Geometry union) {
+    if (union == null) {
+      return null;
+    }
+    try {
+      return JtsGeOxygene.makeGeOxygeneGeom(union);
+    } catch (Exception e) {
+      JtsDissolve.logger.error(I18N
+          .getString("JtsAlgorithms.GeometryConversionError")); //$NON-NLS-1$
+      if (JtsDissolve.logger.isDebugEnabled()) {
+        JtsDissolve.logger.debug(e.getMessage());
+      }
+      return null;
+    }
+  }
+
+  /**
+   * Nombre de paquets de l'union de size polygones : 1 pour une union en
+   * cascade séquentielle.
+   */
+  private static int nbPartitions(int size, int threads) {
+    if (threads <= 1) {
+      return 1;
+    }
+    return Math.max(1, Math.min(4 * threads, size / MIN_PARTITION_SIZE));
+  }
+
+  /**
+   * Nombre de niveaux de la réduction deux à deux de nbPartitions résultats.
+   */
+  private static int nbReductions(int nbPartitions) {
+    int nb = 0;
+    for (int n = nbPartitions; n > 1; n = (n + 1) / 2) {
+      nb++;
+    }
+    return nb;
+  }
+
+  /**
+   * Union parallèle : tri de Hilbert, union en cascade de chaque paquet, puis
+   * réduction deux à deux des résultats.
+   */
+  private static Geometry parallelUnion(final List<Polygon> polygons,
+      int threads, int nbPartitions, final Progress progress) {
+    JtsDissolve.sortByHilbert(polygons);
+
+    int iteration = 1;
+    progress.iteration(iteration++, polygons.size());
+    List<Geometry> results = ParallelChunks.map(polygons.size(), threads,
+        nbPartitions, new RangeFunction<Geometry>() {
+          @Override
+          public Geometry apply(int start, int end) {
+            Geometry union = CascadedPolygonUnion.union(polygons.subList(
+                start, end));
+            progress.advance(end - start);
+            return union;
+          }
+        });
+
+    // réduction : les paquets voisins dans l'ordre de Hilbert sont proches
+    while (results.size() > 1) {
+      final List<Geometry> previous = results;
+      progress.iteration(iteration++, previous.size());
+      List<Geometry> next = new ArrayList<Geometry>(ParallelChunks.map(
+          previous.size() / 2, threads, previous.size() / 2,
+          new RangeFunction<Geometry>() {
+            @Override
+            public Geometry apply(int start, int end) {
+              Geometry union = previous.get(2 * start).union(
+                  previous.get(2 * start + 1));
+              progress.advance(2);
+              return union;
+            }
+          }));
+      if (previous.size() % 2 == 1) {
+        next.add(previous.get(previous.size() - 1));
+        progress.advance(1);
+      }
+      results = next;
+    }
+    return results.get(0);
+  }
+
+  /**
+   * Notification de la progression d'une union aux écouteurs de
+   * {@link JtsAlgorithms}, avec les mêmes évènements que l'union itérative
+   * qu'elle remplace. Les paquets se terminant dans plusieurs threads, le
+   * détail est notifié sous verrou pour que le compte soit croissant.
+   */
+  private static final class Progress {
+    private final boolean enabled;
+    private int count;
+
+    Progress(boolean enabled) {
+      this.enabled = enabled;
+    }
+
+    /** Début de l'union, en nbIterations itérations. */
+    void start(int nbIterations) {
+      if (this.enabled) {
+        JtsAlgorithms.fireActionPerformed(new ActionEvent(
+            JtsAlgorithms.singleton, 0, I18N
+                .getString("JtsAlgorithms.UnionAction"), nbIterations)); //$NON-NLS-1$
+      }
+    }
+
+    /** Début d'une itération qui fusionne size géométries. */
+    synchronized void iteration(int iteration, int size) {
+      this.count = 0;
+      if (this.enabled) {
+        JtsAlgorithms.fireActionPerformed(new ActionEvent(
+            JtsAlgorithms.singleton, 1, I18N
+                .getString("JtsAlgorithms.UnionIterationAction"), iteration)); //$NON-NLS-1$
+        JtsAlgorithms.fireActionPerformed(new ActionEvent(
+            JtsAlgorithms.singleton, 2, I18N
+                .getString("JtsAlgorithms.UnionDetailAction"), size)); //$NON-NLS-1$
+      }
+    }
+
+    /** nb géométries de plus ont été fusionnées dans l'itération. */
+    synchronized void advance(int nb) {
+      this.count += nb;
+      if (this.enabled) {
+        JtsAlgorithms.fireActionPerformed(new ActionEvent(
+            JtsAlgorithms.singleton, 3, I18N
+                .getString("JtsAlgorithms.UnionDetailIterationAction"), //$NON-NLS-1$
+            this.count));
+      }
+    }
+  }
+
+  private static void sortByHilbert(List<Polygon> polygons) {
+    Envelope extent = new Envelope();
+    for (Polygon polygon : polygons) {
+      extent.expandToInclude(polygon.getEnvelopeInternal());
+    }
+    final Map<Polygon, Long> keys = new IdentityHashMap<Polygon, Long>();
+    double width = extent.getWidth(), height = extent.getHeight();
+    for (Polygon polygon : polygons) {
+      Envelope env = polygon.getEnvelopeInternal();
+      double x = width > 0 ? ((env.getMinX() + env.getMaxX()) / 2 - extent
+          .getMinX()) / width : 0;
+      double y = height > 0 ? ((env.getMinY() + env.getMaxY()) / 2 - extent
+          .getMinY()) / height : 0;
+      keys.put(polygon, Long.valueOf(JtsDissolve.hilbert((int) (x * 65535),
+          (int) (y * 65535))));
+    }
+    Collections.sort(polygons, new Comparator<Polygon>() {
+      @Override
+      public int compare(Polygon p1, Polygon p2) {
+        return keys.get(p1).compareTo(keys.get(p2));
+      }
+    });
+  }
+
+  /**
+   * Position d'un point d'une grille 65536 x 65536 sur la courbe de Hilbert.
+   */
+  private static long hilbert(int x, int y) {
+    long d = 0;
+    for (int s = 1 << 15; s > 0; s >>= 1) {
+      int rx = (x & s) > 0 ? 1 : 0;
+      int ry = (y & s) > 0 ? 1 : 0;
+      d += (long) s * s * ((3 * rx) ^ ry);
+      if (ry == 0) {
+        if (rx == 1) {
+          x = s - 1 - x;
+          y = s - 1 - y;
+        }
+        int t = x;
+        x = y;
+        y = t;
+      }
+    }
+    return d;
+  }
+}
@@ -66,6 +66,7 @@ import fr.ign.cogit.geoxygene.spatial.geomengine.GeometryEngine;
 import fr.ign.cogit.geoxygene.spatial.geomprim.GM_Point;
 import fr.ign.cogit.geoxygene.util.algo.CommonAlgorithms;
 import fr.ign.cogit.geoxygene.util.algo.JtsAlgorithms;
+import fr.ign.cogit.geoxygene.util.algo.JtsDissolve;
 import fr.ign.cogit.geoxygene.util.algo.SmallestSurroundingRectangleComputation;
 import fr.ign.cogit.geoxygene.util.algo.geomstructure.Rectangle;
 import fr.ign.cogit.geoxygene.util.algo.geomstructure.Segment;
@@ -767,27 +768,23 @@ public class CommonAlgorithmsFromCartAGen {
   }
 
   /**
-   * Computes the union of all geometries contained in a collection.
-   * @return the geometry resulting from the union
+   * Computes the union of all geometries contained in a collection. The
+   * geometries are converted to JTS once and unioned in parallel, see
+   * {@link JtsDissolve}.
+   * @return the geometry resulting from the union, null if the collection
+   *         contains no geometry
    */
   public static IGeometry geomColnUnion(Collection<IGeometry> geomColn) {
-    IGeometry unionGeom = null;
-    int i = 0;
+    int nb = 0;
+    IGeometry first = null;
     for (IGeometry geom : geomColn) {
-      if (geom == null)
-        continue;
-      i = i + 1;
-      // Initialisation
-      if (i == 1) {
-        unionGeom = geom;
-        // Union with result of last iteration
-      } else if (!(unionGeom == null)) {
-        unionGeom = unionGeom.union(geom);
-      } else {
-        unionGeom = geom;
-      }
+      if (geom != null && nb++ == 0)
+        first = geom;
     }
-    return unionGeom;
+    // a single geometry is returned as is
+    if (nb <= 1)
+      return first;
+    return JtsDissolve.union(geomColn);
   }
 
   /**
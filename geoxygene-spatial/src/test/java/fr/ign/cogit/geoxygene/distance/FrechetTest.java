@@ -5,7 +5,9 @@ package fr.ign.cogit.geoxygene.distance;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Random;
 
+import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -66,4 +68,72 @@ public class FrechetTest {
 
   }
 
+  private ILineString randomLine(Random random, int size) {
+    List<IDirectPosition> points = new ArrayList<IDirectPosition>();
+    double x = 0, y = 0;
+    for (int i = 0; i < size; i++) {
+      x += random.nextDouble() * 10;
+      y += random.nextDouble() * 10 - 5;
+      points.add(new DirectPosition(x, y));
+    }
+    return new GM_LineString(points);
+  }
+
+  /**
+   * Reference implementation using the full coupling matrix.
+   */
+  private double fullMatrixFrechet(ILineString p, ILineString q) {
+    int n = p.sizeControlPoint(), m = q.sizeControlPoint();
+    double[][] c = new double[n][m];
+    for (int i = 0; i < n; i++) {
+      for (int j = 0; j < m; j++) {
+        double d = p.getControlPoint(i).distance(q.getControlPoint(j));
+        if (i == 0 && j == 0) {
+          c[i][j] = d;
+        } else if (i == 0) {
+          c[i][j] = Math.max(c[i][j - 1], d);
+        } else if (j == 0) {
+          c[i][j] = Math.max(c[i - 1][j], d);
+        } else {
+          c[i][j] = Math.max(Math.min(c[i - 1][j], Math.min(c[i - 1][j - 1],
+              c[i][j - 1])), d);
+        }
+      }
+    }
+    return c[n - 1][m - 1];
+  }
+
+  @Test
+  public void testDiscreteFrechetRandom() {
+    Random random = new Random(12);
+    for (int k = 0; k < 50; k++) {
+      ILineString p = this.randomLine(random, 1 + random.nextInt(40));
+      ILineString q = this.randomLine(random, 1 + random.nextInt(40));
+      double d = Frechet.discreteFrechet(p, q);
+      Assert.assertEquals(this.fullMatrixFrechet(p, q), d, 1e-9);
+      Assert.assertEquals(d, Frechet.discreteFrechet(q, p), 1e-9);
+      Assert.assertTrue(Frechet.discreteFrechetLessThan(p, q, d));
+      Assert.assertTrue(Frechet.discreteFrechetLessThan(p, q, d + 1e-6));
+      Assert.assertFalse(Frechet.discreteFrechetLessThan(p, q, d - 1e-6));
+    }
+  }
+
+  @Test
+  public void testDiscreteFrechetBatch() {
+    Random random = new Random(13);
+    List<ILineString> ps = new ArrayList<ILineString>();
+    List<ILineString> qs = new ArrayList<ILineString>();
+    for (int k = 0; k < 200; k++) {
+      ps.add(this.randomLine(random, 2 + random.nextInt(30)));
+      qs.add(this.randomLine(random, 2 + random.nextInt(30)));
+    }
+    double[] distances = Frechet.discreteFrechet(ps, qs, 4);
+    boolean[] close = Frechet.discreteFrechetLessThan(ps, qs, 20, 4);
+    for (int k = 0; k < ps.size(); k++) {
+      double d = Frechet.discreteFrechet(ps.get(k), qs.get(k));
+      Assert.assertEquals(d, distances[k], 0);
+      Assert.assertEquals(d <= 20, close[k]);
+    }
+  }
+
 }
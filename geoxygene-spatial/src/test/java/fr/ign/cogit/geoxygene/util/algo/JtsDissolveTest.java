@@ -0,0 +1,138 @@
+package fr.ign.cogit.geoxygene.util.algo;
+
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.vividsolutions.jts.geom.Geometry;
+
+import fr.ign.cogit.geoxygene.api.spatial.coordgeom.IDirectPositionList;
+import fr.ign.cogit.geoxygene.api.spatial.geomroot.IGeometry;
+import fr.ign.cogit.geoxygene.spatial.coordgeom.DirectPosition;
+import fr.ign.cogit.geoxygene.spatial.coordgeom.DirectPositionList;
+import fr.ign.cogit.geoxygene.spatial.coordgeom.GM_LineString;
+import fr.ign.cogit.geoxygene.spatial.coordgeom.GM_Polygon;
+import fr.ign.cogit.geoxygene.util.algo.geometricAlgorithms.CommonAlgorithmsFromCartAGen;
+import fr.ign.cogit.geoxygene.util.conversion.JtsGeOxygene;
+
+public class JtsDissolveTest {
+
+  private List<IGeometry> squares(int nb, Random random) {
+    List<IGeometry> squares = new ArrayList<IGeometry>();
+    for (int i = 0; i < nb; i++) {
+      double x = random.nextDouble() * 1000, y = random.nextDouble() * 1000;
+      double size = 5 + random.nextDouble() * 20;
+      IDirectPositionList points = new DirectPositionList();
+      points.add(new DirectPosition(x, y));
+      points.add(new DirectPosition(x + size, y));
+      points.add(new DirectPosition(x + size, y + size));
+      points.add(new DirectPosition(x, y + size));
+      points.add(new DirectPosition(x, y));
+      squares.add(new GM_Polygon(new GM_LineString(points)));
+    }
+    return squares;
+  }
+
+  @Test
+  public void testParallelUnion() {
+    List<IGeometry> squares = this.squares(3000, new Random(3));
+    IGeometry sequential = JtsDissolve.union(squares, 1);
+    IGeometry parallel = JtsDissolve.union(squares, 4);
+    Assert.assertNotNull(parallel);
+    Assert.assertEquals(sequential.area(), parallel.area(), 1e-6);
+    Assert.assertEquals(0.0, sequential.symmetricDifference(parallel).area(),
+        1e-6);
+  }
+
+  @Test
+  public void testGeomColnUnion() {
+    List<IGeometry> squares = this.squares(50, new Random(4));
+    squares.add(null);
+    IGeometry union = CommonAlgorithmsFromCartAGen.geomColnUnion(squares);
+    IGeometry expected = squares.get(0);
+    for (int i = 1; i < 50; i++) {
+      expected = expected.union(squares.get(i));
+    }
+    Assert.assertEquals(expected.area(), union.area(), 1e-6);
+    Assert.assertNull(JtsDissolve.union(new ArrayList<IGeometry>()));
+  }
+
+  /**
+   * Vérifie la suite des évènements de progression : début avec le nombre
+   * d'itérations, puis pour chaque itération son numéro, le nombre de
+   * géométries à fusionner et le compte croissant des géométries fusionnées,
+   * puis fin.
+   */
+  private void checkEvents(List<ActionEvent> events) {
+    Assert.assertEquals(0, events.get(0).getID());
+    int nbIterations = events.get(0).getModifiers();
+    Assert.assertEquals(4, events.get(events.size() - 1).getID());
+    int iteration = 0, size = 0, count = 0;
+    for (ActionEvent event : events.subList(1, events.size() - 1)) {
+      Assert.assertSame(JtsAlgorithms.singleton, event.getSource());
+      switch (event.getID()) {
+        case 1:
+          Assert.assertEquals(size, count);
+          Assert.assertEquals(++iteration, event.getModifiers());
+          break;
+        case 2:
+          size = event.getModifiers();
+          count = 0;
+          break;
+        case 3:
+          Assert.assertTrue(event.getModifiers() > count);
+          count = event.getModifiers();
+          break;
+        default:
+          Assert.fail("event " + event.getID());
+      }
+    }
+    Assert.assertEquals(size, count);
+    Assert.assertEquals(nbIterations, iteration);
+  }
+
+  @Test
+  public void testProgressEvents() throws Exception {
+    final List<ActionEvent> events = Collections
+        .synchronizedList(new ArrayList<ActionEvent>());
+    ActionListener listener = new ActionListener() {
+      @Override
+      public void actionPerformed(ActionEvent e) {
+        events.add(e);
+      }
+    };
+    List<Geometry> squares = new ArrayList<Geometry>();
+    for (IGeometry square : this.squares(3000, new Random(5))) {
+      squares.add(JtsGeOxygene.makeJtsGeom(square));
+    }
+    JtsAlgorithms.addActionListener(listener);
+    try {
+      JtsAlgorithms.union(squares);
+      this.checkEvents(events);
+
+      // 8 paquets : l'union en cascade et 3 niveaux de réduction
+      events.clear();
+      Geometry union = JtsDissolve.unionJts(squares, 2, true);
+      JtsAlgorithms.fireActionPerformed(new ActionEvent(
+          JtsAlgorithms.singleton, 4, "end")); //$NON-NLS-1$
+      this.checkEvents(events);
+      Assert.assertEquals(4, events.get(0).getModifiers());
+      Assert.assertEquals(3000, events.get(2).getModifiers());
+      Assert.assertEquals(JtsDissolve.unionJts(squares, 1).getArea(),
+          union.getArea(), 1e-6);
+
+      // pas d'évènement hors de JtsAlgorithms
+      events.clear();
+      JtsDissolve.unionJts(squares, 2);
+      Assert.assertTrue(events.isEmpty());
+    } finally {
+      JtsAlgorithms.removeActionListener(listener);
+    }
+  }
+}
@@ -27,18 +27,31 @@
 
 package fr.ign.cogit.geoxygene.appli.task;
 
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.log4j.Logger;
 
 /**
  * @author JeT manage a set of tasks
+ * 
+ *         By default, each task is started in its own thread, with at most
+ *         maximumRunningThreadNumber tasks running at the same time. In
+ *         executor mode (see {@link #TaskManager(int, int)}), tasks are run by
+ *         a work-stealing pool, may depend on other tasks, are cancelled when
+ *         one of their dependencies does not finish correctly, and their
+ *         timings are sent to listeners through
+ *         {@link TaskManagerListener#onTaskCompleted(Task, TaskMetrics)}.
  */
 public class TaskManager implements TaskListener<Task> {
 
@@ -54,11 +67,19 @@ public class TaskManager implements TaskListener<Task> {
     private final Set<TaskManagerListener> listeners = new HashSet<TaskManagerListener>();
     private Thread.UncaughtExceptionHandler uncaughtExceptionHandler = null;
     private int maximumRunningThreadNumber = 10;
+    // executor mode
+    private final ForkJoinPool pool;
+    private final Semaphore capacity;
+    private final Map<Task, TaskNode> nodes = new HashMap<Task, TaskNode>();
+    private int waitingNodeCount = 0;
+    private int runningNodeCount = 0;
 
     /**
      * Constructor
      */
     public TaskManager() {
+        this.pool = null;
+        this.capacity = null;
         this.uncaughtExceptionHandler = new Thread.UncaughtExceptionHandler() {
             @Override
             public void uncaughtException(Thread th, Throwable ex) {
@@ -77,6 +98,30 @@ public class TaskManager implements TaskListener<Task> {
         };
     }
 
+    /**
+     * Constructor of a task manager in executor mode: tasks are run by a
+     * work-stealing pool instead of dedicated threads
+     * 
+     * @param parallelism
+     *            number of worker threads
+     * @param queueCapacity
+     *            maximum number of tasks waiting or running in the manager.
+     *            When it is reached, addTask blocks until a task completes
+     */
+    public TaskManager(int parallelism, int queueCapacity) {
+        this.pool = new ForkJoinPool(parallelism,
+                ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, true);
+        this.capacity = new Semaphore(queueCapacity, true);
+        this.maximumRunningThreadNumber = parallelism;
+    }
+
+    /**
+     * @return true if tasks are run by a work-stealing pool
+     */
+    public boolean isExecutorMode() {
+        return this.pool != null;
+    }
+
     /**
      * @return the maximumRunningThreadNumber
      */
@@ -99,6 +144,9 @@ public class TaskManager implements TaskListener<Task> {
      * @return true if task is correctly added
      */
     public boolean addTask(final Task task) {
+        if (this.isExecutorMode()) {
+            return this.addTask(task, new Task[] {});
+        }
         if (task == null) {
             if (debug) {
                 System.err.println("asked to add a null task");
@@ -147,6 +195,256 @@ public class TaskManager implements TaskListener<Task> {
         return true;
     }
 
+    /**
+     * add a new task which will be started once all its dependencies are
+     * finished (executor mode only). If one of the dependencies is stopped or
+     * in error, the task is cancelled. This method blocks while the queue
+     * capacity of the manager is reached.
+     * 
+     * @param task
+     *            task to add
+     * @param dependencies
+     *            tasks previously added to this manager which must be finished
+     *            before task starts
+     * @return true if task is correctly added
+     */
+    public boolean addTask(final Task task, final Task... dependencies) {
+        if (!this.isExecutorMode()) {
+            throw new IllegalStateException(
+                    "task dependencies are only supported in executor mode");
+        }
+        if (task == null) {
+            return false;
+        }
+        try {
+            this.capacity.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        TaskNode node = new TaskNode(task);
+        boolean cancelled = false;
+        synchronized (this.taskLock) {
+            if (this.nodes.containsKey(task)) {
+                logger.warn("Try to ask task " + task.getName() + " ("
+                        + task.hashCode()
+                        + ") which is already managed. Skip it.");
+                this.capacity.release();
+                return false;
+            }
+            this.nodes.put(task, node);
+            this.waitingNodeCount++;
+            for (Task dependency : dependencies) {
+                TaskNode dependencyNode = this.nodes.get(dependency);
+                if (dependencyNode != null && dependencyNode.finished) {
+                    // its dependents have already been released
+                    dependencyNode = null;
+                }
+                if (dependencyNode != null && dependencyNode.cancelled) {
+                    cancelled = true;
+                } else if (dependencyNode != null) {
+                    // dependency not completed yet
+                    node.remainingDependencies++;
+                    dependencyNode.dependents.add(node);
+                } else if (dependency.getState() != TaskState.FINISHED) {
+                    cancelled = true;
+                }
+            }
+        }
+        this.fireTaskAdded(task);
+        if (cancelled) {
+            logger.warn("task " + task.getName()
+                    + " depends on a task which did not finish correctly");
+            this.cancel(task);
+        } else {
+            this.submitIfReady(node);
+        }
+        return true;
+    }
+
+    /**
+     * cancel a task in executor mode: the task is asked to stop if it is
+     * running, it is not started if it is waiting, and the tasks depending on
+     * it are cancelled
+     * 
+     * @param task
+     *            task to cancel
+     */
+    public void cancel(final Task task) {
+        List<TaskNode> cancelledNodes = new ArrayList<TaskNode>();
+        synchronized (this.taskLock) {
+            TaskNode node = this.nodes.get(task);
+            if (node == null) {
+                return;
+            }
+            if (node.started) {
+                task.requestStop();
+                // dependents are cancelled when the task ends
+                return;
+            }
+            this.collectCancelled(node, cancelledNodes);
+        }
+        this.completeCancelled(cancelledNodes);
+    }
+
+    /**
+     * wait until all the tasks added in executor mode are completed
+     * 
+     * @param timeout
+     *            maximum waiting time
+     * @param unit
+     *            unit of timeout
+     * @return true if all tasks are completed, false if the timeout elapsed
+     */
+    public boolean awaitCompletion(long timeout, TimeUnit unit)
+            throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        synchronized (this.taskLock) {
+            while (!this.nodes.isEmpty()) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return false;
+                }
+                TimeUnit.NANOSECONDS.timedWait(this.taskLock, remaining);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * stop accepting tasks and release the worker threads once the submitted
+     * tasks are completed (executor mode only)
+     */
+    public void shutdown() {
+        if (this.pool != null) {
+            this.pool.shutdown();
+        }
+    }
+
+    /**
+     * submit a task to the pool if all its dependencies are finished
+     */
+    private void submitIfReady(final TaskNode node) {
+        synchronized (this.taskLock) {
+            if (node.remainingDependencies > 0 || node.submitted
+                    || node.cancelled) {
+                return;
+            }
+            node.submitted = true;
+        }
+        this.pool.execute(new Runnable() {
+            @Override
+            public void run() {
+                TaskManager.this.runNode(node);
+            }
+        });
+    }
+
+    /**
+     * run a task in a worker thread, then release its dependents. The node
+     * leaves the manager and its permit is released even if the task or a
+     * listener throws an Error
+     */
+    private void runNode(final TaskNode node) {
+        final Task task = node.task;
+        int queueDepth;
+        synchronized (this.taskLock) {
+            if (node.cancelled) {
+                return;
+            }
+            node.started = true;
+            node.startTime = System.nanoTime();
+            this.waitingNodeCount--;
+            this.runningNodeCount++;
+            queueDepth = this.waitingNodeCount;
+        }
+        try {
+            this.fireTaskStarted(task);
+            try {
+                task.run();
+            } catch (Exception e) {
+                logger.error("Uncaught exception from task " + task.getName()
+                        + ": " + e);
+                if (task instanceof AbstractTask) {
+                    ((AbstractTask) task).setError(e);
+                    ((AbstractTask) task).setState(TaskState.ERROR);
+                }
+            }
+            long runningTime = System.nanoTime() - node.startTime;
+            this.fireTaskRemoved(task);
+            this.fireTaskCompleted(task, new TaskMetrics(task, node.startTime
+                    - node.addTime, runningTime, queueDepth, false));
+        } finally {
+            // a task interrupted by an Error is not finished: its dependents
+            // are cancelled
+            boolean success = task.getState() == TaskState.FINISHED;
+            List<TaskNode> ready = new ArrayList<TaskNode>();
+            List<TaskNode> cancelledNodes = new ArrayList<TaskNode>();
+            // the dependents are released and the task leaves the manager at
+            // once, so that no task can be added as a dependent of a finished
+            // node
+            synchronized (this.taskLock) {
+                this.runningNodeCount--;
+                for (TaskNode dependent : node.dependents) {
+                    if (success) {
+                        dependent.remainingDependencies--;
+                        ready.add(dependent);
+                    } else {
+                        this.collectCancelled(dependent, cancelledNodes);
+                    }
+                }
+                node.dependents.clear();
+                node.finished = true;
+                this.nodes.remove(task);
+                this.taskLock.notifyAll();
+            }
+            this.capacity.release();
+            this.completeCancelled(cancelledNodes);
+            for (TaskNode dependent : ready) {
+                this.submitIfReady(dependent);
+            }
+        }
+    }
+
+    /**
+     * mark a waiting node and all its waiting dependents as cancelled. Must be
+     * called under taskLock, then completeCancelled must be called outside
+     * the lock
+     */
+    private void collectCancelled(TaskNode node, List<TaskNode> cancelledNodes) {
+        if (node.cancelled || node.started) {
+            return;
+        }
+        node.cancelled = true;
+        node.cancelTime = System.nanoTime();
+        this.waitingNodeCount--;
+        cancelledNodes.add(node);
+        for (TaskNode dependent : node.dependents) {
+            this.collectCancelled(dependent, cancelledNodes);
+        }
+    }
+
+    /**
+     * notify the cancellation of nodes and remove them from the manager
+     */
+    private void completeCancelled(List<TaskNode> cancelledNodes) {
+        for (TaskNode node : cancelledNodes) {
+            node.task.requestStop();
+            if (node.task instanceof AbstractTask) {
+                ((AbstractTask) node.task).setState(TaskState.STOPPED);
+            }
+            this.fireTaskRemoved(node.task);
+            this.fireTaskCompleted(node.task, new TaskMetrics(node.task,
+                    node.cancelTime - node.addTime, 0, this
+                            .getPendingTaskCount(), true));
+            synchronized (this.taskLock) {
+                this.nodes.remove(node.task);
+                this.taskLock.notifyAll();
+            }
+            this.capacity.release();
+        }
+    }
+
     /**
      * If there some pending tasks and running limit is not reached, start tasks
      */
@@ -265,6 +563,9 @@ public class TaskManager implements TaskListener<Task> {
      */
     public int getPendingTaskCount() {
         synchronized (this.taskLock) {
+            if (this.isExecutorMode()) {
+                return this.waitingNodeCount;
+            }
             return this.pendingTasks.size();
         }
     }
@@ -274,6 +575,9 @@ public class TaskManager implements TaskListener<Task> {
      */
     public int getRunningTaskCount() {
         synchronized (this.taskLock) {
+            if (this.isExecutorMode()) {
+                return this.runningNodeCount;
+            }
             return this.runningTasks.size();
         }
     }
@@ -349,6 +653,24 @@ public class TaskManager implements TaskListener<Task> {
 
     }
 
+    /**
+     * a task has been completed or cancelled in executor mode
+     * 
+     * @param task
+     *            completed task
+     * @param metrics
+     *            task timing measures
+     */
+    private void fireTaskCompleted(Task task, TaskMetrics metrics) {
+        TaskManagerListener listeners[] = null;
+        synchronized (this.listeners) {
+            listeners = this.listeners.toArray(DUMMYTASKMANAGERLISTENERARRAY);
+        }
+        for (TaskManagerListener listener : listeners) {
+            listener.onTaskCompleted(task, metrics);
+        }
+    }
+
     /**
      * @return the listeners
      */
@@ -423,6 +745,26 @@ public class TaskManager implements TaskListener<Task> {
     }
 
 
+    /**
+     * a task and its dependencies in executor mode
+     */
+    private static class TaskNode {
+        private final Task task;
+        private final List<TaskNode> dependents = new ArrayList<TaskNode>();
+        private final long addTime = System.nanoTime();
+        private long startTime = 0;
+        private long cancelTime = 0;
+        private int remainingDependencies = 0;
+        private boolean submitted = false;
+        private boolean started = false;
+        private boolean cancelled = false;
+        private boolean finished = false;
+
+        public TaskNode(Task task) {
+            this.task = task;
+        }
+    }
+
     private static class TaskTerminationWaiter implements TaskListener<Task> {
         private Task task = null;
 
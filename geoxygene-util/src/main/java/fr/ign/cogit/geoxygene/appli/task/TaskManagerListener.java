@@ -54,4 +54,16 @@ public interface TaskManagerListener {
      */
     public void onTaskRemoved(final Task task);
 
+    /**
+     * a task has been completed or cancelled in a manager running in executor
+     * mode. Does nothing by default
+     * 
+     * @param task
+     * @param metrics
+     *            task timing measures
+     */
+    public default void onTaskCompleted(final Task task,
+            final TaskMetrics metrics) {
+    }
+
 }
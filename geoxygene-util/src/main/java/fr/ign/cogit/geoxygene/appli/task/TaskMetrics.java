@@ -0,0 +1,108 @@
+/*******************************************************************************
+ * This file is part of the GeOxygene project source files.
+ *
+ * GeOxygene aims at providing an open framework which implements OGC/ISO
+ * specifications for the development and deployment of geographic (GIS)
+ * applications. It is a open source contribution of the COGIT laboratory at the
+ * Institut Géographique National (the French National Mapping Agency).
+ *
+ * See: http://oxygene-project.sourceforge.net
+ *
+ * Copyright (C) 2005 Institut Géographique National
+ *
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library (see file LICENSE if present); if not, write to the
+ * Free Software Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA
+ * 02111-1307 USA
+ *******************************************************************************/
+
+package fr.ign.cogit.geoxygene.appli.task;
+
+/**
+ * Timing measures of a task executed by a TaskManager in executor mode
+ */
+public class TaskMetrics {
+
+    private final Task task;
+    private final long waitingTime;
+    private final long runningTime;
+    private final int queueDepth;
+    private final boolean cancelled;
+
+    /**
+     * Constructor
+     *
+     * @param task
+     *            measured task
+     * @param waitingTime
+     *            time between task addition and task start (ns)
+     * @param runningTime
+     *            task execution time (ns), 0 if never started
+     * @param queueDepth
+     *            number of tasks waiting in the manager when this task
+     *            started or was cancelled
+     * @param cancelled
+     *            true if the task has been cancelled before being started
+     */
+    public TaskMetrics(Task task, long waitingTime, long runningTime,
+            int queueDepth, boolean cancelled) {
+        this.task = task;
+        this.waitingTime = waitingTime;
+        this.runningTime = runningTime;
+        this.queueDepth = queueDepth;
+        this.cancelled = cancelled;
+    }
+
+    /**
+     * @return the measured task
+     */
+    public Task getTask() {
+        return this.task;
+    }
+
+    /**
+     * @return the time spent waiting for dependencies and a free worker (ns)
+     */
+    public long getWaitingTime() {
+        return this.waitingTime;
+    }
+
+    /**
+     * @return the execution time (ns)
+     */
+    public long getRunningTime() {
+        return this.runningTime;
+    }
+
+    /**
+     * @return the number of tasks waiting in the manager when this task
+     *         started
+     */
+    public int getQueueDepth() {
+        return this.queueDepth;
+    }
+
+    /**
+     * @return true if the task has been cancelled before being started
+     */
+    public boolean isCancelled() {
+        return this.cancelled;
+    }
+
+    @Override
+    public String toString() {
+        return "TaskMetrics [" + this.task.getName() + " waiting = "
+                + this.waitingTime / 1000000 + "ms running = "
+                + this.runningTime / 1000000 + "ms queue depth = "
+                + this.queueDepth + (this.cancelled ? " cancelled" : "") + "]";
+    }
+}
@@ -0,0 +1,257 @@
+/*******************************************************************************
+ * This software is released under the licence CeCILL
+ *
+ * see Licence_CeCILL-C_fr.html see Licence_CeCILL-C_en.html
+ *
+ * see <a href="http://www.cecill.info/">http://www.cecill.info/a>
+ *
+ * @copyright IGN
+ ******************************************************************************/
+package fr.ign.cogit.geoxygene.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Runs a computation on the range [0, size) split into chunks, in parallel on
+ * a pool of daemon threads shared by the whole application.
+ * <p>
+ * The calling thread processes chunks too, and the chunks are claimed one
+ * after the other by the threads, so that a slow chunk does not hold the
+ * others. The helpers that have not started when the calling thread runs out
+ * of chunks are cancelled: a computation never waits for a queued task, and
+ * computations can be nested (e.g. a parallel join inside a parallel
+ * loop) without exhausting the pool.
+ * <p>
+ * The first exception thrown by a chunk stops the claiming of new chunks and
+ * is rethrown by the calling thread once the running chunks are finished:
+ * unchecked exceptions and errors as they are, checked exceptions wrapped in
+ * a {@link CompletionException}. If the calling thread is interrupted, the
+ * computation stops in the same way, the interrupt flag is restored and a
+ * {@link CancellationException} is thrown. No chunk is still running when a
+ * method of this class returns or throws.
+ */
+public final class ParallelChunks {
+
+  /**
+   * Computation on a range of indices.
+   */
+  public interface RangeTask {
+    /**
+     * @param start first index of the chunk
+     * @param end index after the last index of the chunk
+     * @throws Exception
+     */
+    public void run(int start, int end) throws Exception;
+  }
+
+  /**
+   * Computation of a result on a range of indices.
+   */
+  public interface RangeFunction<R> {
+    /**
+     * @param start first index of the chunk
+     * @param end index after the last index of the chunk
+     * @return the result of the chunk
+     * @throws Exception
+     */
+    public R apply(int start, int end) throws Exception;
+  }
+
+  /**
+   * Computation of a result for one item.
+   */
+  public interface ItemFunction<T, R> {
+    public R apply(T item) throws Exception;
+  }
+
+  /** number of chunks per thread when it is not given, to balance the work */
+  private static final int CHUNKS_PER_THREAD = 4;
+
+  private static final ExecutorService POOL;
+  static {
+    final int nbThreads = Runtime.getRuntime().availableProcessors();
+    ThreadPoolExecutor pool = new ThreadPoolExecutor(nbThreads, nbThreads, 30,
+        TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+        new ThreadFactory() {
+          private final AtomicInteger count = new AtomicInteger();
+
+          @Override
+          public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "ParallelChunks-"
+                + this.count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+          }
+        });
+    pool.allowCoreThreadTimeOut(true);
+    POOL = pool;
+  }
+
+  private ParallelChunks() {
+  }
+
+  /**
+   * @return the default number of threads, the number of processors
+   */
+  public static int getDefaultThreads() {
+    return Runtime.getRuntime().availableProcessors();
+  }
+
+  /**
+   * Runs task on [0, size) split into several chunks per thread.
+   * @param size
+   * @param nbThreads maximal number of threads, the calling thread included:
+   *          the task only runs in the calling thread if 1
+   * @param task
+   */
+  public static void forEach(int size, int nbThreads, RangeTask task) {
+    ParallelChunks.forEach(size, nbThreads, CHUNKS_PER_THREAD * nbThreads,
+        task);
+  }
+
+  /**
+   * Runs task on [0, size) split into nbChunks chunks of equal size.
+   * @param size
+   * @param nbThreads maximal number of threads, the calling thread included
+   * @param nbChunks
+   * @param task
+   */
+  public static void forEach(int size, int nbThreads, int nbChunks,
+      final RangeTask task) {
+    ParallelChunks.map(size, nbThreads, nbChunks, new RangeFunction<Void>() {
+      @Override
+      public Void apply(int start, int end) throws Exception {
+        task.run(start, end);
+        return null;
+      }
+    });
+  }
+
+  /**
+   * Applies function to each item.
+   * @param items
+   * @param nbThreads maximal number of threads, the calling thread included
+   * @param function
+   * @return the results, in the order of the items
+   */
+  public static <T, R> List<R> map(final List<T> items, int nbThreads,
+      final ItemFunction<? super T, R> function) {
+    return ParallelChunks.map(items.size(), nbThreads, items.size(),
+        new RangeFunction<R>() {
+          @Override
+          public R apply(int start, int end) throws Exception {
+            return function.apply(items.get(start));
+          }
+        });
+  }
+
+  /**
+   * Applies function to [0, size) split into nbChunks chunks of equal size.
+   * @param size
+   * @param nbThreads maximal number of threads, the calling thread included:
+   *          the function only runs in the calling thread if 1
+   * @param nbChunks number of chunks, at most size
+   * @param function
+   * @return the results of the chunks, in the order of the chunks
+   */
+  @SuppressWarnings("unchecked")
+  public static <R> List<R> map(final int size, int nbThreads, int nbChunks,
+      final RangeFunction<R> function) {
+    if (size <= 0) {
+      return new ArrayList<R>(0);
+    }
+    final int n = Math.max(1, Math.min(nbChunks, size));
+    final Object[] results = new Object[n];
+    final AtomicInteger next = new AtomicInteger();
+    final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+    Runnable worker = new Runnable() {
+      @Override
+      public void run() {
+        int i;
+        while (failure.get() == null && (i = next.getAndIncrement()) < n) {
+          try {
+            results[i] = function.apply(ParallelChunks.bound(i, size, n),
+                ParallelChunks.bound(i + 1, size, n));
+          } catch (Throwable t) {
+            if (!failure.compareAndSet(null, t)) {
+              failure.get().addSuppressed(t);
+            }
+          }
+          if (Thread.currentThread().isInterrupted()) {
+            failure.compareAndSet(null, new InterruptedException());
+          }
+        }
+      }
+    };
+    List<Future<?>> helpers = new ArrayList<Future<?>>();
+    for (int k = Math.min(nbThreads, n) - 1; k > 0; k--) {
+      helpers.add(POOL.submit(worker));
+    }
+    worker.run();
+    boolean interrupted = false;
+    for (Future<?> helper : helpers) {
+      // a helper that has not started will not find any chunk
+      if (helper.cancel(false)) {
+        continue;
+      }
+      while (true) {
+        try {
+          helper.get();
+          break;
+        } catch (InterruptedException e) {
+          // stop claiming chunks, but wait for the running ones
+          interrupted = true;
+          failure.compareAndSet(null, e);
+        } catch (ExecutionException e) {
+          // the worker catches everything
+          break;
+        } catch (CancellationException e) {
+          break;
+        }
+      }
+    }
+    Throwable t = failure.get();
+    if (interrupted || t instanceof InterruptedException) {
+      Thread.currentThread().interrupt();
+    }
+    if (t != null) {
+      throw ParallelChunks.unchecked(t);
+    }
+    return (List<R>) Collections.unmodifiableList(Arrays.asList(results));
+  }
+
+  /** Start of chunk i among n chunks of [0, size). */
+  private static int bound(int i, int size, int n) {
+    return (int) ((long) i * size / n);
+  }
+
+  private static RuntimeException unchecked(Throwable t) {
+    if (t instanceof InterruptedException) {
+      CancellationException e = new CancellationException("Interrupted");
+      e.initCause(t);
+      return e;
+    }
+    if (t instanceof RuntimeException) {
+      return (RuntimeException) t;
+    }
+    if (t instanceof Error) {
+      throw (Error) t;
+    }
+    return new CompletionException(t);
+  }
+
+}
@@ -0,0 +1,359 @@
+/**
+ * This software is released under the licence CeCILL
+ *
+ * see Licence_CeCILL-C_fr.html see Licence_CeCILL-C_en.html
+ *
+ * see <a href="http://www.cecill.info/">http://www.cecill.info/a>
+ *
+ * @copyright IGN
+ *
+ */
+package fr.ign.cogit.geoxygene.util.string;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Index de toponymes pour la recherche approchée de noms.
+ * <p>
+ * Les noms sont normalisés avec {@link ApproximateMatcher#process(String)}
+ * (accents, casse, tirets, espaces) puis découpés en bigrammes (avec un
+ * caractère de bordure au début et à la fin). Une liste inversée associe à
+ * chaque bigramme les noms qui le contiennent. Deux chaînes à une distance
+ * d'édition k partagent au moins max(|s|, |t|) + 1 - 2k bigrammes : seuls les
+ * noms qui atteignent ce seuil sont vérifiés par un calcul de distance de
+ * Levenshtein borné. Pour les noms trop courts pour ce filtre, on parcourt
+ * seulement les noms de longueur compatible.
+ * <p>
+ * Les toponymes peuvent être localisés pour combiner la recherche par nom et
+ * la recherche spatiale (par distance à un point).
+ * <p>
+ * L'index n'est pas synchronisé : une fois construit, il peut être interrogé
+ * par plusieurs threads.
+ *
+ * @param <T> type des objets indexés
+ */
+public class ToponymIndex<T> {
+
+  /** Caractère de bordure des bigrammes. */
+  private static final char BORDER = '\u0000';
+
+  private final ApproximateMatcher matcher;
+  private final List<String> names = new ArrayList<String>();
+  private final List<T> values = new ArrayList<T>();
+  private double[] xs = new double[16];
+  private double[] ys = new double[16];
+  /** bigramme -> couples (identifiant, nombre d'occurrences) */
+  private final Map<Integer, IntList> grams = new HashMap<Integer, IntList>();
+  /** longueur du nom normalisé -> identifiants */
+  private final Map<Integer, IntList> lengths = new HashMap<Integer, IntList>();
+
+  /**
+   * Index ignorant les accents, la casse, les tirets et les espaces.
+   */
+  public ToponymIndex() {
+    this(new ApproximateMatcher(true, true, true, true));
+  }
+
+  /**
+   * @param matcher normalisation appliquée aux noms indexés et recherchés
+   */
+  public ToponymIndex(ApproximateMatcher matcher) {
+    this.matcher = matcher;
+  }
+
+  /**
+   * Normalise un nom comme le fait l'index.
+   * @param name nom
+   * @return le nom normalisé
+   */
+  public String normalize(String name) {
+    return this.matcher.process(name);
+  }
+
+  public int size() {
+    return this.names.size();
+  }
+
+  /**
+   * Ajoute un toponyme non localisé.
+   * @param name nom
+   * @param value objet associé
+   */
+  public void add(String name, T value) {
+    this.add(name, value, Double.NaN, Double.NaN);
+  }
+
+  /**
+   * Ajoute un toponyme localisé.
+   * @param name nom
+   * @param value objet associé
+   * @param x abscisse
+   * @param y ordonnée
+   */
+  public void add(String name, T value, double x, double y) {
+    String normalized = this.normalize(name);
+    int id = this.names.size();
+    this.names.add(normalized);
+    this.values.add(value);
+    if (id == this.xs.length) {
+      double[] nx = new double[2 * id];
+      double[] ny = new double[2 * id];
+      System.arraycopy(this.xs, 0, nx, 0, id);
+      System.arraycopy(this.ys, 0, ny, 0, id);
+      this.xs = nx;
+      this.ys = ny;
+    }
+    this.xs[id] = x;
+    this.ys[id] = y;
+    for (Map.Entry<Integer, Integer> gram : bigrams(normalized).entrySet()) {
+      IntList postings = this.grams.get(gram.getKey());
+      if (postings == null) {
+        postings = new IntList();
+        this.grams.put(gram.getKey(), postings);
+      }
+      postings.add(id);
+      postings.add(gram.getValue().intValue());
+    }
+    IntList ids = this.lengths.get(normalized.length());
+    if (ids == null) {
+      ids = new IntList();
+      this.lengths.put(normalized.length(), ids);
+    }
+    ids.add(id);
+  }
+
+  /**
+   * Recherche les toponymes à une distance d'édition inférieure ou égale à
+   * maxDistance du nom donné.
+   * @param name nom recherché
+   * @param maxDistance distance de Levenshtein maximale (après normalisation)
+   * @return les toponymes trouvés, triés par distance croissante
+   */
+  public List<Match<T>> search(String name, int maxDistance) {
+    return this.search(name, maxDistance, Double.NaN, Double.NaN,
+        Double.POSITIVE_INFINITY);
+  }
+
+  /**
+   * Recherche les toponymes à une distance d'édition inférieure ou égale à
+   * maxDistance du nom donné, et situés à moins de radius du point (x, y). Les
+   * toponymes non localisés ne sont pas retenus si le rayon est fini.
+   * @param name nom recherché
+   * @param maxDistance distance de Levenshtein maximale (après normalisation)
+   * @param x abscisse du point
+   * @param y ordonnée du point
+   * @param radius rayon de recherche
+   * @return les toponymes trouvés, triés par distance d'édition croissante
+   */
+  public List<Match<T>> search(String name, int maxDistance, double x,
+      double y, double radius) {
+    String query = this.normalize(name);
+    int length = query.length();
+    int k = Math.max(0, maxDistance);
+    boolean spatial = !Double.isInfinite(radius);
+    double radius2 = radius * radius;
+    List<Match<T>> result = new ArrayList<Match<T>>();
+    // identifiant -> nombre de bigrammes communs
+    Map<Integer, int[]> counts = new HashMap<Integer, int[]>();
+    for (Map.Entry<Integer, Integer> gram : bigrams(query).entrySet()) {
+      IntList postings = this.grams.get(gram.getKey());
+      if (postings == null) {
+        continue;
+      }
+      int occurrences = gram.getValue().intValue();
+      for (int i = 0; i < postings.size; i += 2) {
+        int id = postings.data[i];
+        if (Math.abs(this.names.get(id).length() - length) > k) {
+          continue;
+        }
+        int[] count = counts.get(id);
+        if (count == null) {
+          count = new int[1];
+          counts.put(id, count);
+        }
+        count[0] += Math.min(occurrences, postings.data[i + 1]);
+      }
+    }
+    for (Map.Entry<Integer, int[]> entry : counts.entrySet()) {
+      int id = entry.getKey().intValue();
+      String candidate = this.names.get(id);
+      if (threshold(length, candidate.length(), k) <= 0
+          || entry.getValue()[0] < threshold(length, candidate.length(), k)) {
+        // les noms courts sont traités ci-dessous
+        continue;
+      }
+      this.verify(query, id, k, spatial, x, y, radius2, result);
+    }
+    // noms trop courts pour le filtre par bigrammes
+    for (int l = Math.max(0, length - k); l <= length + k; l++) {
+      if (threshold(length, l, k) > 0) {
+        continue;
+      }
+      IntList ids = this.lengths.get(l);
+      if (ids == null) {
+        continue;
+      }
+      for (int i = 0; i < ids.size; i++) {
+        this.verify(query, ids.data[i], k, spatial, x, y, radius2, result);
+      }
+    }
+    Collections.sort(result, new Comparator<Match<T>>() {
+      @Override
+      public int compare(Match<T> m1, Match<T> m2) {
+        if (m1.distance != m2.distance) {
+          return m1.distance < m2.distance ? -1 : 1;
+        }
+        return m1.id < m2.id ? -1 : (m1.id == m2.id ? 0 : 1);
+      }
+    });
+    return result;
+  }
+
+  private void verify(String query, int id, int k, boolean spatial, double x,
+      double y, double radius2, List<Match<T>> result) {
+    if (spatial) {
+      double dx = this.xs[id] - x;
+      double dy = this.ys[id] - y;
+      // les toponymes non localisés donnent NaN et ne sont pas retenus
+      if (!(dx * dx + dy * dy <= radius2)) {
+        return;
+      }
+    }
+    String candidate = this.names.get(id);
+    int distance = distance(query, candidate, k);
+    if (distance <= k) {
+      result.add(new Match<T>(id, candidate, this.values.get(id), distance));
+    }
+  }
+
+  /**
+   * Nombre minimal de bigrammes communs entre deux chaînes de longueurs l1 et
+   * l2 à une distance d'édition au plus k.
+   */
+  private static int threshold(int l1, int l2, int k) {
+    return Math.max(l1, l2) + 1 - 2 * k;
+  }
+
+  /**
+   * Bigrammes d'une chaîne bordée, avec leur nombre d'occurrences.
+   */
+  private static Map<Integer, Integer> bigrams(String s) {
+    Map<Integer, Integer> result = new HashMap<Integer, Integer>();
+    char previous = BORDER;
+    for (int i = 0; i <= s.length(); i++) {
+      char c = (i < s.length()) ? s.charAt(i) : BORDER;
+      Integer gram = Integer.valueOf((previous << 16) | c);
+      Integer count = result.get(gram);
+      result.put(gram, Integer.valueOf(count == null ? 1 : count.intValue() + 1));
+      previous = c;
+    }
+    return result;
+  }
+
+  /**
+   * Distance de Levenshtein bornée : seule la bande de largeur 2k + 1 autour
+   * de la diagonale est calculée, et le calcul s'arrête dès qu'une ligne
+   * dépasse k.
+   * @return la distance si elle est inférieure ou égale à k, k + 1 sinon
+   */
+  static int distance(String s1, String s2, int k) {
+    int n = s1.length();
+    int m = s2.length();
+    if (Math.abs(n - m) > k) {
+      return k + 1;
+    }
+    int infinity = k + 1;
+    int[] previous = new int[m + 1];
+    int[] current = new int[m + 1];
+    for (int j = 0; j <= m; j++) {
+      previous[j] = Math.min(j, infinity);
+    }
+    for (int i = 1; i <= n; i++) {
+      int from = Math.max(1, i - k);
+      int to = Math.min(m, i + k);
+      current[0] = Math.min(i, infinity);
+      if (from > 1) {
+        current[from - 1] = infinity;
+      }
+      int rowMin = current[0] <= k && from == 1 ? current[0] : infinity;
+      char c = s1.charAt(i - 1);
+      for (int j = from; j <= to; j++) {
+        int cost = (c == s2.charAt(j - 1)) ? 0 : 1;
+        int d = Math.min(previous[j - 1] + cost, Math.min(previous[j] + 1,
+            current[j - 1] + 1));
+        current[j] = Math.min(d, infinity);
+        rowMin = Math.min(rowMin, current[j]);
+      }
+      if (to < m) {
+        current[to + 1] = infinity;
+      }
+      if (rowMin > k) {
+        return infinity;
+      }
+      int[] swap = previous;
+      previous = current;
+      current = swap;
+    }
+    return previous[m];
+  }
+
+  /**
+   * Toponyme trouvé par une recherche.
+   * @param <T> type des objets indexés
+   */
+  public static class Match<T> {
+    private final int id;
+    private final String name;
+    private final T value;
+    private final int distance;
+
+    Match(int id, String name, T value, int distance) {
+      this.id = id;
+      this.name = name;
+      this.value = value;
+      this.distance = distance;
+    }
+
+    /** @return le nom normalisé du toponyme */
+    public String getName() {
+      return this.name;
+    }
+
+    /** @return l'objet associé au toponyme */
+    public T getValue() {
+      return this.value;
+    }
+
+    /** @return la distance d'édition au nom recherché */
+    public int getDistance() {
+      return this.distance;
+    }
+
+    @Override
+    public String toString() {
+      return this.name + " (" + this.distance + ")";
+    }
+  }
+
+  /**
+   * Liste d'entiers extensible.
+   */
+  private static class IntList {
+    int[] data = new int[4];
+    int size = 0;
+
+    void add(int value) {
+      if (this.size == this.data.length) {
+        int[] larger = new int[2 * this.size];
+        System.arraycopy(this.data, 0, larger, 0, this.size);
+        this.data = larger;
+      }
+      this.data[this.size++] = value;
+    }
+  }
+}
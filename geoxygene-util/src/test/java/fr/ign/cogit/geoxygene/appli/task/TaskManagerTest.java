@@ -1,5 +1,10 @@
 package fr.ign.cogit.geoxygene.appli.task;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
 import junit.framework.Assert;
 
 import org.junit.Test;
@@ -52,6 +57,170 @@ public class TaskManagerTest {
 
     }
 
+    @Test
+    public void testExecutorDependencies() throws InterruptedException {
+        TaskManager manager = new TaskManager(4, 3);
+        final List<String> order = Collections
+                .synchronizedList(new ArrayList<String>());
+        final List<TaskMetrics> metrics = Collections
+                .synchronizedList(new ArrayList<TaskMetrics>());
+        manager.addTaskManagerListener(new MetricsListener(order, metrics));
+        FakeTask load = new FakeTask("load", 5, 10);
+        FakeTask index = new FakeTask("index", 2, 10);
+        FakeTask match = new FakeTask("match", 2, 10);
+        FakeTask export = new FakeTask("export", 1, 1);
+        Assert.assertTrue(manager.addTask(load));
+        Assert.assertTrue(manager.addTask(index, load));
+        Assert.assertTrue(manager.addTask(match, load, index));
+        // blocks until load completes (queue capacity is 3)
+        Assert.assertTrue(manager.addTask(export, match));
+        Assert.assertTrue(manager.awaitCompletion(10, TimeUnit.SECONDS));
+        manager.shutdown();
+        Assert.assertEquals(4, order.size());
+        Assert.assertEquals("load", order.get(0));
+        Assert.assertEquals("index", order.get(1));
+        Assert.assertEquals("match", order.get(2));
+        Assert.assertEquals("export", order.get(3));
+        Assert.assertEquals(TaskState.FINISHED, export.getState());
+        Assert.assertEquals(4, metrics.size());
+        for (TaskMetrics m : metrics) {
+            Assert.assertFalse(m.isCancelled());
+            Assert.assertTrue(m.getRunningTime() > 0);
+        }
+        Assert.assertEquals(0, manager.getPendingTaskCount());
+        Assert.assertEquals(0, manager.getRunningTaskCount());
+    }
+
+    @Test
+    public void testExecutorCancellation() throws InterruptedException {
+        TaskManager manager = new TaskManager(2, 10);
+        final List<String> order = Collections
+                .synchronizedList(new ArrayList<String>());
+        final List<TaskMetrics> metrics = Collections
+                .synchronizedList(new ArrayList<TaskMetrics>());
+        manager.addTaskManagerListener(new MetricsListener(order, metrics));
+        FakeTask failing = new FakeTask("failing", 5, 10) {
+            @Override
+            public void run() {
+                super.run();
+                throw new IllegalStateException("failure");
+            }
+        };
+        FakeTask child = new FakeTask("child", 1, 1);
+        FakeTask grandChild = new FakeTask("grandChild", 1, 1);
+        FakeTask independent = new FakeTask("independent", 1, 1);
+        manager.addTask(failing);
+        manager.addTask(child, failing);
+        manager.addTask(grandChild, child);
+        manager.addTask(independent);
+        Assert.assertTrue(manager.awaitCompletion(10, TimeUnit.SECONDS));
+        manager.shutdown();
+        Assert.assertEquals(TaskState.ERROR, failing.getState());
+        Assert.assertEquals(TaskState.STOPPED, child.getState());
+        Assert.assertEquals(TaskState.STOPPED, grandChild.getState());
+        Assert.assertEquals(TaskState.FINISHED, independent.getState());
+        Assert.assertEquals(4, metrics.size());
+        int cancelled = 0;
+        for (TaskMetrics m : metrics) {
+            if (m.isCancelled()) {
+                cancelled++;
+                Assert.assertEquals(0, m.getRunningTime());
+            }
+        }
+        Assert.assertEquals(2, cancelled);
+    }
+
+    @Test
+    public void testExecutorError() throws InterruptedException {
+        TaskManager manager = new TaskManager(2, 2);
+        FakeTask failing = new FakeTask("failing", 5, 10) {
+            @Override
+            public void run() {
+                this.setState(TaskState.RUNNING);
+                throw new Error("failure");
+            }
+        };
+        FakeTask child = new FakeTask("child", 1, 1);
+        manager.addTask(failing);
+        manager.addTask(child, failing);
+        // the Error does not keep the task in the manager
+        Assert.assertTrue(manager.awaitCompletion(10, TimeUnit.SECONDS));
+        Assert.assertEquals(TaskState.STOPPED, child.getState());
+        // nor its permit: the whole capacity is available again
+        FakeTask next1 = new FakeTask("next 1", 1, 1);
+        FakeTask next2 = new FakeTask("next 2", 1, 1);
+        Assert.assertTrue(manager.addTask(next1));
+        Assert.assertTrue(manager.addTask(next2));
+        Assert.assertTrue(manager.awaitCompletion(10, TimeUnit.SECONDS));
+        manager.shutdown();
+        Assert.assertEquals(TaskState.FINISHED, next1.getState());
+        Assert.assertEquals(TaskState.FINISHED, next2.getState());
+        Assert.assertEquals(0, manager.getPendingTaskCount());
+        Assert.assertEquals(0, manager.getRunningTaskCount());
+    }
+
+    @Test
+    public void testDependencyOnCompletingTask() throws InterruptedException {
+        TaskManager manager = new TaskManager(4, 16);
+        // onTaskCompleted is not implemented
+        manager.addTaskManagerListener(new TaskManagerListener() {
+            @Override
+            public void onTaskAdded(Task task) {
+            }
+
+            @Override
+            public void onTaskStarted(Task task) {
+            }
+
+            @Override
+            public void onTaskRemoved(Task task) {
+            }
+        });
+        List<FakeTask> dependents = new ArrayList<FakeTask>();
+        for (int i = 0; i < 200; i++) {
+            FakeTask task = new FakeTask("task " + i, 1, 0);
+            FakeTask dependent = new FakeTask("dependent " + i, 1, 0);
+            manager.addTask(task);
+            // added while the dependency is running, completing or removed
+            Thread.sleep(i % 3);
+            manager.addTask(dependent, task);
+            dependents.add(dependent);
+        }
+        Assert.assertTrue(manager.awaitCompletion(10, TimeUnit.SECONDS));
+        manager.shutdown();
+        for (FakeTask dependent : dependents) {
+            Assert.assertEquals(TaskState.FINISHED, dependent.getState());
+        }
+    }
+
+    private static class MetricsListener implements TaskManagerListener {
+        private final List<String> order;
+        private final List<TaskMetrics> metrics;
+
+        public MetricsListener(List<String> order, List<TaskMetrics> metrics) {
+            this.order = order;
+            this.metrics = metrics;
+        }
+
+        @Override
+        public void onTaskAdded(Task task) {
+        }
+
+        @Override
+        public void onTaskStarted(Task task) {
+            this.order.add(task.getName());
+        }
+
+        @Override
+        public void onTaskRemoved(Task task) {
+        }
+
+        @Override
+        public void onTaskCompleted(Task task, TaskMetrics metrics) {
+            this.metrics.add(metrics);
+        }
+    }
+
     private class FakeTask extends AbstractTask {
 
         public int nbIterations = 100; // count
@@ -0,0 +1,127 @@
+package fr.ign.cogit.geoxygene.util;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import fr.ign.cogit.geoxygene.util.ParallelChunks.ItemFunction;
+import fr.ign.cogit.geoxygene.util.ParallelChunks.RangeFunction;
+import fr.ign.cogit.geoxygene.util.ParallelChunks.RangeTask;
+
+public class ParallelChunksTest {
+
+  @Test
+  public void testMapCoversRangeInOrder() {
+    for (int nbThreads : new int[] { 1, 4 }) {
+      List<int[]> chunks = ParallelChunks.map(103, nbThreads, 10,
+          new RangeFunction<int[]>() {
+            @Override
+            public int[] apply(int start, int end) {
+              return new int[] { start, end };
+            }
+          });
+      Assert.assertEquals(10, chunks.size());
+      Assert.assertEquals(0, chunks.get(0)[0]);
+      for (int i = 1; i < chunks.size(); i++) {
+        Assert.assertEquals(chunks.get(i - 1)[1], chunks.get(i)[0]);
+      }
+      Assert.assertEquals(103, chunks.get(9)[1]);
+    }
+    Assert.assertTrue(ParallelChunks.map(0, 4, 4,
+        new RangeFunction<Object>() {
+          @Override
+          public Object apply(int start, int end) {
+            throw new IllegalStateException();
+          }
+        }).isEmpty());
+  }
+
+  @Test
+  public void testMapItems() {
+    List<Integer> squares = ParallelChunks.map(Arrays.asList(1, 2, 3, 4, 5),
+        3, new ItemFunction<Integer, Integer>() {
+          @Override
+          public Integer apply(Integer item) {
+            return item * item;
+          }
+        });
+    Assert.assertEquals(Arrays.asList(1, 4, 9, 16, 25), squares);
+  }
+
+  @Test
+  public void testNested() {
+    final AtomicLong sum = new AtomicLong();
+    // more nested computations than threads in the pool
+    ParallelChunks.forEach(64, 64, 64, new RangeTask() {
+      @Override
+      public void run(int start, int end) {
+        ParallelChunks.forEach(100, 8, new RangeTask() {
+          @Override
+          public void run(int s, int e) {
+            for (int i = s; i < e; i++) {
+              sum.addAndGet(i);
+            }
+          }
+        });
+      }
+    });
+    Assert.assertEquals(64L * 4950, sum.get());
+  }
+
+  @Test
+  public void testFailure() {
+    final AtomicInteger done = new AtomicInteger();
+    try {
+      ParallelChunks.forEach(1000, 4, 1000, new RangeTask() {
+        @Override
+        public void run(int start, int end) {
+          if (start == 10) {
+            throw new IllegalArgumentException("chunk " + start);
+          }
+          done.incrementAndGet();
+        }
+      });
+      Assert.fail();
+    } catch (IllegalArgumentException e) {
+      Assert.assertEquals("chunk 10", e.getMessage());
+    }
+    // the other chunks are not claimed once a chunk failed
+    Assert.assertTrue(done.get() < 999);
+    try {
+      ParallelChunks.forEach(10, 2, new RangeTask() {
+        @Override
+        public void run(int start, int end) throws IOException {
+          throw new IOException("io");
+        }
+      });
+      Assert.fail();
+    } catch (CompletionException e) {
+      Assert.assertTrue(e.getCause() instanceof IOException);
+    }
+  }
+
+  @Test
+  public void testInterrupted() {
+    Thread.currentThread().interrupt();
+    try {
+      ParallelChunks.forEach(100, 2, 100, new RangeTask() {
+        @Override
+        public void run(int start, int end) {
+        }
+      });
+      Assert.fail();
+    } catch (CancellationException e) {
+      Assert.assertTrue(e.getCause() instanceof InterruptedException);
+    } finally {
+      Assert.assertTrue(Thread.interrupted());
+    }
+  }
+
+}
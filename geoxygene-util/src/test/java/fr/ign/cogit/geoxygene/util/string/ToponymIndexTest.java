@@ -0,0 +1,91 @@
+package fr.ign.cogit.geoxygene.util.string;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ToponymIndexTest {
+
+  private static final String[] SYLLABES = { "la", "bor", "de", "saint",
+      "roch", "mai", "son", "rou", "ge", "pont", "co", "lon", "ne", "-", " ",
+      "é", "chau", "me", "du", "roi", "x" };
+
+  private String toponyme(Random random) {
+    StringBuffer buffer = new StringBuffer();
+    int n = 1 + random.nextInt(5);
+    for (int i = 0; i < n; i++) {
+      buffer.append(SYLLABES[random.nextInt(SYLLABES.length)]);
+    }
+    return buffer.toString();
+  }
+
+  @Test
+  public void testSearch() {
+    Random random = new Random(35);
+    ApproximateMatcher matcher = new ApproximateMatcher(true, true, true, true);
+    ToponymIndex<Integer> index = new ToponymIndex<Integer>();
+    List<String> names = new ArrayList<String>();
+    for (int i = 0; i < 2000; i++) {
+      String name = this.toponyme(random);
+      names.add(name);
+      index.add(name, Integer.valueOf(i), random.nextDouble() * 1000, random
+          .nextDouble() * 1000);
+    }
+    Assert.assertEquals(2000, index.size());
+    for (int q = 0; q < 100; q++) {
+      String query = this.toponyme(random);
+      int k = random.nextInt(4);
+      Set<Integer> expected = new HashSet<Integer>();
+      for (int i = 0; i < names.size(); i++) {
+        if (matcher.distance(matcher.process(query), matcher.process(names
+            .get(i))) <= k) {
+          expected.add(Integer.valueOf(i));
+        }
+      }
+      Set<Integer> found = new HashSet<Integer>();
+      int previous = 0;
+      for (ToponymIndex.Match<Integer> match : index.search(query, k)) {
+        Assert.assertTrue(match.getDistance() >= previous);
+        previous = match.getDistance();
+        Assert.assertEquals(matcher.distance(matcher.process(query), match
+            .getName()), match.getDistance());
+        found.add(match.getValue());
+      }
+      Assert.assertEquals(expected, found);
+    }
+  }
+
+  @Test
+  public void testSpatialSearch() {
+    ToponymIndex<String> index = new ToponymIndex<String>();
+    index.add("Maison-Rouge", "a", 0, 0);
+    index.add("maison rouge", "b", 500, 500);
+    index.add("Maison Rougé", "c");
+    index.add("Pont-de-Colonne", "d", 10, 10);
+    Assert.assertEquals(3, index.search("maison rouge", 0).size());
+    List<ToponymIndex.Match<String>> matches = index.search("Maison Rouges",
+        1, 5, 5, 100);
+    Assert.assertEquals(1, matches.size());
+    Assert.assertEquals("a", matches.get(0).getValue());
+    Assert.assertEquals(1, matches.get(0).getDistance());
+  }
+
+  @Test
+  public void testBoundedDistance() {
+    ApproximateMatcher matcher = new ApproximateMatcher();
+    Random random = new Random(5);
+    for (int i = 0; i < 500; i++) {
+      String s1 = this.toponyme(random), s2 = this.toponyme(random);
+      int d = matcher.distance(s1, s2);
+      for (int k = 0; k < 6; k++) {
+        Assert.assertEquals(Math.min(d, k + 1), ToponymIndex.distance(s1, s2,
+            k));
+      }
+    }
+  }
+}